@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ELockType;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.smpclient.url.ISMPURLProvider;
+import com.helger.smpclient.url.SMPDNSResolutionException;
+
+/**
+ * An {@link ISMPURLProvider} that caches the participant to SMP URL resolution
+ * of an {@link IAS4SMPURLResolver}:
+ * <ul>
+ * <li>Positive results are cached for the TTL of the DNS records, bound by a
+ * minimum and maximum TTL.</li>
+ * <li>Negative results (participant not registered) are cached as well, but at
+ * most for the maximum negative TTL.</li>
+ * <li>If an entry is used after the configured percentage of its TTL elapsed,
+ * it is refreshed in the background while the cached value is returned. So for
+ * frequently used participants the sending thread never waits for DNS.</li>
+ * </ul>
+ * Technical resolution errors are never cached. Expired entries are purged
+ * once per {@link #PURGE_INTERVAL} and the number of cached entries is bound -
+ * if the limit is reached, the oldest entries are evicted. An instance of this
+ * class is meant to be shared, e.g. as the URL provider of all SMP clients -
+ * see {@link #getSharedDNSInstance(ISMPURLProvider)}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4CachingSMPURLProvider implements ISMPURLProvider, AutoCloseable
+{
+  public static final Duration DEFAULT_MIN_TTL = Duration.ofMinutes (1);
+  public static final Duration DEFAULT_MAX_TTL = Duration.ofDays (1);
+  public static final Duration DEFAULT_MAX_NEGATIVE_TTL = Duration.ofSeconds (30);
+  public static final int DEFAULT_REFRESH_AHEAD_PERCENTAGE = 75;
+  public static final int DEFAULT_MAX_CACHE_SIZE = 10_000;
+  /** The interval in which expired entries are purged */
+  public static final Duration PURGE_INTERVAL = Duration.ofMinutes (1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CachingSMPURLProvider.class);
+
+  private static final SimpleLock SHARED_LOCK = new SimpleLock ();
+  @GuardedBy ("SHARED_LOCK")
+  private static final ICommonsMap <ISMPURLProvider, AS4CachingSMPURLProvider> SHARED_INSTANCES = new CommonsHashMap <> ();
+
+  /**
+   * A single cache entry.
+   */
+  @Immutable
+  private static final class CacheEntry
+  {
+    private final URI m_aSMPURI;
+    private final long m_nRefreshAt;
+    private final long m_nExpiresAt;
+
+    CacheEntry (@Nullable final URI aSMPURI, final long nRefreshAt, final long nExpiresAt)
+    {
+      m_aSMPURI = aSMPURI;
+      m_nRefreshAt = nRefreshAt;
+      m_nExpiresAt = nExpiresAt;
+    }
+  }
+
+  private final IAS4SMPURLResolver m_aResolver;
+  private final ExecutorService m_aRefreshExecutor;
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, CacheEntry> m_aCache = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsSet <String> m_aRefreshesInProgress = new CommonsHashSet <> ();
+  @GuardedBy ("m_aRWLock")
+  private long m_nNextPurge = 0;
+
+  private volatile Duration m_aMinTTL = DEFAULT_MIN_TTL;
+  private volatile Duration m_aMaxTTL = DEFAULT_MAX_TTL;
+  private volatile Duration m_aMaxNegativeTTL = DEFAULT_MAX_NEGATIVE_TTL;
+  private volatile int m_nRefreshAheadPercentage = DEFAULT_REFRESH_AHEAD_PERCENTAGE;
+  private volatile int m_nMaxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+  public AS4CachingSMPURLProvider (@Nonnull final IAS4SMPURLResolver aResolver)
+  {
+    ValueEnforcer.notNull (aResolver, "Resolver");
+    m_aResolver = aResolver;
+    m_aRefreshExecutor = Executors.newSingleThreadExecutor (new BasicThreadFactory.Builder ().namingPattern ("phase4-smp-url-refresh-%d")
+                                                                                             .daemon (true)
+                                                                                             .build ());
+  }
+
+  /**
+   * Create a caching provider that uses {@link AS4SMPURLResolverDNS} on top of
+   * the provided URL provider.
+   *
+   * @param aURLProvider
+   *        The URL provider to be cached. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4CachingSMPURLProvider createDNS (@Nonnull final ISMPURLProvider aURLProvider)
+  {
+    return new AS4CachingSMPURLProvider (new AS4SMPURLResolverDNS (aURLProvider));
+  }
+
+  /**
+   * Get the shared caching provider for the provided URL provider, e.g.
+   * <code>PeppolURLProvider.INSTANCE</code>. The instance is created on first
+   * use via {@link #createDNS(ISMPURLProvider)} and is shared by all callers
+   * so that all SMP clients benefit from the same cache. The returned instance
+   * must not be closed by the caller.
+   *
+   * @param aURLProvider
+   *        The URL provider to be cached. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4CachingSMPURLProvider getSharedDNSInstance (@Nonnull final ISMPURLProvider aURLProvider)
+  {
+    ValueEnforcer.notNull (aURLProvider, "URLProvider");
+    return SHARED_LOCK.lockedGet ( () -> SHARED_INSTANCES.computeIfAbsent (aURLProvider,
+                                                                          AS4CachingSMPURLProvider::createDNS));
+  }
+
+  /**
+   * @return The resolver passed in the constructor. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4SMPURLResolver getResolver ()
+  {
+    return m_aResolver;
+  }
+
+  @Nonnull
+  public final Duration getMinTTL ()
+  {
+    return m_aMinTTL;
+  }
+
+  @Nonnull
+  public final Duration getMaxTTL ()
+  {
+    return m_aMaxTTL;
+  }
+
+  /**
+   * Set the bounds for the TTL of positive results.
+   *
+   * @param aMinTTL
+   *        The minimum TTL. May not be <code>null</code>.
+   * @param aMaxTTL
+   *        The maximum TTL. May not be <code>null</code> and must be &ge; the
+   *        minimum.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4CachingSMPURLProvider setTTLBounds (@Nonnull final Duration aMinTTL, @Nonnull final Duration aMaxTTL)
+  {
+    ValueEnforcer.notNull (aMinTTL, "MinTTL");
+    ValueEnforcer.notNull (aMaxTTL, "MaxTTL");
+    ValueEnforcer.isTrue (aMinTTL.compareTo (aMaxTTL) <= 0, "MinTTL must be <= MaxTTL");
+    m_aMinTTL = aMinTTL;
+    m_aMaxTTL = aMaxTTL;
+    return this;
+  }
+
+  @Nonnull
+  public final Duration getMaxNegativeTTL ()
+  {
+    return m_aMaxNegativeTTL;
+  }
+
+  /**
+   * @param aMaxNegativeTTL
+   *        The maximum duration, negative results are cached. May not be
+   *        <code>null</code>. Use {@link Duration#ZERO} to disable caching of
+   *        negative results.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4CachingSMPURLProvider setMaxNegativeTTL (@Nonnull final Duration aMaxNegativeTTL)
+  {
+    ValueEnforcer.notNull (aMaxNegativeTTL, "MaxNegativeTTL");
+    m_aMaxNegativeTTL = aMaxNegativeTTL;
+    return this;
+  }
+
+  @Nonnegative
+  public final int getRefreshAheadPercentage ()
+  {
+    return m_nRefreshAheadPercentage;
+  }
+
+  /**
+   * @param nRefreshAheadPercentage
+   *        The percentage (0-100) of the TTL after which a used entry is
+   *        refreshed in the background. 100 disables refresh ahead.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4CachingSMPURLProvider setRefreshAheadPercentage (final int nRefreshAheadPercentage)
+  {
+    ValueEnforcer.isBetweenInclusive (nRefreshAheadPercentage, "RefreshAheadPercentage", 0, 100);
+    m_nRefreshAheadPercentage = nRefreshAheadPercentage;
+    return this;
+  }
+
+  @Nonnegative
+  public final int getMaxCacheSize ()
+  {
+    return m_nMaxCacheSize;
+  }
+
+  /**
+   * @param nMaxCacheSize
+   *        The maximum number of cached entries. Must be &gt; 0. If the limit
+   *        is reached, the oldest entries are evicted.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4CachingSMPURLProvider setMaxCacheSize (@Nonnegative final int nMaxCacheSize)
+  {
+    ValueEnforcer.isGT0 (nMaxCacheSize, "MaxCacheSize");
+    m_nMaxCacheSize = nMaxCacheSize;
+    return this;
+  }
+
+  @Nonnull
+  private static String _getCacheKey (@Nonnull final IParticipantIdentifier aParticipantID,
+                                      @Nonnull final String sSMLZoneName)
+  {
+    return aParticipantID.getURIEncoded () + '@' + sSMLZoneName;
+  }
+
+  @Nonnull
+  private CacheEntry _createEntry (@Nonnull final AS4SMPURLResolution aResolution)
+  {
+    final Duration aTTL;
+    if (aResolution.isPositive ())
+    {
+      final Duration aResolvedTTL = aResolution.getTTL ();
+      if (aResolvedTTL.compareTo (m_aMinTTL) < 0)
+        aTTL = m_aMinTTL;
+      else
+        if (aResolvedTTL.compareTo (m_aMaxTTL) > 0)
+          aTTL = m_aMaxTTL;
+        else
+          aTTL = aResolvedTTL;
+    }
+    else
+    {
+      aTTL = aResolution.getTTL ().compareTo (m_aMaxNegativeTTL) > 0 ? m_aMaxNegativeTTL : aResolution.getTTL ();
+    }
+
+    final long nNow = System.currentTimeMillis ();
+    final long nTTLMillis = aTTL.toMillis ();
+    return new CacheEntry (aResolution.getSMPURI (),
+                           nNow + nTTLMillis * m_nRefreshAheadPercentage / 100,
+                           nNow + nTTLMillis);
+  }
+
+  @Nonnull
+  private CacheEntry _resolveAndCache (@Nonnull final String sKey,
+                                       @Nonnull final IParticipantIdentifier aParticipantID,
+                                       @Nonnull final String sSMLZoneName) throws SMPDNSResolutionException
+  {
+    final CacheEntry aEntry = _createEntry (m_aResolver.resolve (aParticipantID, sSMLZoneName));
+    m_aRWLock.writeLocked ( () -> _putLocked (sKey, aEntry));
+    return aEntry;
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _putLocked (@Nonnull final String sKey, @Nonnull final CacheEntry aEntry)
+  {
+    final long nNow = System.currentTimeMillis ();
+    final int nMaxCacheSize = m_nMaxCacheSize;
+    if (nNow >= m_nNextPurge)
+    {
+      // Expired entries are only purged once per interval, as the expiration
+      // is checked on access anyway
+      m_aCache.removeIfValue (x -> nNow >= x.m_nExpiresAt);
+      m_nNextPurge = nNow + PURGE_INTERVAL.toMillis ();
+    }
+
+    // Re-insert so that the insertion order reflects the age
+    m_aCache.remove (sKey);
+    final Iterator <String> it = m_aCache.keySet ().iterator ();
+    while (m_aCache.size () >= nMaxCacheSize && it.hasNext ())
+    {
+      // Evict the oldest entry
+      it.next ();
+      it.remove ();
+    }
+    m_aCache.put (sKey, aEntry);
+  }
+
+  private void _scheduleRefresh (@Nonnull final String sKey,
+                                 @Nonnull final IParticipantIdentifier aParticipantID,
+                                 @Nonnull final String sSMLZoneName)
+  {
+    if (!m_aRWLock.writeLockedBoolean ( () -> m_aRefreshesInProgress.add (sKey)))
+    {
+      // Already scheduled
+      return;
+    }
+
+    try
+    {
+      m_aRefreshExecutor.execute ( () -> {
+        try
+        {
+          _resolveAndCache (sKey, aParticipantID, sSMLZoneName);
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Refreshed SMP URL resolution of '" + sKey + "'");
+        }
+        catch (final SMPDNSResolutionException | RuntimeException ex)
+        {
+          // Keep the old entry until it expires
+          LOGGER.warn ("Failed to refresh SMP URL resolution of '" + sKey + "': " + ex.getMessage ());
+        }
+        finally
+        {
+          m_aRWLock.writeLocked ( () -> m_aRefreshesInProgress.remove (sKey));
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Closed in the meantime
+      m_aRWLock.writeLocked ( () -> m_aRefreshesInProgress.remove (sKey));
+    }
+  }
+
+  @Nonnull
+  public URI getSMPURIOfParticipant (@Nonnull final IParticipantIdentifier aParticipantID,
+                                     @Nonnull @Nonempty final String sSMLZoneName) throws SMPDNSResolutionException
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    ValueEnforcer.notEmpty (sSMLZoneName, "SMLZoneName");
+
+    final String sKey = _getCacheKey (aParticipantID, sSMLZoneName);
+    final long nNow = System.currentTimeMillis ();
+
+    CacheEntry aEntry = m_aRWLock.readLockedGet ( () -> m_aCache.get (sKey));
+    if (aEntry == null || nNow >= aEntry.m_nExpiresAt)
+    {
+      // Not cached or expired - resolve synchronously
+      aEntry = _resolveAndCache (sKey, aParticipantID, sSMLZoneName);
+    }
+    else
+      if (nNow >= aEntry.m_nRefreshAt)
+      {
+        // Still valid, but about to expire
+        _scheduleRefresh (sKey, aParticipantID, sSMLZoneName);
+      }
+
+    if (aEntry.m_aSMPURI == null)
+      throw new SMPDNSResolutionException ("The participant '" +
+                                           aParticipantID.getURIEncoded () +
+                                           "' is not registered in SML zone '" +
+                                           sSMLZoneName +
+                                           "'");
+    return aEntry.m_aSMPURI;
+  }
+
+  /**
+   * @return The number of cached entries, including negative and expired ones.
+   */
+  @Nonnegative
+  public int getCacheSize ()
+  {
+    return m_aRWLock.readLockedInt (m_aCache::size);
+  }
+
+  /**
+   * Remove all cached entries.
+   */
+  public void clearCache ()
+  {
+    m_aRWLock.writeLocked (m_aCache::clear);
+  }
+
+  /**
+   * Stop the background refresh. The cache can still be used afterwards, but
+   * entries are no longer refreshed ahead of time.
+   */
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aRefreshExecutor);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Resolver", m_aResolver)
+                                       .append ("MinTTL", m_aMinTTL)
+                                       .append ("MaxTTL", m_aMaxTTL)
+                                       .append ("MaxNegativeTTL", m_aMaxNegativeTTL)
+                                       .append ("RefreshAheadPercentage", m_nRefreshAheadPercentage)
+                                       .append ("MaxCacheSize", m_nMaxCacheSize)
+                                       .getToString ();
+  }
+}
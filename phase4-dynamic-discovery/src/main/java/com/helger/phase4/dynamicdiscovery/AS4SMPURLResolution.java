@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.net.URI;
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The result of resolving the SMP URL of a participant via
+ * {@link IAS4SMPURLResolver}. It contains the resolved URI (or none if the
+ * participant is not registered) together with the time to live of the
+ * underlying DNS records.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public final class AS4SMPURLResolution
+{
+  private final URI m_aSMPURI;
+  private final Duration m_aTTL;
+
+  private AS4SMPURLResolution (@Nullable final URI aSMPURI, @Nonnull final Duration aTTL)
+  {
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative (), "TTL may not be negative");
+    m_aSMPURI = aSMPURI;
+    m_aTTL = aTTL;
+  }
+
+  /**
+   * @return The resolved SMP URI or <code>null</code> if the participant is
+   *         not registered in the SML.
+   */
+  @Nullable
+  public URI getSMPURI ()
+  {
+    return m_aSMPURI;
+  }
+
+  /**
+   * @return <code>true</code> if an SMP URI was resolved, <code>false</code>
+   *         if this is a negative result.
+   */
+  public boolean isPositive ()
+  {
+    return m_aSMPURI != null;
+  }
+
+  /**
+   * @return The time to live of this result. Never <code>null</code>.
+   */
+  @Nonnull
+  public Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("SMPURI", m_aSMPURI).append ("TTL", m_aTTL).getToString ();
+  }
+
+  @Nonnull
+  public static AS4SMPURLResolution createPositive (@Nonnull final URI aSMPURI, @Nonnull final Duration aTTL)
+  {
+    ValueEnforcer.notNull (aSMPURI, "SMPURI");
+    return new AS4SMPURLResolution (aSMPURI, aTTL);
+  }
+
+  @Nonnull
+  public static AS4SMPURLResolution createNegative (@Nonnull final Duration aTTL)
+  {
+    return new AS4SMPURLResolution (null, aTTL);
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.NAPTRRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.dns.naptr.NaptrLookup;
+import com.helger.dns.naptr.NaptrResolver;
+import com.helger.dns.resolve.ResolverHelper;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.smpclient.url.AbstractBDXLURLProvider;
+import com.helger.smpclient.url.ISMPURLProvider;
+import com.helger.smpclient.url.SMPDNSResolutionException;
+
+/**
+ * The default {@link IAS4SMPURLResolver} that performs the DNS lookups based on
+ * an {@link ISMPURLProvider}:
+ * <ul>
+ * <li>For BDXL (NAPTR) based providers, the NAPTR records are queried
+ * directly, so that their TTL is available.</li>
+ * <li>For all other (CNAME based) providers, the SMP URI is created by the
+ * provider and the SMP host name is resolved to check if the participant is
+ * registered. As the JDK does not expose the TTL of address records, a fixed
+ * TTL is used.</li>
+ * </ul>
+ * Only definitive DNS answers (name or record type does not exist) result in
+ * negative resolutions. Transient DNS failures are reported as
+ * {@link SMPDNSResolutionException} so that they are never cached.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+public class AS4SMPURLResolverDNS implements IAS4SMPURLResolver
+{
+  /** The TTL to use, if the DNS does not provide one */
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes (30);
+  /** The TTL to use for negative results */
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes (1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4SMPURLResolverDNS.class);
+
+  private final ISMPURLProvider m_aURLProvider;
+
+  public AS4SMPURLResolverDNS (@Nonnull final ISMPURLProvider aURLProvider)
+  {
+    ValueEnforcer.notNull (aURLProvider, "URLProvider");
+    m_aURLProvider = aURLProvider;
+  }
+
+  /**
+   * @return The URL provider passed in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final ISMPURLProvider getURLProvider ()
+  {
+    return m_aURLProvider;
+  }
+
+  /**
+   * Create the DNS resolver to be used for the NAPTR lookups of the provided
+   * BDXL URL provider.
+   *
+   * @param aBDXLProvider
+   *        The BDXL URL provider. Never <code>null</code>.
+   * @return The resolver to use. May not be <code>null</code>.
+   */
+  @Nonnull
+  @OverrideOnDemand
+  protected Resolver createResolver (@Nonnull final AbstractBDXLURLProvider aBDXLProvider)
+  {
+    return ResolverHelper.createExtendedResolver (aBDXLProvider.customDNSServers ());
+  }
+
+  /**
+   * Perform the NAPTR lookup. Transient failures are retried via UDP and
+   * finally via TCP.
+   *
+   * @param aName
+   *        The DNS name to query. May not be <code>null</code>.
+   * @param aResolver
+   *        The resolver to use. May not be <code>null</code>.
+   * @return <code>null</code> if the name or the NAPTR records of the name do
+   *         not exist. The list of found records otherwise.
+   * @throws SMPDNSResolutionException
+   *         If the DNS lookup failed technically
+   */
+  @Nullable
+  static ICommonsList <NAPTRRecord> lookupNaptrRecords (@Nonnull final Name aName,
+                                                        @Nonnull final Resolver aResolver) throws SMPDNSResolutionException
+  {
+    final Lookup aLookup = new Lookup (aName, Type.NAPTR);
+    aLookup.setResolver (aResolver);
+    // Caching is done by the caller based on the TTL
+    aLookup.setCache (null);
+
+    aLookup.run ();
+    int nRetries = 0;
+    while (aLookup.getResult () == Lookup.TRY_AGAIN && nRetries < NaptrLookup.Builder.DEFAULT_MAX_RETRIES)
+    {
+      aLookup.run ();
+      nRetries++;
+    }
+    if (aLookup.getResult () == Lookup.TRY_AGAIN)
+    {
+      // Maybe UDP is blocked or the response is truncated
+      aResolver.setTCP (true);
+      aLookup.run ();
+    }
+
+    switch (aLookup.getResult ())
+    {
+      case Lookup.SUCCESSFUL:
+      {
+        final ICommonsList <NAPTRRecord> ret = new CommonsArrayList <> ();
+        for (final Record aRecord : aLookup.getAnswers ())
+          if (aRecord instanceof NAPTRRecord)
+            ret.add ((NAPTRRecord) aRecord);
+        return ret;
+      }
+      case Lookup.HOST_NOT_FOUND:
+      case Lookup.TYPE_NOT_FOUND:
+        // The participant is not registered
+        return null;
+      default:
+        // TRY_AGAIN or UNRECOVERABLE
+        throw new SMPDNSResolutionException ("NAPTR lookup of '" + aName + "' failed: " + aLookup.getErrorString ());
+    }
+  }
+
+  @Nonnull
+  private AS4SMPURLResolution _resolveNaptr (@Nonnull final AbstractBDXLURLProvider aBDXLProvider,
+                                             @Nonnull final IParticipantIdentifier aParticipantID,
+                                             @Nonnull @Nonempty final String sSMLZoneName) throws SMPDNSResolutionException
+  {
+    final String sDNSName = aBDXLProvider.getDNSNameOfParticipant (aParticipantID, sSMLZoneName);
+    final Name aName;
+    try
+    {
+      aName = Name.fromString (sDNSName, Name.root);
+    }
+    catch (final TextParseException ex)
+    {
+      throw new SMPDNSResolutionException ("Failed to parse '" + sDNSName + "' as a DNS name", ex);
+    }
+
+    final ICommonsList <NAPTRRecord> aRecords = lookupNaptrRecords (aName, createResolver (aBDXLProvider));
+    if (aRecords == null || aRecords.isEmpty ())
+      return AS4SMPURLResolution.createNegative (DEFAULT_NEGATIVE_TTL);
+
+    // The smallest TTL of all records is relevant
+    long nTTLSecs = Long.MAX_VALUE;
+    for (final NAPTRRecord aRecord : aRecords)
+      nTTLSecs = Math.min (nTTLSecs, aRecord.getTTL ());
+    final Duration aTTL = Duration.ofSeconds (nTTLSecs);
+
+    final String sURL = NaptrResolver.builder ()
+                                     .domainName (sDNSName)
+                                     .naptrRecords (aRecords)
+                                     .serviceName (aBDXLProvider.getNAPTRServiceName ())
+                                     .build ()
+                                     .resolveUNAPTR ();
+    if (StringHelper.hasNoText (sURL))
+      return AS4SMPURLResolution.createNegative (aTTL);
+
+    try
+    {
+      return AS4SMPURLResolution.createPositive (new URI (sURL), aTTL);
+    }
+    catch (final Exception ex)
+    {
+      throw new SMPDNSResolutionException ("Error building SMP URI from string '" + sURL + "'", ex);
+    }
+  }
+
+  @Nonnull
+  public AS4SMPURLResolution resolve (@Nonnull final IParticipantIdentifier aParticipantID,
+                                      @Nonnull @Nonempty final String sSMLZoneName) throws SMPDNSResolutionException
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    ValueEnforcer.notEmpty (sSMLZoneName, "SMLZoneName");
+
+    if (m_aURLProvider instanceof AbstractBDXLURLProvider)
+      return _resolveNaptr ((AbstractBDXLURLProvider) m_aURLProvider, aParticipantID, sSMLZoneName);
+
+    // CNAME based - no DNS lookup is performed by the provider itself
+    final URI aSMPURI = m_aURLProvider.getSMPURIOfParticipant (aParticipantID, sSMLZoneName);
+    try
+    {
+      InetAddress.getByName (aSMPURI.getHost ());
+      return AS4SMPURLResolution.createPositive (aSMPURI, DEFAULT_TTL);
+    }
+    catch (final UnknownHostException ex)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("SMP host '" + aSMPURI.getHost () + "' could not be resolved");
+      return AS4SMPURLResolution.createNegative (DEFAULT_NEGATIVE_TTL);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("URLProvider", m_aURLProvider).getToString ();
+  }
+}
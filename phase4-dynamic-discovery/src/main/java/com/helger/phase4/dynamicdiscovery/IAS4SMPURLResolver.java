@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.smpclient.url.SMPDNSResolutionException;
+
+/**
+ * Resolve the SMP URL of a participant including the time to live of the
+ * result. This is the backend of {@link AS4CachingSMPURLProvider}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ * @see AS4SMPURLResolverDNS
+ */
+@FunctionalInterface
+public interface IAS4SMPURLResolver
+{
+  /**
+   * Resolve the SMP URL of the provided participant.
+   *
+   * @param aParticipantID
+   *        The participant to resolve. May not be <code>null</code>.
+   * @param sSMLZoneName
+   *        The SML zone name to use. May neither be <code>null</code> nor
+   *        empty.
+   * @return The resolution result. A participant that is not registered must
+   *         be returned as a negative result. Never <code>null</code>.
+   * @throws SMPDNSResolutionException
+   *         In case the resolution failed for technical reasons. Such errors
+   *         are not cached.
+   */
+  @Nonnull
+  AS4SMPURLResolution resolve (@Nonnull IParticipantIdentifier aParticipantID,
+                               @Nonnull @Nonempty String sSMLZoneName) throws SMPDNSResolutionException;
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+import com.helger.smpclient.url.BDXLURLProvider;
+import com.helger.smpclient.url.PeppolURLProvider;
+import com.helger.smpclient.url.SMPDNSResolutionException;
+
+/**
+ * Test class for class {@link AS4CachingSMPURLProvider}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CachingSMPURLProviderTest
+{
+  private static final IParticipantIdentifier PID = new SimpleParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                     "9915:test");
+  private static final IParticipantIdentifier PID_UNKNOWN = new SimpleParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                             "9915:unknown");
+  private static final URI SMP_URI = URI.create ("http://smp.example.org/");
+  private static final String ZONE = "edelivery.tech.ec.europa.eu.";
+
+  @Test
+  public void testPositiveIsCached () throws Exception
+  {
+    final MockAS4SMPURLResolver aResolver = new MockAS4SMPURLResolver ().register (PID, SMP_URI);
+    try (final AS4CachingSMPURLProvider aProvider = new AS4CachingSMPURLProvider (aResolver))
+    {
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+      assertEquals (1, aResolver.getInvocationCount ());
+      assertEquals (1, aProvider.getCacheSize ());
+
+      aProvider.clearCache ();
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+      assertEquals (2, aResolver.getInvocationCount ());
+    }
+  }
+
+  @Test
+  public void testNegativeIsCached ()
+  {
+    final MockAS4SMPURLResolver aResolver = new MockAS4SMPURLResolver ();
+    try (final AS4CachingSMPURLProvider aProvider = new AS4CachingSMPURLProvider (aResolver))
+    {
+      for (int i = 0; i < 3; ++i)
+        try
+        {
+          aProvider.getSMPURIOfParticipant (PID_UNKNOWN, ZONE);
+          fail ();
+        }
+        catch (final SMPDNSResolutionException ex)
+        {
+          // expected
+        }
+      assertEquals (1, aResolver.getInvocationCount ());
+
+      // Disable negative caching
+      aProvider.setMaxNegativeTTL (Duration.ZERO);
+      aProvider.clearCache ();
+      for (int i = 0; i < 3; ++i)
+        try
+        {
+          aProvider.getSMPURIOfParticipant (PID_UNKNOWN, ZONE);
+          fail ();
+        }
+        catch (final SMPDNSResolutionException ex)
+        {
+          // expected
+        }
+      assertEquals (4, aResolver.getInvocationCount ());
+    }
+  }
+
+  @Test
+  public void testTTLIsHonoured () throws Exception
+  {
+    final MockAS4SMPURLResolver aResolver = new MockAS4SMPURLResolver ().register (PID, SMP_URI)
+                                                                       .setTTL (Duration.ZERO);
+    try (final AS4CachingSMPURLProvider aProvider = new AS4CachingSMPURLProvider (aResolver).setTTLBounds (Duration.ZERO,
+                                                                                                             Duration.ofDays (1)))
+    {
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+      assertEquals (2, aResolver.getInvocationCount ());
+    }
+  }
+
+  @Test
+  public void testErrorsAreNotCached ()
+  {
+    final MockAS4SMPURLResolver aResolver = new MockAS4SMPURLResolver ().register (PID, SMP_URI).setFail (true);
+    try (final AS4CachingSMPURLProvider aProvider = new AS4CachingSMPURLProvider (aResolver))
+    {
+      for (int i = 0; i < 2; ++i)
+        try
+        {
+          aProvider.getSMPURIOfParticipant (PID, ZONE);
+          fail ();
+        }
+        catch (final SMPDNSResolutionException ex)
+        {
+          // expected
+        }
+      assertEquals (2, aResolver.getInvocationCount ());
+      assertEquals (0, aProvider.getCacheSize ());
+    }
+  }
+
+  @Test
+  public void testRefreshAhead () throws Exception
+  {
+    final MockAS4SMPURLResolver aResolver = new MockAS4SMPURLResolver ().register (PID, SMP_URI);
+    try (final AS4CachingSMPURLProvider aProvider = new AS4CachingSMPURLProvider (aResolver).setRefreshAheadPercentage (0))
+    {
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+      assertEquals (1, aResolver.getInvocationCount ());
+
+      // Served from cache, but triggers a background refresh
+      final URI aNewURI = URI.create ("http://smp2.example.org/");
+      aResolver.register (PID, aNewURI);
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+
+      for (int i = 0; i < 100 && aResolver.getInvocationCount () < 2; ++i)
+        ThreadHelper.sleep (10);
+      assertEquals (2, aResolver.getInvocationCount ());
+
+      // Wait until the refreshed entry is stored
+      for (int i = 0; i < 100 && !aNewURI.equals (aProvider.getSMPURIOfParticipant (PID, ZONE)); ++i)
+        ThreadHelper.sleep (10);
+      assertEquals (aNewURI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+    }
+  }
+
+  @Test
+  public void testCacheSizeIsBound () throws Exception
+  {
+    final MockAS4SMPURLResolver aResolver = new MockAS4SMPURLResolver ();
+    final IParticipantIdentifier [] aPIDs = new IParticipantIdentifier [5];
+    for (int i = 0; i < aPIDs.length; ++i)
+    {
+      aPIDs[i] = new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test" + i);
+      aResolver.register (aPIDs[i], SMP_URI);
+    }
+
+    try (final AS4CachingSMPURLProvider aProvider = new AS4CachingSMPURLProvider (aResolver).setMaxCacheSize (3))
+    {
+      for (final IParticipantIdentifier aPID : aPIDs)
+        assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (aPID, ZONE));
+      assertEquals (3, aProvider.getCacheSize ());
+      assertEquals (5, aResolver.getInvocationCount ());
+
+      // The newest entries are still cached
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (aPIDs[4], ZONE));
+      assertEquals (5, aResolver.getInvocationCount ());
+
+      // The oldest entry was evicted
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (aPIDs[0], ZONE));
+      assertEquals (6, aResolver.getInvocationCount ());
+      assertEquals (3, aProvider.getCacheSize ());
+    }
+  }
+
+  @Test
+  public void testExpiredEntriesArePurged () throws Exception
+  {
+    final MockAS4SMPURLResolver aResolver = new MockAS4SMPURLResolver ().register (PID, SMP_URI);
+    try (final AS4CachingSMPURLProvider aProvider = new AS4CachingSMPURLProvider (aResolver).setMaxNegativeTTL (Duration.ZERO)
+                                                                                            .setMaxCacheSize (10))
+    {
+      // Negative results with a TTL of 0 are expired immediately. The first
+      // put triggers the first purge.
+      for (int i = 0; i < 3; ++i)
+        try
+        {
+          aProvider.getSMPURIOfParticipant (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:unknown" + i),
+                                            ZONE);
+          fail ();
+        }
+        catch (final SMPDNSResolutionException ex)
+        {
+          // expected
+        }
+      assertEquals (3, aProvider.getCacheSize ());
+
+      // Expired entries are not returned, even if they are not yet purged
+      try
+      {
+        aProvider.getSMPURIOfParticipant (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:unknown0"),
+                                          ZONE);
+        fail ();
+      }
+      catch (final SMPDNSResolutionException ex)
+      {
+        // expected
+      }
+      assertEquals (4, aResolver.getInvocationCount ());
+
+      // The next purge happens only after the purge interval
+      assertEquals (SMP_URI, aProvider.getSMPURIOfParticipant (PID, ZONE));
+      assertEquals (4, aProvider.getCacheSize ());
+    }
+  }
+
+  @Test
+  public void testSharedDNSInstance ()
+  {
+    final AS4CachingSMPURLProvider aShared = AS4CachingSMPURLProvider.getSharedDNSInstance (BDXLURLProvider.INSTANCE);
+    assertNotNull (aShared);
+    assertSame (aShared, AS4CachingSMPURLProvider.getSharedDNSInstance (BDXLURLProvider.INSTANCE));
+    assertNotSame (aShared, AS4CachingSMPURLProvider.getSharedDNSInstance (PeppolURLProvider.INSTANCE));
+  }
+}
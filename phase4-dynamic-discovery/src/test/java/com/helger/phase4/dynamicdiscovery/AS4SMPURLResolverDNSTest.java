@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.EDNSOption;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.NAPTRRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TSIG;
+
+import com.helger.dns.naptr.NaptrLookup;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+import com.helger.smpclient.url.AbstractBDXLURLProvider;
+import com.helger.smpclient.url.BDXLURLProvider;
+import com.helger.smpclient.url.SMPDNSResolutionException;
+
+/**
+ * Test class for class {@link AS4SMPURLResolverDNS}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4SMPURLResolverDNSTest
+{
+  private static final IParticipantIdentifier PID = new SimpleParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                     "9915:test");
+  private static final String ZONE = "edelivery.tech.ec.europa.eu.";
+
+  /**
+   * Offline DNS resolver that answers all queries with a fixed response code
+   * or error.
+   */
+  private static final class MockResolver implements Resolver
+  {
+    private final int m_nRcode;
+    private final boolean m_bTimeout;
+    private final String m_sNaptrRegexp;
+    private final AtomicInteger m_aCount = new AtomicInteger (0);
+    private volatile boolean m_bTCP = false;
+
+    MockResolver (final int nRcode, final boolean bTimeout, final String sNaptrRegexp)
+    {
+      m_nRcode = nRcode;
+      m_bTimeout = bTimeout;
+      m_sNaptrRegexp = sNaptrRegexp;
+    }
+
+    public void setPort (final int nPort)
+    {}
+
+    public void setTCP (final boolean bTCP)
+    {
+      m_bTCP = bTCP;
+    }
+
+    public void setIgnoreTruncation (final boolean bIgnoreTruncation)
+    {}
+
+    public void setEDNS (final int nVersion, final int nPayloadSize, final int nFlags, final List <EDNSOption> aOptions)
+    {}
+
+    public void setTSIGKey (final TSIG aKey)
+    {}
+
+    public void setTimeout (final Duration aTimeout)
+    {}
+
+    @Override
+    public Message send (@Nonnull final Message aQuery) throws IOException
+    {
+      m_aCount.incrementAndGet ();
+      if (m_bTimeout)
+        throw new SocketTimeoutException ("Simulated timeout");
+
+      final Record aQuestion = aQuery.getQuestion ();
+      final Message aResponse = new Message (aQuery.getHeader ().getID ());
+      aResponse.getHeader ().setFlag (Flags.QR);
+      aResponse.getHeader ().setRcode (m_nRcode);
+      aResponse.addRecord (aQuestion, Section.QUESTION);
+      if (m_sNaptrRegexp != null)
+        aResponse.addRecord (new NAPTRRecord (aQuestion.getName (),
+                                              DClass.IN,
+                                              60,
+                                              100,
+                                              10,
+                                              "U",
+                                              BDXLURLProvider.DNS_UNAPTR_SERVICE_NAME_META_SMP,
+                                              m_sNaptrRegexp,
+                                              Name.root),
+                             Section.ANSWER);
+      return aResponse;
+    }
+
+    @Override
+    public CompletionStage <Message> sendAsync (@Nonnull final Message aQuery, @Nonnull final Executor aExecutor)
+    {
+      try
+      {
+        return CompletableFuture.completedFuture (send (aQuery));
+      }
+      catch (final IOException ex)
+      {
+        return CompletableFuture.failedFuture (ex);
+      }
+    }
+  }
+
+  @Nonnull
+  private static AS4SMPURLResolverDNS _createResolverDNS (@Nonnull final MockResolver aMockResolver)
+  {
+    return new AS4SMPURLResolverDNS (new BDXLURLProvider ())
+    {
+      @Override
+      protected Resolver createResolver (@Nonnull final AbstractBDXLURLProvider aBDXLProvider)
+      {
+        return aMockResolver;
+      }
+    };
+  }
+
+  @Test
+  public void testPositive () throws Exception
+  {
+    final MockResolver aMockResolver = new MockResolver (Rcode.NOERROR, false, "!^.*$!http://smp.example.org/!");
+    final AS4SMPURLResolution aResolution = _createResolverDNS (aMockResolver).resolve (PID, ZONE);
+    assertTrue (aResolution.isPositive ());
+    assertEquals (URI.create ("http://smp.example.org/"), aResolution.getSMPURI ());
+    assertEquals (Duration.ofSeconds (60), aResolution.getTTL ());
+    assertEquals (1, aMockResolver.m_aCount.get ());
+  }
+
+  @Test
+  public void testHostNotFound () throws Exception
+  {
+    final MockResolver aMockResolver = new MockResolver (Rcode.NXDOMAIN, false, null);
+    assertNull (AS4SMPURLResolverDNS.lookupNaptrRecords (Name.fromString ("unknown.example.org."), aMockResolver));
+
+    final AS4SMPURLResolution aResolution = _createResolverDNS (aMockResolver).resolve (PID, ZONE);
+    assertFalse (aResolution.isPositive ());
+    assertNull (aResolution.getSMPURI ());
+    assertNotNull (aResolution.getTTL ());
+  }
+
+  @Test
+  public void testTypeNotFound () throws Exception
+  {
+    final MockResolver aMockResolver = new MockResolver (Rcode.NOERROR, false, null);
+    assertNull (AS4SMPURLResolverDNS.lookupNaptrRecords (Name.fromString ("unknown.example.org."), aMockResolver));
+    assertFalse (_createResolverDNS (aMockResolver).resolve (PID, ZONE).isPositive ());
+  }
+
+  @Test
+  public void testServerFailureIsAnError ()
+  {
+    final MockResolver aMockResolver = new MockResolver (Rcode.SERVFAIL, false, null);
+    try
+    {
+      _createResolverDNS (aMockResolver).resolve (PID, ZONE);
+      fail ();
+    }
+    catch (final SMPDNSResolutionException ex)
+    {
+      // expected
+    }
+    // All retries via UDP and one more via TCP
+    assertEquals (1 + NaptrLookup.Builder.DEFAULT_MAX_RETRIES + 1, aMockResolver.m_aCount.get ());
+    assertTrue (aMockResolver.m_bTCP);
+  }
+
+  @Test
+  public void testTimeoutIsAnError ()
+  {
+    final MockResolver aMockResolver = new MockResolver (Rcode.NOERROR, true, null);
+    try
+    {
+      _createResolverDNS (aMockResolver).resolve (PID, ZONE);
+      fail ();
+    }
+    catch (final SMPDNSResolutionException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTransientErrorIsNotCached () throws Exception
+  {
+    final MockResolver aMockResolver = new MockResolver (Rcode.SERVFAIL, false, null);
+    try (final AS4CachingSMPURLProvider aProvider = new AS4CachingSMPURLProvider (_createResolverDNS (aMockResolver)))
+    {
+      try
+      {
+        aProvider.getSMPURIOfParticipant (PID, ZONE);
+        fail ();
+      }
+      catch (final SMPDNSResolutionException ex)
+      {
+        // expected
+      }
+      assertEquals (0, aProvider.getCacheSize ());
+    }
+  }
+}
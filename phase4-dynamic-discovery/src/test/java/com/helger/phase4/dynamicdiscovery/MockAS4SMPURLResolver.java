@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.collection.impl.CommonsConcurrentHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.smpclient.url.SMPDNSResolutionException;
+
+/**
+ * Offline {@link IAS4SMPURLResolver} for testing that resolves from a map and
+ * counts the invocations.
+ *
+ * @author Philip Helger
+ */
+final class MockAS4SMPURLResolver implements IAS4SMPURLResolver
+{
+  private final ICommonsMap <String, URI> m_aMap = new CommonsConcurrentHashMap <> ();
+  private final AtomicInteger m_aCount = new AtomicInteger (0);
+  private volatile Duration m_aTTL = Duration.ofHours (1);
+  private volatile boolean m_bFail = false;
+
+  @Nonnull
+  public MockAS4SMPURLResolver register (@Nonnull final IParticipantIdentifier aParticipantID,
+                                        @Nullable final URI aSMPURI)
+  {
+    if (aSMPURI == null)
+      m_aMap.remove (aParticipantID.getURIEncoded ());
+    else
+      m_aMap.put (aParticipantID.getURIEncoded (), aSMPURI);
+    return this;
+  }
+
+  @Nonnull
+  public MockAS4SMPURLResolver setTTL (@Nonnull final Duration aTTL)
+  {
+    m_aTTL = aTTL;
+    return this;
+  }
+
+  @Nonnull
+  public MockAS4SMPURLResolver setFail (final boolean bFail)
+  {
+    m_bFail = bFail;
+    return this;
+  }
+
+  public int getInvocationCount ()
+  {
+    return m_aCount.get ();
+  }
+
+  @Nonnull
+  public AS4SMPURLResolution resolve (@Nonnull final IParticipantIdentifier aParticipantID,
+                                      @Nonnull final String sSMLZoneName) throws SMPDNSResolutionException
+  {
+    m_aCount.incrementAndGet ();
+    if (m_bFail)
+      throw new SMPDNSResolutionException ("Simulated DNS error");
+    final URI aSMPURI = m_aMap.get (aParticipantID.getURIEncoded ());
+    return aSMPURI != null ? AS4SMPURLResolution.createPositive (aSMPURI, m_aTTL)
+                           : AS4SMPURLResolution.createNegative (m_aTTL);
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * A process wide byte allowance for attachments that are kept in memory. An
+ * attachment may only be kept in memory if it is not larger than
+ * {@link #getMaxBytesPerAttachment()} and if its size can be reserved from the
+ * overall budget. Otherwise it is spilled to a temporary file. Reservations
+ * are bound to an {@link AS4ResourceHelper} and returned when it is closed.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4AttachmentMemoryBudget
+{
+  /** The default maximum size of a single in-memory attachment */
+  public static final long DEFAULT_MAX_BYTES_PER_ATTACHMENT = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  /** The default maximum size of all in-memory attachments */
+  public static final long DEFAULT_MAX_BYTES_TOTAL = 64 * CGlobal.BYTES_PER_MEGABYTE;
+
+  private final long m_nMaxBytesTotal;
+  private final long m_nMaxBytesPerAttachment;
+  private final AtomicLong m_aUsedBytes = new AtomicLong (0);
+  private final AtomicLong m_aPeakBytes = new AtomicLong (0);
+  private final AtomicLong m_aGranted = new AtomicLong (0);
+  private final AtomicLong m_aDenied = new AtomicLong (0);
+
+  public AS4AttachmentMemoryBudget ()
+  {
+    this (DEFAULT_MAX_BYTES_TOTAL, DEFAULT_MAX_BYTES_PER_ATTACHMENT);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxBytesTotal
+   *        The maximum number of bytes all in-memory attachments may use
+   *        together. Must be &ge; 0.
+   * @param nMaxBytesPerAttachment
+   *        The maximum number of bytes of a single in-memory attachment. Must
+   *        be &ge; 0.
+   */
+  public AS4AttachmentMemoryBudget (@Nonnegative final long nMaxBytesTotal,
+                                    @Nonnegative final long nMaxBytesPerAttachment)
+  {
+    ValueEnforcer.isGE0 (nMaxBytesTotal, "MaxBytesTotal");
+    ValueEnforcer.isGE0 (nMaxBytesPerAttachment, "MaxBytesPerAttachment");
+    m_nMaxBytesTotal = nMaxBytesTotal;
+    m_nMaxBytesPerAttachment = nMaxBytesPerAttachment;
+  }
+
+  /**
+   * @return The maximum number of bytes all in-memory attachments may use
+   *         together.
+   */
+  @Nonnegative
+  public final long getMaxBytesTotal ()
+  {
+    return m_nMaxBytesTotal;
+  }
+
+  /**
+   * @return The maximum number of bytes of a single in-memory attachment.
+   */
+  @Nonnegative
+  public final long getMaxBytesPerAttachment ()
+  {
+    return m_nMaxBytesPerAttachment;
+  }
+
+  /**
+   * Try to reserve the provided number of bytes.
+   *
+   * @param nBytes
+   *        The number of bytes to reserve. Must be &ge; 0.
+   * @return <code>true</code> if the bytes were reserved and must be returned
+   *         via {@link #release(long)}, <code>false</code> if the attachment
+   *         should be spilled to disk.
+   */
+  public boolean tryReserve (@Nonnegative final long nBytes)
+  {
+    ValueEnforcer.isGE0 (nBytes, "Bytes");
+
+    if (nBytes <= m_nMaxBytesPerAttachment)
+    {
+      long nOld;
+      long nNew;
+      do
+      {
+        nOld = m_aUsedBytes.get ();
+        nNew = nOld + nBytes;
+        if (nNew > m_nMaxBytesTotal)
+          break;
+        if (m_aUsedBytes.compareAndSet (nOld, nNew))
+        {
+          m_aPeakBytes.accumulateAndGet (nNew, Math::max);
+          m_aGranted.incrementAndGet ();
+          return true;
+        }
+      } while (true);
+    }
+    m_aDenied.incrementAndGet ();
+    return false;
+  }
+
+  /**
+   * Try to reserve the provided number of bytes for the lifetime of the
+   * provided resource helper.
+   *
+   * @param nBytes
+   *        The number of bytes to reserve. Must be &ge; 0.
+   * @param aResHelper
+   *        The resource helper that releases the reservation when it is
+   *        closed. May not be <code>null</code>.
+   * @return <code>true</code> if the bytes were reserved, <code>false</code>
+   *         if the attachment should be spilled to disk.
+   */
+  public boolean tryReserve (@Nonnegative final long nBytes, @Nonnull final AS4ResourceHelper aResHelper)
+  {
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    if (!tryReserve (nBytes))
+      return false;
+    try
+    {
+      aResHelper.addCloseable ( () -> release (nBytes));
+    }
+    catch (final IllegalStateException ex)
+    {
+      // Resource helper is already closed
+      release (nBytes);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return previously reserved bytes.
+   *
+   * @param nBytes
+   *        The number of bytes to release. Must be &ge; 0.
+   */
+  public void release (@Nonnegative final long nBytes)
+  {
+    ValueEnforcer.isGE0 (nBytes, "Bytes");
+    m_aUsedBytes.addAndGet (-nBytes);
+  }
+
+  /**
+   * @return The number of bytes currently reserved.
+   */
+  @Nonnegative
+  public long getUsedBytes ()
+  {
+    return m_aUsedBytes.get ();
+  }
+
+  /**
+   * @return The number of bytes that can currently be reserved.
+   */
+  @Nonnegative
+  public long getAvailableBytes ()
+  {
+    return Math.max (0, m_nMaxBytesTotal - m_aUsedBytes.get ());
+  }
+
+  /**
+   * @return The maximum number of bytes that were reserved at the same time.
+   */
+  @Nonnegative
+  public long getPeakBytes ()
+  {
+    return m_aPeakBytes.get ();
+  }
+
+  /**
+   * @return The number of successful reservations.
+   */
+  @Nonnegative
+  public long getGrantedCount ()
+  {
+    return m_aGranted.get ();
+  }
+
+  /**
+   * @return The number of denied reservations, meaning attachments that were
+   *         spilled to disk.
+   */
+  @Nonnegative
+  public long getDeniedCount ()
+  {
+    return m_aDenied.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxBytesTotal", m_nMaxBytesTotal)
+                                       .append ("MaxBytesPerAttachment", m_nMaxBytesPerAttachment)
+                                       .append ("UsedBytes", getUsedBytes ())
+                                       .append ("PeakBytes", getPeakBytes ())
+                                       .append ("Granted", getGrantedCount ())
+                                       .append ("Denied", getDeniedCount ())
+                                       .getToString ();
+  }
+}
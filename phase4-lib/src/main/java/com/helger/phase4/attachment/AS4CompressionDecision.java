@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The decision of an {@link IAS4CompressionPolicy} for a single outgoing
+ * attachment.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public final class AS4CompressionDecision
+{
+  private final boolean m_bCompress;
+  private final int m_nLevel;
+  private final String m_sReason;
+
+  private AS4CompressionDecision (final boolean bCompress, final int nLevel, @Nonnull @Nonempty final String sReason)
+  {
+    m_bCompress = bCompress;
+    m_nLevel = nLevel;
+    m_sReason = sReason;
+  }
+
+  /**
+   * @return <code>true</code> if the attachment should be compressed (maybe
+   *         with level 0), <code>false</code> if it should be sent as is.
+   */
+  public boolean isCompress ()
+  {
+    return m_bCompress;
+  }
+
+  /**
+   * @return The deflate level to use. Only meaningful if
+   *         {@link #isCompress()} is <code>true</code>.
+   */
+  public int getLevel ()
+  {
+    return m_nLevel;
+  }
+
+  /**
+   * @return <code>true</code> if the attachment is compressed with level 0,
+   *         meaning the data is only wrapped into the compression format.
+   */
+  public boolean isStoreOnly ()
+  {
+    return m_bCompress && m_nLevel == Deflater.NO_COMPRESSION;
+  }
+
+  /**
+   * @return A short human readable reason for the decision. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getReason ()
+  {
+    return m_sReason;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Compress", m_bCompress)
+                                       .append ("Level", m_nLevel)
+                                       .append ("Reason", m_sReason)
+                                       .getToString ();
+  }
+
+  /**
+   * @param nLevel
+   *        The level to check.
+   * @return <code>true</code> if the level is 0 to 9 or
+   *         {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  public static boolean isValidLevel (final int nLevel)
+  {
+    return nLevel == Deflater.DEFAULT_COMPRESSION ||
+           (nLevel >= Deflater.NO_COMPRESSION && nLevel <= Deflater.BEST_COMPRESSION);
+  }
+
+  /**
+   * Compress with the provided level.
+   *
+   * @param nLevel
+   *        The deflate level from 0 to 9 or
+   *        {@link Deflater#DEFAULT_COMPRESSION}.
+   * @param sReason
+   *        The reason for the decision. May neither be <code>null</code> nor
+   *        empty.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4CompressionDecision compress (final int nLevel, @Nonnull @Nonempty final String sReason)
+  {
+    ValueEnforcer.isTrue (isValidLevel (nLevel), () -> "Invalid deflate level " + nLevel);
+    ValueEnforcer.notEmpty (sReason, "Reason");
+    return new AS4CompressionDecision (true, nLevel, sReason);
+  }
+
+  /**
+   * Compress with level 0, so that the compression format is kept but no CPU
+   * is spent on deflating.
+   *
+   * @param sReason
+   *        The reason for the decision. May neither be <code>null</code> nor
+   *        empty.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4CompressionDecision storeOnly (@Nonnull @Nonempty final String sReason)
+  {
+    return compress (Deflater.NO_COMPRESSION, sReason);
+  }
+
+  /**
+   * Don't compress at all. Only possible if compression is not mandatory.
+   *
+   * @param sReason
+   *        The reason for the decision. May neither be <code>null</code> nor
+   *        empty.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4CompressionDecision skip (@Nonnull @Nonempty final String sReason)
+  {
+    ValueEnforcer.notEmpty (sReason, "Reason");
+    return new AS4CompressionDecision (false, Deflater.NO_COMPRESSION, sReason);
+  }
+}
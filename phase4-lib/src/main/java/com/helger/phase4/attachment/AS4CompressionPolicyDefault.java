@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.mime.EMimeContentType;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The default {@link IAS4CompressionPolicy}. An attachment is considered to be
+ * incompressible if
+ * <ul>
+ * <li>it is smaller than {@link #getMinSize()} bytes, or</li>
+ * <li>its MIME type denotes compressed content (e.g. ZIP, GZIP, PDF, JPEG, any
+ * audio or video type), or</li>
+ * <li>its first bytes start with the signature of a compressed format, or</li>
+ * <li>the byte entropy of the sample is at least {@link #getMaxEntropy()}
+ * bits per byte.</li>
+ * </ul>
+ * Incompressible attachments are not compressed at all, or stored with level
+ * 0 if compression is mandatory. All other attachments are compressed with
+ * {@link #getLevel()}, or with {@link #getLargeLevel()} if they are at least
+ * {@link #getLargeSize()} bytes large.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4CompressionPolicyDefault implements IAS4CompressionPolicy
+{
+  public static final long DEFAULT_MIN_SIZE = 256;
+  public static final double DEFAULT_MAX_ENTROPY = 7.5;
+  public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+  public static final long DEFAULT_LARGE_SIZE = 16 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final int DEFAULT_LARGE_LEVEL = Deflater.BEST_SPEED;
+
+  // Leading bytes of GZIP, ZIP, PNG, JPEG, 7z, bzip2, xz and zstd content
+  private static final byte [] [] COMPRESSED_SIGNATURES = { { 0x1f, (byte) 0x8b },
+                                                            { 'P', 'K', 3, 4 },
+                                                            { (byte) 0x89, 'P', 'N', 'G' },
+                                                            { (byte) 0xff, (byte) 0xd8, (byte) 0xff },
+                                                            { '7', 'z', (byte) 0xbc, (byte) 0xaf },
+                                                            { 'B', 'Z', 'h' },
+                                                            { (byte) 0xfd, '7', 'z', 'X', 'Z' },
+                                                            { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd } };
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsSet <String> m_aIncompressibleMimeTypes = new CommonsHashSet <> ("application/gzip",
+                                                                                        "application/x-gzip",
+                                                                                        "application/zip",
+                                                                                        "application/x-zip-compressed",
+                                                                                        "application/x-7z-compressed",
+                                                                                        "application/x-bzip2",
+                                                                                        "application/x-xz",
+                                                                                        "application/zstd",
+                                                                                        "application/pdf",
+                                                                                        "image/jpeg",
+                                                                                        "image/png",
+                                                                                        "image/gif",
+                                                                                        "image/webp");
+  private volatile long m_nMinSize = DEFAULT_MIN_SIZE;
+  private volatile double m_dMaxEntropy = DEFAULT_MAX_ENTROPY;
+  private volatile int m_nLevel = DEFAULT_LEVEL;
+  private volatile long m_nLargeSize = DEFAULT_LARGE_SIZE;
+  private volatile int m_nLargeLevel = DEFAULT_LARGE_LEVEL;
+
+  public AS4CompressionPolicyDefault ()
+  {}
+
+  /**
+   * @return All MIME types (without parameters, lower case) that are
+   *         considered to be already compressed. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <String> getAllIncompressibleMimeTypes ()
+  {
+    return m_aRWLock.readLockedGet (m_aIncompressibleMimeTypes::getClone);
+  }
+
+  @Nonnull
+  public EChange addIncompressibleMimeType (@Nonnull @Nonempty final String sMimeType)
+  {
+    ValueEnforcer.notEmpty (sMimeType, "MimeType");
+    final String sKey = sMimeType.toLowerCase (Locale.ROOT);
+    return m_aRWLock.writeLockedGet ( () -> m_aIncompressibleMimeTypes.addObject (sKey));
+  }
+
+  @Nonnull
+  public EChange removeIncompressibleMimeType (@Nonnull @Nonempty final String sMimeType)
+  {
+    ValueEnforcer.notEmpty (sMimeType, "MimeType");
+    final String sKey = sMimeType.toLowerCase (Locale.ROOT);
+    return m_aRWLock.writeLockedGet ( () -> m_aIncompressibleMimeTypes.removeObject (sKey));
+  }
+
+  /**
+   * @return The minimum size in bytes an attachment must have to be
+   *         compressed.
+   */
+  @Nonnegative
+  public final long getMinSize ()
+  {
+    return m_nMinSize;
+  }
+
+  @Nonnull
+  public final AS4CompressionPolicyDefault setMinSize (@Nonnegative final long nMinSize)
+  {
+    ValueEnforcer.isGE0 (nMinSize, "MinSize");
+    m_nMinSize = nMinSize;
+    return this;
+  }
+
+  /**
+   * @return The sample entropy in bits per byte (0-8) from which on an
+   *         attachment is considered to be incompressible.
+   */
+  public final double getMaxEntropy ()
+  {
+    return m_dMaxEntropy;
+  }
+
+  @Nonnull
+  public final AS4CompressionPolicyDefault setMaxEntropy (final double dMaxEntropy)
+  {
+    ValueEnforcer.isBetweenInclusive (dMaxEntropy, "MaxEntropy", 0, 8);
+    m_dMaxEntropy = dMaxEntropy;
+    return this;
+  }
+
+  /**
+   * @return The deflate level for regular attachments.
+   */
+  public final int getLevel ()
+  {
+    return m_nLevel;
+  }
+
+  @Nonnull
+  public final AS4CompressionPolicyDefault setLevel (final int nLevel)
+  {
+    ValueEnforcer.isTrue (AS4CompressionDecision.isValidLevel (nLevel), () -> "Invalid deflate level " + nLevel);
+    m_nLevel = nLevel;
+    return this;
+  }
+
+  /**
+   * @return The size in bytes from which on {@link #getLargeLevel()} is used.
+   */
+  @Nonnegative
+  public final long getLargeSize ()
+  {
+    return m_nLargeSize;
+  }
+
+  @Nonnull
+  public final AS4CompressionPolicyDefault setLargeSize (@Nonnegative final long nLargeSize)
+  {
+    ValueEnforcer.isGE0 (nLargeSize, "LargeSize");
+    m_nLargeSize = nLargeSize;
+    return this;
+  }
+
+  /**
+   * @return The deflate level for large attachments.
+   */
+  public final int getLargeLevel ()
+  {
+    return m_nLargeLevel;
+  }
+
+  @Nonnull
+  public final AS4CompressionPolicyDefault setLargeLevel (final int nLargeLevel)
+  {
+    ValueEnforcer.isTrue (AS4CompressionDecision.isValidLevel (nLargeLevel),
+                          () -> "Invalid deflate level " + nLargeLevel);
+    m_nLargeLevel = nLargeLevel;
+    return this;
+  }
+
+  /**
+   * Get the Shannon entropy of the provided bytes.
+   *
+   * @param aBytes
+   *        The bytes to analyze. May not be <code>null</code>.
+   * @return The entropy in bits per byte between 0 and 8. 0 for an empty
+   *         array.
+   */
+  public static double getEntropy (@Nonnull final byte [] aBytes)
+  {
+    if (aBytes.length == 0)
+      return 0;
+
+    final int [] aCounts = new int [256];
+    for (final byte b : aBytes)
+      aCounts[b & 0xff]++;
+
+    final double dLen = aBytes.length;
+    double ret = 0;
+    for (final int nCount : aCounts)
+      if (nCount > 0)
+      {
+        final double p = nCount / dLen;
+        ret -= p * Math.log (p);
+      }
+    // Convert from nats to bits
+    return ret / Math.log (2);
+  }
+
+  private static boolean _hasCompressedSignature (@Nonnull final byte [] aSample)
+  {
+    outer: for (final byte [] aSignature : COMPRESSED_SIGNATURES)
+    {
+      if (aSample.length < aSignature.length)
+        continue;
+      for (int i = 0; i < aSignature.length; ++i)
+        if (aSample[i] != aSignature[i])
+          continue outer;
+      return true;
+    }
+    return false;
+  }
+
+  protected boolean isIncompressibleMimeType (@Nonnull final IMimeType aMimeType)
+  {
+    final EMimeContentType eContentType = aMimeType.getContentType ();
+    if (eContentType == EMimeContentType.AUDIO || eContentType == EMimeContentType.VIDEO)
+      return true;
+
+    final String sKey = aMimeType.getAsStringWithoutParameters ().toLowerCase (Locale.ROOT);
+    return m_aRWLock.readLockedBoolean ( () -> m_aIncompressibleMimeTypes.contains (sKey));
+  }
+
+  @Nonnull
+  private static AS4CompressionDecision _noCompression (final boolean bCompressionMandatory,
+                                                        @Nonnull @Nonempty final String sReason)
+  {
+    return bCompressionMandatory ? AS4CompressionDecision.storeOnly (sReason) : AS4CompressionDecision.skip (sReason);
+  }
+
+  @Nonnull
+  public AS4CompressionDecision getCompressionDecision (@Nonnull final IMimeType aMimeType,
+                                                        @Nonnegative final long nSize,
+                                                        @Nonnull final byte [] aSample,
+                                                        final boolean bCompressionMandatory)
+  {
+    if (nSize < m_nMinSize)
+      return _noCompression (bCompressionMandatory, "too small");
+    if (isIncompressibleMimeType (aMimeType))
+      return _noCompression (bCompressionMandatory, "compressed MIME type");
+    if (_hasCompressedSignature (aSample))
+      return _noCompression (bCompressionMandatory, "compressed content signature");
+    final double dEntropy = getEntropy (aSample);
+    if (dEntropy >= m_dMaxEntropy)
+      return _noCompression (bCompressionMandatory, "high entropy");
+
+    if (nSize >= m_nLargeSize)
+      return AS4CompressionDecision.compress (m_nLargeLevel, "large");
+    return AS4CompressionDecision.compress (m_nLevel, "compressible");
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("IncompressibleMimeTypes", m_aIncompressibleMimeTypes)
+                                       .append ("MinSize", m_nMinSize)
+                                       .append ("MaxEntropy", m_dMaxEntropy)
+                                       .append ("Level", m_nLevel)
+                                       .append ("LargeSize", m_nLargeSize)
+                                       .append ("LargeLevel", m_nLargeLevel)
+                                       .getToString ();
+  }
+}
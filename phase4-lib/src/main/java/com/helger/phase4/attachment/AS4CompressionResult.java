@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The outcome of the compression of a single outgoing attachment.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public final class AS4CompressionResult
+{
+  private final AS4CompressionDecision m_aDecision;
+  private final long m_nSourceBytes;
+  private final long m_nResultBytes;
+  private final long m_nDurationNanos;
+  private final long m_nEstimatedSavedNanos;
+
+  public AS4CompressionResult (@Nonnull final AS4CompressionDecision aDecision,
+                               @Nonnegative final long nSourceBytes,
+                               @Nonnegative final long nResultBytes,
+                               @Nonnegative final long nDurationNanos,
+                               @Nonnegative final long nEstimatedSavedNanos)
+  {
+    ValueEnforcer.notNull (aDecision, "Decision");
+    m_aDecision = aDecision;
+    m_nSourceBytes = nSourceBytes;
+    m_nResultBytes = nResultBytes;
+    m_nDurationNanos = nDurationNanos;
+    m_nEstimatedSavedNanos = nEstimatedSavedNanos;
+  }
+
+  /**
+   * @return The decision of the compression policy. Never <code>null</code>.
+   */
+  @Nonnull
+  public AS4CompressionDecision getDecision ()
+  {
+    return m_aDecision;
+  }
+
+  /**
+   * @return The uncompressed size in bytes.
+   */
+  @Nonnegative
+  public long getSourceBytes ()
+  {
+    return m_nSourceBytes;
+  }
+
+  /**
+   * @return The size in bytes that is sent.
+   */
+  @Nonnegative
+  public long getResultBytes ()
+  {
+    return m_nResultBytes;
+  }
+
+  /**
+   * @return The result size divided by the source size. Values &lt; 1 mean
+   *         the attachment got smaller. 1 for an empty source.
+   */
+  public double getRatio ()
+  {
+    return m_nSourceBytes == 0 ? 1 : (double) m_nResultBytes / m_nSourceBytes;
+  }
+
+  /**
+   * @return The time in nanoseconds spent on compressing.
+   */
+  @Nonnegative
+  public long getDurationNanos ()
+  {
+    return m_nDurationNanos;
+  }
+
+  /**
+   * @return The estimated CPU time in nanoseconds saved compared to a regular
+   *         compression. Based on the average throughput of the previously
+   *         deflated attachments. Always 0 for regularly compressed
+   *         attachments.
+   */
+  @Nonnegative
+  public long getEstimatedSavedNanos ()
+  {
+    return m_nEstimatedSavedNanos;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Decision", m_aDecision)
+                                       .append ("SourceBytes", m_nSourceBytes)
+                                       .append ("ResultBytes", m_nResultBytes)
+                                       .append ("DurationNanos", m_nDurationNanos)
+                                       .append ("EstimatedSavedNanos", m_nEstimatedSavedNanos)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Process wide statistics on the compression of outgoing attachments. The
+ * measured deflate throughput is used to estimate the CPU time saved by
+ * attachments that were not compressed or only stored.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4CompressionStatistics
+{
+  /**
+   * The assumed deflate costs in nanoseconds per byte, as long as nothing was
+   * measured (roughly 50 MB/s).
+   */
+  public static final double DEFAULT_NANOS_PER_BYTE = 20;
+
+  private final LongAdder m_aAttachmentCount = new LongAdder ();
+  private final LongAdder m_aSkippedCount = new LongAdder ();
+  private final LongAdder m_aSourceBytes = new LongAdder ();
+  private final LongAdder m_aResultBytes = new LongAdder ();
+  private final LongAdder m_aDeflatedBytes = new LongAdder ();
+  private final LongAdder m_aDeflateNanos = new LongAdder ();
+  private final LongAdder m_aEstimatedSavedNanos = new LongAdder ();
+
+  public AS4CompressionStatistics ()
+  {}
+
+  /**
+   * @return The average measured deflate costs in nanoseconds per source
+   *         byte, or {@link #DEFAULT_NANOS_PER_BYTE} if nothing was measured
+   *         yet.
+   */
+  public double getAverageNanosPerByte ()
+  {
+    final long nBytes = m_aDeflatedBytes.sum ();
+    return nBytes == 0 ? DEFAULT_NANOS_PER_BYTE : (double) m_aDeflateNanos.sum () / nBytes;
+  }
+
+  /**
+   * Record a single handled attachment.
+   *
+   * @param aDecision
+   *        The decision of the policy. May not be <code>null</code>.
+   * @param nSourceBytes
+   *        The uncompressed size.
+   * @param nResultBytes
+   *        The size that is sent.
+   * @param nDurationNanos
+   *        The time spent on compression.
+   * @return The result for the attachment. Never <code>null</code>.
+   */
+  @Nonnull
+  public AS4CompressionResult onAttachment (@Nonnull final AS4CompressionDecision aDecision,
+                                            @Nonnegative final long nSourceBytes,
+                                            @Nonnegative final long nResultBytes,
+                                            @Nonnegative final long nDurationNanos)
+  {
+    ValueEnforcer.notNull (aDecision, "Decision");
+
+    final long nSavedNanos;
+    if (aDecision.isCompress () && aDecision.getLevel () != Deflater.NO_COMPRESSION)
+    {
+      // Regular compression - only measure
+      m_aDeflatedBytes.add (nSourceBytes);
+      m_aDeflateNanos.add (nDurationNanos);
+      nSavedNanos = 0;
+    }
+    else
+    {
+      nSavedNanos = Math.max (0, Math.round (getAverageNanosPerByte () * nSourceBytes) - nDurationNanos);
+      m_aEstimatedSavedNanos.add (nSavedNanos);
+    }
+    if (!aDecision.isCompress ())
+      m_aSkippedCount.increment ();
+    m_aAttachmentCount.increment ();
+    m_aSourceBytes.add (nSourceBytes);
+    m_aResultBytes.add (nResultBytes);
+    return new AS4CompressionResult (aDecision, nSourceBytes, nResultBytes, nDurationNanos, nSavedNanos);
+  }
+
+  /**
+   * @return The number of handled attachments with a requested compression.
+   */
+  @Nonnegative
+  public long getAttachmentCount ()
+  {
+    return m_aAttachmentCount.sum ();
+  }
+
+  /**
+   * @return The number of attachments that were not compressed at all.
+   */
+  @Nonnegative
+  public long getSkippedCount ()
+  {
+    return m_aSkippedCount.sum ();
+  }
+
+  @Nonnegative
+  public long getSourceBytes ()
+  {
+    return m_aSourceBytes.sum ();
+  }
+
+  @Nonnegative
+  public long getResultBytes ()
+  {
+    return m_aResultBytes.sum ();
+  }
+
+  /**
+   * @return The overall result size divided by the overall source size. 1 if
+   *         nothing was handled yet.
+   */
+  public double getRatio ()
+  {
+    final long nSource = m_aSourceBytes.sum ();
+    return nSource == 0 ? 1 : (double) m_aResultBytes.sum () / nSource;
+  }
+
+  /**
+   * @return The estimated overall CPU time in nanoseconds saved by not
+   *         compressing or only storing attachments.
+   */
+  @Nonnegative
+  public long getEstimatedSavedNanos ()
+  {
+    return m_aEstimatedSavedNanos.sum ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("AttachmentCount", getAttachmentCount ())
+                                       .append ("SkippedCount", getSkippedCount ())
+                                       .append ("SourceBytes", getSourceBytes ())
+                                       .append ("ResultBytes", getResultBytes ())
+                                       .append ("AverageNanosPerByte", getAverageNanosPerByte ())
+                                       .append ("EstimatedSavedNanos", getEstimatedSavedNanos ())
+                                       .getToString ();
+  }
+}
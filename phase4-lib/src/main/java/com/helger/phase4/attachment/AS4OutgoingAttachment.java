@@ -52,6 +52,7 @@ public class AS4OutgoingAttachment
   private final String m_sFilename;
   private final IMimeType m_aMimeType;
   private final EAS4CompressionMode m_eCompressionMode;
+  private final boolean m_bCompressionMandatory;
   private final Charset m_aCharset;
   private final ICommonsOrderedMap <String, String> m_aCustomProperties;
 
@@ -63,6 +64,51 @@ public class AS4OutgoingAttachment
                                    @Nullable final EAS4CompressionMode eCompressionMode,
                                    @Nullable final Charset aCharset,
                                    @Nullable final ICommonsOrderedMap <String, String> aCustomProperties)
+  {
+    this (aDataBytes,
+          aDataFile,
+          sContentID,
+          sFilename,
+          aMimeType,
+          eCompressionMode,
+          true,
+          aCharset,
+          aCustomProperties);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDataBytes
+   *        The data as bytes. Either this or the file must be present.
+   * @param aDataFile
+   *        The data as file. Either this or the bytes must be present.
+   * @param sContentID
+   *        The Content-ID to use. May be <code>null</code>.
+   * @param sFilename
+   *        The filename to use. May be <code>null</code>.
+   * @param aMimeType
+   *        The MIME type of the data. May not be <code>null</code>.
+   * @param eCompressionMode
+   *        The compression mode to use. May be <code>null</code>.
+   * @param bCompressionMandatory
+   *        <code>true</code> if the compression mode must be kept even for
+   *        incompressible content.
+   * @param aCharset
+   *        The character set of the data. May be <code>null</code>.
+   * @param aCustomProperties
+   *        Custom part properties. May be <code>null</code>.
+   * @since 3.0.1
+   */
+  protected AS4OutgoingAttachment (@Nullable final ByteArrayWrapper aDataBytes,
+                                   @Nullable final File aDataFile,
+                                   @Nullable final String sContentID,
+                                   @Nullable final String sFilename,
+                                   @Nonnull final IMimeType aMimeType,
+                                   @Nullable final EAS4CompressionMode eCompressionMode,
+                                   final boolean bCompressionMandatory,
+                                   @Nullable final Charset aCharset,
+                                   @Nullable final ICommonsOrderedMap <String, String> aCustomProperties)
   {
     ValueEnforcer.isTrue (aDataBytes != null || aDataFile != null, "SrcData or SrcFile must be present");
     ValueEnforcer.isFalse (aDataBytes != null && aDataFile != null,
@@ -74,6 +120,7 @@ public class AS4OutgoingAttachment
     m_sFilename = sFilename;
     m_aMimeType = aMimeType;
     m_eCompressionMode = eCompressionMode;
+    m_bCompressionMandatory = bCompressionMandatory;
     m_aCharset = aCharset;
     // Create a clone
     m_aCustomProperties = aCustomProperties != null ? aCustomProperties.getClone () : new CommonsLinkedHashMap <> ();
@@ -159,6 +206,20 @@ public class AS4OutgoingAttachment
     return m_eCompressionMode;
   }
 
+  /**
+   * @return <code>true</code> if the compression mode must be used even if the
+   *         content is incompressible (in which case it is only stored),
+   *         <code>false</code> if the compression policy may skip the
+   *         compression. Only relevant if a compression mode is set. Default
+   *         is <code>true</code>.
+   * @see WSS4JAttachment#getCompressionPolicy()
+   * @since 3.0.1
+   */
+  public final boolean isCompressionMandatory ()
+  {
+    return m_bCompressionMandatory;
+  }
+
   /**
    * @return The character set to use. May be <code>null</code>.
    * @since 0.14.0
@@ -200,6 +261,7 @@ public class AS4OutgoingAttachment
                                        .append ("Filename", m_sFilename)
                                        .append ("MimeType", m_aMimeType)
                                        .append ("CompressionMode", m_eCompressionMode)
+                                       .append ("CompressionMandatory", m_bCompressionMandatory)
                                        .append ("Charset", m_aCharset)
                                        .append ("CustomProperties", m_aCustomProperties)
                                        .getToString ();
@@ -230,6 +292,7 @@ public class AS4OutgoingAttachment
     private String m_sFilename;
     private IMimeType m_aMimeType;
     private EAS4CompressionMode m_eCompressionMode;
+    private boolean m_bCompressionMandatory = true;
     private Charset m_aCharset;
     private final ICommonsOrderedMap <String, String> m_aCustomProperties = new CommonsLinkedHashMap <> ();
 
@@ -314,6 +377,25 @@ public class AS4OutgoingAttachment
       return this;
     }
 
+    /**
+     * Define whether the compression mode must be used even for incompressible
+     * content (e.g. because the receiving profile requires it). If it is
+     * mandatory, incompressible content is only stored in the compression
+     * format. Otherwise the compression is skipped for such content.
+     *
+     * @param b
+     *        <code>true</code> if compression is mandatory, <code>false</code>
+     *        if not. Default is <code>true</code>.
+     * @return this for chaining
+     * @since 3.0.1
+     */
+    @Nonnull
+    public Builder compressionMandatory (final boolean b)
+    {
+      m_bCompressionMandatory = b;
+      return this;
+    }
+
     /**
      * Define the charset of the outgoing attachment.
      *
@@ -423,6 +505,7 @@ public class AS4OutgoingAttachment
                                         m_sFilename,
                                         m_aMimeType,
                                         m_eCompressionMode,
+                                        m_bCompressionMandatory,
                                         m_aCharset,
                                         m_aCustomProperties);
     }
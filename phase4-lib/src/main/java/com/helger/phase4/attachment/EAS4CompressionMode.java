@@ -55,6 +55,18 @@ public enum EAS4CompressionMode implements IHasID <String>
     {
       return new GZIPOutputStream (aOS);
     }
+
+    @Override
+    @Nonnull
+    public OutputStream getCompressStream (@Nonnull final OutputStream aOS, final int nLevel) throws IOException
+    {
+      return new GZIPOutputStream (aOS)
+      {
+        {
+          def.setLevel (nLevel);
+        }
+      };
+    }
   };
 
   private final String m_sID;
@@ -131,6 +143,24 @@ public enum EAS4CompressionMode implements IHasID <String>
   @Nonnull
   public abstract OutputStream getCompressStream (@Nonnull OutputStream aOS) throws IOException;
 
+  /**
+   * Get an {@link OutputStream} to compress the provided {@link OutputStream}
+   * with a specific compression level. The output is always valid for this
+   * compression mode, even with level 0, where the data is only stored.
+   *
+   * @param aOS
+   *        The source {@link OutputStream}. May not be <code>null</code>.
+   * @param nLevel
+   *        The deflate compression level from 0 (store only) to 9 (best
+   *        compression), or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}.
+   * @return The compressing {@link OutputStream}
+   * @throws IOException
+   *         In case of IO error
+   * @since 3.0.1
+   */
+  @Nonnull
+  public abstract OutputStream getCompressStream (@Nonnull OutputStream aOS, int nLevel) throws IOException;
+
   @Nullable
   public static EAS4CompressionMode getFromMimeTypeStringOrNull (@Nullable final String sMimeType)
   {
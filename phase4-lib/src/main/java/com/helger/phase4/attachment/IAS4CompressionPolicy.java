@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.mime.IMimeType;
+
+/**
+ * Decides whether and how strongly an outgoing attachment is compressed, if a
+ * compression mode was requested for it. This avoids spending CPU time on
+ * content that is already compressed.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@FunctionalInterface
+public interface IAS4CompressionPolicy
+{
+  /** The default number of leading bytes provided as a sample */
+  int DEFAULT_SAMPLE_SIZE = 4 * CGlobal.BYTES_PER_KILOBYTE;
+
+  /**
+   * @return The maximum number of leading bytes of the attachment provided as
+   *         sample to
+   *         {@link #getCompressionDecision(IMimeType, long, byte[], boolean)}.
+   *         Must be &ge; 0.
+   */
+  @Nonnegative
+  default int getSampleSize ()
+  {
+    return DEFAULT_SAMPLE_SIZE;
+  }
+
+  /**
+   * Decide how to compress a single outgoing attachment.
+   *
+   * @param aMimeType
+   *        The original MIME type of the attachment. May not be
+   *        <code>null</code>.
+   * @param nSize
+   *        The uncompressed size of the attachment in bytes.
+   * @param aSample
+   *        The first bytes of the attachment, at most {@link #getSampleSize()}
+   *        bytes. May not be <code>null</code> but may be empty.
+   * @param bCompressionMandatory
+   *        <code>true</code> if the requested compression mode must be kept
+   *        (e.g. because the profile requires it). In that case
+   *        {@link AS4CompressionDecision#skip(String)} is not allowed and is
+   *        handled like {@link AS4CompressionDecision#storeOnly(String)}.
+   * @return The decision. May not be <code>null</code>.
+   */
+  @Nonnull
+  AS4CompressionDecision getCompressionDecision (@Nonnull IMimeType aMimeType,
+                                                 @Nonnegative long nSize,
+                                                 @Nonnull byte [] aSample,
+                                                 boolean bCompressionMandatory);
+
+  /**
+   * @return A policy that always compresses with the default level. This is
+   *         the behaviour of previous versions.
+   */
+  @Nonnull
+  static IAS4CompressionPolicy always ()
+  {
+    return (aMimeType, nSize, aSample, bMandatory) -> AS4CompressionDecision.compress (Deflater.DEFAULT_COMPRESSION,
+                                                                                      "always");
+  }
+}
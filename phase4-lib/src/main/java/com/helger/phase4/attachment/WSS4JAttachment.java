@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Map;
 
@@ -34,12 +35,12 @@ import org.apache.wss4j.common.ext.Attachment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.annotation.UnsupportedOperation;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.functional.IThrowingConsumer;
 import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.file.FileHelper;
@@ -53,6 +54,7 @@ import com.helger.commons.string.ToStringGenerator;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.mail.datasource.InputStreamProviderDataSource;
 import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.util.AS4PooledByteArrayOutputStream;
 import com.helger.phase4.util.AS4ResourceHelper;
 
 import jakarta.activation.DataHandler;
@@ -79,6 +81,77 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   public static final String CONTENT_ID_SUFFIX = ">";
 
   private static final Logger LOGGER = LoggerFactory.getLogger (WSS4JAttachment.class);
+  // Header and trailer bytes of a GZIP stream
+  private static final int GZIP_OVERHEAD = 64;
+
+  private static volatile AS4AttachmentMemoryBudget s_aMemoryBudget = new AS4AttachmentMemoryBudget ();
+
+  /**
+   * @return The global memory budget that decides whether attachments are kept
+   *         in memory or spilled to temporary files. Never <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public static AS4AttachmentMemoryBudget getMemoryBudget ()
+  {
+    return s_aMemoryBudget;
+  }
+
+  /**
+   * Set the global memory budget that decides whether attachments are kept in
+   * memory or spilled to temporary files. Only affects attachments created
+   * afterwards.
+   *
+   * @param aMemoryBudget
+   *        The memory budget to use. May not be <code>null</code>.
+   * @since 3.0.1
+   */
+  public static void setMemoryBudget (@Nonnull final AS4AttachmentMemoryBudget aMemoryBudget)
+  {
+    ValueEnforcer.notNull (aMemoryBudget, "MemoryBudget");
+    s_aMemoryBudget = aMemoryBudget;
+  }
+
+  private static volatile IAS4CompressionPolicy s_aCompressionPolicy = new AS4CompressionPolicyDefault ();
+  private static final AS4CompressionStatistics COMPRESSION_STATS = new AS4CompressionStatistics ();
+
+  /**
+   * @return The global policy that decides whether and how strongly outgoing
+   *         attachments with a compression mode are compressed. Never
+   *         <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public static IAS4CompressionPolicy getCompressionPolicy ()
+  {
+    return s_aCompressionPolicy;
+  }
+
+  /**
+   * Set the global compression policy for outgoing attachments. Use
+   * {@link IAS4CompressionPolicy#always()} to compress every attachment with
+   * the default level.
+   *
+   * @param aCompressionPolicy
+   *        The compression policy to use. May not be <code>null</code>.
+   * @since 3.0.1
+   */
+  public static void setCompressionPolicy (@Nonnull final IAS4CompressionPolicy aCompressionPolicy)
+  {
+    ValueEnforcer.notNull (aCompressionPolicy, "CompressionPolicy");
+    s_aCompressionPolicy = aCompressionPolicy;
+  }
+
+  /**
+   * @return The process wide statistics of outgoing attachment compression.
+   *         Never <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public static AS4CompressionStatistics getCompressionStatistics ()
+  {
+    return COMPRESSION_STATS;
+  }
 
   private final AS4ResourceHelper m_aResHelper;
   private IHasInputStream m_aISP;
@@ -86,6 +159,8 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   private EAS4CompressionMode m_eCompressionMode;
   private Charset m_aCharset;
   private String m_sUncompressedMimeType;
+  private AS4CompressionResult m_aCompressionResult;
+  private long m_nSourceLength = -1;
   private final ICommonsOrderedMap <String, String> m_aCustomPartProps = new CommonsLinkedHashMap <> ();
 
   public WSS4JAttachment (@Nonnull @WillNotClose final AS4ResourceHelper aResHelper, @Nullable final String sMimeType)
@@ -221,6 +296,30 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     return this;
   }
 
+  /**
+   * @return The number of bytes provided by the source stream of an outgoing
+   *         attachment (after compression), or -1 if it is unknown. Used to
+   *         decide whether derived content (like the encrypted content) can be
+   *         kept in memory.
+   * @since 3.0.1
+   */
+  public final long getSourceLength ()
+  {
+    return m_nSourceLength;
+  }
+
+  /**
+   * @return The outcome of the compression of an outgoing attachment that
+   *         had a compression mode requested. <code>null</code> for incoming
+   *         attachments and outgoing attachments without compression mode.
+   * @since 3.0.1
+   */
+  @Nullable
+  public final AS4CompressionResult getCompressionResult ()
+  {
+    return m_aCompressionResult;
+  }
+
   @Nullable
   public final Charset getCharsetOrDefault (@Nullable final Charset aDefault)
   {
@@ -311,6 +410,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                        .append ("ISP", m_aISP)
                                        .append ("CTE", m_eCTE)
                                        .append ("CM", m_eCompressionMode)
+                                       .appendIfNotNull ("CompressionResult", m_aCompressionResult)
                                        .append ("Charset", m_aCharset)
                                        .getToString ();
   }
@@ -347,6 +447,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                                                 aAttachment.getFilename (),
                                                                 aAttachment.getMimeType (),
                                                                 aAttachment.getCompressionMode (),
+                                                                aAttachment.isCompressionMandatory (),
                                                                 aAttachment.getCharset (),
                                                                 aResHelper);
       ret.customPartProperties ().addAll (aAttachment.customProperties ());
@@ -361,6 +462,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                                                 aAttachment.getFilename (),
                                                                 aAttachment.getMimeType (),
                                                                 aAttachment.getCompressionMode (),
+                                                                aAttachment.isCompressionMandatory (),
                                                                 aAttachment.getCharset (),
                                                                 aResHelper);
       ret.customPartProperties ().addAll (aAttachment.customProperties ());
@@ -371,6 +473,110 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     throw new IllegalStateException ("Unsupported outgoing attachment data provider: " + aAttachment);
   }
 
+  @Nonnull
+  private static AS4CompressionDecision _getCompressionDecision (@Nonnull final IMimeType aMimeType,
+                                                                 final long nSrcBytes,
+                                                                 @Nonnull final byte [] aSample,
+                                                                 final boolean bCompressionMandatory)
+  {
+    final AS4CompressionDecision ret = s_aCompressionPolicy.getCompressionDecision (aMimeType,
+                                                                                    nSrcBytes,
+                                                                                    aSample,
+                                                                                    bCompressionMandatory);
+    if (ret == null)
+      throw new IllegalStateException ("The compression policy returned no decision");
+    if (!ret.isCompress () && bCompressionMandatory)
+    {
+      // Keep the compression format but don't spend CPU on it
+      return AS4CompressionDecision.storeOnly (ret.getReason ());
+    }
+    return ret;
+  }
+
+  private static void _setCompressionResult (@Nonnull final WSS4JAttachment aAttachment,
+                                             @Nonnull final AS4CompressionDecision aDecision,
+                                             final long nSrcBytes,
+                                             final long nResultBytes,
+                                             final long nDurationNanos)
+  {
+    final AS4CompressionResult aResult = COMPRESSION_STATS.onAttachment (aDecision,
+                                                                         nSrcBytes,
+                                                                         nResultBytes,
+                                                                         nDurationNanos);
+    aAttachment.m_aCompressionResult = aResult;
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Outgoing attachment '" +
+                    aAttachment.getId () +
+                    "' of type '" +
+                    aAttachment.getUncompressedMimeType () +
+                    "': " +
+                    (aDecision.isCompress () ? "compressed with level " + aDecision.getLevel () : "not compressed") +
+                    " (" +
+                    aDecision.getReason () +
+                    "), " +
+                    nSrcBytes +
+                    " -> " +
+                    nResultBytes +
+                    " bytes, ratio " +
+                    aResult.getRatio () +
+                    ", took " +
+                    nDurationNanos / 1_000 +
+                    " us, est. saved " +
+                    aResult.getEstimatedSavedNanos () / 1_000 +
+                    " us");
+  }
+
+  /**
+   * Compress the source into memory if the memory budget allows it, or into a
+   * temporary file otherwise, and set the result as source of the attachment.
+   */
+  private static void _compress (@Nonnull final WSS4JAttachment aAttachment,
+                                 @Nonnull final IThrowingConsumer <OutputStream, IOException> aSrcWriter,
+                                 final long nSrcBytes,
+                                 @Nonnull final EAS4CompressionMode eCompressionMode,
+                                 @Nonnull final AS4CompressionDecision aDecision,
+                                 @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    aAttachment.setCompressionMode (eCompressionMode);
+
+    final long nStart = System.nanoTime ();
+    final long nResultBytes;
+    // The compressed content is never much larger than the source (only some
+    // header bytes), so reserve the source size
+    if (s_aMemoryBudget.tryReserve (nSrcBytes, aResHelper))
+    {
+      // Compress into a pooled buffer to avoid that the original is compressed
+      // more than once
+      final int nInitialCapacity = (int) Math.min (nSrcBytes + GZIP_OVERHEAD, Integer.MAX_VALUE);
+      final AS4PooledByteArrayOutputStream aPBAOS = new AS4PooledByteArrayOutputStream (nInitialCapacity).releaseOnClose (aResHelper);
+      try (final OutputStream aOS = eCompressionMode.getCompressStream (aPBAOS, aDecision.getLevel ()))
+      {
+        aSrcWriter.accept (aOS);
+      }
+      nResultBytes = aPBAOS.size ();
+      aAttachment.setSourceStreamProvider (aPBAOS.getAsInputStreamProvider ());
+    }
+    else
+    {
+      // Create temporary file with compressed content to avoid that the
+      // original is compressed more than once
+      final File aRealFile = aResHelper.createTempFile ();
+      try (final NonBlockingBufferedOutputStream aFOS = FileHelper.getBufferedOutputStream (aRealFile))
+      {
+        if (aFOS != null)
+          try (final OutputStream aOS = eCompressionMode.getCompressStream (aFOS, aDecision.getLevel ()))
+          {
+            aSrcWriter.accept (aOS);
+          }
+      }
+      nResultBytes = aRealFile.length ();
+      aAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
+    }
+    aAttachment.m_nSourceLength = nResultBytes;
+    _setCompressionResult (aAttachment, aDecision, nSrcBytes, nResultBytes, System.nanoTime () - nStart);
+  }
+
   /**
    * Quasi constructor. Performs compression internally if necessary.
    *
@@ -394,7 +600,6 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
    * @throws IOException
    *         In case something goes wrong during compression
    */
-  @SuppressWarnings ("resource")
   @Nonnull
   public static WSS4JAttachment createOutgoingFileAttachment (@Nonnull final File aSrcFile,
                                                               @Nullable final String sContentID,
@@ -403,6 +608,56 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                                               @Nullable final EAS4CompressionMode eCompressionMode,
                                                               @Nullable final Charset aCharset,
                                                               @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    return createOutgoingFileAttachment (aSrcFile,
+                                         sContentID,
+                                         sFilename,
+                                         aMimeType,
+                                         eCompressionMode,
+                                         true,
+                                         aCharset,
+                                         aResHelper);
+  }
+
+  /**
+   * Quasi constructor. Performs compression internally if necessary. The
+   * global {@link #getCompressionPolicy() compression policy} decides whether
+   * and how strongly the content is compressed.
+   *
+   * @param aSrcFile
+   *        Source, uncompressed, unencrypted file.
+   * @param sContentID
+   *        Content-ID of the attachment. If <code>null</code> a random ID is
+   *        created.
+   * @param sFilename
+   *        Filename of the attachment. May be <code>null</code> in which case
+   *        no <code>Content-Disposition</code> header is created.
+   * @param aMimeType
+   *        Original mime type of the file.
+   * @param eCompressionMode
+   *        Optional compression mode to use. May be <code>null</code>.
+   * @param bCompressionMandatory
+   *        <code>true</code> if the compression mode must be kept even for
+   *        incompressible content, <code>false</code> if the compression may
+   *        be skipped.
+   * @param aCharset
+   *        The character set to use. May be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The newly created attachment instance. Never <code>null</code>.
+   * @throws IOException
+   *         In case something goes wrong during compression
+   * @since 3.0.1
+   */
+  @Nonnull
+  public static WSS4JAttachment createOutgoingFileAttachment (@Nonnull final File aSrcFile,
+                                                              @Nullable final String sContentID,
+                                                              @Nullable final String sFilename,
+                                                              @Nonnull final IMimeType aMimeType,
+                                                              @Nullable final EAS4CompressionMode eCompressionMode,
+                                                              final boolean bCompressionMandatory,
+                                                              @Nullable final Charset aCharset,
+                                                              @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
   {
     ValueEnforcer.notNull (aSrcFile, "File");
     ValueEnforcer.notNull (aMimeType, "MimeType");
@@ -414,32 +669,39 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
     // If the attachment has an compressionMode do it directly, so that
     // encryption later on works on the compressed content
-    final File aRealFile;
     if (eCompressionMode != null)
     {
-      ret.setCompressionMode (eCompressionMode);
-
-      // Create temporary file with compressed content to avoid that the
-      // original is compressed more than once
-      aRealFile = aResHelper.createTempFile ();
-      try (final NonBlockingBufferedOutputStream aFOS = FileHelper.getBufferedOutputStream (aRealFile))
+      final long nSrcBytes = aSrcFile.length ();
+      final byte [] aSample;
+      try (final InputStream aIS = FileHelper.getBufferedInputStream (aSrcFile))
       {
-        if (aFOS != null)
-          try (final OutputStream aOS = eCompressionMode.getCompressStream (aFOS))
-          {
-            StreamHelper.copyInputStreamToOutputStream (FileHelper.getBufferedInputStream (aSrcFile), aOS);
-          }
+        if (aIS == null)
+          throw new IOException ("Failed to open file '" + aSrcFile.getAbsolutePath () + "'");
+        aSample = aIS.readNBytes (s_aCompressionPolicy.getSampleSize ());
       }
-    }
-    else
-    {
-      // No compression - use file as-is
-      aRealFile = aSrcFile;
+      final AS4CompressionDecision aDecision = _getCompressionDecision (aMimeType,
+                                                                        nSrcBytes,
+                                                                        aSample,
+                                                                        bCompressionMandatory);
+      if (aDecision.isCompress ())
+      {
+        _compress (ret,
+                   aOS -> StreamHelper.copyInputStreamToOutputStream (FileHelper.getBufferedInputStream (aSrcFile),
+                                                                      aOS),
+                   nSrcBytes,
+                   eCompressionMode,
+                   aDecision,
+                   aResHelper);
+        return ret;
+      }
+      _setCompressionResult (ret, aDecision, nSrcBytes, nSrcBytes, 0);
     }
 
+    // No compression - use file as-is
     // Set a stream provider that can be read multiple times (opens a new
     // FileInputStream internally)
-    ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
+    ret.m_nSourceLength = aSrcFile.length ();
+    ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aSrcFile)));
     return ret;
   }
 
@@ -467,7 +729,6 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
    * @throws IOException
    *         In case something goes wrong during compression
    */
-  @SuppressWarnings ("resource")
   @Nonnull
   public static WSS4JAttachment createOutgoingFileAttachment (@Nonnull final byte [] aSrcData,
                                                               @Nullable final String sContentID,
@@ -476,6 +737,55 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                                               @Nullable final EAS4CompressionMode eCompressionMode,
                                                               @Nullable final Charset aCharset,
                                                               @Nonnull final AS4ResourceHelper aResHelper) throws IOException
+  {
+    return createOutgoingFileAttachment (aSrcData,
+                                         sContentID,
+                                         sFilename,
+                                         aMimeType,
+                                         eCompressionMode,
+                                         true,
+                                         aCharset,
+                                         aResHelper);
+  }
+
+  /**
+   * Quasi constructor. Performs compression internally if necessary. The
+   * global {@link #getCompressionPolicy() compression policy} decides whether
+   * and how strongly the content is compressed.
+   *
+   * @param aSrcData
+   *        Source in-memory data, uncompressed, unencrypted.
+   * @param sContentID
+   *        Optional content ID or <code>null</code> to create a random one.
+   * @param sFilename
+   *        Optional filename to use in the "Content-Disposition" headers. May
+   *        be <code>null</code>.
+   * @param aMimeType
+   *        Original mime type of the file. May not be <code>null</code>.
+   * @param eCompressionMode
+   *        Optional compression mode to use. May be <code>null</code>.
+   * @param bCompressionMandatory
+   *        <code>true</code> if the compression mode must be kept even for
+   *        incompressible content, <code>false</code> if the compression may
+   *        be skipped.
+   * @param aCharset
+   *        The character set to use. May be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The newly created attachment instance. Never <code>null</code>.
+   * @throws IOException
+   *         In case something goes wrong during compression
+   * @since 3.0.1
+   */
+  @Nonnull
+  public static WSS4JAttachment createOutgoingFileAttachment (@Nonnull final byte [] aSrcData,
+                                                              @Nullable final String sContentID,
+                                                              @Nullable final String sFilename,
+                                                              @Nonnull final IMimeType aMimeType,
+                                                              @Nullable final EAS4CompressionMode eCompressionMode,
+                                                              final boolean bCompressionMandatory,
+                                                              @Nullable final Charset aCharset,
+                                                              @Nonnull final AS4ResourceHelper aResHelper) throws IOException
   {
     ValueEnforcer.notNull (aSrcData, "Data");
     ValueEnforcer.notNull (aMimeType, "MimeType");
@@ -490,25 +800,23 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     // encryption later on works on the compressed content
     if (eCompressionMode != null)
     {
-      ret.setCompressionMode (eCompressionMode);
-
-      // Create temporary file with compressed content
-      final File aRealFile = aResHelper.createTempFile ();
-      try (final NonBlockingBufferedOutputStream aFOS = FileHelper.getBufferedOutputStream (aRealFile))
+      final byte [] aSample = Arrays.copyOf (aSrcData,
+                                             Math.min (aSrcData.length, s_aCompressionPolicy.getSampleSize ()));
+      final AS4CompressionDecision aDecision = _getCompressionDecision (aMimeType,
+                                                                        aSrcData.length,
+                                                                        aSample,
+                                                                        bCompressionMandatory);
+      if (aDecision.isCompress ())
       {
-        if (aFOS != null)
-          try (final OutputStream aOS = eCompressionMode.getCompressStream (aFOS))
-          {
-            aOS.write (aSrcData);
-          }
+        _compress (ret, aOS -> aOS.write (aSrcData), aSrcData.length, eCompressionMode, aDecision, aResHelper);
+        return ret;
       }
-      ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
-    }
-    else
-    {
-      // No compression - use data as-is
-      ret.setSourceStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aSrcData)));
+      _setCompressionResult (ret, aDecision, aSrcData.length, aSrcData.length, 0);
     }
+
+    // No compression - use data as-is
+    ret.m_nSourceLength = aSrcData.length;
+    ret.setSourceStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aSrcData)));
     return ret;
   }
 
@@ -518,11 +826,35 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
    *
    * @param nBytes
    *        File size.
-   * @return <code>true</code> if the size is &le; than 64 Kilobytes
+   * @return <code>true</code> if the size is &le; than the maximum attachment
+   *         size of the global memory budget (64 Kilobytes by default)
+   * @see #getMemoryBudget()
    */
   public static boolean canBeKeptInMemory (final long nBytes)
   {
-    return nBytes <= 64 * CGlobal.BYTES_PER_KILOBYTE;
+    return nBytes <= s_aMemoryBudget.getMaxBytesPerAttachment ();
+  }
+
+  /**
+   * Check if an incoming attachment can be kept in memory, and if so reserve
+   * the bytes from the global memory budget until the resource helper is
+   * closed.
+   *
+   * @param nBytes
+   *        File size. Negative values mean unknown size.
+   * @param aResHelper
+   *        The resource helper that releases the reservation. May not be
+   *        <code>null</code>.
+   * @return <code>true</code> if the attachment can be kept in memory,
+   *         <code>false</code> if a temporary file is needed.
+   * @since 3.0.1
+   */
+  public static boolean tryKeepInMemory (final long nBytes, @Nonnull final AS4ResourceHelper aResHelper)
+  {
+    // The size of the body part is unknown - cannot be accounted
+    if (nBytes < 0)
+      return true;
+    return s_aMemoryBudget.tryReserve (nBytes, aResHelper);
   }
 
   @SuppressWarnings ("resource")
@@ -548,7 +880,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Creating incoming WSS4J attachment with " + aBodyPart.getSize () + " bytes");
 
-    if (canBeKeptInMemory (aBodyPart.getSize ()))
+    if (tryKeepInMemory (aBodyPart.getSize (), aResHelper))
     {
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Keeping WSS4J attachment in-memory");
@@ -17,6 +17,7 @@
 package com.helger.phase4.attachment;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -40,6 +41,7 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4PooledByteArrayOutputStream;
 import com.helger.phase4.util.AS4ResourceHelper;
 
 /**
@@ -56,6 +58,8 @@ public class WSS4JAttachmentCallbackHandler implements CallbackHandler
   public static final String ATTACHMENT_ID_ATTACHMENTS = "Attachments";
 
   private static final Logger LOGGER = LoggerFactory.getLogger (WSS4JAttachmentCallbackHandler.class);
+  // IV, padding and authentication tag of an encrypted attachment
+  private static final int CRYPT_OVERHEAD = 64;
 
   private final ICommonsOrderedMap <String, WSS4JAttachment> m_aAttachmentMap = new CommonsLinkedHashMap <> ();
   private final AS4ResourceHelper m_aResHelper;
@@ -170,8 +174,25 @@ public class WSS4JAttachmentCallbackHandler implements CallbackHandler
           // This property is only in WSS4JAttachment so we need to copy it
           // separately
           aEffectiveResultAttachment.setCharset (aSrcAttachment.getCharsetOrDefault (null));
-          // Use supplier to ensure stream is opened only when needed
-          aEffectiveResultAttachment.setSourceStreamProvider (HasInputStream.once (aAttachmentResult::getSourceStream));
+          final long nSrcLength = aSrcAttachment.getSourceLength ();
+          if (nSrcLength >= 0 && WSS4JAttachment.tryKeepInMemory (nSrcLength + CRYPT_OVERHEAD, m_aResHelper))
+          {
+            // Small outgoing attachment - buffer the result in memory, so that
+            // it can be read more than once and the whole message does not
+            // need to be spooled to a temporary file
+            final int nCapacity = (int) (nSrcLength + CRYPT_OVERHEAD);
+            final AS4PooledByteArrayOutputStream aPBAOS = new AS4PooledByteArrayOutputStream (nCapacity).releaseOnClose (m_aResHelper);
+            try (final InputStream aIS = aAttachmentResult.getSourceStream ())
+            {
+              aIS.transferTo (aPBAOS);
+            }
+            aEffectiveResultAttachment.setSourceStreamProvider (aPBAOS.getAsInputStreamProvider ());
+          }
+          else
+          {
+            // Use supplier to ensure stream is opened only when needed
+            aEffectiveResultAttachment.setSourceStreamProvider (HasInputStream.once (aAttachmentResult::getSourceStream));
+          }
 
           // Overwrite decrypted attachment in the Map
           m_aAttachmentMap.put (sAttachmentID, aEffectiveResultAttachment);
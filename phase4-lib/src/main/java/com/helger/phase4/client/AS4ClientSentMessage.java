@@ -187,6 +187,27 @@ public class AS4ClientSentMessage <T>
     return m_aSentDateTime;
   }
 
+  /**
+   * Create a copy of this object with a different response content, e.g. a
+   * different representation of the same payload.
+   *
+   * @param <U>
+   *        The new response content type
+   * @param aResponseContent
+   *        The new response payload. May be <code>null</code>.
+   * @return A new object and never <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public <U> AS4ClientSentMessage <U> getWithResponseContent (@Nullable final U aResponseContent)
+  {
+    return new AS4ClientSentMessage <> (m_aBuiltMsg,
+                                        m_aResponseStatusLine,
+                                        m_aResponseHeaders,
+                                        aResponseContent,
+                                        m_aSentDateTime);
+  }
+
   @Override
   public String toString ()
   {
@@ -55,6 +55,35 @@ public final class AS4Configuration
   public static final String PROPERTY_PHASE4_MANAGER_INMEMORY = "phase4.manager.inmemory";
   public static final boolean DEFAULT_PHASE4_MANAGER_INMEMORY = true;
 
+  /**
+   * The boolean property to use the copy-on-write variants of the in-memory
+   * MPC and PMode managers.
+   */
+  public static final String PROPERTY_PHASE4_MANAGER_COPYONWRITE = "phase4.manager.copyonwrite";
+  public static final boolean DEFAULT_PHASE4_MANAGER_COPYONWRITE = false;
+
+  /**
+   * The boolean property to persist the MPC, PMode and duplicate managers in a
+   * binary snapshot plus delta log instead of XML files.
+   */
+  public static final String PROPERTY_PHASE4_MANAGER_BINARY = "phase4.manager.binary";
+  public static final boolean DEFAULT_PHASE4_MANAGER_BINARY = false;
+
+  /**
+   * The boolean property to run a warm-up with synthetic messages on server
+   * startup.
+   */
+  public static final String PROPERTY_PHASE4_WARMUP_ENABLED = "phase4.warmup.enabled";
+  public static final boolean DEFAULT_PHASE4_WARMUP_ENABLED = false;
+
+  /**
+   * The int property for the maximum number of detailed ebMS error responses
+   * per minute and remote address. Additional errors are answered with a
+   * precomputed, unsigned error envelope. Values &le; 0 disable the limit.
+   */
+  public static final String PROPERTY_PHASE4_ERRORMSG_DETAILED_PER_MINUTE = "phase4.errormsg.detailed.perminute";
+  public static final int DEFAULT_PHASE4_ERRORMSG_DETAILED_PER_MINUTE = 0;
+
   /**
    * The boolean property to enable synchronization of sign/verify and
    * encrypt/decrypt.
@@ -64,6 +93,60 @@ public final class AS4Configuration
 
   public static final long DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES = 10;
 
+  /**
+   * The boolean property to enable the execution of incoming and asynchronous
+   * processing on virtual threads (requires Java 21 or later at runtime).
+   */
+  public static final String PROPERTY_PHASE4_VIRTUAL_THREADS = "phase4.virtualthreads.enabled";
+  public static final boolean DEFAULT_PHASE4_VIRTUAL_THREADS = false;
+
+  /**
+   * The int property for the maximum number of incoming messages processed at
+   * the same time by the AS4 servlet. Values &le; 0 disable admission control.
+   */
+  public static final String PROPERTY_PHASE4_ADMISSION_MAX_INFLIGHT = "phase4.admission.maxinflight";
+  public static final int DEFAULT_PHASE4_ADMISSION_MAX_INFLIGHT = 0;
+  /**
+   * The long property for the maximum total content length of incoming
+   * messages processed at the same time by the AS4 servlet.
+   */
+  public static final String PROPERTY_PHASE4_ADMISSION_MAX_INFLIGHT_BYTES = "phase4.admission.maxinflightbytes";
+  public static final long DEFAULT_PHASE4_ADMISSION_MAX_INFLIGHT_BYTES = Long.MAX_VALUE;
+  /**
+   * The long property for the number of bytes charged by the admission control
+   * for incoming messages without a <code>Content-Length</code>.
+   */
+  public static final String PROPERTY_PHASE4_ADMISSION_UNKNOWN_LENGTH_BYTES = "phase4.admission.unknownlengthbytes";
+  public static final long DEFAULT_PHASE4_ADMISSION_UNKNOWN_LENGTH_BYTES = 10 * 1024 * 1024L;
+  /**
+   * The long property for the number of seconds reported in the
+   * <code>Retry-After</code> header of rejected requests.
+   */
+  public static final String PROPERTY_PHASE4_ADMISSION_RETRY_AFTER_SECONDS = "phase4.admission.retryafter.seconds";
+  public static final long DEFAULT_PHASE4_ADMISSION_RETRY_AFTER_SECONDS = 30;
+
+  /**
+   * The boolean property to decrypt and decompress incoming attachments in a
+   * single pass into the final temporary file.
+   */
+  public static final String PROPERTY_PHASE4_INCOMING_ATTACHMENTS_PIPELINED = "phase4.incoming.attachments.pipelined";
+  public static final boolean DEFAULT_PHASE4_INCOMING_ATTACHMENTS_PIPELINED = false;
+
+  /**
+   * The boolean property to spool large synchronous HTTP responses of outgoing
+   * messages to temporary files instead of reading them into memory.
+   */
+  public static final String PROPERTY_PHASE4_HTTP_RESPONSE_STREAMING = "phase4.http.response.streaming";
+  public static final boolean DEFAULT_PHASE4_HTTP_RESPONSE_STREAMING = false;
+
+  /**
+   * The boolean property to enable the StAX pre-scan of the Messaging header of
+   * incoming messages, to reject duplicates and messages without a matching
+   * PMode before the SOAP DOM is built.
+   */
+  public static final String PROPERTY_PHASE4_INCOMING_PRESCAN_ENABLED = "phase4.incoming.prescan.enabled";
+  public static final boolean DEFAULT_PHASE4_INCOMING_PRESCAN_ENABLED = false;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4Configuration.class);
 
   /**
@@ -299,4 +382,170 @@ public final class AS4Configuration
     // Defaults to true for backwards compatibility reason
     return getConfig ().getAsBoolean ("phase4.errormsg.include.stacktraces", true);
   }
+
+  /**
+   * @return <code>true</code> if virtual threads should be used for incoming
+   *         request handling and asynchronous processing, if the runtime
+   *         supports it. Taken from the configuration item
+   *         <code>phase4.virtualthreads.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 3.0.1
+   */
+  public static boolean isUseVirtualThreads ()
+  {
+    return getConfig ().getAsBoolean (PROPERTY_PHASE4_VIRTUAL_THREADS, DEFAULT_PHASE4_VIRTUAL_THREADS);
+  }
+
+  /**
+   * @return The maximum number of incoming messages processed at the same time
+   *         by the AS4 servlet. Values &le; 0 mean no admission control. Taken
+   *         from the configuration item
+   *         <code>phase4.admission.maxinflight</code>. Defaults to
+   *         {@value #DEFAULT_PHASE4_ADMISSION_MAX_INFLIGHT}.
+   * @since 3.0.1
+   */
+  public static int getAdmissionMaxInFlight ()
+  {
+    return getConfig ().getAsInt (PROPERTY_PHASE4_ADMISSION_MAX_INFLIGHT, DEFAULT_PHASE4_ADMISSION_MAX_INFLIGHT);
+  }
+
+  /**
+   * @return The maximum total content length in bytes of incoming messages
+   *         processed at the same time by the AS4 servlet. Taken from the
+   *         configuration item <code>phase4.admission.maxinflightbytes</code>.
+   *         Defaults to no limit.
+   * @since 3.0.1
+   */
+  public static long getAdmissionMaxInFlightBytes ()
+  {
+    return getConfig ().getAsLong (PROPERTY_PHASE4_ADMISSION_MAX_INFLIGHT_BYTES,
+                                   DEFAULT_PHASE4_ADMISSION_MAX_INFLIGHT_BYTES);
+  }
+
+  /**
+   * @return The number of bytes the admission control charges for incoming
+   *         messages without a <code>Content-Length</code> (e.g. chunked
+   *         requests). Taken from the configuration item
+   *         <code>phase4.admission.unknownlengthbytes</code>. Defaults to 10
+   *         MB.
+   * @since 3.0.1
+   */
+  public static long getAdmissionUnknownLengthBytes ()
+  {
+    return getConfig ().getAsLong (PROPERTY_PHASE4_ADMISSION_UNKNOWN_LENGTH_BYTES,
+                                   DEFAULT_PHASE4_ADMISSION_UNKNOWN_LENGTH_BYTES);
+  }
+
+  /**
+   * @return The number of seconds reported in the <code>Retry-After</code>
+   *         header of requests rejected by admission control. Taken from the
+   *         configuration item <code>phase4.admission.retryafter.seconds</code>.
+   *         Defaults to {@value #DEFAULT_PHASE4_ADMISSION_RETRY_AFTER_SECONDS}.
+   * @since 3.0.1
+   */
+  public static long getAdmissionRetryAfterSeconds ()
+  {
+    return getConfig ().getAsLong (PROPERTY_PHASE4_ADMISSION_RETRY_AFTER_SECONDS,
+                                   DEFAULT_PHASE4_ADMISSION_RETRY_AFTER_SECONDS);
+  }
+
+  /**
+   * @return <code>true</code> if encrypted and compressed incoming attachments
+   *         should be decrypted and decompressed in a single streaming pass
+   *         into one temporary file, so that SPIs read the plain content
+   *         directly. Taken from the configuration item
+   *         <code>phase4.incoming.attachments.pipelined</code>. Defaults to
+   *         <code>false</code>.
+   * @since 3.0.1
+   */
+  public static boolean isIncomingAttachmentsPipelined ()
+  {
+    return getConfig ().getAsBoolean (PROPERTY_PHASE4_INCOMING_ATTACHMENTS_PIPELINED,
+                                      DEFAULT_PHASE4_INCOMING_ATTACHMENTS_PIPELINED);
+  }
+
+  /**
+   * @return <code>true</code> if synchronous HTTP responses to outgoing
+   *         messages (e.g. pull responses with large attachments) that are
+   *         larger than 64 KB or have an unknown length should be spooled to
+   *         a temporary file and parsed from there. Taken from the
+   *         configuration item <code>phase4.http.response.streaming</code>.
+   *         Defaults to <code>false</code>.
+   * @since 3.0.1
+   */
+  public static boolean isHttpResponseStreaming ()
+  {
+    return getConfig ().getAsBoolean (PROPERTY_PHASE4_HTTP_RESPONSE_STREAMING, DEFAULT_PHASE4_HTTP_RESPONSE_STREAMING);
+  }
+
+  /**
+   * @return <code>true</code> if the Messaging header of incoming messages
+   *         should be pre-scanned with StAX to reject duplicates, messages
+   *         without a matching PMode or with a PMode not allowed by the AS4
+   *         profile before the SOAP DOM is built. Taken from the configuration
+   *         item <code>phase4.incoming.prescan.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 3.0.1
+   */
+  public static boolean isIncomingPreScanEnabled ()
+  {
+    return getConfig ().getAsBoolean (PROPERTY_PHASE4_INCOMING_PRESCAN_ENABLED, DEFAULT_PHASE4_INCOMING_PRESCAN_ENABLED);
+  }
+
+  /**
+   * @return <code>true</code> if the in-memory MPC and PMode managers should
+   *         use lock-free reads on immutable snapshots, that are replaced on
+   *         each write. This is beneficial if the data rarely changes but is
+   *         read concurrently by many threads. Only has an effect if
+   *         {@link #isUseInMemoryManagers()} is <code>true</code>. Taken from
+   *         the configuration item <code>phase4.manager.copyonwrite</code>.
+   *         Defaults to <code>false</code>.
+   * @since 3.0.1
+   */
+  public static boolean isUseCopyOnWriteManagers ()
+  {
+    return getConfig ().getAsBoolean (PROPERTY_PHASE4_MANAGER_COPYONWRITE, DEFAULT_PHASE4_MANAGER_COPYONWRITE);
+  }
+
+  /**
+   * @return <code>true</code> if the persisting MPC, PMode and duplicate
+   *         managers should use a memory mapped binary snapshot plus an
+   *         append-only delta log instead of XML files. Existing XML files are
+   *         migrated on first startup. Only has an effect if
+   *         {@link #isUseInMemoryManagers()} is <code>false</code>. Taken from
+   *         the configuration item <code>phase4.manager.binary</code>. Defaults
+   *         to <code>false</code>.
+   * @since 3.0.1
+   */
+  public static boolean isUseBinaryManagers ()
+  {
+    return getConfig ().getAsBoolean (PROPERTY_PHASE4_MANAGER_BINARY, DEFAULT_PHASE4_MANAGER_BINARY);
+  }
+
+  /**
+   * @return <code>true</code> if <code>AS4ServerInitializer.initAS4Server()</code>
+   *         should start a background warm-up that builds, signs, encrypts,
+   *         parses, decrypts and verifies synthetic messages for all
+   *         registered AS4 profiles. Taken from the configuration item
+   *         <code>phase4.warmup.enabled</code>. Defaults to
+   *         <code>false</code>.
+   * @since 3.0.1
+   */
+  public static boolean isWarmUpEnabled ()
+  {
+    return getConfig ().getAsBoolean (PROPERTY_PHASE4_WARMUP_ENABLED, DEFAULT_PHASE4_WARMUP_ENABLED);
+  }
+
+  /**
+   * @return The maximum number of detailed (marshalled and optionally signed)
+   *         ebMS error responses per minute and remote address. Taken from the
+   *         configuration item <code>phase4.errormsg.detailed.perminute</code>.
+   *         Values &le; 0 mean unlimited. Defaults to <code>0</code>.
+   * @since 3.0.1
+   */
+  public static int getErrorMessageDetailedPerMinute ()
+  {
+    return getConfig ().getAsInt (PROPERTY_PHASE4_ERRORMSG_DETAILED_PER_MINUTE,
+                                  DEFAULT_PHASE4_ERRORMSG_DETAILED_PER_MINUTE);
+  }
 }
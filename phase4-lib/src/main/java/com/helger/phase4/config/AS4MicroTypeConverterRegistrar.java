@@ -50,6 +50,8 @@ import com.helger.phase4.model.pmode.leg.PModePayloadProfile;
 import com.helger.phase4.model.pmode.leg.PModePayloadProfileMicroTypeConverter;
 import com.helger.phase4.model.pmode.leg.PModeProperty;
 import com.helger.phase4.model.pmode.leg.PModePropertyMicroTypeConverter;
+import com.helger.phase4.outbox.AS4OutboxEntry;
+import com.helger.phase4.outbox.AS4OutboxEntryMicroTypeConverter;
 import com.helger.xml.microdom.convert.IMicroTypeConverterRegistrarSPI;
 import com.helger.xml.microdom.convert.IMicroTypeConverterRegistry;
 
@@ -86,5 +88,6 @@ public final class AS4MicroTypeConverterRegistrar implements IMicroTypeConverter
                                                  new PModeReceptionAwarenessMicroTypeConverter ());
     aRegistry.registerMicroElementTypeConverter (MPC.class, new MPCMicroTypeConverter ());
     aRegistry.registerMicroElementTypeConverter (AS4DuplicateItem.class, new AS4DuplicateItemMicroTypeConverter ());
+    aRegistry.registerMicroElementTypeConverter (AS4OutboxEntry.class, new AS4OutboxEntryMicroTypeConverter ());
   }
 }
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.KeyStore;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * A PMode aware crypto factory for hosting many tenants with their own key
+ * material in one instance. The tenant of an incoming message is determined
+ * from the resolved PMode via an {@link IAS4TenantIDResolver}. The crypto
+ * factory of a tenant is created lazily via an
+ * {@link IAS4TenantCryptoFactoryProvider}, fully preloaded (see
+ * {@link AS4CryptoFactoryPreloaded}) and kept in a bounded LRU cache.<br>
+ * The tenant context is kept per thread, because a single instance is shared
+ * by all concurrently processed messages. It must be removed via
+ * {@link #clearContext()} after each message, which the
+ * {@link com.helger.phase4.incoming.AS4RequestHandler} does automatically. The
+ * optional default crypto factory is only used for PModes without a tenant ID.
+ * If no context is set or the tenant of the PMode is unknown, all crypto
+ * operations fail instead of falling back to another key. For sending, use
+ * {@link #getTenantCryptoFactory(String)} to get the crypto factory of a
+ * specific tenant.<br>
+ * Cached entries are immutable. Evicting or invalidating a tenant only removes
+ * it from the cache - messages that are in flight keep using the instance they
+ * already obtained, while new messages load the current configuration.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4CryptoFactoryMultiTenant implements IAS4PModeAwareCryptoFactory
+{
+  public static final int DEFAULT_MAX_TENANTS = 100;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CryptoFactoryMultiTenant.class);
+
+  private final IAS4TenantCryptoFactoryProvider m_aProvider;
+  private final IAS4TenantIDResolver m_aTenantIDResolver;
+  private final IAS4CryptoFactory m_aDefaultCryptoFactory;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, AS4CryptoFactoryPreloaded> m_aCache;
+  private final ThreadLocal <IAS4CryptoFactory> m_aContext = new ThreadLocal <> ();
+
+  /**
+   * Constructor
+   *
+   * @param aProvider
+   *        The provider to create the crypto factory of a tenant. May not be
+   *        <code>null</code>.
+   * @param aTenantIDResolver
+   *        The resolver for the tenant ID from the PMode. May not be
+   *        <code>null</code>.
+   * @param aDefaultCryptoFactory
+   *        The crypto factory to use for PModes without a tenant ID. May be
+   *        <code>null</code>.
+   * @param nMaxTenants
+   *        The maximum number of tenants to keep in memory. Must be &gt; 0.
+   */
+  public AS4CryptoFactoryMultiTenant (@Nonnull final IAS4TenantCryptoFactoryProvider aProvider,
+                                      @Nonnull final IAS4TenantIDResolver aTenantIDResolver,
+                                      @Nullable final IAS4CryptoFactory aDefaultCryptoFactory,
+                                      @Nonnegative final int nMaxTenants)
+  {
+    ValueEnforcer.notNull (aProvider, "Provider");
+    ValueEnforcer.notNull (aTenantIDResolver, "TenantIDResolver");
+    ValueEnforcer.isGT0 (nMaxTenants, "MaxTenants");
+    m_aProvider = aProvider;
+    m_aTenantIDResolver = aTenantIDResolver;
+    m_aDefaultCryptoFactory = aDefaultCryptoFactory;
+    m_aCache = new LRUMap <> (nMaxTenants)
+    {
+      @Override
+      protected void onRemoveEldestEntry (final int nSize,
+                                          @Nonnull final Map.Entry <String, AS4CryptoFactoryPreloaded> aEntry)
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Evicted crypto factory of tenant '" + aEntry.getKey () + "' from the cache");
+      }
+    };
+  }
+
+  /**
+   * @return The maximum number of cached tenants.
+   */
+  @Nonnegative
+  public final int getMaxTenants ()
+  {
+    return m_aCache.getMaxSize ();
+  }
+
+  /**
+   * @return The number of currently cached tenants.
+   */
+  @Nonnegative
+  public int getCachedTenantCount ()
+  {
+    return m_aLock.lockedInt (m_aCache::size);
+  }
+
+  /**
+   * Get the crypto factory of the provided tenant, loading it if necessary.
+   * Loading happens outside of the cache lock, so a slow key store does not
+   * block other tenants.
+   *
+   * @param sTenantID
+   *        The tenant ID. May neither be <code>null</code> nor empty.
+   * @return <code>null</code> if the provider does not know the tenant.
+   */
+  @Nullable
+  public AS4CryptoFactoryPreloaded getTenantCryptoFactory (@Nonnull @Nonempty final String sTenantID)
+  {
+    ValueEnforcer.notEmpty (sTenantID, "TenantID");
+
+    final AS4CryptoFactoryPreloaded aCached = m_aLock.lockedGet ( () -> m_aCache.get (sTenantID));
+    if (aCached != null)
+      return aCached;
+
+    final IAS4CryptoFactory aSource = m_aProvider.createCryptoFactory (sTenantID);
+    if (aSource == null)
+      return null;
+
+    // Resolves key store, trust store and private key
+    final AS4CryptoFactoryPreloaded aNew = new AS4CryptoFactoryPreloaded (aSource);
+    return m_aLock.lockedGet ( () -> {
+      // Another thread may have loaded it in the meantime
+      final AS4CryptoFactoryPreloaded aOther = m_aCache.get (sTenantID);
+      if (aOther != null)
+        return aOther;
+      m_aCache.put (sTenantID, aNew);
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Loaded crypto factory of tenant '" + sTenantID + "'");
+      return aNew;
+    });
+  }
+
+  /**
+   * Remove the provided tenant from the cache, so that its configuration is
+   * reloaded on next usage (e.g. after a certificate change).
+   *
+   * @param sTenantID
+   *        The tenant ID. May be <code>null</code>.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  public EChange invalidateTenant (@Nullable final String sTenantID)
+  {
+    if (StringHelper.hasNoText (sTenantID))
+      return EChange.UNCHANGED;
+    return m_aLock.lockedGet ( () -> EChange.valueOf (m_aCache.remove (sTenantID) != null));
+  }
+
+  /**
+   * Remove all tenants from the cache.
+   *
+   * @return {@link EChange}
+   */
+  @Nonnull
+  public EChange invalidateAllTenants ()
+  {
+    return m_aLock.lockedGet (m_aCache::removeAll);
+  }
+
+  private void _setContextDefault ()
+  {
+    if (m_aDefaultCryptoFactory != null)
+      m_aContext.set (m_aDefaultCryptoFactory);
+    else
+      m_aContext.remove ();
+  }
+
+  /**
+   * Set the tenant of the current thread explicitly.
+   *
+   * @param sTenantID
+   *        The tenant ID. If <code>null</code> or empty, the default crypto
+   *        factory is used.
+   * @throws IllegalArgumentException
+   *         If the provider does not know the tenant
+   */
+  public void setContextTenantID (@Nullable final String sTenantID)
+  {
+    if (StringHelper.hasNoText (sTenantID))
+      _setContextDefault ();
+    else
+    {
+      final AS4CryptoFactoryPreloaded aCryptoFactory = getTenantCryptoFactory (sTenantID);
+      if (aCryptoFactory == null)
+      {
+        m_aContext.remove ();
+        throw new IllegalArgumentException ("No crypto configuration for tenant '" + sTenantID + "' present");
+      }
+      m_aContext.set (aCryptoFactory);
+    }
+  }
+
+  public void setContextPMode (@Nonnull final IPMode aPMode)
+  {
+    ValueEnforcer.notNull (aPMode, "PMode");
+    final String sTenantID = m_aTenantIDResolver.getTenantID (aPMode);
+    if (StringHelper.hasNoText (sTenantID))
+    {
+      _setContextDefault ();
+      return;
+    }
+
+    final AS4CryptoFactoryPreloaded aCryptoFactory = getTenantCryptoFactory (sTenantID);
+    if (aCryptoFactory == null)
+    {
+      // Fail closed - never use the key material of someone else
+      LOGGER.warn ("No crypto configuration for tenant '" +
+                   sTenantID +
+                   "' of PMode '" +
+                   aPMode.getID () +
+                   "' present - all crypto operations will fail");
+      m_aContext.remove ();
+    }
+    else
+      m_aContext.set (aCryptoFactory);
+  }
+
+  /**
+   * Remove the tenant context of the current thread. Afterwards all crypto
+   * operations on this thread fail until a new context is set.
+   */
+  @Override
+  public void clearContext ()
+  {
+    m_aContext.remove ();
+  }
+
+  @Nonnull
+  private IAS4CryptoFactory _getEffective ()
+  {
+    final IAS4CryptoFactory ret = m_aContext.get ();
+    if (ret == null)
+      throw new IllegalStateException ("No valid tenant context is set for the current thread");
+    return ret;
+  }
+
+  @Nonnull
+  public Crypto getCrypto (@Nonnull final ECryptoMode eCryptoMode)
+  {
+    return _getEffective ().getCrypto (eCryptoMode);
+  }
+
+  @Nullable
+  public KeyStore getKeyStore ()
+  {
+    return _getEffective ().getKeyStore ();
+  }
+
+  @Nullable
+  public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+  {
+    return _getEffective ().getPrivateKeyEntry ();
+  }
+
+  @Nullable
+  public String getKeyAlias ()
+  {
+    return _getEffective ().getKeyAlias ();
+  }
+
+  @Nullable
+  public char [] getKeyPasswordPerAliasCharArray (@Nullable final String sSearchKeyAlias)
+  {
+    return _getEffective ().getKeyPasswordPerAliasCharArray (sSearchKeyAlias);
+  }
+
+  @Nullable
+  public KeyStore getTrustStore ()
+  {
+    return _getEffective ().getTrustStore ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Provider", m_aProvider)
+                                       .append ("TenantIDResolver", m_aTenantIDResolver)
+                                       .append ("DefaultCryptoFactory", m_aDefaultCryptoFactory)
+                                       .append ("MaxTenants", getMaxTenants ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.KeyStore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.apache.wss4j.common.crypto.Crypto;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An immutable {@link IAS4CryptoFactory} that resolves everything from a
+ * source factory once in the constructor: the {@link Crypto} objects for all
+ * {@link ECryptoMode}s, the key store, the trust store, the key alias and the
+ * private key entry. Afterwards all accessors are plain field reads, so no key
+ * store access or private key decryption happens per message.<br>
+ * Because instances are immutable, they can safely be replaced in a cache while
+ * other threads still use an older instance.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public class AS4CryptoFactoryPreloaded implements IAS4CryptoFactory
+{
+  private final IAS4CryptoFactory m_aSource;
+  private final Crypto m_aCryptoEncryptSign;
+  private final Crypto m_aCryptoDecryptVerify;
+  private final KeyStore m_aKeyStore;
+  private final String m_sKeyAlias;
+  private final KeyStore.PrivateKeyEntry m_aPrivateKeyEntry;
+  private final KeyStore m_aTrustStore;
+
+  /**
+   * Constructor
+   *
+   * @param aSource
+   *        The source crypto factory to resolve everything from. May not be
+   *        <code>null</code>.
+   */
+  public AS4CryptoFactoryPreloaded (@Nonnull final IAS4CryptoFactory aSource)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    m_aSource = aSource;
+    m_aCryptoEncryptSign = aSource.getCrypto (ECryptoMode.ENCRYPT_SIGN);
+    m_aCryptoDecryptVerify = aSource.getCrypto (ECryptoMode.DECRYPT_VERIFY);
+    m_aKeyStore = aSource.getKeyStore ();
+    m_sKeyAlias = aSource.getKeyAlias ();
+    m_aPrivateKeyEntry = aSource.getPrivateKeyEntry ();
+    m_aTrustStore = aSource.getTrustStore ();
+  }
+
+  /**
+   * @return The source crypto factory from the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4CryptoFactory getSource ()
+  {
+    return m_aSource;
+  }
+
+  @Nonnull
+  public Crypto getCrypto (@Nonnull final ECryptoMode eCryptoMode)
+  {
+    return eCryptoMode == ECryptoMode.DECRYPT_VERIFY ? m_aCryptoDecryptVerify : m_aCryptoEncryptSign;
+  }
+
+  @Nullable
+  public final KeyStore getKeyStore ()
+  {
+    return m_aKeyStore;
+  }
+
+  @Nullable
+  public final KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+  {
+    return m_aPrivateKeyEntry;
+  }
+
+  @Nullable
+  public final String getKeyAlias ()
+  {
+    return m_sKeyAlias;
+  }
+
+  @Nullable
+  public char [] getKeyPasswordPerAliasCharArray (@Nullable final String sSearchKeyAlias)
+  {
+    return m_aSource.getKeyPasswordPerAliasCharArray (sSearchKeyAlias);
+  }
+
+  @Nullable
+  public final KeyStore getTrustStore ()
+  {
+    return m_aTrustStore;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Source", m_aSource)
+                                       .append ("KeyAlias", m_sKeyAlias)
+                                       .append ("PrivateKeyEntry?", m_aPrivateKeyEntry != null)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Collections;
+import java.util.UUID;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.security.messagedigest.EMessageDigestAlgorithm;
+
+/**
+ * An {@link IAS4CryptoFactory} decorator that wraps the {@link Crypto} used
+ * for {@link ECryptoMode#DECRYPT_VERIFY} into an {@link AS4TrustCachingCrypto}
+ * so that repeated inbound signature verifications with the same certificate
+ * chain skip the trust path building. All other operations are passed to the
+ * wrapped factory. If the wrapped factory is an
+ * {@link IAS4PModeAwareCryptoFactory}, the PMode context is passed on as
+ * well.<br>
+ * Validation results are keyed by a SHA-256 digest over all aliases and
+ * certificates of the trust store, so different trust stores never share
+ * results. The wrapped {@link Crypto} objects are kept in a bounded LRU map, so
+ * that delegates returning different {@link Crypto} objects (e.g. one per
+ * tenant) don't need to recreate them.<br>
+ * Note: if the CRLs of the wrapped factory are changed at runtime or a trust
+ * store object is modified in place, {@link AS4TrustValidationCache#clear()}
+ * should be called.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4CryptoFactoryTrustCaching implements IAS4PModeAwareCryptoFactory
+{
+  public static final int DEFAULT_MAX_CRYPTOS = 100;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CryptoFactoryTrustCaching.class);
+
+  private final IAS4CryptoFactory m_aDelegate;
+  private final AS4TrustValidationCache m_aCache;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Source Crypto (identity based) to the wrapped Crypto
+  @GuardedBy ("m_aLock")
+  private final LRUMap <Crypto, AS4TrustCachingCrypto> m_aCryptos;
+
+  public AS4CryptoFactoryTrustCaching (@Nonnull final IAS4CryptoFactory aDelegate)
+  {
+    this (aDelegate, new AS4TrustValidationCache ());
+  }
+
+  public AS4CryptoFactoryTrustCaching (@Nonnull final IAS4CryptoFactory aDelegate,
+                                       @Nonnull final AS4TrustValidationCache aCache)
+  {
+    this (aDelegate, aCache, DEFAULT_MAX_CRYPTOS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The crypto factory to wrap. May not be <code>null</code>.
+   * @param aCache
+   *        The trust validation cache to use. May not be <code>null</code>.
+   * @param nMaxCryptos
+   *        The maximum number of different {@link Crypto} objects of the
+   *        delegate to keep wrapped. Must be &gt; 0.
+   */
+  public AS4CryptoFactoryTrustCaching (@Nonnull final IAS4CryptoFactory aDelegate,
+                                       @Nonnull final AS4TrustValidationCache aCache,
+                                       @Nonnegative final int nMaxCryptos)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.notNull (aCache, "Cache");
+    ValueEnforcer.isGT0 (nMaxCryptos, "MaxCryptos");
+    m_aDelegate = aDelegate;
+    m_aCache = aCache;
+    m_aCryptos = new LRUMap <> (nMaxCryptos);
+  }
+
+  /**
+   * @return The wrapped crypto factory. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4CryptoFactory getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  /**
+   * @return The trust validation cache used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4TrustValidationCache getCache ()
+  {
+    return m_aCache;
+  }
+
+  /**
+   * Create an ID for the trust material of the provided key store, that is
+   * equal for key stores with the same content and different otherwise.
+   *
+   * @param aTrustStore
+   *        The trust store to use. May be <code>null</code>.
+   * @return A SHA-256 based ID over all aliases and certificates or a random
+   *         ID if no trust store is present or it cannot be read. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static String createTrustStoreID (@Nullable final KeyStore aTrustStore)
+  {
+    if (aTrustStore != null)
+    {
+      try
+      {
+        final MessageDigest aMD = EMessageDigestAlgorithm.SHA_256.createMessageDigest ();
+        // Sorted for a stable order
+        final ICommonsList <String> aAliases = new CommonsArrayList <> (Collections.list (aTrustStore.aliases ()));
+        aAliases.sort (String::compareTo);
+        for (final String sAlias : aAliases)
+        {
+          aMD.update (sAlias.getBytes (StandardCharsets.UTF_8));
+          aMD.update ((byte) 0);
+          final Certificate aCert = aTrustStore.getCertificate (sAlias);
+          if (aCert != null)
+            aMD.update (aCert.getEncoded ());
+          aMD.update ((byte) 0);
+        }
+        return "sha256:" + StringHelper.getHexEncoded (aMD.digest ());
+      }
+      catch (final KeyStoreException | CertificateEncodingException ex)
+      {
+        LOGGER.warn ("Failed to create the ID of the trust store - validation results cannot be shared", ex);
+      }
+    }
+    // Never shared with anything else
+    return "random:" + UUID.randomUUID ().toString ();
+  }
+
+  @Nonnull
+  public Crypto getCrypto (@Nonnull final ECryptoMode eCryptoMode)
+  {
+    final Crypto aCrypto = m_aDelegate.getCrypto (eCryptoMode);
+    if (eCryptoMode != ECryptoMode.DECRYPT_VERIFY)
+      return aCrypto;
+
+    final AS4TrustCachingCrypto aWrapped = m_aLock.lockedGet ( () -> m_aCryptos.get (aCrypto));
+    if (aWrapped != null)
+      return aWrapped;
+
+    // First call or the delegate created a new Crypto object. Without an
+    // explicit trust store, the key store is used for trust.
+    final KeyStore aTrustStore = m_aDelegate.getTrustStore ();
+    final String sTrustStoreID = createTrustStoreID (aTrustStore != null ? aTrustStore : m_aDelegate.getKeyStore ());
+    final AS4TrustCachingCrypto aNew = new AS4TrustCachingCrypto (aCrypto, sTrustStoreID, m_aCache);
+    return m_aLock.lockedGet ( () -> {
+      final AS4TrustCachingCrypto aOther = m_aCryptos.get (aCrypto);
+      if (aOther != null)
+        return aOther;
+      m_aCryptos.put (aCrypto, aNew);
+      return aNew;
+    });
+  }
+
+  /**
+   * @return The number of wrapped {@link Crypto} objects.
+   */
+  @Nonnegative
+  public int getWrappedCryptoCount ()
+  {
+    return m_aLock.lockedInt (m_aCryptos::size);
+  }
+
+  public void setContextPMode (@Nonnull final IPMode aPMode)
+  {
+    if (m_aDelegate instanceof IAS4PModeAwareCryptoFactory)
+      ((IAS4PModeAwareCryptoFactory) m_aDelegate).setContextPMode (aPMode);
+  }
+
+  @Override
+  public void clearContext ()
+  {
+    if (m_aDelegate instanceof IAS4PModeAwareCryptoFactory)
+      ((IAS4PModeAwareCryptoFactory) m_aDelegate).clearContext ();
+  }
+
+  @Nullable
+  public KeyStore getKeyStore ()
+  {
+    return m_aDelegate.getKeyStore ();
+  }
+  @Nullable
+  public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+  {
+    return m_aDelegate.getPrivateKeyEntry ();
+  }
+
+  @Nullable
+  public String getKeyAlias ()
+  {
+    return m_aDelegate.getKeyAlias ();
+  }
+
+  @Nullable
+  public char [] getKeyPasswordPerAliasCharArray (@Nullable final String sSearchKeyAlias)
+  {
+    return m_aDelegate.getKeyPasswordPerAliasCharArray (sSearchKeyAlias);
+  }
+
+  @Nullable
+  public KeyStore getTrustStore ()
+  {
+    return m_aDelegate.getTrustStore ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate).append ("Cache", m_aCache).getToString ();
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.io.InputStream;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A {@link Crypto} decorator that skips the certificate trust path validation
+ * if the same certificate chain was already successfully validated against the
+ * same trust store. All other operations are passed to the wrapped
+ * {@link Crypto}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+public class AS4TrustCachingCrypto implements Crypto
+{
+  private final Crypto m_aDelegate;
+  private final String m_sTrustStoreID;
+  private final AS4TrustValidationCache m_aCache;
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The crypto to wrap. May not be <code>null</code>.
+   * @param sTrustStoreID
+   *        The ID of the trust store used by the wrapped crypto (see
+   *        {@link AS4CryptoFactoryTrustCaching#createTrustStoreID(java.security.KeyStore)}).
+   *        Two crypto instances using different trust stores must use
+   *        different IDs if they share the same cache. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCache
+   *        The cache to use. May not be <code>null</code>.
+   */
+  public AS4TrustCachingCrypto (@Nonnull final Crypto aDelegate,
+                                @Nonnull @Nonempty final String sTrustStoreID,
+                                @Nonnull final AS4TrustValidationCache aCache)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.notEmpty (sTrustStoreID, "TrustStoreID");
+    ValueEnforcer.notNull (aCache, "Cache");
+    m_aDelegate = aDelegate;
+    m_sTrustStoreID = sTrustStoreID;
+    m_aCache = aCache;
+  }
+
+  @Nonnull
+  public final Crypto getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  @Nonnull
+  public final AS4TrustValidationCache getCache ()
+  {
+    return m_aCache;
+  }
+
+  public void verifyTrust (@Nullable final X509Certificate [] aCerts,
+                           final boolean bEnableRevocation,
+                           @Nullable final Collection <Pattern> aSubjectCertConstraints,
+                           @Nullable final Collection <Pattern> aIssuerCertConstraints) throws WSSecurityException
+  {
+    if (aCerts == null || aCerts.length == 0)
+    {
+      // Let the delegate create the correct error
+      m_aDelegate.verifyTrust (aCerts, bEnableRevocation, aSubjectCertConstraints, aIssuerCertConstraints);
+      return;
+    }
+
+    final String sKey = AS4TrustValidationCache.createKey (m_sTrustStoreID,
+                                                           aCerts,
+                                                           bEnableRevocation,
+                                                           aSubjectCertConstraints,
+                                                           aIssuerCertConstraints);
+    if (m_aCache.isValidated (sKey))
+      return;
+
+    // Throws an exception if the validation fails
+    m_aDelegate.verifyTrust (aCerts, bEnableRevocation, aSubjectCertConstraints, aIssuerCertConstraints);
+    m_aCache.putValidated (sKey, aCerts);
+  }
+
+  public void verifyTrust (@Nonnull final PublicKey aPublicKey) throws WSSecurityException
+  {
+    m_aDelegate.verifyTrust (aPublicKey);
+  }
+
+  public String getCryptoProvider ()
+  {
+    return m_aDelegate.getCryptoProvider ();
+  }
+
+  public void setCryptoProvider (final String sProvider)
+  {
+    m_aDelegate.setCryptoProvider (sProvider);
+  }
+
+  public String getTrustProvider ()
+  {
+    return m_aDelegate.getTrustProvider ();
+  }
+
+  public void setTrustProvider (final String sProvider)
+  {
+    m_aDelegate.setTrustProvider (sProvider);
+  }
+
+  public String getDefaultX509Identifier () throws WSSecurityException
+  {
+    return m_aDelegate.getDefaultX509Identifier ();
+  }
+
+  public void setDefaultX509Identifier (final String sIdentifier)
+  {
+    m_aDelegate.setDefaultX509Identifier (sIdentifier);
+  }
+
+  public void setCertificateFactory (final CertificateFactory aCertFactory)
+  {
+    m_aDelegate.setCertificateFactory (aCertFactory);
+  }
+
+  public CertificateFactory getCertificateFactory () throws WSSecurityException
+  {
+    return m_aDelegate.getCertificateFactory ();
+  }
+
+  public X509Certificate loadCertificate (final InputStream aIS) throws WSSecurityException
+  {
+    return m_aDelegate.loadCertificate (aIS);
+  }
+
+  public byte [] getSKIBytesFromCert (final X509Certificate aCert) throws WSSecurityException
+  {
+    return m_aDelegate.getSKIBytesFromCert (aCert);
+  }
+
+  public byte [] getBytesFromCertificates (final X509Certificate [] aCerts) throws WSSecurityException
+  {
+    return m_aDelegate.getBytesFromCertificates (aCerts);
+  }
+
+  public X509Certificate [] getCertificatesFromBytes (final byte [] aData) throws WSSecurityException
+  {
+    return m_aDelegate.getCertificatesFromBytes (aData);
+  }
+
+  public X509Certificate [] getX509Certificates (final CryptoType aCryptoType) throws WSSecurityException
+  {
+    return m_aDelegate.getX509Certificates (aCryptoType);
+  }
+
+  public String getX509Identifier (final X509Certificate aCert) throws WSSecurityException
+  {
+    return m_aDelegate.getX509Identifier (aCert);
+  }
+
+  public PrivateKey getPrivateKey (final X509Certificate aCert,
+                                   final CallbackHandler aCallbackHandler) throws WSSecurityException
+  {
+    return m_aDelegate.getPrivateKey (aCert, aCallbackHandler);
+  }
+
+  public PrivateKey getPrivateKey (final PublicKey aPublicKey,
+                                   final CallbackHandler aCallbackHandler) throws WSSecurityException
+  {
+    return m_aDelegate.getPrivateKey (aPublicKey, aCallbackHandler);
+  }
+
+  public PrivateKey getPrivateKey (final String sIdentifier, final String sPassword) throws WSSecurityException
+  {
+    return m_aDelegate.getPrivateKey (sIdentifier, sPassword);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("TrustStoreID", m_sTrustStoreID)
+                                       .append ("Cache", m_aCache)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.security.messagedigest.EMessageDigestAlgorithm;
+import com.helger.security.messagedigest.MessageDigestValue;
+
+/**
+ * A cache for the results of successful certificate trust path validations.
+ * Entries are keyed by the ID of the trust store content, the SHA-256
+ * fingerprints of the certificate chain, the revocation flag and the subject
+ * and issuer constraints. An entry expires after the maximum time to live
+ * (which should be aligned with the CRL refresh interval) or when the first
+ * certificate of the chain expires, whatever comes first. If the maximum size
+ * is reached, the least recently used entry is evicted. Failed validations
+ * are never cached.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4TrustValidationCache
+{
+  public static final Duration DEFAULT_MAX_TTL = Duration.ofHours (1);
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  private final Duration m_aMaxTTL;
+  private final int m_nMaxSize;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Key to expiration time in milliseconds
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, Long> m_aMap;
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+
+  public AS4TrustValidationCache ()
+  {
+    this (DEFAULT_MAX_TTL, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aMaxTTL
+   *        The maximum time a successful validation is cached. Should not be
+   *        longer than the CRL refresh interval. May not be <code>null</code>.
+   * @param nMaxSize
+   *        The maximum number of cached entries. Must be &gt; 0.
+   */
+  public AS4TrustValidationCache (@Nonnull final Duration aMaxTTL, @Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.notNull (aMaxTTL, "MaxTTL");
+    ValueEnforcer.isFalse (aMaxTTL.isNegative (), "MaxTTL may not be negative");
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aMaxTTL = aMaxTTL;
+    m_nMaxSize = nMaxSize;
+    m_aMap = new LRUMap <> (nMaxSize);
+  }
+
+  @Nonnull
+  public final Duration getMaxTTL ()
+  {
+    return m_aMaxTTL;
+  }
+
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  private static void _appendPatterns (@Nonnull final StringBuilder aSB,
+                                       @Nullable final Collection <Pattern> aPatterns)
+  {
+    aSB.append ('|');
+    if (aPatterns != null)
+      for (final Pattern aPattern : aPatterns)
+        aSB.append (aPattern.pattern ()).append ('\u0000');
+  }
+
+  /**
+   * Create the cache key for a trust validation.
+   *
+   * @param sTrustStoreID
+   *        The identity of the trust store used for validation. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCerts
+   *        The certificate chain to validate. May not be <code>null</code>.
+   * @param bEnableRevocation
+   *        <code>true</code> if revocation checking is enabled
+   * @param aSubjectCertConstraints
+   *        Subject constraints. May be <code>null</code>.
+   * @param aIssuerCertConstraints
+   *        Issuer constraints. May be <code>null</code>.
+   * @return The cache key or <code>null</code> if a certificate cannot be
+   *         encoded.
+   */
+  @Nullable
+  public static String createKey (@Nonnull @Nonempty final String sTrustStoreID,
+                                  @Nonnull final X509Certificate [] aCerts,
+                                  final boolean bEnableRevocation,
+                                  @Nullable final Collection <Pattern> aSubjectCertConstraints,
+                                  @Nullable final Collection <Pattern> aIssuerCertConstraints)
+  {
+    final StringBuilder aSB = new StringBuilder (sTrustStoreID).append ('|').append (bEnableRevocation);
+    try
+    {
+      for (final X509Certificate aCert : aCerts)
+        aSB.append ('|')
+           .append (MessageDigestValue.create (aCert.getEncoded (), EMessageDigestAlgorithm.SHA_256)
+                                      .getHexEncodedDigestString ());
+    }
+    catch (final CertificateEncodingException ex)
+    {
+      return null;
+    }
+    _appendPatterns (aSB, aSubjectCertConstraints);
+    _appendPatterns (aSB, aIssuerCertConstraints);
+    return aSB.toString ();
+  }
+
+  /**
+   * Check if a successful validation is cached for the provided key.
+   *
+   * @param sKey
+   *        The key as created by
+   *        {@link #createKey(String, X509Certificate[], boolean, Collection, Collection)}.
+   *        May be <code>null</code>.
+   * @return <code>true</code> if a non-expired successful validation is
+   *         cached.
+   */
+  public boolean isValidated (@Nullable final String sKey)
+  {
+    final boolean bValidated = sKey != null && m_aLock.lockedBoolean ( () -> {
+      // Marks the entry as recently used
+      final Long aExpiration = m_aMap.get (sKey);
+      if (aExpiration == null)
+        return false;
+      if (aExpiration.longValue () > System.currentTimeMillis ())
+        return true;
+      m_aMap.remove (sKey);
+      return false;
+    });
+    if (bValidated)
+      m_aHits.incrementAndGet ();
+    else
+      m_aMisses.incrementAndGet ();
+    return bValidated;
+  }
+
+  /**
+   * Remember a successful validation.
+   *
+   * @param sKey
+   *        The key as created by
+   *        {@link #createKey(String, X509Certificate[], boolean, Collection, Collection)}.
+   *        May be <code>null</code> in which case nothing happens.
+   * @param aCerts
+   *        The validated certificate chain. May not be <code>null</code>.
+   */
+  public void putValidated (@Nullable final String sKey, @Nonnull final X509Certificate [] aCerts)
+  {
+    if (sKey == null)
+      return;
+
+    final long nNow = System.currentTimeMillis ();
+    long nExpiration = nNow + m_aMaxTTL.toMillis ();
+    for (final X509Certificate aCert : aCerts)
+      nExpiration = Math.min (nExpiration, aCert.getNotAfter ().getTime ());
+    if (nExpiration <= nNow)
+      return;
+
+    // Evicts the least recently used entry if the cache is full
+    final Long aExpiration = Long.valueOf (nExpiration);
+    m_aLock.locked ( () -> m_aMap.put (sKey, aExpiration));
+  }
+
+  /**
+   * Remove all cached entries, e.g. after the trust store or the CRLs
+   * changed.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxTTL", m_aMaxTTL)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .append ("Size", size ())
+                                       .append ("Hits", getHitCount ())
+                                       .append ("Misses", getMissCount ())
+                                       .getToString ();
+  }
+}
@@ -17,6 +17,7 @@
 package com.helger.phase4.crypto;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.helger.phase4.model.pmode.IPMode;
 
@@ -40,4 +41,28 @@ public interface IAS4PModeAwareCryptoFactory extends IAS4CryptoFactory
    *        the P-Mode resolved during reception
    */
   void setContextPMode (@Nonnull IPMode pMode);
+
+  /**
+   * Remove the P-Mode context set by {@link #setContextPMode(IPMode)}. This
+   * method is called on reception side after a message was fully processed,
+   * so that no context is left on pooled threads.
+   *
+   * @since 3.0.1
+   */
+  default void clearContext ()
+  {}
+
+  /**
+   * Call {@link #clearContext()} if the provided crypto factory is P-Mode
+   * aware.
+   *
+   * @param aCryptoFactory
+   *        The crypto factory to check. May be <code>null</code>.
+   * @since 3.0.1
+   */
+  static void clearContextIfPModeAware (@Nullable final IAS4CryptoFactory aCryptoFactory)
+  {
+    if (aCryptoFactory instanceof IAS4PModeAwareCryptoFactory)
+      ((IAS4PModeAwareCryptoFactory) aCryptoFactory).clearContext ();
+  }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * Provides the crypto configuration of a single tenant for
+ * {@link AS4CryptoFactoryMultiTenant}. Usually this resolves the key store,
+ * key alias and trust store of the tenant (e.g. from a database) and creates an
+ * {@link AS4CryptoFactoryInMemoryKeyStore}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@FunctionalInterface
+public interface IAS4TenantCryptoFactoryProvider
+{
+  /**
+   * Create the crypto factory of the provided tenant. This is only called if
+   * the tenant is not cached, and may be called concurrently for different
+   * tenants.
+   *
+   * @param sTenantID
+   *        The tenant ID. Neither <code>null</code> nor empty.
+   * @return <code>null</code> if the tenant is unknown.
+   */
+  @Nullable
+  IAS4CryptoFactory createCryptoFactory (@Nonnull @Nonempty String sTenantID);
+}
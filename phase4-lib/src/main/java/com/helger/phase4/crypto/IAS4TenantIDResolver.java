@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * Determines the tenant of a message from the resolved PMode for
+ * {@link AS4CryptoFactoryMultiTenant}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@FunctionalInterface
+public interface IAS4TenantIDResolver
+{
+  /**
+   * Use the responder party ID of the PMode - that is the receiving party for
+   * incoming messages.
+   */
+  IAS4TenantIDResolver BY_RESPONDER_ID = x -> x.hasResponder () ? x.getResponder ().getIDValue () : null;
+
+  /**
+   * Use the PMode ID.
+   */
+  IAS4TenantIDResolver BY_PMODE_ID = IPMode::getID;
+
+  /**
+   * Get the tenant ID of the provided PMode.
+   *
+   * @param aPMode
+   *        The resolved PMode. Never <code>null</code>.
+   * @return <code>null</code> or empty to use the default crypto factory.
+   */
+  @Nullable
+  String getTenantID (@Nonnull IPMode aPMode);
+}
@@ -18,6 +18,7 @@ package com.helger.phase4.dump;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.OffsetDateTime;
 import java.util.Map;
@@ -34,7 +35,9 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.http.CHttp;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.io.streamprovider.ByteArrayInputStreamProvider;
 import com.helger.commons.string.StringHelper;
 import com.helger.datetime.util.PDTIOHelper;
 import com.helger.phase4.client.AS4ClientSentMessage;
@@ -153,10 +156,19 @@ public class AS4RawResponseConsumerWriteToFile extends
   }
 
   public void handleResponse (@Nonnull final AS4ClientSentMessage <byte []> aResponseEntity) throws Phase4Exception
+  {
+    final byte [] aBytes = aResponseEntity.getResponseContent ();
+    handleResponseStream (aResponseEntity.getWithResponseContent (aBytes == null ||
+                                                                  aBytes.length == 0 ? null
+                                                                                     : new ByteArrayInputStreamProvider (aBytes)));
+  }
+
+  @Override
+  public void handleResponseStream (@Nonnull final AS4ClientSentMessage <IHasInputStream> aResponseEntity) throws Phase4Exception
   {
     final boolean bUseStatusLine = isHandleStatusLine () && aResponseEntity.hasResponseStatusLine ();
     final boolean bUseHttpHeaders = isHandleHttpHeaders () && aResponseEntity.getResponseHeaders ().isNotEmpty ();
-    final boolean bUseBody = aResponseEntity.hasResponseContent () && aResponseEntity.getResponseContent ().length > 0;
+    final boolean bUseBody = aResponseEntity.hasResponseContent ();
 
     if (bUseStatusLine || bUseHttpHeaders || bUseBody)
     {
@@ -205,8 +217,11 @@ public class AS4RawResponseConsumerWriteToFile extends
 
           if (bUseBody)
           {
-            // Write the main content
-            aOS.write (aResponseEntity.getResponseContent ());
+            // Copy the main content without loading it into memory
+            try (final InputStream aIS = aResponseEntity.getResponseContent ().getInputStream ())
+            {
+              aIS.transferTo (aOS);
+            }
           }
         }
         else
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.mgr.IAS4BinaryRecordCodec;
+
+/**
+ * The binary record layout of a single {@link AS4DuplicateItem}. Shared by the
+ * binary and the shared-store based duplicate managers.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+final class AS4DuplicateItemCodec implements IAS4BinaryRecordCodec <AS4DuplicateItem>
+{
+  @Nonnull
+  @Nonempty
+  public String getCodecID ()
+  {
+    return "phase4-duplicate-item";
+  }
+
+  @Nonnegative
+  public int getRecordVersion ()
+  {
+    return 1;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID (@Nonnull final AS4DuplicateItem aRecord)
+  {
+    return aRecord.getID ();
+  }
+
+  public void writeRecord (@Nonnull final AS4DuplicateItem aRecord, @Nonnull final DataOutput aDO) throws IOException
+  {
+    final OffsetDateTime aDT = aRecord.getDateTime ();
+    aDO.writeLong (aDT.toEpochSecond ());
+    aDO.writeInt (aDT.getNano ());
+    aDO.writeInt (aDT.getOffset ().getTotalSeconds ());
+    IAS4BinaryRecordCodec.writeString (aDO, aRecord.getMessageID ());
+    IAS4BinaryRecordCodec.writeString (aDO, aRecord.getProfileID ());
+    IAS4BinaryRecordCodec.writeString (aDO, aRecord.getPModeID ());
+  }
+
+  @Nullable
+  public AS4DuplicateItem readRecord (@Nonnull final ByteBuffer aBB, final int nRecordVersion)
+  {
+    final long nEpochSecond = aBB.getLong ();
+    final int nNano = aBB.getInt ();
+    final int nOffsetSeconds = aBB.getInt ();
+    final String sMessageID = IAS4BinaryRecordCodec.readString (aBB);
+    final String sProfileID = IAS4BinaryRecordCodec.readString (aBB);
+    final String sPModeID = IAS4BinaryRecordCodec.readString (aBB);
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+    final OffsetDateTime aDT = OffsetDateTime.ofInstant (Instant.ofEpochSecond (nEpochSecond, nNano),
+                                                         ZoneOffset.ofTotalSeconds (nOffsetSeconds));
+    return new AS4DuplicateItem (aDT, sMessageID, sProfileID, sPModeID);
+  }
+}
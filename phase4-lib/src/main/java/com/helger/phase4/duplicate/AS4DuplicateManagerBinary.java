@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.OffsetDateTime;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ELockType;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.CollectionHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.AS4BinarySnapshotStore;
+
+/**
+ * Duplicate manager that persists its items in an
+ * {@link AS4BinarySnapshotStore} instead of an XML file. Each registration is
+ * appended to the delta log, so the costs of a write are independent of the
+ * number of contained items. The snapshot is rewritten only when the delta log
+ * outgrows the number of live items. Each change is written to the delta log
+ * before it becomes visible. If that fails, an {@link UncheckedIOException} is
+ * thrown.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4DuplicateManagerBinary implements IAS4DuplicateManager, AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerBinary.class);
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, AS4DuplicateItem> m_aMap = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final AS4BinarySnapshotStore <AS4DuplicateItem> m_aStore;
+
+  /**
+   * Constructor
+   *
+   * @param aBaseFile
+   *        The base file of the snapshot and the delta log. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If the persisted data cannot be read
+   */
+  public AS4DuplicateManagerBinary (@Nonnull final File aBaseFile) throws IOException
+  {
+    ValueEnforcer.notNull (aBaseFile, "BaseFile");
+    m_aStore = new AS4BinarySnapshotStore <> (aBaseFile, new AS4DuplicateItemCodec ());
+    m_aStore.load (new AS4BinarySnapshotStore.IReplayHandler <> ()
+    {
+      public void onPut (@Nonnull final AS4DuplicateItem aRecord)
+      {
+        m_aMap.put (aRecord.getID (), aRecord);
+      }
+
+      public void onDelete (@Nonnull final String sID)
+      {
+        m_aMap.remove (sID);
+      }
+
+      public void onClear ()
+      {
+        m_aMap.clear ();
+      }
+    });
+  }
+
+  /**
+   * @return <code>true</code> if persisted data was found upon startup,
+   *         <code>false</code> if the store was newly created.
+   */
+  public boolean hadPersistentData ()
+  {
+    return m_aRWLock.readLockedBoolean (m_aStore::hadPersistentData);
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _afterAppend ()
+  {
+    if (m_aStore.isCompactionRecommended (m_aMap.size ()))
+    {
+      try
+      {
+        m_aStore.writeSnapshot (m_aMap.values ());
+      }
+      catch (final IOException ex)
+      {
+        // The change itself is contained in the delta log
+        LOGGER.error ("Failed to write duplicate snapshot - retrying with the next change", ex);
+      }
+    }
+  }
+
+  /**
+   * Import all items from another duplicate manager, keeping their original
+   * date and time, and write a new snapshot. This is meant to migrate from
+   * another persistence format.
+   *
+   * @param aItems
+   *        The items to import. May not be <code>null</code>.
+   * @throws IOException
+   *         If the snapshot cannot be written
+   */
+  public void importItems (@Nonnull final Iterable <? extends IAS4DuplicateItem> aItems) throws IOException
+  {
+    ValueEnforcer.notNull (aItems, "Items");
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      for (final IAS4DuplicateItem aSrc : aItems)
+      {
+        final AS4DuplicateItem aItem = new AS4DuplicateItem (aSrc.getDateTime (),
+                                                             aSrc.getMessageID (),
+                                                             aSrc.getProfileID (),
+                                                             aSrc.getPModeID ());
+        m_aMap.put (aItem.getID (), aItem);
+      }
+      m_aStore.writeSnapshot (m_aMap.values ());
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID,
+                                     @Nullable final String sProfileID,
+                                     @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      final String sID = aItem.getID ();
+      if (m_aMap.containsKey (sID))
+      {
+        // ID already in use
+        return EContinue.BREAK;
+      }
+      try
+      {
+        m_aStore.appendPut (aItem);
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException ("Failed to persist duplicate item '" + sID + "'", ex);
+      }
+      m_aMap.put (sID, aItem);
+      _afterAppend ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+    return EContinue.CONTINUE;
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (m_aMap.isEmpty ())
+        return EChange.UNCHANGED;
+      try
+      {
+        m_aStore.appendClear ();
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException ("Failed to persist clearing the duplicate cache", ex);
+      }
+      m_aMap.clear ();
+      _afterAppend ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    // Get all message IDs to be removed
+    final ICommonsList <String> aEvictItems = new CommonsArrayList <> ();
+    m_aRWLock.readLocked ( () -> m_aMap.forEachValue (x -> x.getDateTime ().isBefore (aRefDT),
+                                                      x -> aEvictItems.add (x.getMessageID ())));
+    if (aEvictItems.isNotEmpty ())
+    {
+      m_aRWLock.writeLock ().lock ();
+      try
+      {
+        for (final String sID : aEvictItems)
+          if (m_aMap.containsKey (sID))
+          {
+            try
+            {
+              m_aStore.appendDelete (sID);
+            }
+            catch (final IOException ex)
+            {
+              throw new UncheckedIOException ("Failed to persist eviction of duplicate item '" + sID + "'", ex);
+            }
+            m_aMap.remove (sID);
+          }
+        _afterAppend ();
+      }
+      finally
+      {
+        m_aRWLock.writeLock ().unlock ();
+      }
+    }
+    return aEvictItems;
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aRWLock.readLockedBoolean (m_aMap::isEmpty);
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aRWLock.readLockedInt (m_aMap::size);
+  }
+
+  @Nullable
+  public IAS4DuplicateItem findFirst (@Nonnull final Predicate <? super IAS4DuplicateItem> aFilter)
+  {
+    return m_aRWLock.readLockedGet ( () -> CollectionHelper.findFirst (m_aMap.values (), aFilter));
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    // The message ID is the key
+    return m_aRWLock.readLockedGet ( () -> m_aMap.get (sMessageID));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    return m_aRWLock.readLockedGet ( () -> new CommonsArrayList <> (m_aMap.values ()));
+  }
+
+  public void close () throws IOException
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      m_aStore.close ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Store", m_aStore).getToString ();
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsTreeMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.collection.impl.ICommonsSortedMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A duplicate manager for multiple nodes behind a load balancer. The
+ * authoritative state is kept in a {@link IAS4SharedDuplicateStore} so that a
+ * retry of a partner that lands on a different node is still detected.
+ * <ul>
+ * <li>A local prefilter remembers all message IDs seen by this node. A
+ * duplicate received on the same node is therefore rejected without accessing
+ * the shared store. The local entries are grouped in buckets by the minute of
+ * their registration, so that eviction drops whole buckets.</li>
+ * <li>All other checks are queued and a single dispatcher thread sends them in
+ * batches of up to {@link #getMaxBatchSize()} items to the shared store. Under
+ * load, many concurrent checks share a single round trip.</li>
+ * <li>If the shared store is not available, messages not seen locally are
+ * treated as no duplicates, so that the node stays available. If the shared
+ * store returns an invalid result, the checks of the batch fail.</li>
+ * </ul>
+ * This manager takes ownership of the shared store and closes it in
+ * {@link #close()}. No checks can be started afterwards.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4DuplicateManagerCluster implements IAS4DuplicateManager, AutoCloseable
+{
+  public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerCluster.class);
+  private static final long BUCKET_SECONDS = 60;
+
+  private static final class PendingCheck
+  {
+    private final AS4DuplicateItem m_aItem;
+    private final CompletableFuture <EContinue> m_aFuture = new CompletableFuture <> ();
+
+    PendingCheck (@Nonnull final AS4DuplicateItem aItem)
+    {
+      m_aItem = aItem;
+    }
+  }
+
+  private final IAS4SharedDuplicateStore m_aStore;
+  private final int m_nMaxBatchSize;
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  // Message ID to bucket
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, Long> m_aLocalIDs = new CommonsHashMap <> ();
+  // Bucket to message IDs
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsSortedMap <Long, ICommonsSet <String>> m_aLocalBuckets = new CommonsTreeMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bClosed = false;
+  private final LinkedBlockingQueue <PendingCheck> m_aQueue = new LinkedBlockingQueue <> ();
+  private final ExecutorService m_aDispatcher;
+
+  public AS4DuplicateManagerCluster (@Nonnull final IAS4SharedDuplicateStore aStore)
+  {
+    this (aStore, DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  public AS4DuplicateManagerCluster (@Nonnull final IAS4SharedDuplicateStore aStore,
+                                     @Nonnegative final int nMaxBatchSize)
+  {
+    ValueEnforcer.notNull (aStore, "Store");
+    ValueEnforcer.isGT0 (nMaxBatchSize, "MaxBatchSize");
+    m_aStore = aStore;
+    m_nMaxBatchSize = nMaxBatchSize;
+    m_aDispatcher = Executors.newSingleThreadExecutor (new BasicThreadFactory.Builder ().namingPattern ("phase4-duplicate-cluster-%d")
+                                                                                          .daemon (true)
+                                                                                          .build ());
+    m_aDispatcher.execute (this::_dispatchLoop);
+  }
+
+  /**
+   * @return The shared store used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4SharedDuplicateStore getStore ()
+  {
+    return m_aStore;
+  }
+
+  /**
+   * @return The maximum number of checks sent to the shared store at once.
+   *         Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxBatchSize ()
+  {
+    return m_nMaxBatchSize;
+  }
+
+  private static long _getBucket (@Nonnull final OffsetDateTime aDT)
+  {
+    return Math.floorDiv (aDT.toEpochSecond (), BUCKET_SECONDS);
+  }
+
+  /**
+   * Fail all checks of the batch that are not yet completed. The message IDs
+   * are removed from the local prefilter, so that a retry is checked again.
+   */
+  private void _failBatch (@Nonnull final ICommonsList <PendingCheck> aBatch, @Nonnull final Exception aException)
+  {
+    LOGGER.error ("Failed to check " + aBatch.size () + " message(s) for duplicates", aException);
+    m_aRWLock.writeLocked ( () -> {
+      for (final PendingCheck aCheck : aBatch)
+        if (!aCheck.m_aFuture.isDone ())
+        {
+          final String sID = aCheck.m_aItem.getID ();
+          final Long aBucket = m_aLocalIDs.remove (sID);
+          if (aBucket != null)
+          {
+            final ICommonsSet <String> aIDs = m_aLocalBuckets.get (aBucket);
+            if (aIDs != null && aIDs.remove (sID) && aIDs.isEmpty ())
+              m_aLocalBuckets.remove (aBucket);
+          }
+        }
+    });
+    for (final PendingCheck aCheck : aBatch)
+      aCheck.m_aFuture.completeExceptionally (aException);
+  }
+
+  private void _processBatch (@Nonnull @Nonempty final ICommonsList <PendingCheck> aBatch)
+  {
+    try
+    {
+      boolean [] aNew;
+      try
+      {
+        aNew = m_aStore.registerAllIfAbsent (aBatch.getAllMapped (x -> x.m_aItem));
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        LOGGER.error ("Shared duplicate store is not available - treating " +
+                      aBatch.size () +
+                      " message(s) as no duplicates",
+                      ex);
+        aNew = null;
+      }
+
+      if (aNew != null && aNew.length != aBatch.size ())
+        throw new IllegalStateException ("The shared duplicate store returned " +
+                                         aNew.length +
+                                         " results for " +
+                                         aBatch.size () +
+                                         " items");
+
+      int nIndex = 0;
+      for (final PendingCheck aCheck : aBatch)
+      {
+        final boolean bNew = aNew == null || aNew[nIndex];
+        aCheck.m_aFuture.complete (bNew ? EContinue.CONTINUE : EContinue.BREAK);
+        nIndex++;
+      }
+    }
+    catch (final RuntimeException ex)
+    {
+      // Never leave a caller waiting
+      _failBatch (aBatch, ex);
+    }
+  }
+
+  private void _dispatchLoop ()
+  {
+    final ICommonsList <PendingCheck> aBatch = new CommonsArrayList <> (m_nMaxBatchSize);
+    while (true)
+    {
+      try
+      {
+        final PendingCheck aFirst = m_aQueue.poll (100, TimeUnit.MILLISECONDS);
+        if (aFirst == null)
+        {
+          // Nothing can be added after closing
+          if (m_aRWLock.readLockedBoolean ( () -> m_bClosed) && m_aQueue.isEmpty ())
+            break;
+          continue;
+        }
+        aBatch.add (aFirst);
+        m_aQueue.drainTo (aBatch, m_nMaxBatchSize - 1);
+        _processBatch (aBatch);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        break;
+      }
+      finally
+      {
+        aBatch.clear ();
+      }
+    }
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #registerAndCheck(String, String, String)}. Checks of concurrent
+   * callers are combined into batches for the shared store.
+   *
+   * @param sMessageID
+   *        Message ID to check. May be <code>null</code>.
+   * @param sProfileID
+   *        Active AS4 profile ID. May be <code>null</code>.
+   * @param sPModeID
+   *        Active AS4 PMode ID. May be <code>null</code>.
+   * @return A future that completes with {@link EContinue#CONTINUE} if the
+   *         message is no duplicate, or {@link EContinue#BREAK} if it is a
+   *         duplicate. It completes exceptionally if the shared store returned
+   *         an invalid result.
+   * @throws IllegalStateException
+   *         If this manager was closed
+   */
+  @Nonnull
+  public CompletableFuture <EContinue> registerAndCheckAsync (@Nullable final String sMessageID,
+                                                              @Nullable final String sProfileID,
+                                                              @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return CompletableFuture.completedFuture (EContinue.CONTINUE);
+    }
+
+    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+    final PendingCheck aCheck = new PendingCheck (aItem);
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (m_bClosed)
+        throw new IllegalStateException ("The duplicate manager is closed");
+
+      final String sID = aItem.getID ();
+      if (m_aLocalIDs.containsKey (sID))
+      {
+        // Already seen on this node
+        return CompletableFuture.completedFuture (EContinue.BREAK);
+      }
+      final Long aBucket = Long.valueOf (_getBucket (aItem.getDateTime ()));
+      m_aLocalIDs.put (sID, aBucket);
+      m_aLocalBuckets.computeIfAbsent (aBucket, k -> new CommonsHashSet <> ()).add (sID);
+      m_aQueue.add (aCheck);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+    return aCheck.m_aFuture;
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID,
+                                     @Nullable final String sProfileID,
+                                     @Nullable final String sPModeID)
+  {
+    return registerAndCheckAsync (sMessageID, sProfileID, sPModeID).join ();
+  }
+
+  @Nullable
+  private <T> T _fromStore (@Nonnull final IThrowingSupplier <T, IOException> aSupplier, @Nullable final T aFallback)
+  {
+    try
+    {
+      return aSupplier.get ();
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      LOGGER.error ("Shared duplicate store is not available", ex);
+      return aFallback;
+    }
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    final EChange eLocalChange = m_aRWLock.writeLockedGet ( () -> {
+      if (m_aLocalIDs.isEmpty ())
+        return EChange.UNCHANGED;
+      m_aLocalIDs.clear ();
+      m_aLocalBuckets.clear ();
+      return EChange.CHANGED;
+    });
+    return eLocalChange.or (_fromStore (m_aStore::clear, EChange.UNCHANGED));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    // Only drop buckets that lie completely before the reference date
+    final long nRefBucket = _getBucket (aRefDT);
+    final ICommonsList <String> aLocalEvicted = new CommonsArrayList <> ();
+    m_aRWLock.writeLocked ( () -> {
+      final SortedMap <Long, ICommonsSet <String>> aHead = m_aLocalBuckets.headMap (Long.valueOf (nRefBucket));
+      for (final ICommonsSet <String> aIDs : aHead.values ())
+        aLocalEvicted.addAll (aIDs);
+      aHead.clear ();
+      for (final String sID : aLocalEvicted)
+        m_aLocalIDs.remove (sID);
+    });
+
+    return _fromStore ( () -> m_aStore.evictAllItemsBefore (aRefDT), aLocalEvicted);
+  }
+
+  public boolean isEmpty ()
+  {
+    return size () == 0;
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    final int nLocalSize = m_aRWLock.readLockedInt (m_aLocalIDs::size);
+    return _fromStore ( () -> Integer.valueOf (m_aStore.size ()), Integer.valueOf (nLocalSize)).intValue ();
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    return _fromStore ( () -> m_aStore.getItemOfMessageID (sMessageID), null);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    return _fromStore (m_aStore::getAll, new CommonsArrayList <> ());
+  }
+
+  /**
+   * Process all pending checks, stop the dispatcher thread and close the
+   * shared store. Checks started afterwards are rejected.
+   *
+   * @throws IOException
+   *         If closing the shared store failed
+   */
+  public void close () throws IOException
+  {
+    m_aRWLock.writeLocked ( () -> m_bClosed = true);
+    m_aDispatcher.shutdown ();
+    try
+    {
+      if (!m_aDispatcher.awaitTermination (30, TimeUnit.SECONDS))
+        LOGGER.warn ("Duplicate check dispatcher did not terminate in time");
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+    m_aStore.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Store", m_aStore)
+                                       .append ("MaxBatchSize", m_nMaxBatchSize)
+                                       .getToString ();
+  }
+}
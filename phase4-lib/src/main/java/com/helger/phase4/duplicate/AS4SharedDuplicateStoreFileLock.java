@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A {@link IAS4SharedDuplicateStore} that keeps all items in a single file,
+ * that is shared between multiple JVMs via an exclusive {@link FileLock}. This
+ * is meant for nodes running on the same host or on a shared file system with
+ * working file locks, and for testing multi-JVM setups offline.<br>
+ * The file consists of a small header followed by the appended items. Each
+ * instance keeps an in-memory index and only reads the bytes appended by other
+ * processes since its last access. Eviction and clearing rewrite the file and
+ * increment the generation number in the header, which lets the other
+ * processes rebuild their index.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4SharedDuplicateStoreFileLock implements IAS4SharedDuplicateStore
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4SharedDuplicateStoreFileLock.class);
+
+  // "P4DS"
+  private static final int MAGIC = 0x50344453;
+  private static final int HEADER_SIZE = 4 + 4 + 8;
+
+  // A FileLock is held on behalf of the whole JVM, so instances working on the
+  // same file in the same JVM need an additional lock
+  private static final ConcurrentHashMap <String, SimpleLock> JVM_LOCKS = new ConcurrentHashMap <> ();
+
+  private final AS4DuplicateItemCodec m_aCodec = new AS4DuplicateItemCodec ();
+  private final File m_aFile;
+  private final SimpleLock m_aJVMLock;
+  private final FileChannel m_aChannel;
+  @GuardedBy ("m_aJVMLock")
+  private final ICommonsOrderedMap <String, AS4DuplicateItem> m_aIndex = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aJVMLock")
+  private long m_nGeneration = -1;
+  @GuardedBy ("m_aJVMLock")
+  private long m_nReadPos = 0;
+  private volatile boolean m_bSyncWrites = false;
+
+  /**
+   * Constructor
+   *
+   * @param aFile
+   *        The shared file to use. It is created if it does not exist. May not
+   *        be <code>null</code>.
+   * @throws IOException
+   *         If the file could not be opened
+   */
+  public AS4SharedDuplicateStoreFileLock (@Nonnull final File aFile) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    m_aFile = aFile;
+    m_aJVMLock = JVM_LOCKS.computeIfAbsent (aFile.getCanonicalPath (), k -> new SimpleLock ());
+    m_aChannel = FileChannel.open (aFile.toPath (),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+  }
+
+  /**
+   * @return The shared file. Never <code>null</code>.
+   */
+  @Nonnull
+  public final File getFile ()
+  {
+    return m_aFile;
+  }
+
+  /**
+   * @return <code>true</code> if every write is forced to the storage device
+   *         before the lock is released, <code>false</code> if not. Default is
+   *         <code>false</code>.
+   */
+  public final boolean isSyncWrites ()
+  {
+    return m_bSyncWrites;
+  }
+
+  /**
+   * @param bSyncWrites
+   *        <code>true</code> to force every write to the storage device.
+   *        Safer in case of a power outage, but slower.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4SharedDuplicateStoreFileLock setSyncWrites (final boolean bSyncWrites)
+  {
+    m_bSyncWrites = bSyncWrites;
+    return this;
+  }
+
+  private <T> T _locked (@Nonnull final IThrowingSupplier <T, IOException> aSupplier) throws IOException
+  {
+    m_aJVMLock.lock ();
+    try (final FileLock aFileLock = m_aChannel.lock ())
+    {
+      _sync ();
+      return aSupplier.get ();
+    }
+    finally
+    {
+      m_aJVMLock.unlock ();
+    }
+  }
+
+  private void _readFully (@Nonnull final ByteBuffer aBB, final long nPosition) throws IOException
+  {
+    long nPos = nPosition;
+    while (aBB.hasRemaining ())
+    {
+      final int nRead = m_aChannel.read (aBB, nPos);
+      if (nRead < 0)
+        throw new IOException ("Unexpected end of file '" + m_aFile.getAbsolutePath () + "'");
+      nPos += nRead;
+    }
+    aBB.flip ();
+  }
+
+  private void _writeFully (@Nonnull final ByteBuffer aBB, final long nPosition) throws IOException
+  {
+    long nPos = nPosition;
+    while (aBB.hasRemaining ())
+      nPos += m_aChannel.write (aBB, nPos);
+    if (m_bSyncWrites)
+      m_aChannel.force (false);
+  }
+
+  private void _writeItem (@Nonnull final DataOutputStream aDOS, @Nonnull final AS4DuplicateItem aItem) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try (final DataOutputStream aRecordDOS = new DataOutputStream (aBAOS))
+    {
+      m_aCodec.writeRecord (aItem, aRecordDOS);
+    }
+    aDOS.writeInt (aBAOS.size ());
+    aBAOS.writeTo (aDOS);
+  }
+
+  /**
+   * Rewrite the whole file with the provided items and a new generation.
+   */
+  @GuardedBy ("m_aJVMLock")
+  private void _rewrite (@Nonnull final Iterable <AS4DuplicateItem> aItems, final long nGeneration) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try (final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeInt (MAGIC);
+      aDOS.writeInt (m_aCodec.getRecordVersion ());
+      aDOS.writeLong (nGeneration);
+      for (final AS4DuplicateItem aItem : aItems)
+        _writeItem (aDOS, aItem);
+    }
+    final ICommonsList <AS4DuplicateItem> aRetained = new CommonsArrayList <> (aItems);
+    m_aChannel.truncate (0);
+    _writeFully (ByteBuffer.wrap (aBAOS.toByteArray ()), 0);
+
+    m_aIndex.clear ();
+    for (final AS4DuplicateItem aItem : aRetained)
+      m_aIndex.put (aItem.getID (), aItem);
+    m_nGeneration = nGeneration;
+    m_nReadPos = aBAOS.size ();
+  }
+
+  /**
+   * Bring the local index up to date with the file content. Must be called
+   * while holding the file lock.
+   */
+  @GuardedBy ("m_aJVMLock")
+  private void _sync () throws IOException
+  {
+    final long nSize = m_aChannel.size ();
+    if (nSize < HEADER_SIZE)
+    {
+      // New file or a file that was never completely initialized
+      _rewrite (new CommonsArrayList <> (), 1);
+      return;
+    }
+
+    final ByteBuffer aHeader = ByteBuffer.allocate (HEADER_SIZE);
+    _readFully (aHeader, 0);
+    if (aHeader.getInt () != MAGIC)
+      throw new IOException ("File '" + m_aFile.getAbsolutePath () + "' is not a shared duplicate store");
+    final int nRecordVersion = aHeader.getInt ();
+    final long nGeneration = aHeader.getLong ();
+    if (nGeneration != m_nGeneration)
+    {
+      // The file was rewritten by someone else - read it from scratch
+      m_aIndex.clear ();
+      m_nGeneration = nGeneration;
+      m_nReadPos = HEADER_SIZE;
+    }
+
+    if (nSize > m_nReadPos)
+    {
+      final ByteBuffer aBB = ByteBuffer.allocate (Math.toIntExact (nSize - m_nReadPos));
+      _readFully (aBB, m_nReadPos);
+      try
+      {
+        while (aBB.remaining () >= 4)
+        {
+          final int nStart = aBB.position ();
+          final int nLen = aBB.getInt ();
+          if (nLen < 0 || nLen > aBB.remaining ())
+          {
+            aBB.position (nStart);
+            break;
+          }
+          final ByteBuffer aRecordBB = aBB.slice ();
+          aRecordBB.limit (nLen);
+          aBB.position (aBB.position () + nLen);
+
+          final AS4DuplicateItem aItem = m_aCodec.readRecord (aRecordBB, nRecordVersion);
+          if (aItem != null)
+            m_aIndex.put (aItem.getID (), aItem);
+        }
+      }
+      catch (final BufferUnderflowException | IllegalArgumentException ex)
+      {
+        throw new IOException ("File '" + m_aFile.getAbsolutePath () + "' is corrupt", ex);
+      }
+
+      final long nValidEnd = m_nReadPos + aBB.position ();
+      if (nValidEnd < nSize)
+      {
+        // Only possible if a writer died while appending
+        LOGGER.warn ("Cutting off " + (nSize - nValidEnd) + " bytes of a torn shared duplicate store tail");
+        m_aChannel.truncate (nValidEnd);
+      }
+      m_nReadPos = nValidEnd;
+    }
+  }
+
+  @Nonnull
+  public boolean [] registerAllIfAbsent (@Nonnull @Nonempty final List <? extends AS4DuplicateItem> aItems) throws IOException
+  {
+    ValueEnforcer.notEmptyNoNullValue (aItems, "Items");
+
+    return _locked ( () -> {
+      final boolean [] ret = new boolean [aItems.size ()];
+      final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+      try (final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+      {
+        int nIndex = 0;
+        for (final AS4DuplicateItem aItem : aItems)
+        {
+          if (!m_aIndex.containsKey (aItem.getID ()))
+          {
+            _writeItem (aDOS, aItem);
+            m_aIndex.put (aItem.getID (), aItem);
+            ret[nIndex] = true;
+          }
+          nIndex++;
+        }
+      }
+      if (aBAOS.size () > 0)
+      {
+        // One write for the whole batch
+        _writeFully (ByteBuffer.wrap (aBAOS.toByteArray ()), m_nReadPos);
+        m_nReadPos += aBAOS.size ();
+      }
+      return ret;
+    });
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nonnull final String sMessageID) throws IOException
+  {
+    ValueEnforcer.notNull (sMessageID, "MessageID");
+    return _locked ( () -> m_aIndex.get (sMessageID));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll () throws IOException
+  {
+    return _locked ( () -> new CommonsArrayList <> (m_aIndex.values ()));
+  }
+
+  @Nonnegative
+  public int size () throws IOException
+  {
+    return _locked (m_aIndex::size).intValue ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT) throws IOException
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    return _locked ( () -> {
+      final ICommonsList <String> aEvicted = new CommonsArrayList <> ();
+      final ICommonsList <AS4DuplicateItem> aRetained = new CommonsArrayList <> ();
+      for (final AS4DuplicateItem aItem : m_aIndex.values ())
+        if (aItem.getDateTime ().isBefore (aRefDT))
+          aEvicted.add (aItem.getMessageID ());
+        else
+          aRetained.add (aItem);
+      if (aEvicted.isNotEmpty ())
+        _rewrite (aRetained, m_nGeneration + 1);
+      return aEvicted;
+    });
+  }
+
+  @Nonnull
+  public EChange clear () throws IOException
+  {
+    return _locked ( () -> {
+      if (m_aIndex.isEmpty ())
+        return EChange.UNCHANGED;
+      _rewrite (new CommonsArrayList <> (), m_nGeneration + 1);
+      return EChange.CHANGED;
+    });
+  }
+
+  public void close () throws IOException
+  {
+    m_aChannel.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("File", m_aFile).append ("SyncWrites", m_bSyncWrites).getToString ();
+  }
+}
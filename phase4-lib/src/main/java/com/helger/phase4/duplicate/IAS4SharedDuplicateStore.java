@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EChange;
+
+/**
+ * A duplicate item store that is shared between all nodes of a cluster. This
+ * is the authoritative source for {@link AS4DuplicateManagerCluster}.
+ * Implementations must be safe to use from multiple threads and from multiple
+ * JVMs at the same time. All methods may throw an {@link IOException} if the
+ * shared backend is not reachable.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+public interface IAS4SharedDuplicateStore extends AutoCloseable
+{
+  /**
+   * Atomically register all provided items that are not yet contained. The
+   * items are handled in the provided order, so if the same message ID is
+   * contained more than once in the list, only the first occurrence is
+   * registered.
+   *
+   * @param aItems
+   *        The items to register. May neither be <code>null</code> nor empty.
+   * @return An array with the same length as the provided list.
+   *         <code>true</code> at index <code>i</code> means, that item
+   *         <code>i</code> was newly registered, <code>false</code> means that
+   *         an item with the same message ID was already present.
+   * @throws IOException
+   *         If the shared backend could not be accessed
+   */
+  @Nonnull
+  boolean [] registerAllIfAbsent (@Nonnull @Nonempty List <? extends AS4DuplicateItem> aItems) throws IOException;
+
+  /**
+   * @param sMessageID
+   *        The message ID to search. May not be <code>null</code>.
+   * @return The item with the provided message ID or <code>null</code> if no
+   *         such item is contained.
+   * @throws IOException
+   *         If the shared backend could not be accessed
+   */
+  @Nullable
+  IAS4DuplicateItem getItemOfMessageID (@Nonnull String sMessageID) throws IOException;
+
+  /**
+   * @return All contained items. Never <code>null</code>.
+   * @throws IOException
+   *         If the shared backend could not be accessed
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IAS4DuplicateItem> getAll () throws IOException;
+
+  /**
+   * @return The number of contained items. Always &ge; 0.
+   * @throws IOException
+   *         If the shared backend could not be accessed
+   */
+  @Nonnegative
+  int size () throws IOException;
+
+  /**
+   * Delete all items that were created before the provided time.
+   *
+   * @param aRefDT
+   *        The reference date time to compare to. May not be <code>null</code>.
+   * @return A non-<code>null</code> list of all evicted message IDs.
+   * @throws IOException
+   *         If the shared backend could not be accessed
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <String> evictAllItemsBefore (@Nonnull OffsetDateTime aRefDT) throws IOException;
+
+  /**
+   * Remove all items.
+   *
+   * @return {@link EChange}
+   * @throws IOException
+   *         If the shared backend could not be accessed
+   */
+  @Nonnull
+  EChange clear () throws IOException;
+
+  /**
+   * Release all resources held by this store. The shared data itself is
+   * retained.
+   *
+   * @throws IOException
+   *         If closing failed
+   */
+  void close () throws IOException;
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * Limits the number of detailed ebMS error responses per remote address in a
+ * fixed time window. Detailed error responses are marshalled, optionally
+ * signed and contain the error details, which makes them more expensive than
+ * processing a valid message. If a misconfigured or malicious partner sends a
+ * flood of bad messages, the errors beyond the limit are answered with a
+ * precomputed {@link AS4ErrorResponseTemplate} instead.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4ErrorRateLimiter
+{
+  /** The default maximum number of remote addresses to track */
+  public static final int DEFAULT_MAX_ADDRESSES = 10_000;
+
+  private static final SimpleLock DEFAULT_LOCK = new SimpleLock ();
+  @GuardedBy ("DEFAULT_LOCK")
+  private static AS4ErrorRateLimiter s_aDefaultInstance;
+
+  private final int m_nMaxDetailedPerWindow;
+  private final long m_nWindowMillis;
+  private final int m_nMaxAddresses;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Remote address to [window start, count], ordered by window start
+  @GuardedBy ("m_aLock")
+  private final ICommonsOrderedMap <String, long []> m_aWindows = new CommonsLinkedHashMap <> ();
+
+  private final AtomicLong m_aDetailedCount = new AtomicLong (0);
+  private final AtomicLong m_aSuppressedCount = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param nMaxDetailedPerWindow
+   *        The maximum number of detailed errors per remote address and
+   *        window. Must be &gt; 0.
+   * @param aWindow
+   *        The duration of the window. May not be <code>null</code>.
+   * @param nMaxAddresses
+   *        The maximum number of remote addresses to track. If more addresses
+   *        are seen in one window, the oldest windows are dropped. Must be
+   *        &gt; 0.
+   */
+  public AS4ErrorRateLimiter (@Nonnegative final int nMaxDetailedPerWindow,
+                              @Nonnull final Duration aWindow,
+                              @Nonnegative final int nMaxAddresses)
+  {
+    ValueEnforcer.isGT0 (nMaxDetailedPerWindow, "MaxDetailedPerWindow");
+    ValueEnforcer.notNull (aWindow, "Window");
+    ValueEnforcer.isGT0 (aWindow.toMillis (), "Window");
+    ValueEnforcer.isGT0 (nMaxAddresses, "MaxAddresses");
+    m_nMaxDetailedPerWindow = nMaxDetailedPerWindow;
+    m_nWindowMillis = aWindow.toMillis ();
+    m_nMaxAddresses = nMaxAddresses;
+  }
+
+  /**
+   * @return The maximum number of detailed errors per remote address and
+   *         window. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxDetailedPerWindow ()
+  {
+    return m_nMaxDetailedPerWindow;
+  }
+
+  /**
+   * Check if a detailed error response may be created for the provided remote
+   * address. Each call with a positive answer counts against the limit.
+   *
+   * @param sRemoteAddr
+   *        The remote address of the sender. May be <code>null</code> if
+   *        unknown - all unknown senders share one limit.
+   * @return <code>true</code> if a detailed error response may be created,
+   *         <code>false</code> if the precomputed one should be used.
+   */
+  public boolean isDetailedErrorAllowed (@Nullable final String sRemoteAddr)
+  {
+    final String sKey = StringHelper.getNotNull (sRemoteAddr);
+    final long nNow = System.currentTimeMillis ();
+    final boolean bAllowed = m_aLock.lockedBoolean ( () -> {
+      long [] aWindow = m_aWindows.get (sKey);
+      if (aWindow != null && nNow - aWindow[0] >= m_nWindowMillis)
+      {
+        // Start a new window - re-added at the end, so that the map stays
+        // ordered by window start
+        m_aWindows.remove (sKey);
+        aWindow = null;
+      }
+      if (aWindow == null)
+      {
+        // Keep the memory bounded, even if many addresses are used: drop
+        // expired windows and if still full, the oldest ones
+        final Iterator <long []> aIter = m_aWindows.values ().iterator ();
+        while (aIter.hasNext ())
+        {
+          final long [] aOldest = aIter.next ();
+          if (m_aWindows.size () < m_nMaxAddresses && nNow - aOldest[0] < m_nWindowMillis)
+            break;
+          aIter.remove ();
+        }
+        aWindow = new long [] { nNow, 0 };
+        m_aWindows.put (sKey, aWindow);
+      }
+
+      if (aWindow[1] >= m_nMaxDetailedPerWindow)
+        return false;
+      aWindow[1]++;
+      return true;
+    });
+
+    if (bAllowed)
+      m_aDetailedCount.incrementAndGet ();
+    else
+      m_aSuppressedCount.incrementAndGet ();
+    return bAllowed;
+  }
+
+  /**
+   * @return The number of detailed error responses that were allowed. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public final long getDetailedCount ()
+  {
+    return m_aDetailedCount.get ();
+  }
+
+  /**
+   * @return The number of error responses that were answered with the
+   *         precomputed template. Always &ge; 0.
+   */
+  @Nonnegative
+  public final long getSuppressedCount ()
+  {
+    return m_aSuppressedCount.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxDetailedPerWindow", m_nMaxDetailedPerWindow)
+                                       .append ("WindowMillis", m_nWindowMillis)
+                                       .append ("MaxAddresses", m_nMaxAddresses)
+                                       .append ("DetailedCount", m_aDetailedCount.get ())
+                                       .append ("SuppressedCount", m_aSuppressedCount.get ())
+                                       .getToString ();
+  }
+
+  /**
+   * Get the shared instance as configured by
+   * {@link AS4Configuration#getErrorMessageDetailedPerMinute()}.
+   *
+   * @return <code>null</code> if detailed error responses are not limited.
+   */
+  @Nullable
+  public static AS4ErrorRateLimiter getDefaultInstanceOrNull ()
+  {
+    final int nMaxPerMinute = AS4Configuration.getErrorMessageDetailedPerMinute ();
+    if (nMaxPerMinute <= 0)
+      return null;
+
+    return DEFAULT_LOCK.lockedGet ( () -> {
+      AS4ErrorRateLimiter ret = s_aDefaultInstance;
+      if (ret == null || ret.getMaxDetailedPerWindow () != nMaxPerMinute)
+      {
+        // (Re-)create on configuration change
+        ret = new AS4ErrorRateLimiter (nMaxPerMinute, Duration.ofMinutes (1), DEFAULT_MAX_ADDRESSES);
+        s_aDefaultInstance = ret;
+      }
+      return ret;
+    });
+  }
+}
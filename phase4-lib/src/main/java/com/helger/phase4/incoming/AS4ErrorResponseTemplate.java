@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming;
+
+import java.nio.charset.Charset;
+import java.time.OffsetDateTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.datetime.XMLOffsetDateTime;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.jaxb.adapter.AdapterXMLOffsetDateTime;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3MessageInfo;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.error.IEbmsError;
+import com.helger.phase4.model.message.AS4ErrorMessage;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.xml.serialize.write.EXMLCharMode;
+import com.helger.xml.serialize.write.EXMLIncorrectCharacterHandling;
+import com.helger.xml.serialize.write.EXMLSerializeVersion;
+import com.helger.xml.serialize.write.XMLMaskHelper;
+
+/**
+ * A pre-serialized, unsigned SOAP envelope with an ebMS error signal message.
+ * It is created once per SOAP version, error code and locale, and only the
+ * message ID, the reference to the message in error and the timestamp are
+ * substituted per response. This avoids JAXB marshalling, DOM serialization
+ * and signing when many erroneous messages need to be answered. The error
+ * contains no error detail.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public final class AS4ErrorResponseTemplate
+{
+  private static final String TOKEN_MESSAGE_ID = "phase4-template-messageid";
+  private static final String TOKEN_REF_TO_MESSAGE_ID = "phase4-template-reftomessageid";
+  private static final String TOKEN_TIMESTAMP = "phase4-template-timestamp";
+  private static final String [] TOKENS = { TOKEN_MESSAGE_ID, TOKEN_REF_TO_MESSAGE_ID, TOKEN_TIMESTAMP };
+  private static final int IDX_MESSAGE_ID = 0;
+  private static final int IDX_REF_TO_MESSAGE_ID = 1;
+  private static final int IDX_TIMESTAMP = 2;
+
+  private static final Map <String, AS4ErrorResponseTemplate> CACHE = new ConcurrentHashMap <> ();
+
+  private final ESoapVersion m_eSoapVersion;
+  private final String m_sErrorCode;
+  private final Charset m_aCharset;
+  // The static parts; one more than tokens
+  private final String [] m_aParts;
+  // The token index between two parts
+  private final int [] m_aTokenIdx;
+
+  private AS4ErrorResponseTemplate (@Nonnull final ESoapVersion eSoapVersion,
+                                    @Nonnull @Nonempty final String sErrorCode,
+                                    @Nonnull final Charset aCharset,
+                                    @Nonnull final String sXML)
+  {
+    m_eSoapVersion = eSoapVersion;
+    m_sErrorCode = sErrorCode;
+    m_aCharset = aCharset;
+
+    final ICommonsList <String> aParts = new CommonsArrayList <> ();
+    final ICommonsList <Integer> aTokenIdx = new CommonsArrayList <> ();
+    int nStart = 0;
+    while (true)
+    {
+      // Find the next token
+      int nNextPos = -1;
+      int nNextToken = -1;
+      for (int i = 0; i < TOKENS.length; ++i)
+      {
+        final int nPos = sXML.indexOf (TOKENS[i], nStart);
+        if (nPos >= 0 && (nNextPos < 0 || nPos < nNextPos))
+        {
+          nNextPos = nPos;
+          nNextToken = i;
+        }
+      }
+      if (nNextPos < 0)
+        break;
+      aParts.add (sXML.substring (nStart, nNextPos));
+      aTokenIdx.add (Integer.valueOf (nNextToken));
+      nStart = nNextPos + TOKENS[nNextToken].length ();
+    }
+    aParts.add (sXML.substring (nStart));
+
+    m_aParts = aParts.toArray (new String [0]);
+    m_aTokenIdx = new int [aTokenIdx.size ()];
+    for (int i = 0; i < m_aTokenIdx.length; ++i)
+      m_aTokenIdx[i] = aTokenIdx.get (i).intValue ();
+  }
+
+  /**
+   * @return The SOAP version of this template. Never <code>null</code>.
+   */
+  @Nonnull
+  public ESoapVersion getSoapVersion ()
+  {
+    return m_eSoapVersion;
+  }
+
+  /**
+   * @return The ebMS error code contained in this template. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getErrorCode ()
+  {
+    return m_sErrorCode;
+  }
+
+  @Nonnull
+  private static String _mask (@Nonnull final String s)
+  {
+    // Masking for attribute values is also valid for text content
+    return new String (XMLMaskHelper.getMaskedXMLText (EXMLSerializeVersion.XML_10,
+                                                       EXMLCharMode.ATTRIBUTE_VALUE_DOUBLE_QUOTES,
+                                                       EXMLIncorrectCharacterHandling.DO_NOT_WRITE_NO_LOG,
+                                                       s));
+  }
+
+  /**
+   * Create the serialized error response.
+   *
+   * @param sMessageID
+   *        The message ID of the error message. May neither be
+   *        <code>null</code> nor empty.
+   * @param sRefToMessageID
+   *        The ID of the message in error. May be <code>null</code> if the
+   *        template was created without reference.
+   * @param aDateTime
+   *        The timestamp of the error message. May not be <code>null</code>.
+   * @return The serialized SOAP envelope. Never <code>null</code>.
+   */
+  @Nonnull
+  public byte [] getAsBytes (@Nonnull @Nonempty final String sMessageID,
+                             @Nullable final String sRefToMessageID,
+                             @Nonnull final OffsetDateTime aDateTime)
+  {
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aDateTime, "DateTime");
+
+    final String [] aValues = new String [TOKENS.length];
+    aValues[IDX_MESSAGE_ID] = _mask (sMessageID);
+    aValues[IDX_REF_TO_MESSAGE_ID] = _mask (StringHelper.getNotNull (sRefToMessageID));
+    aValues[IDX_TIMESTAMP] = new AdapterXMLOffsetDateTime ().marshal (XMLOffsetDateTime.of (aDateTime));
+
+    final StringBuilder aSB = new StringBuilder (m_aParts[0].length () * 2);
+    aSB.append (m_aParts[0]);
+    for (int i = 0; i < m_aTokenIdx.length; ++i)
+      aSB.append (aValues[m_aTokenIdx[i]]).append (m_aParts[i + 1]);
+    return aSB.toString ().getBytes (m_aCharset);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SoapVersion", m_eSoapVersion)
+                                       .append ("ErrorCode", m_sErrorCode)
+                                       .append ("Parts", m_aParts.length)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new template by building, marshalling and serializing an error
+   * message with placeholders.
+   *
+   * @param eSoapVersion
+   *        SOAP version to use. May not be <code>null</code>.
+   * @param aError
+   *        The ebMS error to contain. May not be <code>null</code>.
+   * @param aLocale
+   *        The locale for the error description. May not be <code>null</code>.
+   * @param bWithRefToMessageID
+   *        <code>true</code> if the error message references the message in
+   *        error, <code>false</code> if not (e.g. because the message ID of
+   *        the incoming message is unknown).
+   * @return The new template. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4ErrorResponseTemplate create (@Nonnull final ESoapVersion eSoapVersion,
+                                                 @Nonnull final IEbmsError aError,
+                                                 @Nonnull final Locale aLocale,
+                                                 final boolean bWithRefToMessageID)
+  {
+    ValueEnforcer.notNull (eSoapVersion, "SoapVersion");
+    ValueEnforcer.notNull (aError, "Error");
+    ValueEnforcer.notNull (aLocale, "Locale");
+
+    final String sRefToMessageID = bWithRefToMessageID ? TOKEN_REF_TO_MESSAGE_ID : null;
+    final Ebms3MessageInfo aMessageInfo = MessageHelperMethods.createEbms3MessageInfo (TOKEN_MESSAGE_ID,
+                                                                                      sRefToMessageID,
+                                                                                      OffsetDateTime.now ());
+    final Ebms3Error aEbms3Error = aError.errorBuilder (aLocale).refToMessageInError (sRefToMessageID).build ();
+    final Document aDoc = AS4ErrorMessage.create (eSoapVersion, aMessageInfo, new CommonsArrayList <> (aEbms3Error))
+                                         .getAsSoapDocument ();
+
+    // The timestamp is no string in the domain model
+    final Node aTimestamp = aDoc.getElementsByTagNameNS (CAS4.EBMS_NS, "Timestamp").item (0);
+    if (aTimestamp == null)
+      throw new IllegalStateException ("Failed to find the Timestamp element in the error message");
+    aTimestamp.setTextContent (TOKEN_TIMESTAMP);
+
+    return new AS4ErrorResponseTemplate (eSoapVersion,
+                                         aError.getErrorCode (),
+                                         AS4XMLHelper.XWS.getCharset (),
+                                         AS4XMLHelper.serializeXML (aDoc));
+  }
+
+  /**
+   * Get the cached template for the provided parameters or create a new one.
+   *
+   * @param eSoapVersion
+   *        SOAP version to use. May not be <code>null</code>.
+   * @param aError
+   *        The ebMS error to contain. May not be <code>null</code>.
+   * @param aLocale
+   *        The locale for the error description. May not be <code>null</code>.
+   * @param bWithRefToMessageID
+   *        <code>true</code> if the error message references the message in
+   *        error, <code>false</code> if not.
+   * @return The template. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4ErrorResponseTemplate getTemplate (@Nonnull final ESoapVersion eSoapVersion,
+                                                      @Nonnull final IEbmsError aError,
+                                                      @Nonnull final Locale aLocale,
+                                                      final boolean bWithRefToMessageID)
+  {
+    final String sKey = eSoapVersion.name () +
+                        ':' +
+                        aError.getErrorCode () +
+                        ':' +
+                        aLocale.toLanguageTag () +
+                        ':' +
+                        bWithRefToMessageID;
+    return CACHE.computeIfAbsent (sKey, k -> create (eSoapVersion, aError, aLocale, bWithRefToMessageID));
+  }
+}
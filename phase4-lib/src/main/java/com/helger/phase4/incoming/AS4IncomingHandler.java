@@ -19,6 +19,7 @@ package com.helger.phase4.incoming;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.Map;
@@ -49,9 +50,11 @@ import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.ServiceLoaderHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.state.EContinue;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.wrapper.Wrapper;
@@ -60,6 +63,7 @@ import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.crypto.IAS4PModeAwareCryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.ebms3header.Ebms3Error;
@@ -139,6 +143,36 @@ public final class AS4IncomingHandler
                                                                                Phase4Exception;
   }
 
+  /**
+   * Callback interface for the optional pre-scan of the Messaging header. It is
+   * invoked before the SOAP DOM is built.
+   *
+   * @author Philip Helger
+   * @since 3.0.1
+   */
+  @FunctionalInterface
+  public interface IAS4PreScanCallback
+  {
+    /**
+     * Callback method
+     *
+     * @param aHttpHeaders
+     *        Incoming HTTP headers. Never <code>null</code> but maybe empty.
+     * @param aPreScan
+     *        The pre-scan result. Never <code>null</code>.
+     * @return {@link EContinue#CONTINUE} to continue with the regular
+     *         processing, {@link EContinue#BREAK} if the message was rejected
+     *         and the DOM build as well as the main processing should be
+     *         skipped. In the latter case, the callback is responsible for the
+     *         response.
+     * @throws Phase4Exception
+     *         In case of a processing error
+     */
+    @Nonnull
+    EContinue onPreScan (@Nonnull HttpHeaderMap aHttpHeaders,
+                         @Nonnull AS4IncomingMessagingPreScan aPreScan) throws Phase4Exception;
+  }
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4IncomingHandler.class);
 
   private AS4IncomingHandler ()
@@ -154,6 +188,132 @@ public final class AS4IncomingHandler
                                                                                           IOException,
                                                                                           MessagingException,
                                                                                           WSSecurityException
+  {
+    parseAS4Message (aIAF,
+                     aResHelper,
+                     aIncomingMessageMetadata,
+                     aPayloadIS,
+                     aHttpHeaders,
+                     aCallback,
+                     aIncomingDumper,
+                     (IAS4PreScanCallback) null);
+  }
+
+  @Nullable
+  private static AS4IncomingMessagingPreScan _preScan (@Nonnull final byte [] aHead)
+  {
+    final AS4IncomingMessagingPreScan ret = AS4IncomingMessagingPreScan.scan (new NonBlockingByteArrayInputStream (aHead));
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Pre-scan of the first " + aHead.length + " bytes resulted in " + ret);
+    return ret;
+  }
+
+  /**
+   * Parse an incoming AS4 message.
+   *
+   * @param aIAF
+   *        The attachment factory to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @param aIncomingMessageMetadata
+   *        Incoming message metadata. May not be <code>null</code>.
+   * @param aPayloadIS
+   *        The payload input stream. Will be closed. May not be
+   *        <code>null</code>.
+   * @param aHttpHeaders
+   *        The incoming HTTP headers. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback for the parsed SOAP document. May not be
+   *        <code>null</code>.
+   * @param aIncomingDumper
+   *        The incoming dumper to use. May be <code>null</code> to use the
+   *        global one.
+   * @param aPreScanCallback
+   *        The optional callback for the StAX pre-scan of the Messaging
+   *        header. If it is <code>null</code> no pre-scan is performed.
+   * @throws Phase4Exception
+   *         in case of a processing error
+   * @throws IOException
+   *         In case of IO errors
+   * @throws MessagingException
+   *         MIME related errors
+   * @throws WSSecurityException
+   *         In case of WSS4J errors
+   * @since 3.0.1
+   */
+  public static void parseAS4Message (@Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                      @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                      @Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                      @Nonnull @WillClose final InputStream aPayloadIS,
+                                      @Nonnull final HttpHeaderMap aHttpHeaders,
+                                      @Nonnull final IAS4ParsedMessageCallback aCallback,
+                                      @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                      @Nullable final IAS4PreScanCallback aPreScanCallback) throws Phase4Exception,
+                                                                                            IOException,
+                                                                                            MessagingException,
+                                                                                            WSSecurityException
+  {
+    parseAS4Message (aIAF,
+                     aResHelper,
+                     aIncomingMessageMetadata,
+                     aPayloadIS,
+                     aHttpHeaders,
+                     aCallback,
+                     aIncomingDumper,
+                     aPreScanCallback,
+                     true);
+  }
+
+  /**
+   * Parse an incoming AS4 message.
+   *
+   * @param aIAF
+   *        The attachment factory to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @param aIncomingMessageMetadata
+   *        Incoming message metadata. May not be <code>null</code>.
+   * @param aPayloadIS
+   *        The payload input stream. Will be closed. May not be
+   *        <code>null</code>.
+   * @param aHttpHeaders
+   *        The incoming HTTP headers. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback for the parsed SOAP document. May not be
+   *        <code>null</code>.
+   * @param aIncomingDumper
+   *        The incoming dumper to use. May be <code>null</code> to use the
+   *        global one.
+   * @param aPreScanCallback
+   *        The optional callback for the StAX pre-scan of the Messaging
+   *        header. If it is <code>null</code> no pre-scan is performed.
+   * @param bInvokeStatusSPIs
+   *        <code>true</code> to inform all
+   *        {@link IAS4IncomingMessageProcessingStatusSPI} implementations about
+   *        the processing, <code>false</code> to not inform them, e.g. for
+   *        synthetic messages that were not received from the outside.
+   * @throws Phase4Exception
+   *         in case of a processing error
+   * @throws IOException
+   *         In case of IO errors
+   * @throws MessagingException
+   *         MIME related errors
+   * @throws WSSecurityException
+   *         In case of WSS4J errors
+   * @since 3.0.1
+   */
+  public static void parseAS4Message (@Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                      @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                      @Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                      @Nonnull @WillClose final InputStream aPayloadIS,
+                                      @Nonnull final HttpHeaderMap aHttpHeaders,
+                                      @Nonnull final IAS4ParsedMessageCallback aCallback,
+                                      @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                      @Nullable final IAS4PreScanCallback aPreScanCallback,
+                                      final boolean bInvokeStatusSPIs) throws Phase4Exception,
+                                                                       IOException,
+                                                                       MessagingException,
+                                                                       WSSecurityException
   {
     ValueEnforcer.notNull (aIAF, "IncomingAttachmentFactory");
     ValueEnforcer.notNull (aResHelper, "ResHelper");
@@ -187,9 +347,11 @@ public final class AS4IncomingHandler
     final ICommonsList <WSS4JAttachment> aIncomingAttachments = new CommonsArrayList <> ();
     final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
     Exception aCaughtException = null;
+    boolean bRejectedByPreScan = false;
 
     // Load all SPIs
-    final ICommonsList <IAS4IncomingMessageProcessingStatusSPI> aStatusSPIs = ServiceLoaderHelper.getAllSPIImplementations (IAS4IncomingMessageProcessingStatusSPI.class);
+    final ICommonsList <IAS4IncomingMessageProcessingStatusSPI> aStatusSPIs = bInvokeStatusSPIs ? ServiceLoaderHelper.getAllSPIImplementations (IAS4IncomingMessageProcessingStatusSPI.class)
+                                                                                                : new CommonsArrayList <> ();
     for (final IAS4IncomingMessageProcessingStatusSPI aStatusSPI : aStatusSPIs)
       try
       {
@@ -255,6 +417,23 @@ public final class AS4IncomingHandler
                 if (LOGGER.isDebugEnabled ())
                   LOGGER.debug ("Parsing first MIME part as SOAP document");
 
+                if (aPreScanCallback != null)
+                {
+                  // The content of the MIME body part is already in memory
+                  final AS4IncomingMessagingPreScan aPreScan;
+                  try (final InputStream aPartIS = aBodyPart.getInputStream ())
+                  {
+                    aPreScan = _preScan (AS4IncomingMessagingPreScan.readHead (aPartIS,
+                                                                               AS4IncomingMessagingPreScan.DEFAULT_MAX_SCAN_BYTES));
+                  }
+                  if (aPreScan != null && aPreScanCallback.onPreScan (aHttpHeaders, aPreScan).isBreak ())
+                  {
+                    // Don't read any attachment
+                    bRejectedByPreScan = true;
+                    break;
+                  }
+                }
+
                 // Read SOAP document
                 aSoapDocument = DOMReader.readXMLDOM (aBodyPart.getInputStream ());
 
@@ -301,11 +480,29 @@ public final class AS4IncomingHandler
         // Note: this may require a huge amount of memory for large requests
         // Note: This closes the incoming dump stream, when InputStream is
         // closed
-        aSoapDocument = DOMReader.readXMLDOM (AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
-                                                                                              aPayloadIS,
-                                                                                              aIncomingMessageMetadata,
-                                                                                              aHttpHeaders,
-                                                                                              aDumpOSHolder));
+        InputStream aSoapIS = AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
+                                                                               aPayloadIS,
+                                                                               aIncomingMessageMetadata,
+                                                                               aHttpHeaders,
+                                                                               aDumpOSHolder);
+        if (aPreScanCallback != null)
+        {
+          // Only the head of the message is buffered for the pre-scan
+          final byte [] aHead = AS4IncomingMessagingPreScan.readHead (aSoapIS,
+                                                                      AS4IncomingMessagingPreScan.DEFAULT_MAX_SCAN_BYTES);
+          final AS4IncomingMessagingPreScan aPreScan = _preScan (aHead);
+          if (aPreScan != null && aPreScanCallback.onPreScan (aHttpHeaders, aPreScan).isBreak ())
+          {
+            // The rest of the request is neither read nor dumped
+            StreamHelper.close (aSoapIS);
+            bRejectedByPreScan = true;
+          }
+          else
+            aSoapIS = new SequenceInputStream (new NonBlockingByteArrayInputStream (aHead), aSoapIS);
+        }
+
+        if (!bRejectedByPreScan)
+          aSoapDocument = DOMReader.readXMLDOM (aSoapIS);
 
         if (LOGGER.isDebugEnabled ())
         {
@@ -355,6 +552,12 @@ public final class AS4IncomingHandler
         }
       }
 
+      if (bRejectedByPreScan)
+      {
+        LOGGER.info ("Skipping the processing of the incoming message, because it was rejected by the pre-scan");
+        return;
+      }
+
       if (aSoapDocument == null)
       {
         // We don't have a SOAP document
@@ -542,31 +745,36 @@ public final class AS4IncomingHandler
       final EAS4CompressionMode eCompressionMode = aIncomingState.getAttachmentCompressionMode (aIncomingAttachment.getId ());
       if (eCompressionMode != null)
       {
-        final IHasInputStream aOldISP = aIncomingAttachment.getInputStreamProvider ();
-        aIncomingAttachment.setSourceStreamProvider (new HasInputStream ( () -> {
-          try
-          {
-            final InputStream aSrcIS = aOldISP.getInputStream ();
-            if (aSrcIS == null)
-              throw new IllegalStateException ("Failed to create InputStream from " + aOldISP);
-
-            if (LOGGER.isDebugEnabled ())
-              LOGGER.debug ("Decompressing attachment with ID '" +
-                            aIncomingAttachment.getId () +
-                            "' using " +
-                            eCompressionMode);
-            return eCompressionMode.getDecompressStream (aSrcIS);
-          }
-          catch (final IOException ex)
-          {
-            // This is e.g. invoked, if the GZIP decompression failed because of
-            // invalid payload
-            throw new AS4DecompressException (ex);
-          }
-        }, aOldISP.isReadMultiple ()));
+        // A compression mode on an incoming attachment means it was already
+        // decompressed when it was decrypted (pipelined mode)
+        if (aIncomingAttachment.getCompressionMode () == null)
+        {
+          final IHasInputStream aOldISP = aIncomingAttachment.getInputStreamProvider ();
+          aIncomingAttachment.setSourceStreamProvider (new HasInputStream ( () -> {
+            try
+            {
+              final InputStream aSrcIS = aOldISP.getInputStream ();
+              if (aSrcIS == null)
+                throw new IllegalStateException ("Failed to create InputStream from " + aOldISP);
+
+              if (LOGGER.isDebugEnabled ())
+                LOGGER.debug ("Decompressing attachment with ID '" +
+                              aIncomingAttachment.getId () +
+                              "' using " +
+                              eCompressionMode);
+              return eCompressionMode.getDecompressStream (aSrcIS);
+            }
+            catch (final IOException ex)
+            {
+              // This is e.g. invoked, if the GZIP decompression failed because of
+              // invalid payload
+              throw new AS4DecompressException (ex);
+            }
+          }, aOldISP.isReadMultiple ()));
 
-        // Remember the compression mode
-        aIncomingAttachment.setCompressionMode (eCompressionMode);
+          // Remember the compression mode
+          aIncomingAttachment.setCompressionMode (eCompressionMode);
+        }
 
         final String sAttachmentContentID = StringHelper.trimStart (aIncomingAttachment.getId (), "attachment=");
         // x.getHref() != null needed since, if a message contains a payload and
@@ -833,7 +1041,7 @@ public final class AS4IncomingHandler
                                                          @Nonnull final Locale aLocale,
                                                          @Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
                                                          @Nonnull final HttpResponse aHttpResponse,
-                                                         @Nonnull final byte [] aMessagePayload,
+                                                         @Nonnull final IHasInputStream aMessagePayload,
                                                          @Nullable final IAS4IncomingDumper aIncomingDumper,
                                                          @Nonnull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
                                                          @Nonnull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration) throws Phase4Exception
@@ -882,8 +1090,11 @@ public final class AS4IncomingHandler
     for (final Header aHeader : aHttpResponse.getHeaders ())
       aHttpHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
 
-    try (final NonBlockingByteArrayInputStream aPayloadIS = new NonBlockingByteArrayInputStream (aMessagePayload))
+    try (final InputStream aPayloadIS = aMessagePayload.getInputStream ())
     {
+      if (aPayloadIS == null)
+        throw new Phase4Exception ("Failed to open the AS4 message payload");
+
       // Parse incoming message
       parseAS4Message (aIAF,
                        aResHelper,
@@ -901,6 +1112,12 @@ public final class AS4IncomingHandler
     {
       throw new Phase4Exception ("Error parsing AS4 message", ex);
     }
+    finally
+    {
+      // Don't leave a crypto context on the current thread
+      IAS4PModeAwareCryptoFactory.clearContextIfPModeAware (aCryptoFactorySign);
+      IAS4PModeAwareCryptoFactory.clearContextIfPModeAware (aCryptoFactoryCrypt);
+    }
 
     // This one contains the result
     return aRetWrapper.get ();
@@ -924,6 +1141,42 @@ public final class AS4IncomingHandler
                                                        @Nonnull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
                                                        @Nonnull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
                                                        @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer) throws Phase4Exception
+  {
+    return parseSignalMessage (aCryptoFactorySign,
+                               aCryptoFactoryCrypt,
+                               aPModeResolver,
+                               aIAF,
+                               aAS4ProfileSelector,
+                               aResHelper,
+                               aSendingPMode,
+                               aLocale,
+                               aIncomingMessageMetadata,
+                               aHttpResponse,
+                               HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aMessagePayload)),
+                               aIncomingDumper,
+                               aIncomingSecurityConfiguration,
+                               aIncomingReceiverConfiguration,
+                               aSignalMsgConsumer);
+  }
+
+  // Parse an AS4 SignalMessage that was received as the response to a
+  // UserMessage - the payload may e.g. be spooled to a file (since 3.0.1)
+  @Nullable
+  public static Ebms3SignalMessage parseSignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactorySign,
+                                                       @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                                       @Nonnull final IAS4PModeResolver aPModeResolver,
+                                                       @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                       @Nonnull final IAS4IncomingProfileSelector aAS4ProfileSelector,
+                                                       @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                       @Nullable final IPMode aSendingPMode,
+                                                       @Nonnull final Locale aLocale,
+                                                       @Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                                       @Nonnull final HttpResponse aHttpResponse,
+                                                       @Nonnull final IHasInputStream aMessagePayload,
+                                                       @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                       @Nonnull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
+                                                       @Nonnull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
+                                                       @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer) throws Phase4Exception
   {
     final IAS4IncomingMessageState aIncomingState = _parseMessage (aCryptoFactorySign,
                                                                    aCryptoFactoryCrypt,
@@ -979,6 +1232,42 @@ public final class AS4IncomingHandler
                                                    @Nonnull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
                                                    @Nonnull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
                                                    @Nullable final IAS4UserMessageConsumer aUserMsgConsumer) throws Phase4Exception
+  {
+    return parseUserMessage (aCryptoFactorySign,
+                             aCryptoFactoryCrypt,
+                             aPModeResolver,
+                             aIAF,
+                             aAS4ProfileSelector,
+                             aResHelper,
+                             aSendingPMode,
+                             aLocale,
+                             aIncomingMessageMetadata,
+                             aHttpResponse,
+                             HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aMessagePayload)),
+                             aIncomingDumper,
+                             aIncomingSecurityConfiguration,
+                             aIncomingReceiverConfiguration,
+                             aUserMsgConsumer);
+  }
+
+  // Parse an AS4 UserMessage that was received as the response to a PullRequest
+  // - the payload may e.g. be spooled to a file (since 3.0.1)
+  @Nullable
+  public static Ebms3UserMessage parseUserMessage (@Nonnull final IAS4CryptoFactory aCryptoFactorySign,
+                                                   @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                                   @Nonnull final IAS4PModeResolver aPModeResolver,
+                                                   @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                   @Nonnull final IAS4IncomingProfileSelector aAS4ProfileSelector,
+                                                   @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                   @Nullable final IPMode aSendingPMode,
+                                                   @Nonnull final Locale aLocale,
+                                                   @Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                                   @Nonnull final HttpResponse aHttpResponse,
+                                                   @Nonnull final IHasInputStream aMessagePayload,
+                                                   @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                   @Nonnull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
+                                                   @Nonnull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
+                                                   @Nullable final IAS4UserMessageConsumer aUserMsgConsumer) throws Phase4Exception
   {
     final IAS4IncomingMessageState aIncomingState = _parseMessage (aCryptoFactorySign,
                                                                    aCryptoFactoryCrypt,
@@ -1034,6 +1323,42 @@ public final class AS4IncomingHandler
                                                    @Nonnull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
                                                    @Nullable final IAS4UserMessageConsumer aUserMsgConsumer,
                                                    @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer) throws Phase4Exception
+  {
+    return parseUserOrSignalMessage (aCryptoFactorySign,
+                                     aCryptoFactoryCrypt,
+                                     aPModeResolver,
+                                     aIAF,
+                                     aAS4ProfileSelector,
+                                     aResHelper,
+                                     aSendingPMode,
+                                     aLocale,
+                                     aIncomingMessageMetadata,
+                                     aHttpResponse,
+                                     HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aMessagePayload)),
+                                     aIncomingDumper,
+                                     aIncomingSecurityConfiguration,
+                                     aIncomingReceiverConfiguration,
+                                     aUserMsgConsumer,
+                                     aSignalMsgConsumer);
+  }
+
+  @Nonnull
+  public static ESuccess parseUserOrSignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactorySign,
+                                                   @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                                   @Nonnull final IAS4PModeResolver aPModeResolver,
+                                                   @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                   @Nonnull final IAS4IncomingProfileSelector aAS4ProfileSelector,
+                                                   @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                   @Nullable final IPMode aSendingPMode,
+                                                   @Nonnull final Locale aLocale,
+                                                   @Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                                   @Nonnull final HttpResponse aHttpResponse,
+                                                   @Nonnull final IHasInputStream aMessagePayload,
+                                                   @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                   @Nonnull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
+                                                   @Nonnull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
+                                                   @Nullable final IAS4UserMessageConsumer aUserMsgConsumer,
+                                                   @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer) throws Phase4Exception
   {
     final IAS4IncomingMessageState aIncomingState = _parseMessage (aCryptoFactorySign,
                                                                    aCryptoFactoryCrypt,
@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.model.ESoapVersion;
+
+/**
+ * The result of a lightweight StAX pre-scan of the <code>eb:Messaging</code>
+ * SOAP header of an incoming AS4 message. The pre-scan runs before the full
+ * DOM is built and extracts only the information that is needed to reject
+ * obviously unprocessable messages early (e.g. duplicates or messages without
+ * a matching PMode). It does not perform any validation on its own.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public final class AS4IncomingMessagingPreScan
+{
+  /** The maximum number of bytes that are scanned by default */
+  public static final int DEFAULT_MAX_SCAN_BYTES = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4IncomingMessagingPreScan.class);
+  private static final XMLInputFactory XIF;
+
+  static
+  {
+    XIF = XMLInputFactory.newInstance ();
+    XIF.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    XIF.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XIF.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    XIF.setProperty (XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+  }
+
+  private final ESoapVersion m_eSoapVersion;
+  private final boolean m_bUserMessage;
+  private final String m_sMessageID;
+  private final String m_sRefToMessageID;
+  private final String m_sMPC;
+  private final String m_sFromPartyID;
+  private final String m_sToPartyID;
+  private final String m_sService;
+  private final String m_sAction;
+  private final String m_sAgreementRef;
+  private final String m_sPModeID;
+
+  private AS4IncomingMessagingPreScan (@Nonnull final ESoapVersion eSoapVersion,
+                                       final boolean bUserMessage,
+                                       @Nullable final String sMessageID,
+                                       @Nullable final String sRefToMessageID,
+                                       @Nullable final String sMPC,
+                                       @Nullable final String sFromPartyID,
+                                       @Nullable final String sToPartyID,
+                                       @Nullable final String sService,
+                                       @Nullable final String sAction,
+                                       @Nullable final String sAgreementRef,
+                                       @Nullable final String sPModeID)
+  {
+    m_eSoapVersion = eSoapVersion;
+    m_bUserMessage = bUserMessage;
+    m_sMessageID = sMessageID;
+    m_sRefToMessageID = sRefToMessageID;
+    m_sMPC = sMPC;
+    m_sFromPartyID = sFromPartyID;
+    m_sToPartyID = sToPartyID;
+    m_sService = sService;
+    m_sAction = sAction;
+    m_sAgreementRef = sAgreementRef;
+    m_sPModeID = sPModeID;
+  }
+
+  /**
+   * @return The SOAP version determined from the envelope namespace URI. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public ESoapVersion getSoapVersion ()
+  {
+    return m_eSoapVersion;
+  }
+
+  /**
+   * @return <code>true</code> if the Messaging header contains a UserMessage,
+   *         <code>false</code> if it contains a SignalMessage.
+   */
+  public boolean isUserMessage ()
+  {
+    return m_bUserMessage;
+  }
+
+  @Nullable
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  @Nullable
+  public String getRefToMessageID ()
+  {
+    return m_sRefToMessageID;
+  }
+
+  /**
+   * @return The <code>mpc</code> attribute of the UserMessage. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getMPC ()
+  {
+    return m_sMPC;
+  }
+
+  @Nullable
+  public String getFromPartyID ()
+  {
+    return m_sFromPartyID;
+  }
+
+  @Nullable
+  public String getToPartyID ()
+  {
+    return m_sToPartyID;
+  }
+
+  @Nullable
+  public String getService ()
+  {
+    return m_sService;
+  }
+
+  @Nullable
+  public String getAction ()
+  {
+    return m_sAction;
+  }
+
+  @Nullable
+  public String getAgreementRef ()
+  {
+    return m_sAgreementRef;
+  }
+
+  @Nullable
+  public String getPModeID ()
+  {
+    return m_sPModeID;
+  }
+
+  /**
+   * @return <code>true</code> if this is a UserMessage and all the data
+   *         required for PMode resolution is present.
+   */
+  public boolean hasPModeResolutionData ()
+  {
+    return m_bUserMessage &&
+           StringHelper.hasText (m_sService) &&
+           StringHelper.hasText (m_sAction) &&
+           StringHelper.hasText (m_sFromPartyID) &&
+           StringHelper.hasText (m_sToPartyID);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("SoapVersion", m_eSoapVersion)
+                                       .append ("UserMessage", m_bUserMessage)
+                                       .append ("MessageID", m_sMessageID)
+                                       .append ("RefToMessageID", m_sRefToMessageID)
+                                       .append ("MPC", m_sMPC)
+                                       .append ("FromPartyID", m_sFromPartyID)
+                                       .append ("ToPartyID", m_sToPartyID)
+                                       .append ("Service", m_sService)
+                                       .append ("Action", m_sAction)
+                                       .append ("AgreementRef", m_sAgreementRef)
+                                       .append ("PModeID", m_sPModeID)
+                                       .getToString ();
+  }
+
+  @Nullable
+  private static String _getElementText (@Nonnull final XMLStreamReader aReader) throws XMLStreamException
+  {
+    return StringHelper.trim (aReader.getElementText ());
+  }
+
+  /**
+   * Scan the beginning of the provided SOAP document for the
+   * <code>eb:Messaging</code> header. Scanning stops as soon as the Messaging
+   * element was read or the SOAP Body starts.
+   *
+   * @param aIS
+   *        The input stream to read from. It is not closed by this method and
+   *        should already be limited to a reasonable number of bytes by the
+   *        caller. May not be <code>null</code>.
+   * @return <code>null</code> if the pre-scan was inconclusive (no SOAP
+   *         envelope, no or more than one message in the Messaging header, not
+   *         well-formed XML or the header did not fit into the provided
+   *         stream). In that case the message must be processed regularly.
+   */
+  @Nullable
+  public static AS4IncomingMessagingPreScan scan (@Nonnull @WillNotClose final InputStream aIS)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+
+    XMLStreamReader aReader = null;
+    try
+    {
+      aReader = XIF.createXMLStreamReader (aIS);
+      aReader.nextTag ();
+
+      final ESoapVersion eSoapVersion = ESoapVersion.getFromNamespaceURIOrNull (aReader.getNamespaceURI ());
+      if (eSoapVersion == null || !"Envelope".equals (aReader.getLocalName ()))
+        return null;
+
+      boolean bInMessaging = false;
+      int nMessageCount = 0;
+      boolean bUserMessage = false;
+      boolean bInFrom = false;
+      boolean bInTo = false;
+      String sMessageID = null;
+      String sRefToMessageID = null;
+      String sMPC = null;
+      String sFromPartyID = null;
+      String sToPartyID = null;
+      String sService = null;
+      String sAction = null;
+      String sAgreementRef = null;
+      String sPModeID = null;
+
+      while (aReader.hasNext ())
+      {
+        final int nEvent = aReader.next ();
+        if (nEvent == XMLStreamConstants.START_ELEMENT)
+        {
+          final String sNamespaceURI = aReader.getNamespaceURI ();
+          final String sLocalName = aReader.getLocalName ();
+          if (eSoapVersion.getNamespaceURI ().equals (sNamespaceURI) && "Body".equals (sLocalName))
+          {
+            // Messaging header was not found in the SOAP header
+            return null;
+          }
+          if (!CAS4.EBMS_NS.equals (sNamespaceURI))
+            continue;
+
+          if (!bInMessaging)
+          {
+            if ("Messaging".equals (sLocalName))
+              bInMessaging = true;
+            continue;
+          }
+
+          switch (sLocalName)
+          {
+            case "UserMessage":
+              nMessageCount++;
+              bUserMessage = true;
+              sMPC = aReader.getAttributeValue (null, "mpc");
+              break;
+            case "SignalMessage":
+              nMessageCount++;
+              break;
+            case "MessageId":
+              sMessageID = _getElementText (aReader);
+              break;
+            case "RefToMessageId":
+              sRefToMessageID = _getElementText (aReader);
+              break;
+            case "From":
+              bInFrom = true;
+              break;
+            case "To":
+              bInTo = true;
+              break;
+            case "PartyId":
+              // Only the first PartyId is relevant for PMode resolution
+              if (bInFrom && sFromPartyID == null)
+                sFromPartyID = _getElementText (aReader);
+              else
+                if (bInTo && sToPartyID == null)
+                  sToPartyID = _getElementText (aReader);
+              break;
+            case "AgreementRef":
+              sPModeID = aReader.getAttributeValue (null, "pmode");
+              sAgreementRef = _getElementText (aReader);
+              break;
+            case "Service":
+              sService = _getElementText (aReader);
+              break;
+            case "Action":
+              sAction = _getElementText (aReader);
+              break;
+            default:
+              // Ignore
+              break;
+          }
+        }
+        else
+          if (nEvent == XMLStreamConstants.END_ELEMENT && CAS4.EBMS_NS.equals (aReader.getNamespaceURI ()))
+          {
+            final String sLocalName = aReader.getLocalName ();
+            if ("From".equals (sLocalName))
+              bInFrom = false;
+            else
+              if ("To".equals (sLocalName))
+                bInTo = false;
+              else
+                if ("Messaging".equals (sLocalName))
+                {
+                  // Leave the details about invalid messages to the regular
+                  // processing
+                  if (nMessageCount != 1)
+                    return null;
+                  return new AS4IncomingMessagingPreScan (eSoapVersion,
+                                                          bUserMessage,
+                                                          sMessageID,
+                                                          sRefToMessageID,
+                                                          sMPC,
+                                                          sFromPartyID,
+                                                          sToPartyID,
+                                                          sService,
+                                                          sAction,
+                                                          sAgreementRef,
+                                                          sPModeID);
+                }
+          }
+      }
+    }
+    catch (final XMLStreamException | RuntimeException ex)
+    {
+      // Not well-formed or truncated - let the regular processing decide
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Pre-scan of the AS4 Messaging header was inconclusive: " + ex.getMessage ());
+    }
+    finally
+    {
+      if (aReader != null)
+        try
+        {
+          aReader.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // Ignore
+        }
+    }
+    return null;
+  }
+
+  /**
+   * Read at most the provided number of bytes from the input stream.
+   *
+   * @param aIS
+   *        The input stream to read from. It is not closed. May not be
+   *        <code>null</code>.
+   * @param nMaxBytes
+   *        The maximum number of bytes to read. Must be &gt; 0.
+   * @return The read bytes. Never <code>null</code> but maybe shorter than the
+   *         maximum, if the end of the stream was reached.
+   * @throws IOException
+   *         on read error
+   */
+  @Nonnull
+  public static byte [] readHead (@Nonnull @WillNotClose final InputStream aIS,
+                                  @Nonnegative final int nMaxBytes) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.isGT0 (nMaxBytes, "MaxBytes");
+
+    final byte [] aBuf = new byte [nMaxBytes];
+    int nTotal = 0;
+    while (nTotal < nMaxBytes)
+    {
+      final int nRead = aIS.read (aBuf, nTotal, nMaxBytes - nTotal);
+      if (nRead < 0)
+        break;
+      nTotal += nRead;
+    }
+    if (nTotal == nMaxBytes)
+      return aBuf;
+    final byte [] ret = new byte [nTotal];
+    System.arraycopy (aBuf, 0, ret, 0, nTotal);
+    return ret;
+  }
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.security.cert.X509Certificate;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
@@ -27,9 +28,12 @@ import java.util.function.Supplier;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillClose;
+import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,25 +46,28 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.callback.IThrowingRunnable;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.http.CHttp;
 import com.helger.commons.http.HttpHeaderMap;
-import com.helger.commons.io.IHasInputStream;
-import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.EMimeContentType;
 import com.helger.commons.mime.IMimeType;
+import com.helger.commons.state.EContinue;
 import com.helger.commons.state.ISuccessIndicator;
 import com.helger.commons.string.StringHelper;
 import com.helger.httpclient.response.ResponseHandlerXml;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.AS4DecompressException;
+import com.helger.phase4.attachment.AS4OutgoingAttachment;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptParams;
 import com.helger.phase4.crypto.AS4SigningParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.crypto.IAS4PModeAwareCryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
@@ -71,11 +78,15 @@ import com.helger.phase4.ebms3header.Ebms3MessageProperties;
 import com.helger.phase4.ebms3header.Ebms3PartyInfo;
 import com.helger.phase4.ebms3header.Ebms3PayloadInfo;
 import com.helger.phase4.ebms3header.Ebms3Property;
+import com.helger.phase4.ebms3header.Ebms3PullRequest;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.incoming.AS4IncomingHandler.IAS4ParsedMessageCallback;
+import com.helger.phase4.incoming.AS4IncomingHandler.IAS4PreScanCallback;
 import com.helger.phase4.incoming.crypto.IAS4IncomingSecurityConfiguration;
 import com.helger.phase4.incoming.mgr.AS4IncomingMessageProcessorManager;
+import com.helger.phase4.incoming.pull.AS4PullMessage;
+import com.helger.phase4.incoming.pull.IAS4PullMessageStore;
 import com.helger.phase4.incoming.soap.SoapHeaderElementProcessorRegistry;
 import com.helger.phase4.incoming.spi.AS4MessageProcessorResult;
 import com.helger.phase4.incoming.spi.AS4SignalMessageProcessorResult;
@@ -95,6 +106,7 @@ import com.helger.phase4.model.EMEPBinding;
 import com.helger.phase4.model.ESoapVersion;
 import com.helger.phase4.model.MEPHelper;
 import com.helger.phase4.model.error.EEbmsError;
+import com.helger.phase4.model.error.IEbmsError;
 import com.helger.phase4.model.message.AS4ErrorMessage;
 import com.helger.phase4.model.message.AS4ReceiptMessage;
 import com.helger.phase4.model.message.AS4UserMessage;
@@ -106,10 +118,13 @@ import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.model.pmode.leg.PModeLegSecurity;
 import com.helger.phase4.model.pmode.resolve.IAS4PModeResolver;
 import com.helger.phase4.profile.IAS4Profile;
+import com.helger.phase4.profile.IAS4ProfileValidator;
+import com.helger.phase4.profile.IAS4ProfileValidator.EAS4ProfileValidationMode;
+import com.helger.phase4.util.AS4ExecutorHelper;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.phase4.util.MultiOutputStream;
 import com.helger.phase4.util.Phase4Exception;
-import com.helger.photon.io.PhotonWorkerPool;
 import com.helger.xml.serialize.write.XMLWriter;
 
 import jakarta.mail.MessagingException;
@@ -140,6 +155,7 @@ public class AS4RequestHandler implements AutoCloseable
     private final IAS4IncomingMessageState m_aIncomingState;
     private final String m_sResponseMessageID;
     private final Document m_aDoc;
+    private final byte [] m_aXMLBytes;
     private final IMimeType m_aMimeType;
 
     public AS4ResponseFactoryXML (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
@@ -147,31 +163,58 @@ public class AS4RequestHandler implements AutoCloseable
                                   @Nonnull @Nonempty final String sResponseMessageID,
                                   @Nonnull final Document aDoc,
                                   @Nonnull final IMimeType aMimeType)
+    {
+      this (aIncomingMessageMetadata, aIncomingState, sResponseMessageID, aDoc, null, aMimeType);
+      ValueEnforcer.notNull (aDoc, "Doc");
+    }
+
+    public AS4ResponseFactoryXML (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                  @Nonnull final IAS4IncomingMessageState aIncomingState,
+                                  @Nonnull @Nonempty final String sResponseMessageID,
+                                  @Nonnull final byte [] aXMLBytes,
+                                  @Nonnull final IMimeType aMimeType)
+    {
+      this (aIncomingMessageMetadata, aIncomingState, sResponseMessageID, null, aXMLBytes, aMimeType);
+      ValueEnforcer.notNull (aXMLBytes, "XMLBytes");
+    }
+
+    private AS4ResponseFactoryXML (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                   @Nonnull final IAS4IncomingMessageState aIncomingState,
+                                   @Nonnull @Nonempty final String sResponseMessageID,
+                                   @Nullable final Document aDoc,
+                                   @Nullable final byte [] aXMLBytes,
+                                   @Nonnull final IMimeType aMimeType)
     {
       ValueEnforcer.notNull (aIncomingMessageMetadata, "IncomingMessageMetadata");
       ValueEnforcer.notNull (aIncomingState, "IncomingState");
       ValueEnforcer.notEmpty (sResponseMessageID, "ResponseMessageID");
-      ValueEnforcer.notNull (aDoc, "Doc");
       ValueEnforcer.notNull (aMimeType, "MimeType");
       m_aIncomingMessageMetadata = aIncomingMessageMetadata;
       m_aIncomingState = aIncomingState;
       m_sResponseMessageID = sResponseMessageID;
       m_aDoc = aDoc;
+      m_aXMLBytes = aXMLBytes;
       m_aMimeType = aMimeType;
     }
 
     @Nonnull
     public HttpEntity getHttpEntityForSending (@Nonnull final IMimeType aMimType)
     {
+      if (m_aDoc == null)
+      {
+        // Pre-serialized
+        return new ByteArrayEntity (m_aXMLBytes,
+                                    ContentType.create (m_aMimeType.getAsString (), AS4XMLHelper.XWS.getCharset ()));
+      }
       return new HttpXMLEntity (m_aDoc, m_aMimeType);
     }
 
     public void applyToResponse (@Nonnull final IAS4ResponseAbstraction aHttpResponse,
                                  @Nullable final IAS4OutgoingDumper aOutgoingDumper)
     {
-      final String sXML = AS4XMLHelper.serializeXML (m_aDoc);
       final Charset aCharset = AS4XMLHelper.XWS.getCharset ();
-      final byte [] aXMLBytes = sXML.getBytes (aCharset);
+      final byte [] aXMLBytes = m_aXMLBytes != null ? m_aXMLBytes
+                                                    : AS4XMLHelper.serializeXML (m_aDoc).getBytes (aCharset);
       aHttpResponse.setContent (aXMLBytes, aCharset);
       aHttpResponse.setMimeType (m_aMimeType);
 
@@ -242,56 +285,77 @@ public class AS4RequestHandler implements AutoCloseable
       return HttpMimeMessageEntity.create (m_aMimeMsg);
     }
 
-    public void applyToResponse (@Nonnull final IAS4ResponseAbstraction aHttpResponse,
-                                 @Nullable final IAS4OutgoingDumper aOutgoingDumper)
+    private void _writeMimeContent (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
     {
-      final IHasInputStream aContent = HasInputStream.multiple ( () -> {
-        try
-        {
-          return m_aMimeMsg.getInputStream ();
-        }
-        catch (final IOException | MessagingException ex)
-        {
-          throw new IllegalStateException ("Failed to get MIME input stream", ex);
-        }
-      });
-      aHttpResponse.setContent (m_aHttpHeaders, aContent);
-      aHttpResponse.setMimeType (MT_MULTIPART_RELATED);
+      try
+      {
+        // Headers were removed - write the multipart body only
+        m_aMimeMsg.getDataHandler ().writeTo (aOS);
+      }
+      catch (final MessagingException ex)
+      {
+        throw new IOException ("Error writing MIME response", ex);
+      }
+    }
 
+    private void _writeTo (@Nonnull @WillNotClose final OutputStream aHttpOS,
+                           @Nullable final IAS4OutgoingDumper aOutgoingDumper) throws IOException
+    {
+      OutputStream aDumpOS = null;
       if (aOutgoingDumper != null)
-      {
         try
         {
-          final OutputStream aDumpOS = aOutgoingDumper.onBeginRequest (EAS4MessageMode.RESPONSE,
-                                                                       m_aIncomingMessageMetadata,
-                                                                       m_aIncomingState,
-                                                                       m_sResponseMessageID,
-                                                                       m_aHttpHeaders,
-                                                                       0);
-          if (aDumpOS != null)
-            try
-            {
-              StreamHelper.copyByteStream ()
-                          .from (aContent.getBufferedInputStream ())
-                          .closeFrom (true)
-                          .to (aDumpOS)
-                          .closeTo (true)
-                          .build ();
-            }
-            finally
-            {
-              aOutgoingDumper.onEndRequest (EAS4MessageMode.RESPONSE,
-                                            m_aIncomingMessageMetadata,
-                                            m_aIncomingState,
-                                            m_sResponseMessageID,
-                                            (Exception) null);
-            }
+          aDumpOS = aOutgoingDumper.onBeginRequest (EAS4MessageMode.RESPONSE,
+                                                    m_aIncomingMessageMetadata,
+                                                    m_aIncomingState,
+                                                    m_sResponseMessageID,
+                                                    m_aHttpHeaders,
+                                                    0);
         }
         catch (final IOException ex)
         {
           LOGGER.warn ("IOException in dumping of outgoing MIME response", ex);
         }
+
+      if (aDumpOS == null)
+      {
+        // No dumping needed
+        _writeMimeContent (aHttpOS);
+        return;
       }
+
+      // Write to the HTTP response and the dumper at the same time
+      Exception aCaughtEx = null;
+      try
+      {
+        final MultiOutputStream aMultiOS = new MultiOutputStream (aHttpOS, aDumpOS);
+        _writeMimeContent (aMultiOS);
+        // Flush both, but do not close both
+        aMultiOS.flush ();
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        aCaughtEx = ex;
+        throw ex;
+      }
+      finally
+      {
+        StreamHelper.close (aDumpOS);
+        aOutgoingDumper.onEndRequest (EAS4MessageMode.RESPONSE,
+                                      m_aIncomingMessageMetadata,
+                                      m_aIncomingState,
+                                      m_sResponseMessageID,
+                                      aCaughtEx);
+      }
+    }
+
+    public void applyToResponse (@Nonnull final IAS4ResponseAbstraction aHttpResponse,
+                                 @Nullable final IAS4OutgoingDumper aOutgoingDumper)
+    {
+      // The MIME parts are written directly to the HTTP response and are
+      // dumped on the fly
+      aHttpResponse.setStreamingContent (m_aHttpHeaders, aOS -> _writeTo (aOS, aOutgoingDumper));
+      aHttpResponse.setMimeType (MT_MULTIPART_RELATED);
     }
   }
 
@@ -365,6 +429,8 @@ public class AS4RequestHandler implements AutoCloseable
   /** By default get all message processors from the global SPI registry */
   private Supplier <? extends ICommonsList <IAS4IncomingMessageProcessorSPI>> m_aProcessorSupplier = AS4IncomingMessageProcessorManager::getAllProcessors;
   private IAS4RequestHandlerErrorConsumer m_aErrorConsumer;
+  private IAS4PullMessageStore m_aPullMessageStore;
+  private AS4ErrorRateLimiter m_aErrorRateLimiter = AS4ErrorRateLimiter.getDefaultInstanceOrNull ();
 
   public AS4RequestHandler (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata)
   {
@@ -468,6 +534,20 @@ public class AS4RequestHandler implements AutoCloseable
     return setCryptoFactorySign (aCryptoFactory).setCryptoFactoryCrypt (aCryptoFactory);
   }
 
+  private void _setCryptoContext (@Nonnull final IPMode aPMode)
+  {
+    if (m_aCryptoFactorySign instanceof IAS4PModeAwareCryptoFactory)
+      ((IAS4PModeAwareCryptoFactory) m_aCryptoFactorySign).setContextPMode (aPMode);
+    if (m_aCryptoFactoryCrypt != m_aCryptoFactorySign && m_aCryptoFactoryCrypt instanceof IAS4PModeAwareCryptoFactory)
+      ((IAS4PModeAwareCryptoFactory) m_aCryptoFactoryCrypt).setContextPMode (aPMode);
+  }
+
+  private void _clearCryptoContext ()
+  {
+    IAS4PModeAwareCryptoFactory.clearContextIfPModeAware (m_aCryptoFactorySign);
+    IAS4PModeAwareCryptoFactory.clearContextIfPModeAware (m_aCryptoFactoryCrypt);
+  }
+
   /**
    * @return The {@link IAS4PModeResolver} to be used. May be <code>null</code>
    *         if not initialized.
@@ -786,6 +866,10 @@ public class AS4RequestHandler implements AutoCloseable
    * Set an optional error consumer that is invoked with all errors determined
    * during message processing. The consumed list MUST NOT be modified.<br>
    * Note: the error consumer is ONLY called if the error list is non-empty.<br>
+   * Note: the error consumer is NOT called for errors that are answered with a
+   * precomputed response, because the limit of the
+   * {@link #setErrorRateLimiter(AS4ErrorRateLimiter) error rate limiter} was
+   * exceeded.<br>
    * Note: the AS4 error message is sent back automatically - this is just
    * informational.
    *
@@ -801,6 +885,126 @@ public class AS4RequestHandler implements AutoCloseable
     return this;
   }
 
+  /**
+   * @return The optional store to answer PullRequests from. <code>null</code>
+   *         by default.
+   * @since 3.0.1
+   */
+  @Nullable
+  public final IAS4PullMessageStore getPullMessageStore ()
+  {
+    return m_aPullMessageStore;
+  }
+
+  /**
+   * Set an optional store to answer PullRequests from. If a store is set, an
+   * incoming PullRequest is first answered from the store. The SPIs are
+   * still invoked, but may only return a UserMessage if the MPC of the store
+   * is empty. Incoming Receipts acknowledge the messages handed out by the
+   * store.
+   *
+   * @param aPullMessageStore
+   *        The store to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final AS4RequestHandler setPullMessageStore (@Nullable final IAS4PullMessageStore aPullMessageStore)
+  {
+    m_aPullMessageStore = aPullMessageStore;
+    return this;
+  }
+
+  /**
+   * @return The optional limiter for detailed ebMS error responses per remote
+   *         address. Defaults to
+   *         {@link AS4ErrorRateLimiter#getDefaultInstanceOrNull()}.
+   * @since 3.0.1
+   */
+  @Nullable
+  public final AS4ErrorRateLimiter getErrorRateLimiter ()
+  {
+    return m_aErrorRateLimiter;
+  }
+
+  /**
+   * Set an optional limiter for detailed ebMS error responses per remote
+   * address. If the limit of a remote address is exceeded, error responses are
+   * created from an unsigned {@link AS4ErrorResponseTemplate} without error
+   * details. In that case no {@link AS4ErrorMessage} is built and the
+   * {@link #setErrorConsumer(IAS4RequestHandlerErrorConsumer) error consumer}
+   * is not invoked.
+   *
+   * @param aErrorRateLimiter
+   *        The limiter to be used. May be <code>null</code> to always create
+   *        detailed error responses.
+   * @return this for chaining
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final AS4RequestHandler setErrorRateLimiter (@Nullable final AS4ErrorRateLimiter aErrorRateLimiter)
+  {
+    m_aErrorRateLimiter = aErrorRateLimiter;
+    return this;
+  }
+
+  /**
+   * Get the ID of the communication partner that is used to make sure, that
+   * only the party a pulled message was handed out to can acknowledge it. The
+   * certificate the incoming message was signed with is preferred over the
+   * remote address.
+   *
+   * @param aIncomingState
+   *        The current state. Never <code>null</code>.
+   * @return <code>null</code> if the partner cannot be identified.
+   */
+  @Nullable
+  private String _getPullConsumerID (@Nonnull final IAS4IncomingMessageState aIncomingState)
+  {
+    final X509Certificate aCert = aIncomingState.getUsedCertificate ();
+    if (aCert != null)
+      return "cert:" + aCert.getIssuerX500Principal ().getName () + ":" + aCert.getSerialNumber ();
+    if (m_aMessageMetadata.hasRemoteAddr ())
+      return "addr:" + m_aMessageMetadata.getRemoteAddr ();
+    return null;
+  }
+
+  /**
+   * Answer a PullRequest with the next message from the pull message store.
+   * This is only called if no SPI returned a UserMessage, so that messages are
+   * only handed out if they are really sent back.
+   *
+   * @param sMPC
+   *        The requested MPC. May neither be <code>null</code> nor empty.
+   * @param aIncomingState
+   *        The current state. Never <code>null</code>.
+   * @param aResponseAttachmentsTarget
+   *        The list of attachments to be added to the response. Never
+   *        <code>null</code>.
+   * @param aSPIResult
+   *        The result object to be filled. May not be <code>null</code>.
+   * @throws IOException
+   *         In case an attachment cannot be prepared
+   */
+  private void _answerPullRequestWithPullMessageStore (@Nonnull @Nonempty final String sMPC,
+                                                       @Nonnull final IAS4IncomingMessageState aIncomingState,
+                                                       @Nonnull final ICommonsList <WSS4JAttachment> aResponseAttachmentsTarget,
+                                                       @Nonnull final SPIInvocationResult aSPIResult) throws IOException
+  {
+    final AS4PullMessage aPullMessage = m_aPullMessageStore.dequeue (sMPC, _getPullConsumerID (aIncomingState));
+    if (aPullMessage != null)
+    {
+      LOGGER.info ("Answering PullRequest for MPC '" +
+                   sMPC +
+                   "' with message '" +
+                   aPullMessage.getMessageID () +
+                   "' from the pull message store");
+      for (final AS4OutgoingAttachment aAttachment : aPullMessage.getAllAttachments ())
+        aResponseAttachmentsTarget.add (WSS4JAttachment.createOutgoingFileAttachment (aAttachment, m_aResHelper));
+      aSPIResult.setPullReturnUserMsg (aPullMessage.getUserMessage ());
+    }
+  }
+
   /**
    * Invoke custom SPI message processors
    *
@@ -861,8 +1065,22 @@ public class AS4RequestHandler implements AutoCloseable
                     "': " +
                     aAllProcessors);
 
-    if (aAllProcessors.isEmpty ())
-      LOGGER.error ("No IAS4ServletMessageProcessorSPI is available to process an incoming message");
+    // PullRequests are answered from the store after all SPIs were invoked
+    final boolean bPullRequestWithStore = !bIsUserMessage &&
+                                          m_aPullMessageStore != null &&
+                                          aEbmsSignalMessage.getPullRequest () != null;
+    if (!bIsUserMessage && m_aPullMessageStore != null)
+    {
+      if (aEbmsSignalMessage.getReceipt () != null)
+      {
+        final String sRefToMessageID = aEbmsSignalMessage.getMessageInfo ().getRefToMessageId ();
+        if (m_aPullMessageStore.acknowledge (sRefToMessageID, _getPullConsumerID (aIncomingState)).isChanged ())
+          LOGGER.info ("Pulled message '" + sRefToMessageID + "' was acknowledged by a Receipt");
+      }
+    }
+    else
+      if (aAllProcessors.isEmpty ())
+        LOGGER.error ("No IAS4ServletMessageProcessorSPI is available to process an incoming message");
 
     // Invoke ALL non-null SPIs
     for (final IAS4IncomingMessageProcessorSPI aProcessor : aAllProcessors)
@@ -1003,6 +1221,13 @@ public class AS4RequestHandler implements AutoCloseable
                 // Initial return user msg
                 if (aPullReturnUserMsg == null)
                 {
+                  if (bPullRequestWithStore)
+                  {
+                    // The pull message store may answer it
+                    continue;
+                  }
+
+
                   // No message contained in the MPC
                   final String sDetails = "Invoked AS4 message processor SPI " +
                                           aProcessor +
@@ -1056,6 +1281,32 @@ public class AS4RequestHandler implements AutoCloseable
           throw new IllegalStateException ("Error processing incoming AS4 message with processor " + aProcessor, ex);
         }
 
+    if (bPullRequestWithStore && !aSPIResult.hasPullReturnUserMsg ())
+    {
+      final Ebms3PullRequest aPullRequest = aEbmsSignalMessage.getPullRequest ();
+      final String sMPC = StringHelper.hasText (aPullRequest.getMpc ()) ? aPullRequest.getMpc ()
+                                                                        : CAS4.DEFAULT_MPC_ID;
+      try
+      {
+        _answerPullRequestWithPullMessageStore (sMPC, aIncomingState, aResponseAttachmentsTarget, aSPIResult);
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException ("Error answering PullRequest from the pull message store", ex);
+      }
+
+      if (!aSPIResult.hasPullReturnUserMsg ())
+      {
+        final String sDetails = "The pull message store contains no UserMessage for the requested MPC";
+        LOGGER.error (sDetails);
+        aEbmsErrorMessagesTarget.add (EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.errorBuilder (m_aLocale)
+                                                                                     .refToMessageInError (sMessageID)
+                                                                                     .errorDetail (sDetails)
+                                                                                     .build ());
+        return;
+      }
+    }
+
     // Remember success
     aSPIResult.setSuccess (true);
   }
@@ -1386,16 +1637,6 @@ public class AS4RequestHandler implements AutoCloseable
                                                            @Nullable final PModeLeg aEffectiveLeg,
                                                            @Nonnull @Nonempty final ICommonsList <Ebms3Error> aEbmsErrorMessages)
   {
-    // Start building response error message
-    final AS4ErrorMessage aErrorMsg = AS4ErrorMessage.create (eSoapVersion,
-                                                              MessageHelperMethods.createEbms3MessageInfo (sResponseMessageID,
-                                                                                                           aIncomingState.getMessageID ()),
-                                                              aEbmsErrorMessages);
-
-    // Call optional consumer
-    if (m_aErrorConsumer != null)
-      m_aErrorConsumer.onAS4ErrorMessage (aIncomingState, aEbmsErrorMessages, aErrorMsg);
-
     // Determine SOAP version
     final ESoapVersion eResponseSoapVersion;
     if (aEffectiveLeg != null)
@@ -1410,6 +1651,44 @@ public class AS4RequestHandler implements AutoCloseable
     else
       eResponseSoapVersion = eSoapVersion;
 
+    // Check before anything is built, so that suppressed errors cost nothing
+    final AS4ErrorRateLimiter aErrorRateLimiter = m_aErrorRateLimiter;
+    if (aErrorRateLimiter != null && !aErrorRateLimiter.isDetailedErrorAllowed (m_aMessageMetadata.getRemoteAddr ()))
+    {
+      // Too many errors for this sender - no marshalling, no signing, no
+      // details
+      final EEbmsError eFirstError = EEbmsError.getFromErrorCodeOrNull (aEbmsErrorMessages.getFirstOrNull ()
+                                                                                          .getErrorCode ());
+      final IEbmsError aError = eFirstError != null ? eFirstError : EEbmsError.EBMS_OTHER;
+      final String sRefToMessageID = aIncomingState.getMessageID ();
+      final AS4ErrorResponseTemplate aTemplate = AS4ErrorResponseTemplate.getTemplate (eResponseSoapVersion,
+                                                                                      aError,
+                                                                                      m_aLocale,
+                                                                                      StringHelper.hasText (sRefToMessageID));
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Creating precomputed AS4 Error response for remote address '" +
+                      m_aMessageMetadata.getRemoteAddr () +
+                      "' with error code " +
+                      aError.getErrorCode ());
+      return new AS4ResponseFactoryXML (m_aMessageMetadata,
+                                        aIncomingState,
+                                        sResponseMessageID,
+                                        aTemplate.getAsBytes (sResponseMessageID,
+                                                              sRefToMessageID,
+                                                              MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ()),
+                                        eResponseSoapVersion.getMimeType ());
+    }
+
+    // Start building response error message
+    final AS4ErrorMessage aErrorMsg = AS4ErrorMessage.create (eSoapVersion,
+                                                              MessageHelperMethods.createEbms3MessageInfo (sResponseMessageID,
+                                                                                                           aIncomingState.getMessageID ()),
+                                                              aEbmsErrorMessages);
+
+    // Call optional consumer
+    if (m_aErrorConsumer != null)
+      m_aErrorConsumer.onAS4ErrorMessage (aIncomingState, aEbmsErrorMessages, aErrorMsg);
+
     Document aResponseDoc = aErrorMsg.getAsSoapDocument ();
     if (aEffectiveLeg != null)
     {
@@ -1709,134 +1988,142 @@ public class AS4RequestHandler implements AutoCloseable
 
         // Only leg1 can be async!
         final IThrowingRunnable <Exception> r = () -> {
-          // Start async processing
-          final ICommonsList <Ebms3Error> aLocalErrorMessages = new CommonsArrayList <> ();
-          final ICommonsList <WSS4JAttachment> aLocalResponseAttachments = new CommonsArrayList <> ();
-
-          // Invoke SPI callbacks
-          final SPIInvocationResult aAsyncSPIResult = new SPIInvocationResult ();
-          _invokeSPIsForIncoming (aHttpHeaders,
-                                  aEbmsUserMessage,
-                                  aEbmsSignalMessage,
-                                  aPayloadNode,
-                                  aDecryptedAttachments,
-                                  aPMode,
-                                  aIncomingState,
-                                  aLocalErrorMessages,
-                                  aLocalResponseAttachments,
-                                  aAsyncSPIResult);
-
-          final IAS4ResponseFactory aAsyncResponseFactory;
-          final String sResponseMessageID;
-          if (aAsyncSPIResult.isSuccess ())
+          // The crypto context of the PMode is bound to the receiving thread
+          _setCryptoContext (aPMode);
+          try
           {
-            // SPI processing succeeded
-            assert aLocalErrorMessages.isEmpty ();
-
-            // The response user message has no explicit payload. All data of
-            // the response user message is in the local attachments
-            sResponseMessageID = MessageHelperMethods.createRandomMessageID ();
-            final AS4UserMessage aResponseUserMsg = _createReversedUserMessage (eSoapVersion,
-                                                                                sResponseMessageID,
-                                                                                aEbmsUserMessage,
-                                                                                aLocalResponseAttachments);
-
-            // Send UserMessage
-            final AS4SigningParams aSigningParams = m_aIncomingSecurityConfig.getSigningParamsCloneOrNew ()
-                                                                             .setFromPMode (aEffectiveLeg.getSecurity ());
-            // Use the original receiver ID as the alias into the keystore for
-            // encrypting the response message
-            final String sEncryptionAlias = aEbmsUserMessage.getPartyInfo ().getTo ().getPartyIdAtIndex (0).getValue ();
-            final AS4CryptParams aCryptParams = m_aIncomingSecurityConfig.getCryptParamsCloneOrNew ()
-                                                                         .setFromPMode (aEffectiveLeg.getSecurity ())
-                                                                         .setAlias (sEncryptionAlias);
-
-            aAsyncResponseFactory = _createResponseUserMessage (aIncomingState,
-                                                                aEffectiveLeg.getProtocol ().getSoapVersion (),
-                                                                aResponseUserMsg,
-                                                                aResponseAttachments,
-                                                                aSigningParams,
-                                                                aCryptParams);
-          }
-          else
-          {
-            // SPI processing failed
-
-            // Send ErrorMessage Undefined - see
-            // https://github.com/phax/phase4/issues/4
-            final AS4ErrorMessage aResponseErrorMsg = AS4ErrorMessage.create (eSoapVersion,
-                                                                              aIncomingState.getMessageID (),
-                                                                              aLocalErrorMessages);
-            sResponseMessageID = aResponseErrorMsg.getEbms3SignalMessage ().getMessageInfo ().getMessageId ();
-
-            // Pass error messages to the outside
-            if (m_aErrorConsumer != null && aLocalErrorMessages.isNotEmpty ())
-              m_aErrorConsumer.onAS4ErrorMessage (aIncomingState, aLocalErrorMessages, aResponseErrorMsg);
-
-            aAsyncResponseFactory = new AS4ResponseFactoryXML (m_aMessageMetadata,
-                                                               aIncomingState,
-                                                               sResponseMessageID,
-                                                               aResponseErrorMsg.getAsSoapDocument (),
-                                                               eSoapVersion.getMimeType ());
-          }
+            // Start async processing
+            final ICommonsList <Ebms3Error> aLocalErrorMessages = new CommonsArrayList <> ();
+            final ICommonsList <WSS4JAttachment> aLocalResponseAttachments = new CommonsArrayList <> ();
+
+            // Invoke SPI callbacks
+            final SPIInvocationResult aAsyncSPIResult = new SPIInvocationResult ();
+            _invokeSPIsForIncoming (aHttpHeaders,
+                                    aEbmsUserMessage,
+                                    aEbmsSignalMessage,
+                                    aPayloadNode,
+                                    aDecryptedAttachments,
+                                    aPMode,
+                                    aIncomingState,
+                                    aLocalErrorMessages,
+                                    aLocalResponseAttachments,
+                                    aAsyncSPIResult);
+
+            final IAS4ResponseFactory aAsyncResponseFactory;
+            final String sResponseMessageID;
+            if (aAsyncSPIResult.isSuccess ())
+            {
+              // SPI processing succeeded
+              assert aLocalErrorMessages.isEmpty ();
 
-          // where to send it back (must be determined by SPI!)
-          final String sAsyncResponseURL = aAsyncSPIResult.getAsyncResponseURL ();
-          if (StringHelper.hasNoText (sAsyncResponseURL))
-            throw new IllegalStateException ("No asynchronous response URL present - please check your SPI implementation");
+              // The response user message has no explicit payload. All data of
+              // the response user message is in the local attachments
+              sResponseMessageID = MessageHelperMethods.createRandomMessageID ();
+              final AS4UserMessage aResponseUserMsg = _createReversedUserMessage (eSoapVersion,
+                                                                                  sResponseMessageID,
+                                                                                  aEbmsUserMessage,
+                                                                                  aLocalResponseAttachments);
 
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug ("Responding asynchronous to: " + sAsyncResponseURL);
-
-          // Ensure HttpEntity is repeatable
-          HttpEntity aHttpEntity = aAsyncResponseFactory.getHttpEntityForSending (eSoapVersion.getMimeType ());
-          aHttpEntity = m_aResHelper.createRepeatableHttpEntity (aHttpEntity);
-
-          // Use the prebuilt entity for dumping
-          _invokeSPIsForResponse (aIncomingState,
-                                  aAsyncResponseFactory,
-                                  aHttpEntity,
-                                  eSoapVersion.getMimeType (),
-                                  sResponseMessageID);
-
-          // invoke client with new document
-          final BasicHttpPoster aSender = new BasicHttpPoster ();
-          final Document aAsyncResponse;
-          if (true)
-          {
-            final HttpHeaderMap aResponseHttpHeaders = null;
-            // TODO make async send parameters customizable
-            final HttpRetrySettings aRetrySettings = new HttpRetrySettings ();
-            aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
-                                                                    aResponseHttpHeaders,
-                                                                    aHttpEntity,
-                                                                    sMessageID,
-                                                                    aRetrySettings,
-                                                                    new ResponseHandlerXml (),
-                                                                    m_aOutgoingDumper,
-                                                                    m_aRetryCallback);
+              // Send UserMessage
+              final AS4SigningParams aSigningParams = m_aIncomingSecurityConfig.getSigningParamsCloneOrNew ()
+                                                                               .setFromPMode (aEffectiveLeg.getSecurity ());
+              // Use the original receiver ID as the alias into the keystore for
+              // encrypting the response message
+              final String sEncryptionAlias = aEbmsUserMessage.getPartyInfo ().getTo ().getPartyIdAtIndex (0).getValue ();
+              final AS4CryptParams aCryptParams = m_aIncomingSecurityConfig.getCryptParamsCloneOrNew ()
+                                                                           .setFromPMode (aEffectiveLeg.getSecurity ())
+                                                                           .setAlias (sEncryptionAlias);
+
+              aAsyncResponseFactory = _createResponseUserMessage (aIncomingState,
+                                                                  aEffectiveLeg.getProtocol ().getSoapVersion (),
+                                                                  aResponseUserMsg,
+                                                                  aResponseAttachments,
+                                                                  aSigningParams,
+                                                                  aCryptParams);
+            }
+            else
+            {
+              // SPI processing failed
+
+              // Send ErrorMessage Undefined - see
+              // https://github.com/phax/phase4/issues/4
+              final AS4ErrorMessage aResponseErrorMsg = AS4ErrorMessage.create (eSoapVersion,
+                                                                                aIncomingState.getMessageID (),
+                                                                                aLocalErrorMessages);
+              sResponseMessageID = aResponseErrorMsg.getEbms3SignalMessage ().getMessageInfo ().getMessageId ();
+
+              // Pass error messages to the outside
+              if (m_aErrorConsumer != null && aLocalErrorMessages.isNotEmpty ())
+                m_aErrorConsumer.onAS4ErrorMessage (aIncomingState, aLocalErrorMessages, aResponseErrorMsg);
+
+              aAsyncResponseFactory = new AS4ResponseFactoryXML (m_aMessageMetadata,
+                                                                 aIncomingState,
+                                                                 sResponseMessageID,
+                                                                 aResponseErrorMsg.getAsSoapDocument (),
+                                                                 eSoapVersion.getMimeType ());
+            }
+
+            // where to send it back (must be determined by SPI!)
+            final String sAsyncResponseURL = aAsyncSPIResult.getAsyncResponseURL ();
+            if (StringHelper.hasNoText (sAsyncResponseURL))
+              throw new IllegalStateException ("No asynchronous response URL present - please check your SPI implementation");
+
+            if (LOGGER.isDebugEnabled ())
+              LOGGER.debug ("Responding asynchronous to: " + sAsyncResponseURL);
+
+            // Ensure HttpEntity is repeatable
+            HttpEntity aHttpEntity = aAsyncResponseFactory.getHttpEntityForSending (eSoapVersion.getMimeType ());
+            aHttpEntity = m_aResHelper.createRepeatableHttpEntity (aHttpEntity);
+
+            // Use the prebuilt entity for dumping
+            _invokeSPIsForResponse (aIncomingState,
+                                    aAsyncResponseFactory,
+                                    aHttpEntity,
+                                    eSoapVersion.getMimeType (),
+                                    sResponseMessageID);
+
+            // invoke client with new document
+            final BasicHttpPoster aSender = new BasicHttpPoster ();
+            final Document aAsyncResponse;
+            if (true)
+            {
+              final HttpHeaderMap aResponseHttpHeaders = null;
+              // TODO make async send parameters customizable
+              final HttpRetrySettings aRetrySettings = new HttpRetrySettings ();
+              aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
+                                                                      aResponseHttpHeaders,
+                                                                      aHttpEntity,
+                                                                      sMessageID,
+                                                                      aRetrySettings,
+                                                                      new ResponseHandlerXml (),
+                                                                      m_aOutgoingDumper,
+                                                                      m_aRetryCallback);
+            }
+            else
+            {
+              aAsyncResponse = aSender.sendGenericMessage (sAsyncResponseURL,
+                                                           null,
+                                                           aHttpEntity,
+                                                           new ResponseHandlerXml ());
+            }
+            AS4HttpDebug.debug ( () -> "SEND-RESPONSE [async sent] received: " +
+                                       (aAsyncResponse == null ? "null"
+                                                               : XMLWriter.getNodeAsString (aAsyncResponse,
+                                                                                            AS4HttpDebug.getDebugXMLWriterSettings ())));
           }
-          else
+          finally
           {
-            aAsyncResponse = aSender.sendGenericMessage (sAsyncResponseURL,
-                                                         null,
-                                                         aHttpEntity,
-                                                         new ResponseHandlerXml ());
+            _clearCryptoContext ();
           }
-          AS4HttpDebug.debug ( () -> "SEND-RESPONSE [async sent] received: " +
-                                     (aAsyncResponse == null ? "null"
-                                                             : XMLWriter.getNodeAsString (aAsyncResponse,
-                                                                                          AS4HttpDebug.getDebugXMLWriterSettings ())));
         };
 
-        final CompletableFuture <Void> aFuture = PhotonWorkerPool.getInstance ()
-                                                                 .runThrowing (CAS4.LIB_NAME + " async processing", r);
+        final CompletableFuture <Void> aFuture = AS4ExecutorHelper.runAsync (CAS4.LIB_NAME + " async processing", r);
 
         if (m_aSoapProcessingFinalizedCB != null)
         {
           // Give the outside world the possibility to get notified when the
-          // processing is done
-          aFuture.thenRun ( () -> m_aSoapProcessingFinalizedCB.onProcessingFinalized (false));
+          // processing is done - also if it failed
+          aFuture.whenComplete ( (x, ex) -> m_aSoapProcessingFinalizedCB.onProcessingFinalized (false));
         }
       }
     }
@@ -1911,16 +2198,23 @@ public class AS4RequestHandler implements AutoCloseable
                 (aPMode.getMEPBinding ().equals (EMEPBinding.PULL_PUSH) && aSPIResult.hasPullReturnUserMsg ()) ||
                 (aPMode.getMEPBinding ().equals (EMEPBinding.PUSH_PULL) && aSPIResult.hasPullReturnUserMsg ()))
             {
-              // TODO would be nice to have attachments here I guess
               final AS4UserMessage aResponseUserMsg = new AS4UserMessage (eSoapVersion,
                                                                           aSPIResult.getPullReturnUserMsg ());
 
               sResponseMessageID = aResponseUserMsg.getEbms3UserMessage ().getMessageInfo ().getMessageId ();
-              ret = new AS4ResponseFactoryXML (m_aMessageMetadata,
-                                               aIncomingState,
-                                               sResponseMessageID,
-                                               aResponseUserMsg.getAsSoapDocument (),
-                                               eSoapVersion.getMimeType ());
+              if (aResponseAttachments.isEmpty ())
+                ret = new AS4ResponseFactoryXML (m_aMessageMetadata,
+                                                 aIncomingState,
+                                                 sResponseMessageID,
+                                                 aResponseUserMsg.getAsSoapDocument (),
+                                                 eSoapVersion.getMimeType ());
+              else
+              {
+                final AS4MimeMessage aMimeMsg = AS4MimeMessageHelper.generateMimeMessage (eSoapVersion,
+                                                                                          aResponseUserMsg.getAsSoapDocument (),
+                                                                                          aResponseAttachments);
+                ret = new AS4ResponseFactoryMIME (m_aMessageMetadata, aIncomingState, sResponseMessageID, aMimeMsg);
+              }
             }
             else
               if (aEbmsUserMessage != null)
@@ -2002,6 +2296,135 @@ public class AS4RequestHandler implements AutoCloseable
     return ret;
   }
 
+  /**
+   * Check the result of the Messaging header pre-scan and reject duplicates,
+   * messages without a matching PMode and messages with a PMode that is not
+   * allowed by the AS4 profile, before the SOAP DOM is built. All checks are
+   * repeated by the regular processing, so an inconclusive pre-scan never
+   * rejects a message.
+   *
+   * @param aPreScan
+   *        The pre-scan result. May not be <code>null</code>.
+   * @param aHttpResponse
+   *        The response to fill in case of rejection. May not be
+   *        <code>null</code>.
+   * @return {@link EContinue#BREAK} if the message was rejected.
+   * @throws Phase4Exception
+   *         if the PMode is not allowed by the AS4 profile
+   */
+  @Nonnull
+  private EContinue _onPreScan (@Nonnull final AS4IncomingMessagingPreScan aPreScan,
+                                @Nonnull final IAS4ResponseAbstraction aHttpResponse) throws Phase4Exception
+  {
+    final String sMessageID = aPreScan.getMessageID ();
+    final ICommonsList <Ebms3Error> aEbmsErrorMessages = new CommonsArrayList <> ();
+    IPMode aPMode = null;
+
+    // Duplicate check without registering the message ID
+    if (StringHelper.hasText (sMessageID) &&
+        MetaAS4Manager.getIncomingDuplicateMgr ().getItemOfMessageID (sMessageID) != null)
+    {
+      final String sDetails = "Not processing message, because message with Message ID '" +
+                              sMessageID +
+                              "' was already handled (this is a duplicate)";
+      LOGGER.error (sDetails);
+      aEbmsErrorMessages.add (EEbmsError.EBMS_OTHER.errorBuilder (m_aLocale)
+                                                   .refToMessageInError (sMessageID)
+                                                   .errorDetail (sDetails)
+                                                   .build ());
+    }
+    else
+      if (aPreScan.hasPModeResolutionData () && m_aPModeResolver != null)
+      {
+        final String sAddress = m_aIncomingReceiverConfig == null ? null
+                                                                  : m_aIncomingReceiverConfig.getReceiverEndpointAddress ();
+        aPMode = m_aPModeResolver.findPMode (aPreScan.getPModeID (),
+                                             aPreScan.getService (),
+                                             aPreScan.getAction (),
+                                             aPreScan.getFromPartyID (),
+                                             aPreScan.getToPartyID (),
+                                             aPreScan.getAgreementRef (),
+                                             sAddress);
+        if (aPMode == null)
+        {
+          final String sDetails = "Failed to resolve PMode '" +
+                                  aPreScan.getPModeID () +
+                                  "' / '" +
+                                  aPreScan.getService () +
+                                  "' / '" +
+                                  aPreScan.getAction () +
+                                  "' / '" +
+                                  aPreScan.getFromPartyID () +
+                                  "' / '" +
+                                  aPreScan.getToPartyID () +
+                                  "' / '" +
+                                  aPreScan.getAgreementRef () +
+                                  "' / '" +
+                                  sAddress +
+                                  "' using resolver " +
+                                  m_aPModeResolver;
+          LOGGER.error (sDetails);
+          aEbmsErrorMessages.add (EEbmsError.EBMS_PROCESSING_MODE_MISMATCH.errorBuilder (m_aLocale)
+                                                                          .refToMessageInError (sMessageID)
+                                                                          .errorDetail (sDetails)
+                                                                          .build ());
+        }
+      }
+
+    final AS4IncomingMessageState aIncomingState = new AS4IncomingMessageState (aPreScan.getSoapVersion (),
+                                                                                m_aResHelper,
+                                                                                m_aLocale);
+    aIncomingState.setMessageID (sMessageID);
+    aIncomingState.setRefToMessageID (aPreScan.getRefToMessageID ());
+    aIncomingState.setPMode (aPMode);
+
+    if (aEbmsErrorMessages.isEmpty ())
+    {
+      if (aPMode != null && m_aIncomingProfileSelector != null && m_aIncomingProfileSelector.validateAgainstProfile ())
+      {
+        // Only the PMode can be validated against the profile at this stage
+        String sProfileID = null;
+        try
+        {
+          sProfileID = m_aIncomingProfileSelector.getAS4ProfileID (aIncomingState);
+        }
+        catch (final RuntimeException ex)
+        {
+          // The selector may rely on data that is only available later
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Failed to determine AS4 profile ID during pre-scan: " + ex.getMessage ());
+        }
+        final IAS4Profile aProfile = StringHelper.hasText (sProfileID) ? MetaAS4Manager.getProfileMgr ()
+                                                                                      .getProfileOfID (sProfileID)
+                                                                       : null;
+        final IAS4ProfileValidator aValidator = aProfile == null ? null : aProfile.getValidator ();
+        if (aValidator != null)
+        {
+          final ErrorList aErrorList = new ErrorList ();
+          aValidator.validatePMode (aPMode, aErrorList, EAS4ProfileValidationMode.USER_MESSAGE);
+          if (aErrorList.isNotEmpty ())
+            throw new Phase4Exception ("Error validating the PMode of the incoming AS4 UserMessage with the profile " +
+                                       aProfile.getDisplayName () +
+                                       "\n following errors are present: " +
+                                       aErrorList.getAllErrors ().getAllTexts (m_aLocale));
+        }
+      }
+      return EContinue.CONTINUE;
+    }
+
+    // Send an unsigned error, as nothing of the message was verified
+    final IAS4ResponseFactory aResponder = _createResponseErrorMessage (aIncomingState,
+                                                                        aPreScan.getSoapVersion (),
+                                                                        MessageHelperMethods.createRandomMessageID (),
+                                                                        (PModeLeg) null,
+                                                                        aEbmsErrorMessages);
+    final IAS4OutgoingDumper aRealOutgoingDumper = m_aOutgoingDumper != null ? m_aOutgoingDumper
+                                                                             : AS4DumpManager.getOutgoingDumper ();
+    aResponder.applyToResponse (aHttpResponse, aRealOutgoingDumper);
+    AS4HttpDebug.debug ( () -> "RECEIVE-END with EBMS error message from pre-scan");
+    return EContinue.BREAK;
+  }
+
   /**
    * This is the main handling routine when called from an abstract
    * (non-Servlet) API
@@ -2055,12 +2478,28 @@ public class AS4RequestHandler implements AutoCloseable
       }
       AS4HttpDebug.debug ( () -> "RECEIVE-END with " + (aResponder != null ? "EBMS message" : "no content"));
     };
-    AS4IncomingHandler.parseAS4Message (m_aIncomingAttachmentFactory,
-                                        m_aResHelper,
-                                        m_aMessageMetadata,
-                                        aRequestInputStream,
-                                        aRequestHttpHeaders,
-                                        aCallback,
-                                        m_aIncomingDumper);
+
+    // Optionally reject messages before the SOAP DOM is built
+    final IAS4PreScanCallback aPreScanCallback;
+    if (AS4Configuration.isIncomingPreScanEnabled ())
+      aPreScanCallback = (aHttpHeaders, aPreScan) -> _onPreScan (aPreScan, aHttpResponse);
+    else
+      aPreScanCallback = null;
+    try
+    {
+      AS4IncomingHandler.parseAS4Message (m_aIncomingAttachmentFactory,
+                                          m_aResHelper,
+                                          m_aMessageMetadata,
+                                          aRequestInputStream,
+                                          aRequestHttpHeaders,
+                                          aCallback,
+                                          m_aIncomingDumper,
+                                          aPreScanCallback);
+    }
+    finally
+    {
+      // Don't leave a crypto context on a pooled thread
+      _clearCryptoContext ();
+    }
   }
 }
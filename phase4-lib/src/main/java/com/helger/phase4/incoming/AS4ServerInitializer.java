@@ -24,7 +24,10 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4CryptoFactoryConfiguration;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.incoming.mgr.AS4DuplicateCleanupJob;
+import com.helger.phase4.mgr.AS4WarmUp;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.quartz.TriggerKey;
 
@@ -33,6 +36,7 @@ import com.helger.quartz.TriggerKey;
  * <ul>
  * <li>The {@link MetaAS4Manager} instance is ensured to be present</li>
  * <li>The duplicate cleanup job will also be started.</li>
+ * <li>Optionally the {@link AS4WarmUp} is started in the background.</li>
  * </ul>
  *
  * @author bayerlma
@@ -76,6 +80,15 @@ public final class AS4ServerInitializer
         s_aTriggerKey = aTriggerKey;
       }
     });
+
+    if (AS4Configuration.isWarmUpEnabled ())
+    {
+      final IAS4CryptoFactory aCryptoFactory = AS4CryptoFactoryConfiguration.getDefaultInstanceOrNull ();
+      if (aCryptoFactory != null)
+        AS4WarmUp.startAsync (aCryptoFactory);
+      else
+        LOGGER.warn ("Skipping the phase4 warm-up, because no default crypto factory is configured");
+    }
   }
 
   /**
@@ -16,12 +16,18 @@
  */
 package com.helger.phase4.incoming;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 
 import javax.annotation.Nonnull;
 
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.IWriteToStream;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.mime.IMimeType;
 
 /**
@@ -57,6 +63,36 @@ public interface IAS4ResponseAbstraction
    */
   void setContent (@Nonnull HttpHeaderMap aHeaderMap, @Nonnull IHasInputStream aHasIS);
 
+  /**
+   * Set the content as a callback that writes the response body directly to
+   * the HTTP output stream, without materializing it first. This is used if a
+   * MIME response is sent back. The default implementation buffers the
+   * content in memory and calls
+   * {@link #setContent(HttpHeaderMap, IHasInputStream)}.
+   *
+   * @param aHeaderMap
+   *        Custom HTTP headers to be used. Never <code>null</code> but maybe
+   *        empty.
+   * @param aWriter
+   *        The callback that writes the response body. It may be invoked at
+   *        most once and must not close the provided output stream. Never
+   *        <code>null</code>.
+   * @since 3.0.1
+   */
+  default void setStreamingContent (@Nonnull final HttpHeaderMap aHeaderMap, @Nonnull final IWriteToStream aWriter)
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aWriter.writeTo (aBAOS);
+      final byte [] aBytes = aBAOS.toByteArray ();
+      setContent (aHeaderMap, HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aBytes)));
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to buffer streaming content", ex);
+    }
+  }
+
   /**
    * Set the MIME type (Content-Type) of the response.
    *
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.pull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.AS4OutgoingAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+
+/**
+ * A single UserMessage that is waiting in an {@link IAS4PullMessageStore} to
+ * be pulled. The attachments are referenced from the PayloadInfo of the
+ * UserMessage via their Content-IDs.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public class AS4PullMessage implements IHasID <String>
+{
+  private final Ebms3UserMessage m_aUserMessage;
+  private final ICommonsList <AS4OutgoingAttachment> m_aAttachments;
+
+  /**
+   * Constructor
+   *
+   * @param aUserMessage
+   *        The UserMessage to be returned to the pulling party. Must have a
+   *        message ID. May not be <code>null</code>.
+   * @param aAttachments
+   *        The attachments of the UserMessage. May be <code>null</code>.
+   */
+  public AS4PullMessage (@Nonnull final Ebms3UserMessage aUserMessage,
+                         @Nullable final Iterable <? extends AS4OutgoingAttachment> aAttachments)
+  {
+    ValueEnforcer.notNull (aUserMessage, "UserMessage");
+    ValueEnforcer.notNull (aUserMessage.getMessageInfo (), "UserMessage.MessageInfo");
+    ValueEnforcer.notEmpty (aUserMessage.getMessageInfo ().getMessageId (), "UserMessage.MessageInfo.MessageId");
+    m_aUserMessage = aUserMessage;
+    m_aAttachments = new CommonsArrayList <> (aAttachments);
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getID ()
+  {
+    return getMessageID ();
+  }
+
+  /**
+   * @return The ID of the contained UserMessage. Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getMessageID ()
+  {
+    return m_aUserMessage.getMessageInfo ().getMessageId ();
+  }
+
+  /**
+   * @return The MPC of the contained UserMessage or the default MPC if none is
+   *         set. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getMPC ()
+  {
+    final String ret = m_aUserMessage.getMpc ();
+    return StringHelper.hasText (ret) ? ret : CAS4.DEFAULT_MPC_ID;
+  }
+
+  /**
+   * @return The UserMessage to be returned. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Ebms3UserMessage getUserMessage ()
+  {
+    return m_aUserMessage;
+  }
+
+  /**
+   * @return A copy of all attachments. Never <code>null</code> but maybe
+   *         empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsList <AS4OutgoingAttachment> getAllAttachments ()
+  {
+    return m_aAttachments.getClone ();
+  }
+
+  /**
+   * @return The number of bytes of all attachments that are kept in memory.
+   */
+  @Nonnegative
+  public final long getInMemorySize ()
+  {
+    long ret = 0;
+    for (final AS4OutgoingAttachment aAttachment : m_aAttachments)
+      if (aAttachment.hasDataBytes ())
+        ret += aAttachment.getDataBytes ().size ();
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MessageID", getMessageID ())
+                                       .append ("MPC", getMPC ())
+                                       .append ("Attachments", m_aAttachments)
+                                       .getToString ();
+  }
+}
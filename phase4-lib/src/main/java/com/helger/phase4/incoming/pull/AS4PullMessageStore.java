@@ -0,0 +1,649 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.pull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.charset.CharsetHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsTreeMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSortedMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.attachment.AS4OutgoingAttachment;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.marshaller.Ebms3UserMessageMarshaller;
+import com.helger.security.messagedigest.EMessageDigestAlgorithm;
+import com.helger.security.messagedigest.MessageDigestValue;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * Default implementation of {@link IAS4PullMessageStore}. All messages are
+ * kept in memory in one FIFO queue per MPC, so that a PullRequest can be
+ * answered in constant time. Attachments that are provided as byte arrays stay
+ * in memory as long as they are small and the overall memory budget is not
+ * exceeded. Otherwise they are spilled into the spool directory.<br>
+ * In persistent mode, all messages are written to the spool directory and are
+ * restored when a new store is created on the same directory. Messages that
+ * were handed out but not yet acknowledged before a restart are handed out
+ * again.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4PullMessageStore implements IAS4PullMessageStore
+{
+  public static final Duration DEFAULT_VISIBILITY_TIMEOUT = Duration.ofMinutes (5);
+  public static final long DEFAULT_MAX_IN_MEMORY_ATTACHMENT_SIZE = 64 * 1024L;
+  public static final long DEFAULT_MAX_IN_MEMORY_BYTES = 64 * 1024 * 1024L;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4PullMessageStore.class);
+  private static final String FILE_EXT_META = ".pull.xml";
+  private static final String FILE_EXT_USER_MESSAGE = ".usermessage.xml";
+  private static final String FILE_EXT_ATTACHMENT = ".bin";
+  private static final String FILE_EXT_TMP = ".tmp";
+
+  private static final String ELEMENT_ROOT = "pullmessage";
+  private static final String ATTR_SEQUENCE = "seq";
+  private static final String ATTR_MESSAGE_ID = "messageid";
+  private static final String ELEMENT_ATTACHMENT = "attachment";
+  private static final String ATTR_FILE = "file";
+  private static final String ATTR_CONTENT_ID = "contentid";
+  private static final String ATTR_FILENAME = "filename";
+  private static final String ATTR_MIME_TYPE = "mimetype";
+  private static final String ATTR_COMPRESSION = "compression";
+  private static final String ATTR_CHARSET = "charset";
+  private static final String ELEMENT_PROPERTY = "property";
+  private static final String ATTR_NAME = "name";
+  private static final String ATTR_VALUE = "value";
+
+  /**
+   * A message that was handed out and is waiting for the acknowledgement.
+   */
+  private static final class Lease
+  {
+    private final AS4PullMessage m_aMessage;
+    private final long m_nDeadlineNanos;
+    private final String m_sConsumerID;
+
+    Lease (@Nonnull final AS4PullMessage aMessage, final long nDeadlineNanos, @Nullable final String sConsumerID)
+    {
+      m_aMessage = aMessage;
+      m_nDeadlineNanos = nDeadlineNanos;
+      m_sConsumerID = sConsumerID;
+    }
+  }
+
+  /**
+   * The queue of a single MPC
+   */
+  private static final class MPCQueue
+  {
+    private final SimpleLock m_aLock = new SimpleLock ();
+    @GuardedBy ("m_aLock")
+    private final ArrayDeque <AS4PullMessage> m_aPending = new ArrayDeque <> ();
+    // Ordered by deadline, because the visibility timeout is constant.
+    // Acknowledged leases are skipped lazily.
+    @GuardedBy ("m_aLock")
+    private final ArrayDeque <Lease> m_aLeases = new ArrayDeque <> ();
+  }
+
+  private final Duration m_aVisibilityTimeout;
+  private final File m_aSpoolDir;
+  private final long m_nMaxInMemoryAttachmentSize;
+  private final long m_nMaxInMemoryBytes;
+  private final boolean m_bPersistent;
+
+  private final Map <String, MPCQueue> m_aQueues = new ConcurrentHashMap <> ();
+  // Message ID to the message for all messages in the store
+  private final Map <String, AS4PullMessage> m_aAllMessages = new ConcurrentHashMap <> ();
+  // Message ID to the currently active lease
+  private final Map <String, Lease> m_aActiveLeases = new ConcurrentHashMap <> ();
+  private final AtomicLong m_aInMemoryBytes = new AtomicLong (0);
+  private final AtomicLong m_aSequence = new AtomicLong (0);
+
+  /**
+   * Create a pure in-memory store with the default settings.
+   */
+  public AS4PullMessageStore ()
+  {
+    this (DEFAULT_VISIBILITY_TIMEOUT, null, DEFAULT_MAX_IN_MEMORY_ATTACHMENT_SIZE, DEFAULT_MAX_IN_MEMORY_BYTES, false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aVisibilityTimeout
+   *        The duration for which a message that was handed out stays
+   *        invisible. If no Receipt arrives in that time, the message is
+   *        handed out again. May not be <code>null</code>.
+   * @param aSpoolDir
+   *        The directory to spill large attachments to. May only be
+   *        <code>null</code> if the store is not persistent.
+   * @param nMaxInMemoryAttachmentSize
+   *        The maximum size in bytes of a single attachment to be kept in
+   *        memory. Larger attachments are spilled to disk if a spool directory
+   *        is present.
+   * @param nMaxInMemoryBytes
+   *        The maximum number of attachment bytes to be kept in memory in
+   *        total. If no spool directory is present, messages exceeding this
+   *        budget are rejected.
+   * @param bPersistent
+   *        <code>true</code> to store all messages in the spool directory and
+   *        to restore them from there.
+   */
+  public AS4PullMessageStore (@Nonnull final Duration aVisibilityTimeout,
+                              @Nullable final File aSpoolDir,
+                              @Nonnegative final long nMaxInMemoryAttachmentSize,
+                              @Nonnegative final long nMaxInMemoryBytes,
+                              final boolean bPersistent)
+  {
+    ValueEnforcer.notNull (aVisibilityTimeout, "VisibilityTimeout");
+    ValueEnforcer.isFalse (aVisibilityTimeout.isNegative (), "VisibilityTimeout may not be negative");
+    ValueEnforcer.isGE0 (nMaxInMemoryAttachmentSize, "MaxInMemoryAttachmentSize");
+    ValueEnforcer.isGE0 (nMaxInMemoryBytes, "MaxInMemoryBytes");
+    if (bPersistent)
+      ValueEnforcer.notNull (aSpoolDir, "SpoolDir");
+
+    m_aVisibilityTimeout = aVisibilityTimeout;
+    m_aSpoolDir = aSpoolDir == null ? null : aSpoolDir.getAbsoluteFile ();
+    m_nMaxInMemoryAttachmentSize = nMaxInMemoryAttachmentSize;
+    m_nMaxInMemoryBytes = nMaxInMemoryBytes;
+    m_bPersistent = bPersistent;
+
+    if (m_aSpoolDir != null)
+    {
+      FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (m_aSpoolDir);
+      if (!m_aSpoolDir.isDirectory ())
+        throw new IllegalArgumentException ("The spool directory '" + m_aSpoolDir + "' could not be created");
+      if (m_bPersistent)
+        _recover ();
+    }
+  }
+
+  @Nonnull
+  public final Duration getVisibilityTimeout ()
+  {
+    return m_aVisibilityTimeout;
+  }
+
+  @Nullable
+  public final File getSpoolDirectory ()
+  {
+    return m_aSpoolDir;
+  }
+
+  public final boolean isPersistent ()
+  {
+    return m_bPersistent;
+  }
+
+  /**
+   * Get a spool file of the provided message. The file name is based on the
+   * SHA-256 hash of the message ID, because any character replacement could
+   * map two message IDs onto the same file. The real message ID is stored in
+   * the metadata file.
+   */
+  @Nonnull
+  private File _getFile (@Nonnull final String sMessageID, @Nonnull final String sSuffix)
+  {
+    final String sHash = MessageDigestValue.create (sMessageID.getBytes (StandardCharsets.UTF_8),
+                                                    EMessageDigestAlgorithm.SHA_256)
+                                           .getHexEncodedDigestString ();
+    return new File (m_aSpoolDir, sHash + sSuffix);
+  }
+
+  @Nonnull
+  private static AS4OutgoingAttachment _withFile (@Nonnull final AS4OutgoingAttachment aSrc, @Nonnull final File aFile)
+  {
+    return AS4OutgoingAttachment.builder ()
+                                .data (aFile)
+                                .contentID (aSrc.getContentID ())
+                                .filename (aSrc.getFilename ())
+                                .mimeType (aSrc.getMimeType ())
+                                .compression (aSrc.getCompressionMode ())
+                                .charset (aSrc.getCharset ())
+                                .customProperties (aSrc.getAllCustomProperties ())
+                                .build ();
+  }
+
+  /**
+   * Try to reserve the provided number of bytes from the in-memory budget.
+   *
+   * @param nSize
+   *        The number of bytes to reserve.
+   * @return <code>true</code> if the bytes were reserved, <code>false</code> if
+   *         the budget would be exceeded.
+   */
+  private boolean _tryReserveInMemory (@Nonnegative final long nSize)
+  {
+    if (nSize > m_nMaxInMemoryAttachmentSize)
+      return false;
+
+    // Compare-and-set, so that concurrent enqueues cannot exceed the budget
+    long nCurrent;
+    do
+    {
+      nCurrent = m_aInMemoryBytes.get ();
+      if (nCurrent + nSize > m_nMaxInMemoryBytes)
+        return false;
+    } while (!m_aInMemoryBytes.compareAndSet (nCurrent, nCurrent + nSize));
+    return true;
+  }
+
+  /**
+   * Spill all attachments to disk that should not be kept in memory. The
+   * in-memory size of the returned message is already reserved from the
+   * budget.
+   */
+  @Nonnull
+  private AS4PullMessage _spool (@Nonnull final AS4PullMessage aMessage) throws IOException
+  {
+    final String sMessageID = aMessage.getMessageID ();
+    final ICommonsList <AS4OutgoingAttachment> aAttachments = new CommonsArrayList <> ();
+    long nReserved = 0;
+    boolean bChanged = false;
+    int nIndex = 0;
+    try
+    {
+      for (final AS4OutgoingAttachment aAttachment : aMessage.getAllAttachments ())
+      {
+        final File aTargetFile = m_aSpoolDir == null ? null
+                                                     : _getFile (sMessageID, "-" + nIndex + FILE_EXT_ATTACHMENT);
+        nIndex++;
+        if (aAttachment.hasDataBytes ())
+        {
+          final int nSize = aAttachment.getDataBytes ().size ();
+          if (!m_bPersistent && _tryReserveInMemory (nSize))
+          {
+            nReserved += nSize;
+            aAttachments.add (aAttachment);
+          }
+          else
+          {
+            if (aTargetFile == null)
+              throw new IOException ("The in-memory budget of the pull message store is exhausted and no spool directory is configured");
+            if (SimpleFileIO.writeFile (aTargetFile,
+                                        aAttachment.getDataBytes ().bytes (),
+                                        aAttachment.getDataBytes ().getOffset (),
+                                        nSize).isFailure ())
+              throw new IOException ("Failed to spool attachment to '" + aTargetFile.getAbsolutePath () + "'");
+            aAttachments.add (_withFile (aAttachment, aTargetFile));
+            bChanged = true;
+          }
+        }
+        else
+          if (m_bPersistent)
+          {
+            // Take a copy, as the source file may be deleted by the caller
+            Files.copy (aAttachment.getDataFile ().toPath (), aTargetFile.toPath (), StandardCopyOption.REPLACE_EXISTING);
+            aAttachments.add (_withFile (aAttachment, aTargetFile));
+            bChanged = true;
+          }
+          else
+            aAttachments.add (aAttachment);
+      }
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      m_aInMemoryBytes.addAndGet (-nReserved);
+      throw ex;
+    }
+    return bChanged ? new AS4PullMessage (aMessage.getUserMessage (), aAttachments) : aMessage;
+  }
+
+  private void _persist (@Nonnull final AS4PullMessage aMessage, final long nSequence) throws IOException
+  {
+    final String sMessageID = aMessage.getMessageID ();
+    if (new Ebms3UserMessageMarshaller ().write (aMessage.getUserMessage (),
+                                                 _getFile (sMessageID, FILE_EXT_USER_MESSAGE))
+                                         .isFailure ())
+      throw new IOException ("Failed to persist UserMessage '" + sMessageID + "'");
+
+    final IMicroDocument aDoc = new MicroDocument ();
+    final IMicroElement eRoot = aDoc.appendElement (ELEMENT_ROOT);
+    eRoot.setAttribute (ATTR_SEQUENCE, nSequence);
+    eRoot.setAttribute (ATTR_MESSAGE_ID, sMessageID);
+    for (final AS4OutgoingAttachment aAttachment : aMessage.getAllAttachments ())
+    {
+      final IMicroElement eAttachment = eRoot.appendElement (ELEMENT_ATTACHMENT);
+      eAttachment.setAttribute (ATTR_FILE, aAttachment.getDataFile ().getName ());
+      eAttachment.setAttribute (ATTR_CONTENT_ID, aAttachment.getContentID ());
+      eAttachment.setAttribute (ATTR_FILENAME, aAttachment.getFilename ());
+      eAttachment.setAttribute (ATTR_MIME_TYPE, aAttachment.getMimeType ().getAsString ());
+      if (aAttachment.getCompressionMode () != null)
+        eAttachment.setAttribute (ATTR_COMPRESSION, aAttachment.getCompressionMode ().getID ());
+      if (aAttachment.getCharset () != null)
+        eAttachment.setAttribute (ATTR_CHARSET, aAttachment.getCharset ().name ());
+      aAttachment.getAllCustomProperties ()
+                 .forEach ( (k, v) -> eAttachment.appendElement (ELEMENT_PROPERTY)
+                                                 .setAttribute (ATTR_NAME, k)
+                                                 .setAttribute (ATTR_VALUE, v));
+    }
+
+    // The meta file is the marker that the message is complete
+    final File aMetaFile = _getFile (sMessageID, FILE_EXT_META);
+    final File aTmpFile = _getFile (sMessageID, FILE_EXT_META + FILE_EXT_TMP);
+    if (MicroWriter.writeToFile (aDoc, aTmpFile).isFailure ())
+      throw new IOException ("Failed to persist pull message metadata to '" + aTmpFile.getAbsolutePath () + "'");
+    Files.move (aTmpFile.toPath (),
+                aMetaFile.toPath (),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void _recover ()
+  {
+    final File [] aMetaFiles = m_aSpoolDir.listFiles ( (d, n) -> n.endsWith (FILE_EXT_META));
+    if (aMetaFiles == null || aMetaFiles.length == 0)
+      return;
+
+    // Sorted by sequence to restore the original order
+    final ICommonsSortedMap <Long, AS4PullMessage> aRecovered = new CommonsTreeMap <> ();
+    for (final File aMetaFile : aMetaFiles)
+    {
+      final String sBaseName = aMetaFile.getName ()
+                                        .substring (0, aMetaFile.getName ().length () - FILE_EXT_META.length ());
+      final IMicroDocument aDoc = MicroReader.readMicroXML (aMetaFile);
+      final Ebms3UserMessage aUserMessage = new Ebms3UserMessageMarshaller ().read (new File (m_aSpoolDir,
+                                                                                               sBaseName +
+                                                                                                           FILE_EXT_USER_MESSAGE));
+      if (aDoc == null || aDoc.getDocumentElement () == null || aUserMessage == null)
+      {
+        LOGGER.error ("Failed to restore pull message from '" + aMetaFile.getAbsolutePath () + "' - ignoring it");
+        continue;
+      }
+
+      final IMicroElement eRoot = aDoc.getDocumentElement ();
+      String sMessageID = eRoot.getAttributeValue (ATTR_MESSAGE_ID);
+      if (StringHelper.hasNoText (sMessageID))
+        sMessageID = aUserMessage.getMessageInfo ().getMessageId ();
+      // Stored by a version that derived the file names from the message ID?
+      final boolean bLegacyNames = !aMetaFile.equals (_getFile (sMessageID, FILE_EXT_META));
+
+      final ICommonsList <AS4OutgoingAttachment> aAttachments = new CommonsArrayList <> ();
+      int nIndex = 0;
+      for (final IMicroElement eAttachment : eRoot.getAllChildElements (ELEMENT_ATTACHMENT))
+      {
+        File aDataFile = new File (m_aSpoolDir, eAttachment.getAttributeValue (ATTR_FILE));
+        if (bLegacyNames)
+        {
+          final File aNewDataFile = _getFile (sMessageID, "-" + nIndex + FILE_EXT_ATTACHMENT);
+          if (FileOperationManager.INSTANCE.renameFile (aDataFile, aNewDataFile).isSuccess ())
+            aDataFile = aNewDataFile;
+        }
+        nIndex++;
+
+        final IMimeType aMimeType = MimeTypeParser.safeParseMimeType (eAttachment.getAttributeValue (ATTR_MIME_TYPE));
+        final AS4OutgoingAttachment.Builder aBuilder = AS4OutgoingAttachment.builder ()
+                                                                            .data (aDataFile)
+                                                                            .contentID (eAttachment.getAttributeValue (ATTR_CONTENT_ID))
+                                                                            .filename (eAttachment.getAttributeValue (ATTR_FILENAME))
+                                                                            .mimeType (aMimeType)
+                                                                            .compression (EAS4CompressionMode.getFromIDOrNull (eAttachment.getAttributeValue (ATTR_COMPRESSION)))
+                                                                            .charset (CharsetHelper.getCharsetFromNameOrNull (eAttachment.getAttributeValue (ATTR_CHARSET)));
+        for (final IMicroElement eProperty : eAttachment.getAllChildElements (ELEMENT_PROPERTY))
+          aBuilder.addCustomProperty (eProperty.getAttributeValue (ATTR_NAME),
+                                      eProperty.getAttributeValue (ATTR_VALUE));
+        aAttachments.add (aBuilder.build ());
+      }
+      final long nSequence = StringParser.parseLong (eRoot.getAttributeValue (ATTR_SEQUENCE), 0);
+      final AS4PullMessage aMessage = new AS4PullMessage (aUserMessage, aAttachments);
+      if (bLegacyNames)
+      {
+        // Store again under the current names, so that the acknowledgement
+        // deletes the files
+        try
+        {
+          _persist (aMessage, nSequence);
+          FileOperationManager.INSTANCE.deleteFile (aMetaFile);
+          FileOperationManager.INSTANCE.deleteFile (new File (m_aSpoolDir, sBaseName + FILE_EXT_USER_MESSAGE));
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("Failed to rename the files of pull message '" + sMessageID + "'", ex);
+        }
+      }
+      aRecovered.put (Long.valueOf (nSequence), aMessage);
+    }
+
+    for (final Map.Entry <Long, AS4PullMessage> aEntry : aRecovered.entrySet ())
+    {
+      final AS4PullMessage aMessage = aEntry.getValue ();
+      m_aSequence.set (Math.max (m_aSequence.get (), aEntry.getKey ().longValue () + 1));
+      m_aAllMessages.put (aMessage.getMessageID (), aMessage);
+      final MPCQueue aQueue = m_aQueues.computeIfAbsent (aMessage.getMPC (), k -> new MPCQueue ());
+      aQueue.m_aLock.locked ( () -> aQueue.m_aPending.addLast (aMessage));
+    }
+    LOGGER.info ("Restored " + aRecovered.size () + " pull messages from '" + m_aSpoolDir + "'");
+  }
+
+  public void enqueue (@Nonnull final AS4PullMessage aMessage) throws IOException
+  {
+    ValueEnforcer.notNull (aMessage, "Message");
+
+    final String sMessageID = aMessage.getMessageID ();
+    if (m_aAllMessages.putIfAbsent (sMessageID, aMessage) != null)
+      throw new IllegalArgumentException ("A message with ID '" + sMessageID + "' is already contained in the store");
+
+    AS4PullMessage aSpooledMessage = null;
+    try
+    {
+      // The in-memory budget is reserved while spooling
+      aSpooledMessage = _spool (aMessage);
+      if (m_bPersistent)
+        _persist (aSpooledMessage, m_aSequence.getAndIncrement ());
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      if (aSpooledMessage != null)
+        m_aInMemoryBytes.addAndGet (-aSpooledMessage.getInMemorySize ());
+      m_aAllMessages.remove (sMessageID);
+      _deleteFiles (sMessageID, aMessage.getAllAttachments ().size ());
+      throw ex;
+    }
+    final AS4PullMessage aStoredMessage = aSpooledMessage;
+    m_aAllMessages.put (sMessageID, aStoredMessage);
+
+    final MPCQueue aQueue = m_aQueues.computeIfAbsent (aStoredMessage.getMPC (), k -> new MPCQueue ());
+    aQueue.m_aLock.locked ( () -> aQueue.m_aPending.addLast (aStoredMessage));
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Added pull message '" + sMessageID + "' for MPC '" + aStoredMessage.getMPC () + "'");
+  }
+
+  @Nullable
+  public AS4PullMessage dequeue (@Nonnull @Nonempty final String sMPC, @Nullable final String sConsumerID)
+  {
+    ValueEnforcer.notEmpty (sMPC, "MPC");
+
+    final MPCQueue aQueue = m_aQueues.get (sMPC);
+    if (aQueue == null)
+      return null;
+
+    final long nNow = System.nanoTime ();
+    return aQueue.m_aLock.lockedGet ( () -> {
+      AS4PullMessage aMessage = null;
+
+      // Is there an expired lease to hand out again?
+      Lease aLease;
+      while ((aLease = aQueue.m_aLeases.peekFirst ()) != null)
+      {
+        if (m_aActiveLeases.get (aLease.m_aMessage.getMessageID ()) != aLease)
+        {
+          // Already acknowledged
+          aQueue.m_aLeases.pollFirst ();
+          continue;
+        }
+        if (aLease.m_nDeadlineNanos - nNow <= 0)
+        {
+          aQueue.m_aLeases.pollFirst ();
+          aMessage = aLease.m_aMessage;
+          LOGGER.info ("The visibility timeout of pull message '" + aMessage.getMessageID () + "' expired");
+        }
+        break;
+      }
+
+      if (aMessage == null)
+        aMessage = aQueue.m_aPending.pollFirst ();
+      if (aMessage == null)
+        return null;
+
+      final Lease aNewLease = new Lease (aMessage, nNow + m_aVisibilityTimeout.toNanos (), sConsumerID);
+      m_aActiveLeases.put (aMessage.getMessageID (), aNewLease);
+      aQueue.m_aLeases.addLast (aNewLease);
+      return aMessage;
+    });
+  }
+
+  private void _deleteFiles (@Nonnull final String sMessageID, @Nonnegative final int nAttachmentCount)
+  {
+    if (m_aSpoolDir == null)
+      return;
+
+    // Only delete the files created by this store
+    for (int i = 0; i < nAttachmentCount; ++i)
+      FileOperationManager.INSTANCE.deleteFileIfExisting (_getFile (sMessageID, "-" + i + FILE_EXT_ATTACHMENT));
+    if (m_bPersistent)
+    {
+      FileOperationManager.INSTANCE.deleteFileIfExisting (_getFile (sMessageID, FILE_EXT_META));
+      FileOperationManager.INSTANCE.deleteFileIfExisting (_getFile (sMessageID, FILE_EXT_USER_MESSAGE));
+    }
+  }
+
+  @Nonnull
+  public EChange acknowledge (@Nullable final String sMessageID)
+  {
+    return _acknowledge (sMessageID, false, null);
+  }
+
+  @Nonnull
+  public EChange acknowledge (@Nullable final String sMessageID, @Nullable final String sConsumerID)
+  {
+    return _acknowledge (sMessageID, true, sConsumerID);
+  }
+
+  @Nonnull
+  private EChange _acknowledge (@Nullable final String sMessageID,
+                                final boolean bCheckConsumer,
+                                @Nullable final String sConsumerID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+
+    // Only messages that were handed out can be acknowledged
+    final Lease aLease = m_aActiveLeases.get (sMessageID);
+    if (aLease == null)
+      return EChange.UNCHANGED;
+
+    if (bCheckConsumer && aLease.m_sConsumerID != null && !aLease.m_sConsumerID.equals (sConsumerID))
+    {
+      LOGGER.warn ("Ignoring Receipt for pull message '" +
+                   sMessageID +
+                   "' from '" +
+                   sConsumerID +
+                   "' because it was handed out to '" +
+                   aLease.m_sConsumerID +
+                   "'");
+      return EChange.UNCHANGED;
+    }
+
+    // Remove only the checked lease - it may have been re-assigned meanwhile
+    if (!m_aActiveLeases.remove (sMessageID, aLease))
+      return EChange.UNCHANGED;
+
+    final AS4PullMessage aMessage = aLease.m_aMessage;
+    m_aAllMessages.remove (sMessageID);
+    m_aInMemoryBytes.addAndGet (-aMessage.getInMemorySize ());
+    _deleteFiles (sMessageID, aMessage.getAllAttachments ().size ());
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Pull message '" + sMessageID + "' was acknowledged");
+    return EChange.CHANGED;
+  }
+
+  @Nonnegative
+  public int getQueueSize (@Nullable final String sMPC)
+  {
+    final MPCQueue aQueue = sMPC == null ? null : m_aQueues.get (sMPC);
+    return aQueue == null ? 0 : aQueue.m_aLock.lockedInt (aQueue.m_aPending::size);
+  }
+
+  /**
+   * @return The number of messages that were handed out but were not yet
+   *         acknowledged.
+   */
+  @Nonnegative
+  public int getUnacknowledgedCount ()
+  {
+    return m_aActiveLeases.size ();
+  }
+
+  /**
+   * @return The number of attachment bytes currently kept in memory.
+   */
+  @Nonnegative
+  public long getInMemoryBytes ()
+  {
+    return m_aInMemoryBytes.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("VisibilityTimeout", m_aVisibilityTimeout)
+                                       .append ("SpoolDir", m_aSpoolDir)
+                                       .append ("MaxInMemoryAttachmentSize", m_nMaxInMemoryAttachmentSize)
+                                       .append ("MaxInMemoryBytes", m_nMaxInMemoryBytes)
+                                       .append ("Persistent", m_bPersistent)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.pull;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.state.EChange;
+
+/**
+ * A store for UserMessages that are waiting to be pulled by the
+ * communication partner. Messages are organized in one FIFO queue per MPC.
+ * When a message is handed out for a PullRequest it becomes invisible until it
+ * is either acknowledged (by a Receipt) or the visibility timeout expired,
+ * after which it is handed out again.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+public interface IAS4PullMessageStore
+{
+  /**
+   * Add a new message to the queue of its MPC.
+   *
+   * @param aMessage
+   *        The message to be added. May not be <code>null</code>.
+   * @throws IOException
+   *         If the message could not be stored
+   */
+  void enqueue (@Nonnull AS4PullMessage aMessage) throws IOException;
+
+  /**
+   * Get the next message of the provided MPC and make it invisible for the
+   * visibility timeout. The message can be acknowledged by everybody.
+   *
+   * @param sMPC
+   *        The MPC to pull from. May neither be <code>null</code> nor empty.
+   * @return <code>null</code> if no message is available for that MPC.
+   * @see #dequeue(String, String)
+   */
+  @Nullable
+  default AS4PullMessage dequeue (@Nonnull @Nonempty final String sMPC)
+  {
+    return dequeue (sMPC, null);
+  }
+
+  /**
+   * Get the next message of the provided MPC and make it invisible for the
+   * visibility timeout.
+   *
+   * @param sMPC
+   *        The MPC to pull from. May neither be <code>null</code> nor empty.
+   * @param sConsumerID
+   *        The ID of the party the message is handed to. If present, only a
+   *        Receipt of the same party can acknowledge the message. May be
+   *        <code>null</code>.
+   * @return <code>null</code> if no message is available for that MPC.
+   */
+  @Nullable
+  AS4PullMessage dequeue (@Nonnull @Nonempty String sMPC, @Nullable String sConsumerID);
+
+  /**
+   * Acknowledge the successful delivery of a message without checking to whom
+   * it was handed out. The message is finally removed from the store.
+   *
+   * @param sMessageID
+   *        The ID of the message. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if a pending message was removed.
+   * @see #acknowledge(String, String)
+   */
+  @Nonnull
+  EChange acknowledge (@Nullable String sMessageID);
+
+  /**
+   * Acknowledge the successful delivery of a message based on a Receipt. The
+   * message is only removed from the store, if it was handed out to the same
+   * consumer.
+   *
+   * @param sMessageID
+   *        The ID of the message, as referenced from the Receipt. May be
+   *        <code>null</code>.
+   * @param sConsumerID
+   *        The ID of the party that sent the Receipt. May be
+   *        <code>null</code>.
+   * @return {@link EChange#CHANGED} if a pending message was removed.
+   */
+  @Nonnull
+  EChange acknowledge (@Nullable String sMessageID, @Nullable String sConsumerID);
+
+  /**
+   * @param sMPC
+   *        The MPC to check. May be <code>null</code>.
+   * @return The number of messages of the provided MPC that are waiting to be
+   *         pulled, excluding the ones that were handed out but not yet
+   *         acknowledged.
+   */
+  @Nonnegative
+  int getQueueSize (@Nullable String sMPC);
+}
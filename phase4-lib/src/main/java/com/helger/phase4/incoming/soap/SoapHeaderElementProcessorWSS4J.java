@@ -17,13 +17,17 @@
 package com.helger.phase4.incoming.soap;
 
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.Provider;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -54,6 +58,8 @@ import com.helger.commons.regex.RegExCache;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.AS4DecompressException;
+import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
 import com.helger.phase4.config.AS4Configuration;
@@ -68,6 +74,7 @@ import com.helger.phase4.incoming.AS4IncomingMessageState;
 import com.helger.phase4.model.error.EEbmsError;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.wss.WSSConfigManager;
 import com.helger.phase4.wss.WSSSynchronizer;
 import com.helger.xml.XMLHelper;
@@ -236,9 +243,19 @@ public class SoapHeaderElementProcessorWSS4J implements ISoapHeaderElementProces
       LOGGER.info ("phase4 --- attachment.storetemp:start");
 
       // Decrypting the Attachments
+      final boolean bPipelined = AS4Configuration.isIncomingAttachmentsPipelined ();
       final ICommonsList <WSS4JAttachment> aResponseAttachments = aAttachmentCallbackHandler.getAllResponseAttachments ();
       for (final WSS4JAttachment aResponseAttachment : aResponseAttachments)
       {
+        final EAS4CompressionMode eCompressionMode = bPipelined ? aIncomingState.getAttachmentCompressionMode (aResponseAttachment.getId ())
+                                                                : null;
+        if (eCompressionMode != null)
+        {
+          // Decrypt and decompress in one pass into the temporary file
+          decryptAndDecompress (aResponseAttachment, eCompressionMode, aIncomingState.getResourceHelper ());
+          continue;
+        }
+
         // Always copy to a temporary file, so that decrypted content can be
         // read more than once. By default the stream can only be read once
         // Not nice, but working :)
@@ -342,6 +359,176 @@ public class SoapHeaderElementProcessorWSS4J implements ISoapHeaderElementProces
     }
   }
 
+  /**
+   * Marker for an {@link IOException} thrown by the decrypting source stream.
+   */
+  private static final class DecryptionIOException extends IOException
+  {
+    DecryptionIOException (@Nonnull final IOException ex)
+    {
+      super (ex.getMessage (), ex);
+    }
+  }
+
+  /**
+   * Marker for an {@link IOException} thrown by the decompressing stream.
+   */
+  private static final class DecompressionIOException extends IOException
+  {
+    DecompressionIOException (@Nonnull final IOException ex)
+    {
+      super (ex.getMessage (), ex);
+    }
+  }
+
+  /**
+   * Stream wrapper that converts all {@link IOException}s of the wrapped stream
+   * with the provided marker function, so that the layer that failed can be
+   * determined.
+   */
+  private static final class MarkingInputStream extends FilterInputStream
+  {
+    private final UnaryOperator <IOException> m_aMarker;
+
+    MarkingInputStream (@Nonnull final InputStream aIS, @Nonnull final UnaryOperator <IOException> aMarker)
+    {
+      super (aIS);
+      m_aMarker = aMarker;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      try
+      {
+        return super.read ();
+      }
+      catch (final IOException ex)
+      {
+        throw m_aMarker.apply (ex);
+      }
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      try
+      {
+        return super.read (aBuf, nOfs, nLen);
+      }
+      catch (final IOException ex)
+      {
+        throw m_aMarker.apply (ex);
+      }
+    }
+
+    @Override
+    public long skip (final long n) throws IOException
+    {
+      try
+      {
+        return super.skip (n);
+      }
+      catch (final IOException ex)
+      {
+        throw m_aMarker.apply (ex);
+      }
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      try
+      {
+        super.close ();
+      }
+      catch (final IOException ex)
+      {
+        throw m_aMarker.apply (ex);
+      }
+    }
+  }
+
+  @Nonnull
+  private static IOException _markDecompression (@Nonnull final IOException ex)
+  {
+    // Errors of the underlying decrypting stream keep their marker
+    return ex instanceof DecryptionIOException ? ex : new DecompressionIOException (ex);
+  }
+
+  @Nonnull
+  private static InputStream _getDecryptingDecompressStream (@Nonnull final WSS4JAttachment aAttachment,
+                                                             @Nonnull final EAS4CompressionMode eCompressionMode) throws IOException
+  {
+    final InputStream aDecryptIS = new MarkingInputStream (aAttachment.getSourceStream (), DecryptionIOException::new);
+    try
+    {
+      // GZIP already reads the header in the constructor
+      return new MarkingInputStream (eCompressionMode.getDecompressStream (aDecryptIS),
+                                     SoapHeaderElementProcessorWSS4J::_markDecompression);
+    }
+    catch (final IOException ex)
+    {
+      StreamHelper.close (aDecryptIS);
+      throw _markDecompression (ex);
+    }
+  }
+
+  /**
+   * Decrypt and decompress the provided attachment in one pass into a
+   * temporary file. Decryption errors are propagated as
+   * {@link WSSecurityException} so that they are reported as
+   * "FailedDecryption". Only decompression errors are remembered and reported
+   * lazily as {@link AS4DecompressException} when the content is read, the
+   * same way as for non-pipelined decompression.
+   *
+   * @param aAttachment
+   *        The attachment with the decrypting source stream. May not be
+   *        <code>null</code>.
+   * @param eCompressionMode
+   *        The compression mode of the attachment. May not be
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to create the temporary file. May not be
+   *        <code>null</code>.
+   * @throws WSSecurityException
+   *         If decryption failed
+   * @throws IOException
+   *         If the temporary file could not be written
+   */
+  static void decryptAndDecompress (@Nonnull final WSS4JAttachment aAttachment,
+                                    @Nonnull final EAS4CompressionMode eCompressionMode,
+                                    @Nonnull final AS4ResourceHelper aResHelper) throws WSSecurityException,
+                                                                                  IOException
+  {
+    final File aTempFile = aResHelper.createTempFile ();
+    try (final InputStream aIS = _getDecryptingDecompressStream (aAttachment, eCompressionMode);
+         final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+    {
+      if (aOS == null)
+        throw new IOException ("Failed to open temporary file '" + aTempFile.getAbsolutePath () + "' for writing");
+
+      // Don't use StreamHelper here, as it swallows read errors
+      aIS.transferTo (aOS);
+      aAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
+    }
+    catch (final DecryptionIOException ex)
+    {
+      throw new WSSecurityException (WSSecurityException.ErrorCode.FAILED_CHECK, (Exception) ex.getCause ());
+    }
+    catch (final DecompressionIOException ex)
+    {
+      // Report the same way as the lazy decompression when the content is read
+      final Exception aCause = (Exception) ex.getCause ();
+      LOGGER.error ("Failed to decompress attachment '" + aAttachment.getId () + "' using " + eCompressionMode, aCause);
+      aAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> {
+        throw new AS4DecompressException (aCause);
+      }));
+    }
+    // Remember that the content is already decompressed
+    aAttachment.setCompressionMode (eCompressionMode);
+  }
+
   @Nonnull
   public ESuccess processHeaderElement (@Nonnull final Document aSoapDoc,
                                         @Nonnull final Element aSecurityNode,
@@ -26,12 +26,15 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillNotClose;
 
+import org.apache.hc.client5.http.HttpResponseException;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -151,6 +154,41 @@ public class BasicHttpPoster implements IHttpPoster
                                    @Nullable final HttpHeaderMap aCustomHttpHeaders,
                                    @Nonnull final HttpEntity aHttpEntity,
                                    @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    return sendGenericMessage (sURL, aCustomHttpHeaders, aHttpEntity, null, aResponseHandler);
+  }
+
+  /**
+   * Send an arbitrary HTTP POST message to the provided URL with an optional
+   * response timeout that overrides the one of the HttpClientFactory. This
+   * method does NOT retry.
+   *
+   * @param <T>
+   *        Response data type
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param aResponseTimeout
+   *        The response timeout to use for this message. May be
+   *        <code>null</code> to use the one of the HttpClientFactory.
+   * @param aResponseHandler
+   *        The Http response handler that should be used to convert the HTTP
+   *        response to a domain object.
+   * @return The HTTP response. May be <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @since 3.0.1
+   */
+  @Nullable
+  protected <T> T sendGenericMessage (@Nonnull @Nonempty final String sURL,
+                                      @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                      @Nonnull final HttpEntity aHttpEntity,
+                                      @Nullable final Timeout aResponseTimeout,
+                                      @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
   {
     ValueEnforcer.notEmpty (sURL, "URL");
     ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
@@ -172,6 +210,11 @@ public class BasicHttpPoster implements IHttpPoster
 
       aPost.setEntity (aHttpEntity);
 
+      if (aResponseTimeout != null)
+        aPost.setConfig (RequestConfig.copy (m_aHttpClientFactory.createRequestConfig ())
+                                      .setResponseTimeout (aResponseTimeout)
+                                      .build ());
+
       // Invoke optional customizer
       if (m_aHttpCustomizer != null)
         m_aHttpCustomizer.accept (aPost);
@@ -270,6 +313,58 @@ public class BasicHttpPoster implements IHttpPoster
     };
   }
 
+  /**
+   * Send a single message, considering the circuit breaker of the retry
+   * settings (if any).
+   */
+  @Nullable
+  private <T> T _sendWithCircuitBreaker (@Nonnull final String sURL,
+                                         @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                         @Nonnull final HttpEntity aHttpEntity,
+                                         @Nullable final HttpEndpointCircuitBreaker aCircuitBreaker,
+                                         @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    if (aCircuitBreaker == null)
+      return sendGenericMessage (sURL, aCustomHttpHeaders, aHttpEntity, null, aResponseHandler);
+
+    final String sHostKey = HttpEndpointCircuitBreaker.getHostKey (sURL);
+    if (!aCircuitBreaker.isRequestAllowed (sHostKey))
+      throw new HttpCircuitBreakerOpenException (sHostKey,
+                                                 "The circuit breaker for '" +
+                                                           sHostKey +
+                                                           "' is open - not sending the message to '" +
+                                                           sURL +
+                                                           "'");
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    try
+    {
+      final T ret = sendGenericMessage (sURL,
+                                        aCustomHttpHeaders,
+                                        aHttpEntity,
+                                        aCircuitBreaker.getAdaptiveResponseTimeout (sHostKey,
+                                                                                    getHttpClientFactory ().httpClientSettings ()
+                                                                                                           .getResponseTimeout ()),
+                                        aResponseHandler);
+      aCircuitBreaker.onSuccess (sHostKey, aSW.stopAndGetDuration ());
+      return ret;
+    }
+    catch (final HttpResponseException ex)
+    {
+      // The endpoint is alive, but rejected the message
+      if (ex.getStatusCode () < CHttp.HTTP_INTERNAL_SERVER_ERROR)
+        aCircuitBreaker.onSuccess (sHostKey, aSW.stopAndGetDuration ());
+      else
+        aCircuitBreaker.onFailure (sHostKey);
+      throw ex;
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      aCircuitBreaker.onFailure (sHostKey);
+      throw ex;
+    }
+  }
+
   @Nullable
   public <T> T sendGenericMessageWithRetries (@Nonnull final String sURL,
                                               @Nullable final HttpHeaderMap aCustomHttpHeaders,
@@ -315,18 +410,34 @@ public class BasicHttpPoster implements IHttpPoster
                                                                        aDumpOSHolder);
 
             // Dump only for the first try - the remaining tries
-            return sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+            return _sendWithCircuitBreaker (sURL,
+                                            aCustomHttpHeaders,
+                                            aDumpingEntity,
+                                            aRetrySettings.getCircuitBreaker (),
+                                            aResponseHandler);
           }
           catch (final IOException ex)
           {
             // Last try? -> propagate exception
-            if (nTry == nMaxTries - 1)
+            // Open circuit breaker? -> fail fast
+            if (nTry == nMaxTries - 1 || ex instanceof HttpCircuitBreakerOpenException)
               throw ex;
 
-            // After the first retry, increase the waiting time
-            if (nTry > 1)
-              aDurationBeforeRetry = HttpRetrySettings.getIncreased (aDurationBeforeRetry,
-                                                                     aRetrySettings.getRetryIncreaseFactor ());
+            if (aRetrySettings.isDecorrelatedJitter ())
+            {
+              // Random waiting time based on the previous one
+              if (nTry > 0)
+                aDurationBeforeRetry = HttpRetrySettings.getDecorrelatedJitter (aRetrySettings.getDurationBeforeRetry (),
+                                                                                aDurationBeforeRetry,
+                                                                                aRetrySettings.getMaxDurationBeforeRetry ());
+            }
+            else
+            {
+              // After the first retry, increase the waiting time
+              if (nTry > 1)
+                aDurationBeforeRetry = HttpRetrySettings.getIncreased (aDurationBeforeRetry,
+                                                                       aRetrySettings.getRetryIncreaseFactor ());
+            }
 
             if (aRetryCallback != null)
               if (aRetryCallback.onBeforeRetry (sMessageID, sURL, nTry, nMaxTries, aDurationBeforeRetry.toMillis (), ex)
@@ -382,7 +493,11 @@ public class BasicHttpPoster implements IHttpPoster
         try
         {
           // Send without retry
-          return sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+          return _sendWithCircuitBreaker (sURL,
+                                          aCustomHttpHeaders,
+                                          aDumpingEntity,
+                                          aRetrySettings.getCircuitBreaker (),
+                                          aResponseHandler);
         }
         finally
         {
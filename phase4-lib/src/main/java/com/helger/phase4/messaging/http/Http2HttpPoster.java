@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.ssl.SSLContext;
+
+import org.apache.hc.client5.http.ClientProtocolException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.ssl.TLS;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.ProtocolNegotiationException;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * An {@link IHttpPoster} that uses the asynchronous transport of Apache
+ * HttpClient 5 to send AS4 messages via HTTP/2. For "https" destinations h2 is
+ * negotiated via ALPN and concurrent messages to the same destination are
+ * multiplexed over a single connection. If a destination does not support h2,
+ * this is remembered and the message (and all subsequent messages to the same
+ * host) is sent via HTTP/1.1. Plain "http" destinations and destinations
+ * reached via a proxy always use HTTP/1.1.<br>
+ * The HTTP clients are created lazily from the contained
+ * {@link HttpClientFactory} (SSL context, hostname verifier, proxy, timeouts
+ * and user agent are used) and are kept open until {@link #close()} is called.
+ * If the factory is changed, the old clients are closed as soon as no request
+ * is using them anymore.
+ * Therefore an instance of this class is meant to be shared between many
+ * messages.<br>
+ * Note: outgoing entities are buffered in memory (or in a temporary file if
+ * they are large) before sending, and responses are buffered in memory.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class Http2HttpPoster extends BasicHttpPoster implements AutoCloseable
+{
+  /**
+   * Entities up to this size are buffered in memory before sending. Larger
+   * entities or entities with an unknown length are spooled to a temporary
+   * file.
+   */
+  public static final long MAX_IN_MEMORY_ENTITY_SIZE = 1024 * 1024L;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (Http2HttpPoster.class);
+
+  private static final class SingletonHolder
+  {
+    static final Http2HttpPoster INSTANCE = new Http2HttpPoster ();
+  }
+
+  /**
+   * The HTTP clients created for one {@link HttpClientFactory}. They are only
+   * closed if they were replaced (or the poster was closed) and no request is
+   * using them anymore.
+   */
+  private static final class ClientSet
+  {
+    private final HttpClientFactory m_aFactory;
+    private final CloseableHttpAsyncClient m_aH2Client;
+    private final CloseableHttpAsyncClient m_aHttp1Client;
+    // Both guarded by the poster lock
+    private int m_nInFlight = 0;
+    private boolean m_bRetired = false;
+
+    ClientSet (@Nonnull final HttpClientFactory aFactory,
+               @Nonnull final CloseableHttpAsyncClient aH2Client,
+               @Nonnull final CloseableHttpAsyncClient aHttp1Client)
+    {
+      m_aFactory = aFactory;
+      m_aH2Client = aH2Client;
+      m_aHttp1Client = aHttp1Client;
+    }
+
+    void close ()
+    {
+      m_aH2Client.close (CloseMode.GRACEFUL);
+      m_aHttp1Client.close (CloseMode.GRACEFUL);
+    }
+  }
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private ClientSet m_aClients;
+  @GuardedBy ("m_aLock")
+  private final ICommonsSet <String> m_aHttp1OnlyHosts = new CommonsHashSet <> ();
+
+  public Http2HttpPoster ()
+  {}
+
+  /**
+   * @return The shared default instance that uses the default
+   *         {@link HttpClientFactory}. It is never closed. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static Http2HttpPoster getDefaultInstance ()
+  {
+    return SingletonHolder.INSTANCE;
+  }
+
+  @Nonnull
+  private static CloseableHttpAsyncClient _createH2Client (@Nonnull final HttpClientFactory aFactory,
+                                                          @Nonnull final TlsStrategy aTlsStrategy)
+  {
+    final CloseableHttpAsyncClient ret = H2AsyncClientBuilder.create ()
+                                                             .setTlsStrategy (aTlsStrategy)
+                                                             .setDefaultRequestConfig (aFactory.createRequestConfig ())
+                                                             .setUserAgent (aFactory.httpClientSettings ()
+                                                                                    .getUserAgent ())
+                                                             .setThreadFactory (new BasicThreadFactory.Builder ().namingPattern ("phase4-http2-%d")
+                                                                                                                 .daemon (true)
+                                                                                                                 .build ())
+                                                             .disableAutomaticRetries ()
+                                                             .build ();
+    ret.start ();
+    return ret;
+  }
+
+  @Nonnull
+  private static CloseableHttpAsyncClient _createHttp1Client (@Nonnull final HttpClientFactory aFactory,
+                                                             @Nonnull final TlsStrategy aTlsStrategy)
+  {
+    final HttpClientSettings aSettings = aFactory.httpClientSettings ();
+    final CloseableHttpAsyncClient ret = HttpAsyncClients.custom ()
+                                                         .setConnectionManager (PoolingAsyncClientConnectionManagerBuilder.create ()
+                                                                                                                          .setTlsStrategy (aTlsStrategy)
+                                                                                                                          .setDefaultTlsConfig (TlsConfig.custom ()
+                                                                                                                                                         .setVersionPolicy (HttpVersionPolicy.FORCE_HTTP_1)
+                                                                                                                                                         .build ())
+                                                                                                                          .build ())
+                                                         .setProxy (aSettings.getProxyHost ())
+                                                         .setDefaultCredentialsProvider (aFactory.createCredentialsProvider ())
+                                                         .setDefaultRequestConfig (aFactory.createRequestConfig ())
+                                                         .setUserAgent (aSettings.getUserAgent ())
+                                                         .setThreadFactory (new BasicThreadFactory.Builder ().namingPattern ("phase4-http1-%d")
+                                                                                                             .daemon (true)
+                                                                                                             .build ())
+                                                         .disableAutomaticRetries ()
+                                                         .build ();
+    ret.start ();
+    return ret;
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _retireClients ()
+  {
+    final ClientSet aClients = m_aClients;
+    if (aClients != null)
+    {
+      m_aClients = null;
+      aClients.m_bRetired = true;
+      // Requests that are still running close the clients when they finish
+      if (aClients.m_nInFlight == 0)
+        aClients.close ();
+    }
+  }
+
+  /**
+   * Get the HTTP clients for the current {@link HttpClientFactory} and mark
+   * them as used. Each call must be matched by a call to
+   * {@link #_releaseClients(ClientSet)}.
+   */
+  @Nonnull
+  private ClientSet _acquireClients ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      final HttpClientFactory aFactory = getHttpClientFactory ();
+      if (m_aClients == null || m_aClients.m_aFactory != aFactory)
+      {
+        // First call or the factory was changed in the meantime
+        _retireClients ();
+
+        final HttpClientSettings aSettings = aFactory.httpClientSettings ();
+        final SSLContext aSSLContext = aSettings.getSSLContext () != null ? aSettings.getSSLContext ()
+                                                                            : SSLContexts.createSystemDefault ();
+        final TlsStrategy aTlsStrategy = ClientTlsStrategyBuilder.create ()
+                                                                 .setSslContext (aSSLContext)
+                                                                 .setTlsVersions (TLS.V_1_3, TLS.V_1_2)
+                                                                 .setHostnameVerifier (aSettings.getHostnameVerifier ())
+                                                                 .build ();
+        m_aClients = new ClientSet (aFactory,
+                                    _createH2Client (aFactory, aTlsStrategy),
+                                    _createHttp1Client (aFactory, aTlsStrategy));
+      }
+      final ClientSet ret = m_aClients;
+      ret.m_nInFlight++;
+      return ret;
+    });
+  }
+
+  private void _releaseClients (@Nonnull final ClientSet aClients)
+  {
+    m_aLock.locked ( () -> {
+      aClients.m_nInFlight--;
+      if (aClients.m_bRetired && aClients.m_nInFlight == 0)
+        aClients.close ();
+    });
+  }
+
+  /**
+   * @return <code>true</code> if HTTP clients are currently open,
+   *         <code>false</code> if not.
+   */
+  boolean hasOpenClients ()
+  {
+    return m_aLock.lockedBoolean ( () -> m_aClients != null);
+  }
+
+  @Nonnull
+  private static String _getHostKey (@Nonnull final URI aURI)
+  {
+    return aURI.getHost () + ":" + aURI.getPort ();
+  }
+
+  private boolean _canUseHttp2 (@Nonnull final URI aURI)
+  {
+    if (!"https".equalsIgnoreCase (aURI.getScheme ()))
+      return false;
+    if (getHttpClientFactory ().httpClientSettings ().getProxyHost () != null)
+      return false;
+    final String sHostKey = _getHostKey (aURI);
+    return m_aLock.lockedGet ( () -> !m_aHttp1OnlyHosts.contains (sHostKey));
+  }
+
+  /**
+   * Check if the provided destination is known to not support HTTP/2.
+   *
+   * @param sURL
+   *        The URL to check. May neither be <code>null</code> nor empty.
+   * @return <code>true</code> if a previous h2 negotiation with the host of the
+   *         URL failed, <code>false</code> otherwise.
+   */
+  public boolean isKnownHttp1Only (@Nonnull @Nonempty final String sURL)
+  {
+    final String sHostKey = _getHostKey (URI.create (sURL));
+    return m_aLock.lockedGet ( () -> m_aHttp1OnlyHosts.contains (sHostKey));
+  }
+
+  private static boolean _isProtocolNegotiationFailure (@Nullable final Throwable t)
+  {
+    Throwable aCur = t;
+    while (aCur != null)
+    {
+      if (aCur instanceof ProtocolNegotiationException)
+        return true;
+      aCur = aCur.getCause ();
+    }
+    return false;
+  }
+
+  @Nonnull
+  private static SimpleHttpResponse _execute (@Nonnull final CloseableHttpAsyncClient aClient,
+                                              @Nonnull final BasicHttpRequest aRequest,
+                                              @Nonnull final AsyncEntityProducer aEntityProducer,
+                                              @Nullable final RequestConfig aRequestConfig) throws IOException
+  {
+    final HttpClientContext aContext = HttpClientContext.create ();
+    if (aRequestConfig != null)
+      aContext.setRequestConfig (aRequestConfig);
+    try
+    {
+      return aClient.execute (new BasicRequestProducer (aRequest, aEntityProducer),
+                              SimpleResponseConsumer.create (),
+                              aContext,
+                              null)
+                    .get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      final InterruptedIOException ex2 = new InterruptedIOException ("Interrupted while waiting for the HTTP response");
+      ex2.initCause (ex);
+      throw ex2;
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof IOException)
+        throw (IOException) aCause;
+      throw new IOException ("Error sending HTTP request", aCause != null ? aCause : ex);
+    }
+  }
+
+  @Nonnull
+  private static ClassicHttpResponse _toClassicResponse (@Nonnull final SimpleHttpResponse aResponse)
+  {
+    final BasicClassicHttpResponse ret = new BasicClassicHttpResponse (aResponse.getCode (),
+                                                                       aResponse.getReasonPhrase ());
+    ret.setVersion (aResponse.getVersion ());
+    ret.setHeaders (aResponse.getHeaders ());
+    final byte [] aBody = aResponse.getBodyBytes ();
+    if (aBody != null)
+      ret.setEntity (new ByteArrayEntity (aBody, aResponse.getContentType ()));
+    return ret;
+  }
+
+  @Override
+  @Nullable
+  protected <T> T sendGenericMessage (@Nonnull @Nonempty final String sURL,
+                                      @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                      @Nonnull final HttpEntity aHttpEntity,
+                                      @Nullable final Timeout aResponseTimeout,
+                                      @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    LOGGER.info ("Starting to transmit AS4 Message via async HTTP client to '" + sURL + "'");
+
+    IOException aCaughtException = null;
+    ClientSet aClients = null;
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Use the classic request to apply headers and the customizer the same
+      // way as the base class does
+      final HttpPost aPost = new HttpPost (sURL);
+      if (aCustomHttpHeaders != null)
+        aCustomHttpHeaders.forEachSingleHeader (aPost::addHeader, true, isQuoteHttpHeaders ());
+      aPost.setEntity (aHttpEntity);
+      if (getHttpCustomizer () != null)
+        getHttpCustomizer ().accept (aPost);
+
+      final URI aURI = URI.create (sURL);
+      final HttpEntity aEntity = aPost.getEntity ();
+      final ContentType aContentType = ContentType.parse (aEntity.getContentType ());
+
+      // Materialize the entity once, so that it can be sent twice (HTTP/1.1
+      // fallback) and so that the dumping entity is only invoked once
+      byte [] aBytes = null;
+      File aSpoolFile = null;
+      final long nContentLength = aEntity.getContentLength ();
+      if (nContentLength >= 0 && nContentLength <= MAX_IN_MEMORY_ENTITY_SIZE)
+      {
+        try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ((int) nContentLength))
+        {
+          aEntity.writeTo (aBAOS);
+          aBytes = aBAOS.toByteArray ();
+        }
+      }
+      else
+      {
+        // Deleted when the resource helper is closed
+        aSpoolFile = aResHelper.createTempFile ();
+        try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aSpoolFile))
+        {
+          if (aOS == null)
+            throw new IOException ("Failed to open temporary file '" + aSpoolFile.getAbsolutePath () + "'");
+          aEntity.writeTo (aOS);
+        }
+      }
+
+      final BasicHttpRequest aRequest = new BasicHttpRequest (Method.POST, aURI);
+      for (final Header aHeader : aPost.getHeaders ())
+        aRequest.addHeader (aHeader);
+      if (StringHelper.hasText (aEntity.getContentEncoding ()))
+        aRequest.setHeader (HttpHeaders.CONTENT_ENCODING, aEntity.getContentEncoding ());
+
+      AS4HttpDebug.debug ( () -> "SEND-START (async) to " + sURL);
+
+      final RequestConfig aRequestConfig = aResponseTimeout == null ? null
+                                                                    : RequestConfig.copy (getHttpClientFactory ().createRequestConfig ())
+                                                                                   .setResponseTimeout (aResponseTimeout)
+                                                                                   .build ();
+
+      // The clients stay open until this request is done
+      aClients = _acquireClients ();
+
+      SimpleHttpResponse aResponse;
+      final boolean bUseHttp2 = _canUseHttp2 (aURI);
+      try
+      {
+        aResponse = _execute (bUseHttp2 ? aClients.m_aH2Client : aClients.m_aHttp1Client,
+                              aRequest,
+                              aBytes != null ? new BasicAsyncEntityProducer (aBytes, aContentType)
+                                             : AsyncEntityProducers.create (aSpoolFile, aContentType),
+                              aRequestConfig);
+      }
+      catch (final IOException ex)
+      {
+        if (!bUseHttp2 || !_isProtocolNegotiationFailure (ex))
+          throw ex;
+
+        // The destination does not speak h2 - remember and fall back
+        final String sHostKey = _getHostKey (aURI);
+        LOGGER.info ("Host '" + sHostKey + "' does not support HTTP/2 - falling back to HTTP/1.1");
+        m_aLock.locked ( () -> m_aHttp1OnlyHosts.add (sHostKey));
+
+        aResponse = _execute (aClients.m_aHttp1Client,
+                              aRequest,
+                              aBytes != null ? new BasicAsyncEntityProducer (aBytes, aContentType)
+                                             : AsyncEntityProducers.create (aSpoolFile, aContentType),
+                              aRequestConfig);
+      }
+
+      try
+      {
+        return aResponseHandler.handleResponse (_toClassicResponse (aResponse));
+      }
+      catch (final HttpException ex)
+      {
+        throw new ClientProtocolException (ex.getMessage (), ex);
+      }
+    }
+    catch (final IOException ex)
+    {
+      aCaughtException = ex;
+      throw ex;
+    }
+    finally
+    {
+      if (aClients != null)
+        _releaseClients (aClients);
+
+      aSW.stop ();
+      LOGGER.info ((aCaughtException != null ? "Failed" : "Finished") +
+                   " transmitting AS4 Message via async HTTP client to '" +
+                   sURL +
+                   "' after " +
+                   aSW.getMillis () +
+                   " ms");
+    }
+  }
+
+  /**
+   * Close all contained HTTP clients. Clients that are used by requests that
+   * are still running are closed as soon as these requests are finished. The
+   * object can still be used afterwards and the clients are recreated on
+   * demand.
+   */
+  public void close ()
+  {
+    m_aLock.locked (this::_retireClients);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * Exception thrown by {@link BasicHttpPoster} if a message is not sent,
+ * because the {@link HttpEndpointCircuitBreaker} of the destination is open.
+ * Messages failing with this exception are not retried.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+public class HttpCircuitBreakerOpenException extends IOException
+{
+  private final String m_sHostKey;
+
+  public HttpCircuitBreakerOpenException (@Nonnull @Nonempty final String sHostKey, @Nullable final String sMessage)
+  {
+    super (sMessage);
+    m_sHostKey = sHostKey;
+  }
+
+  /**
+   * @return The host key (host and port) of the destination for which the
+   *         circuit breaker is open. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getHostKey ()
+  {
+    return m_sHostKey;
+  }
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A circuit breaker for outgoing HTTP messages, that keeps a separate state
+ * per destination (host and port). After a configurable number of consecutive
+ * failures the breaker of a destination opens and all messages to it fail fast
+ * with a {@link HttpCircuitBreakerOpenException}. After the open duration
+ * elapsed, a single probe message is let through (half-open) - if it succeeds
+ * the breaker closes again, otherwise it stays open for another period.<br>
+ * Additionally the latency of successful messages is recorded per destination,
+ * so that the response timeout can be adapted to the observed behaviour of the
+ * endpoint (see {@link #getAdaptiveResponseTimeout(String, Timeout)}). The
+ * adaptive timeout never goes below the configured response timeout.<br>
+ * An instance of this class is meant to be shared between all messages, e.g.
+ * by using {@link #getDefaultInstance()} in
+ * {@link HttpRetrySettings#setCircuitBreaker(HttpEndpointCircuitBreaker)}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class HttpEndpointCircuitBreaker
+{
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds (30);
+  public static final int DEFAULT_LATENCY_SAMPLE_SIZE = 50;
+  public static final int DEFAULT_MIN_LATENCY_SAMPLES = 10;
+  public static final int DEFAULT_LATENCY_PERCENTILE = 99;
+  public static final int DEFAULT_TIMEOUT_MULTIPLIER = 3;
+  public static final Duration DEFAULT_MIN_RESPONSE_TIMEOUT = Duration.ofSeconds (5);
+  public static final Duration DEFAULT_MAX_RESPONSE_TIMEOUT = Duration.ofMinutes (2);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (HttpEndpointCircuitBreaker.class);
+
+  private static final class SingletonHolder
+  {
+    static final HttpEndpointCircuitBreaker INSTANCE = new HttpEndpointCircuitBreaker ();
+  }
+
+  /**
+   * The state of a single destination.
+   */
+  private static final class EndpointState
+  {
+    private final SimpleLock m_aLock = new SimpleLock ();
+    @GuardedBy ("m_aLock")
+    private ECircuitBreakerState m_eState = ECircuitBreakerState.CLOSED;
+    @GuardedBy ("m_aLock")
+    private int m_nConsecutiveFailures;
+    @GuardedBy ("m_aLock")
+    private long m_nOpenedAt;
+    @GuardedBy ("m_aLock")
+    private boolean m_bProbeInFlight;
+    @GuardedBy ("m_aLock")
+    private final long [] m_aLatencies;
+    @GuardedBy ("m_aLock")
+    private int m_nLatencyCount;
+    @GuardedBy ("m_aLock")
+    private int m_nLatencyIndex;
+
+    EndpointState (@Nonnegative final int nLatencySampleSize)
+    {
+      m_aLatencies = new long [nLatencySampleSize];
+    }
+  }
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, EndpointState> m_aStates = new CommonsHashMap <> ();
+
+  private volatile int m_nFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+  private volatile Duration m_aOpenDuration = DEFAULT_OPEN_DURATION;
+  private final int m_nLatencySampleSize;
+  private volatile int m_nMinLatencySamples = DEFAULT_MIN_LATENCY_SAMPLES;
+  private volatile int m_nLatencyPercentile = DEFAULT_LATENCY_PERCENTILE;
+  private volatile int m_nTimeoutMultiplier = DEFAULT_TIMEOUT_MULTIPLIER;
+  private volatile Duration m_aMinResponseTimeout = DEFAULT_MIN_RESPONSE_TIMEOUT;
+  private volatile Duration m_aMaxResponseTimeout = DEFAULT_MAX_RESPONSE_TIMEOUT;
+
+  public HttpEndpointCircuitBreaker ()
+  {
+    this (DEFAULT_LATENCY_SAMPLE_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nLatencySampleSize
+   *        The number of most recent latency samples that is kept per
+   *        destination. Must be &gt; 0.
+   */
+  public HttpEndpointCircuitBreaker (@Nonnegative final int nLatencySampleSize)
+  {
+    ValueEnforcer.isGT0 (nLatencySampleSize, "LatencySampleSize");
+    m_nLatencySampleSize = nLatencySampleSize;
+  }
+
+  /**
+   * @return The shared default instance. Never <code>null</code>.
+   */
+  @Nonnull
+  public static HttpEndpointCircuitBreaker getDefaultInstance ()
+  {
+    return SingletonHolder.INSTANCE;
+  }
+
+  /**
+   * Get the key used to identify the destination of the provided URL.
+   *
+   * @param sURL
+   *        The URL to get the key from. May neither be <code>null</code> nor
+   *        empty.
+   * @return The host key consisting of host and port. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getHostKey (@Nonnull @Nonempty final String sURL)
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    final URI aURI = URI.create (sURL);
+    int nPort = aURI.getPort ();
+    if (nPort < 0)
+      nPort = "https".equalsIgnoreCase (aURI.getScheme ()) ? 443 : 80;
+    return aURI.getHost () + ":" + nPort;
+  }
+
+  public final int getFailureThreshold ()
+  {
+    return m_nFailureThreshold;
+  }
+
+  /**
+   * @param nFailureThreshold
+   *        The number of consecutive failures after which the breaker of a
+   *        destination opens. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpEndpointCircuitBreaker setFailureThreshold (@Nonnegative final int nFailureThreshold)
+  {
+    ValueEnforcer.isGT0 (nFailureThreshold, "FailureThreshold");
+    m_nFailureThreshold = nFailureThreshold;
+    return this;
+  }
+
+  @Nonnull
+  public final Duration getOpenDuration ()
+  {
+    return m_aOpenDuration;
+  }
+
+  /**
+   * @param aOpenDuration
+   *        The duration an opened breaker stays open, before a probe message is
+   *        let through. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpEndpointCircuitBreaker setOpenDuration (@Nonnull final Duration aOpenDuration)
+  {
+    ValueEnforcer.notNull (aOpenDuration, "OpenDuration");
+    m_aOpenDuration = aOpenDuration;
+    return this;
+  }
+
+  @Nonnegative
+  public final int getLatencySampleSize ()
+  {
+    return m_nLatencySampleSize;
+  }
+
+  @Nonnegative
+  public final int getMinLatencySamples ()
+  {
+    return m_nMinLatencySamples;
+  }
+
+  /**
+   * @param nMinLatencySamples
+   *        The minimum number of latency samples that must be present for a
+   *        destination, before the response timeout is adapted. Must be &gt;
+   *        0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpEndpointCircuitBreaker setMinLatencySamples (@Nonnegative final int nMinLatencySamples)
+  {
+    ValueEnforcer.isGT0 (nMinLatencySamples, "MinLatencySamples");
+    m_nMinLatencySamples = nMinLatencySamples;
+    return this;
+  }
+
+  @Nonnegative
+  public final int getLatencyPercentile ()
+  {
+    return m_nLatencyPercentile;
+  }
+
+  /**
+   * @param nLatencyPercentile
+   *        The latency percentile (1-100) that is the basis for the adaptive
+   *        response timeout.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpEndpointCircuitBreaker setLatencyPercentile (final int nLatencyPercentile)
+  {
+    ValueEnforcer.isBetweenInclusive (nLatencyPercentile, "LatencyPercentile", 1, 100);
+    m_nLatencyPercentile = nLatencyPercentile;
+    return this;
+  }
+
+  @Nonnegative
+  public final int getTimeoutMultiplier ()
+  {
+    return m_nTimeoutMultiplier;
+  }
+
+  /**
+   * @param nTimeoutMultiplier
+   *        The factor by which the latency percentile is multiplied to get the
+   *        adaptive response timeout. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpEndpointCircuitBreaker setTimeoutMultiplier (@Nonnegative final int nTimeoutMultiplier)
+  {
+    ValueEnforcer.isGT0 (nTimeoutMultiplier, "TimeoutMultiplier");
+    m_nTimeoutMultiplier = nTimeoutMultiplier;
+    return this;
+  }
+
+  @Nonnull
+  public final Duration getMinResponseTimeout ()
+  {
+    return m_aMinResponseTimeout;
+  }
+
+  @Nonnull
+  public final Duration getMaxResponseTimeout ()
+  {
+    return m_aMaxResponseTimeout;
+  }
+
+  /**
+   * Set the lower and upper bound of the adaptive response timeout.
+   *
+   * @param aMinResponseTimeout
+   *        The minimum response timeout. May not be <code>null</code>.
+   * @param aMaxResponseTimeout
+   *        The maximum response timeout. May not be <code>null</code> and must
+   *        be &ge; the minimum.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final HttpEndpointCircuitBreaker setResponseTimeoutBounds (@Nonnull final Duration aMinResponseTimeout,
+                                                                    @Nonnull final Duration aMaxResponseTimeout)
+  {
+    ValueEnforcer.notNull (aMinResponseTimeout, "MinResponseTimeout");
+    ValueEnforcer.notNull (aMaxResponseTimeout, "MaxResponseTimeout");
+    ValueEnforcer.isTrue (aMinResponseTimeout.compareTo (aMaxResponseTimeout) <= 0,
+                          "MinResponseTimeout must be <= MaxResponseTimeout");
+    m_aMinResponseTimeout = aMinResponseTimeout;
+    m_aMaxResponseTimeout = aMaxResponseTimeout;
+    return this;
+  }
+
+  @Nonnull
+  private EndpointState _getState (@Nonnull final String sHostKey)
+  {
+    final EndpointState ret = m_aRWLock.readLockedGet ( () -> m_aStates.get (sHostKey));
+    if (ret != null)
+      return ret;
+    return m_aRWLock.writeLockedGet ( () -> m_aStates.computeIfAbsent (sHostKey,
+                                                                      k -> new EndpointState (m_nLatencySampleSize)));
+  }
+
+  /**
+   * Get the current state of the provided destination.
+   *
+   * @param sHostKey
+   *        The host key as created by {@link #getHostKey(String)}. May neither
+   *        be <code>null</code> nor empty.
+   * @return The current state. Never <code>null</code>.
+   */
+  @Nonnull
+  public ECircuitBreakerState getState (@Nonnull @Nonempty final String sHostKey)
+  {
+    final EndpointState aState = _getState (sHostKey);
+    return aState.m_aLock.lockedGet ( () -> aState.m_eState);
+  }
+
+  /**
+   * Check if a message may be sent to the provided destination. If the breaker
+   * is open and the open duration elapsed, it switches to half-open and this
+   * call is allowed as the single probe.
+   *
+   * @param sHostKey
+   *        The host key as created by {@link #getHostKey(String)}. May neither
+   *        be <code>null</code> nor empty.
+   * @return <code>true</code> if the message may be sent, <code>false</code>
+   *         if it should fail fast.
+   */
+  public boolean isRequestAllowed (@Nonnull @Nonempty final String sHostKey)
+  {
+    final EndpointState aState = _getState (sHostKey);
+    return aState.m_aLock.lockedGet ( () -> {
+      switch (aState.m_eState)
+      {
+        case CLOSED:
+          return Boolean.TRUE;
+        case OPEN:
+          if (System.nanoTime () - aState.m_nOpenedAt < m_aOpenDuration.toNanos ())
+            return Boolean.FALSE;
+          LOGGER.info ("Circuit breaker for '" + sHostKey + "' is now half-open");
+          aState.m_eState = ECircuitBreakerState.HALF_OPEN;
+          aState.m_bProbeInFlight = true;
+          return Boolean.TRUE;
+        case HALF_OPEN:
+          if (aState.m_bProbeInFlight)
+            return Boolean.FALSE;
+          aState.m_bProbeInFlight = true;
+          return Boolean.TRUE;
+        default:
+          throw new IllegalStateException ("Unsupported state " + aState.m_eState);
+      }
+    }).booleanValue ();
+  }
+
+  /**
+   * Notify about a successful transmission to the provided destination. This
+   * closes the breaker and records the latency.
+   *
+   * @param sHostKey
+   *        The host key as created by {@link #getHostKey(String)}. May neither
+   *        be <code>null</code> nor empty.
+   * @param aLatency
+   *        The observed latency. May not be <code>null</code>.
+   */
+  public void onSuccess (@Nonnull @Nonempty final String sHostKey, @Nonnull final Duration aLatency)
+  {
+    ValueEnforcer.notNull (aLatency, "Latency");
+    final EndpointState aState = _getState (sHostKey);
+    aState.m_aLock.locked ( () -> {
+      if (aState.m_eState != ECircuitBreakerState.CLOSED)
+        LOGGER.info ("Circuit breaker for '" + sHostKey + "' is now closed again");
+      aState.m_eState = ECircuitBreakerState.CLOSED;
+      aState.m_nConsecutiveFailures = 0;
+      aState.m_bProbeInFlight = false;
+
+      aState.m_aLatencies[aState.m_nLatencyIndex] = aLatency.toMillis ();
+      aState.m_nLatencyIndex = (aState.m_nLatencyIndex + 1) % aState.m_aLatencies.length;
+      if (aState.m_nLatencyCount < aState.m_aLatencies.length)
+        aState.m_nLatencyCount++;
+    });
+  }
+
+  /**
+   * Notify about a failed transmission to the provided destination. This may
+   * open the breaker.
+   *
+   * @param sHostKey
+   *        The host key as created by {@link #getHostKey(String)}. May neither
+   *        be <code>null</code> nor empty.
+   */
+  public void onFailure (@Nonnull @Nonempty final String sHostKey)
+  {
+    final EndpointState aState = _getState (sHostKey);
+    aState.m_aLock.locked ( () -> {
+      aState.m_nConsecutiveFailures++;
+      aState.m_bProbeInFlight = false;
+      if (aState.m_eState == ECircuitBreakerState.HALF_OPEN ||
+          (aState.m_eState == ECircuitBreakerState.CLOSED && aState.m_nConsecutiveFailures >= m_nFailureThreshold))
+      {
+        LOGGER.warn ("Circuit breaker for '" +
+                     sHostKey +
+                     "' is now open after " +
+                     aState.m_nConsecutiveFailures +
+                     " consecutive failures");
+        aState.m_eState = ECircuitBreakerState.OPEN;
+        aState.m_nOpenedAt = System.nanoTime ();
+      }
+    });
+  }
+
+  /**
+   * Get the response timeout to be used for the provided destination, based on
+   * the configured percentile of the recently observed latencies multiplied
+   * with the timeout multiplier, bound by the minimum and maximum response
+   * timeout.
+   *
+   * @param sHostKey
+   *        The host key as created by {@link #getHostKey(String)}. May neither
+   *        be <code>null</code> nor empty.
+   * @return <code>null</code> if not enough latency samples are present, in
+   *         which case the configured response timeout should be used.
+   * @see #getAdaptiveResponseTimeout(String, Timeout)
+   */
+  @Nullable
+  public Timeout getAdaptiveResponseTimeout (@Nonnull @Nonempty final String sHostKey)
+  {
+    final EndpointState aState = _getState (sHostKey);
+    final long [] aSamples = aState.m_aLock.lockedGet ( () -> aState.m_nLatencyCount < m_nMinLatencySamples ? null
+                                                                                                          : Arrays.copyOf (aState.m_aLatencies,
+                                                                                                                           aState.m_nLatencyCount));
+    if (aSamples == null)
+      return null;
+
+    Arrays.sort (aSamples);
+    final int nIndex = Math.max (0, (int) Math.ceil (m_nLatencyPercentile / 100d * aSamples.length) - 1);
+    final long nMillis = aSamples[nIndex] * m_nTimeoutMultiplier;
+    final long nBounded = Math.min (Math.max (nMillis, m_aMinResponseTimeout.toMillis ()),
+                                    m_aMaxResponseTimeout.toMillis ());
+    return Timeout.ofMilliseconds (nBounded);
+  }
+
+  /**
+   * Get the response timeout to be used for the provided destination, based on
+   * {@link #getAdaptiveResponseTimeout(String)}, but never below the provided
+   * configured response timeout. The adaptive timeout does not know the size of
+   * the message, so it may only extend the configured response timeout for
+   * slow endpoints, but never shorten it.
+   *
+   * @param sHostKey
+   *        The host key as created by {@link #getHostKey(String)}. May neither
+   *        be <code>null</code> nor empty.
+   * @param aConfiguredResponseTimeout
+   *        The configured response timeout of the HTTP client. May be
+   *        <code>null</code> if unknown. A non-positive value means "no
+   *        timeout".
+   * @return <code>null</code> if the configured response timeout should be
+   *         used.
+   * @since 3.0.1
+   */
+  @Nullable
+  public Timeout getAdaptiveResponseTimeout (@Nonnull @Nonempty final String sHostKey,
+                                             @Nullable final Timeout aConfiguredResponseTimeout)
+  {
+    final Timeout aAdaptive = getAdaptiveResponseTimeout (sHostKey);
+    if (aAdaptive == null || aConfiguredResponseTimeout == null)
+      return aAdaptive;
+
+    // No timeout configured - never introduce one
+    if (!TimeValue.isPositive (aConfiguredResponseTimeout))
+      return null;
+
+    if (aAdaptive.toMilliseconds () <= aConfiguredResponseTimeout.toMilliseconds ())
+      return null;
+    return aAdaptive;
+  }
+
+  /**
+   * Remove all stored destination states.
+   */
+  public void reset ()
+  {
+    m_aRWLock.writeLocked (m_aStates::clear);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("FailureThreshold", m_nFailureThreshold)
+                                       .append ("OpenDuration", m_aOpenDuration)
+                                       .append ("LatencySampleSize", m_nLatencySampleSize)
+                                       .append ("MinLatencySamples", m_nMinLatencySamples)
+                                       .append ("LatencyPercentile", m_nLatencyPercentile)
+                                       .append ("TimeoutMultiplier", m_nTimeoutMultiplier)
+                                       .append ("MinResponseTimeout", m_aMinResponseTimeout)
+                                       .append ("MaxResponseTimeout", m_aMaxResponseTimeout)
+                                       .getToString ();
+  }
+}
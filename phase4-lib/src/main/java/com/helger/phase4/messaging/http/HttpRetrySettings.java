@@ -18,9 +18,11 @@ package com.helger.phase4.messaging.http;
 
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.commons.ValueEnforcer;
@@ -42,10 +44,17 @@ public class HttpRetrySettings
   public static final int DEFAULT_MAX_RETRIES = 0;
   public static final Duration DEFAULT_RETRY_DURATION = Duration.ofSeconds (10);
   public static final BigDecimal DEFAULT_RETRY_INCREASE_FACTOR = BigDecimal.ONE;
+  /** @since 3.0.1 */
+  public static final boolean DEFAULT_DECORRELATED_JITTER = false;
+  /** @since 3.0.1 */
+  public static final Duration DEFAULT_MAX_DURATION_BEFORE_RETRY = Duration.ofMinutes (5);
 
   private int m_nMaxRetries = DEFAULT_MAX_RETRIES;
   private Duration m_aDurationBeforeRetry = DEFAULT_RETRY_DURATION;
   private BigDecimal m_aRetryIncreaseFactor = DEFAULT_RETRY_INCREASE_FACTOR;
+  private boolean m_bDecorrelatedJitter = DEFAULT_DECORRELATED_JITTER;
+  private Duration m_aMaxDurationBeforeRetry = DEFAULT_MAX_DURATION_BEFORE_RETRY;
+  private HttpEndpointCircuitBreaker m_aCircuitBreaker;
 
   public HttpRetrySettings ()
   {}
@@ -145,6 +154,94 @@ public class HttpRetrySettings
     return this;
   }
 
+  /**
+   * @return <code>true</code> if the waiting time between retries is
+   *         calculated with decorrelated jitter, <code>false</code> if the
+   *         increase factor is used. Default is
+   *         {@link #DEFAULT_DECORRELATED_JITTER}.
+   * @since 3.0.1
+   */
+  public final boolean isDecorrelatedJitter ()
+  {
+    return m_bDecorrelatedJitter;
+  }
+
+  /**
+   * Enable or disable decorrelated jitter for the waiting time between
+   * retries. If enabled, each waiting time is a random value between
+   * {@link #getDurationBeforeRetry()} and three times the previous waiting
+   * time, bound by {@link #getMaxDurationBeforeRetry()}. This avoids that many
+   * senders retry against the same endpoint at the same time. The retry
+   * increase factor is ignored in this case.
+   *
+   * @param bDecorrelatedJitter
+   *        <code>true</code> to enable, <code>false</code> to disable.
+   * @return this for chaining
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final HttpRetrySettings setDecorrelatedJitter (final boolean bDecorrelatedJitter)
+  {
+    m_bDecorrelatedJitter = bDecorrelatedJitter;
+    return this;
+  }
+
+  /**
+   * @return The upper bound of the waiting time between retries, if
+   *         decorrelated jitter is enabled. Never <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final Duration getMaxDurationBeforeRetry ()
+  {
+    return m_aMaxDurationBeforeRetry;
+  }
+
+  /**
+   * Set the upper bound of the waiting time between retries, if decorrelated
+   * jitter is enabled.
+   *
+   * @param aMaxDurationBeforeRetry
+   *        The maximum duration to use. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final HttpRetrySettings setMaxDurationBeforeRetry (@Nonnull final Duration aMaxDurationBeforeRetry)
+  {
+    ValueEnforcer.notNull (aMaxDurationBeforeRetry, "MaxDurationBeforeRetry");
+    m_aMaxDurationBeforeRetry = aMaxDurationBeforeRetry;
+    return this;
+  }
+
+  /**
+   * @return The circuit breaker to be used. May be <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nullable
+  public final HttpEndpointCircuitBreaker getCircuitBreaker ()
+  {
+    return m_aCircuitBreaker;
+  }
+
+  /**
+   * Set the per-destination circuit breaker to be used. If a circuit breaker
+   * is set, messages to destinations with an open breaker fail fast without
+   * being retried, and the response timeout is adapted to the observed latency
+   * of the destination. The same instance should be used for all messages.
+   *
+   * @param aCircuitBreaker
+   *        The circuit breaker to use. May be <code>null</code> to disable it.
+   * @return this for chaining
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final HttpRetrySettings setCircuitBreaker (@Nullable final HttpEndpointCircuitBreaker aCircuitBreaker)
+  {
+    m_aCircuitBreaker = aCircuitBreaker;
+    return this;
+  }
+
   @Nonnull
   public static Duration getIncreased (@Nonnull final Duration aDuration,
                                        @Nonnull final BigDecimal aRetryIncreaseFactor)
@@ -156,12 +253,40 @@ public class HttpRetrySettings
     return Duration.ofNanos (aRetryIncreaseFactor.multiply (BigDecimal.valueOf (aDuration.toNanos ())).longValue ());
   }
 
+  /**
+   * Calculate the next waiting time using decorrelated jitter: a random value
+   * between the base duration and three times the previous duration, bound by
+   * the maximum duration.
+   *
+   * @param aBase
+   *        The base duration. May not be <code>null</code>.
+   * @param aPrevious
+   *        The previous waiting time. May not be <code>null</code>.
+   * @param aMax
+   *        The upper bound. May not be <code>null</code>.
+   * @return The next waiting time. Never <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public static Duration getDecorrelatedJitter (@Nonnull final Duration aBase,
+                                                @Nonnull final Duration aPrevious,
+                                                @Nonnull final Duration aMax)
+  {
+    final long nBase = aBase.toMillis ();
+    final long nUpper = Math.max (nBase, aPrevious.toMillis () * 3);
+    final long nNext = nUpper > nBase ? ThreadLocalRandom.current ().nextLong (nBase, nUpper + 1) : nBase;
+    return Duration.ofMillis (Math.min (nNext, aMax.toMillis ()));
+  }
+
   public final void assignFrom (@Nonnull final HttpRetrySettings aOther)
   {
     ValueEnforcer.notNull (aOther, "Other");
     setMaxRetries (aOther.getMaxRetries ());
     setDurationBeforeRetry (aOther.getDurationBeforeRetry ());
     setRetryIncreaseFactor (aOther.getRetryIncreaseFactor ());
+    setDecorrelatedJitter (aOther.isDecorrelatedJitter ());
+    setMaxDurationBeforeRetry (aOther.getMaxDurationBeforeRetry ());
+    setCircuitBreaker (aOther.getCircuitBreaker ());
   }
 
   @Override
@@ -174,7 +299,10 @@ public class HttpRetrySettings
     final HttpRetrySettings rhs = (HttpRetrySettings) o;
     return m_nMaxRetries == rhs.m_nMaxRetries &&
            m_aDurationBeforeRetry.equals (rhs.m_aDurationBeforeRetry) &&
-           EqualsHelper.equals (m_aRetryIncreaseFactor, rhs.m_aRetryIncreaseFactor);
+           EqualsHelper.equals (m_aRetryIncreaseFactor, rhs.m_aRetryIncreaseFactor) &&
+           m_bDecorrelatedJitter == rhs.m_bDecorrelatedJitter &&
+           m_aMaxDurationBeforeRetry.equals (rhs.m_aMaxDurationBeforeRetry) &&
+           EqualsHelper.identityEqual (m_aCircuitBreaker, rhs.m_aCircuitBreaker);
   }
 
   @Override
@@ -183,6 +311,9 @@ public class HttpRetrySettings
     return new HashCodeGenerator (this).append (m_nMaxRetries)
                                        .append (m_aDurationBeforeRetry)
                                        .append (m_aRetryIncreaseFactor)
+                                       .append (m_bDecorrelatedJitter)
+                                       .append (m_aMaxDurationBeforeRetry)
+                                       .append (m_aCircuitBreaker)
                                        .getHashCode ();
   }
 
@@ -192,6 +323,9 @@ public class HttpRetrySettings
     return new ToStringGenerator (this).append ("MaxRetries", m_nMaxRetries)
                                        .append ("DurationBeforeRetry", m_aDurationBeforeRetry)
                                        .append ("RetryIncreaseFactor", m_aRetryIncreaseFactor)
+                                       .append ("DecorrelatedJitter", m_bDecorrelatedJitter)
+                                       .append ("MaxDurationBeforeRetry", m_aMaxDurationBeforeRetry)
+                                       .append ("CircuitBreaker", m_aCircuitBreaker)
                                        .getToString ();
   }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.socket.LayeredConnectionSocketFactory;
+import org.apache.hc.core5.io.CloseMode;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.httpclient.HttpClientFactory;
+
+/**
+ * A special {@link HttpClientFactory} that lets all created HTTP clients share
+ * a single connection pool. Closing a created HTTP client does not close the
+ * pool, so that open (TLS) connections can be reused by subsequent messages to
+ * the same endpoint. The pool is closed when this factory is closed.<br>
+ * The HTTP client settings are taken from the source factory, and the
+ * connection pool is created by the source factory as well.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class SharedConnectionHttpClientFactory extends HttpClientFactory implements AutoCloseable
+{
+  private final HttpClientConnectionManager m_aConnectionManager;
+
+  public SharedConnectionHttpClientFactory (@Nonnull final HttpClientFactory aSrcFactory)
+  {
+    super (aSrcFactory.httpClientSettings ());
+    ValueEnforcer.notNull (aSrcFactory, "SrcFactory");
+    m_aConnectionManager = aSrcFactory.createConnectionManager (aSrcFactory.createSSLFactory ());
+  }
+
+  @Override
+  @Nonnull
+  public HttpClientConnectionManager createConnectionManager (@Nullable final LayeredConnectionSocketFactory aSSLFactory)
+  {
+    return m_aConnectionManager;
+  }
+
+  @Override
+  @Nonnull
+  public HttpClientBuilder createHttpClientBuilder ()
+  {
+    return super.createHttpClientBuilder ().setConnectionManagerShared (true);
+  }
+
+  public void close ()
+  {
+    m_aConnectionManager.close (CloseMode.GRACEFUL);
+  }
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mgr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsTreeMap;
+import com.helger.commons.collection.impl.ICommonsSortedMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A compact, versioned binary persistence for manager contents consisting of
+ * a full snapshot file and an append-only delta log:
+ * <ul>
+ * <li>The snapshot <code>&lt;base&gt;-&lt;id&gt;.snap</code> contains all
+ * records and is read via a memory mapped, read-only buffer. It is never
+ * modified after creation. A new snapshot always gets a new file name, so that
+ * a still mapped old snapshot never needs to be overwritten.</li>
+ * <li>The delta log <code>&lt;base&gt;.log</code> contains all changes since
+ * the snapshot it references. Each entry is protected by a CRC32 checksum.
+ * Upon reading, a torn or corrupt tail (e.g. after a crash) is cut off.</li>
+ * </ul>
+ * Once the delta log grows too large in relation to the number of live
+ * records, the owner should write a new snapshot via
+ * {@link #writeSnapshot(Collection)}, which also resets the delta log.<br>
+ * This class is not thread-safe - the owning manager must serialize all
+ * accesses.
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        The record type
+ * @since 3.0.1
+ */
+@NotThreadSafe
+public class AS4BinarySnapshotStore <T> implements AutoCloseable
+{
+  /**
+   * Callback interface used while loading.
+   *
+   * @author Philip Helger
+   * @param <T>
+   *        The record type
+   */
+  public interface IReplayHandler <T>
+  {
+    /**
+     * A record was added or updated.
+     *
+     * @param aRecord
+     *        The record. Never <code>null</code>.
+     */
+    void onPut (@Nonnull T aRecord);
+
+    /**
+     * The record with the provided ID was removed.
+     *
+     * @param sID
+     *        The ID of the removed record. Never <code>null</code>.
+     */
+    void onDelete (@Nonnull String sID);
+
+    /**
+     * All records were removed.
+     */
+    void onClear ();
+  }
+
+  public static final String FILE_EXTENSION_SNAPSHOT = ".snap";
+  public static final String FILE_EXTENSION_LOG = ".log";
+  public static final int DEFAULT_MIN_COMPACTION_ENTRIES = 1_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4BinarySnapshotStore.class);
+
+  private static final int FORMAT_VERSION = 1;
+  // "P4SN"
+  private static final int MAGIC_SNAPSHOT = 0x5034534E;
+  // "P4DL"
+  private static final int MAGIC_LOG = 0x5034444C;
+  private static final String FILE_EXTENSION_TEMP = ".tmp";
+
+  private static final byte OP_PUT = 1;
+  private static final byte OP_DELETE = 2;
+  private static final byte OP_CLEAR = 3;
+  // op + length
+  private static final int ENTRY_HEADER_SIZE = 1 + 4;
+  private static final int ENTRY_CRC_SIZE = 4;
+
+  private final File m_aDirectory;
+  private final String m_sBaseName;
+  private final IAS4BinaryRecordCodec <T> m_aCodec;
+  private final File m_aLogFile;
+  private boolean m_bSyncWrites = false;
+  private int m_nMinCompactionEntries = DEFAULT_MIN_COMPACTION_ENTRIES;
+
+  // Status vars
+  private FileChannel m_aLogChannel;
+  private File m_aSnapshotFile;
+  private long m_nSnapshotID = 0;
+  private int m_nLogEntryCount = 0;
+  private boolean m_bHadPersistentData = false;
+
+  /**
+   * Constructor
+   *
+   * @param aBaseFile
+   *        The base file. The snapshot and log files are created in the same
+   *        directory, using the file name as prefix. May not be
+   *        <code>null</code>.
+   * @param aCodec
+   *        The record codec to use. May not be <code>null</code>.
+   */
+  public AS4BinarySnapshotStore (@Nonnull final File aBaseFile, @Nonnull final IAS4BinaryRecordCodec <T> aCodec)
+  {
+    ValueEnforcer.notNull (aBaseFile, "BaseFile");
+    ValueEnforcer.notNull (aCodec, "Codec");
+    final File aAbsFile = aBaseFile.getAbsoluteFile ();
+    m_aDirectory = aAbsFile.getParentFile ();
+    m_sBaseName = aAbsFile.getName ();
+    m_aCodec = aCodec;
+    m_aLogFile = new File (m_aDirectory, m_sBaseName + FILE_EXTENSION_LOG);
+  }
+
+  /**
+   * @return <code>true</code> if every log entry is forced to the storage
+   *         device before returning, <code>false</code> if the operating system
+   *         decides when to flush. Default is <code>false</code>.
+   */
+  public final boolean isSyncWrites ()
+  {
+    return m_bSyncWrites;
+  }
+
+  @Nonnull
+  public final AS4BinarySnapshotStore <T> setSyncWrites (final boolean bSyncWrites)
+  {
+    m_bSyncWrites = bSyncWrites;
+    return this;
+  }
+
+  /**
+   * @return The minimum number of log entries before
+   *         {@link #isCompactionRecommended(int)} returns <code>true</code>.
+   */
+  @Nonnegative
+  public final int getMinCompactionEntries ()
+  {
+    return m_nMinCompactionEntries;
+  }
+
+  @Nonnull
+  public final AS4BinarySnapshotStore <T> setMinCompactionEntries (@Nonnegative final int nMinCompactionEntries)
+  {
+    ValueEnforcer.isGE0 (nMinCompactionEntries, "MinCompactionEntries");
+    m_nMinCompactionEntries = nMinCompactionEntries;
+    return this;
+  }
+
+  /**
+   * @return <code>true</code> if a snapshot or a non-empty log was present
+   *         when {@link #load(IReplayHandler)} was called. If not, the owner
+   *         may want to migrate existing data from another format.
+   */
+  public final boolean hadPersistentData ()
+  {
+    return m_bHadPersistentData;
+  }
+
+  /**
+   * @return The number of entries in the current delta log.
+   */
+  @Nonnegative
+  public final int getLogEntryCount ()
+  {
+    return m_nLogEntryCount;
+  }
+
+  @Nonnull
+  private File _getSnapshotFile (final long nSnapshotID)
+  {
+    return new File (m_aDirectory, m_sBaseName + "-" + nSnapshotID + FILE_EXTENSION_SNAPSHOT);
+  }
+
+  @Nonnull
+  private ICommonsSortedMap <Long, File> _getAllSnapshotFiles ()
+  {
+    final String sPrefix = m_sBaseName + "-";
+    final ICommonsSortedMap <Long, File> ret = new CommonsTreeMap <> ();
+    final File [] aFiles = m_aDirectory.listFiles ();
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+      {
+        final String sName = aFile.getName ();
+        if (sName.startsWith (sPrefix) && aFile.isFile ())
+        {
+          if (sName.endsWith (FILE_EXTENSION_SNAPSHOT))
+          {
+            final long nID = StringParser.parseLong (sName.substring (sPrefix.length (),
+                                                                      sName.length () -
+                                                                                          FILE_EXTENSION_SNAPSHOT.length ()),
+                                                     -1);
+            if (nID >= 0)
+              ret.put (Long.valueOf (nID), aFile);
+          }
+          else
+            if (sName.endsWith (FILE_EXTENSION_SNAPSHOT + FILE_EXTENSION_TEMP))
+            {
+              // Leftover of an interrupted snapshot write
+              if (!aFile.delete ())
+                LOGGER.warn ("Failed to delete incomplete snapshot file '" + aFile.getAbsolutePath () + "'");
+            }
+        }
+      }
+    return ret;
+  }
+
+  private void _checkHeader (@Nonnull final ByteBuffer aBB, final int nExpectedMagic, @Nonnull final String sWhat)
+                                                                                                                 throws IOException
+  {
+    final int nMagic = aBB.getInt ();
+    if (nMagic != nExpectedMagic)
+      throw new IOException (sWhat + " has an invalid magic number 0x" + Integer.toHexString (nMagic));
+    final int nFormatVersion = aBB.getInt ();
+    if (nFormatVersion != FORMAT_VERSION)
+      throw new IOException (sWhat + " has the unsupported format version " + nFormatVersion);
+    final String sCodecID = IAS4BinaryRecordCodec.readString (aBB);
+    if (!m_aCodec.getCodecID ().equals (sCodecID))
+      throw new IOException (sWhat +
+                             " was written with codec '" +
+                             sCodecID +
+                             "' but codec '" +
+                             m_aCodec.getCodecID () +
+                             "' is used");
+  }
+
+  @Nonnull
+  private static ByteBuffer _slice (@Nonnull final ByteBuffer aBB, @Nonnegative final int nLen)
+  {
+    final ByteBuffer ret = aBB.slice ();
+    ret.limit (nLen);
+    aBB.position (aBB.position () + nLen);
+    return ret;
+  }
+
+  private int _readSnapshot (@Nonnull final File aFile,
+                             final long nExpectedID,
+                             @Nonnull final IReplayHandler <T> aHandler) throws IOException
+  {
+    final String sWhat = "Snapshot file '" + aFile.getAbsolutePath () + "'";
+    try (final FileChannel aFC = FileChannel.open (aFile.toPath (), StandardOpenOption.READ))
+    {
+      final long nSize = aFC.size ();
+      if (nSize > Integer.MAX_VALUE)
+        throw new IOException (sWhat + " is too large");
+
+      // The mapping stays valid after the channel is closed
+      final MappedByteBuffer aBB = aFC.map (FileChannel.MapMode.READ_ONLY, 0, nSize);
+      _checkHeader (aBB, MAGIC_SNAPSHOT, sWhat);
+      final int nRecordVersion = aBB.getInt ();
+      final long nSnapshotID = aBB.getLong ();
+      if (nSnapshotID != nExpectedID)
+        throw new IOException (sWhat + " contains the unexpected snapshot ID " + nSnapshotID);
+      final int nCount = aBB.getInt ();
+      for (int i = 0; i < nCount; ++i)
+      {
+        final int nLen = aBB.getInt ();
+        final T aRecord = m_aCodec.readRecord (_slice (aBB, nLen), nRecordVersion);
+        if (aRecord != null)
+          aHandler.onPut (aRecord);
+      }
+      return nCount;
+    }
+    catch (final BufferUnderflowException | IllegalArgumentException ex)
+    {
+      throw new IOException (sWhat + " is truncated or corrupt", ex);
+    }
+  }
+
+  private void _writeFully (@Nonnull final ByteBuffer aBB) throws IOException
+  {
+    while (aBB.hasRemaining ())
+      m_aLogChannel.write (aBB);
+    if (m_bSyncWrites)
+      m_aLogChannel.force (false);
+  }
+
+  private void _resetLog () throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try (final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeInt (MAGIC_LOG);
+      aDOS.writeInt (FORMAT_VERSION);
+      IAS4BinaryRecordCodec.writeString (aDOS, m_aCodec.getCodecID ());
+      aDOS.writeInt (m_aCodec.getRecordVersion ());
+      aDOS.writeLong (m_nSnapshotID);
+    }
+    m_aLogChannel.truncate (0);
+    m_aLogChannel.position (0);
+    _writeFully (ByteBuffer.wrap (aBAOS.toByteArray ()));
+    m_nLogEntryCount = 0;
+  }
+
+  /**
+   * Replay the log. Returns the position after the last valid entry.
+   */
+  private int _replayLog (@Nonnull final ByteBuffer aBB,
+                          final int nRecordVersion,
+                          @Nonnull final IReplayHandler <T> aHandler)
+  {
+    final CRC32 aCRC = new CRC32 ();
+    int nValidEnd = aBB.position ();
+    int nEntries = 0;
+    while (aBB.remaining () >= ENTRY_HEADER_SIZE)
+    {
+      final int nStart = aBB.position ();
+      final byte nOp = aBB.get ();
+      final int nLen = aBB.getInt ();
+      if (nLen < 0 || aBB.remaining () < nLen + ENTRY_CRC_SIZE)
+        break;
+
+      final ByteBuffer aChecked = aBB.duplicate ();
+      aChecked.position (nStart).limit (nStart + ENTRY_HEADER_SIZE + nLen);
+      aCRC.reset ();
+      aCRC.update (aChecked);
+      final ByteBuffer aPayload = _slice (aBB, nLen);
+      if (aBB.getInt () != (int) aCRC.getValue ())
+        break;
+
+      switch (nOp)
+      {
+        case OP_PUT:
+          final T aRecord = m_aCodec.readRecord (aPayload, nRecordVersion);
+          if (aRecord != null)
+            aHandler.onPut (aRecord);
+          break;
+        case OP_DELETE:
+          aHandler.onDelete (StandardCharsets.UTF_8.decode (aPayload).toString ());
+          break;
+        case OP_CLEAR:
+          aHandler.onClear ();
+          break;
+        default:
+          LOGGER.warn ("Ignoring unknown delta log operation " + nOp);
+          break;
+      }
+      nValidEnd = aBB.position ();
+      nEntries++;
+    }
+    m_nLogEntryCount = nEntries;
+    return nValidEnd;
+  }
+
+  /**
+   * Load all persisted records and open the delta log for writing. This must
+   * be called exactly once before any of the write methods is used.
+   *
+   * @param aHandler
+   *        The handler receiving all records and changes in the order they
+   *        were persisted. May not be <code>null</code>.
+   * @throws IOException
+   *         In case the snapshot cannot be read
+   */
+  public void load (@Nonnull final IReplayHandler <T> aHandler) throws IOException
+  {
+    ValueEnforcer.notNull (aHandler, "Handler");
+    if (m_aLogChannel != null)
+      throw new IllegalStateException ("The store was already loaded");
+
+    Files.createDirectories (m_aDirectory.toPath ());
+
+    // Use the latest snapshot and remove all older ones
+    final ICommonsSortedMap <Long, File> aSnapshots = _getAllSnapshotFiles ();
+    int nSnapshotCount = 0;
+    if (aSnapshots.isNotEmpty ())
+    {
+      final Long aLastID = aSnapshots.lastKey ();
+      for (final File aOld : aSnapshots.headMap (aLastID).values ())
+        if (!aOld.delete ())
+          LOGGER.warn ("Failed to delete outdated snapshot file '" + aOld.getAbsolutePath () + "'");
+
+      m_nSnapshotID = aLastID.longValue ();
+      m_aSnapshotFile = aSnapshots.get (aLastID);
+      nSnapshotCount = _readSnapshot (m_aSnapshotFile, m_nSnapshotID, aHandler);
+      m_bHadPersistentData = true;
+    }
+
+    m_aLogChannel = FileChannel.open (m_aLogFile.toPath (),
+                                      StandardOpenOption.CREATE,
+                                      StandardOpenOption.READ,
+                                      StandardOpenOption.WRITE);
+    final long nLogSize = m_aLogChannel.size ();
+    boolean bLogValid = false;
+    if (nLogSize > 0)
+    {
+      if (nLogSize > Integer.MAX_VALUE)
+        throw new IOException ("Delta log '" + m_aLogFile.getAbsolutePath () + "' is too large");
+
+      // The log is modified later on, so it is read into the heap instead of
+      // being mapped
+      final ByteBuffer aBB = ByteBuffer.allocate ((int) nLogSize);
+      while (aBB.hasRemaining ())
+        if (m_aLogChannel.read (aBB, aBB.position ()) < 0)
+          break;
+      aBB.flip ();
+
+      try
+      {
+        _checkHeader (aBB, MAGIC_LOG, "Delta log '" + m_aLogFile.getAbsolutePath () + "'");
+        final int nRecordVersion = aBB.getInt ();
+        final long nLogSnapshotID = aBB.getLong ();
+        if (nLogSnapshotID == m_nSnapshotID)
+        {
+          final long nValidEnd = _replayLog (aBB, nRecordVersion, aHandler);
+          if (nValidEnd < nLogSize)
+          {
+            LOGGER.warn ("Cutting off " + (nLogSize - nValidEnd) + " bytes of a torn or corrupt delta log tail");
+            m_aLogChannel.truncate (nValidEnd);
+            if (m_bSyncWrites)
+              m_aLogChannel.force (false);
+          }
+          m_aLogChannel.position (nValidEnd);
+          bLogValid = true;
+          if (m_nLogEntryCount > 0)
+            m_bHadPersistentData = true;
+        }
+        else
+          LOGGER.info ("Ignoring delta log referencing snapshot " +
+                       nLogSnapshotID +
+                       " instead of " +
+                       m_nSnapshotID +
+                       " - it is already contained in the snapshot");
+      }
+      catch (final IOException | BufferUnderflowException ex)
+      {
+        if (!m_bHadPersistentData)
+        {
+          // No snapshot and no readable log - don't overwrite anything
+          m_aLogChannel.close ();
+          m_aLogChannel = null;
+          throw ex instanceof IOException ? (IOException) ex : new IOException ("Delta log is corrupt", ex);
+        }
+        LOGGER.warn ("Ignoring unreadable delta log: " + ex.getMessage ());
+      }
+    }
+    if (!bLogValid)
+      _resetLog ();
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Loaded " +
+                    nSnapshotCount +
+                    " snapshot records and " +
+                    m_nLogEntryCount +
+                    " delta log entries of '" +
+                    m_sBaseName +
+                    "'");
+  }
+
+  private void _checkLoaded ()
+  {
+    if (m_aLogChannel == null)
+      throw new IllegalStateException ("The store is not loaded or already closed");
+  }
+
+  @Nonnull
+  private byte [] _getRecordBytes (@Nonnull final T aRecord) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try (final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      m_aCodec.writeRecord (aRecord, aDOS);
+    }
+    return aBAOS.toByteArray ();
+  }
+
+  private void _append (final byte nOp, @Nonnull final byte [] aPayload) throws IOException
+  {
+    _checkLoaded ();
+
+    final ByteBuffer aBB = ByteBuffer.allocate (ENTRY_HEADER_SIZE + aPayload.length + ENTRY_CRC_SIZE);
+    aBB.put (nOp).putInt (aPayload.length).put (aPayload);
+    final CRC32 aCRC = new CRC32 ();
+    aCRC.update (aBB.array (), 0, aBB.position ());
+    aBB.putInt ((int) aCRC.getValue ());
+    aBB.flip ();
+
+    final long nStart = m_aLogChannel.position ();
+    try
+    {
+      _writeFully (aBB);
+    }
+    catch (final IOException ex)
+    {
+      // Don't leave a partial entry, as all later entries would be lost
+      try
+      {
+        m_aLogChannel.truncate (nStart);
+        m_aLogChannel.position (nStart);
+      }
+      catch (final IOException ex2)
+      {
+        ex.addSuppressed (ex2);
+      }
+      throw ex;
+    }
+    m_nLogEntryCount++;
+  }
+
+  /**
+   * Append a record that was added or updated.
+   *
+   * @param aRecord
+   *        The record to append. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public void appendPut (@Nonnull final T aRecord) throws IOException
+  {
+    ValueEnforcer.notNull (aRecord, "Record");
+    _append (OP_PUT, _getRecordBytes (aRecord));
+  }
+
+  /**
+   * Append the removal of a single record.
+   *
+   * @param sID
+   *        The ID of the removed record. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public void appendDelete (@Nonnull final String sID) throws IOException
+  {
+    ValueEnforcer.notNull (sID, "ID");
+    _append (OP_DELETE, sID.getBytes (StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Append the removal of all records.
+   *
+   * @throws IOException
+   *         In case of a write error
+   */
+  public void appendClear () throws IOException
+  {
+    _append (OP_CLEAR, new byte [0]);
+  }
+
+  /**
+   * Check if the delta log is large enough, so that writing a new snapshot
+   * makes sense.
+   *
+   * @param nLiveRecords
+   *        The number of records currently alive in the owning manager.
+   * @return <code>true</code> if {@link #writeSnapshot(Collection)} should be
+   *         called.
+   */
+  public boolean isCompactionRecommended (@Nonnegative final int nLiveRecords)
+  {
+    return m_nLogEntryCount > 0 && m_nLogEntryCount >= Math.max (m_nMinCompactionEntries, nLiveRecords);
+  }
+
+  /**
+   * Write a new snapshot with all provided records and reset the delta log.
+   * The snapshot is first written to a temporary file and atomically renamed
+   * afterwards, so a crash leaves either the old or the new state.
+   *
+   * @param aRecords
+   *        All live records. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public void writeSnapshot (@Nonnull final Collection <? extends T> aRecords) throws IOException
+  {
+    ValueEnforcer.notNull (aRecords, "Records");
+    _checkLoaded ();
+
+    final long nNewID = Math.max (System.currentTimeMillis (), m_nSnapshotID + 1);
+    final File aNewFile = _getSnapshotFile (nNewID);
+    final File aTempFile = new File (m_aDirectory, aNewFile.getName () + FILE_EXTENSION_TEMP);
+    try (final FileOutputStream aFOS = new FileOutputStream (aTempFile);
+         final DataOutputStream aDOS = new DataOutputStream (new BufferedOutputStream (aFOS)))
+    {
+      aDOS.writeInt (MAGIC_SNAPSHOT);
+      aDOS.writeInt (FORMAT_VERSION);
+      IAS4BinaryRecordCodec.writeString (aDOS, m_aCodec.getCodecID ());
+      aDOS.writeInt (m_aCodec.getRecordVersion ());
+      aDOS.writeLong (nNewID);
+      aDOS.writeInt (aRecords.size ());
+      for (final T aRecord : aRecords)
+      {
+        final byte [] aBytes = _getRecordBytes (aRecord);
+        aDOS.writeInt (aBytes.length);
+        aDOS.write (aBytes);
+      }
+      aDOS.flush ();
+      if (m_bSyncWrites)
+        aFOS.getFD ().sync ();
+    }
+    Files.move (aTempFile.toPath (), aNewFile.toPath (), StandardCopyOption.ATOMIC_MOVE);
+
+    // From here on the new snapshot is authoritative, and the old log is
+    // ignored because it references the old snapshot ID
+    final File aOldFile = m_aSnapshotFile;
+    m_aSnapshotFile = aNewFile;
+    m_nSnapshotID = nNewID;
+    _resetLog ();
+
+    // May fail on platforms where mapped files are locked - retried on next
+    // startup
+    if (aOldFile != null && !aOldFile.delete ())
+      LOGGER.info ("Failed to delete outdated snapshot file '" + aOldFile.getAbsolutePath () + "'");
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Wrote snapshot of " + aRecords.size () + " records to '" + aNewFile.getAbsolutePath () + "'");
+  }
+
+  public void close () throws IOException
+  {
+    if (m_aLogChannel != null)
+    {
+      m_aLogChannel.close ();
+      m_aLogChannel = null;
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("BaseName", m_sBaseName)
+                                       .append ("CodecID", m_aCodec.getCodecID ())
+                                       .append ("SyncWrites", m_bSyncWrites)
+                                       .append ("MinCompactionEntries", m_nMinCompactionEntries)
+                                       .append ("SnapshotID", m_nSnapshotID)
+                                       .append ("LogEntryCount", m_nLogEntryCount)
+                                       .getToString ();
+  }
+}
@@ -18,11 +18,14 @@ package com.helger.phase4.mgr;
 
 import javax.annotation.Nonnull;
 
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.duplicate.AS4DuplicateManagerInMemory;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
+import com.helger.phase4.model.mpc.MPCManagerCopyOnWrite;
 import com.helger.phase4.model.mpc.MPCManagerInMemory;
 import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.model.pmode.PModeManagerCopyOnWrite;
 import com.helger.phase4.model.pmode.PModeManagerInMemory;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
@@ -39,12 +42,16 @@ public class AS4ManagerFactoryInMemory implements IAS4ManagerFactory
   @Nonnull
   public IMPCManager createMPCManager ()
   {
+    if (AS4Configuration.isUseCopyOnWriteManagers ())
+      return new MPCManagerCopyOnWrite ();
     return new MPCManagerInMemory ();
   }
 
   @Nonnull
   public IPModeManager createPModeManager ()
   {
+    if (AS4Configuration.isUseCopyOnWriteManagers ())
+      return new PModeManagerCopyOnWrite ();
     return new PModeManagerInMemory ();
   }
 
@@ -16,22 +16,36 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.annotation.Nonnull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.helger.dao.DAOException;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.duplicate.AS4DuplicateManagerBinary;
 import com.helger.phase4.duplicate.AS4DuplicateManagerXML;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
+import com.helger.phase4.model.mpc.MPCManagerBinary;
 import com.helger.phase4.model.mpc.MPCManagerXML;
 import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.model.pmode.PModeManagerBinary;
 import com.helger.phase4.model.pmode.PModeManagerXML;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
 import com.helger.phase4.util.Phase4Exception;
+import com.helger.photon.io.WebFileIO;
 
 /**
  * Implementation of {@link IAS4ManagerFactory} creating managers that are
- * persisting to disk.
+ * persisting to disk. By default XML files are used. If
+ * {@link AS4Configuration#isUseBinaryManagers()} is enabled, a binary snapshot
+ * plus delta log is used instead, and existing XML files are migrated on first
+ * startup.
  *
  * @author Philip Helger
  * @since 0.9.6
@@ -41,15 +55,49 @@ public class AS4ManagerFactoryPersistingFileSystem implements IAS4ManagerFactory
   private static final String MPC_XML = "as4-mpc.xml";
   private static final String PMODE_XML = "as4-pmode.xml";
   private static final String INCOMING_DUPLICATE_XML = "as4-duplicate-incoming.xml";
+  private static final String MPC_BINARY = "as4-mpc";
+  private static final String PMODE_BINARY = "as4-pmode";
+  private static final String INCOMING_DUPLICATE_BINARY = "as4-duplicate-incoming";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4ManagerFactoryPersistingFileSystem.class);
+
+  @Nonnull
+  private static File _getDataFile (@Nonnull final String sFilename)
+  {
+    return WebFileIO.getDataIO ().getFile (sFilename);
+  }
+
+  private static boolean _needsMigration (final boolean bHadPersistentData, @Nonnull final String sXMLFilename)
+  {
+    if (bHadPersistentData || !_getDataFile (sXMLFilename).isFile ())
+      return false;
+    LOGGER.info ("Migrating '" + sXMLFilename + "' to the binary format");
+    return true;
+  }
 
   @Nonnull
   public IMPCManager createMPCManager () throws Phase4Exception
   {
     try
     {
+      if (AS4Configuration.isUseBinaryManagers ())
+      {
+        final MPCManagerBinary ret = new MPCManagerBinary (_getDataFile (MPC_BINARY));
+        try
+        {
+          if (_needsMigration (ret.hadPersistentData (), MPC_XML))
+            ret.importMPCs (new MPCManagerXML (MPC_XML).getAll ());
+        }
+        catch (final DAOException | IOException | RuntimeException ex)
+        {
+          ret.close ();
+          throw ex;
+        }
+        return ret;
+      }
       return new MPCManagerXML (MPC_XML);
     }
-    catch (final DAOException ex)
+    catch (final DAOException | IOException ex)
     {
       throw new Phase4Exception ("Error creating MPCManager", ex);
     }
@@ -60,9 +108,24 @@ public class AS4ManagerFactoryPersistingFileSystem implements IAS4ManagerFactory
   {
     try
     {
+      if (AS4Configuration.isUseBinaryManagers ())
+      {
+        final PModeManagerBinary ret = new PModeManagerBinary (_getDataFile (PMODE_BINARY));
+        try
+        {
+          if (_needsMigration (ret.hadPersistentData (), PMODE_XML))
+            ret.importPModes (new PModeManagerXML (PMODE_XML).getAll ());
+        }
+        catch (final DAOException | IOException | RuntimeException ex)
+        {
+          ret.close ();
+          throw ex;
+        }
+        return ret;
+      }
       return new PModeManagerXML (PMODE_XML);
     }
-    catch (final DAOException ex)
+    catch (final DAOException | IOException ex)
     {
       throw new Phase4Exception ("Error creating PModeManager", ex);
     }
@@ -73,9 +136,24 @@ public class AS4ManagerFactoryPersistingFileSystem implements IAS4ManagerFactory
   {
     try
     {
+      if (AS4Configuration.isUseBinaryManagers ())
+      {
+        final AS4DuplicateManagerBinary ret = new AS4DuplicateManagerBinary (_getDataFile (INCOMING_DUPLICATE_BINARY));
+        try
+        {
+          if (_needsMigration (ret.hadPersistentData (), INCOMING_DUPLICATE_XML))
+            ret.importItems (new AS4DuplicateManagerXML (INCOMING_DUPLICATE_XML).getAll ());
+        }
+        catch (final DAOException | IOException | RuntimeException ex)
+        {
+          ret.close ();
+          throw ex;
+        }
+        return ret;
+      }
       return new AS4DuplicateManagerXML (INCOMING_DUPLICATE_XML);
     }
-    catch (final DAOException ex)
+    catch (final DAOException | IOException ex)
     {
       throw new Phase4Exception ("Error creating AS4DuplicateManager", ex);
     }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mgr;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.convert.MicroTypeConverter;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+import com.helger.xml.serialize.write.EXMLSerializeIndent;
+import com.helger.xml.serialize.write.IXMLWriterSettings;
+import com.helger.xml.serialize.write.XMLWriterSettings;
+
+/**
+ * An {@link IAS4BinaryRecordCodec} that serializes each record with the
+ * registered micro type converter. This is meant for rich, rarely changing
+ * domain objects (like PModes), for which a hand-written binary layout would
+ * duplicate the existing converters. Each record is still framed separately,
+ * so only the changed record needs to be written.
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        The record type
+ * @since 3.0.1
+ */
+@Immutable
+public class AS4MicroTypeRecordCodec <T extends IHasID <String>> implements IAS4BinaryRecordCodec <T>
+{
+  private static final String ELEMENT_ITEM = "item";
+  private static final IXMLWriterSettings XWS = new XMLWriterSettings ().setIndent (EXMLSerializeIndent.NONE);
+
+  private final String m_sCodecID;
+  private final Class <T> m_aClass;
+
+  public AS4MicroTypeRecordCodec (@Nonnull @Nonempty final String sCodecID, @Nonnull final Class <T> aClass)
+  {
+    ValueEnforcer.notEmpty (sCodecID, "CodecID");
+    ValueEnforcer.notNull (aClass, "Class");
+    m_sCodecID = sCodecID;
+    m_aClass = aClass;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getCodecID ()
+  {
+    return m_sCodecID;
+  }
+
+  @Nonnegative
+  public int getRecordVersion ()
+  {
+    return 1;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID (@Nonnull final T aRecord)
+  {
+    return aRecord.getID ();
+  }
+
+  public void writeRecord (@Nonnull final T aRecord, @Nonnull final DataOutput aDO) throws IOException
+  {
+    final IMicroElement eItem = MicroTypeConverter.convertToMicroElement (aRecord, ELEMENT_ITEM);
+    aDO.write (MicroWriter.getNodeAsBytes (eItem, XWS));
+  }
+
+  @Nullable
+  public T readRecord (@Nonnull final ByteBuffer aBB, final int nRecordVersion)
+  {
+    final byte [] aBytes = new byte [aBB.remaining ()];
+    aBB.get (aBytes);
+    final IMicroDocument aDoc = MicroReader.readMicroXML (aBytes);
+    if (aDoc == null || aDoc.getDocumentElement () == null)
+      return null;
+    return MicroTypeConverter.convertToNative (aDoc.getDocumentElement (), m_aClass);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("CodecID", m_sCodecID).append ("Class", m_aClass).getToString ();
+  }
+}
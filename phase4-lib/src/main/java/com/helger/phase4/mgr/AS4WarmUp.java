@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mgr;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.core5.http.HttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.client.AS4ClientBuiltMessage;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.crypto.ECryptoMode;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.crypto.IAS4PModeAwareCryptoFactory;
+import com.helger.phase4.dump.IAS4IncomingDumper;
+import com.helger.phase4.incoming.AS4IncomingHandler;
+import com.helger.phase4.incoming.AS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.AS4IncomingProfileSelectorConstant;
+import com.helger.phase4.incoming.AS4IncomingReceiverConfiguration;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+import com.helger.phase4.incoming.crypto.AS4IncomingSecurityConfiguration;
+import com.helger.phase4.incoming.soap.SoapHeaderElementProcessorRegistry;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.profile.IAS4Profile;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Warm-up routine that moves the one-time initialization costs from the first
+ * real message to startup: JAXB contexts, XML schemas, WSS4J and Santuario
+ * initialization, key store loading, JCA provider lookups and the JIT. For each
+ * registered AS4 profile a synthetic UserMessage with a compressed attachment
+ * is built, signed and encrypted with the provided crypto factory, and
+ * afterwards parsed, decrypted and verified again. Nothing is sent over the
+ * network and no manager is modified.<br>
+ * All profiles are warmed up in parallel. {@link #isReady()} returns
+ * <code>false</code> until the first warm-up completed and while a warm-up is
+ * running, so that it can be used for readiness checks. Errors during the warm-up are logged but don't
+ * prevent the readiness.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public final class AS4WarmUp
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4WarmUp.class);
+  private static final String WARMUP_ID = "phase4-warmup";
+  private static final byte [] WARMUP_PAYLOAD = "<warmup xmlns=\"urn:phase4:warmup\">phase4</warmup>".getBytes (StandardCharsets.UTF_8);
+  private static final AtomicInteger RUNNING_COUNT = new AtomicInteger (0);
+  private static final AtomicBoolean COMPLETED = new AtomicBoolean (false);
+  private static final IAS4IncomingDumper NO_DUMPER = new IAS4IncomingDumper ()
+  {
+    @Nullable
+    public OutputStream onNewRequest (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                      @Nonnull final HttpHeaderMap aHttpHeaderMap)
+    {
+      // Don't dump synthetic messages
+      return null;
+    }
+
+    public void onEndRequest (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                              @Nullable final Exception aCaughtException)
+    {}
+  };
+
+  private AS4WarmUp ()
+  {}
+
+  /**
+   * @return <code>true</code> if at least one warm-up was completed and no
+   *         warm-up is currently running, <code>false</code> if no warm-up was
+   *         completed yet or if a warm-up is still in progress.
+   */
+  public static boolean isReady ()
+  {
+    return COMPLETED.get () && RUNNING_COUNT.get () == 0;
+  }
+
+  /**
+   * @return The number of warm-ups currently running. Always &ge; 0.
+   */
+  @Nonnegative
+  public static int getRunningCount ()
+  {
+    return RUNNING_COUNT.get ();
+  }
+
+  private static void _warmUpCrypto (@Nonnull final IAS4CryptoFactory aCryptoFactory)
+  {
+    // Load the key store and trust store and resolve the WSS4J Crypto objects
+    aCryptoFactory.getKeyStore ();
+    aCryptoFactory.getTrustStore ();
+    aCryptoFactory.getPrivateKeyEntry ();
+    for (final ECryptoMode eCryptoMode : ECryptoMode.values ())
+      aCryptoFactory.getCrypto (eCryptoMode);
+  }
+
+  static void warmUpProfile (@Nonnull final IAS4Profile aProfile,
+                             @Nonnull final IAS4CryptoFactory aCryptoFactory) throws Exception
+  {
+    final PMode aPMode = aProfile.createPModeTemplate (WARMUP_ID + "-initiator",
+                                                       WARMUP_ID + "-responder",
+                                                       "http://localhost/as4");
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Build, sign and encrypt
+      final AS4ClientUserMessage aClientUserMsg = new AS4ClientUserMessage (aResHelper);
+      aClientUserMsg.setCryptoFactory (aCryptoFactory);
+      aClientUserMsg.setPMode (aPMode, true);
+      aClientUserMsg.setPModeID (aPMode.getID ());
+      aClientUserMsg.setConversationID ("");
+      if (StringHelper.hasNoText (aClientUserMsg.getAction ()))
+        aClientUserMsg.setAction (CAS4.DEFAULT_ACTION_URL);
+      if (StringHelper.hasNoText (aClientUserMsg.getServiceValue ()))
+        aClientUserMsg.setServiceValue (CAS4.DEFAULT_SERVICE_URL);
+      if (StringHelper.hasNoText (aClientUserMsg.getFromRole ()))
+        aClientUserMsg.setFromRole (CAS4.DEFAULT_INITIATOR_URL);
+      if (StringHelper.hasNoText (aClientUserMsg.getFromPartyID ()))
+        aClientUserMsg.setFromPartyID (WARMUP_ID + "-initiator");
+      if (StringHelper.hasNoText (aClientUserMsg.getToRole ()))
+        aClientUserMsg.setToRole (CAS4.DEFAULT_RESPONDER_URL);
+      if (StringHelper.hasNoText (aClientUserMsg.getToPartyID ()))
+        aClientUserMsg.setToPartyID (WARMUP_ID + "-responder");
+      // Required by most profiles
+      aClientUserMsg.ebms3Properties ()
+                    .add (MessageHelperMethods.createEbms3Property (CAS4.ORIGINAL_SENDER, WARMUP_ID + "-sender"));
+      aClientUserMsg.ebms3Properties ()
+                    .add (MessageHelperMethods.createEbms3Property (CAS4.FINAL_RECIPIENT, WARMUP_ID + "-recipient"));
+
+      // Encrypt for ourselves, so that we can decrypt it again
+      final KeyStore.PrivateKeyEntry aPKE = aCryptoFactory.getPrivateKeyEntry ();
+      if (aPKE != null)
+      {
+        final Certificate aCert = aPKE.getCertificate ();
+        if (aCert instanceof X509Certificate)
+          aClientUserMsg.cryptParams ().setCertificate ((X509Certificate) aCert);
+      }
+
+      aClientUserMsg.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (WARMUP_PAYLOAD,
+                                                                                  null,
+                                                                                  "warmup.xml",
+                                                                                  CMimeType.APPLICATION_XML,
+                                                                                  EAS4CompressionMode.GZIP,
+                                                                                  StandardCharsets.UTF_8,
+                                                                                  aResHelper));
+
+      final String sMessageID = aClientUserMsg.createMessageID ();
+      final AS4ClientBuiltMessage aBuiltMsg = aClientUserMsg.buildMessage (sMessageID, null);
+
+      // Serialize like on the wire
+      final HttpEntity aEntity = aBuiltMsg.getHttpEntity ();
+      final byte [] aBytes;
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aEntity.writeTo (aBAOS);
+        aBytes = aBAOS.toByteArray ();
+      }
+      final HttpHeaderMap aHttpHeaders = new HttpHeaderMap ();
+      aHttpHeaders.addHeader (CHttpHeader.CONTENT_TYPE, aEntity.getContentType ());
+      if (aBuiltMsg.hasCustomHttpHeaders ())
+        aBuiltMsg.getAllCustomHttpHeaders ().forEachSingleHeader (aHttpHeaders::addHeader, true, false);
+
+      // Parse, decrypt and verify - always use the warm-up PMode, so that the
+      // PMode manager is not touched. The message is neither dumped nor
+      // reported to the processing status SPIs.
+      final IAS4IncomingMessageMetadata aMessageMetadata = AS4IncomingMessageMetadata.createForResponse (sMessageID);
+      final SoapHeaderElementProcessorRegistry aRegistry = SoapHeaderElementProcessorRegistry.createDefault ( (sPModeID,
+                                                                                                                sService,
+                                                                                                                sAction,
+                                                                                                                sInitiatorID,
+                                                                                                                sResponderID,
+                                                                                                                sAgreementRef,
+                                                                                                                sAddress) -> aPMode,
+                                                                                                              aCryptoFactory,
+                                                                                                              aCryptoFactory,
+                                                                                                              aPMode,
+                                                                                                              AS4IncomingSecurityConfiguration.createDefaultInstance (),
+                                                                                                              new AS4IncomingReceiverConfiguration ());
+      AS4IncomingHandler.parseAS4Message (IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                          aResHelper,
+                                          aMessageMetadata,
+                                          new NonBlockingByteArrayInputStream (aBytes),
+                                          aHttpHeaders,
+                                          (aHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> {
+                                            final IAS4IncomingMessageState aIncomingState = AS4IncomingHandler.processEbmsMessage (aResHelper,
+                                                                                                                                    Locale.US,
+                                                                                                                                    aRegistry,
+                                                                                                                                    aHeaders,
+                                                                                                                                    aSoapDocument,
+                                                                                                                                    eSoapVersion,
+                                                                                                                                    aIncomingAttachments,
+                                                                                                                                    new AS4IncomingProfileSelectorConstant (aProfile.getID ()),
+                                                                                                                                    new CommonsArrayList <> (),
+                                                                                                                                    aMessageMetadata);
+                                            if (!aIncomingState.isSoapHeaderElementProcessingSuccessful ())
+                                              throw new Phase4Exception ("Error processing the warm-up message",
+                                                                         aIncomingState.getSoapWSS4JException ());
+                                          },
+                                          NO_DUMPER,
+                                          null,
+                                          false);
+    }
+    finally
+    {
+      IAS4PModeAwareCryptoFactory.clearContextIfPModeAware (aCryptoFactory);
+    }
+  }
+
+  /**
+   * Start the warm-up for all registered AS4 profiles in the background.
+   * {@link #isReady()} returns <code>false</code> from the moment this method
+   * is called until the returned future is completed.
+   *
+   * @param aCryptoFactory
+   *        The crypto factory to use for signing, encryption, decryption and
+   *        verification. Should be the same as for real messages. May not be
+   *        <code>null</code>.
+   * @return A future that is completed after all warm-up tasks finished. Never
+   *         <code>null</code>. The future is never completed exceptionally.
+   */
+  @Nonnull
+  public static CompletableFuture <Void> startAsync (@Nonnull final IAS4CryptoFactory aCryptoFactory)
+  {
+    ValueEnforcer.notNull (aCryptoFactory, "CryptoFactory");
+
+    final ICommonsList <IAS4Profile> aProfiles = MetaAS4Manager.getProfileMgr ().getAllProfiles ();
+
+    RUNNING_COUNT.incrementAndGet ();
+    final StopWatch aSW = StopWatch.createdStarted ();
+    final int nThreads = Math.max (1, Math.min (aProfiles.size () + 1, Runtime.getRuntime ().availableProcessors ()));
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (nThreads,
+                                                                    new BasicThreadFactory.Builder ().namingPattern ("phase4-warmup-%d")
+                                                                                                     .daemon (true)
+                                                                                                     .build ());
+
+    final ICommonsList <CompletableFuture <Void>> aFutures = new CommonsArrayList <> ();
+    aFutures.add (CompletableFuture.runAsync ( () -> {
+      try
+      {
+        _warmUpCrypto (aCryptoFactory);
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.warn ("Crypto warm-up failed", ex);
+      }
+    }, aExecutor));
+    for (final IAS4Profile aProfile : aProfiles)
+      aFutures.add (CompletableFuture.runAsync ( () -> {
+        try
+        {
+          warmUpProfile (aProfile, aCryptoFactory);
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Finished warm-up of AS4 profile '" + aProfile.getID () + "'");
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.warn ("Warm-up of AS4 profile '" + aProfile.getID () + "' failed", ex);
+        }
+      }, aExecutor));
+
+    LOGGER.info ("Started phase4 warm-up for " + aProfiles.size () + " AS4 profile(s) using " + nThreads + " thread(s)");
+
+    return CompletableFuture.allOf (aFutures.toArray (new CompletableFuture <?> [0])).whenComplete ( (x, ex) -> {
+      aExecutor.shutdown ();
+      COMPLETED.set (true);
+      RUNNING_COUNT.decrementAndGet ();
+      LOGGER.info ("Finished phase4 warm-up after " + aSW.stopAndGetMillis () + " ms");
+    });
+  }
+
+  /**
+   * Run the warm-up for all registered AS4 profiles and wait until it is
+   * finished.
+   *
+   * @param aCryptoFactory
+   *        The crypto factory to use. May not be <code>null</code>.
+   */
+  public static void runAndWait (@Nonnull final IAS4CryptoFactory aCryptoFactory)
+  {
+    startAsync (aCryptoFactory).join ();
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mgr;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * Codec for a single record of an {@link AS4BinarySnapshotStore}. A codec
+ * identifies itself with an ID and a record version, that are both stored in
+ * the file headers, so that files written by a different codec or an older
+ * record layout are detected upon reading.
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        The record type
+ * @since 3.0.1
+ */
+public interface IAS4BinaryRecordCodec <T>
+{
+  /**
+   * @return The ID of this codec. Stored in each file header. May neither be
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  String getCodecID ();
+
+  /**
+   * @return The version of the record layout written by
+   *         {@link #writeRecord(Object, DataOutput)}. Must be &ge; 1.
+   */
+  @Nonnegative
+  int getRecordVersion ();
+
+  /**
+   * Get the unique ID of the provided record. This is used for delete entries
+   * in the delta log.
+   *
+   * @param aRecord
+   *        The record to get the ID from. May not be <code>null</code>.
+   * @return The ID and never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  String getID (@Nonnull T aRecord);
+
+  /**
+   * Serialize a single record.
+   *
+   * @param aRecord
+   *        The record to be written. May not be <code>null</code>.
+   * @param aDO
+   *        The output to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  void writeRecord (@Nonnull T aRecord, @Nonnull DataOutput aDO) throws IOException;
+
+  /**
+   * Deserialize a single record. The buffer is limited to exactly the bytes
+   * of this record.
+   *
+   * @param aBB
+   *        The buffer to read from. May not be <code>null</code>.
+   * @param nRecordVersion
+   *        The record version from the file header. This allows reading files
+   *        written with an older record layout.
+   * @return The read record. May be <code>null</code> if the record cannot be
+   *         interpreted, in which case it is skipped.
+   */
+  @Nullable
+  T readRecord (@Nonnull ByteBuffer aBB, int nRecordVersion);
+
+  /**
+   * Write a nullable string as an int length (-1 for <code>null</code>)
+   * followed by the UTF-8 bytes.
+   *
+   * @param aDO
+   *        The output to write to. May not be <code>null</code>.
+   * @param s
+   *        The string to write. May be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  static void writeString (@Nonnull final DataOutput aDO, @Nullable final String s) throws IOException
+  {
+    if (s == null)
+      aDO.writeInt (-1);
+    else
+    {
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      aDO.writeInt (aBytes.length);
+      aDO.write (aBytes);
+    }
+  }
+
+  /**
+   * Read a string written by {@link #writeString(DataOutput, String)}.
+   *
+   * @param aBB
+   *        The buffer to read from. May not be <code>null</code>.
+   * @return The read string. May be <code>null</code>.
+   */
+  @Nullable
+  static String readString (@Nonnull final ByteBuffer aBB)
+  {
+    final int nLen = aBB.getInt ();
+    if (nLen < 0)
+      return null;
+    final byte [] aBytes = new byte [nLen];
+    aBB.get (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+}
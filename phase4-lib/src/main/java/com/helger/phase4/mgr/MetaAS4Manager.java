@@ -17,6 +17,7 @@
 package com.helger.phase4.mgr;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -118,6 +119,33 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
     }
   }
 
+  private static void _close (@Nullable final Object aMgr)
+  {
+    if (aMgr instanceof AutoCloseable)
+    {
+      try
+      {
+        ((AutoCloseable) aMgr).close ();
+      }
+      catch (final Exception ex)
+      {
+        LOGGER.error ("Failed to close manager " + aMgr, ex);
+      }
+    }
+  }
+
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed) throws Exception
+  {
+    // Release e.g. the open files of persisting managers - in reverse order
+    _close (m_aProfileMgr);
+    _close (m_aIncomingDuplicateMgr);
+    _close (m_aPModeMgr);
+    _close (m_aMPCMgr);
+
+    LOGGER.info (ClassHelper.getClassLocalName (this) + " was destroyed");
+  }
+
   @Nonnull
   public static MetaAS4Manager getInstance ()
   {
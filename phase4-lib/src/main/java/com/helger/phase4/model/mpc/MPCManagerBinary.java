@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ELockType;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.AS4BinarySnapshotStore;
+import com.helger.phase4.mgr.AS4MicroTypeRecordCodec;
+
+/**
+ * MPC manager that keeps all MPCs in a {@link MPCManagerCopyOnWrite} and
+ * persists each change to an {@link AS4BinarySnapshotStore}. If a change
+ * cannot be persisted, an {@link UncheckedIOException} is thrown by the
+ * modifying method.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class MPCManagerBinary implements IMPCManager, AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MPCManagerBinary.class);
+
+  private final MPCManagerCopyOnWrite m_aDelegate = new MPCManagerCopyOnWrite ();
+  private final SimpleLock m_aStoreLock = new SimpleLock ();
+  @GuardedBy ("m_aStoreLock")
+  private final AS4BinarySnapshotStore <MPC> m_aStore;
+
+  /**
+   * Constructor
+   *
+   * @param aBaseFile
+   *        The base file of the snapshot and the delta log. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If the persisted data cannot be read
+   */
+  public MPCManagerBinary (@Nonnull final File aBaseFile) throws IOException
+  {
+    ValueEnforcer.notNull (aBaseFile, "BaseFile");
+    m_aStore = new AS4BinarySnapshotStore <> (aBaseFile, new AS4MicroTypeRecordCodec <> ("phase4-mpc", MPC.class));
+    m_aStore.load (new AS4BinarySnapshotStore.IReplayHandler <> ()
+    {
+      public void onPut (@Nonnull final MPC aRecord)
+      {
+        // Replaces the default MPC if persisted
+        m_aDelegate.internalPut (aRecord);
+      }
+
+      public void onDelete (@Nonnull final String sID)
+      {
+        m_aDelegate.deleteMPC (sID);
+      }
+
+      public void onClear ()
+      {
+        for (final MPC aMPC : m_aDelegate.internalGetAll ())
+          m_aDelegate.deleteMPC (aMPC.getID ());
+      }
+    });
+  }
+
+  /**
+   * @return <code>true</code> if persisted data was found upon startup,
+   *         <code>false</code> if the store was newly created.
+   */
+  public boolean hadPersistentData ()
+  {
+    return m_aStoreLock.lockedBoolean (m_aStore::hadPersistentData);
+  }
+
+  /**
+   * Import all MPCs from another source and write a new snapshot. This is
+   * meant to migrate from another persistence format.
+   *
+   * @param aMPCs
+   *        The MPCs to import. May not be <code>null</code>.
+   * @throws IOException
+   *         If the snapshot cannot be written
+   */
+  public void importMPCs (@Nonnull final Iterable <? extends IMPC> aMPCs) throws IOException
+  {
+    ValueEnforcer.notNull (aMPCs, "MPCs");
+    m_aStoreLock.lock ();
+    try
+    {
+      for (final IMPC aMPC : aMPCs)
+        if (aMPC instanceof MPC)
+          m_aDelegate.internalPut ((MPC) aMPC);
+        else
+          LOGGER.warn ("Ignoring MPC '" + aMPC.getID () + "' of unsupported type " + aMPC.getClass ().getName ());
+      m_aStore.writeSnapshot (m_aDelegate.internalGetAll ());
+    }
+    finally
+    {
+      m_aStoreLock.unlock ();
+    }
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _compactIfRecommended ()
+  {
+    final ICommonsList <MPC> aAll = m_aDelegate.internalGetAll ();
+    if (m_aStore.isCompactionRecommended (aAll.size ()))
+    {
+      try
+      {
+        m_aStore.writeSnapshot (aAll);
+      }
+      catch (final IOException ex)
+      {
+        // The change itself is contained in the delta log
+        LOGGER.error ("Failed to write MPC snapshot - retrying with the next change", ex);
+      }
+    }
+  }
+
+  private void _persist (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return;
+
+    m_aStoreLock.lock ();
+    try
+    {
+      // Persist the current state, independent of concurrent writers
+      final MPC aMPC = m_aDelegate.getOfID (sID);
+      if (aMPC != null)
+        m_aStore.appendPut (aMPC);
+      else
+        m_aStore.appendDelete (sID);
+      _compactIfRecommended ();
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to persist MPC '" + sID + "'", ex);
+    }
+    finally
+    {
+      m_aStoreLock.unlock ();
+    }
+  }
+
+  public void createMPC (@Nonnull final MPC aMPC)
+  {
+    m_aDelegate.createMPC (aMPC);
+    _persist (aMPC.getID ());
+  }
+
+  @Nonnull
+  public EChange updateMPC (@Nonnull final IMPC aMPC)
+  {
+    final EChange eChange = m_aDelegate.updateMPC (aMPC);
+    if (eChange.isChanged ())
+      _persist (aMPC.getID ());
+    return eChange;
+  }
+
+  @Nonnull
+  public EChange markMPCDeleted (@Nullable final String sMPCID)
+  {
+    final EChange eChange = m_aDelegate.markMPCDeleted (sMPCID);
+    if (eChange.isChanged ())
+      _persist (sMPCID);
+    return eChange;
+  }
+
+  @Nonnull
+  public EChange deleteMPC (@Nullable final String sMPCID)
+  {
+    final EChange eChange = m_aDelegate.deleteMPC (sMPCID);
+    if (eChange.isChanged ())
+      _persist (sMPCID);
+    return eChange;
+  }
+
+  @Nullable
+  public IMPC getMPCOfID (@Nullable final String sID)
+  {
+    return m_aDelegate.getMPCOfID (sID);
+  }
+
+  public boolean containsWithID (@Nullable final String sID)
+  {
+    return m_aDelegate.containsWithID (sID);
+  }
+
+  public void close () throws IOException
+  {
+    m_aStoreLock.lock ();
+    try
+    {
+      m_aStore.close ();
+    }
+    finally
+    {
+      m_aStoreLock.unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Store", m_aStore).getToString ();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ELockType;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.CAS4;
+import com.helger.photon.security.object.BusinessObjectHelper;
+import com.helger.photon.security.object.StubObject;
+
+/**
+ * In-memory manager for {@link MPC} objects, that is optimized for many
+ * concurrent readers and rare writers. All reads operate lock-free on an
+ * immutable snapshot of the map, that is published via a volatile reference.
+ * Each write is applied to a copy of the affected MPC and published by swapping
+ * in a new snapshot.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class MPCManagerCopyOnWrite implements IMPCManager
+{
+  // Serializes the writers only
+  private final SimpleLock m_aWriteLock = new SimpleLock ();
+  // Never modified after publication
+  private volatile ICommonsMap <String, MPC> m_aMap = new CommonsHashMap <> ();
+
+  public MPCManagerCopyOnWrite ()
+  {
+    // Create default MPC
+    createMPC (new MPC (CAS4.DEFAULT_MPC_ID));
+  }
+
+  public final void createMPC (@Nonnull final MPC aMPC)
+  {
+    ValueEnforcer.notNull (aMPC, "MPC");
+
+    m_aWriteLock.locked ( () -> {
+      final String sID = aMPC.getID ();
+      if (m_aMap.containsKey (sID))
+        throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
+      final ICommonsMap <String, MPC> aNewMap = m_aMap.getClone ();
+      aNewMap.put (sID, aMPC);
+      m_aMap = aNewMap;
+    });
+  }
+
+  /**
+   * Create a copy of the provided MPC, so that changes can be applied without
+   * modifying the published snapshot.
+   *
+   * @param aSrc
+   *        The source MPC. May not be <code>null</code>.
+   * @return The new MPC. Never <code>null</code>.
+   */
+  @Nonnull
+  static MPC getClone (@Nonnull final MPC aSrc)
+  {
+    return new MPC (new StubObject (aSrc.getID (),
+                                    aSrc.getCreationDateTime (),
+                                    aSrc.getCreationUserID (),
+                                    aSrc.getLastModificationDateTime (),
+                                    aSrc.getLastModificationUserID (),
+                                    aSrc.getDeletionDateTime (),
+                                    aSrc.getDeletionUserID (),
+                                    aSrc.attrs ()));
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _replaceMPCLocked (@Nonnull final MPC aMPC)
+  {
+    final ICommonsMap <String, MPC> aNewMap = m_aMap.getClone ();
+    aNewMap.put (aMPC.getID (), aMPC);
+    m_aMap = aNewMap;
+  }
+
+  @Nonnull
+  public EChange updateMPC (@Nonnull final IMPC aMPC)
+  {
+    ValueEnforcer.notNull (aMPC, "MPC");
+    if (getOfID (aMPC.getID ()) == null)
+      return EChange.UNCHANGED;
+
+    // Apply the changes on a copy and publish a new snapshot
+    return m_aWriteLock.lockedGet ( () -> {
+      final MPC aExistingMPC = getOfID (aMPC.getID ());
+      if (aExistingMPC == null || aExistingMPC.isDeleted ())
+        return EChange.UNCHANGED;
+
+      final MPC aUpdatedMPC = getClone (aExistingMPC);
+      BusinessObjectHelper.setLastModificationNow (aUpdatedMPC);
+      _replaceMPCLocked (aUpdatedMPC);
+      return EChange.CHANGED;
+    });
+  }
+
+  @Nonnull
+  public EChange markMPCDeleted (@Nullable final String sMPCID)
+  {
+    if (getOfID (sMPCID) == null)
+      return EChange.UNCHANGED;
+
+    // Apply the changes on a copy and publish a new snapshot
+    return m_aWriteLock.lockedGet ( () -> {
+      final MPC aExistingMPC = getOfID (sMPCID);
+      if (aExistingMPC == null)
+        return EChange.UNCHANGED;
+
+      final MPC aDeletedMPC = getClone (aExistingMPC);
+      if (BusinessObjectHelper.setDeletionNow (aDeletedMPC).isUnchanged ())
+        return EChange.UNCHANGED;
+      _replaceMPCLocked (aDeletedMPC);
+      return EChange.CHANGED;
+    });
+  }
+
+  @Nonnull
+  public EChange deleteMPC (@Nullable final String sMPCID)
+  {
+    if (getOfID (sMPCID) == null)
+      return EChange.UNCHANGED;
+
+    return m_aWriteLock.lockedGet ( () -> {
+      if (!m_aMap.containsKey (sMPCID))
+        return EChange.UNCHANGED;
+      final ICommonsMap <String, MPC> aNewMap = m_aMap.getClone ();
+      aNewMap.remove (sMPCID);
+      m_aMap = aNewMap;
+      return EChange.CHANGED;
+    });
+  }
+
+  /**
+   * Add or replace an MPC without any checks. Only used when loading
+   * persisted data.
+   *
+   * @param aMPC
+   *        The MPC to put. May not be <code>null</code>.
+   */
+  void internalPut (@Nonnull final MPC aMPC)
+  {
+    m_aWriteLock.locked ( () -> _replaceMPCLocked (aMPC));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <MPC> internalGetAll ()
+  {
+    return new CommonsArrayList <> (m_aMap.values ());
+  }
+
+  @Nullable
+  MPC getOfID (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+    return m_aMap.get (sID);
+  }
+
+  @Nullable
+  public IMPC getMPCOfID (@Nullable final String sID)
+  {
+    return getOfID (sID);
+  }
+
+  public boolean containsWithID (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return false;
+    return m_aMap.containsKey (sID);
+  }
+}
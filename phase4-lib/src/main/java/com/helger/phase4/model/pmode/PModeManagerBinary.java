@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ELockType;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.AS4BinarySnapshotStore;
+import com.helger.phase4.mgr.AS4MicroTypeRecordCodec;
+
+/**
+ * PMode manager that keeps all PModes in a {@link PModeManagerCopyOnWrite}
+ * and persists each change to an {@link AS4BinarySnapshotStore}. Only the
+ * changed PMode is appended to the delta log, instead of rewriting the full
+ * file. If a change cannot be persisted, an {@link UncheckedIOException} is
+ * thrown by the modifying method.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class PModeManagerBinary implements IPModeManager, AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (PModeManagerBinary.class);
+
+  private final PModeManagerCopyOnWrite m_aDelegate = new PModeManagerCopyOnWrite ();
+  private final SimpleLock m_aStoreLock = new SimpleLock ();
+  @GuardedBy ("m_aStoreLock")
+  private final AS4BinarySnapshotStore <PMode> m_aStore;
+
+  /**
+   * Constructor
+   *
+   * @param aBaseFile
+   *        The base file of the snapshot and the delta log. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If the persisted data cannot be read
+   */
+  public PModeManagerBinary (@Nonnull final File aBaseFile) throws IOException
+  {
+    ValueEnforcer.notNull (aBaseFile, "BaseFile");
+    m_aStore = new AS4BinarySnapshotStore <> (aBaseFile, new AS4MicroTypeRecordCodec <> ("phase4-pmode", PMode.class));
+    m_aStore.load (new AS4BinarySnapshotStore.IReplayHandler <> ()
+    {
+      public void onPut (@Nonnull final PMode aRecord)
+      {
+        m_aDelegate.internalPut (aRecord);
+      }
+
+      public void onDelete (@Nonnull final String sID)
+      {
+        m_aDelegate.deletePMode (sID);
+      }
+
+      public void onClear ()
+      {
+        for (final String sID : m_aDelegate.getAllIDs ())
+          m_aDelegate.deletePMode (sID);
+      }
+    });
+  }
+
+  /**
+   * @return <code>true</code> if persisted data was found upon startup,
+   *         <code>false</code> if the store was newly created.
+   */
+  public boolean hadPersistentData ()
+  {
+    return m_aStoreLock.lockedBoolean (m_aStore::hadPersistentData);
+  }
+
+  /**
+   * Import all PModes from another PMode manager without validation and write
+   * a new snapshot. This is meant to migrate from another persistence format.
+   *
+   * @param aPModes
+   *        The PModes to import. May not be <code>null</code>.
+   * @throws IOException
+   *         If the snapshot cannot be written
+   */
+  public void importPModes (@Nonnull final Iterable <? extends IPMode> aPModes) throws IOException
+  {
+    ValueEnforcer.notNull (aPModes, "PModes");
+    m_aStoreLock.lock ();
+    try
+    {
+      for (final IPMode aPMode : aPModes)
+        if (aPMode instanceof PMode)
+          m_aDelegate.internalPut ((PMode) aPMode);
+        else
+          LOGGER.warn ("Ignoring PMode '" + aPMode.getID () + "' of unsupported type " + aPMode.getClass ().getName ());
+      m_aStore.writeSnapshot (m_aDelegate.internalGetAll ());
+    }
+    finally
+    {
+      m_aStoreLock.unlock ();
+    }
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _compactIfRecommended ()
+  {
+    final ICommonsList <PMode> aAll = m_aDelegate.internalGetAll ();
+    if (m_aStore.isCompactionRecommended (aAll.size ()))
+    {
+      try
+      {
+        m_aStore.writeSnapshot (aAll);
+      }
+      catch (final IOException ex)
+      {
+        // The change itself is contained in the delta log
+        LOGGER.error ("Failed to write PMode snapshot - retrying with the next change", ex);
+      }
+    }
+  }
+
+  /**
+   * Persist the current state of the PMode with the provided ID. Writing the
+   * state instead of the operation makes the log independent of the order in
+   * which concurrent writers reach this point.
+   */
+  private void _persist (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return;
+
+    m_aStoreLock.lock ();
+    try
+    {
+      final PMode aPMode = m_aDelegate.getOfID (sID);
+      if (aPMode != null)
+        m_aStore.appendPut (aPMode);
+      else
+        m_aStore.appendDelete (sID);
+      _compactIfRecommended ();
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to persist PMode '" + sID + "'", ex);
+    }
+    finally
+    {
+      m_aStoreLock.unlock ();
+    }
+  }
+
+  public void createPMode (@Nonnull final PMode aPMode)
+  {
+    m_aDelegate.createPMode (aPMode);
+    _persist (aPMode.getID ());
+  }
+
+  @Nonnull
+  public EChange updatePMode (@Nonnull final IPMode aPMode)
+  {
+    final EChange eChange = m_aDelegate.updatePMode (aPMode);
+    if (eChange.isChanged ())
+      _persist (aPMode.getID ());
+    return eChange;
+  }
+
+  public void createOrUpdatePMode (@Nonnull final PMode aPMode)
+  {
+    m_aDelegate.createOrUpdatePMode (aPMode);
+
+    // The updated PMode may have a different ID
+    final IPMode aStored = m_aDelegate.findFirst (IPModeManager.getPModeFilter (aPMode.getID (),
+                                                                                aPMode.getInitiator (),
+                                                                                aPMode.getResponder ()));
+    _persist (aStored != null ? aStored.getID () : aPMode.getID ());
+  }
+
+  @Nonnull
+  public EChange markPModeDeleted (@Nullable final String sPModeID)
+  {
+    final EChange eChange = m_aDelegate.markPModeDeleted (sPModeID);
+    if (eChange.isChanged ())
+      _persist (sPModeID);
+    return eChange;
+  }
+
+  @Nonnull
+  public EChange deletePMode (@Nullable final String sPModeID)
+  {
+    final EChange eChange = m_aDelegate.deletePMode (sPModeID);
+    if (eChange.isChanged ())
+      _persist (sPModeID);
+    return eChange;
+  }
+
+  @Nullable
+  public IPMode findFirst (@Nonnull final Predicate <? super IPMode> aFilter)
+  {
+    return m_aDelegate.findFirst (aFilter);
+  }
+
+  @Nullable
+  public IPMode getPModeOfID (@Nullable final String sID)
+  {
+    return m_aDelegate.getPModeOfID (sID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAll ()
+  {
+    return m_aDelegate.getAll ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <String> getAllIDs ()
+  {
+    return m_aDelegate.getAllIDs ();
+  }
+
+  public void close () throws IOException
+  {
+    m_aStoreLock.lock ();
+    try
+    {
+      m_aStore.close ();
+    }
+    finally
+    {
+      m_aStoreLock.unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Store", m_aStore).getToString ();
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ELockType;
+import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.CollectionHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.photon.security.object.BusinessObjectHelper;
+import com.helger.photon.security.object.StubObject;
+
+/**
+ * In-memory manager for {@link PMode} objects, that is optimized for many
+ * concurrent readers and rare writers. All reads operate lock-free on an
+ * immutable snapshot of the map, that is published via a volatile reference.
+ * All modifications are applied to a copy of the affected PMode and published
+ * by swapping in a new snapshot, so that readers never see partially updated
+ * objects.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class PModeManagerCopyOnWrite implements IPModeManager
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (PModeManagerCopyOnWrite.class);
+
+  // Serializes the writers only
+  private final SimpleLock m_aWriteLock = new SimpleLock ();
+  // Never modified after publication
+  private volatile ICommonsMap <String, PMode> m_aMap = new CommonsHashMap <> ();
+
+  public PModeManagerCopyOnWrite ()
+  {}
+
+  private void _validatePMode (@Nonnull final IPMode aPMode)
+  {
+    try
+    {
+      validatePMode (aPMode);
+    }
+    catch (final PModeValidationException ex)
+    {
+      throw new IllegalArgumentException ("PMode is invalid", ex);
+    }
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _createPModeLocked (@Nonnull final PMode aPMode)
+  {
+    final String sID = aPMode.getID ();
+    if (m_aMap.containsKey (sID))
+      throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
+    final ICommonsMap <String, PMode> aNewMap = m_aMap.getClone ();
+    aNewMap.put (sID, aPMode);
+    m_aMap = aNewMap;
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Created PMode with ID '" + aPMode.getID () + "'");
+  }
+
+  public void createPMode (@Nonnull final PMode aPMode)
+  {
+    ValueEnforcer.notNull (aPMode, "PMode");
+    _validatePMode (aPMode);
+
+    m_aWriteLock.locked ( () -> _createPModeLocked (aPMode));
+  }
+
+  /**
+   * Create a copy of the provided PMode, so that changes can be applied without
+   * modifying the published snapshot. The referenced parts (legs, parties etc.)
+   * are shared, as they are only replaced and never modified in place.
+   *
+   * @param aSrc
+   *        The source PMode. May not be <code>null</code>.
+   * @return The new PMode. Never <code>null</code>.
+   */
+  @Nonnull
+  static PMode getClone (@Nonnull final PMode aSrc)
+  {
+    final StubObject aStub = new StubObject (aSrc.getID (),
+                                             aSrc.getCreationDateTime (),
+                                             aSrc.getCreationUserID (),
+                                             aSrc.getLastModificationDateTime (),
+                                             aSrc.getLastModificationUserID (),
+                                             aSrc.getDeletionDateTime (),
+                                             aSrc.getDeletionUserID (),
+                                             aSrc.attrs ());
+    return new PMode (aStub,
+                      aSrc.getInitiator (),
+                      aSrc.getResponder (),
+                      aSrc.getAgreement (),
+                      aSrc.getMEP (),
+                      aSrc.getMEPBinding (),
+                      aSrc.getLeg1 (),
+                      aSrc.getLeg2 (),
+                      aSrc.getPayloadService (),
+                      aSrc.getReceptionAwareness ());
+  }
+
+  @MustBeLocked (ELockType.WRITE)
+  private void _replacePModeLocked (@Nonnull final PMode aPMode)
+  {
+    final ICommonsMap <String, PMode> aNewMap = m_aMap.getClone ();
+    aNewMap.put (aPMode.getID (), aPMode);
+    m_aMap = aNewMap;
+  }
+
+  @Nonnull
+  public EChange updatePMode (@Nonnull final IPMode aNewPMode)
+  {
+    ValueEnforcer.notNull (aNewPMode, "PMode");
+    _validatePMode (aNewPMode);
+
+    if (getOfID (aNewPMode.getID ()) == null)
+      return EChange.UNCHANGED;
+
+    // Apply the changes on a copy and publish a new snapshot
+    final EChange eChange = m_aWriteLock.lockedGet ( () -> {
+      final PMode aExistingPMode = getOfID (aNewPMode.getID ());
+      if (aExistingPMode == null || aExistingPMode.isDeleted ())
+        return EChange.UNCHANGED;
+
+      final PMode aUpdatedPMode = getClone (aExistingPMode);
+      EChange ret = EChange.UNCHANGED;
+      ret = ret.or (aUpdatedPMode.setInitiator (aNewPMode.getInitiator ()));
+      ret = ret.or (aUpdatedPMode.setResponder (aNewPMode.getResponder ()));
+      ret = ret.or (aUpdatedPMode.setAgreement (aNewPMode.getAgreement ()));
+      ret = ret.or (aUpdatedPMode.setMEP (aNewPMode.getMEP ()));
+      ret = ret.or (aUpdatedPMode.setMEPBinding (aNewPMode.getMEPBinding ()));
+      ret = ret.or (aUpdatedPMode.setLeg1 (aNewPMode.getLeg1 ()));
+      ret = ret.or (aUpdatedPMode.setLeg2 (aNewPMode.getLeg2 ()));
+      ret = ret.or (aUpdatedPMode.setPayloadService (aNewPMode.getPayloadService ()));
+      ret = ret.or (aUpdatedPMode.setReceptionAwareness (aNewPMode.getReceptionAwareness ()));
+      if (ret.isChanged ())
+      {
+        BusinessObjectHelper.setLastModificationNow (aUpdatedPMode);
+        _replacePModeLocked (aUpdatedPMode);
+      }
+      return ret;
+    });
+    if (eChange.isUnchanged ())
+      return EChange.UNCHANGED;
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Updated PMode with ID '" + aNewPMode.getID () + "'");
+
+    return EChange.CHANGED;
+  }
+
+  public void createOrUpdatePMode (@Nonnull final PMode aPMode)
+  {
+    ValueEnforcer.notNull (aPMode, "PMode");
+    _validatePMode (aPMode);
+
+    // Try lock-free
+    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (),
+                                                                     aPMode.getInitiator (),
+                                                                     aPMode.getResponder ());
+    IPMode aExisting = findFirst (aFilter);
+    if (aExisting == null)
+    {
+      aExisting = m_aWriteLock.lockedGet ( () -> {
+        // Try again in write lock
+        final IPMode ret = findFirst (aFilter);
+        if (ret == null)
+        {
+          // Create a new one
+          _createPModeLocked (aPMode);
+        }
+        return ret;
+      });
+    }
+
+    if (aExisting != null)
+    {
+      updatePMode (aExisting);
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Updated PMode with ID '" + aPMode.getID () + "'");
+    }
+  }
+
+  @Nonnull
+  public EChange markPModeDeleted (@Nullable final String sPModeID)
+  {
+    if (getOfID (sPModeID) == null)
+      return EChange.UNCHANGED;
+
+    // Apply the changes on a copy and publish a new snapshot
+    final EChange eChange = m_aWriteLock.lockedGet ( () -> {
+      final PMode aExistingPMode = getOfID (sPModeID);
+      if (aExistingPMode == null)
+        return EChange.UNCHANGED;
+
+      final PMode aDeletedPMode = getClone (aExistingPMode);
+      if (BusinessObjectHelper.setDeletionNow (aDeletedPMode).isUnchanged ())
+        return EChange.UNCHANGED;
+      _replacePModeLocked (aDeletedPMode);
+      return EChange.CHANGED;
+    });
+    if (eChange.isUnchanged ())
+      return EChange.UNCHANGED;
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Marked PMode with ID '" + sPModeID + "' as deleted");
+
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  public EChange deletePMode (@Nullable final String sPModeID)
+  {
+    if (getOfID (sPModeID) == null)
+      return EChange.UNCHANGED;
+
+    return m_aWriteLock.lockedGet ( () -> {
+      if (!m_aMap.containsKey (sPModeID))
+        return EChange.UNCHANGED;
+      final ICommonsMap <String, PMode> aNewMap = m_aMap.getClone ();
+      aNewMap.remove (sPModeID);
+      m_aMap = aNewMap;
+      return EChange.CHANGED;
+    });
+  }
+
+  /**
+   * Add or replace a PMode without any checks. Only used when loading
+   * persisted data.
+   *
+   * @param aPMode
+   *        The PMode to put. May not be <code>null</code>.
+   */
+  void internalPut (@Nonnull final PMode aPMode)
+  {
+    m_aWriteLock.locked ( () -> _replacePModeLocked (aPMode));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <PMode> internalGetAll ()
+  {
+    return new CommonsArrayList <> (m_aMap.values ());
+  }
+
+  @Nullable
+  PMode getOfID (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+    return m_aMap.get (sID);
+  }
+
+  @Nullable
+  public IPMode getPModeOfID (@Nullable final String sID)
+  {
+    return getOfID (sID);
+  }
+
+  @Nullable
+  public IPMode findFirst (@Nonnull final Predicate <? super IPMode> aFilter)
+  {
+    return CollectionHelper.findFirst (m_aMap.values (), aFilter);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IPMode> getAll ()
+  {
+    return new CommonsArrayList <> (m_aMap.values ());
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <String> getAllIDs ()
+  {
+    return m_aMap.copyOfKeySet ();
+  }
+}
@@ -0,0 +1,1102 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.FileEntity;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.mime.EMimeContentType;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.httpclient.response.ResponseHandlerHttpEntity;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.client.AS4ClientBuiltMessage;
+import com.helger.phase4.client.AbstractAS4Client;
+import com.helger.phase4.client.IAS4ClientBuildMessageCallback;
+import com.helger.phase4.messaging.http.BasicHttpPoster;
+import com.helger.phase4.messaging.http.HttpRetrySettings;
+import com.helger.phase4.messaging.http.IHttpPoster;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.error.EEbmsErrorSeverity;
+import com.helger.phase4.util.AS4ExecutorHelper;
+import com.helger.phase4.util.Phase4Exception;
+import com.helger.security.messagedigest.EMessageDigestAlgorithm;
+import com.helger.security.messagedigest.MessageDigestValue;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.convert.MicroTypeConverter;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+import jakarta.mail.BodyPart;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+/**
+ * A persistent store-and-forward queue for outgoing AS4 messages. Messages are
+ * added after they were built, signed and encrypted, so that the sender can
+ * return immediately. The HTTP entity is spooled to a file and the metadata
+ * is stored in an XML file next to it, so that pending messages survive a
+ * restart of the JVM.<br>
+ * After {@link #start()} was called, a scheduler periodically sends all due
+ * messages. The number of parallel transmissions per destination (protocol,
+ * host and port) and in total can be limited. Failed transmissions are retried
+ * with an exponential back-off plus some random jitter. After the last retry
+ * failed, the message is moved to the <code>failed</code> sub directory.<br>
+ * The outbox works on the HTTP level. The only check on the AS4 response is,
+ * whether it contains an ebMS Error with severity "failure" - in that case
+ * the transmission is considered failed and retried. All other responses are
+ * handed to the {@link IAS4OutboxListener} for evaluation.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4Outbox implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_RETRIES = 10;
+  public static final Duration DEFAULT_DURATION_BEFORE_RETRY = Duration.ofSeconds (10);
+  public static final BigDecimal DEFAULT_RETRY_INCREASE_FACTOR = BigDecimal.valueOf (2);
+  public static final Duration DEFAULT_MAX_DURATION_BEFORE_RETRY = Duration.ofHours (1);
+  public static final double DEFAULT_JITTER = 0.2;
+  public static final int DEFAULT_MAX_PARALLEL_PER_DESTINATION = 2;
+  public static final int DEFAULT_MAX_PARALLEL_TOTAL = 16;
+  public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds (1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4Outbox.class);
+  private static final String FILE_EXT_META = ".xml";
+  private static final String FILE_EXT_BODY = ".body";
+  private static final String FILE_EXT_TMP = ".tmp";
+  private static final String ELEMENT_ENTRY = "outboxentry";
+  private static final String FAILED_DIRECTORY = "failed";
+  private static final XMLInputFactory XIF;
+
+  static
+  {
+    XIF = XMLInputFactory.newInstance ();
+    XIF.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    XIF.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XIF.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private final File m_aDirectory;
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsOrderedMap <String, AS4OutboxEntry> m_aEntries = new CommonsLinkedHashMap <> ();
+  // Message ID to destination
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, String> m_aInFlight = new CommonsHashMap <> ();
+  // Signalled when the last in-flight message finished
+  private final Condition m_aInFlightDone = m_aRWLock.writeLock ().newCondition ();
+  // Message IDs currently being written by enqueue
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsSet <String> m_aPendingIDs = new CommonsHashSet <> ();
+  private final AtomicLong m_aDeliveredCount = new AtomicLong (0);
+  private final AtomicLong m_aFailedCount = new AtomicLong (0);
+
+  @GuardedBy ("m_aRWLock")
+  private IHttpPoster m_aHttpPoster = new BasicHttpPoster ();
+  @GuardedBy ("m_aRWLock")
+  private final HttpRetrySettings m_aRetrySettings = new HttpRetrySettings ().setMaxRetries (DEFAULT_MAX_RETRIES)
+                                                                            .setDurationBeforeRetry (DEFAULT_DURATION_BEFORE_RETRY)
+                                                                            .setRetryIncreaseFactor (DEFAULT_RETRY_INCREASE_FACTOR);
+  @GuardedBy ("m_aRWLock")
+  private Duration m_aMaxDurationBeforeRetry = DEFAULT_MAX_DURATION_BEFORE_RETRY;
+  @GuardedBy ("m_aRWLock")
+  private double m_dJitter = DEFAULT_JITTER;
+  @GuardedBy ("m_aRWLock")
+  private int m_nMaxParallelPerDestination = DEFAULT_MAX_PARALLEL_PER_DESTINATION;
+  @GuardedBy ("m_aRWLock")
+  private int m_nMaxParallelTotal = DEFAULT_MAX_PARALLEL_TOTAL;
+  @GuardedBy ("m_aRWLock")
+  private Duration m_aPollInterval = DEFAULT_POLL_INTERVAL;
+  @GuardedBy ("m_aRWLock")
+  private IAS4OutboxListener m_aListener;
+
+  @GuardedBy ("m_aRWLock")
+  private ScheduledExecutorService m_aScheduler;
+  @GuardedBy ("m_aRWLock")
+  private ExecutorService m_aWorkers;
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bOwnWorkers;
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bClosed;
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory in which the messages are stored. It is created if it
+   *        does not exist. May not be <code>null</code>.
+   */
+  public AS4Outbox (@Nonnull final File aDirectory)
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    m_aDirectory = aDirectory.getAbsoluteFile ();
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (m_aDirectory);
+    if (!m_aDirectory.isDirectory ())
+      throw new IllegalArgumentException ("The outbox directory '" + m_aDirectory + "' could not be created");
+  }
+
+  /**
+   * @return The directory in which the messages are stored. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  @Nonnull
+  public final IHttpPoster getHttpPoster ()
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aHttpPoster);
+  }
+
+  /**
+   * Set the HTTP poster to be used. Only a single try is done with it -
+   * retries are handled by the outbox.
+   *
+   * @param aHttpPoster
+   *        The HTTP poster to use. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4Outbox setHttpPoster (@Nonnull final IHttpPoster aHttpPoster)
+  {
+    ValueEnforcer.notNull (aHttpPoster, "HttpPoster");
+    m_aRWLock.writeLocked ( () -> m_aHttpPoster = aHttpPoster);
+    return this;
+  }
+
+  /**
+   * Set the retry settings. The maximum number of retries, the initial
+   * duration before the first retry and the increase factor for all
+   * subsequent retries are used.
+   *
+   * @param aRetrySettings
+   *        The retry settings to copy from. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4Outbox setRetrySettings (@Nonnull final HttpRetrySettings aRetrySettings)
+  {
+    ValueEnforcer.notNull (aRetrySettings, "RetrySettings");
+    m_aRWLock.writeLocked ( () -> m_aRetrySettings.assignFrom (aRetrySettings));
+    return this;
+  }
+
+  /**
+   * Set the upper limit for the duration between two retries.
+   *
+   * @param aMaxDurationBeforeRetry
+   *        The maximum duration. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4Outbox setMaxDurationBeforeRetry (@Nonnull final Duration aMaxDurationBeforeRetry)
+  {
+    ValueEnforcer.notNull (aMaxDurationBeforeRetry, "MaxDurationBeforeRetry");
+    m_aRWLock.writeLocked ( () -> m_aMaxDurationBeforeRetry = aMaxDurationBeforeRetry);
+    return this;
+  }
+
+  /**
+   * Set the jitter that is applied to the duration between two retries, so
+   * that not all messages to one destination are retried at the same time.
+   * E.g. 0.2 means that the duration is randomly changed by up to &plusmn;20%.
+   *
+   * @param dJitter
+   *        The jitter. Must be between 0 and 1.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4Outbox setJitter (final double dJitter)
+  {
+    ValueEnforcer.isBetweenInclusive (dJitter, "Jitter", 0, 1);
+    m_aRWLock.writeLocked ( () -> m_dJitter = dJitter);
+    return this;
+  }
+
+  /**
+   * @param nMaxParallelPerDestination
+   *        The maximum number of parallel transmissions to a single
+   *        destination. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4Outbox setMaxParallelPerDestination (@Nonnegative final int nMaxParallelPerDestination)
+  {
+    ValueEnforcer.isGT0 (nMaxParallelPerDestination, "MaxParallelPerDestination");
+    m_aRWLock.writeLocked ( () -> m_nMaxParallelPerDestination = nMaxParallelPerDestination);
+    return this;
+  }
+
+  /**
+   * @param nMaxParallelTotal
+   *        The maximum number of parallel transmissions in total. Must be &gt;
+   *        0. Changes only take effect if set before {@link #start()}.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4Outbox setMaxParallelTotal (@Nonnegative final int nMaxParallelTotal)
+  {
+    ValueEnforcer.isGT0 (nMaxParallelTotal, "MaxParallelTotal");
+    m_aRWLock.writeLocked ( () -> m_nMaxParallelTotal = nMaxParallelTotal);
+    return this;
+  }
+
+  /**
+   * @param aPollInterval
+   *        The interval in which the outbox is checked for due messages. May
+   *        not be <code>null</code>. Changes only take effect if set before
+   *        {@link #start()}.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4Outbox setPollInterval (@Nonnull final Duration aPollInterval)
+  {
+    ValueEnforcer.notNull (aPollInterval, "PollInterval");
+    ValueEnforcer.isFalse (aPollInterval.isNegative () || aPollInterval.isZero (), "PollInterval must be positive");
+    m_aRWLock.writeLocked ( () -> m_aPollInterval = aPollInterval);
+    return this;
+  }
+
+  /**
+   * @param aListener
+   *        The listener for delivered and finally failed messages. May be
+   *        <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4Outbox setListener (@Nullable final IAS4OutboxListener aListener)
+  {
+    m_aRWLock.writeLocked ( () -> m_aListener = aListener);
+    return this;
+  }
+
+  /**
+   * Get the file for the provided message ID. The file name is the SHA-256 hash
+   * of the message ID, because message IDs may contain arbitrary characters
+   * and any character replacement could map two IDs onto the same file. The
+   * real message ID is part of the metadata file.
+   *
+   * @param sMessageID
+   *        Message ID. May neither be <code>null</code> nor empty.
+   * @param sExt
+   *        File extension including the dot. May not be <code>null</code>.
+   * @return The file in the outbox directory. Never <code>null</code>.
+   */
+  @Nonnull
+  private File _getFile (@Nonnull @Nonempty final String sMessageID, @Nonnull final String sExt)
+  {
+    final String sHash = MessageDigestValue.create (sMessageID.getBytes (StandardCharsets.UTF_8),
+                                                    EMessageDigestAlgorithm.SHA_256)
+                                           .getHexEncodedDigestString ();
+    return new File (m_aDirectory, sHash + sExt);
+  }
+
+  private void _writeMetadata (@Nonnull final AS4OutboxEntry aEntry) throws IOException
+  {
+    final IMicroDocument aDoc = new MicroDocument ();
+    aDoc.appendChild (MicroTypeConverter.convertToMicroElement (aEntry, ELEMENT_ENTRY));
+
+    // Write to a temporary file first, so that a crash never leaves a
+    // partially written metadata file
+    final File aMetaFile = _getFile (aEntry.getMessageID (), FILE_EXT_META);
+    final File aTmpFile = _getFile (aEntry.getMessageID (), FILE_EXT_META + FILE_EXT_TMP);
+    if (MicroWriter.writeToFile (aDoc, aTmpFile).isFailure ())
+      throw new IOException ("Failed to write outbox metadata to '" + aTmpFile.getAbsolutePath () + "'");
+    Files.move (aTmpFile.toPath (),
+                aMetaFile.toPath (),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Add a message to the outbox. The HTTP entity is written to disk before
+   * this method returns, so the entity and all resources it depends on may be
+   * released afterwards.
+   *
+   * @param sURL
+   *        The URL to send the message to. May neither be <code>null</code>
+   *        nor empty.
+   * @param sMessageID
+   *        The AS4 message ID. Must be unique within the outbox. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        Custom HTTP headers to send. May be <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to send. May not be <code>null</code>.
+   * @return The created outbox entry. Never <code>null</code>.
+   * @throws IOException
+   *         If the message could not be stored
+   * @throws IllegalStateException
+   *         If the outbox was closed
+   */
+  @Nonnull
+  public AS4OutboxEntry enqueue (@Nonnull @Nonempty final String sURL,
+                                 @Nonnull @Nonempty final String sMessageID,
+                                 @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                 @Nonnull final HttpEntity aHttpEntity) throws IOException
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
+
+    // Reserve the message ID, so that no concurrent call writes the same files
+    m_aRWLock.writeLocked ( () -> {
+      // Don't persist anything that would not be sent before the next start
+      if (m_bClosed)
+        throw new IllegalStateException ("The outbox is closed");
+      if (m_aEntries.containsKey (sMessageID) || m_aPendingIDs.contains (sMessageID))
+        throw new IllegalArgumentException ("A message with ID '" + sMessageID + "' is already contained in the outbox");
+      m_aPendingIDs.add (sMessageID);
+    });
+
+    final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
+    final AS4OutboxEntry aEntry = new AS4OutboxEntry (sMessageID,
+                                                      sURL,
+                                                      aHttpEntity.getContentType (),
+                                                      aCustomHttpHeaders,
+                                                      aNow,
+                                                      0,
+                                                      aNow,
+                                                      null);
+
+    // Body first, metadata afterwards - the existence of the metadata file
+    // marks the entry as complete
+    final File aBodyFile = _getFile (sMessageID, FILE_EXT_BODY);
+    try
+    {
+      try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aBodyFile))
+      {
+        if (aOS == null)
+          throw new IOException ("Failed to open outbox file '" + aBodyFile.getAbsolutePath () + "' for writing");
+        aHttpEntity.writeTo (aOS);
+      }
+      _writeMetadata (aEntry);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      // Don't leave partial files behind and release the reservation
+      FileOperationManager.INSTANCE.deleteFileIfExisting (_getFile (sMessageID, FILE_EXT_META));
+      FileOperationManager.INSTANCE.deleteFileIfExisting (aBodyFile);
+      m_aRWLock.writeLocked ( () -> m_aPendingIDs.remove (sMessageID));
+      throw ex;
+    }
+
+    final ScheduledExecutorService aScheduler = m_aRWLock.writeLockedGet ( () -> {
+      m_aPendingIDs.remove (sMessageID);
+      m_aEntries.put (sMessageID, aEntry);
+      return m_aScheduler;
+    });
+
+    LOGGER.info ("Added AS4 message '" + sMessageID + "' for '" + sURL + "' to the outbox");
+
+    // Try to send it immediately
+    if (aScheduler != null)
+      try
+      {
+        aScheduler.execute (this::_dispatchDueEntries);
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Closed concurrently - the message is persisted and sent after the
+        // next start
+        LOGGER.info ("The outbox was closed while adding AS4 message '" + sMessageID + "'");
+      }
+    return aEntry;
+  }
+
+  /**
+   * Add an already built message to the outbox.
+   *
+   * @param sURL
+   *        The URL to send the message to. May neither be <code>null</code>
+   *        nor empty.
+   * @param aBuiltMsg
+   *        The built message. May not be <code>null</code>.
+   * @return The created outbox entry. Never <code>null</code>.
+   * @throws IOException
+   *         If the message could not be stored
+   */
+  @Nonnull
+  public AS4OutboxEntry enqueue (@Nonnull @Nonempty final String sURL,
+                                 @Nonnull final AS4ClientBuiltMessage aBuiltMsg) throws IOException
+  {
+    ValueEnforcer.notNull (aBuiltMsg, "BuiltMsg");
+    return enqueue (sURL, aBuiltMsg.getMessageID (), aBuiltMsg.getAllCustomHttpHeaders (), aBuiltMsg.getHttpEntity ());
+  }
+
+  /**
+   * Build the message of the provided client and add it to the outbox.
+   *
+   * @param sURL
+   *        The URL to send the message to. May neither be <code>null</code>
+   *        nor empty.
+   * @param aClient
+   *        The client to build the message. May not be <code>null</code>.
+   * @param aCallback
+   *        An optional callback for the different stages of building the
+   *        document. May be <code>null</code>.
+   * @return The created outbox entry. Never <code>null</code>.
+   * @throws IOException
+   *         in case of error when building or storing the message
+   * @throws WSSecurityException
+   *         In case there is an issue with signing/encryption
+   * @throws MessagingException
+   *         in case something happens in MIME wrapping
+   */
+  @Nonnull
+  public AS4OutboxEntry enqueue (@Nonnull @Nonempty final String sURL,
+                                 @Nonnull final AbstractAS4Client <?> aClient,
+                                 @Nullable final IAS4ClientBuildMessageCallback aCallback) throws IOException,
+                                                                                          WSSecurityException,
+                                                                                          MessagingException
+  {
+    ValueEnforcer.notNull (aClient, "Client");
+    final String sMessageID = aClient.createMessageID ();
+    return enqueue (sURL, aClient.buildMessage (sMessageID, aCallback));
+  }
+
+  private void _recover ()
+  {
+    final File [] aFiles = m_aDirectory.listFiles ();
+    if (aFiles == null)
+      return;
+
+    int nRecovered = 0;
+    for (final File aFile : aFiles)
+    {
+      final String sName = aFile.getName ();
+      if (!aFile.isFile ())
+        continue;
+
+      if (sName.endsWith (FILE_EXT_TMP))
+      {
+        // Left over from a crash
+        FileOperationManager.INSTANCE.deleteFile (aFile);
+      }
+      else
+        if (sName.endsWith (FILE_EXT_META))
+        {
+          final IMicroDocument aDoc = MicroReader.readMicroXML (aFile);
+          final AS4OutboxEntry aEntry = aDoc == null || aDoc.getDocumentElement () == null ? null
+                                                                                           : MicroTypeConverter.convertToNative (aDoc.getDocumentElement (),
+                                                                                                                                 AS4OutboxEntry.class);
+          if (aEntry == null)
+          {
+            LOGGER.error ("Failed to read outbox metadata file '" + aFile.getAbsolutePath () + "' - ignoring it");
+            continue;
+          }
+          if (m_aPendingIDs.contains (aEntry.getMessageID ()))
+          {
+            // Currently being added
+            continue;
+          }
+
+          final File aMetaFile = _getFile (aEntry.getMessageID (), FILE_EXT_META);
+          if (!aFile.equals (aMetaFile))
+          {
+            // Stored by a version that derived the file name from the message
+            // ID - rename both files to the current naming scheme
+            final String sBaseName = sName.substring (0, sName.length () - FILE_EXT_META.length ());
+            FileOperationManager.INSTANCE.renameFile (new File (m_aDirectory, sBaseName + FILE_EXT_BODY),
+                                                      _getFile (aEntry.getMessageID (), FILE_EXT_BODY));
+            FileOperationManager.INSTANCE.renameFile (aFile, aMetaFile);
+          }
+          if (!_getFile (aEntry.getMessageID (), FILE_EXT_BODY).isFile ())
+          {
+            LOGGER.error ("The outbox message '" + aEntry.getMessageID () + "' has no content - ignoring it");
+            continue;
+          }
+          m_aEntries.put (aEntry.getMessageID (), aEntry);
+          nRecovered++;
+        }
+    }
+
+    // Body files without metadata were never completely added
+    final ICommonsSet <File> aPendingBodyFiles = new CommonsHashSet <> (m_aPendingIDs,
+                                                                       x -> _getFile (x, FILE_EXT_BODY));
+    for (final File aFile : aFiles)
+      if (aFile.isFile () && aFile.getName ().endsWith (FILE_EXT_BODY) && !aPendingBodyFiles.contains (aFile))
+      {
+        final String sBaseName = aFile.getName ().substring (0, aFile.getName ().length () - FILE_EXT_BODY.length ());
+        if (!new File (m_aDirectory, sBaseName + FILE_EXT_META).isFile ())
+          FileOperationManager.INSTANCE.deleteFile (aFile);
+      }
+
+    if (nRecovered > 0)
+      LOGGER.info ("Recovered " + nRecovered + " AS4 messages from the outbox '" + m_aDirectory + "'");
+  }
+
+  /**
+   * Start the outbox. All messages stored in the outbox directory are loaded
+   * and the periodic sending is started.
+   *
+   * @throws IllegalStateException
+   *         If the outbox is already started
+   */
+  public void start ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (m_aScheduler != null)
+        throw new IllegalStateException ("The outbox is already started");
+
+      m_bClosed = false;
+      _recover ();
+
+      if (AS4ExecutorHelper.isVirtualThreadModeEnabled ())
+      {
+        // The number of parallel transmissions is limited by the dispatcher
+        m_aWorkers = AS4ExecutorHelper.getVirtualThreadExecutor ();
+        m_bOwnWorkers = false;
+      }
+      else
+      {
+        m_aWorkers = Executors.newFixedThreadPool (m_nMaxParallelTotal,
+                                                   new BasicThreadFactory.Builder ().namingPattern ("phase4-outbox-%d")
+                                                                                    .daemon (true)
+                                                                                    .build ());
+        m_bOwnWorkers = true;
+      }
+      m_aScheduler = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().namingPattern ("phase4-outbox-scheduler")
+                                                                                                  .daemon (true)
+                                                                                                  .build ());
+      m_aScheduler.scheduleWithFixedDelay (this::_dispatchDueEntries,
+                                           0,
+                                           m_aPollInterval.toMillis (),
+                                           TimeUnit.MILLISECONDS);
+    });
+    LOGGER.info ("Started the AS4 outbox in '" + m_aDirectory + "'");
+  }
+
+  /**
+   * @return <code>true</code> if the outbox was started and is not yet
+   *         closed.
+   */
+  public boolean isStarted ()
+  {
+    return m_aRWLock.readLockedBoolean ( () -> m_aScheduler != null);
+  }
+
+  private void _dispatchDueEntries ()
+  {
+    try
+    {
+      final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
+      final ICommonsList <AS4OutboxEntry> aToSend = new CommonsArrayList <> ();
+      final ExecutorService aWorkers = m_aRWLock.writeLockedGet ( () -> {
+        if (m_aWorkers == null)
+          return null;
+
+        final ICommonsList <AS4OutboxEntry> aDue = m_aEntries.copyOfValues (x -> !m_aInFlight.containsKey (x.getMessageID ()) &&
+                                                                                 !x.getNextAttemptDateTime ()
+                                                                                   .isAfter (aNow));
+        aDue.sort (Comparator.comparing (AS4OutboxEntry::getNextAttemptDateTime));
+        for (final AS4OutboxEntry aEntry : aDue)
+        {
+          if (m_aInFlight.size () >= m_nMaxParallelTotal)
+            break;
+
+          final String sDestination = aEntry.getDestination ();
+          final long nInFlightForDestination = m_aInFlight.values ()
+                                                          .stream ()
+                                                          .filter (sDestination::equals)
+                                                          .count ();
+          if (nInFlightForDestination >= m_nMaxParallelPerDestination)
+            continue;
+
+          m_aInFlight.put (aEntry.getMessageID (), sDestination);
+          aToSend.add (aEntry);
+        }
+        return m_aWorkers;
+      });
+
+      if (aWorkers != null)
+        for (final AS4OutboxEntry aEntry : aToSend)
+          try
+          {
+            aWorkers.execute ( () -> _deliver (aEntry));
+          }
+          catch (final RejectedExecutionException ex)
+          {
+            // Closed in the meantime - the entry stays in the outbox
+            m_aRWLock.writeLocked ( () -> {
+              m_aInFlight.remove (aEntry.getMessageID ());
+              if (m_aInFlight.isEmpty ())
+                m_aInFlightDone.signalAll ();
+            });
+          }
+    }
+    catch (final RuntimeException ex)
+    {
+      // Don't let the exception cancel the periodic execution
+      LOGGER.error ("Error dispatching AS4 outbox messages", ex);
+    }
+  }
+
+  @Nullable
+  private static String _getEbmsErrorOfSoap (@Nonnull final InputStream aIS) throws XMLStreamException
+  {
+    final XMLStreamReader aReader = XIF.createXMLStreamReader (aIS);
+    try
+    {
+      while (aReader.hasNext ())
+      {
+        if (aReader.next () == XMLStreamConstants.START_ELEMENT &&
+            CAS4.EBMS_NS.equals (aReader.getNamespaceURI ()) &&
+            "Error".equals (aReader.getLocalName ()))
+        {
+          final String sSeverity = aReader.getAttributeValue (null, "severity");
+          if (EEbmsErrorSeverity.FAILURE.getSeverity ().equals (sSeverity))
+          {
+            final String sErrorCode = aReader.getAttributeValue (null, "errorCode");
+            final String sShortDesc = aReader.getAttributeValue (null, "shortDescription");
+            return sErrorCode + (sShortDesc == null ? "" : " (" + sShortDesc + ")");
+          }
+        }
+      }
+      return null;
+    }
+    finally
+    {
+      aReader.close ();
+    }
+  }
+
+  /**
+   * Check if an AS4 response contains an ebMS Error with severity "failure".
+   * MIME responses are supported, in which case only the first part is
+   * checked.
+   *
+   * @param sContentType
+   *        The response content type. May be <code>null</code>.
+   * @param aResponseBytes
+   *        The response bytes. May be <code>null</code>.
+   * @return The error code and short description of the first failure or
+   *         <code>null</code> if the response contains no such error or is
+   *         not an AS4 message at all.
+   */
+  @Nullable
+  static String getEbmsErrorOfResponse (@Nullable final String sContentType, @Nullable final byte [] aResponseBytes)
+  {
+    if (aResponseBytes == null || aResponseBytes.length == 0)
+      return null;
+
+    try
+    {
+      final IMimeType aMimeType = MimeTypeParser.safeParseMimeType (sContentType);
+      if (aMimeType != null && aMimeType.getContentType () == EMimeContentType.MULTIPART)
+      {
+        final MimeMultipart aMultipart = new MimeMultipart (new ByteArrayDataSource (aResponseBytes,
+                                                                                   aMimeType.getAsString ()));
+        if (aMultipart.getCount () == 0)
+          return null;
+        final BodyPart aSoapPart = aMultipart.getBodyPart (0);
+        try (final InputStream aIS = aSoapPart.getInputStream ())
+        {
+          return _getEbmsErrorOfSoap (aIS);
+        }
+      }
+
+      try (final InputStream aIS = new NonBlockingByteArrayInputStream (aResponseBytes))
+      {
+        return _getEbmsErrorOfSoap (aIS);
+      }
+    }
+    catch (final IOException | MessagingException | XMLStreamException ex)
+    {
+      // Not an AS4 message - that is up to the listener to decide
+      LOGGER.debug ("Failed to scan the AS4 outbox response for ebMS Errors", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Get the duration to wait before the next try.
+   *
+   * @param nFailedAttempts
+   *        The number of failed attempts so far. Always &gt; 0.
+   * @return The duration including jitter. Never <code>null</code>.
+   */
+  @Nonnull
+  private Duration _getDurationBeforeRetry (@Nonnegative final int nFailedAttempts)
+  {
+    return m_aRWLock.readLockedGet ( () -> {
+      Duration ret = m_aRetrySettings.getDurationBeforeRetry ();
+      for (int i = 1; i < nFailedAttempts && ret.compareTo (m_aMaxDurationBeforeRetry) < 0; ++i)
+        ret = HttpRetrySettings.getIncreased (ret, m_aRetrySettings.getRetryIncreaseFactor ());
+      if (ret.compareTo (m_aMaxDurationBeforeRetry) > 0)
+        ret = m_aMaxDurationBeforeRetry;
+
+      if (m_dJitter > 0)
+      {
+        final double dFactor = 1 + m_dJitter * (2 * ThreadLocalRandom.current ().nextDouble () - 1);
+        ret = Duration.ofMillis ((long) (ret.toMillis () * dFactor));
+      }
+      return ret;
+    });
+  }
+
+  private void _invokeListener (@Nonnull final String sAction, @Nonnull final Runnable aRunnable)
+  {
+    try
+    {
+      aRunnable.run ();
+    }
+    catch (final RuntimeException ex)
+    {
+      LOGGER.error ("Error invoking the AS4 outbox listener for " + sAction, ex);
+    }
+  }
+
+  private void _deliver (@Nonnull final AS4OutboxEntry aEntry)
+  {
+    final String sMessageID = aEntry.getMessageID ();
+    try
+    {
+      if (m_aRWLock.readLockedBoolean ( () -> m_bClosed))
+      {
+        // Closed after the dispatching - try again after the next start
+        return;
+      }
+
+      final File aBodyFile = _getFile (sMessageID, FILE_EXT_BODY);
+      final String sContentType = aEntry.getContentType ();
+      final HttpEntity aEntity = new FileEntity (aBodyFile,
+                                                 sContentType == null ? null : ContentType.parse (sContentType));
+
+      byte [] aResponseBytes = null;
+      Exception aCaughtException = null;
+      try
+      {
+        // One try only - the retries are done by this class
+        final Wrapper <String> aResponseContentType = new Wrapper <> ();
+        final HttpClientResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
+          // throws an ExtendedHttpResponseException on non-2xx status codes
+          final HttpEntity aResponseEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
+          if (aResponseEntity == null)
+            return null;
+          aResponseContentType.set (aResponseEntity.getContentType ());
+          return EntityUtils.toByteArray (aResponseEntity);
+        };
+        aResponseBytes = getHttpPoster ().sendGenericMessage (aEntry.getURL (),
+                                                              aEntry.getAllCustomHttpHeaders (),
+                                                              aEntity,
+                                                              aResponseHdl);
+
+        // A 2xx response may still contain an ebMS Error
+        final String sEbmsError = getEbmsErrorOfResponse (aResponseContentType.get (), aResponseBytes);
+        if (sEbmsError != null)
+          aCaughtException = new Phase4Exception ("Received an ebMS Error: " + sEbmsError);
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        aCaughtException = ex;
+      }
+
+      final IAS4OutboxListener aListener = m_aRWLock.readLockedGet ( () -> m_aListener);
+      if (aCaughtException == null)
+      {
+        // Success - remove metadata first
+        m_aRWLock.writeLocked ( () -> m_aEntries.remove (sMessageID));
+        FileOperationManager.INSTANCE.deleteFileIfExisting (_getFile (sMessageID, FILE_EXT_META));
+        FileOperationManager.INSTANCE.deleteFileIfExisting (aBodyFile);
+        m_aDeliveredCount.incrementAndGet ();
+        LOGGER.info ("Successfully delivered AS4 message '" + sMessageID + "' from the outbox");
+
+        if (aListener != null)
+        {
+          final byte [] aFinalResponseBytes = aResponseBytes;
+          _invokeListener ("delivered", () -> aListener.onDelivered (aEntry, aFinalResponseBytes));
+        }
+      }
+      else
+      {
+        final int nFailedAttempts = aEntry.getAttempts () + 1;
+        final int nMaxRetries = m_aRWLock.readLockedInt (m_aRetrySettings::getMaxRetries);
+        final String sError = aCaughtException.getClass ().getSimpleName () + " - " + aCaughtException.getMessage ();
+        if (nFailedAttempts > nMaxRetries)
+        {
+          // Final failure
+          m_aRWLock.writeLocked ( () -> m_aEntries.remove (sMessageID));
+          final File aFailedDir = new File (m_aDirectory, FAILED_DIRECTORY);
+          FileOperationManager.INSTANCE.createDirIfNotExisting (aFailedDir);
+          FileOperationManager.INSTANCE.renameFile (_getFile (sMessageID, FILE_EXT_META),
+                                                    new File (aFailedDir, _getFile (sMessageID, FILE_EXT_META).getName ()));
+          FileOperationManager.INSTANCE.renameFile (aBodyFile, new File (aFailedDir, aBodyFile.getName ()));
+          m_aFailedCount.incrementAndGet ();
+          LOGGER.error ("Finally failed to deliver AS4 message '" +
+                        sMessageID +
+                        "' to '" +
+                        aEntry.getURL () +
+                        "' after " +
+                        nFailedAttempts +
+                        " attempts: " +
+                        sError);
+
+          if (aListener != null)
+          {
+            final Exception aFinalException = aCaughtException;
+            _invokeListener ("failed", () -> aListener.onFailed (aEntry, aFinalException));
+          }
+        }
+        else
+        {
+          // Schedule the next retry
+          final Duration aDurationBeforeRetry = _getDurationBeforeRetry (nFailedAttempts);
+          final OffsetDateTime aNextAttemptDT = MetaAS4Manager.getTimestampMgr ()
+                                                              .getCurrentDateTime ()
+                                                              .plus (aDurationBeforeRetry);
+          m_aRWLock.writeLocked ( () -> aEntry.onFailedAttempt (aNextAttemptDT, sError));
+          try
+          {
+            _writeMetadata (aEntry);
+          }
+          catch (final IOException ex)
+          {
+            LOGGER.error ("Failed to update outbox metadata of AS4 message '" + sMessageID + "'", ex);
+          }
+          LOGGER.warn ("Error sending AS4 message '" +
+                       sMessageID +
+                       "' to '" +
+                       aEntry.getURL () +
+                       "': " +
+                       sError +
+                       " - retry " +
+                       nFailedAttempts +
+                       "/" +
+                       nMaxRetries +
+                       " in " +
+                       aDurationBeforeRetry.toMillis () +
+                       " ms");
+        }
+      }
+    }
+    finally
+    {
+      m_aRWLock.writeLocked ( () -> {
+        m_aInFlight.remove (sMessageID);
+        if (m_aInFlight.isEmpty ())
+          m_aInFlightDone.signalAll ();
+      });
+    }
+  }
+
+  /**
+   * @return The number of messages in the outbox, including the ones currently
+   *         being sent. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getQueueDepth ()
+  {
+    return m_aRWLock.readLockedInt (m_aEntries::size);
+  }
+
+  /**
+   * @return The number of messages currently being sent. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getInFlightCount ()
+  {
+    return m_aRWLock.readLockedInt (m_aInFlight::size);
+  }
+
+  /**
+   * @return A map from destination to the number of messages in the outbox.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsMap <String, Integer> getQueueDepthPerDestination ()
+  {
+    final ICommonsMap <String, Integer> ret = new CommonsHashMap <> ();
+    m_aRWLock.readLocked ( () -> {
+      for (final AS4OutboxEntry aEntry : m_aEntries.values ())
+        ret.merge (aEntry.getDestination (), Integer.valueOf (1), (a, b) -> Integer.valueOf (a.intValue () + 1));
+    });
+    return ret;
+  }
+
+  /**
+   * @return The age of the oldest message in the outbox or
+   *         {@link Duration#ZERO} if the outbox is empty. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public Duration getOldestEntryAge ()
+  {
+    final OffsetDateTime aOldest = m_aRWLock.readLockedGet ( () -> m_aEntries.values ()
+                                                                             .stream ()
+                                                                             .map (AS4OutboxEntry::getCreationDateTime)
+                                                                             .min (Comparator.naturalOrder ())
+                                                                             .orElse (null));
+    if (aOldest == null)
+      return Duration.ZERO;
+    return Duration.between (aOldest, MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ());
+  }
+
+  /**
+   * @return The number of messages successfully delivered since the creation
+   *         of this object.
+   */
+  @Nonnegative
+  public long getDeliveredCount ()
+  {
+    return m_aDeliveredCount.get ();
+  }
+
+  /**
+   * @return The number of messages that finally failed since the creation of
+   *         this object.
+   */
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailedCount.get ();
+  }
+
+  /**
+   * @return A list with all entries currently in the outbox. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4OutboxEntry> getAllEntries ()
+  {
+    return m_aRWLock.readLockedGet (m_aEntries::copyOfValues);
+  }
+
+  /**
+   * Stop the periodic sending. All messages that are currently being sent are
+   * finished. Pending messages stay in the outbox directory and are sent after
+   * the next {@link #start()}. Until then, no new messages can be added.
+   */
+  public void close ()
+  {
+    final ScheduledExecutorService aScheduler;
+    final ExecutorService aWorkers;
+    final boolean bOwnWorkers;
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      m_bClosed = true;
+      aScheduler = m_aScheduler;
+      aWorkers = m_aWorkers;
+      bOwnWorkers = m_bOwnWorkers;
+      m_aScheduler = null;
+      m_aWorkers = null;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+
+    // Outside of the lock, because the deliveries need the lock to finish
+    if (aScheduler != null)
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aScheduler);
+    if (aWorkers != null && bOwnWorkers)
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aWorkers);
+
+    // The shared virtual thread executor cannot be shut down, so wait until
+    // all deliveries are finished - like for the own pool without a time limit
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      while (!m_aInFlight.isEmpty ())
+        m_aInFlightDone.await (1, TimeUnit.SECONDS);
+    }
+    catch (final InterruptedException ex)
+    {
+      LOGGER.warn ("Interrupted while waiting for the AS4 outbox deliveries to finish");
+      Thread.currentThread ().interrupt ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("QueueDepth", getQueueDepth ())
+                                       .append ("InFlight", getInFlightCount ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbox;
+
+import java.net.URL;
+import java.time.OffsetDateTime;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.url.URLHelper;
+
+/**
+ * A single message stored in the {@link AS4Outbox}. The message itself (the
+ * already built, signed and encrypted HTTP entity) is stored in a separate
+ * file, this class only contains the metadata.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@NotThreadSafe
+public class AS4OutboxEntry implements IHasID <String>
+{
+  private final String m_sMessageID;
+  private final String m_sURL;
+  private final String m_sContentType;
+  private final HttpHeaderMap m_aCustomHttpHeaders;
+  private final OffsetDateTime m_aCreationDT;
+  private int m_nAttempts;
+  private OffsetDateTime m_aNextAttemptDT;
+  private String m_sLastError;
+
+  public AS4OutboxEntry (@Nonnull @Nonempty final String sMessageID,
+                         @Nonnull @Nonempty final String sURL,
+                         @Nullable final String sContentType,
+                         @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                         @Nonnull final OffsetDateTime aCreationDT,
+                         @Nonnegative final int nAttempts,
+                         @Nonnull final OffsetDateTime aNextAttemptDT,
+                         @Nullable final String sLastError)
+  {
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aCreationDT, "CreationDT");
+    ValueEnforcer.isGE0 (nAttempts, "Attempts");
+    ValueEnforcer.notNull (aNextAttemptDT, "NextAttemptDT");
+    m_sMessageID = sMessageID;
+    m_sURL = sURL;
+    m_sContentType = sContentType;
+    m_aCustomHttpHeaders = aCustomHttpHeaders == null ? new HttpHeaderMap () : aCustomHttpHeaders.getClone ();
+    m_aCreationDT = aCreationDT;
+    m_nAttempts = nAttempts;
+    m_aNextAttemptDT = aNextAttemptDT;
+    m_sLastError = sLastError;
+  }
+
+  /**
+   * @return The AS4 message ID. Same as {@link #getMessageID()}.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The AS4 message ID. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The URL to send the message to. Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getURL ()
+  {
+    return m_sURL;
+  }
+
+  /**
+   * @return The destination of the message, used for limiting the number of
+   *         concurrent connections. This is the protocol, host and port of the
+   *         URL. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getDestination ()
+  {
+    final URL aURL = URLHelper.getAsURL (m_sURL, false);
+    if (aURL == null)
+      return m_sURL;
+    final int nPort = aURL.getPort () >= 0 ? aURL.getPort () : aURL.getDefaultPort ();
+    return aURL.getProtocol () + "://" + aURL.getHost () + ":" + nPort;
+  }
+
+  /**
+   * @return The MIME type of the HTTP entity. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getContentType ()
+  {
+    return m_sContentType;
+  }
+
+  /**
+   * @return A copy of the custom HTTP headers to send. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final HttpHeaderMap getAllCustomHttpHeaders ()
+  {
+    return m_aCustomHttpHeaders.getClone ();
+  }
+
+  /**
+   * @return The date and time when the message was added to the outbox. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final OffsetDateTime getCreationDateTime ()
+  {
+    return m_aCreationDT;
+  }
+
+  /**
+   * @return The number of sending attempts that failed so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getAttempts ()
+  {
+    return m_nAttempts;
+  }
+
+  /**
+   * @return The earliest date and time for the next sending attempt. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final OffsetDateTime getNextAttemptDateTime ()
+  {
+    return m_aNextAttemptDT;
+  }
+
+  /**
+   * @return The error message of the last failed attempt. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final String getLastError ()
+  {
+    return m_sLastError;
+  }
+
+  final void onFailedAttempt (@Nonnull final OffsetDateTime aNextAttemptDT, @Nullable final String sLastError)
+  {
+    m_nAttempts++;
+    m_aNextAttemptDT = aNextAttemptDT;
+    m_sLastError = sLastError;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MessageID", m_sMessageID)
+                                       .append ("URL", m_sURL)
+                                       .append ("ContentType", m_sContentType)
+                                       .append ("CustomHttpHeaders", m_aCustomHttpHeaders)
+                                       .append ("CreationDT", m_aCreationDT)
+                                       .append ("Attempts", m_nAttempts)
+                                       .append ("NextAttemptDT", m_aNextAttemptDT)
+                                       .appendIfNotNull ("LastError", m_sLastError)
+                                       .getToString ();
+  }
+}
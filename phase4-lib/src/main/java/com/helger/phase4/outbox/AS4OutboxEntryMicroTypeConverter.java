@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbox;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroElement;
+import com.helger.xml.microdom.convert.IMicroTypeConverter;
+
+/**
+ * Micro type converter for class {@link AS4OutboxEntry}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+public final class AS4OutboxEntryMicroTypeConverter implements IMicroTypeConverter <AS4OutboxEntry>
+{
+  private static final String ATTR_MESSAGE_ID = "msgid";
+  private static final String ATTR_URL = "url";
+  private static final String ATTR_CONTENT_TYPE = "contenttype";
+  private static final String ATTR_CREATION_DT = "creationdt";
+  private static final String ATTR_ATTEMPTS = "attempts";
+  private static final String ATTR_NEXT_ATTEMPT_DT = "nextattemptdt";
+  private static final String ELEMENT_LAST_ERROR = "lasterror";
+  private static final String ELEMENT_HEADER = "header";
+  private static final String ATTR_NAME = "name";
+  private static final String ATTR_VALUE = "value";
+
+  @Nonnull
+  public IMicroElement convertToMicroElement (@Nonnull final AS4OutboxEntry aValue,
+                                              @Nullable final String sNamespaceURI,
+                                              @Nonnull final String sTagName)
+  {
+    final IMicroElement ret = new MicroElement (sNamespaceURI, sTagName);
+    ret.setAttribute (ATTR_MESSAGE_ID, aValue.getMessageID ());
+    ret.setAttribute (ATTR_URL, aValue.getURL ());
+    ret.setAttribute (ATTR_CONTENT_TYPE, aValue.getContentType ());
+    ret.setAttributeWithConversion (ATTR_CREATION_DT, aValue.getCreationDateTime ());
+    ret.setAttribute (ATTR_ATTEMPTS, aValue.getAttempts ());
+    ret.setAttributeWithConversion (ATTR_NEXT_ATTEMPT_DT, aValue.getNextAttemptDateTime ());
+    if (aValue.getLastError () != null)
+      ret.appendElement (sNamespaceURI, ELEMENT_LAST_ERROR).appendText (aValue.getLastError ());
+    for (final Map.Entry <String, ICommonsList <String>> aEntry : aValue.getAllCustomHttpHeaders ())
+      for (final String sValue : aEntry.getValue ())
+        ret.appendElement (sNamespaceURI, ELEMENT_HEADER)
+           .setAttribute (ATTR_NAME, aEntry.getKey ())
+           .setAttribute (ATTR_VALUE, sValue);
+    return ret;
+  }
+
+  @Nonnull
+  public AS4OutboxEntry convertToNative (@Nonnull final IMicroElement aElement)
+  {
+    final String sMessageID = aElement.getAttributeValue (ATTR_MESSAGE_ID);
+    final String sURL = aElement.getAttributeValue (ATTR_URL);
+    final String sContentType = aElement.getAttributeValue (ATTR_CONTENT_TYPE);
+    final OffsetDateTime aCreationDT = aElement.getAttributeValueWithConversion (ATTR_CREATION_DT,
+                                                                                OffsetDateTime.class);
+    final int nAttempts = aElement.getAttributeValueAsInt (ATTR_ATTEMPTS, 0);
+    final OffsetDateTime aNextAttemptDT = aElement.getAttributeValueWithConversion (ATTR_NEXT_ATTEMPT_DT,
+                                                                                   OffsetDateTime.class);
+    final IMicroElement eLastError = aElement.getFirstChildElement (ELEMENT_LAST_ERROR);
+    final String sLastError = eLastError == null ? null : eLastError.getTextContent ();
+
+    final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+    for (final IMicroElement eHeader : aElement.getAllChildElements (ELEMENT_HEADER))
+      aHeaders.addHeader (eHeader.getAttributeValue (ATTR_NAME), eHeader.getAttributeValue (ATTR_VALUE));
+
+    return new AS4OutboxEntry (sMessageID,
+                               sURL,
+                               sContentType,
+                               aHeaders,
+                               aCreationDT,
+                               nAttempts,
+                               aNextAttemptDT,
+                               sLastError);
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbox;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Callback interface for the final state of messages in the {@link AS4Outbox}.
+ * The methods are invoked from the outbox worker threads.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+public interface IAS4OutboxListener
+{
+  /**
+   * Invoked after a message was successfully transmitted on HTTP level. The
+   * message was already removed from the outbox. Responses containing an ebMS
+   * Error with severity "failure" are treated as failed attempts by the
+   * outbox. Apart from that the response is not evaluated, so it is up to the
+   * implementation to check if it is a valid AS4 Receipt.
+   *
+   * @param aEntry
+   *        The outbox entry that was delivered. Never <code>null</code>.
+   * @param aResponseBytes
+   *        The HTTP response body. May be <code>null</code>.
+   */
+  default void onDelivered (@Nonnull final AS4OutboxEntry aEntry, @Nullable final byte [] aResponseBytes)
+  {}
+
+  /**
+   * Invoked after the last retry failed. The message was removed from the
+   * outbox and moved to the "failed" folder.
+   *
+   * @param aEntry
+   *        The outbox entry that could not be delivered. Never
+   *        <code>null</code>.
+   * @param aException
+   *        The exception of the last sending attempt. Never <code>null</code>.
+   */
+  default void onFailed (@Nonnull final AS4OutboxEntry aEntry, @Nonnull final Exception aException)
+  {}
+}
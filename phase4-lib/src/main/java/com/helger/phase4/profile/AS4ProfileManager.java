@@ -19,7 +19,6 @@ package com.helger.phase4.profile;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.slf4j.Logger;
@@ -30,14 +29,16 @@ import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsTreeMap;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
-import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.lang.ServiceLoaderHelper;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 
 /**
  * AS4 profile manager. All profiles are registered by SPI -
- * {@link IAS4ProfileRegistrarSPI}.
+ * {@link IAS4ProfileRegistrarSPI}. As profiles are only registered on startup
+ * but read for every message, all reads operate lock-free on an immutable
+ * snapshot (since 3.0.1).
  *
  * @author Philip Helger
  */
@@ -46,13 +47,14 @@ public class AS4ProfileManager implements IAS4ProfileManager
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4ProfileManager.class);
 
-  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
-  @GuardedBy ("m_aRWLock")
-  private final ICommonsMap <String, IAS4Profile> m_aProfiles = new CommonsTreeMap <> ();
+  // Serializes the writers only
+  private final SimpleLock m_aWriteLock = new SimpleLock ();
+  // Never modified after publication, so that all reads are lock-free
+  private volatile ICommonsMap <String, IAS4Profile> m_aProfiles = new CommonsTreeMap <> ();
 
   private void _registerAll ()
   {
-    m_aRWLock.writeLocked ( () -> { m_aProfiles.clear (); });
+    m_aWriteLock.locked ( () -> { m_aProfiles = new CommonsTreeMap <> (); });
     for (final IAS4ProfileRegistrarSPI aSPI : ServiceLoaderHelper.getAllSPIImplementations (IAS4ProfileRegistrarSPI.class))
       aSPI.registerAS4Profile (this);
 
@@ -74,13 +76,13 @@ public class AS4ProfileManager implements IAS4ProfileManager
   @ReturnsMutableCopy
   public ICommonsList <IAS4Profile> getAllProfiles ()
   {
-    return m_aRWLock.readLockedGet (m_aProfiles::copyOfValues);
+    return m_aProfiles.copyOfValues ();
   }
 
   @Nonnegative
   public final int getProfileCount ()
   {
-    return m_aRWLock.readLockedInt (m_aProfiles::size);
+    return m_aProfiles.size ();
   }
 
   @Nullable
@@ -89,7 +91,7 @@ public class AS4ProfileManager implements IAS4ProfileManager
     if (StringHelper.hasNoText (sID))
       return null;
 
-    return m_aRWLock.readLockedGet ( () -> m_aProfiles.get (sID));
+    return m_aProfiles.get (sID);
   }
 
   public void registerProfile (@Nonnull final IAS4Profile aAS4Profile)
@@ -97,10 +99,12 @@ public class AS4ProfileManager implements IAS4ProfileManager
     ValueEnforcer.notNull (aAS4Profile, "AS4Profile");
 
     final String sID = aAS4Profile.getID ();
-    m_aRWLock.writeLocked ( () -> {
+    m_aWriteLock.locked ( () -> {
       if (m_aProfiles.containsKey (sID))
         throw new IllegalStateException ("An AS4 profile with ID '" + sID + "' is already registered!");
-      m_aProfiles.put (sID, aAS4Profile);
+      final ICommonsMap <String, IAS4Profile> aNewProfiles = m_aProfiles.getClone ();
+      aNewProfiles.put (sID, aAS4Profile);
+      m_aProfiles = aNewProfiles;
     });
 
     if (LOGGER.isDebugEnabled ())
@@ -25,11 +25,11 @@ import javax.annotation.Nullable;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpResponse;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.wrapper.Wrapper;
 import com.helger.httpclient.response.ResponseHandlerHttpEntity;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
@@ -39,6 +39,7 @@ import com.helger.phase4.client.AS4ClientSentMessage;
 import com.helger.phase4.client.AS4ClientUserMessage;
 import com.helger.phase4.client.IAS4ClientBuildMessageCallback;
 import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
@@ -69,6 +70,19 @@ public final class AS4BidirectionalClientHelper
   private AS4BidirectionalClientHelper ()
   {}
 
+  /**
+   * Convert the sent message for the {@link IAS4RawResponseConsumer}. The
+   * content is passed as a re-readable stream provider, so that a spooled
+   * response is not loaded onto the heap and the consumer sees the same bytes
+   * as the parser. An empty response is passed as <code>null</code> content.
+   */
+  @Nonnull
+  static AS4ClientSentMessage <IHasInputStream> getWithStreamContent (@Nonnull final AS4ClientSentMessage <AS4ResponsePayload> aSentMsg)
+  {
+    final AS4ResponsePayload aPayload = aSentMsg.getResponseContent ();
+    return aSentMsg.getWithResponseContent (aPayload == null || aPayload.getLength () == 0 ? null : aPayload);
+  }
+
   public static void sendAS4UserMessageAndReceiveAS4SignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactorySign,
                                                                    @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
                                                                    @Nonnull final IAS4PModeResolver aPModeResolver,
@@ -122,8 +136,9 @@ public final class AS4BidirectionalClientHelper
       }
     }
 
+    final boolean bStreaming = AS4Configuration.isHttpResponseStreaming ();
     final Wrapper <HttpResponse> aWrappedHttpResponse = new Wrapper <> ();
-    final HttpClientResponseHandler <byte []> aHttpResponseHdl = aHttpResponse -> {
+    final HttpClientResponseHandler <AS4ResponsePayload> aHttpResponseHdl = aHttpResponse -> {
       // throws an ExtendedHttpResponseException on exception
       final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
       if (aEntity == null)
@@ -133,11 +148,11 @@ public final class AS4BidirectionalClientHelper
       aWrappedHttpResponse.set (aHttpResponse);
 
       // Read response payload
-      return EntityUtils.toByteArray (aEntity);
+      return AS4ResponsePayload.read (aEntity, bStreaming, aClientUserMsg.getAS4ResourceHelper ());
     };
 
     // Main HTTP sending
-    final AS4ClientSentMessage <byte []> aClientSentMessage = aClientUserMsg.sendMessageWithRetries (sURL,
+    final AS4ClientSentMessage <AS4ResponsePayload> aClientSentMessage = aClientUserMsg.sendMessageWithRetries (sURL,
                                                                                                      aHttpResponseHdl,
                                                                                                      aBuildMessageCallback,
                                                                                                      aOutgoingDumper,
@@ -150,10 +165,10 @@ public final class AS4BidirectionalClientHelper
                  "'");
 
     if (aRawResponseConsumer != null)
-      aRawResponseConsumer.handleResponse (aClientSentMessage);
+      aRawResponseConsumer.handleResponseStream (getWithStreamContent (aClientSentMessage));
 
     // Try interpret result as SignalMessage
-    if (aClientSentMessage.hasResponseContent () && aClientSentMessage.getResponseContent ().length > 0)
+    if (aClientSentMessage.hasResponseContent () && aClientSentMessage.getResponseContent ().getLength () > 0)
     {
       final IAS4IncomingMessageMetadata aResponseMessageMetadata = AS4IncomingMessageMetadata.createForResponse (sRequestMessageID)
                                                                                              .setRemoteAddr (sURL);
@@ -215,8 +230,9 @@ public final class AS4BidirectionalClientHelper
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("  MPC = '" + aClientPullRequest.getMPC () + "'");
 
+    final boolean bStreaming = AS4Configuration.isHttpResponseStreaming ();
     final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
-    final HttpClientResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
+    final HttpClientResponseHandler <AS4ResponsePayload> aResponseHdl = aHttpResponse -> {
       // May throw an ExtendedHttpResponseException
       final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
       if (aEntity == null)
@@ -224,11 +240,11 @@ public final class AS4BidirectionalClientHelper
 
       // Remember HTTP Response
       aWrappedResponse.set (aHttpResponse);
-      return EntityUtils.toByteArray (aEntity);
+      return AS4ResponsePayload.read (aEntity, bStreaming, aClientPullRequest.getAS4ResourceHelper ());
     };
 
     // Generic AS4 PullRequest sending
-    final AS4ClientSentMessage <byte []> aClientSentMessage = aClientPullRequest.sendMessageWithRetries (sURL,
+    final AS4ClientSentMessage <AS4ResponsePayload> aClientSentMessage = aClientPullRequest.sendMessageWithRetries (sURL,
                                                                                                          aResponseHdl,
                                                                                                          aBuildMessageCallback,
                                                                                                          aOutgoingDumper,
@@ -241,10 +257,10 @@ public final class AS4BidirectionalClientHelper
                  "'");
 
     if (aResponseConsumer != null)
-      aResponseConsumer.handleResponse (aClientSentMessage);
+      aResponseConsumer.handleResponseStream (getWithStreamContent (aClientSentMessage));
 
     // Try to interpret result as UserMessage or SignalMessage
-    if (aClientSentMessage.hasResponseContent () && aClientSentMessage.getResponseContent ().length > 0)
+    if (aClientSentMessage.hasResponseContent () && aClientSentMessage.getResponseContent ().getLength () > 0)
     {
       final IAS4IncomingMessageMetadata aResponseMessageMetadata = AS4IncomingMessageMetadata.createForResponse (sRequestMessageID)
                                                                                              .setRemoteAddr (sURL);
@@ -303,8 +319,9 @@ public final class AS4BidirectionalClientHelper
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("  MPC = '" + aClientPullRequest.getMPC () + "'");
 
+    final boolean bStreaming = AS4Configuration.isHttpResponseStreaming ();
     final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
-    final HttpClientResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
+    final HttpClientResponseHandler <AS4ResponsePayload> aResponseHdl = aHttpResponse -> {
       // May throw an ExtendedHttpResponseException
       final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
       if (aEntity == null)
@@ -312,11 +329,11 @@ public final class AS4BidirectionalClientHelper
 
       // Remember HTTP Response
       aWrappedResponse.set (aHttpResponse);
-      return EntityUtils.toByteArray (aEntity);
+      return AS4ResponsePayload.read (aEntity, bStreaming, aClientPullRequest.getAS4ResourceHelper ());
     };
 
     // Generic AS4 PullRequest sending
-    final AS4ClientSentMessage <byte []> aClientSentMessage = aClientPullRequest.sendMessageWithRetries (sURL,
+    final AS4ClientSentMessage <AS4ResponsePayload> aClientSentMessage = aClientPullRequest.sendMessageWithRetries (sURL,
                                                                                                          aResponseHdl,
                                                                                                          aBuildMessageCallback,
                                                                                                          aOutgoingDumper,
@@ -329,10 +346,10 @@ public final class AS4BidirectionalClientHelper
                  "'");
 
     if (aResponseConsumer != null)
-      aResponseConsumer.handleResponse (aClientSentMessage);
+      aResponseConsumer.handleResponseStream (getWithStreamContent (aClientSentMessage));
 
     // Try to interpret result as UserMessage or SignalMessage
-    if (aClientSentMessage.hasResponseContent () && aClientSentMessage.getResponseContent ().length > 0)
+    if (aClientSentMessage.hasResponseContent () && aClientSentMessage.getResponseContent ().getLength () > 0)
     {
       final IAS4IncomingMessageMetadata aResponseMetadata = AS4IncomingMessageMetadata.createForResponse (sRequestMessageID)
                                                                                       .setRemoteAddr (sURL);
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.attachment.AS4OutgoingAttachment;
+
+/**
+ * A single message of a bulk sending. It only contains the per-message data,
+ * everything else is taken from the builder used for sending. See
+ * {@link AbstractAS4UserMessageBuilder#sendMessagesInBulk(java.util.Collection, int)}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public class AS4BulkMessage
+{
+  private final String m_sMessageID;
+  private final String m_sConversationID;
+  private final AS4OutgoingAttachment m_aPayload;
+  private final ICommonsList <AS4OutgoingAttachment> m_aAttachments;
+
+  /**
+   * Constructor
+   *
+   * @param sMessageID
+   *        The AS4 message ID to use. May be <code>null</code> in which case a
+   *        random message ID is created.
+   * @param sConversationID
+   *        The AS4 conversation ID to use. May be <code>null</code> in which
+   *        case the one from the builder is used.
+   * @param aPayload
+   *        The main payload. May be <code>null</code>.
+   * @param aAttachments
+   *        Additional attachments. May be <code>null</code>.
+   */
+  public AS4BulkMessage (@Nullable final String sMessageID,
+                         @Nullable final String sConversationID,
+                         @Nullable final AS4OutgoingAttachment aPayload,
+                         @Nullable final Iterable <? extends AS4OutgoingAttachment> aAttachments)
+  {
+    m_sMessageID = sMessageID;
+    m_sConversationID = sConversationID;
+    m_aPayload = aPayload;
+    m_aAttachments = aAttachments == null ? new CommonsArrayList <> () : new CommonsArrayList <> (aAttachments);
+  }
+
+  /**
+   * @return The AS4 message ID to use. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  public final boolean hasMessageID ()
+  {
+    return StringHelper.hasText (m_sMessageID);
+  }
+
+  /**
+   * @return The AS4 conversation ID to use. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getConversationID ()
+  {
+    return m_sConversationID;
+  }
+
+  public final boolean hasConversationID ()
+  {
+    return m_sConversationID != null;
+  }
+
+  /**
+   * @return The main payload. May be <code>null</code>.
+   */
+  @Nullable
+  public final AS4OutgoingAttachment getPayload ()
+  {
+    return m_aPayload;
+  }
+
+  /**
+   * @return A copy of all additional attachments. Never <code>null</code> but
+   *         maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsList <AS4OutgoingAttachment> getAllAttachments ()
+  {
+    return m_aAttachments.getClone ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MessageID", m_sMessageID)
+                                       .append ("ConversationID", m_sConversationID)
+                                       .append ("Payload", m_aPayload)
+                                       .append ("Attachments", m_aAttachments)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a bulk message with only a main payload and a random message ID.
+   *
+   * @param aPayload
+   *        The main payload. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4BulkMessage of (@Nonnull final AS4OutgoingAttachment aPayload)
+  {
+    return new AS4BulkMessage (null, null, aPayload, null);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.state.ISuccessIndicator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * The result of sending a single {@link AS4BulkMessage}.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+public class AS4BulkSendResult implements ISuccessIndicator
+{
+  private final int m_nIndex;
+  private final String m_sMessageID;
+  private final EAS4UserMessageSendResult m_eResult;
+  private final Phase4Exception m_aException;
+
+  public AS4BulkSendResult (@Nonnegative final int nIndex,
+                            @Nonnull @Nonempty final String sMessageID,
+                            @Nonnull final EAS4UserMessageSendResult eResult,
+                            @Nullable final Phase4Exception aException)
+  {
+    ValueEnforcer.isGE0 (nIndex, "Index");
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notNull (eResult, "Result");
+    m_nIndex = nIndex;
+    m_sMessageID = sMessageID;
+    m_eResult = eResult;
+    m_aException = aException;
+  }
+
+  /**
+   * @return The 0-based index of the message in the list of messages provided
+   *         for sending. Results are not necessarily delivered in this order.
+   */
+  @Nonnegative
+  public final int getIndex ()
+  {
+    return m_nIndex;
+  }
+
+  /**
+   * @return The AS4 message ID of the sent message. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The sending result. Never <code>null</code>.
+   */
+  @Nonnull
+  public final EAS4UserMessageSendResult getResult ()
+  {
+    return m_eResult;
+  }
+
+  public boolean isSuccess ()
+  {
+    return m_eResult.isSuccess ();
+  }
+
+  /**
+   * @return The exception that occurred during sending. Only set if the result
+   *         is {@link EAS4UserMessageSendResult#TRANSPORT_ERROR}.
+   */
+  @Nullable
+  public final Phase4Exception getException ()
+  {
+    return m_aException;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Index", m_nIndex)
+                                       .append ("MessageID", m_sMessageID)
+                                       .append ("Result", m_eResult)
+                                       .appendIfNotNull ("Exception", m_aException)
+                                       .getToString ();
+  }
+}
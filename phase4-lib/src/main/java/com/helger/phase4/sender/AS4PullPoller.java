@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.incoming.IAS4SignalMessageConsumer;
+import com.helger.phase4.incoming.IAS4UserMessageConsumer;
+import com.helger.phase4.messaging.http.HttpRetrySettings;
+import com.helger.phase4.model.error.EEbmsError;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * A managed poller that sends PullRequests for several MPCs concurrently. As
+ * long as a PullRequest is answered with a UserMessage, the next PullRequest
+ * for the same MPC is sent immediately, so that a filled MPC is drained
+ * without delay. If the MPC is empty (<code>EBMS:0006</code>), the interval
+ * until the next PullRequest for that MPC is increased exponentially up to a
+ * maximum. Errors use a separate, steeper back-off, so that an unavailable
+ * or failing partner is not hammered with PullRequests. The total number of
+ * PullRequests in flight is limited by the number of polling threads.<br>
+ * A new PullRequest builder is created for every PullRequest via the provided
+ * factory, e.g.
+ * <code>sMPC -&gt; Phase4EuCtpSender.builderPullRequest ()...mpc (sMPC)</code>.
+ * The user message and signal message consumers of the builder are wrapped by
+ * the poller.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4PullPoller implements AutoCloseable
+{
+  public static final Duration DEFAULT_MIN_INTERVAL = Duration.ofSeconds (1);
+  public static final Duration DEFAULT_MAX_INTERVAL = Duration.ofMinutes (5);
+  public static final BigDecimal DEFAULT_INTERVAL_INCREASE_FACTOR = BigDecimal.valueOf (2);
+  public static final Duration DEFAULT_ERROR_MIN_INTERVAL = Duration.ofSeconds (10);
+  public static final Duration DEFAULT_ERROR_MAX_INTERVAL = Duration.ofMinutes (30);
+  public static final BigDecimal DEFAULT_ERROR_INTERVAL_INCREASE_FACTOR = BigDecimal.valueOf (4);
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4PullPoller.class);
+
+  /**
+   * The polling state of a single MPC.
+   */
+  static final class MPCState
+  {
+    private final String m_sMPC;
+    // Only accessed by the thread currently polling this MPC
+    private Duration m_aEmptyInterval = Duration.ZERO;
+    private Duration m_aErrorInterval = Duration.ZERO;
+    private volatile boolean m_bActive = true;
+
+    MPCState (@Nonnull final String sMPC)
+    {
+      m_sMPC = sMPC;
+    }
+  }
+
+  /**
+   * The outcome of a single PullRequest.
+   */
+  enum EPullOutcome
+  {
+    USER_MESSAGE,
+    EMPTY,
+    ERROR;
+  }
+
+  private final Function <String, ? extends AbstractAS4PullRequestBuilder <?>> m_aBuilderFactory;
+  private final IAS4UserMessageConsumer m_aUserMsgConsumer;
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsOrderedMap <String, MPCState> m_aMPCs = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private Duration m_aMinInterval = DEFAULT_MIN_INTERVAL;
+  @GuardedBy ("m_aRWLock")
+  private Duration m_aMaxInterval = DEFAULT_MAX_INTERVAL;
+  @GuardedBy ("m_aRWLock")
+  private BigDecimal m_aIntervalIncreaseFactor = DEFAULT_INTERVAL_INCREASE_FACTOR;
+  @GuardedBy ("m_aRWLock")
+  private Duration m_aErrorMinInterval = DEFAULT_ERROR_MIN_INTERVAL;
+  @GuardedBy ("m_aRWLock")
+  private Duration m_aErrorMaxInterval = DEFAULT_ERROR_MAX_INTERVAL;
+  @GuardedBy ("m_aRWLock")
+  private BigDecimal m_aErrorIntervalIncreaseFactor = DEFAULT_ERROR_INTERVAL_INCREASE_FACTOR;
+  @GuardedBy ("m_aRWLock")
+  private int m_nMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  @GuardedBy ("m_aRWLock")
+  private ScheduledExecutorService m_aExecutor;
+
+  private final AtomicLong m_aPullCount = new AtomicLong (0);
+  private final AtomicLong m_aUserMessageCount = new AtomicLong (0);
+  private final AtomicLong m_aEmptyCount = new AtomicLong (0);
+  private final AtomicLong m_aErrorCount = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param aBuilderFactory
+   *        The factory that creates a fully configured PullRequest builder for
+   *        the provided MPC. It is invoked for every single PullRequest. May
+   *        not be <code>null</code>.
+   * @param aUserMsgConsumer
+   *        The consumer for all pulled UserMessages. It is invoked in the
+   *        polling thread while the attachments are still available. May not
+   *        be <code>null</code>.
+   */
+  public AS4PullPoller (@Nonnull final Function <String, ? extends AbstractAS4PullRequestBuilder <?>> aBuilderFactory,
+                        @Nonnull final IAS4UserMessageConsumer aUserMsgConsumer)
+  {
+    ValueEnforcer.notNull (aBuilderFactory, "BuilderFactory");
+    ValueEnforcer.notNull (aUserMsgConsumer, "UserMsgConsumer");
+    m_aBuilderFactory = aBuilderFactory;
+    m_aUserMsgConsumer = aUserMsgConsumer;
+  }
+
+  /**
+   * @param aMinInterval
+   *        The interval after the first empty PullRequest of an MPC. May not
+   *        be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller setMinInterval (@Nonnull final Duration aMinInterval)
+  {
+    ValueEnforcer.notNull (aMinInterval, "MinInterval");
+    ValueEnforcer.isFalse (aMinInterval.isNegative (), "MinInterval may not be negative");
+    m_aRWLock.writeLocked ( () -> m_aMinInterval = aMinInterval);
+    return this;
+  }
+
+  /**
+   * @param aMaxInterval
+   *        The maximum interval between two PullRequests of an empty MPC. May
+   *        not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller setMaxInterval (@Nonnull final Duration aMaxInterval)
+  {
+    ValueEnforcer.notNull (aMaxInterval, "MaxInterval");
+    ValueEnforcer.isFalse (aMaxInterval.isNegative (), "MaxInterval may not be negative");
+    m_aRWLock.writeLocked ( () -> m_aMaxInterval = aMaxInterval);
+    return this;
+  }
+
+  /**
+   * @param aIntervalIncreaseFactor
+   *        The factor by which the interval is increased after each empty
+   *        PullRequest. May not be <code>null</code> and must be &ge; 1.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller setIntervalIncreaseFactor (@Nonnull final BigDecimal aIntervalIncreaseFactor)
+  {
+    ValueEnforcer.notNull (aIntervalIncreaseFactor, "IntervalIncreaseFactor");
+    ValueEnforcer.isTrue (aIntervalIncreaseFactor.compareTo (BigDecimal.ONE) >= 0,
+                          "IntervalIncreaseFactor must be >= 1");
+    m_aRWLock.writeLocked ( () -> m_aIntervalIncreaseFactor = aIntervalIncreaseFactor);
+    return this;
+  }
+
+  /**
+   * @param aErrorMinInterval
+   *        The interval after the first failed PullRequest of an MPC. May not
+   *        be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller setErrorMinInterval (@Nonnull final Duration aErrorMinInterval)
+  {
+    ValueEnforcer.notNull (aErrorMinInterval, "ErrorMinInterval");
+    ValueEnforcer.isFalse (aErrorMinInterval.isNegative (), "ErrorMinInterval may not be negative");
+    m_aRWLock.writeLocked ( () -> m_aErrorMinInterval = aErrorMinInterval);
+    return this;
+  }
+
+  /**
+   * @param aErrorMaxInterval
+   *        The maximum interval between two failed PullRequests of an MPC. May
+   *        not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller setErrorMaxInterval (@Nonnull final Duration aErrorMaxInterval)
+  {
+    ValueEnforcer.notNull (aErrorMaxInterval, "ErrorMaxInterval");
+    ValueEnforcer.isFalse (aErrorMaxInterval.isNegative (), "ErrorMaxInterval may not be negative");
+    m_aRWLock.writeLocked ( () -> m_aErrorMaxInterval = aErrorMaxInterval);
+    return this;
+  }
+
+  /**
+   * @param aErrorIntervalIncreaseFactor
+   *        The factor by which the interval is increased after each failed
+   *        PullRequest. May not be <code>null</code> and must be &ge; 1.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller setErrorIntervalIncreaseFactor (@Nonnull final BigDecimal aErrorIntervalIncreaseFactor)
+  {
+    ValueEnforcer.notNull (aErrorIntervalIncreaseFactor, "ErrorIntervalIncreaseFactor");
+    ValueEnforcer.isTrue (aErrorIntervalIncreaseFactor.compareTo (BigDecimal.ONE) >= 0,
+                          "ErrorIntervalIncreaseFactor must be >= 1");
+    m_aRWLock.writeLocked ( () -> m_aErrorIntervalIncreaseFactor = aErrorIntervalIncreaseFactor);
+    return this;
+  }
+
+  /**
+   * @param nMaxInFlight
+   *        The maximum number of PullRequests in flight over all MPCs. Must be
+   *        &gt; 0. Changes only take effect if set before {@link #start()}.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller setMaxInFlight (@Nonnegative final int nMaxInFlight)
+  {
+    ValueEnforcer.isGT0 (nMaxInFlight, "MaxInFlight");
+    m_aRWLock.writeLocked ( () -> m_nMaxInFlight = nMaxInFlight);
+    return this;
+  }
+
+  /**
+   * Add a new MPC to poll. If the poller is already started, polling of the
+   * MPC starts immediately.
+   *
+   * @param sMPC
+   *        The MPC to poll. May neither be <code>null</code> nor empty.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller addMPC (@Nonnull @Nonempty final String sMPC)
+  {
+    ValueEnforcer.notEmpty (sMPC, "MPC");
+    final MPCState aState = new MPCState (sMPC);
+    final ScheduledExecutorService aExecutor = m_aRWLock.writeLockedGet ( () -> {
+      if (m_aMPCs.containsKey (sMPC))
+        throw new IllegalArgumentException ("The MPC '" + sMPC + "' is already polled");
+      m_aMPCs.put (sMPC, aState);
+      return m_aExecutor;
+    });
+    if (aExecutor != null)
+      aExecutor.execute ( () -> _poll (aState));
+    return this;
+  }
+
+  /**
+   * Stop polling the provided MPC. A PullRequest that is currently in flight
+   * is finished.
+   *
+   * @param sMPC
+   *        The MPC to stop polling. May be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4PullPoller removeMPC (@Nullable final String sMPC)
+  {
+    final MPCState aState = m_aRWLock.writeLockedGet ( () -> m_aMPCs.remove (sMPC));
+    if (aState != null)
+      aState.m_bActive = false;
+    return this;
+  }
+
+  /**
+   * @return All MPCs that are polled. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsOrderedSet <String> getAllMPCs ()
+  {
+    return m_aRWLock.readLockedGet (m_aMPCs::copyOfKeySet);
+  }
+
+  /**
+   * Start polling all MPCs.
+   *
+   * @throws IllegalStateException
+   *         If the poller is already started
+   */
+  public void start ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (m_aExecutor != null)
+        throw new IllegalStateException ("The pull poller is already started");
+
+      final ScheduledThreadPoolExecutor aExecutor = new ScheduledThreadPoolExecutor (m_nMaxInFlight,
+                                                                                     new BasicThreadFactory.Builder ().namingPattern ("phase4-pull-poller-%d")
+                                                                                                                      .daemon (true)
+                                                                                                                      .build ());
+      // Don't wait for the next PullRequests when closing
+      aExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+      m_aExecutor = aExecutor;
+      for (final MPCState aState : m_aMPCs.values ())
+        aExecutor.execute ( () -> _poll (aState));
+      LOGGER.info ("Started polling the MPCs " + m_aMPCs.keySet ());
+    });
+  }
+
+  /**
+   * @return <code>true</code> if the poller was started and is not yet closed.
+   */
+  public boolean isStarted ()
+  {
+    return m_aRWLock.readLockedBoolean ( () -> m_aExecutor != null);
+  }
+
+  @Nonnull
+  private EPullOutcome _sendPullRequest (@Nonnull final String sMPC)
+  {
+    final AbstractAS4PullRequestBuilder <?> aBuilder = m_aBuilderFactory.apply (sMPC);
+    if (aBuilder == null)
+    {
+      LOGGER.error ("The builder factory returned no PullRequest builder for MPC '" + sMPC + "'");
+      return EPullOutcome.ERROR;
+    }
+
+    final IAS4UserMessageConsumer aOrigUserMsgConsumer = aBuilder.userMsgConsumer ();
+    final IAS4SignalMessageConsumer aOrigSignalMsgConsumer = aBuilder.signalMsgConsumer ();
+    final EPullOutcome [] aOutcome = { EPullOutcome.ERROR };
+
+    aBuilder.mpc (sMPC).userMsgConsumer ( (aUserMsg, aMessageMetadata, aState) -> {
+      aOutcome[0] = EPullOutcome.USER_MESSAGE;
+      if (aOrigUserMsgConsumer != null)
+        aOrigUserMsgConsumer.handleUserMessage (aUserMsg, aMessageMetadata, aState);
+      m_aUserMsgConsumer.handleUserMessage (aUserMsg, aMessageMetadata, aState);
+    }).signalMsgConsumer ( (aSignalMsg, aMessageMetadata, aState) -> {
+      final String sEmptyCode = EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.getErrorCode ();
+      boolean bEmpty = false;
+      for (final Ebms3Error aError : aSignalMsg.getError ())
+        if (sEmptyCode.equals (aError.getErrorCode ()))
+          bEmpty = true;
+      aOutcome[0] = bEmpty ? EPullOutcome.EMPTY : EPullOutcome.ERROR;
+      if (aOrigSignalMsgConsumer != null)
+        aOrigSignalMsgConsumer.handleSignalMessage (aSignalMsg, aMessageMetadata, aState);
+    });
+
+    try
+    {
+      if (aBuilder.sendMessage ().isFailure ())
+        return EPullOutcome.ERROR;
+    }
+    catch (final Phase4Exception | RuntimeException ex)
+    {
+      LOGGER.warn ("Error sending PullRequest for MPC '" +
+                   sMPC +
+                   "': " +
+                   ex.getClass ().getName () +
+                   " - " +
+                   ex.getMessage ());
+      return EPullOutcome.ERROR;
+    }
+    return aOutcome[0];
+  }
+
+  @Nonnull
+  private static Duration _getIncreased (@Nonnull final Duration aCurrent,
+                                         @Nonnull final Duration aMin,
+                                         @Nonnull final Duration aMax,
+                                         @Nonnull final BigDecimal aFactor)
+  {
+    if (aCurrent.isZero ())
+      return aMin;
+    final Duration ret = HttpRetrySettings.getIncreased (aCurrent, aFactor);
+    return ret.compareTo (aMax) > 0 ? aMax : ret;
+  }
+
+  /**
+   * Determine the interval until the next PullRequest of an MPC and update
+   * the back-off state of the MPC. A UserMessage resets both back-offs, an
+   * empty MPC resets the error back-off and vice versa.
+   *
+   * @param aState
+   *        The MPC state to update. May not be <code>null</code>.
+   * @param eOutcome
+   *        The outcome of the last PullRequest. May not be <code>null</code>.
+   * @return The interval to wait. Never <code>null</code>.
+   */
+  @Nonnull
+  Duration getNextInterval (@Nonnull final MPCState aState, @Nonnull final EPullOutcome eOutcome)
+  {
+    return m_aRWLock.readLockedGet ( () -> {
+      switch (eOutcome)
+      {
+        case USER_MESSAGE:
+          // There may be more - drain
+          aState.m_aEmptyInterval = Duration.ZERO;
+          aState.m_aErrorInterval = Duration.ZERO;
+          return Duration.ZERO;
+        case EMPTY:
+          aState.m_aErrorInterval = Duration.ZERO;
+          aState.m_aEmptyInterval = _getIncreased (aState.m_aEmptyInterval,
+                                                   m_aMinInterval,
+                                                   m_aMaxInterval,
+                                                   m_aIntervalIncreaseFactor);
+          return aState.m_aEmptyInterval;
+        default:
+          aState.m_aEmptyInterval = Duration.ZERO;
+          aState.m_aErrorInterval = _getIncreased (aState.m_aErrorInterval,
+                                                   m_aErrorMinInterval,
+                                                   m_aErrorMaxInterval,
+                                                   m_aErrorIntervalIncreaseFactor);
+          return aState.m_aErrorInterval;
+      }
+    });
+  }
+
+  private void _poll (@Nonnull final MPCState aState)
+  {
+    if (!aState.m_bActive)
+      return;
+
+    m_aPullCount.incrementAndGet ();
+    final EPullOutcome eOutcome = _sendPullRequest (aState.m_sMPC);
+
+    final Duration aNextInterval = getNextInterval (aState, eOutcome);
+
+    switch (eOutcome)
+    {
+      case USER_MESSAGE:
+        m_aUserMessageCount.incrementAndGet ();
+        break;
+      case EMPTY:
+        m_aEmptyCount.incrementAndGet ();
+        break;
+      default:
+        m_aErrorCount.incrementAndGet ();
+        break;
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("PullRequest for MPC '" +
+                    aState.m_sMPC +
+                    "' resulted in " +
+                    eOutcome +
+                    " - next PullRequest in " +
+                    aNextInterval.toMillis () +
+                    " ms");
+
+    final ScheduledExecutorService aExecutor = m_aRWLock.readLockedGet ( () -> m_aExecutor);
+    if (aExecutor != null && aState.m_bActive)
+      try
+      {
+        if (aNextInterval.isZero ())
+          aExecutor.execute ( () -> _poll (aState));
+        else
+          aExecutor.schedule ( () -> _poll (aState), aNextInterval.toMillis (), TimeUnit.MILLISECONDS);
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Closed in the meantime
+      }
+  }
+
+  /**
+   * @return The total number of PullRequests sent.
+   */
+  @Nonnegative
+  public long getPullCount ()
+  {
+    return m_aPullCount.get ();
+  }
+
+  /**
+   * @return The number of PullRequests that were answered with a
+   *         UserMessage.
+   */
+  @Nonnegative
+  public long getUserMessageCount ()
+  {
+    return m_aUserMessageCount.get ();
+  }
+
+  /**
+   * @return The number of PullRequests that were answered with an empty MPC
+   *         error.
+   */
+  @Nonnegative
+  public long getEmptyCount ()
+  {
+    return m_aEmptyCount.get ();
+  }
+
+  /**
+   * @return The number of PullRequests that failed for other reasons.
+   */
+  @Nonnegative
+  public long getErrorCount ()
+  {
+    return m_aErrorCount.get ();
+  }
+
+  /**
+   * Stop polling. All PullRequests currently in flight are finished.
+   */
+  public void close ()
+  {
+    final ScheduledExecutorService aExecutor = m_aRWLock.writeLockedGet ( () -> {
+      final ScheduledExecutorService ret = m_aExecutor;
+      m_aExecutor = null;
+      return ret;
+    });
+    if (aExecutor != null)
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aExecutor);
+      LOGGER.info ("Stopped the pull poller");
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MPCs", getAllMPCs ())
+                                       .append ("PullCount", getPullCount ())
+                                       .append ("UserMessageCount", getUserMessageCount ())
+                                       .getToString ();
+  }
+}
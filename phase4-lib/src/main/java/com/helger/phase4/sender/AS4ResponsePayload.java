@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * The payload of a synchronous HTTP response to an outgoing AS4 message. It is
+ * either kept in memory or, in streaming mode, spooled to a temporary file of
+ * the message's {@link AS4ResourceHelper}, so that large responses (e.g. pull
+ * responses with big attachments) don't need to fit on the heap.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@Immutable
+final class AS4ResponsePayload implements IHasInputStream
+{
+  /**
+   * Responses with a known length up to this size are always kept in memory
+   */
+  static final long STREAMING_IN_MEMORY_THRESHOLD = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private final byte [] m_aBytes;
+  private final File m_aFile;
+  private final long m_nLength;
+
+  private AS4ResponsePayload (@Nullable final byte [] aBytes, @Nullable final File aFile, final long nLength)
+  {
+    m_aBytes = aBytes;
+    m_aFile = aFile;
+    m_nLength = nLength;
+  }
+
+  /**
+   * @return The number of bytes of the payload.
+   */
+  @Nonnegative
+  public long getLength ()
+  {
+    return m_nLength;
+  }
+
+  /**
+   * @return <code>true</code> if the payload was spooled to a temporary file.
+   */
+  public boolean isSpooled ()
+  {
+    return m_aFile != null;
+  }
+
+  @Nonnull
+  public InputStream getInputStream ()
+  {
+    if (m_aFile != null)
+      return FileHelper.getBufferedInputStream (m_aFile);
+    return new NonBlockingByteArrayInputStream (m_aBytes);
+  }
+
+  public boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Length", m_nLength).append ("File", m_aFile).getToString ();
+  }
+
+  /**
+   * Read the provided HTTP entity.
+   *
+   * @param aEntity
+   *        The HTTP entity to read. May not be <code>null</code>.
+   * @param bStreaming
+   *        <code>true</code> to spool large or unknown-length entities to a
+   *        temporary file, <code>false</code> to read everything into memory.
+   * @param aResHelper
+   *        The resource helper to create the temporary file with. May not be
+   *        <code>null</code>.
+   * @return The payload or <code>null</code> if the entity has no content.
+   * @throws IOException
+   *         in case of a read error
+   */
+  @Nullable
+  static AS4ResponsePayload read (@Nonnull final HttpEntity aEntity,
+                                  final boolean bStreaming,
+                                  @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    final long nContentLength = aEntity.getContentLength ();
+    if (!bStreaming || (nContentLength >= 0 && nContentLength <= STREAMING_IN_MEMORY_THRESHOLD))
+    {
+      final byte [] aBytes = EntityUtils.toByteArray (aEntity);
+      return aBytes == null ? null : new AS4ResponsePayload (aBytes, null, aBytes.length);
+    }
+
+    // Spool to a temporary file
+    final File aFile = aResHelper.createTempFile ();
+    try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aFile))
+    {
+      if (aOS == null)
+        throw new IOException ("Failed to open '" + aFile.getAbsolutePath () + "' for writing");
+      aEntity.writeTo (aOS);
+    }
+    return new AS4ResponsePayload (null, aFile, aFile.length ());
+  }
+}
@@ -16,10 +16,15 @@
  */
 package com.helger.phase4.sender;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.mgr.AS4WarmUp;
+
 /**
  * This class contains all the settings necessary to send AS4 messages using the
  * builder pattern. See <code>Builder.sendMessage</code> and
@@ -57,6 +62,25 @@ public final class AS4Sender
     return new BuilderPullRequest ();
   }
 
+  /**
+   * Start the warm-up of all registered AS4 profiles in the background. Call
+   * this once when bootstrapping a sending application, to avoid the one-time
+   * initialization costs on the first sent message. See {@link AS4WarmUp} for
+   * details.
+   *
+   * @param aCryptoFactory
+   *        The crypto factory that is used for sending. May not be
+   *        <code>null</code>.
+   * @return A future that is completed when the warm-up is finished. Never
+   *         <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public static CompletableFuture <Void> startWarmUp (@Nonnull final IAS4CryptoFactory aCryptoFactory)
+  {
+    return AS4WarmUp.startAsync (aCryptoFactory);
+  }
+
   /**
    * This sending builder enforces the creation of a MIME message by putting the
    * payload as a MIME part.
@@ -23,6 +23,7 @@ import java.util.function.Consumer;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import org.slf4j.Logger;
@@ -31,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.traits.IGenericImplTrait;
@@ -48,6 +50,7 @@ import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
 import com.helger.phase4.incoming.AS4IncomingProfileSelectorConstant;
 import com.helger.phase4.incoming.IAS4IncomingProfileSelector;
+import com.helger.phase4.messaging.http.Http2HttpPoster;
 import com.helger.phase4.messaging.http.HttpRetrySettings;
 import com.helger.phase4.messaging.http.IHttpPoster;
 import com.helger.phase4.model.ESoapVersion;
@@ -68,10 +71,13 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
                                                 IGenericImplTrait <IMPLTYPE>
 {
   public static final Locale DEFAULT_LOCALE = Locale.US;
+  /** @since 3.0.1 */
+  public static final boolean DEFAULT_USE_HTTP2 = false;
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AbstractAS4MessageBuilder.class);
 
   protected IHttpPoster m_aCustomHttpPoster;
+  protected boolean m_bUseHttp2 = DEFAULT_USE_HTTP2;
   protected HttpClientFactory m_aHttpClientFactory;
   protected IAS4CryptoFactory m_aCryptoFactorySign;
   protected IAS4CryptoFactory m_aCryptoFactoryCrypt;
@@ -98,6 +104,11 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   protected IAS4RetryCallback m_aRetryCallback;
   protected IAS4RawResponseConsumer m_aResponseConsumer;
 
+  // Created on demand and shared by all messages of this builder
+  private final SimpleLock m_aHttp2PosterLock = new SimpleLock ();
+  @GuardedBy ("m_aHttp2PosterLock")
+  private Http2HttpPoster m_aHttp2Poster;
+
   /**
    * Create a new builder, with the following fields already set:<br>
    * {@link #httpClientFactory(HttpClientFactory)}<br>
@@ -137,7 +148,12 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
    * only be used if you know what you are doing! It allows you to overwrite how
    * the message is sent over the wire.<br>
    * Note: if this method is used with a non-<code>null</code> parameter,
-   * {@link #httpClientFactory()} becomes useless
+   * {@link #httpClientFactory()} becomes useless<br>
+   * To multiplex independent messages (e.g. of different builders) to the
+   * same destination over one HTTP/2 connection, create a single
+   * {@link Http2HttpPoster} instance, pass it to this method of every builder
+   * and close it when it is no longer needed. A custom HTTP poster is never
+   * closed by the builder.
    *
    * @param aCustomHttpPoster
    *        The new HTTP poster to be used. May be <code>null</code> which means
@@ -152,6 +168,81 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     return thisAsT ();
   }
 
+  /**
+   * @return <code>true</code> if a {@link Http2HttpPoster} should be
+   *         used if no custom HTTP poster is set, <code>false</code> if the
+   *         default blocking HTTP/1.1 poster should be used.
+   * @since 3.0.1
+   */
+  public final boolean useHttp2 ()
+  {
+    return m_bUseHttp2;
+  }
+
+  /**
+   * Enable or disable sending via HTTP/2. If enabled and no
+   * {@link #customHttpPoster(IHttpPoster)} is set, a {@link Http2HttpPoster}
+   * using the {@link #httpClientFactory()} of this builder is used, which
+   * negotiates h2 via ALPN and falls back to HTTP/1.1 if the receiver does not
+   * support it. This poster belongs to the builder and its HTTP clients are
+   * closed after each {@link #sendMessage()} call and after each bulk sending.
+   * Therefore only the concurrent messages of a single bulk sending are
+   * multiplexed over one connection - independent send calls always open a new
+   * connection. To share the connections between send calls, pass one
+   * {@link Http2HttpPoster} instance to
+   * {@link #customHttpPoster(IHttpPoster)} of all builders instead.
+   *
+   * @param bUseHttp2
+   *        <code>true</code> to use HTTP/2, <code>false</code> to use the
+   *        default poster.
+   * @return this for chaining
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final IMPLTYPE useHttp2 (final boolean bUseHttp2)
+  {
+    m_bUseHttp2 = bUseHttp2;
+    return thisAsT ();
+  }
+
+  /**
+   * Get the {@link Http2HttpPoster} of this builder. It is created on demand
+   * and always uses the current {@link #httpClientFactory()}. It is not shared
+   * with other builders.
+   *
+   * @return The HTTP/2 poster. Never <code>null</code>.
+   * @see #useHttp2(boolean)
+   * @since 3.0.1
+   */
+  @Nonnull
+  protected final Http2HttpPoster getHttp2Poster ()
+  {
+    return m_aHttp2PosterLock.lockedGet ( () -> {
+      if (m_aHttp2Poster == null)
+      {
+        m_aHttp2Poster = new Http2HttpPoster ();
+        // Otherwise Oxalis dies
+        m_aHttp2Poster.setQuoteHttpHeaders (false);
+      }
+      m_aHttp2Poster.setHttpClientFactory (m_aHttpClientFactory);
+      return m_aHttp2Poster;
+    });
+  }
+
+  /**
+   * Close the HTTP clients of the {@link Http2HttpPoster} of this builder, if
+   * it was created. Requests that are still running are not affected.
+   *
+   * @since 3.0.1
+   */
+  protected final void closeHttp2Poster ()
+  {
+    m_aHttp2PosterLock.locked ( () -> {
+      if (m_aHttp2Poster != null)
+        m_aHttp2Poster.close ();
+    });
+  }
+
   /**
    * @return The currently set {@link HttpClientFactory}. May be
    *         <code>null</code>.
@@ -1001,7 +1092,16 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
       }
 
     // Main sending
-    mainSendMessage ();
+    try
+    {
+      mainSendMessage ();
+    }
+    finally
+    {
+      // Don't keep the HTTP/2 connections of this builder open - shared
+      // connections require a custom HTTP poster
+      closeHttp2Poster ();
+    }
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Finished main AS4 message sending without exception");
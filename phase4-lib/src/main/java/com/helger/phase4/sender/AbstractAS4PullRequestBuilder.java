@@ -309,11 +309,17 @@ public abstract class AbstractAS4PullRequestBuilder <IMPLTYPE extends AbstractAS
       aPullRequestMsg.setHttpPoster (m_aCustomHttpPoster);
     }
     else
-    {
-      aPullRequestMsg.getHttpPoster ().setHttpClientFactory (m_aHttpClientFactory);
-      // Otherwise Oxalis dies
-      aPullRequestMsg.getHttpPoster ().setQuoteHttpHeaders (false);
-    }
+      if (m_bUseHttp2)
+      {
+        // HTTP/2 poster using the HTTP client factory of this builder
+        aPullRequestMsg.setHttpPoster (getHttp2Poster ());
+      }
+      else
+      {
+        aPullRequestMsg.getHttpPoster ().setHttpClientFactory (m_aHttpClientFactory);
+        // Otherwise Oxalis dies
+        aPullRequestMsg.getHttpPoster ().setQuoteHttpHeaders (false);
+      }
 
     aPullRequestMsg.setSoapVersion (m_eSoapVersion);
     aPullRequestMsg.setSendingDateTime (m_aSendingDateTime);
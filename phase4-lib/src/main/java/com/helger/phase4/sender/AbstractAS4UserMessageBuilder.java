@@ -17,8 +17,17 @@
 package com.helger.phase4.sender;
 
 import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
@@ -27,6 +36,9 @@ import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.impl.CommonsArrayList;
@@ -34,14 +46,17 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.wrapper.Wrapper;
+import com.helger.httpclient.HttpClientFactory;
 import com.helger.phase4.attachment.AS4OutgoingAttachment;
 import com.helger.phase4.client.AS4ClientUserMessage;
 import com.helger.phase4.ebms3header.Ebms3Property;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.incoming.IAS4SignalMessageConsumer;
+import com.helger.phase4.messaging.http.SharedConnectionHttpClientFactory;
 import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.model.message.MessageHelperMethods;
 import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.util.AS4ExecutorHelper;
 import com.helger.phase4.util.Phase4Exception;
 
 /**
@@ -832,12 +847,18 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
       aUserMsg.setHttpPoster (m_aCustomHttpPoster);
     }
     else
-    {
-      // Default HTTP poster
-      aUserMsg.getHttpPoster ().setHttpClientFactory (m_aHttpClientFactory);
-      // Otherwise Oxalis dies
-      aUserMsg.getHttpPoster ().setQuoteHttpHeaders (false);
-    }
+      if (m_bUseHttp2)
+      {
+        // HTTP/2 poster using the HTTP client factory of this builder
+        aUserMsg.setHttpPoster (getHttp2Poster ());
+      }
+      else
+      {
+        // Default HTTP poster
+        aUserMsg.getHttpPoster ().setHttpClientFactory (m_aHttpClientFactory);
+        // Otherwise Oxalis dies
+        aUserMsg.getHttpPoster ().setQuoteHttpHeaders (false);
+      }
 
     aUserMsg.setSoapVersion (m_eSoapVersion);
     aUserMsg.setSendingDateTime (m_aSendingDateTime);
@@ -886,6 +907,41 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     aUserMsg.setForceMimeMessage (m_bForceMimeMessage);
   }
 
+  @Nonnull
+  private static EAS4UserMessageSendResult _getSendResult (@Nullable final Ebms3SignalMessage aSignalMsg)
+  {
+    if (aSignalMsg == null)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Failed to get a SignalMessage as the response");
+
+      // Unexpected response - invalid XML or at least no Ebms3 signal message
+      return EAS4UserMessageSendResult.NO_SIGNAL_MESSAGE_RECEIVED;
+    }
+
+    if (aSignalMsg.hasErrorEntries ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("The received SignalMessage contains at least one error");
+
+      // An error was returned from the other side
+      // Errors have precedence over receipts
+      return EAS4UserMessageSendResult.AS4_ERROR_MESSAGE_RECEIVED;
+    }
+
+    if (aSignalMsg.getReceipt () != null)
+    {
+      // A receipt was returned - this is deemed success
+      return EAS4UserMessageSendResult.SUCCESS;
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("The SignalMessage contains neither Errors nor a Receipt - unexpected SignalMessage layout.");
+
+    // Neither an error nor a receipt was returned - this is weird
+    return EAS4UserMessageSendResult.INVALID_SIGNAL_MESSAGE_RECEIVED;
+  }
+
   /**
    * This is a sanity method that encapsulates all the sending checks that are
    * necessary to determine overall sending success or error.<br>
@@ -939,37 +995,7 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
         return EAS4UserMessageSendResult.INVALID_PARAMETERS;
       }
 
-      final Ebms3SignalMessage aSignalMsg = aSignalMsgKeeper.get ();
-      if (aSignalMsg == null)
-      {
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("Failed to get a SignalMessage as the response");
-
-        // Unexpected response - invalid XML or at least no Ebms3 signal message
-        return EAS4UserMessageSendResult.NO_SIGNAL_MESSAGE_RECEIVED;
-      }
-
-      if (aSignalMsg.hasErrorEntries ())
-      {
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("The received SignalMessage contains at least one error");
-
-        // An error was returned from the other side
-        // Errors have precedence over receipts
-        return EAS4UserMessageSendResult.AS4_ERROR_MESSAGE_RECEIVED;
-      }
-
-      if (aSignalMsg.getReceipt () != null)
-      {
-        // A receipt was returned - this is deemed success
-        return EAS4UserMessageSendResult.SUCCESS;
-      }
-
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("The SignalMessage contains neither Errors nor a Receipt - unexpected SignalMessage layout.");
-
-      // Neither an error nor a receipt was returned - this is weird
-      return EAS4UserMessageSendResult.INVALID_SIGNAL_MESSAGE_RECEIVED;
+      return _getSendResult (aSignalMsgKeeper.get ());
     }
     catch (final Phase4Exception ex)
     {
@@ -987,4 +1013,397 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
       m_aSignalMsgConsumer = aOld;
     }
   }
+
+  /**
+   * Internal method that is invoked once per bulk sending instead of
+   * {@link #finishFields()}. It must resolve all fields that are identical for
+   * all messages of a bulk sending (e.g. the endpoint lookup). By default
+   * {@link #finishFields()} is invoked. Override this, if
+   * {@link #finishFields()} contains per-message logic like the payload
+   * creation.
+   *
+   * @return {@link ESuccess} - never <code>null</code>. Returning failure here
+   *         stops sending all messages.
+   * @throws Phase4Exception
+   *         if something goes wrong
+   * @since 3.0.1
+   */
+  @Nonnull
+  @OverrideOnDemand
+  protected ESuccess finishBulkFields () throws Phase4Exception
+  {
+    return finishFields ();
+  }
+
+  /**
+   * Check if all mandatory fields for bulk sending are set. This is the bulk
+   * sending pendant to {@link #isEveryRequiredFieldSet()} and must not check
+   * fields that are provided per message. By default
+   * {@link #isEveryRequiredFieldSet()} is invoked.
+   *
+   * @return <code>true</code> if all mandatory fields are set, and sending can
+   *         continue.
+   * @since 3.0.1
+   */
+  @OverrideOnDemand
+  protected boolean isEveryRequiredBulkFieldSet ()
+  {
+    return isEveryRequiredFieldSet ();
+  }
+
+  /**
+   * Prepare a single message of a bulk sending before it is send. This is the
+   * place for per-message logic of {@link #finishFields()}, like the creation
+   * or validation of the payload. This method is called concurrently from
+   * multiple threads and must therefore not modify the state of this builder.
+   * By default the message is returned unchanged.
+   *
+   * @param aMessage
+   *        The message as provided by the caller. Never <code>null</code>.
+   * @return The message to be send. May not be <code>null</code>.
+   * @throws Phase4Exception
+   *         if the message cannot be send. Only this message fails.
+   * @since 3.0.1
+   */
+  @Nonnull
+  @OverrideOnDemand
+  protected AS4BulkMessage prepareBulkMessage (@Nonnull final AS4BulkMessage aMessage) throws Phase4Exception
+  {
+    return aMessage;
+  }
+
+  /**
+   * Synchronously send a single message of a bulk sending. This method is
+   * called concurrently from multiple threads and must therefore not modify
+   * the state of this builder. The default implementation throws an
+   * exception, so every message of the bulk sending fails, because the single
+   * message sending of {@link #mainSendMessage()} is not thread-safe.
+   *
+   * @param aMessage
+   *        The message to be send. Never <code>null</code>.
+   * @param sMessageID
+   *        The AS4 message ID to use. Never <code>null</code>.
+   * @param aHttpClientFactory
+   *        The HTTP client factory shared by all messages of the bulk sending.
+   *        Is <code>null</code> if a custom HTTP poster or HTTP/2 is used.
+   * @param aSignalMsgConsumer
+   *        The signal message consumer to use for this message. Never
+   *        <code>null</code>.
+   * @throws Phase4Exception
+   *         In case of any error
+   * @since 3.0.1
+   */
+  @OverrideOnDemand
+  protected void mainSendBulkMessage (@Nonnull final AS4BulkMessage aMessage,
+                                      @Nonnull @Nonempty final String sMessageID,
+                                      @Nullable final HttpClientFactory aHttpClientFactory,
+                                      @Nonnull final IAS4SignalMessageConsumer aSignalMsgConsumer) throws Phase4Exception
+  {
+    throw new Phase4Exception ("The builder " +
+                               getClass ().getName () +
+                               " does not support sending messages in bulk - override mainSendBulkMessage to support it");
+  }
+
+  /**
+   * Perform all the checks that are identical for all messages of a bulk
+   * sending.
+   *
+   * @return <code>true</code> if sending can start
+   * @throws Phase4Exception
+   *         In case of any error
+   */
+  private boolean _prepareBulkSending () throws Phase4Exception
+  {
+    if (finishBulkFields ().isFailure ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("finishBulkFields() prevented the AS4 messages to be send");
+      return false;
+    }
+
+    if (!isEveryRequiredBulkFieldSet ())
+    {
+      LOGGER.error ("At least one mandatory field is not set and therefore the AS4 messages cannot be send.");
+      return false;
+    }
+
+    customizeBeforeSending ();
+
+    final IAS4SenderInterrupt aSenderInterrupt = senderInterrupt ();
+    if (aSenderInterrupt != null && aSenderInterrupt.canSendDocument ().isBreak ())
+    {
+      LOGGER.warn ("The AS4 sender interrupt disabled the sending of the messages.");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Close all HTTP resources that were used by a bulk sending.
+   *
+   * @param aHttpClientFactory
+   *        The shared HTTP client factory of the bulk sending. May be
+   *        <code>null</code>.
+   */
+  private void _closeBulkResources (@Nullable final SharedConnectionHttpClientFactory aHttpClientFactory)
+  {
+    if (aHttpClientFactory != null)
+      aHttpClientFactory.close ();
+    closeHttp2Poster ();
+  }
+
+  @Nonnull
+  private AS4BulkSendResult _sendBulkMessage (@Nonnegative final int nIndex,
+                                              @Nonnull final AS4BulkMessage aMessage,
+                                              @Nullable final HttpClientFactory aHttpClientFactory,
+                                              @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    final String sMessageID = aMessage.hasMessageID () ? aMessage.getMessageID ()
+                                                       : MessageHelperMethods.createRandomMessageID ();
+
+    // Store the received signal message
+    final IAS4SignalMessageConsumer aOld = m_aSignalMsgConsumer;
+    final Wrapper <Ebms3SignalMessage> aSignalMsgKeeper = new Wrapper <> ();
+    final IAS4SignalMessageConsumer aSignalMsgConsumer = (aSignalMsg, aMMD, aIncomingState) -> {
+      aSignalMsgKeeper.set (aSignalMsg);
+      if (aOld != null)
+        aOld.handleSignalMessage (aSignalMsg, aMMD, aIncomingState);
+    };
+
+    Phase4Exception aException;
+    try
+    {
+      final AS4BulkMessage aPreparedMessage = prepareBulkMessage (aMessage);
+      if (aPreparedMessage == null)
+        throw new IllegalStateException ("prepareBulkMessage must not return null");
+      mainSendBulkMessage (aPreparedMessage, sMessageID, aHttpClientFactory, aSignalMsgConsumer);
+      return new AS4BulkSendResult (nIndex, sMessageID, _getSendResult (aSignalMsgKeeper.get ()), null);
+    }
+    catch (final Phase4Exception ex)
+    {
+      aException = ex;
+    }
+    catch (final RuntimeException ex)
+    {
+      aException = new Phase4Exception ("Wrapped Phase4Exception", ex);
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("An exception occurred sending out the AS4 message '" + sMessageID + "'", aException);
+
+    if (aExceptionConsumer != null)
+      aExceptionConsumer.accept (aException);
+    return new AS4BulkSendResult (nIndex, sMessageID, EAS4UserMessageSendResult.TRANSPORT_ERROR, aException);
+  }
+
+  @Nonnull
+  private static AS4BulkSendResult _takeBulkResult (@Nonnull final BlockingQueue <AS4BulkSendResult> aResults)
+  {
+    try
+    {
+      return aResults.take ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new IllegalStateException ("Interrupted while waiting for the AS4 bulk sending results", ex);
+    }
+  }
+
+  /**
+   * Send many user messages to the same receiver. All the settings that are
+   * identical for all messages (like endpoint lookup, receiver certificate
+   * check, PMode resolution and crypto parameters) are resolved and checked
+   * only once, and all messages share the same HTTP connection pool. Each
+   * message has its own message ID, payload and attachments. The messages are
+   * send with the provided parallelism on the shared outbound executor of
+   * {@link AS4ExecutorHelper}.<br>
+   * This method uses the same checks as {@link #sendMessageAndCheckForReceipt()}
+   * to determine the result of each message. While the bulk sending is in
+   * progress, this builder must not be modified.<br>
+   * Note: {@link #afterSuccessfulSending()} is not invoked for bulk sending.
+   *
+   * @param aMessages
+   *        The messages to be send. May not be <code>null</code>.
+   * @param nParallelism
+   *        The maximum number of messages that are send in parallel. Must be
+   *        &gt; 0.
+   * @return A stream with the results of all messages in the order of
+   *         completion. Each call to the stream blocks until the next result
+   *         is available. Never <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final Stream <AS4BulkSendResult> sendMessagesInBulk (@Nonnull final Collection <? extends AS4BulkMessage> aMessages,
+                                                             @Nonnegative final int nParallelism)
+  {
+    // This information might be crucial to determine what went wrong
+    return sendMessagesInBulk (aMessages,
+                               nParallelism,
+                               ex -> LOGGER.error ("Exception sending AS4 user message in bulk", ex));
+  }
+
+  /**
+   * Send many user messages to the same receiver. All the settings that are
+   * identical for all messages (like endpoint lookup, receiver certificate
+   * check, PMode resolution and crypto parameters) are resolved and checked
+   * only once, and all messages share the same HTTP connection pool. Each
+   * message has its own message ID, payload and attachments. The messages are
+   * send with the provided parallelism on the shared outbound executor of
+   * {@link AS4ExecutorHelper}.<br>
+   * This method uses the same checks as
+   * {@link #sendMessageAndCheckForReceipt(Consumer)} to determine the result
+   * of each message. While the bulk sending is in progress, this builder must
+   * not be modified.<br>
+   * Note: {@link #afterSuccessfulSending()} is not invoked for bulk sending.
+   *
+   * @param aMessages
+   *        The messages to be send. May not be <code>null</code>.
+   * @param nParallelism
+   *        The maximum number of messages that are send in parallel. Must be
+   *        &gt; 0.
+   * @param aExceptionConsumer
+   *        An optional Consumer that takes an eventually thrown
+   *        {@link Phase4Exception}. It may be invoked concurrently. May be
+   *        <code>null</code>.
+   * @return A stream with the results of all messages in the order of
+   *         completion. Each call to the stream blocks until the next result
+   *         is available. Never <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final Stream <AS4BulkSendResult> sendMessagesInBulk (@Nonnull final Collection <? extends AS4BulkMessage> aMessages,
+                                                             @Nonnegative final int nParallelism,
+                                                             @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    return sendMessagesInBulk (aMessages, nParallelism, AS4ExecutorHelper.getOutboundExecutor (), aExceptionConsumer);
+  }
+
+  /**
+   * Send many user messages to the same receiver. All the settings that are
+   * identical for all messages (like endpoint lookup, receiver certificate
+   * check, PMode resolution and crypto parameters) are resolved and checked
+   * only once, and all messages share the same HTTP connection pool. Each
+   * message has its own message ID, payload and attachments. The messages are
+   * send with the provided parallelism on the provided executor.<br>
+   * This method uses the same checks as
+   * {@link #sendMessageAndCheckForReceipt(Consumer)} to determine the result
+   * of each message. While the bulk sending is in progress, this builder must
+   * not be modified.<br>
+   * Note: {@link #afterSuccessfulSending()} is not invoked for bulk sending.
+   *
+   * @param aMessages
+   *        The messages to be send. May not be <code>null</code>.
+   * @param nParallelism
+   *        The maximum number of messages that are send in parallel. Must be
+   *        &gt; 0.
+   * @param aExecutor
+   *        The executor to send the messages on. At most
+   *        <code>nParallelism</code> tasks are submitted. The executor is not
+   *        shut down by this method. May not be <code>null</code>.
+   * @param aExceptionConsumer
+   *        An optional Consumer that takes an eventually thrown
+   *        {@link Phase4Exception}. It may be invoked concurrently. May be
+   *        <code>null</code>.
+   * @return A stream with the results of all messages in the order of
+   *         completion. Each call to the stream blocks until the next result
+   *         is available. Never <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final Stream <AS4BulkSendResult> sendMessagesInBulk (@Nonnull final Collection <? extends AS4BulkMessage> aMessages,
+                                                             @Nonnegative final int nParallelism,
+                                                             @Nonnull final Executor aExecutor,
+                                                             @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    ValueEnforcer.noNullValue (aMessages, "Messages");
+    ValueEnforcer.isGT0 (nParallelism, "Parallelism");
+    ValueEnforcer.notNull (aExecutor, "Executor");
+
+    final ICommonsList <AS4BulkMessage> aMessageList = new CommonsArrayList <> (aMessages);
+    if (aMessageList.isEmpty ())
+      return Stream.empty ();
+
+    // Resolve everything that is identical for all messages exactly once
+    EAS4UserMessageSendResult eCommonError = null;
+    Phase4Exception aCommonException = null;
+    try
+    {
+      if (!_prepareBulkSending ())
+        eCommonError = EAS4UserMessageSendResult.INVALID_PARAMETERS;
+    }
+    catch (final Phase4Exception ex)
+    {
+      if (aExceptionConsumer != null)
+        aExceptionConsumer.accept (ex);
+      eCommonError = EAS4UserMessageSendResult.TRANSPORT_ERROR;
+      aCommonException = ex;
+    }
+
+    if (eCommonError != null)
+    {
+      // No message can be send
+      final EAS4UserMessageSendResult eFinalCommonError = eCommonError;
+      final Phase4Exception aFinalCommonException = aCommonException;
+      return IntStream.range (0, aMessageList.size ()).mapToObj (nIndex -> {
+        final AS4BulkMessage aMessage = aMessageList.get (nIndex);
+        final String sMessageID = aMessage.hasMessageID () ? aMessage.getMessageID ()
+                                                           : MessageHelperMethods.createRandomMessageID ();
+        return new AS4BulkSendResult (nIndex, sMessageID, eFinalCommonError, aFinalCommonException);
+      });
+    }
+
+    LOGGER.info ("Starting to send " +
+                 aMessageList.size () +
+                 " AS4 messages in bulk to '" +
+                 m_sEndpointURL +
+                 "' with a parallelism of " +
+                 nParallelism);
+
+    // All messages share the same connection pool
+    final SharedConnectionHttpClientFactory aHttpClientFactory = m_aCustomHttpPoster == null && !m_bUseHttp2
+                                                                                                           ? new SharedConnectionHttpClientFactory (m_aHttpClientFactory)
+                                                                                                           : null;
+    final BlockingQueue <AS4BulkSendResult> aResults = new LinkedBlockingQueue <> ();
+    final AtomicInteger aNextIndex = new AtomicInteger (0);
+    final int nWorkers = Math.min (nParallelism, aMessageList.size ());
+    final AtomicInteger aOpenWorkers = new AtomicInteger (nWorkers);
+    // The parallelism is limited by the number of worker tasks that each take
+    // the next open message - the executor itself is shared
+    final Runnable aWorker = () -> {
+      try
+      {
+        int nIndex;
+        while ((nIndex = aNextIndex.getAndIncrement ()) < aMessageList.size ())
+          aResults.add (_sendBulkMessage (nIndex, aMessageList.get (nIndex), aHttpClientFactory, aExceptionConsumer));
+      }
+      finally
+      {
+        // Last worker closes the shared connection pool
+        if (aOpenWorkers.decrementAndGet () == 0)
+          _closeBulkResources (aHttpClientFactory);
+      }
+    };
+    for (int i = 0; i < nWorkers; ++i)
+    {
+      try
+      {
+        aExecutor.execute (aWorker);
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Continue with the workers that are already running
+        final int nNotStarted = nWorkers - i;
+        if (aOpenWorkers.addAndGet (-nNotStarted) == 0)
+        {
+          _closeBulkResources (aHttpClientFactory);
+          throw ex;
+        }
+        LOGGER.warn ("The executor rejected " + nNotStarted + " of " + nWorkers + " bulk sending workers");
+        break;
+      }
+    }
+
+    return IntStream.range (0, aMessageList.size ()).mapToObj (x -> _takeBulkResult (aResults));
+  }
 }
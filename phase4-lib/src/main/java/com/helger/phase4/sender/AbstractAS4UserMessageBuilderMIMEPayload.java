@@ -17,6 +17,7 @@
 package com.helger.phase4.sender;
 
 import java.io.IOException;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -27,12 +28,16 @@ import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.httpclient.HttpClientFactory;
 import com.helger.phase4.attachment.AS4OutgoingAttachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.AS4ClientUserMessage;
 import com.helger.phase4.incoming.AS4IncomingReceiverConfiguration;
 import com.helger.phase4.incoming.IAS4IncomingReceiverConfiguration;
+import com.helger.phase4.incoming.IAS4SignalMessageConsumer;
 import com.helger.phase4.incoming.crypto.AS4IncomingSecurityConfiguration;
 import com.helger.phase4.incoming.crypto.IAS4IncomingSecurityConfiguration;
 import com.helger.phase4.util.AS4ResourceHelper;
@@ -161,8 +166,10 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
     return WSS4JAttachment.createOutgoingFileAttachment (aPayload, aResHelper);
   }
 
-  @Override
-  protected final void mainSendMessage () throws Phase4Exception
+  private void _sendUserMessage (@Nullable final Consumer <? super AS4ClientUserMessage> aUserMsgCustomizer,
+                                 @Nullable final AS4OutgoingAttachment aPayload,
+                                 @Nonnull final Iterable <AS4OutgoingAttachment> aAttachments,
+                                 @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer) throws Phase4Exception
   {
     // Temporary file manager
     try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
@@ -170,6 +177,8 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
       // Start building AS4 User Message
       final AS4ClientUserMessage aUserMsg = new AS4ClientUserMessage (aResHelper);
       applyToUserMessage (aUserMsg);
+      if (aUserMsgCustomizer != null)
+        aUserMsgCustomizer.accept (aUserMsg);
 
       if (m_aSendingDTConsumer != null)
       {
@@ -189,9 +198,9 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
       aUserMsg.setPayload (null);
 
       // Add main attachment
-      if (m_aPayload != null)
+      if (aPayload != null)
       {
-        final WSS4JAttachment aMainAttachment = createMainAttachment (m_aPayload, aResHelper);
+        final WSS4JAttachment aMainAttachment = createMainAttachment (aPayload, aResHelper);
         if (aMainAttachment != null)
           aUserMsg.addAttachment (aMainAttachment);
       }
@@ -199,7 +208,7 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
       // Add other attachments
       {
         int nIndex = 0;
-        for (final AS4OutgoingAttachment aAttachment : m_aAttachments)
+        for (final AS4OutgoingAttachment aAttachment : aAttachments)
         {
           final WSS4JAttachment aOtherAttachment = createOtherAttachment (aAttachment, aResHelper, nIndex);
           if (aOtherAttachment != null)
@@ -232,7 +241,7 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
                                                                                  aIncomingReceiverConfiguration,
                                                                                  m_aRetryCallback,
                                                                                  m_aResponseConsumer,
-                                                                                 m_aSignalMsgConsumer,
+                                                                                 aSignalMsgConsumer,
                                                                                  m_aSignalMsgValidationResultHdl);
     }
     catch (final Phase4Exception ex)
@@ -248,4 +257,30 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
       throw new Phase4Exception ("Wrapped Phase4Exception", ex);
     }
   }
+
+  @Override
+  protected final void mainSendMessage () throws Phase4Exception
+  {
+    _sendUserMessage (null, m_aPayload, m_aAttachments, m_aSignalMsgConsumer);
+  }
+
+  @Override
+  protected final void mainSendBulkMessage (@Nonnull final AS4BulkMessage aMessage,
+                                            @Nonnull @Nonempty final String sMessageID,
+                                            @Nullable final HttpClientFactory aHttpClientFactory,
+                                            @Nonnull final IAS4SignalMessageConsumer aSignalMsgConsumer) throws Phase4Exception
+  {
+    // The payload of this builder is ignored, but the attachments of this
+    // builder are send with every message
+    final ICommonsList <AS4OutgoingAttachment> aAttachments = m_aAttachments.getClone ();
+    aAttachments.addAll (aMessage.getAllAttachments ());
+
+    _sendUserMessage (aUserMsg -> {
+      aUserMsg.setMessageID (sMessageID);
+      if (aMessage.hasConversationID ())
+        aUserMsg.setConversationID (aMessage.getConversationID ());
+      if (aHttpClientFactory != null)
+        aUserMsg.getHttpPoster ().setHttpClientFactory (aHttpClientFactory);
+    }, aMessage.getPayload (), aAttachments, aSignalMsgConsumer);
+  }
 }
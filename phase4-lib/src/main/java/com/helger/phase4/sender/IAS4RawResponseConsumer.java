@@ -19,6 +19,8 @@ package com.helger.phase4.sender;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.phase4.client.AS4ClientSentMessage;
 import com.helger.phase4.util.Phase4Exception;
 
@@ -41,6 +43,29 @@ public interface IAS4RawResponseConsumer
    */
   void handleResponse (@Nonnull AS4ClientSentMessage <byte []> aResponseMsg) throws Phase4Exception;
 
+  /**
+   * Handling a HTTP response with the content provided as an
+   * {@link IHasInputStream} that can be read multiple times. This is the method
+   * invoked by the AS4 sender, so that a spooled response does not need to be
+   * loaded onto the heap. By default the content is read into a byte array and
+   * {@link #handleResponse(AS4ClientSentMessage)} is invoked - override this
+   * method to consume large responses in a streaming way.
+   *
+   * @param aResponseMsg
+   *        The response message in relation to the source message. The
+   *        response content is <code>null</code> if the response has no
+   *        content.
+   * @throws Phase4Exception
+   *         In case of error.
+   * @since 3.0.1
+   */
+  default void handleResponseStream (@Nonnull final AS4ClientSentMessage <IHasInputStream> aResponseMsg) throws Phase4Exception
+  {
+    final IHasInputStream aContent = aResponseMsg.getResponseContent ();
+    handleResponse (aResponseMsg.getWithResponseContent (aContent == null ? null
+                                                                          : StreamHelper.getAllBytes (aContent.getInputStream ())));
+  }
+
   /**
    * Chain this instance with another instance of the same type. This handler is
    * called first.
@@ -78,9 +103,20 @@ public interface IAS4RawResponseConsumer
     if (rhs == null)
       return lhs;
 
-    return x -> {
-      lhs.handleResponse (x);
-      rhs.handleResponse (x);
+    return new IAS4RawResponseConsumer ()
+    {
+      public void handleResponse (@Nonnull final AS4ClientSentMessage <byte []> aResponseMsg) throws Phase4Exception
+      {
+        lhs.handleResponse (aResponseMsg);
+        rhs.handleResponse (aResponseMsg);
+      }
+
+      @Override
+      public void handleResponseStream (@Nonnull final AS4ClientSentMessage <IHasInputStream> aResponseMsg) throws Phase4Exception
+      {
+        lhs.handleResponseStream (aResponseMsg);
+        rhs.handleResponseStream (aResponseMsg);
+      }
     };
   }
 }
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Admission control for incoming AS4 requests. It limits the number of
+ * messages that are processed at the same time, the total number of bytes (as
+ * announced by the <code>Content-Length</code> header) of those messages and
+ * optionally the number of messages per AS4 profile. Requests without a
+ * <code>Content-Length</code> (e.g. chunked requests) are charged with a
+ * configurable size, so that they cannot bypass the byte limit. If a request cannot be
+ * admitted (optionally after waiting for a limited time), it should be
+ * rejected with HTTP 503 and a <code>Retry-After</code> header before the
+ * body is read.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4AdmissionController
+{
+  /** Default Retry-After value */
+  public static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds (30);
+  /** Default number of bytes charged for requests with an unknown length */
+  public static final long DEFAULT_UNKNOWN_LENGTH_BYTES = 10 * 1024 * 1024L;
+
+  /**
+   * A single admitted request. Must be closed after processing.
+   *
+   * @author Philip Helger
+   */
+  public final class Permit implements AutoCloseable
+  {
+    private final String m_sProfileID;
+    private final long m_nBytes;
+    private final AtomicBoolean m_aClosed = new AtomicBoolean (false);
+
+    Permit (@Nullable final String sProfileID, final long nBytes)
+    {
+      m_sProfileID = sProfileID;
+      m_nBytes = nBytes;
+    }
+
+    public void close ()
+    {
+      if (!m_aClosed.getAndSet (true))
+        _release (m_sProfileID, m_nBytes);
+    }
+  }
+
+  private final int m_nMaxInFlight;
+  private final long m_nMaxInFlightBytes;
+  private final Duration m_aMaxQueueWait;
+  private final Duration m_aRetryAfter;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final Condition m_aReleased = m_aLock.newCondition ();
+  @GuardedBy ("m_aLock")
+  private long m_nUnknownLengthBytes = DEFAULT_UNKNOWN_LENGTH_BYTES;
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, Integer> m_aProfileQuotas = new CommonsHashMap <> ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, Integer> m_aProfileInFlight = new CommonsHashMap <> ();
+  @GuardedBy ("m_aLock")
+  private int m_nInFlight = 0;
+  @GuardedBy ("m_aLock")
+  private long m_nInFlightBytes = 0;
+  @GuardedBy ("m_aLock")
+  private int m_nQueued = 0;
+
+  private final AtomicLong m_aAccepted = new AtomicLong (0);
+  private final AtomicLong m_aRejected = new AtomicLong (0);
+
+  /**
+   * Constructor without waiting
+   *
+   * @param nMaxInFlight
+   *        The maximum number of messages processed at the same time. Must be
+   *        &gt; 0.
+   * @param nMaxInFlightBytes
+   *        The maximum total size of all messages processed at the same time.
+   *        Use {@link Long#MAX_VALUE} for no limit. Must be &gt; 0.
+   */
+  public AS4AdmissionController (@Nonnegative final int nMaxInFlight, @Nonnegative final long nMaxInFlightBytes)
+  {
+    this (nMaxInFlight, nMaxInFlightBytes, Duration.ZERO, DEFAULT_RETRY_AFTER);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxInFlight
+   *        The maximum number of messages processed at the same time. Must be
+   *        &gt; 0.
+   * @param nMaxInFlightBytes
+   *        The maximum total size of all messages processed at the same time.
+   *        Use {@link Long#MAX_VALUE} for no limit. Must be &gt; 0.
+   * @param aMaxQueueWait
+   *        The maximum time a request waits for admission before it is
+   *        rejected. Note: the waiting requests block a container thread. Use
+   *        {@link Duration#ZERO} to reject immediately. May not be
+   *        <code>null</code>.
+   * @param aRetryAfter
+   *        The duration to be reported in the <code>Retry-After</code> header
+   *        of rejected requests. May not be <code>null</code>.
+   */
+  public AS4AdmissionController (@Nonnegative final int nMaxInFlight,
+                                 @Nonnegative final long nMaxInFlightBytes,
+                                 @Nonnull final Duration aMaxQueueWait,
+                                 @Nonnull final Duration aRetryAfter)
+  {
+    ValueEnforcer.isGT0 (nMaxInFlight, "MaxInFlight");
+    ValueEnforcer.isGT0 (nMaxInFlightBytes, "MaxInFlightBytes");
+    ValueEnforcer.notNull (aMaxQueueWait, "MaxQueueWait");
+    ValueEnforcer.isFalse (aMaxQueueWait.isNegative (), "MaxQueueWait may not be negative");
+    ValueEnforcer.notNull (aRetryAfter, "RetryAfter");
+    ValueEnforcer.isFalse (aRetryAfter.isNegative (), "RetryAfter may not be negative");
+    m_nMaxInFlight = nMaxInFlight;
+    m_nMaxInFlightBytes = nMaxInFlightBytes;
+    m_aMaxQueueWait = aMaxQueueWait;
+    m_aRetryAfter = aRetryAfter;
+  }
+
+  @Nonnegative
+  public final int getMaxInFlight ()
+  {
+    return m_nMaxInFlight;
+  }
+
+  @Nonnegative
+  public final long getMaxInFlightBytes ()
+  {
+    return m_nMaxInFlightBytes;
+  }
+
+  @Nonnull
+  public final Duration getMaxQueueWait ()
+  {
+    return m_aMaxQueueWait;
+  }
+
+  @Nonnull
+  public final Duration getRetryAfter ()
+  {
+    return m_aRetryAfter;
+  }
+
+  /**
+   * @return The number of bytes charged for requests with an unknown length.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public long getUnknownLengthBytes ()
+  {
+    return m_aLock.lockedLong ( () -> m_nUnknownLengthBytes);
+  }
+
+  /**
+   * Set the number of bytes charged for requests without a
+   * <code>Content-Length</code>, e.g. chunked requests. Their real size is only
+   * known after they were read, so an estimate is used instead. The default is
+   * {@link #DEFAULT_UNKNOWN_LENGTH_BYTES}.
+   *
+   * @param nUnknownLengthBytes
+   *        The number of bytes to charge. Must be &ge; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4AdmissionController setUnknownLengthBytes (@Nonnegative final long nUnknownLengthBytes)
+  {
+    ValueEnforcer.isGE0 (nUnknownLengthBytes, "UnknownLengthBytes");
+    m_aLock.locked ( () -> m_nUnknownLengthBytes = nUnknownLengthBytes);
+    return this;
+  }
+
+  /**
+   * Set the maximum number of messages processed at the same time for a
+   * specific AS4 profile.
+   *
+   * @param sProfileID
+   *        The AS4 profile ID. May neither be <code>null</code> nor empty.
+   * @param nMaxInFlight
+   *        The maximum number of messages for this profile. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4AdmissionController setProfileQuota (@Nonnull @Nonempty final String sProfileID,
+                                                 @Nonnegative final int nMaxInFlight)
+  {
+    ValueEnforcer.notEmpty (sProfileID, "ProfileID");
+    ValueEnforcer.isGT0 (nMaxInFlight, "MaxInFlight");
+    m_aLock.locked ( () -> m_aProfileQuotas.put (sProfileID, Integer.valueOf (nMaxInFlight)));
+    return this;
+  }
+
+  /**
+   * @return A copy of all per profile quotas. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsMap <String, Integer> getAllProfileQuotas ()
+  {
+    return m_aLock.lockedGet (m_aProfileQuotas::getClone);
+  }
+
+  @GuardedBy ("m_aLock")
+  private boolean _canAdmit (@Nullable final String sProfileID, final long nBytes)
+  {
+    if (m_nInFlight >= m_nMaxInFlight)
+      return false;
+    // Always admit a single large message if nothing else is in flight
+    if (m_nInFlightBytes > 0 && m_nInFlightBytes + nBytes > m_nMaxInFlightBytes)
+      return false;
+    if (sProfileID != null)
+    {
+      final Integer aQuota = m_aProfileQuotas.get (sProfileID);
+      if (aQuota != null && m_aProfileInFlight.getOrDefault (sProfileID, Integer.valueOf (0)).intValue () >= aQuota.intValue ())
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Try to admit a new request.
+   *
+   * @param sProfileID
+   *        The AS4 profile ID the request belongs to, for the per profile
+   *        quota. May be <code>null</code>.
+   * @param nContentLength
+   *        The content length of the request. Negative values mean unknown
+   *        length and are counted as {@link #getUnknownLengthBytes()} bytes.
+   * @return The permit that must be closed after processing, or
+   *         <code>null</code> if the request was rejected.
+   */
+  @Nullable
+  public Permit tryAdmit (@Nullable final String sProfileID, final long nContentLength)
+  {
+    m_aLock.lock ();
+    try
+    {
+      final long nBytes = nContentLength >= 0 ? nContentLength : m_nUnknownLengthBytes;
+      if (!_canAdmit (sProfileID, nBytes))
+      {
+        long nRemainingNanos = m_aMaxQueueWait.toNanos ();
+        if (nRemainingNanos <= 0)
+        {
+          m_aRejected.incrementAndGet ();
+          return null;
+        }
+
+        m_nQueued++;
+        try
+        {
+          while (!_canAdmit (sProfileID, nBytes))
+          {
+            if (nRemainingNanos <= 0)
+            {
+              m_aRejected.incrementAndGet ();
+              return null;
+            }
+            nRemainingNanos = m_aReleased.awaitNanos (nRemainingNanos);
+          }
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          m_aRejected.incrementAndGet ();
+          return null;
+        }
+        finally
+        {
+          m_nQueued--;
+        }
+      }
+
+      m_nInFlight++;
+      m_nInFlightBytes += nBytes;
+      if (sProfileID != null)
+        m_aProfileInFlight.merge (sProfileID, Integer.valueOf (1), (a, b) -> Integer.valueOf (a.intValue () + b.intValue ()));
+      m_aAccepted.incrementAndGet ();
+      return new Permit (sProfileID, nBytes);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  private void _release (@Nullable final String sProfileID, final long nBytes)
+  {
+    m_aLock.locked ( () -> {
+      m_nInFlight--;
+      m_nInFlightBytes -= nBytes;
+      if (sProfileID != null)
+        m_aProfileInFlight.computeIfPresent (sProfileID,
+                                             (k, v) -> v.intValue () <= 1 ? null : Integer.valueOf (v.intValue () - 1));
+      m_aReleased.signalAll ();
+    });
+  }
+
+  /**
+   * @return The number of messages currently being processed.
+   */
+  @Nonnegative
+  public int getInFlightCount ()
+  {
+    return m_aLock.lockedInt ( () -> m_nInFlight);
+  }
+
+  /**
+   * @return The total content length of the messages currently being
+   *         processed.
+   */
+  @Nonnegative
+  public long getInFlightBytes ()
+  {
+    return m_aLock.lockedLong ( () -> m_nInFlightBytes);
+  }
+
+  /**
+   * @param sProfileID
+   *        The AS4 profile ID. May be <code>null</code>.
+   * @return The number of messages of the provided profile currently being
+   *         processed.
+   */
+  @Nonnegative
+  public int getInFlightCount (@Nullable final String sProfileID)
+  {
+    return m_aLock.lockedInt ( () -> m_aProfileInFlight.getOrDefault (sProfileID, Integer.valueOf (0)).intValue ());
+  }
+
+  /**
+   * @return The number of requests currently waiting for admission.
+   */
+  @Nonnegative
+  public int getQueuedCount ()
+  {
+    return m_aLock.lockedInt ( () -> m_nQueued);
+  }
+
+  /**
+   * @return The total number of admitted requests.
+   */
+  @Nonnegative
+  public long getAcceptedCount ()
+  {
+    return m_aAccepted.get ();
+  }
+
+  /**
+   * @return The total number of rejected requests.
+   */
+  @Nonnegative
+  public long getRejectedCount ()
+  {
+    return m_aRejected.get ();
+  }
+
+  /**
+   * @return The value of the <code>Retry-After</code> HTTP header in seconds.
+   */
+  @Nonnegative
+  public long getRetryAfterSeconds ()
+  {
+    return Math.max (1, m_aRetryAfter.getSeconds ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxInFlight", m_nMaxInFlight)
+                                       .append ("MaxInFlightBytes", m_nMaxInFlightBytes)
+                                       .append ("UnknownLengthBytes", getUnknownLengthBytes ())
+                                       .append ("MaxQueueWait", m_aMaxQueueWait)
+                                       .append ("RetryAfter", m_aRetryAfter)
+                                       .append ("InFlight", getInFlightCount ())
+                                       .append ("InFlightBytes", getInFlightBytes ())
+                                       .append ("Queued", getQueuedCount ())
+                                       .append ("Accepted", getAcceptedCount ())
+                                       .append ("Rejected", getRejectedCount ())
+                                       .getToString ();
+  }
+}
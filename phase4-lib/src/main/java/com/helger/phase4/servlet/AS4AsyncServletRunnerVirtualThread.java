@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.servlet.async.ExtAsyncContext;
+import com.helger.servlet.async.IAsyncServletRunner;
+import com.helger.xservlet.handler.XServletAsyncHandler;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * An {@link IAsyncServletRunner} that runs the asynchronous part of an AS4
+ * servlet request on a separate executor (usually a virtual thread executor)
+ * instead of the container thread pool. This frees the container thread while
+ * the AS4 message is parsed, verified, decrypted and processed.<br>
+ * The async servlet runner of {@link XServletAsyncHandler} is global for the
+ * whole JVM. Therefore this runner only handles requests that were explicitly
+ * marked via {@link #markRequest(HttpServletRequest)} (as done by
+ * {@link AS4Servlet}) and passes all other requests to the runner that was
+ * installed before.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4AsyncServletRunnerVirtualThread implements IAsyncServletRunner
+{
+  /**
+   * The request attribute that marks a request to be run on the executor of
+   * this runner.
+   */
+  public static final String REQUEST_ATTR_USE_EXECUTOR = "phase4.async.executor";
+
+  private static final SimpleLock INSTALL_LOCK = new SimpleLock ();
+
+  private final Executor m_aExecutor;
+  private final IAsyncServletRunner m_aFallbackRunner;
+
+  /**
+   * Constructor
+   *
+   * @param aExecutor
+   *        The executor to run marked requests on. May not be
+   *        <code>null</code>.
+   * @param aFallbackRunner
+   *        The runner to use for all requests that are not marked. May not be
+   *        <code>null</code>.
+   */
+  public AS4AsyncServletRunnerVirtualThread (@Nonnull final Executor aExecutor,
+                                             @Nonnull final IAsyncServletRunner aFallbackRunner)
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    ValueEnforcer.notNull (aFallbackRunner, "FallbackRunner");
+    m_aExecutor = aExecutor;
+    m_aFallbackRunner = aFallbackRunner;
+  }
+
+  /**
+   * @return The runner used for all requests that are not marked. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IAsyncServletRunner getFallbackRunner ()
+  {
+    return m_aFallbackRunner;
+  }
+
+  /**
+   * Mark the provided request to be run on the executor of this runner.
+   *
+   * @param aHttpRequest
+   *        The HTTP request to mark. May not be <code>null</code>.
+   */
+  public static void markRequest (@Nonnull final HttpServletRequest aHttpRequest)
+  {
+    aHttpRequest.setAttribute (REQUEST_ATTR_USE_EXECUTOR, Boolean.TRUE);
+  }
+
+  /**
+   * Check if the provided request was marked via
+   * {@link #markRequest(HttpServletRequest)}.
+   *
+   * @param aHttpRequest
+   *        The HTTP request to check. May not be <code>null</code>.
+   * @return <code>true</code> if the request is marked.
+   */
+  public static boolean isMarkedRequest (@Nonnull final HttpServletRequest aHttpRequest)
+  {
+    return Boolean.TRUE.equals (aHttpRequest.getAttribute (REQUEST_ATTR_USE_EXECUTOR));
+  }
+
+  public void runAsync (@Nonnull final HttpServletRequest aOriginalHttpRequest,
+                        @Nonnull final HttpServletResponse aOriginalHttpResponse,
+                        @Nonnull final ExtAsyncContext aAsyncContext,
+                        @Nonnull final Runnable aRunnable)
+  {
+    if (isMarkedRequest (aOriginalHttpRequest))
+    {
+      // The runnable takes care of completing the async context
+      m_aExecutor.execute (aRunnable);
+    }
+    else
+      m_aFallbackRunner.runAsync (aOriginalHttpRequest, aOriginalHttpResponse, aAsyncContext, aRunnable);
+  }
+
+  /**
+   * Install a runner with the provided executor as the global async servlet
+   * runner of {@link XServletAsyncHandler}. The previously installed runner is
+   * used for all requests that are not marked. If a runner of this class is
+   * already installed, nothing happens.
+   *
+   * @param aExecutor
+   *        The executor to run marked requests on. May not be
+   *        <code>null</code>.
+   */
+  public static void installGlobally (@Nonnull final Executor aExecutor)
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    INSTALL_LOCK.locked ( () -> {
+      final IAsyncServletRunner aCurrent = XServletAsyncHandler.getAsyncServletRunner ();
+      if (!(aCurrent instanceof AS4AsyncServletRunnerVirtualThread))
+        XServletAsyncHandler.setAsyncServletRunner (new AS4AsyncServletRunnerVirtualThread (aExecutor, aCurrent));
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Executor", m_aExecutor)
+                                       .append ("FallbackRunner", m_aFallbackRunner)
+                                       .getToString ();
+  }
+}
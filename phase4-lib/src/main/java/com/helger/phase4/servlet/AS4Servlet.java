@@ -16,8 +16,29 @@
  */
 package com.helger.phase4.servlet;
 
+import java.io.IOException;
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.http.EHttpMethod;
+import com.helger.http.EHttpVersion;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.util.AS4ExecutorHelper;
+import com.helger.servlet.async.ServletAsyncSpec;
+import com.helger.web.scope.IRequestWebScope;
 import com.helger.xservlet.AbstractXServlet;
+import com.helger.xservlet.handler.IXServletHandler;
+import com.helger.xservlet.handler.XServletAsyncHandler;
+import com.helger.xservlet.handler.simple.XServletHandlerToSimpleHandler;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 /**
  * AS4 receiving servlet.<br>
@@ -40,16 +61,98 @@ import com.helger.xservlet.AbstractXServlet;
 &lt;/servlet-mapping&gt;
  * </pre>
  *
+ * If {@link AS4Configuration#isUseVirtualThreads()} is enabled and the runtime
+ * supports virtual threads, the request is handled asynchronously on a virtual
+ * thread. In that case the servlet must be declared with
+ * <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>.
+ *
  * @author Martin Bayerl
  * @author Philip Helger
  */
 public class AS4Servlet extends AbstractXServlet
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4Servlet.class);
+
+  /**
+   * Marks each request so that it is run on the virtual thread executor by
+   * {@link AS4AsyncServletRunnerVirtualThread}.
+   */
+  private static final class MarkingHandler implements IXServletHandler
+  {
+    private final IXServletHandler m_aNestedHandler;
+
+    MarkingHandler (@Nonnull final IXServletHandler aNestedHandler)
+    {
+      m_aNestedHandler = aNestedHandler;
+    }
+
+    @Override
+    public void onServletInit (@Nonnull final ICommonsMap <String, String> aInitParams) throws ServletException
+    {
+      m_aNestedHandler.onServletInit (aInitParams);
+    }
+
+    @Override
+    public void onServletDestroy ()
+    {
+      m_aNestedHandler.onServletDestroy ();
+    }
+
+    public void onRequest (@Nonnull final HttpServletRequest aHttpRequest,
+                           @Nonnull final HttpServletResponse aHttpResponse,
+                           @Nonnull final EHttpVersion eHttpVersion,
+                           @Nonnull final EHttpMethod eHttpMethod,
+                           @Nonnull final IRequestWebScope aRequestScope) throws ServletException, IOException
+    {
+      AS4AsyncServletRunnerVirtualThread.markRequest (aHttpRequest);
+      m_aNestedHandler.onRequest (aHttpRequest, aHttpResponse, eHttpVersion, eHttpMethod, aRequestScope);
+    }
+  }
+
   public AS4Servlet ()
   {
     // Multipart is handled specifically inside
     settings ().setMultipartEnabled (false);
     // HTTP POST only
-    handlerRegistry ().registerHandler (EHttpMethod.POST, new AS4XServletHandler ());
+    if (AS4ExecutorHelper.isVirtualThreadModeEnabled ())
+    {
+      // Only requests of this servlet are run on virtual threads - all other
+      // async servlets keep the previously installed runner
+      AS4AsyncServletRunnerVirtualThread.installGlobally (AS4ExecutorHelper.getVirtualThreadExecutor ());
+      LOGGER.info ("AS4Servlet is handling requests asynchronously on virtual threads");
+      handlerRegistry ().registerHandler (EHttpMethod.POST,
+                                          new MarkingHandler (new XServletAsyncHandler (ServletAsyncSpec.createAsyncDefault (),
+                                                                                        _createStreamingHandler ())),
+                                          false);
+    }
+    else
+      handlerRegistry ().registerHandler (EHttpMethod.POST, _createStreamingHandler (), false);
+  }
+
+  @Nonnull
+  private static IXServletHandler _createStreamingHandler ()
+  {
+    // The MIME responses are written directly to the servlet output stream
+    return new AS4StreamingResponseHandler (new XServletHandlerToSimpleHandler (_createHandler ()));
+  }
+
+  @Nonnull
+  private static AS4XServletHandler _createHandler ()
+  {
+    final AS4XServletHandler ret = new AS4XServletHandler ();
+    final int nMaxInFlight = AS4Configuration.getAdmissionMaxInFlight ();
+    if (nMaxInFlight > 0)
+    {
+      final long nMaxInFlightBytes = AS4Configuration.getAdmissionMaxInFlightBytes ();
+      final AS4AdmissionController aAdmissionController = new AS4AdmissionController (nMaxInFlight,
+                                                                                      nMaxInFlightBytes > 0 ? nMaxInFlightBytes
+                                                                                                            : Long.MAX_VALUE,
+                                                                                      Duration.ZERO,
+                                                                                      Duration.ofSeconds (AS4Configuration.getAdmissionRetryAfterSeconds ()));
+      aAdmissionController.setUnknownLengthBytes (Math.max (0, AS4Configuration.getAdmissionUnknownLengthBytes ()));
+      ret.setAdmissionController (aAdmissionController);
+      LOGGER.info ("AS4Servlet uses admission control: " + aAdmissionController);
+    }
+    return ret;
   }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.http.EHttpMethod;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.http.EHttpVersion;
+import com.helger.web.scope.IRequestWebScope;
+import com.helger.xservlet.handler.IXServletHandler;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * An {@link IXServletHandler} that enables streaming responses of a nested
+ * {@link AS4XServletHandler}. The nested handler applies status and headers of
+ * the {@link AS4UnifiedResponse} as usual. Afterwards this handler writes the
+ * streaming content directly to the servlet output stream. Without this
+ * handler, streaming content is buffered in memory.<br>
+ * Usage:
+ *
+ * <pre>
+ * handlerRegistry ().registerHandler (EHttpMethod.POST,
+ *                                     new AS4StreamingResponseHandler (new XServletHandlerToSimpleHandler (aHandler)),
+ *                                     false);
+ * </pre>
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+public class AS4StreamingResponseHandler implements IXServletHandler
+{
+  private static final String REQUEST_ATTR_ENABLED = AS4StreamingResponseHandler.class.getName () + ".enabled";
+  private static final String REQUEST_ATTR_RESPONSE = AS4StreamingResponseHandler.class.getName () + ".response";
+
+  private final IXServletHandler m_aNestedHandler;
+
+  /**
+   * Constructor
+   *
+   * @param aNestedHandler
+   *        The nested handler that creates and applies the
+   *        {@link AS4UnifiedResponse}. May not be <code>null</code>.
+   */
+  public AS4StreamingResponseHandler (@Nonnull final IXServletHandler aNestedHandler)
+  {
+    ValueEnforcer.notNull (aNestedHandler, "NestedHandler");
+    m_aNestedHandler = aNestedHandler;
+  }
+
+  /**
+   * @return The nested handler as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IXServletHandler getNestedHandler ()
+  {
+    return m_aNestedHandler;
+  }
+
+  static boolean isStreamingEnabled (@Nonnull final HttpServletRequest aHttpRequest)
+  {
+    return aHttpRequest.getAttribute (REQUEST_ATTR_ENABLED) != null;
+  }
+
+  static void registerStreamingResponse (@Nonnull final HttpServletRequest aHttpRequest,
+                                         @Nonnull final AS4UnifiedResponse aUnifiedResponse)
+  {
+    aHttpRequest.setAttribute (REQUEST_ATTR_RESPONSE, aUnifiedResponse);
+  }
+
+  @Override
+  public void onServletInit (@Nonnull final ICommonsMap <String, String> aInitParams) throws ServletException
+  {
+    m_aNestedHandler.onServletInit (aInitParams);
+  }
+
+  @Override
+  public void onServletDestroy ()
+  {
+    m_aNestedHandler.onServletDestroy ();
+  }
+
+  public void onRequest (@Nonnull final HttpServletRequest aHttpRequest,
+                         @Nonnull final HttpServletResponse aHttpResponse,
+                         @Nonnull final EHttpVersion eHttpVersion,
+                         @Nonnull final EHttpMethod eHttpMethod,
+                         @Nonnull final IRequestWebScope aRequestScope) throws ServletException, IOException
+  {
+    aHttpRequest.setAttribute (REQUEST_ATTR_ENABLED, Boolean.TRUE);
+    try
+    {
+      // Status and headers are applied here
+      m_aNestedHandler.onRequest (aHttpRequest, aHttpResponse, eHttpVersion, eHttpMethod, aRequestScope);
+
+      // Now write the body
+      final Object aUnifiedResponse = aHttpRequest.getAttribute (REQUEST_ATTR_RESPONSE);
+      if (aUnifiedResponse instanceof AS4UnifiedResponse)
+        ((AS4UnifiedResponse) aUnifiedResponse).writeStreamingContent ();
+    }
+    finally
+    {
+      aHttpRequest.removeAttribute (REQUEST_ATTR_RESPONSE);
+      aHttpRequest.removeAttribute (REQUEST_ATTR_ENABLED);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("NestedHandler", m_aNestedHandler).getToString ();
+  }
+}
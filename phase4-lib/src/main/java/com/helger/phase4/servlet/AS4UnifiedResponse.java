@@ -16,6 +16,9 @@
  */
 package com.helger.phase4.servlet;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 
 import javax.annotation.Nonnegative;
@@ -25,13 +28,20 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.http.CHttp;
 import com.helger.commons.http.EHttpMethod;
+import com.helger.commons.io.IWriteToStream;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.lang.StackTraceHelper;
 import com.helger.commons.mime.CMimeType;
 import com.helger.http.EHttpVersion;
 import com.helger.servlet.response.UnifiedResponse;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 /**
  * Special {@link UnifiedResponse} class with some sanity methods.
@@ -42,22 +52,132 @@ public class AS4UnifiedResponse extends UnifiedResponse
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4UnifiedResponse.class);
 
+  private final HttpServletRequest m_aHttpRequest;
+  private final HttpServletResponse m_aHttpResponse;
+  private IWriteToStream m_aStreamingWriter;
+
   public AS4UnifiedResponse (@Nonnull final EHttpVersion eHTTPVersion,
                              @Nonnull final EHttpMethod eHTTPMethod,
                              @Nonnull final HttpServletRequest aHttpRequest)
+  {
+    this (eHTTPVersion, eHTTPMethod, aHttpRequest, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param eHTTPVersion
+   *        HTTP version. May not be <code>null</code>.
+   * @param eHTTPMethod
+   *        HTTP method. May not be <code>null</code>.
+   * @param aHttpRequest
+   *        The HTTP servlet request. May not be <code>null</code>.
+   * @param aHttpResponse
+   *        The HTTP servlet response this unified response will be applied
+   *        to. If present, streaming content is written directly to its
+   *        output stream via {@link #writeStreamingContent()}. May be
+   *        <code>null</code>.
+   * @since 3.0.1
+   */
+  public AS4UnifiedResponse (@Nonnull final EHttpVersion eHTTPVersion,
+                             @Nonnull final EHttpMethod eHTTPMethod,
+                             @Nonnull final HttpServletRequest aHttpRequest,
+                             @Nullable final HttpServletResponse aHttpResponse)
   {
     super (eHTTPVersion, eHTTPMethod, aHttpRequest);
+    m_aHttpRequest = aHttpRequest;
+    m_aHttpResponse = aHttpResponse;
     // Never cache the responses on client side
     disableCaching ();
     setAllowContentOnStatusCode (true);
   }
 
+  /**
+   * Set the content of the response as a callback that writes the response
+   * body. If the HTTP servlet response was provided in the constructor, the
+   * callback is invoked by {@link #writeStreamingContent()} after this response
+   * was applied, and writes directly to the servlet output stream. As the
+   * length is not known upfront, no Content-Length is set and the servlet
+   * container uses chunked transfer encoding. Otherwise the content is
+   * buffered in memory first.
+   *
+   * @param aWriter
+   *        The callback that writes the response body. May not be
+   *        <code>null</code>. It must not close the provided output stream.
+   * @since 3.0.1
+   * @see AS4StreamingResponseHandler
+   */
+  public void setStreamingContent (@Nonnull final IWriteToStream aWriter)
+  {
+    ValueEnforcer.notNull (aWriter, "Writer");
+
+    if (m_aHttpResponse == null)
+    {
+      // No servlet response - buffer it
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aWriter.writeTo (aBAOS);
+        final byte [] aBytes = aBAOS.toByteArray ();
+        setContent (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aBytes)));
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException ("Failed to buffer streaming content", ex);
+      }
+    }
+    else
+    {
+      // No content is applied - only status and headers
+      removeContent ();
+      if (!isStatusCodeDefined ())
+        setStatus (CHttp.HTTP_OK);
+      m_aStreamingWriter = aWriter;
+      AS4StreamingResponseHandler.registerStreamingResponse (m_aHttpRequest, this);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if streaming content is present that was not yet
+   *         written via {@link #writeStreamingContent()}.
+   * @since 3.0.1
+   */
+  public final boolean hasStreamingContent ()
+  {
+    return m_aStreamingWriter != null;
+  }
+
+  /**
+   * Write the streaming content set via
+   * {@link #setStreamingContent(IWriteToStream)} to the HTTP servlet response.
+   * This must be called after {@link #applyToResponse(HttpServletResponse)}, so
+   * that status and headers are already present. Calling it more than once or
+   * without streaming content has no effect.
+   *
+   * @throws IOException
+   *         In case writing fails
+   * @since 3.0.1
+   */
+  public void writeStreamingContent () throws IOException
+  {
+    final IWriteToStream aWriter = m_aStreamingWriter;
+    if (aWriter != null && m_aHttpResponse != null)
+    {
+      m_aStreamingWriter = null;
+      final OutputStream aOS = m_aHttpResponse.getOutputStream ();
+      aWriter.writeTo (aOS);
+      aOS.flush ();
+    }
+  }
+
   public void setResponseError (@Nonnegative final int nStatusCode,
                                 @Nonnull final String sMsg,
                                 @Nullable final Throwable t)
   {
     LOGGER.error ("HTTP " + nStatusCode + ": " + sMsg, t);
 
+    // The error replaces any streaming content
+    m_aStreamingWriter = null;
+
     String sBody = sMsg;
     if (t != null)
       sBody += "\nTechnical details:\n" + StackTraceHelper.getStackAsString (t);
@@ -17,6 +17,7 @@
 package com.helger.phase4.servlet;
 
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.X509Certificate;
 
 import javax.annotation.Nonnull;
@@ -27,9 +28,12 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.http.CHttp;
+import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.http.EHttpMethod;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.IWriteToStream;
+import com.helger.commons.mime.CMimeType;
 import com.helger.commons.mime.IMimeType;
 import com.helger.http.EHttpVersion;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
@@ -64,6 +68,7 @@ public class AS4XServletHandler implements IXServletSimpleHandler
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4XServletHandler.class);
 
   private IAS4ServletRequestHandlerCustomizer m_aRequestHandlerCustomizer;
+  private AS4AdmissionController m_aAdmissionController;
 
   /**
    * Default constructor.
@@ -96,6 +101,35 @@ public class AS4XServletHandler implements IXServletSimpleHandler
     return this;
   }
 
+  /**
+   * @return The admission controller that limits the number of concurrently
+   *         processed messages. May be <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nullable
+  public final AS4AdmissionController getAdmissionController ()
+  {
+    return m_aAdmissionController;
+  }
+
+  /**
+   * Set the admission controller to be used. If set, requests that exceed the
+   * configured limits are rejected with HTTP 503 before the request body is
+   * read.
+   *
+   * @param aAdmissionController
+   *        The new admission controller. May be <code>null</code> to admit all
+   *        requests.
+   * @return this for chaining
+   * @since 3.0.1
+   */
+  @Nonnull
+  public final AS4XServletHandler setAdmissionController (@Nullable final AS4AdmissionController aAdmissionController)
+  {
+    m_aAdmissionController = aAdmissionController;
+    return this;
+  }
+
   @Nonnull
   @Override
   public AS4UnifiedResponse createUnifiedResponse (@Nonnull final EHttpVersion eHTTPVersion,
@@ -104,7 +138,12 @@ public class AS4XServletHandler implements IXServletSimpleHandler
                                                    @Nonnull final IRequestWebScope aRequestScope)
   {
     // Override from base class
-    return new AS4UnifiedResponse (eHTTPVersion, eHTTPMethod, aHttpRequest);
+    // Only stream the response if somebody writes it
+    return new AS4UnifiedResponse (eHTTPVersion,
+                                   eHTTPMethod,
+                                   aHttpRequest,
+                                   AS4StreamingResponseHandler.isStreamingEnabled (aHttpRequest) ? aRequestScope.getResponse ()
+                                                                                                  : null);
   }
 
   /**
@@ -168,6 +207,13 @@ public class AS4XServletHandler implements IXServletSimpleHandler
         aHttpResponse.setContent (aHasIS);
       }
 
+      @Override
+      public void setStreamingContent (@Nonnull final HttpHeaderMap aHeaderMap, @Nonnull final IWriteToStream aWriter)
+      {
+        aHttpResponse.addCustomResponseHeaders (aHeaderMap);
+        aHttpResponse.setStreamingContent (aWriter);
+      }
+
       public void setMimeType (@Nonnull final IMimeType aMimeType)
       {
         aHttpResponse.setMimeType (aMimeType);
@@ -261,11 +307,60 @@ public class AS4XServletHandler implements IXServletSimpleHandler
     }
   }
 
+  /**
+   * Determine the AS4 profile ID used for the per profile quotas of the
+   * admission controller. This method may be overridden by sub-classes that
+   * use a different AS4 profile than the default one.
+   *
+   * @param aRequestScope
+   *        The request scope to use. May not be <code>null</code>.
+   * @return The AS4 profile ID. May be <code>null</code>.
+   * @since 3.0.1
+   */
+  @Nullable
+  @OverrideOnDemand
+  protected String getAdmissionProfileID (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope)
+  {
+    return AS4ProfileSelector.getDefaultAS4ProfileID ();
+  }
+
   public final void handleRequest (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
                                    @Nonnull final UnifiedResponse aUnifiedResponse) throws Exception
   {
     // Created above in #createUnifiedResponse
     final AS4UnifiedResponse aRealUnifiedResponse = (AS4UnifiedResponse) aUnifiedResponse;
-    handleRequest (aRequestScope, aRealUnifiedResponse, m_aRequestHandlerCustomizer);
+
+    final AS4AdmissionController aAdmissionController = m_aAdmissionController;
+    if (aAdmissionController == null)
+    {
+      handleRequest (aRequestScope, aRealUnifiedResponse, m_aRequestHandlerCustomizer);
+      return;
+    }
+
+    // Check admission before the request body is read. Requests without a
+    // Content-Length are charged with the configured default size.
+    final long nContentLength = aRequestScope.getRequest ().getContentLengthLong ();
+    try (final AS4AdmissionController.Permit aPermit = aAdmissionController.tryAdmit (getAdmissionProfileID (aRequestScope),
+                                                                                      nContentLength))
+    {
+      if (aPermit == null)
+      {
+        LOGGER.warn ("Rejecting incoming AS4 request with " +
+                     (nContentLength >= 0 ? nContentLength + " bytes" : "unknown length") +
+                     " from '" +
+                     aRequestScope.getRemoteAddr () +
+                     "' because of overload: " +
+                     aAdmissionController);
+        aRealUnifiedResponse.addCustomResponseHeader (CHttpHeader.RETRY_AFTER,
+                                                      Long.toString (aAdmissionController.getRetryAfterSeconds ()));
+        aRealUnifiedResponse.setContentAndCharset ("Service temporarily unavailable - please retry later",
+                                                   StandardCharsets.UTF_8);
+        aRealUnifiedResponse.setMimeType (CMimeType.TEXT_PLAIN);
+        aRealUnifiedResponse.setStatus (CHttp.HTTP_SERVICE_UNAVAILABLE);
+        return;
+      }
+
+      handleRequest (aRequestScope, aRealUnifiedResponse, m_aRequestHandlerCustomizer);
+    }
   }
 }
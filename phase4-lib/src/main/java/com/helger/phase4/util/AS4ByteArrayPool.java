@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A process wide pool of byte arrays, used to keep small outgoing attachments
+ * in memory without allocating new arrays for every message. Arrays are
+ * grouped in size classes of powers of two between {@link #MIN_ARRAY_SIZE}
+ * and {@link #getMaxArraySize()}. Larger arrays are allocated but never
+ * pooled. Each size class keeps at most {@link #getMaxArraysPerClass()} free
+ * arrays.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4ByteArrayPool
+{
+  /** The smallest size class */
+  public static final int MIN_ARRAY_SIZE = 4 * CGlobal.BYTES_PER_KILOBYTE;
+  /** The default largest size class */
+  public static final int DEFAULT_MAX_ARRAY_SIZE = CGlobal.BYTES_PER_MEGABYTE;
+  /** The default number of free arrays per size class */
+  public static final int DEFAULT_MAX_ARRAYS_PER_CLASS = 64;
+
+  private static final int MIN_SHIFT = Integer.numberOfTrailingZeros (MIN_ARRAY_SIZE);
+
+  private static final AS4ByteArrayPool DEFAULT_INSTANCE = new AS4ByteArrayPool ();
+
+  private final int m_nMaxArraySize;
+  private final int m_nMaxArraysPerClass;
+  private final ConcurrentLinkedQueue <byte []> [] m_aFree;
+  private final AtomicInteger [] m_aFreeCount;
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+
+  public AS4ByteArrayPool ()
+  {
+    this (DEFAULT_MAX_ARRAY_SIZE, DEFAULT_MAX_ARRAYS_PER_CLASS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxArraySize
+   *        The largest pooled array size. Rounded up to the next power of two.
+   *        Must be &ge; {@link #MIN_ARRAY_SIZE}.
+   * @param nMaxArraysPerClass
+   *        The maximum number of free arrays per size class. Must be &ge; 0.
+   */
+  @SuppressWarnings ("unchecked")
+  public AS4ByteArrayPool (@Nonnegative final int nMaxArraySize, @Nonnegative final int nMaxArraysPerClass)
+  {
+    ValueEnforcer.isBetweenInclusive (nMaxArraySize, "MaxArraySize", MIN_ARRAY_SIZE, 1 << 30);
+    ValueEnforcer.isGE0 (nMaxArraysPerClass, "MaxArraysPerClass");
+    m_nMaxArraySize = _getClassSize (_getClassIndex (nMaxArraySize));
+    m_nMaxArraysPerClass = nMaxArraysPerClass;
+
+    final int nClasses = _getClassIndex (m_nMaxArraySize) + 1;
+    m_aFree = new ConcurrentLinkedQueue [nClasses];
+    m_aFreeCount = new AtomicInteger [nClasses];
+    for (int i = 0; i < nClasses; ++i)
+    {
+      m_aFree[i] = new ConcurrentLinkedQueue <> ();
+      m_aFreeCount[i] = new AtomicInteger (0);
+    }
+  }
+
+  /**
+   * @return The default instance. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4ByteArrayPool getDefaultInstance ()
+  {
+    return DEFAULT_INSTANCE;
+  }
+
+  private static int _getClassIndex (final int nSize)
+  {
+    if (nSize <= MIN_ARRAY_SIZE)
+      return 0;
+    // Number of bits needed to represent nSize - 1 is the power of two to use
+    return 32 - Integer.numberOfLeadingZeros (nSize - 1) - MIN_SHIFT;
+  }
+
+  private static int _getClassSize (final int nClassIndex)
+  {
+    return 1 << (nClassIndex + MIN_SHIFT);
+  }
+
+  /**
+   * @return The largest pooled array size.
+   */
+  @Nonnegative
+  public final int getMaxArraySize ()
+  {
+    return m_nMaxArraySize;
+  }
+
+  /**
+   * @return The maximum number of free arrays per size class.
+   */
+  @Nonnegative
+  public final int getMaxArraysPerClass ()
+  {
+    return m_nMaxArraysPerClass;
+  }
+
+  /**
+   * Get an array with at least the provided length. The content of the array
+   * is undefined.
+   *
+   * @param nMinLength
+   *        The minimum length. Must be &ge; 0.
+   * @return A new or a recycled array. Never <code>null</code>.
+   */
+  @Nonnull
+  public byte [] acquire (@Nonnegative final int nMinLength)
+  {
+    ValueEnforcer.isGE0 (nMinLength, "MinLength");
+    if (nMinLength > m_nMaxArraySize)
+    {
+      // Too large for pooling
+      m_aMisses.incrementAndGet ();
+      return new byte [nMinLength];
+    }
+
+    final int nClassIndex = _getClassIndex (nMinLength);
+    final byte [] ret = m_aFree[nClassIndex].poll ();
+    if (ret != null)
+    {
+      m_aFreeCount[nClassIndex].decrementAndGet ();
+      m_aHits.incrementAndGet ();
+      return ret;
+    }
+    m_aMisses.incrementAndGet ();
+    return new byte [_getClassSize (nClassIndex)];
+  }
+
+  /**
+   * Return an array to the pool. Arrays that were not acquired from a pool
+   * with the same settings are silently dropped. The caller must not use the
+   * array afterwards.
+   *
+   * @param aArray
+   *        The array to return. May not be <code>null</code>.
+   */
+  public void release (@Nonnull final byte [] aArray)
+  {
+    ValueEnforcer.notNull (aArray, "Array");
+    final int nLength = aArray.length;
+    if (nLength < MIN_ARRAY_SIZE || nLength > m_nMaxArraySize || Integer.bitCount (nLength) != 1)
+      return;
+
+    final int nClassIndex = _getClassIndex (nLength);
+    if (m_aFreeCount[nClassIndex].incrementAndGet () <= m_nMaxArraysPerClass)
+      m_aFree[nClassIndex].offer (aArray);
+    else
+      m_aFreeCount[nClassIndex].decrementAndGet ();
+  }
+
+  /**
+   * @return The number of {@link #acquire(int)} calls served from the pool.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return The number of {@link #acquire(int)} calls that needed a new
+   *         array.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxArraySize", m_nMaxArraySize)
+                                       .append ("MaxArraysPerClass", m_nMaxArraysPerClass)
+                                       .append ("Hits", m_aHits.get ())
+                                       .append ("Misses", m_aMisses.get ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.photon.io.PhotonWorkerPool;
+
+/**
+ * Helper class to decide on which threads phase4 executes background work. By
+ * default the platform threads of the {@link PhotonWorkerPool} are used. If
+ * {@link AS4Configuration#isUseVirtualThreads()} is enabled and the runtime
+ * supports virtual threads (Java 21+), a shared virtual thread per task
+ * executor is used instead.<br>
+ * Note: this library is compiled against Java 11, so the virtual thread
+ * executor is created via reflection.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public final class AS4ExecutorHelper
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4ExecutorHelper.class);
+
+  private static final class SingletonHolder
+  {
+    // Null if not supported
+    static final ExecutorService VIRTUAL_EXECUTOR = _createVirtualThreadExecutor ();
+  }
+
+  private static final class PlatformSingletonHolder
+  {
+    // Shared cached pool of daemon platform threads
+    static final ExecutorService PLATFORM_EXECUTOR = Executors.newCachedThreadPool (new BasicThreadFactory.Builder ().namingPattern ("phase4-outbound-%d")
+                                                                                                                     .daemon (true)
+                                                                                                                     .build ());
+  }
+
+  private AS4ExecutorHelper ()
+  {}
+
+  @Nullable
+  private static ExecutorService _createVirtualThreadExecutor ()
+  {
+    try
+    {
+      final Object ret = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor").invoke (null);
+      LOGGER.info ("Virtual thread executor for phase4 was created");
+      return (ExecutorService) ret;
+    }
+    catch (final NoSuchMethodException ex)
+    {
+      // Java version < 21
+      LOGGER.warn ("Virtual threads are not supported by this Java runtime (" +
+                   System.getProperty ("java.version") +
+                   ")");
+    }
+    catch (final ReflectiveOperationException | RuntimeException ex)
+    {
+      LOGGER.error ("Failed to create virtual thread executor", ex);
+    }
+    return null;
+  }
+
+  /**
+   * @return The shared executor that creates one virtual thread per task, or
+   *         <code>null</code> if virtual threads are not supported by the
+   *         runtime.
+   */
+  @Nullable
+  public static ExecutorService getVirtualThreadExecutor ()
+  {
+    return SingletonHolder.VIRTUAL_EXECUTOR;
+  }
+
+  /**
+   * @return <code>true</code> if the current Java runtime supports virtual
+   *         threads.
+   */
+  public static boolean isVirtualThreadSupported ()
+  {
+    return getVirtualThreadExecutor () != null;
+  }
+
+  /**
+   * @return <code>true</code> if virtual threads are enabled in the
+   *         configuration and supported by the runtime.
+   */
+  public static boolean isVirtualThreadModeEnabled ()
+  {
+    return AS4Configuration.isUseVirtualThreads () && isVirtualThreadSupported ();
+  }
+
+  /**
+   * Get the shared executor to be used for outbound (sending) work. If the
+   * virtual thread mode is enabled, this is the virtual thread executor,
+   * otherwise a shared cached pool of daemon platform threads is used. The
+   * returned executor must not be shut down by the caller. Callers are
+   * responsible for limiting their own parallelism.
+   *
+   * @return The shared outbound executor. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ExecutorService getOutboundExecutor ()
+  {
+    if (isVirtualThreadModeEnabled ())
+      return getVirtualThreadExecutor ();
+    return PlatformSingletonHolder.PLATFORM_EXECUTOR;
+  }
+
+  /**
+   * Run the provided runnable asynchronously. If the virtual thread mode is
+   * enabled, a new virtual thread is used, otherwise the
+   * {@link PhotonWorkerPool} is used. Exceptions of the runnable are logged
+   * and complete the returned future exceptionally.
+   *
+   * @param sActionName
+   *        The action name for logging. May neither be <code>null</code> nor
+   *        empty.
+   * @param aRunnable
+   *        The runnable to execute. May not be <code>null</code>.
+   * @return The future for the execution. Never <code>null</code>.
+   */
+  @Nonnull
+  public static CompletableFuture <Void> runAsync (@Nonnull @Nonempty final String sActionName,
+                                                   @Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+  {
+    ValueEnforcer.notEmpty (sActionName, "ActionName");
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+
+    final CompletableFuture <Void> ret = new CompletableFuture <> ();
+    final Runnable aWrapper = () -> {
+      try
+      {
+        aRunnable.run ();
+        ret.complete (null);
+      }
+      catch (final Exception ex)
+      {
+        LOGGER.error ("Error running asynchronous action '" + sActionName + "'", ex);
+        ret.completeExceptionally (ex);
+      }
+    };
+
+    if (isVirtualThreadModeEnabled ())
+      getVirtualThreadExecutor ().execute (aWrapper);
+    else
+      PhotonWorkerPool.getInstance ().run (sActionName, aWrapper);
+    return ret;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An {@link OutputStream} that writes into arrays of an
+ * {@link AS4ByteArrayPool}. Closing the stream only ends writing. The content
+ * stays readable via {@link #getAsInputStreamProvider()} until
+ * {@link #release()} is called, which returns the array to the pool. Use
+ * {@link #releaseOnClose(AS4ResourceHelper)} to bind the array to the lifetime
+ * of a resource helper.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@NotThreadSafe
+public class AS4PooledByteArrayOutputStream extends OutputStream
+{
+  private final AS4ByteArrayPool m_aPool;
+  private byte [] m_aBuf;
+  private int m_nCount = 0;
+
+  /**
+   * Constructor using the default pool.
+   *
+   * @param nInitialCapacity
+   *        The expected number of bytes. Must be &ge; 0.
+   */
+  public AS4PooledByteArrayOutputStream (@Nonnegative final int nInitialCapacity)
+  {
+    this (AS4ByteArrayPool.getDefaultInstance (), nInitialCapacity);
+  }
+
+  public AS4PooledByteArrayOutputStream (@Nonnull final AS4ByteArrayPool aPool,
+                                         @Nonnegative final int nInitialCapacity)
+  {
+    ValueEnforcer.notNull (aPool, "Pool");
+    m_aPool = aPool;
+    m_aBuf = aPool.acquire (nInitialCapacity);
+  }
+
+  /**
+   * An input stream that fails as soon as the array it reads from is no longer
+   * owned by the output stream, because it may already be reused by someone
+   * else.
+   */
+  private final class PooledInputStream extends NonBlockingByteArrayInputStream
+  {
+    PooledInputStream (@Nonnull final byte [] aBuf, @Nonnegative final int nCount)
+    {
+      super (aBuf, 0, nCount, false);
+    }
+
+    @Override
+    public int read ()
+    {
+      _ensureOwned (m_aBuf);
+      return super.read ();
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen)
+    {
+      _ensureOwned (m_aBuf);
+      return super.read (aBuf, nOfs, nLen);
+    }
+  }
+
+  private void _ensureOpen ()
+  {
+    if (m_aBuf == null)
+      throw new IllegalStateException ("The buffer was already released");
+  }
+
+  private void _ensureOwned (@Nonnull final byte [] aBuf)
+  {
+    _ensureOpen ();
+    if (aBuf != m_aBuf)
+      throw new IllegalStateException ("The buffer was already replaced");
+  }
+
+  private void _ensureCapacity (final int nMinCapacity)
+  {
+    if (nMinCapacity < 0)
+      throw new IllegalStateException ("Maximum buffer size exceeded");
+    if (nMinCapacity > m_aBuf.length)
+    {
+      final byte [] aNewBuf = m_aPool.acquire (Math.max (nMinCapacity, m_aBuf.length << 1));
+      System.arraycopy (m_aBuf, 0, aNewBuf, 0, m_nCount);
+      m_aPool.release (m_aBuf);
+      m_aBuf = aNewBuf;
+    }
+  }
+
+  @Override
+  public void write (final int b)
+  {
+    _ensureOpen ();
+    _ensureCapacity (m_nCount + 1);
+    m_aBuf[m_nCount++] = (byte) b;
+  }
+
+  @Override
+  public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen)
+  {
+    ValueEnforcer.isArrayOfsLen (aBuf, nOfs, nLen);
+    _ensureOpen ();
+    _ensureCapacity (m_nCount + nLen);
+    System.arraycopy (aBuf, nOfs, m_aBuf, m_nCount, nLen);
+    m_nCount += nLen;
+  }
+
+  /**
+   * @return The number of bytes written.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_nCount;
+  }
+
+  /**
+   * @return A copy of the written bytes. Never <code>null</code>.
+   */
+  @Nonnull
+  public byte [] toByteArray ()
+  {
+    _ensureOpen ();
+    return Arrays.copyOf (m_aBuf, m_nCount);
+  }
+
+  /**
+   * @return An input stream provider that can be read multiple times and that
+   *         reads the written bytes without copying them. After
+   *         {@link #release()} was called or the buffer was enlarged by further
+   *         writes, opening a new input stream or reading from an open one
+   *         throws an {@link IllegalStateException}.
+   */
+  @Nonnull
+  public IHasInputStream getAsInputStreamProvider ()
+  {
+    _ensureOpen ();
+    final byte [] aBuf = m_aBuf;
+    final int nCount = m_nCount;
+    return HasInputStream.multiple ( () -> {
+      _ensureOwned (aBuf);
+      return new PooledInputStream (aBuf, nCount);
+    });
+  }
+
+  /**
+   * Return the buffer to the pool. Afterwards nothing can be written or read
+   * anymore. Calling this more than once has no effect.
+   */
+  public void release ()
+  {
+    if (m_aBuf != null)
+    {
+      m_aPool.release (m_aBuf);
+      m_aBuf = null;
+      m_nCount = 0;
+    }
+  }
+
+  /**
+   * Release the buffer when the provided resource helper is closed.
+   *
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public AS4PooledByteArrayOutputStream releaseOnClose (@Nonnull final AS4ResourceHelper aResHelper)
+  {
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+    aResHelper.addCloseable (this::release);
+    return this;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Capacity", m_aBuf == null ? -1 : m_aBuf.length)
+                                       .append ("Count", m_nCount)
+                                       .getToString ();
+  }
+}
@@ -36,7 +36,9 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.file.FileIOError;
@@ -48,7 +50,9 @@ import com.helger.phase4.CAS4;
  * that will be closed when this manager is closed. When calling
  * {@link #createTempFile()} a new filename is created and added to the list.
  * When using {@link #addCloseable(Closeable)} the Closable is added for
- * postponed closing.
+ * postponed closing.<br>
+ * If a global {@link AS4TempFileArena} is set, temporary files are taken from
+ * and returned to it instead.
  *
  * @author Philip Helger
  */
@@ -59,6 +63,7 @@ public class AS4ResourceHelper implements Closeable
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4ResourceHelper.class);
 
   private static File s_aTempDir;
+  private static volatile AS4TempFileArena s_aTempFileArena;
 
   /**
    * @return The temp file directory to use, or <code>null</code> for the system
@@ -89,11 +94,39 @@ public class AS4ResourceHelper implements Closeable
     s_aTempDir = aTempDir;
   }
 
+  /**
+   * @return The temporary file arena to use, or <code>null</code> if each
+   *         temporary file is created and deleted individually.
+   * @since 3.0.1
+   */
+  @Nullable
+  public static AS4TempFileArena getTempFileArena ()
+  {
+    return s_aTempFileArena;
+  }
+
+  /**
+   * Set a temporary file arena to be used for all temporary files created
+   * afterwards. If set, {@link #getTempDir()} is ignored. The lifecycle of the
+   * arena is managed by the caller.
+   *
+   * @param aTempFileArena
+   *        The arena to use. May be <code>null</code> to create and delete each
+   *        temporary file individually.
+   * @since 3.0.1
+   */
+  public static void setTempFileArena (@Nullable final AS4TempFileArena aTempFileArena)
+  {
+    s_aTempFileArena = aTempFileArena;
+  }
+
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   private final AtomicBoolean m_aInClose = new AtomicBoolean (false);
   @GuardedBy ("m_aRWLock")
   private final ICommonsList <File> m_aTempFiles = new CommonsArrayList <> ();
   @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <File, AS4TempFileArena> m_aArenaFiles = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
   private final ICommonsList <Closeable> m_aCloseables = new CommonsArrayList <> ();
 
   public AS4ResourceHelper ()
@@ -113,6 +146,16 @@ public class AS4ResourceHelper implements Closeable
     if (m_aInClose.get ())
       throw new IllegalStateException ("ResourceManager is already closing/closed!");
 
+    final AS4TempFileArena aArena = s_aTempFileArena;
+    if (aArena != null)
+    {
+      // Get from the arena
+      final File ret = aArena.acquire ();
+      // And remember
+      m_aRWLock.writeLocked ( () -> m_aArenaFiles.put (ret, aArena));
+      return ret;
+    }
+
     // Create
     final File ret = s_aTempDir != null ? Files.createTempFile (s_aTempDir.toPath (),
                                                                 TEMP_FILE_PREFIX,
@@ -138,7 +181,11 @@ public class AS4ResourceHelper implements Closeable
   @ReturnsMutableCopy
   public ICommonsList <File> getAllTempFiles ()
   {
-    return m_aRWLock.readLockedGet (m_aTempFiles::getClone);
+    return m_aRWLock.readLockedGet ( () -> {
+      final ICommonsList <File> ret = m_aTempFiles.getClone ();
+      ret.addAll (m_aArenaFiles.keySet ());
+      return ret;
+    });
   }
 
   /**
@@ -193,6 +240,14 @@ public class AS4ResourceHelper implements Closeable
           StreamHelper.close (aCloseable);
       }
 
+      // Return all arena files - they are cleaned asynchronously
+      final ICommonsMap <File, AS4TempFileArena> aArenaFiles = m_aRWLock.writeLockedGet ( () -> {
+        final ICommonsMap <File, AS4TempFileArena> ret = m_aArenaFiles.getClone ();
+        m_aArenaFiles.clear ();
+        return ret;
+      });
+      aArenaFiles.forEach ( (k, v) -> v.release (k));
+
       // Get and delete all temp files
       final ICommonsList <File> aFiles = m_aRWLock.writeLockedGet ( () -> {
         final ICommonsList <File> ret = m_aTempFiles.getClone ();
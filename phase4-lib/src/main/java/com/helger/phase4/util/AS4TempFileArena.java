@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileIOError;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.CAS4;
+
+/**
+ * A managed area for temporary files used by {@link AS4ResourceHelper}. It
+ * avoids creating and deleting a file for every attachment by recycling
+ * released files, enforces a global byte quota on the temporary storage and
+ * performs truncation and deletion asynchronously on a background thread so
+ * that request threads don't block on slow volumes.
+ * <ul>
+ * <li>A number of empty files is preallocated and released files are
+ * truncated and put back into the pool, as long as the pool is not full.</li>
+ * <li>The used bytes are measured on release and periodically sampled. If the
+ * quota is exceeded, {@link #acquire()} waits up to the configured maximum
+ * wait time for space to become available and otherwise fails with an
+ * {@link IOException}.</li>
+ * <li>Files with the arena prefix that are left over from a previous run are
+ * deleted on startup.</li>
+ * </ul>
+ * Use {@link AS4ResourceHelper#setTempFileArena(AS4TempFileArena)} to activate
+ * it globally.
+ *
+ * @author Philip Helger
+ * @since 3.0.1
+ */
+@ThreadSafe
+public class AS4TempFileArena implements AutoCloseable
+{
+  public static final String FILE_PREFIX = "phase4-arena-";
+  public static final String FILE_SUFFIX = ".tmp";
+  public static final int DEFAULT_PREALLOCATED_FILES = 16;
+  public static final int DEFAULT_MAX_POOLED_FILES = 256;
+  public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds (10);
+  public static final Duration DEFAULT_SAMPLING_INTERVAL = Duration.ofSeconds (1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4TempFileArena.class);
+
+  private final File m_aDirectory;
+  private final long m_nQuotaBytes;
+  private final int m_nMaxPooledFiles;
+  private final Duration m_aMaxWait;
+  private final ScheduledExecutorService m_aExecutor;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final Condition m_aSpaceAvailable = m_aLock.newCondition ();
+  @GuardedBy ("m_aLock")
+  private final ArrayDeque <File> m_aPool = new ArrayDeque <> ();
+  private final Set <File> m_aInUse = ConcurrentHashMap.newKeySet ();
+  private final AtomicBoolean m_aClosed = new AtomicBoolean (false);
+
+  // Metrics
+  private final AtomicLong m_aUsedBytes = new AtomicLong (0);
+  private final AtomicInteger m_aPendingCleanups = new AtomicInteger (0);
+  private final AtomicLong m_aCreated = new AtomicLong (0);
+  private final AtomicLong m_aRecycled = new AtomicLong (0);
+  private final AtomicLong m_aDeleted = new AtomicLong (0);
+  private final AtomicLong m_aRejected = new AtomicLong (0);
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aDirectory
+   *        The directory to place the files in. Will be created if not
+   *        existing. Should be exclusively used by this arena. May not be
+   *        <code>null</code>.
+   * @param nQuotaBytes
+   *        The maximum number of bytes all temporary files may use together.
+   *        Must be &gt; 0.
+   */
+  public AS4TempFileArena (@Nonnull final File aDirectory, @Nonnegative final long nQuotaBytes)
+  {
+    this (aDirectory,
+          nQuotaBytes,
+          DEFAULT_PREALLOCATED_FILES,
+          DEFAULT_MAX_POOLED_FILES,
+          DEFAULT_MAX_WAIT,
+          DEFAULT_SAMPLING_INTERVAL);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to place the files in. Will be created if not
+   *        existing. Should be exclusively used by this arena. May not be
+   *        <code>null</code>.
+   * @param nQuotaBytes
+   *        The maximum number of bytes all temporary files may use together.
+   *        Must be &gt; 0.
+   * @param nPreallocatedFiles
+   *        The number of empty files to create upfront. Must be &ge; 0.
+   * @param nMaxPooledFiles
+   *        The maximum number of released files to keep for reuse. Must be
+   *        &ge; 0.
+   * @param aMaxWait
+   *        The maximum time {@link #acquire()} waits if the quota is exceeded.
+   *        Use {@link Duration#ZERO} to fail immediately. May not be
+   *        <code>null</code>.
+   * @param aSamplingInterval
+   *        The interval in which the disk usage of all files in use is
+   *        measured. May not be <code>null</code>.
+   */
+  public AS4TempFileArena (@Nonnull final File aDirectory,
+                           @Nonnegative final long nQuotaBytes,
+                           @Nonnegative final int nPreallocatedFiles,
+                           @Nonnegative final int nMaxPooledFiles,
+                           @Nonnull final Duration aMaxWait,
+                           @Nonnull final Duration aSamplingInterval)
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nQuotaBytes, "QuotaBytes");
+    ValueEnforcer.isGE0 (nPreallocatedFiles, "PreallocatedFiles");
+    ValueEnforcer.isGE0 (nMaxPooledFiles, "MaxPooledFiles");
+    ValueEnforcer.notNull (aMaxWait, "MaxWait");
+    ValueEnforcer.isFalse (aMaxWait.isNegative (), "MaxWait may not be negative");
+    ValueEnforcer.notNull (aSamplingInterval, "SamplingInterval");
+    ValueEnforcer.isTrue (aSamplingInterval.toMillis () > 0, "SamplingInterval must be positive");
+
+    m_aDirectory = aDirectory;
+    m_nQuotaBytes = nQuotaBytes;
+    m_nMaxPooledFiles = nMaxPooledFiles;
+    m_aMaxWait = aMaxWait;
+
+    final FileIOError aError = AS4IOHelper.getFileOperationManager ().createDirRecursiveIfNotExisting (aDirectory);
+    if (aError.isFailure ())
+      throw new IllegalStateException ("Failed to create temp file arena directory '" +
+                                       aDirectory.getAbsolutePath () +
+                                       "': " +
+                                       aError.toString ());
+    _deleteLeftovers ();
+
+    final ScheduledThreadPoolExecutor aExecutor = new ScheduledThreadPoolExecutor (1,
+                                                                                   new BasicThreadFactory.Builder ().namingPattern ("phase4-temp-arena-%d")
+                                                                                                                    .daemon (true)
+                                                                                                                    .build ());
+    aExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+    m_aExecutor = aExecutor;
+
+    for (int i = 0; i < Math.min (nPreallocatedFiles, nMaxPooledFiles); ++i)
+    {
+      try
+      {
+        final File aFile = _createNewFile ();
+        m_aLock.locked ( () -> m_aPool.addLast (aFile));
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.warn ("Failed to preallocate temporary file in '" + aDirectory.getAbsolutePath () + "'", ex);
+        break;
+      }
+    }
+
+    final long nSamplingMillis = aSamplingInterval.toMillis ();
+    m_aExecutor.scheduleWithFixedDelay (this::_sampleUsage, nSamplingMillis, nSamplingMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void _deleteLeftovers ()
+  {
+    final File [] aFiles = m_aDirectory.listFiles ( (d, n) -> n.startsWith (FILE_PREFIX) && n.endsWith (FILE_SUFFIX));
+    if (aFiles != null && aFiles.length > 0)
+    {
+      LOGGER.info ("Deleting " + aFiles.length + " left over temporary files in '" + m_aDirectory.getAbsolutePath () + "'");
+      for (final File aFile : aFiles)
+        AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aFile);
+    }
+  }
+
+  @Nonnull
+  private File _createNewFile () throws IOException
+  {
+    final File ret = Files.createTempFile (m_aDirectory.toPath (), FILE_PREFIX, FILE_SUFFIX).toFile ();
+    m_aCreated.incrementAndGet ();
+    return ret;
+  }
+
+  private void _sampleUsage ()
+  {
+    // Pooled files are always empty
+    long nUsed = 0;
+    for (final File aFile : m_aInUse)
+      nUsed += aFile.length ();
+    m_aUsedBytes.set (nUsed);
+    if (nUsed < m_nQuotaBytes)
+      m_aLock.locked (m_aSpaceAvailable::signalAll);
+  }
+
+  /**
+   * @return The directory in which the files are created. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The maximum number of bytes all temporary files may use together.
+   */
+  @Nonnegative
+  public final long getQuotaBytes ()
+  {
+    return m_nQuotaBytes;
+  }
+
+  /**
+   * Get an empty temporary file from this arena. The caller is responsible for
+   * calling {@link #release(File)} afterwards.
+   *
+   * @return An empty, existing file. Never <code>null</code>.
+   * @throws IOException
+   *         If the quota is exceeded for longer than the maximum waiting time,
+   *         if the current thread was interrupted or if creating the file
+   *         failed.
+   * @throws IllegalStateException
+   *         If the arena was already closed
+   */
+  @Nonnull
+  public File acquire () throws IOException
+  {
+    if (m_aClosed.get ())
+      throw new IllegalStateException ("The temporary file arena is already closed");
+
+    File ret;
+    m_aLock.lock ();
+    try
+    {
+      long nRemainingNanos = m_aMaxWait.toNanos ();
+      while (m_aUsedBytes.get () >= m_nQuotaBytes)
+      {
+        if (nRemainingNanos <= 0)
+        {
+          m_aRejected.incrementAndGet ();
+          throw new IOException ("The temporary file quota of " +
+                                 m_nQuotaBytes +
+                                 " bytes in '" +
+                                 m_aDirectory.getAbsolutePath () +
+                                 "' is exceeded");
+        }
+        nRemainingNanos = m_aSpaceAvailable.awaitNanos (nRemainingNanos);
+      }
+      ret = m_aPool.pollFirst ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new IOException ("Interrupted while waiting for temporary file space", ex);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+
+    if (ret == null)
+      ret = _createNewFile ();
+    else
+      m_aRecycled.incrementAndGet ();
+    m_aInUse.add (ret);
+    return ret;
+  }
+
+  private void _cleanup (@Nonnull final File aFile)
+  {
+    try
+    {
+      final long nLength = aFile.length ();
+      boolean bPooled = false;
+      if (!m_aClosed.get () && aFile.exists ())
+      {
+        final boolean bHasSpace = m_aLock.lockedGet ( () -> m_aPool.size () < m_nMaxPooledFiles);
+        if (bHasSpace)
+        {
+          try (final RandomAccessFile aRAF = new RandomAccessFile (aFile, "rw"))
+          {
+            aRAF.setLength (0);
+            bPooled = m_aLock.lockedGet ( () -> {
+              if (m_aPool.size () >= m_nMaxPooledFiles)
+                return Boolean.FALSE;
+              m_aPool.addLast (aFile);
+              return Boolean.TRUE;
+            }).booleanValue ();
+          }
+          catch (final IOException ex)
+          {
+            LOGGER.warn ("Failed to truncate temporary file '" + aFile.getAbsolutePath () + "'", ex);
+          }
+        }
+      }
+      if (!bPooled)
+      {
+        final FileIOError aError = AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aFile);
+        if (aError.isFailure ())
+          LOGGER.warn ("Failed to delete temporary " +
+                       CAS4.LIB_NAME +
+                       " file '" +
+                       aFile.getAbsolutePath () +
+                       "': " +
+                       aError.toString ());
+        else
+          m_aDeleted.incrementAndGet ();
+      }
+
+      // Space was freed
+      if (nLength > 0)
+        m_aUsedBytes.updateAndGet (x -> Math.max (0, x - nLength));
+      m_aLock.locked (m_aSpaceAvailable::signalAll);
+    }
+    finally
+    {
+      m_aPendingCleanups.decrementAndGet ();
+    }
+  }
+
+  /**
+   * Return a file previously obtained via {@link #acquire()}. The file is
+   * truncated and pooled, or deleted, asynchronously. The file may not be used
+   * by the caller after this call.
+   *
+   * @param aFile
+   *        The file to release. May not be <code>null</code>.
+   */
+  public void release (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+
+    if (!m_aInUse.remove (aFile))
+    {
+      LOGGER.warn ("The file '" + aFile.getAbsolutePath () + "' is not in use by this temporary file arena");
+      return;
+    }
+
+    m_aPendingCleanups.incrementAndGet ();
+    if (m_aClosed.get ())
+      _cleanup (aFile);
+    else
+      try
+      {
+        m_aExecutor.execute ( () -> _cleanup (aFile));
+      }
+      catch (final RuntimeException ex)
+      {
+        // Rejected because of concurrent shutdown
+        _cleanup (aFile);
+      }
+  }
+
+  /**
+   * @return The number of files currently handed out.
+   */
+  @Nonnegative
+  public int getInUseFileCount ()
+  {
+    return m_aInUse.size ();
+  }
+
+  /**
+   * @return The number of empty files ready for reuse.
+   */
+  @Nonnegative
+  public int getPooledFileCount ()
+  {
+    return m_aLock.lockedInt (m_aPool::size);
+  }
+
+  /**
+   * @return The number of released files that were not yet truncated or
+   *         deleted.
+   */
+  @Nonnegative
+  public int getPendingCleanupCount ()
+  {
+    return m_aPendingCleanups.get ();
+  }
+
+  /**
+   * @return The last measured number of bytes used by files in use.
+   */
+  @Nonnegative
+  public long getUsedBytes ()
+  {
+    return m_aUsedBytes.get ();
+  }
+
+  /**
+   * @return The total number of files created on disk.
+   */
+  @Nonnegative
+  public long getCreatedFileCount ()
+  {
+    return m_aCreated.get ();
+  }
+
+  /**
+   * @return The total number of times a pooled file was reused.
+   */
+  @Nonnegative
+  public long getRecycledFileCount ()
+  {
+    return m_aRecycled.get ();
+  }
+
+  /**
+   * @return The total number of files deleted from disk.
+   */
+  @Nonnegative
+  public long getDeletedFileCount ()
+  {
+    return m_aDeleted.get ();
+  }
+
+  /**
+   * @return The total number of {@link #acquire()} calls that failed because
+   *         the quota was exceeded.
+   */
+  @Nonnegative
+  public long getRejectedCount ()
+  {
+    return m_aRejected.get ();
+  }
+
+  /**
+   * Stop the background thread and delete all pooled files. Files still in
+   * use are deleted when they are released.
+   */
+  public void close ()
+  {
+    if (!m_aClosed.getAndSet (true))
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+      final File [] aPooled = m_aLock.lockedGet ( () -> {
+        final File [] ret = m_aPool.toArray (new File [0]);
+        m_aPool.clear ();
+        return ret;
+      });
+      for (final File aFile : aPooled)
+        if (AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aFile).isSuccess ())
+          m_aDeleted.incrementAndGet ();
+      m_aLock.locked (m_aSpaceAvailable::signalAll);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("QuotaBytes", m_nQuotaBytes)
+                                       .append ("MaxPooledFiles", m_nMaxPooledFiles)
+                                       .append ("MaxWait", m_aMaxWait)
+                                       .append ("InUse", getInUseFileCount ())
+                                       .append ("Pooled", getPooledFileCount ())
+                                       .append ("UsedBytes", getUsedBytes ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4AttachmentMemoryBudget}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AttachmentMemoryBudgetTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final AS4AttachmentMemoryBudget aBudget = new AS4AttachmentMemoryBudget (100, 60);
+    // Too large for a single attachment
+    assertFalse (aBudget.tryReserve (61));
+    assertTrue (aBudget.tryReserve (60));
+    assertEquals (40, aBudget.getAvailableBytes ());
+    // Budget exhausted
+    assertFalse (aBudget.tryReserve (41));
+    assertTrue (aBudget.tryReserve (40));
+    assertEquals (0, aBudget.getAvailableBytes ());
+    assertEquals (100, aBudget.getPeakBytes ());
+    aBudget.release (60);
+    aBudget.release (40);
+    assertEquals (0, aBudget.getUsedBytes ());
+    assertEquals (2, aBudget.getGrantedCount ());
+    assertEquals (2, aBudget.getDeniedCount ());
+  }
+
+  @Test
+  public void testResourceHelper ()
+  {
+    final AS4AttachmentMemoryBudget aBudget = new AS4AttachmentMemoryBudget (100, 100);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      assertTrue (aBudget.tryReserve (70, aResHelper));
+      assertFalse (aBudget.tryReserve (70, aResHelper));
+      assertEquals (70, aBudget.getUsedBytes ());
+    }
+    // Released on close
+    assertEquals (0, aBudget.getUsedBytes ());
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4CompressionPolicyDefault}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CompressionPolicyDefaultTest
+{
+  private static final byte [] XML = ("<?xml version='1.0'?><root>" +
+                                      StringHelper.getRepeated ("<item>value</item>", 100) +
+                                      "</root>").getBytes (StandardCharsets.UTF_8);
+
+  @Test
+  public void testDecision ()
+  {
+    final AS4CompressionPolicyDefault aPolicy = new AS4CompressionPolicyDefault ();
+
+    AS4CompressionDecision aDecision = aPolicy.getCompressionDecision (CMimeType.APPLICATION_XML,
+                                                                       XML.length,
+                                                                       XML,
+                                                                       true);
+    assertTrue (aDecision.isCompress ());
+    assertEquals (Deflater.DEFAULT_COMPRESSION, aDecision.getLevel ());
+
+    // Compressed MIME type
+    aDecision = aPolicy.getCompressionDecision (CMimeType.APPLICATION_ZIP, XML.length, XML, false);
+    assertFalse (aDecision.isCompress ());
+    aDecision = aPolicy.getCompressionDecision (CMimeType.APPLICATION_ZIP, XML.length, XML, true);
+    assertTrue (aDecision.isStoreOnly ());
+
+    // Random data has a high entropy
+    final byte [] aRandom = new byte [4096];
+    new Random (42).nextBytes (aRandom);
+    assertTrue (AS4CompressionPolicyDefault.getEntropy (aRandom) > 7.9);
+    aDecision = aPolicy.getCompressionDecision (CMimeType.APPLICATION_OCTET_STREAM, aRandom.length, aRandom, false);
+    assertFalse (aDecision.isCompress ());
+
+    // GZIP signature
+    final byte [] aGZIP = XML.clone ();
+    aGZIP[0] = 0x1f;
+    aGZIP[1] = (byte) 0x8b;
+    assertFalse (aPolicy.getCompressionDecision (CMimeType.APPLICATION_OCTET_STREAM, aGZIP.length, aGZIP, false)
+                        .isCompress ());
+
+    // Small and large
+    assertFalse (aPolicy.getCompressionDecision (CMimeType.APPLICATION_XML, 10, new byte [10], false).isCompress ());
+    aDecision = aPolicy.getCompressionDecision (CMimeType.APPLICATION_XML, aPolicy.getLargeSize (), XML, false);
+    assertEquals (Deflater.BEST_SPEED, aDecision.getLevel ());
+  }
+
+  @Test
+  public void testOutgoingAttachment () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Compressible
+      WSS4JAttachment aAttachment = WSS4JAttachment.createOutgoingFileAttachment (AS4OutgoingAttachment.builder ()
+                                                                                                       .data (XML)
+                                                                                                       .mimeTypeXML ()
+                                                                                                       .compressionGZIP ()
+                                                                                                       .build (),
+                                                                                  aResHelper);
+      assertEquals (EAS4CompressionMode.GZIP, aAttachment.getCompressionMode ());
+      assertNotNull (aAttachment.getCompressionResult ());
+      assertTrue (aAttachment.getCompressionResult ().getRatio () < 0.5);
+
+      // Incompressible but mandatory - stored only, still valid GZIP
+      final byte [] aRandom = new byte [4096];
+      new Random (42).nextBytes (aRandom);
+      aAttachment = WSS4JAttachment.createOutgoingFileAttachment (AS4OutgoingAttachment.builder ()
+                                                                                       .data (aRandom)
+                                                                                       .mimeType (CMimeType.APPLICATION_OCTET_STREAM)
+                                                                                       .compressionGZIP ()
+                                                                                       .build (),
+                                                                  aResHelper);
+      assertEquals (EAS4CompressionMode.GZIP, aAttachment.getCompressionMode ());
+      assertTrue (aAttachment.getCompressionResult ().getDecision ().isStoreOnly ());
+      final byte [] aDecompressed = StreamHelper.getAllBytes (EAS4CompressionMode.GZIP.getDecompressStream (aAttachment.getSourceStream ()));
+      assertEquals (aRandom.length, aDecompressed.length);
+
+      // Incompressible and optional - sent as is
+      aAttachment = WSS4JAttachment.createOutgoingFileAttachment (AS4OutgoingAttachment.builder ()
+                                                                                       .data (aRandom)
+                                                                                       .mimeType (CMimeType.APPLICATION_OCTET_STREAM)
+                                                                                       .compressionGZIP ()
+                                                                                       .compressionMandatory (false)
+                                                                                       .build (),
+                                                                  aResHelper);
+      assertNull (aAttachment.getCompressionMode ());
+      assertFalse (aAttachment.getCompressionResult ().getDecision ().isCompress ());
+      assertEquals (1, aAttachment.getCompressionResult ().getRatio (), 0.0001);
+    }
+  }
+}
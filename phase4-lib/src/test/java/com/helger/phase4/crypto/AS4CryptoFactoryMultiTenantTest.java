@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeParty;
+
+/**
+ * Test class for class {@link AS4CryptoFactoryMultiTenant}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CryptoFactoryMultiTenantTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  private static final class MockCryptoFactory implements IAS4CryptoFactory
+  {
+    private final String m_sAlias;
+    private final Crypto m_aCrypto = new Merlin ();
+
+    MockCryptoFactory (@Nonnull final String sAlias)
+    {
+      m_sAlias = sAlias;
+    }
+
+    @Nonnull
+    public Crypto getCrypto (@Nonnull final ECryptoMode eCryptoMode)
+    {
+      return m_aCrypto;
+    }
+
+    public KeyStore getKeyStore ()
+    {
+      return null;
+    }
+
+    public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+    {
+      return null;
+    }
+
+    public String getKeyAlias ()
+    {
+      return m_sAlias;
+    }
+
+    public char [] getKeyPasswordPerAliasCharArray (final String sSearchKeyAlias)
+    {
+      return null;
+    }
+
+    public KeyStore getTrustStore ()
+    {
+      return null;
+    }
+  }
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sResponderID)
+  {
+    return new PMode ("pm-" + sResponderID,
+                      PModeParty.createSimple ("initiator", "role"),
+                      PModeParty.createSimple (sResponderID, "role"),
+                      null,
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      null,
+                      null,
+                      null,
+                      null);
+  }
+
+  private static void _assertNoContext (@Nonnull final AS4CryptoFactoryMultiTenant aCF)
+  {
+    try
+    {
+      aCF.getKeyAlias ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aCF.getCrypto (ECryptoMode.DECRYPT_VERIFY);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final AtomicInteger aLoadCount = new AtomicInteger (0);
+    final AS4CryptoFactoryMultiTenant aCF = new AS4CryptoFactoryMultiTenant (sTenantID -> {
+      aLoadCount.incrementAndGet ();
+      return sTenantID.startsWith ("t") ? new MockCryptoFactory (sTenantID) : null;
+    }, IAS4TenantIDResolver.BY_RESPONDER_ID, new MockCryptoFactory ("default"), 2);
+
+    // No context
+    _assertNoContext (aCF);
+
+    // Explicitly the default
+    aCF.setContextTenantID (null);
+    assertEquals ("default", aCF.getKeyAlias ());
+
+    aCF.setContextPMode (_createPMode ("t1"));
+    assertEquals ("t1", aCF.getKeyAlias ());
+    assertNotNull (aCF.getCrypto (ECryptoMode.DECRYPT_VERIFY));
+    aCF.setContextPMode (_createPMode ("t1"));
+    assertEquals (1, aLoadCount.get ());
+
+    // Unknown tenant - fail closed
+    aCF.setContextPMode (_createPMode ("unknown"));
+    _assertNoContext (aCF);
+    assertNull (aCF.getTenantCryptoFactory ("unknown"));
+
+    // LRU eviction
+    final AS4CryptoFactoryPreloaded aT1 = aCF.getTenantCryptoFactory ("t1");
+    aCF.getTenantCryptoFactory ("t2");
+    aCF.getTenantCryptoFactory ("t3");
+    assertEquals (2, aCF.getCachedTenantCount ());
+    final AS4CryptoFactoryPreloaded aT1New = aCF.getTenantCryptoFactory ("t1");
+    assertNotSame (aT1, aT1New);
+    // The old instance is still usable
+    assertEquals ("t1", aT1.getKeyAlias ());
+
+    // Invalidate
+    aCF.setContextTenantID ("t1");
+    assertSame (aT1New, aCF.getTenantCryptoFactory ("t1"));
+    assertTrue (aCF.invalidateTenant ("t1").isChanged ());
+    assertEquals ("t1", aCF.getKeyAlias ());
+    assertNotSame (aT1New, aCF.getTenantCryptoFactory ("t1"));
+
+    aCF.clearContext ();
+    _assertNoContext (aCF);
+    assertTrue (aCF.invalidateAllTenants ().isChanged ());
+    assertEquals (0, aCF.getCachedTenantCount ());
+  }
+
+  @Test
+  public void testTwoTenantsOnOneThread () throws Exception
+  {
+    final AS4CryptoFactoryMultiTenant aCF = new AS4CryptoFactoryMultiTenant (MockCryptoFactory::new,
+                                                                             IAS4TenantIDResolver.BY_RESPONDER_ID,
+                                                                             new MockCryptoFactory ("default"),
+                                                                             10);
+    final AS4CryptoFactoryTrustCaching aWrapped = new AS4CryptoFactoryTrustCaching (aCF);
+
+    // First message for tenant 1
+    aWrapped.setContextPMode (_createPMode ("t1"));
+    try
+    {
+      assertEquals ("t1", aWrapped.getKeyAlias ());
+    }
+    finally
+    {
+      aWrapped.clearContext ();
+    }
+
+    // The context of tenant 1 must not leak
+    _assertNoContext (aCF);
+
+    // Second message on the same thread for tenant 2
+    aWrapped.setContextPMode (_createPMode ("t2"));
+    try
+    {
+      assertEquals ("t2", aWrapped.getKeyAlias ());
+      assertSame (aCF.getTenantCryptoFactory ("t2").getCrypto (ECryptoMode.DECRYPT_VERIFY),
+                  ((AS4TrustCachingCrypto) aWrapped.getCrypto (ECryptoMode.DECRYPT_VERIFY)).getDelegate ());
+    }
+    finally
+    {
+      aWrapped.clearContext ();
+    }
+    _assertNoContext (aCF);
+
+    // Another thread never sees the context of this thread
+    aCF.setContextTenantID ("t1");
+    try
+    {
+      final AtomicInteger aErrors = new AtomicInteger (0);
+      final Thread aThread = new Thread ( () -> _assertNoContext (aCF));
+      aThread.setUncaughtExceptionHandler ( (t, ex) -> aErrors.incrementAndGet ());
+      aThread.start ();
+      aThread.join ();
+      assertEquals (0, aErrors.get ());
+      assertEquals ("t1", aCF.getKeyAlias ());
+    }
+    finally
+    {
+      aCF.clearContext ();
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeParty;
+
+/**
+ * Test class for class {@link AS4CryptoFactoryTrustCaching}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CryptoFactoryTrustCachingTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  private static final class MockCryptoFactory implements IAS4CryptoFactory
+  {
+    private final String m_sAlias;
+    private final KeyStore m_aTrustStore;
+    private Crypto m_aCrypto = new Merlin ();
+
+    MockCryptoFactory (@Nonnull final String sAlias, @Nullable final KeyStore aTrustStore)
+    {
+      m_sAlias = sAlias;
+      m_aTrustStore = aTrustStore;
+    }
+
+    @Nonnull
+    public Crypto getCrypto (@Nonnull final ECryptoMode eCryptoMode)
+    {
+      return m_aCrypto;
+    }
+
+    public KeyStore getKeyStore ()
+    {
+      return null;
+    }
+
+    public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+    {
+      return null;
+    }
+
+    public String getKeyAlias ()
+    {
+      return m_sAlias;
+    }
+
+    public char [] getKeyPasswordPerAliasCharArray (final String sSearchKeyAlias)
+    {
+      return null;
+    }
+
+    public KeyStore getTrustStore ()
+    {
+      return m_aTrustStore;
+    }
+  }
+
+  @Nonnull
+  private static KeyStore _createTrustStore (@Nonnull final X509Certificate... aCerts) throws Exception
+  {
+    final KeyStore ret = KeyStore.getInstance ("PKCS12");
+    ret.load (null, null);
+    int i = 0;
+    for (final X509Certificate aCert : aCerts)
+      ret.setCertificateEntry ("cert" + i++, aCert);
+    return ret;
+  }
+
+  @Test
+  public void testCreateTrustStoreID () throws Exception
+  {
+    final X509Certificate aCert1 = AS4TrustValidationCacheTest.createSelfSignedCert ("a");
+    final X509Certificate aCert2 = AS4TrustValidationCacheTest.createSelfSignedCert ("b");
+
+    // Same content, different objects
+    final String sID = AS4CryptoFactoryTrustCaching.createTrustStoreID (_createTrustStore (aCert1));
+    assertEquals (sID, AS4CryptoFactoryTrustCaching.createTrustStoreID (_createTrustStore (aCert1)));
+
+    // Different content
+    assertNotEquals (sID, AS4CryptoFactoryTrustCaching.createTrustStoreID (_createTrustStore (aCert2)));
+    assertNotEquals (sID, AS4CryptoFactoryTrustCaching.createTrustStoreID (_createTrustStore (aCert1, aCert2)));
+    assertNotEquals (sID, AS4CryptoFactoryTrustCaching.createTrustStoreID (_createTrustStore ()));
+
+    // No trust store - never shared
+    assertNotEquals (AS4CryptoFactoryTrustCaching.createTrustStoreID (null),
+                     AS4CryptoFactoryTrustCaching.createTrustStoreID (null));
+  }
+
+  @Test
+  public void testWrappedCryptoPerSource () throws Exception
+  {
+    final MockCryptoFactory aDelegate = new MockCryptoFactory ("a", null);
+    final AS4CryptoFactoryTrustCaching aCF = new AS4CryptoFactoryTrustCaching (aDelegate,
+                                                                               new AS4TrustValidationCache (),
+                                                                               2);
+    // Only DECRYPT_VERIFY is wrapped
+    final Crypto aCryptoA = aDelegate.m_aCrypto;
+    assertSame (aCryptoA, aCF.getCrypto (ECryptoMode.ENCRYPT_SIGN));
+
+    final Crypto aWrappedA = aCF.getCrypto (ECryptoMode.DECRYPT_VERIFY);
+    assertTrue (aWrappedA instanceof AS4TrustCachingCrypto);
+    assertSame (aCryptoA, ((AS4TrustCachingCrypto) aWrappedA).getDelegate ());
+    assertSame (aWrappedA, aCF.getCrypto (ECryptoMode.DECRYPT_VERIFY));
+
+    // Switching between Crypto objects keeps the wrapped instances
+    aDelegate.m_aCrypto = new Merlin ();
+    final Crypto aWrappedB = aCF.getCrypto (ECryptoMode.DECRYPT_VERIFY);
+    assertNotSame (aWrappedA, aWrappedB);
+    aDelegate.m_aCrypto = aCryptoA;
+    assertSame (aWrappedA, aCF.getCrypto (ECryptoMode.DECRYPT_VERIFY));
+    assertEquals (2, aCF.getWrappedCryptoCount ());
+
+    // Bounded
+    aDelegate.m_aCrypto = new Merlin ();
+    aCF.getCrypto (ECryptoMode.DECRYPT_VERIFY);
+    assertEquals (2, aCF.getWrappedCryptoCount ());
+  }
+
+  @Test
+  public void testPModeAwareDelegate ()
+  {
+    final AS4CryptoFactoryMultiTenant aMultiTenant = new AS4CryptoFactoryMultiTenant (sTenantID -> new MockCryptoFactory (sTenantID,
+                                                                                                                          null),
+                                                                                      IAS4TenantIDResolver.BY_RESPONDER_ID,
+                                                                                      new MockCryptoFactory ("default",
+                                                                                                             null),
+                                                                                      10);
+    final AS4CryptoFactoryTrustCaching aCF = new AS4CryptoFactoryTrustCaching (aMultiTenant);
+
+    final PMode aPMode = new PMode ("pm",
+                                    PModeParty.createSimple ("initiator", "role"),
+                                    PModeParty.createSimple ("t1", "role"),
+                                    null,
+                                    EMEP.ONE_WAY,
+                                    EMEPBinding.PUSH,
+                                    null,
+                                    null,
+                                    null,
+                                    null);
+    aCF.setContextPMode (aPMode);
+    try
+    {
+      assertEquals ("t1", aCF.getKeyAlias ());
+      // The Crypto of the tenant is wrapped
+      assertSame (aMultiTenant.getTenantCryptoFactory ("t1").getCrypto (ECryptoMode.DECRYPT_VERIFY),
+                  ((AS4TrustCachingCrypto) aCF.getCrypto (ECryptoMode.DECRYPT_VERIFY)).getDelegate ());
+    }
+    finally
+    {
+      aCF.clearContext ();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Date;
+
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4TrustValidationCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4TrustValidationCacheTest
+{
+  @Nonnull
+  static X509Certificate createSelfSignedCert (@Nonnull final String sCN) throws Exception
+  {
+    final KeyPairGenerator aKPG = KeyPairGenerator.getInstance ("RSA");
+    aKPG.initialize (2048);
+    final KeyPair aKP = aKPG.generateKeyPair ();
+    final X500Name aName = new X500Name ("CN=" + sCN);
+    final long nNow = System.currentTimeMillis ();
+    final JcaX509v3CertificateBuilder aBuilder = new JcaX509v3CertificateBuilder (aName,
+                                                                                  BigInteger.valueOf (nNow),
+                                                                                  new Date (nNow - 60_000),
+                                                                                  new Date (nNow + 86_400_000L),
+                                                                                  aName,
+                                                                                  aKP.getPublic ());
+    return new JcaX509CertificateConverter ().getCertificate (aBuilder.build (new JcaContentSignerBuilder ("SHA256withRSA").build (aKP.getPrivate ())));
+  }
+
+  @Test
+  public void testCreateKey () throws Exception
+  {
+    final X509Certificate [] aCerts = { createSelfSignedCert ("a") };
+    final String sKey = AS4TrustValidationCache.createKey ("ts1", aCerts, true, null, null);
+    assertNotNull (sKey);
+    assertEquals (sKey, AS4TrustValidationCache.createKey ("ts1", aCerts, true, null, null));
+    assertNotEquals (sKey, AS4TrustValidationCache.createKey ("ts2", aCerts, true, null, null));
+    assertNotEquals (sKey, AS4TrustValidationCache.createKey ("ts1", aCerts, false, null, null));
+  }
+
+  @Test
+  public void testLRUEviction () throws Exception
+  {
+    final X509Certificate [] aCerts = { createSelfSignedCert ("a") };
+    final AS4TrustValidationCache aCache = new AS4TrustValidationCache (Duration.ofHours (1), 2);
+    aCache.putValidated ("k1", aCerts);
+    aCache.putValidated ("k2", aCerts);
+    assertEquals (2, aCache.size ());
+
+    // Use k1, so that k2 is the least recently used one
+    assertTrue (aCache.isValidated ("k1"));
+    aCache.putValidated ("k3", aCerts);
+
+    // Only a single entry was evicted
+    assertEquals (2, aCache.size ());
+    assertTrue (aCache.isValidated ("k1"));
+    assertFalse (aCache.isValidated ("k2"));
+    assertTrue (aCache.isValidated ("k3"));
+    assertEquals (3, aCache.getHitCount ());
+    assertEquals (1, aCache.getMissCount ());
+  }
+
+  @Test
+  public void testExpiration () throws Exception
+  {
+    final X509Certificate [] aCerts = { createSelfSignedCert ("a") };
+    final AS4TrustValidationCache aCache = new AS4TrustValidationCache (Duration.ZERO, 10);
+    aCache.putValidated ("k1", aCerts);
+    assertFalse (aCache.isValidated ("k1"));
+    assertEquals (0, aCache.size ());
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.time.OffsetDateTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.state.EContinue;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerBinary}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerBinaryTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testPersistAndReload () throws Exception
+  {
+    final File aBaseFile = new File (m_aTempFolder.getRoot (), "dup");
+    IAS4DuplicateItem aItem;
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile))
+    {
+      assertTrue (aMgr.isEmpty ());
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("a", "profile", "pmode"));
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("b", null, null));
+      assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("a", "profile", "pmode"));
+      assertEquals (2, aMgr.size ());
+      aItem = aMgr.getItemOfMessageID ("a");
+      assertNotNull (aItem);
+    }
+
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile))
+    {
+      assertTrue (aMgr.hadPersistentData ());
+      assertEquals (2, aMgr.size ());
+      final IAS4DuplicateItem aReadItem = aMgr.getItemOfMessageID ("a");
+      assertNotNull (aReadItem);
+      assertEquals (aItem.getDateTime (), aReadItem.getDateTime ());
+      assertEquals ("profile", aReadItem.getProfileID ());
+      assertEquals ("pmode", aReadItem.getPModeID ());
+      assertNull (aMgr.getItemOfMessageID ("b").getProfileID ());
+      assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("b", null, null));
+
+      // Evict and clear
+      assertEquals (2, aMgr.evictAllItemsBefore (OffsetDateTime.now ().plusDays (1)).size ());
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("c", null, null));
+    }
+
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile))
+    {
+      assertEquals (1, aMgr.size ());
+      assertNotNull (aMgr.getItemOfMessageID ("c"));
+      assertTrue (aMgr.clearCache ().isChanged ());
+    }
+
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile))
+    {
+      assertTrue (aMgr.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testTornLogTail () throws Exception
+  {
+    final File aBaseFile = new File (m_aTempFolder.getRoot (), "dup");
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile))
+    {
+      aMgr.registerAndCheck ("a", null, null);
+      aMgr.registerAndCheck ("b", null, null);
+    }
+
+    // Simulate a crash in the middle of writing an entry
+    try (final FileOutputStream aFOS = new FileOutputStream (new File (m_aTempFolder.getRoot (), "dup.log"), true))
+    {
+      aFOS.write (new byte [] { 1, 0, 0, 0, 100, 42 });
+    }
+
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile))
+    {
+      assertEquals (2, aMgr.size ());
+      aMgr.registerAndCheck ("c", null, null);
+    }
+
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile))
+    {
+      assertEquals (3, aMgr.size ());
+    }
+  }
+
+  @Test
+  public void testCompactionAndImport () throws Exception
+  {
+    final File aBaseFile = new File (m_aTempFolder.getRoot (), "dup");
+    final int nCount = 1_500;
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile))
+    {
+      for (int i = 0; i < nCount; ++i)
+        aMgr.registerAndCheck ("id" + i, null, null);
+    }
+
+    final File [] aSnapshots = m_aTempFolder.getRoot ().listFiles ( (d, n) -> n.endsWith (".snap"));
+    assertNotNull (aSnapshots);
+    assertEquals (1, aSnapshots.length);
+
+    final File aOtherBaseFile = new File (m_aTempFolder.getRoot (), "other");
+    try (final AS4DuplicateManagerBinary aMgr = new AS4DuplicateManagerBinary (aBaseFile);
+         final AS4DuplicateManagerBinary aOther = new AS4DuplicateManagerBinary (aOtherBaseFile))
+    {
+      assertEquals (nCount, aMgr.size ());
+      assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("id0", null, null));
+
+      // Migrate
+      aOther.importItems (aMgr.getAll ());
+      assertEquals (nCount, aOther.size ());
+    }
+
+    try (final AS4DuplicateManagerBinary aOther = new AS4DuplicateManagerBinary (aOtherBaseFile))
+    {
+      assertEquals (nCount, aOther.size ());
+      assertTrue (aOther.hadPersistentData ());
+    }
+  }
+}
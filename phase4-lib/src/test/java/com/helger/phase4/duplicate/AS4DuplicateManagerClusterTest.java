@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EContinue;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerCluster}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerClusterTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testTwoNodes () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "shared.dup");
+    try (final AS4DuplicateManagerCluster aNode1 = new AS4DuplicateManagerCluster (new AS4SharedDuplicateStoreFileLock (aFile));
+         final AS4DuplicateManagerCluster aNode2 = new AS4DuplicateManagerCluster (new AS4SharedDuplicateStoreFileLock (aFile)))
+    {
+      assertEquals (EContinue.CONTINUE, aNode1.registerAndCheck (null, null, null));
+      assertEquals (EContinue.CONTINUE, aNode1.registerAndCheck ("a", "profile", "pmode"));
+      // Local duplicate
+      assertEquals (EContinue.BREAK, aNode1.registerAndCheck ("a", "profile", "pmode"));
+      // Retry on the other node
+      assertEquals (EContinue.BREAK, aNode2.registerAndCheck ("a", "profile", "pmode"));
+      assertEquals (EContinue.CONTINUE, aNode2.registerAndCheck ("b", null, null));
+      assertEquals (EContinue.BREAK, aNode1.registerAndCheck ("b", null, null));
+
+      assertEquals (2, aNode1.size ());
+      final IAS4DuplicateItem aItem = aNode2.getItemOfMessageID ("a");
+      assertNotNull (aItem);
+      assertEquals ("profile", aItem.getProfileID ());
+
+      // Eviction on one node is visible on the other node
+      assertEquals (2, aNode1.evictAllItemsBefore (OffsetDateTime.now ().plusDays (1)).size ());
+      assertTrue (aNode2.isEmpty ());
+      assertEquals (EContinue.CONTINUE, aNode2.registerAndCheck ("c", null, null));
+      assertEquals (EContinue.BREAK, aNode1.registerAndCheck ("c", null, null));
+    }
+  }
+
+  @Test
+  public void testConcurrentRetries () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "shared.dup");
+    final int nMessages = 200;
+    final AtomicInteger aContinueCount = new AtomicInteger ();
+    final ExecutorService aES = Executors.newFixedThreadPool (8);
+    try (final AS4DuplicateManagerCluster aNode1 = new AS4DuplicateManagerCluster (new AS4SharedDuplicateStoreFileLock (aFile));
+         final AS4DuplicateManagerCluster aNode2 = new AS4DuplicateManagerCluster (new AS4SharedDuplicateStoreFileLock (aFile)))
+    {
+      // Every message is received twice on each node
+      final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nMessages; ++i)
+      {
+        final String sMessageID = "msg-" + i;
+        for (final AS4DuplicateManagerCluster aNode : new AS4DuplicateManagerCluster [] { aNode1, aNode2, aNode1, aNode2 })
+          aFutures.add (aES.submit ( () -> {
+            if (aNode.registerAndCheck (sMessageID, null, null).isContinue ())
+              aContinueCount.incrementAndGet ();
+          }));
+      }
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+
+      assertEquals (nMessages, aContinueCount.get ());
+      assertEquals (nMessages, aNode2.size ());
+    }
+    finally
+    {
+      aES.shutdown ();
+    }
+
+    // Data is retained in the shared file
+    try (final AS4SharedDuplicateStoreFileLock aStore = new AS4SharedDuplicateStoreFileLock (aFile))
+    {
+      assertEquals (nMessages, aStore.size ());
+    }
+  }
+
+  @Test
+  public void testInvalidStoreResult () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "shared.dup");
+    final AtomicBoolean aBroken = new AtomicBoolean (true);
+    final AS4SharedDuplicateStoreFileLock aStore = new AS4SharedDuplicateStoreFileLock (aFile)
+    {
+      @Override
+      public boolean [] registerAllIfAbsent (@Nonnull @Nonempty final List <? extends AS4DuplicateItem> aItems) throws IOException
+      {
+        final boolean [] ret = super.registerAllIfAbsent (aItems);
+        // Too short
+        return aBroken.get () ? new boolean [0] : ret;
+      }
+    };
+    try (final AS4DuplicateManagerCluster aNode = new AS4DuplicateManagerCluster (aStore))
+    {
+      try
+      {
+        aNode.registerAndCheck ("a", null, null);
+        fail ();
+      }
+      catch (final CompletionException ex)
+      {
+        assertTrue (ex.getCause () instanceof IllegalStateException);
+      }
+
+      // The dispatcher is still alive and the failed ID is checked again
+      aBroken.set (false);
+      assertEquals (EContinue.CONTINUE, aNode.registerAndCheck ("b", null, null));
+      assertEquals (EContinue.BREAK, aNode.registerAndCheck ("a", null, null));
+    }
+  }
+
+  @Test
+  public void testCheckAfterClose () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "shared.dup");
+    final AS4DuplicateManagerCluster aNode = new AS4DuplicateManagerCluster (new AS4SharedDuplicateStoreFileLock (aFile));
+    assertEquals (EContinue.CONTINUE, aNode.registerAndCheck ("a", null, null));
+    aNode.close ();
+    try
+    {
+      aNode.registerAndCheck ("b", null, null);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4ErrorRateLimiter}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ErrorRateLimiterTest
+{
+  @Test
+  public void testPerRemoteAddress () throws Exception
+  {
+    final AS4ErrorRateLimiter aLimiter = new AS4ErrorRateLimiter (2, Duration.ofMillis (200), 100);
+    assertTrue (aLimiter.isDetailedErrorAllowed ("10.0.0.1"));
+    assertTrue (aLimiter.isDetailedErrorAllowed ("10.0.0.1"));
+    assertFalse (aLimiter.isDetailedErrorAllowed ("10.0.0.1"));
+    // Other addresses are not affected
+    assertTrue (aLimiter.isDetailedErrorAllowed ("10.0.0.2"));
+    assertTrue (aLimiter.isDetailedErrorAllowed (null));
+    assertEquals (4, aLimiter.getDetailedCount ());
+    assertEquals (1, aLimiter.getSuppressedCount ());
+
+    // Next window
+    Thread.sleep (250);
+    assertTrue (aLimiter.isDetailedErrorAllowed ("10.0.0.1"));
+  }
+
+  @Test
+  public void testEvictOldestAddress ()
+  {
+    final AS4ErrorRateLimiter aLimiter = new AS4ErrorRateLimiter (1, Duration.ofMinutes (1), 2);
+    assertTrue (aLimiter.isDetailedErrorAllowed ("10.0.0.1"));
+    assertFalse (aLimiter.isDetailedErrorAllowed ("10.0.0.1"));
+    assertTrue (aLimiter.isDetailedErrorAllowed ("10.0.0.2"));
+
+    // A new address only drops the oldest window
+    assertTrue (aLimiter.isDetailedErrorAllowed ("10.0.0.3"));
+    assertFalse (aLimiter.isDetailedErrorAllowed ("10.0.0.2"));
+    assertFalse (aLimiter.isDetailedErrorAllowed ("10.0.0.3"));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.phase4.CAS4;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.error.EEbmsError;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link AS4ErrorResponseTemplate}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ErrorResponseTemplateTest
+{
+  @Nonnull
+  private static String _getEbmsText (@Nonnull final Document aDoc, @Nonnull final String sLocalName)
+  {
+    return aDoc.getElementsByTagNameNS (CAS4.EBMS_NS, sLocalName).item (0).getTextContent ();
+  }
+
+  @Test
+  public void testSubstitution ()
+  {
+    final OffsetDateTime aNow = OffsetDateTime.of (2024, 5, 17, 10, 11, 12, 0, ZoneOffset.UTC);
+    for (final ESoapVersion eSoapVersion : ESoapVersion.values ())
+    {
+      final AS4ErrorResponseTemplate aTemplate = AS4ErrorResponseTemplate.getTemplate (eSoapVersion,
+                                                                                      EEbmsError.EBMS_PROCESSING_MODE_MISMATCH,
+                                                                                      Locale.US,
+                                                                                      true);
+      // Cached
+      assertSame (aTemplate,
+                  AS4ErrorResponseTemplate.getTemplate (eSoapVersion,
+                                                        EEbmsError.EBMS_PROCESSING_MODE_MISMATCH,
+                                                        Locale.US,
+                                                        true));
+
+      // The reference is controlled by the sender and must be masked
+      final byte [] aBytes = aTemplate.getAsBytes ("resp-1", "<in&'\"1>", aNow);
+      final Document aDoc = DOMReader.readXMLDOM (aBytes);
+      assertNotNull (aDoc);
+      assertEquals ("resp-1", _getEbmsText (aDoc, "MessageId"));
+      assertEquals ("<in&'\"1>", _getEbmsText (aDoc, "RefToMessageId"));
+      assertEquals (aNow.toInstant (), OffsetDateTime.parse (_getEbmsText (aDoc, "Timestamp")).toInstant ());
+
+      final Element aError = (Element) aDoc.getElementsByTagNameNS (CAS4.EBMS_NS, "Error").item (0);
+      assertEquals (EEbmsError.EBMS_PROCESSING_MODE_MISMATCH.getErrorCode (), aError.getAttribute ("errorCode"));
+      assertEquals ("<in&'\"1>", aError.getAttribute ("refToMessageInError"));
+    }
+  }
+
+  @Test
+  public void testWithoutRefToMessageID ()
+  {
+    final AS4ErrorResponseTemplate aTemplate = AS4ErrorResponseTemplate.getTemplate (ESoapVersion.SOAP_12,
+                                                                                    EEbmsError.EBMS_OTHER,
+                                                                                    Locale.US,
+                                                                                    false);
+    final Document aDoc = DOMReader.readXMLDOM (aTemplate.getAsBytes ("resp-2", null, OffsetDateTime.now ()));
+    assertNotNull (aDoc);
+    assertEquals ("resp-2", _getEbmsText (aDoc, "MessageId"));
+    assertEquals (0, aDoc.getElementsByTagNameNS (CAS4.EBMS_NS, "RefToMessageId").getLength ());
+  }
+}
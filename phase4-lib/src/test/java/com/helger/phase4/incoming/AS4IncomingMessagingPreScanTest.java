@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.model.ESoapVersion;
+
+/**
+ * Test class for class {@link AS4IncomingMessagingPreScan}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4IncomingMessagingPreScanTest
+{
+  @Nonnull
+  private static byte [] _read (@Nonnull final String sFilename)
+  {
+    final byte [] ret = StreamHelper.getAllBytes (new ClassPathResource ("external/soap11test/" + sFilename));
+    assertNotNull (ret);
+    return ret;
+  }
+
+  @Nullable
+  private static AS4IncomingMessagingPreScan _scan (@Nonnull final byte [] aBytes)
+  {
+    return AS4IncomingMessagingPreScan.scan (new NonBlockingByteArrayInputStream (aBytes));
+  }
+
+  @Test
+  public void testUserMessage ()
+  {
+    final AS4IncomingMessagingPreScan aPreScan = _scan (_read ("UserMessage.xml"));
+    assertNotNull (aPreScan);
+    assertEquals (ESoapVersion.SOAP_11, aPreScan.getSoapVersion ());
+    assertTrue (aPreScan.isUserMessage ());
+    assertEquals ("UUID-1@requester.example.com", aPreScan.getMessageID ());
+    assertEquals ("uri:requester.example.com", aPreScan.getFromPartyID ());
+    assertEquals ("QRS543", aPreScan.getToPartyID ());
+    assertEquals ("QuoteToCollect", aPreScan.getService ());
+    assertEquals ("NewPurchaseOrder", aPreScan.getAction ());
+    assertEquals ("http://registry.example.com/cpa/123456", aPreScan.getAgreementRef ());
+    assertNull (aPreScan.getPModeID ());
+    assertTrue (aPreScan.hasPModeResolutionData ());
+  }
+
+  @Test
+  public void testSignalMessage ()
+  {
+    final AS4IncomingMessagingPreScan aPreScan = _scan (_read ("PullRequest.xml"));
+    assertNotNull (aPreScan);
+    assertFalse (aPreScan.isUserMessage ());
+    assertFalse (aPreScan.hasPModeResolutionData ());
+  }
+
+  @Test
+  public void testInconclusive () throws IOException
+  {
+    assertNull (_scan (_read ("NoMessaging.xml")));
+    assertNull (_scan (_read ("BundledMessage.xml")));
+    assertNull (_scan (_read ("UserMessage-no-soap.xml")));
+    assertNull (_scan ("no XML at all".getBytes ()));
+
+    // Truncated header
+    final byte [] aBytes = _read ("UserMessage.xml");
+    final byte [] aHead = AS4IncomingMessagingPreScan.readHead (new NonBlockingByteArrayInputStream (aBytes), 1200);
+    assertEquals (1200, aHead.length);
+    assertNull (_scan (aHead));
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.pull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.AS4OutgoingAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.message.AS4UserMessage;
+import com.helger.phase4.model.message.MessageHelperMethods;
+
+/**
+ * Test class for class {@link AS4PullMessageStore}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4PullMessageStoreTest
+{
+  private static final String MPC = "urn:test:mpc";
+
+  @Nonnull
+  private static AS4PullMessage _createMessage (@Nonnull final String sMessageID, @Nonnull final String sPayload)
+  {
+    final Ebms3UserMessage aUserMsg = AS4UserMessage.create (MessageHelperMethods.createEbms3MessageInfo (sMessageID,
+                                                                                                          null),
+                                                             null,
+                                                             MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                                                null,
+                                                                                                                null,
+                                                                                                                null,
+                                                                                                                "service",
+                                                                                                                "action",
+                                                                                                                "conv"),
+                                                             MessageHelperMethods.createEbms3PartyInfo (CAS4.DEFAULT_ROLE,
+                                                                                                        "from",
+                                                                                                        CAS4.DEFAULT_ROLE,
+                                                                                                        "to"),
+                                                             null,
+                                                             MPC,
+                                                             ESoapVersion.AS4_DEFAULT)
+                                                     .getEbms3UserMessage ();
+    return new AS4PullMessage (aUserMsg,
+                               new CommonsArrayList <> (AS4OutgoingAttachment.builder ()
+                                                    .data (sPayload.getBytes (StandardCharsets.UTF_8))
+                                                    .contentID ("payload")
+                                                    .mimeType (CMimeType.TEXT_PLAIN)
+                                                                     .build ()));
+  }
+
+  @Test
+  public void testInMemory () throws Exception
+  {
+    final AS4PullMessageStore aStore = new AS4PullMessageStore ();
+    assertNull (aStore.dequeue (MPC));
+
+    aStore.enqueue (_createMessage ("m1", "a"));
+    aStore.enqueue (_createMessage ("m2", "b"));
+    assertEquals (2, aStore.getQueueSize (MPC));
+    assertEquals (0, aStore.getQueueSize (CAS4.DEFAULT_MPC_ID));
+    assertEquals (2, aStore.getInMemoryBytes ());
+
+    // FIFO
+    assertEquals ("m1", aStore.dequeue (MPC).getMessageID ());
+    assertEquals ("m2", aStore.dequeue (MPC).getMessageID ());
+    assertNull (aStore.dequeue (MPC));
+    assertEquals (2, aStore.getUnacknowledgedCount ());
+
+    assertTrue (aStore.acknowledge ("m1").isChanged ());
+    assertFalse (aStore.acknowledge ("m1").isChanged ());
+    assertTrue (aStore.acknowledge ("m2").isChanged ());
+    assertEquals (0, aStore.getUnacknowledgedCount ());
+    assertEquals (0, aStore.getInMemoryBytes ());
+  }
+
+  @Test
+  public void testVisibilityTimeout () throws Exception
+  {
+    final AS4PullMessageStore aStore = new AS4PullMessageStore (Duration.ZERO, null, 1024, 1024, false);
+    final AS4PullMessage aMsg = _createMessage ("m1", "a");
+    aStore.enqueue (aMsg);
+    assertSame (aMsg, aStore.dequeue (MPC));
+
+    // Not acknowledged - handed out again
+    assertSame (aMsg, aStore.dequeue (MPC));
+    assertTrue (aStore.acknowledge ("m1").isChanged ());
+    assertNull (aStore.dequeue (MPC));
+  }
+
+  @Test
+  public void testSpillAndPersistence () throws Exception
+  {
+    final File aDir = new File ("target/pull-store-test");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    AS4PullMessageStore aStore = new AS4PullMessageStore (Duration.ofMinutes (1), aDir, 0, 0, true);
+    aStore.enqueue (_createMessage ("m1", "abc"));
+    aStore.enqueue (_createMessage ("m2", "def"));
+    assertEquals (0, aStore.getInMemoryBytes ());
+
+    // Hand out without acknowledgement
+    AS4PullMessage aMsg = aStore.dequeue (MPC);
+    assertNotNull (aMsg);
+    assertTrue (aMsg.getAllAttachments ().getFirstOrNull ().hasDataFile ());
+
+    // Restore from disk
+    aStore = new AS4PullMessageStore (Duration.ofMinutes (1), aDir, 0, 0, true);
+    assertEquals (2, aStore.getQueueSize (MPC));
+    aMsg = aStore.dequeue (MPC);
+    assertEquals ("m1", aMsg.getMessageID ());
+    assertEquals ("payload", aMsg.getAllAttachments ().getFirstOrNull ().getContentID ());
+    assertTrue (aStore.acknowledge ("m1").isChanged ());
+
+    aStore = new AS4PullMessageStore (Duration.ofMinutes (1), aDir, 0, 0, true);
+    assertEquals (1, aStore.getQueueSize (MPC));
+    assertEquals ("m2", aStore.dequeue (MPC).getMessageID ());
+
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+  }
+
+  @Test
+  public void testSimilarMessageIDs () throws Exception
+  {
+    final File aDir = new File ("target/pull-store-test-ids");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    // Both IDs would result in the same file name if the special characters
+    // are replaced
+    AS4PullMessageStore aStore = new AS4PullMessageStore (Duration.ofMinutes (1), aDir, 0, 0, true);
+    aStore.enqueue (_createMessage ("a/b", "abc"));
+    aStore.enqueue (_createMessage ("a?b", "def"));
+
+    aStore = new AS4PullMessageStore (Duration.ofMinutes (1), aDir, 0, 0, true);
+    assertEquals (2, aStore.getQueueSize (MPC));
+    assertEquals ("a/b", aStore.dequeue (MPC).getMessageID ());
+    assertEquals ("a?b", aStore.dequeue (MPC).getMessageID ());
+    assertTrue (aStore.acknowledge ("a/b").isChanged ());
+    assertTrue (aStore.acknowledge ("a?b").isChanged ());
+
+    // All files were deleted
+    final String [] aFiles = aDir.list ();
+    assertNotNull (aFiles);
+    assertEquals (0, aFiles.length);
+
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+  }
+
+  @Test
+  public void testAcknowledgeOnlyByConsumer () throws Exception
+  {
+    final AS4PullMessageStore aStore = new AS4PullMessageStore ();
+    aStore.enqueue (_createMessage ("m1", "a"));
+    assertEquals ("m1", aStore.dequeue (MPC, "partyA").getMessageID ());
+
+    // Receipts from other parties are ignored
+    assertFalse (aStore.acknowledge ("m1", "partyB").isChanged ());
+    assertFalse (aStore.acknowledge ("m1", null).isChanged ());
+    assertEquals (1, aStore.getUnacknowledgedCount ());
+
+    assertTrue (aStore.acknowledge ("m1", "partyA").isChanged ());
+    assertEquals (0, aStore.getUnacknowledgedCount ());
+
+    // Handed out without consumer - everybody may acknowledge
+    aStore.enqueue (_createMessage ("m2", "b"));
+    assertEquals ("m2", aStore.dequeue (MPC).getMessageID ());
+    assertTrue (aStore.acknowledge ("m2", "partyB").isChanged ());
+  }
+
+  @Test
+  public void testInMemoryBudgetConcurrent () throws Exception
+  {
+    // Budget for exactly 10 messages, no spool directory
+    final AS4PullMessageStore aStore = new AS4PullMessageStore (Duration.ofMinutes (1), null, 1024, 10, false);
+    final AtomicInteger aRejected = new AtomicInteger (0);
+    final ExecutorService aES = Executors.newFixedThreadPool (8);
+    try
+    {
+      final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < 100; ++i)
+      {
+        final String sMessageID = "m" + i;
+        aFutures.add (aES.submit ( () -> {
+          try
+          {
+            aStore.enqueue (_createMessage (sMessageID, "x"));
+          }
+          catch (final IOException ex)
+          {
+            aRejected.incrementAndGet ();
+          }
+        }));
+      }
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+    }
+    finally
+    {
+      aES.shutdown ();
+    }
+
+    assertEquals (10, aStore.getInMemoryBytes ());
+    assertEquals (10, aStore.getQueueSize (MPC));
+    assertEquals (90, aRejected.get ());
+
+    // Acknowledging releases the budget
+    assertTrue (aStore.acknowledge (aStore.dequeue (MPC).getMessageID ()).isChanged ());
+    assertEquals (9, aStore.getInMemoryBytes ());
+    aStore.enqueue (_createMessage ("new", "y"));
+    assertEquals (10, aStore.getInMemoryBytes ());
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.soap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.attachment.AS4DecompressException;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for the fused decrypt and decompress handling of class
+ * {@link SoapHeaderElementProcessorWSS4J}.
+ *
+ * @author Philip Helger
+ */
+public final class SoapHeaderElementProcessorWSS4JTest
+{
+  private static final byte [] PAYLOAD = "Hello phase4 - this is the uncompressed attachment content".getBytes (StandardCharsets.UTF_8);
+
+  @Nonnull
+  private static byte [] _gzip (@Nonnull final byte [] aData) throws IOException
+  {
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    try (final OutputStream aOS = EAS4CompressionMode.GZIP.getCompressStream (aBAOS))
+    {
+      aOS.write (aData);
+    }
+    return aBAOS.toByteArray ();
+  }
+
+  /**
+   * Simulates a decrypting stream that fails after the provided number of
+   * bytes, like a CipherInputStream on a bad padding.
+   */
+  private static final class FailingInputStream extends InputStream
+  {
+    private final InputStream m_aIS;
+    private int m_nRemaining;
+
+    FailingInputStream (@Nonnull final byte [] aData, final int nFailAfter)
+    {
+      m_aIS = new ByteArrayInputStream (aData);
+      m_nRemaining = nFailAfter;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      if (m_nRemaining <= 0)
+        throw new IOException ("javax.crypto.BadPaddingException: Tag mismatch");
+      m_nRemaining--;
+      return m_aIS.read ();
+    }
+  }
+
+  @Nonnull
+  private static WSS4JAttachment _createAttachment (@Nonnull final AS4ResourceHelper aResHelper,
+                                                    @Nonnull final InputStream aIS)
+  {
+    final WSS4JAttachment aAttachment = new WSS4JAttachment (aResHelper, CMimeType.APPLICATION_OCTET_STREAM.getAsString ());
+    aAttachment.setId ("test-attachment");
+    aAttachment.setSourceStreamProvider (HasInputStream.once ( () -> aIS));
+    return aAttachment;
+  }
+
+  @Test
+  public void testDecryptAndDecompress () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = _createAttachment (aResHelper, new ByteArrayInputStream (_gzip (PAYLOAD)));
+      SoapHeaderElementProcessorWSS4J.decryptAndDecompress (aAttachment, EAS4CompressionMode.GZIP, aResHelper);
+
+      assertSame (EAS4CompressionMode.GZIP, aAttachment.getCompressionMode ());
+      // Can be read more than once
+      assertArrayEquals (PAYLOAD, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+      assertArrayEquals (PAYLOAD, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+
+  @Test
+  public void testDecryptionErrorInBody () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final byte [] aGZ = _gzip (PAYLOAD);
+      // Header can be read, but decryption fails afterwards
+      final WSS4JAttachment aAttachment = _createAttachment (aResHelper, new FailingInputStream (aGZ, aGZ.length / 2));
+      try
+      {
+        SoapHeaderElementProcessorWSS4J.decryptAndDecompress (aAttachment, EAS4CompressionMode.GZIP, aResHelper);
+        fail ();
+      }
+      catch (final WSSecurityException ex)
+      {
+        // Must be reported as decryption error and not as decompression error
+        assertEquals (WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode ());
+      }
+    }
+  }
+
+  @Test
+  public void testDecryptionErrorInHeader () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Fails while GZIP reads the header
+      final WSS4JAttachment aAttachment = _createAttachment (aResHelper, new FailingInputStream (_gzip (PAYLOAD), 0));
+      try
+      {
+        SoapHeaderElementProcessorWSS4J.decryptAndDecompress (aAttachment, EAS4CompressionMode.GZIP, aResHelper);
+        fail ();
+      }
+      catch (final WSSecurityException ex)
+      {
+        assertEquals (WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode ());
+      }
+    }
+  }
+
+  @Test
+  public void testDecompressionErrorNotGZip () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Decrypted fine, but the content is not compressed
+      final WSS4JAttachment aAttachment = _createAttachment (aResHelper, new ByteArrayInputStream (PAYLOAD));
+      SoapHeaderElementProcessorWSS4J.decryptAndDecompress (aAttachment, EAS4CompressionMode.GZIP, aResHelper);
+
+      // Reported lazily when reading
+      assertSame (EAS4CompressionMode.GZIP, aAttachment.getCompressionMode ());
+      try
+      {
+        aAttachment.getSourceStream ();
+        fail ();
+      }
+      catch (final AS4DecompressException ex)
+      {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testDecompressionErrorTruncated () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final byte [] aGZ = _gzip (PAYLOAD);
+      final WSS4JAttachment aAttachment = _createAttachment (aResHelper,
+                                                             new ByteArrayInputStream (Arrays.copyOf (aGZ,
+                                                                                                      aGZ.length - 10)));
+      SoapHeaderElementProcessorWSS4J.decryptAndDecompress (aAttachment, EAS4CompressionMode.GZIP, aResHelper);
+      try
+      {
+        aAttachment.getSourceStream ();
+        fail ();
+      }
+      catch (final AS4DecompressException ex)
+      {
+        // expected
+      }
+    }
+  }
+}
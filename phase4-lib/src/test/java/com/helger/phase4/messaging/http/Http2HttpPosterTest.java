@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.httpclient.HttpClientFactory;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for class {@link Http2HttpPoster}.
+ *
+ * @author Philip Helger
+ */
+public final class Http2HttpPosterTest
+{
+  private static final HttpClientResponseHandler <byte []> RESPONSE_HANDLER = x -> EntityUtils.toByteArray (x.getEntity ());
+
+  private HttpServer m_aServer;
+  private String m_sURL;
+  private volatile CountDownLatch m_aRequestArrived = new CountDownLatch (0);
+  private volatile CountDownLatch m_aReleaseResponse = new CountDownLatch (0);
+
+  @Before
+  public void before () throws IOException
+  {
+    m_aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    // Echo the request body
+    m_aServer.createContext ("/as4", aExchange -> {
+      final byte [] aBody;
+      try (final InputStream aIS = aExchange.getRequestBody ())
+      {
+        aBody = aIS.readAllBytes ();
+      }
+      m_aRequestArrived.countDown ();
+      try
+      {
+        m_aReleaseResponse.await (10, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      aExchange.sendResponseHeaders (200, aBody.length);
+      try (final OutputStream aOS = aExchange.getResponseBody ())
+      {
+        aOS.write (aBody);
+      }
+    });
+    m_aServer.setExecutor (Executors.newCachedThreadPool ());
+    m_aServer.start ();
+    m_sURL = "http://localhost:" + m_aServer.getAddress ().getPort () + "/as4";
+  }
+
+  @After
+  public void after ()
+  {
+    m_aServer.stop (0);
+  }
+
+  @Test
+  public void testSendSmall () throws Exception
+  {
+    final byte [] aPayload = "<test/>".getBytes (StandardCharsets.UTF_8);
+    final Http2HttpPoster aPoster = new Http2HttpPoster ();
+    try
+    {
+      assertFalse (aPoster.hasOpenClients ());
+      final byte [] aResponse = aPoster.sendGenericMessage (m_sURL,
+                                                            null,
+                                                            new ByteArrayEntity (aPayload, ContentType.APPLICATION_XML),
+                                                            null,
+                                                            RESPONSE_HANDLER);
+      assertArrayEquals (aPayload, aResponse);
+      assertTrue (aPoster.hasOpenClients ());
+    }
+    finally
+    {
+      aPoster.close ();
+    }
+    assertFalse (aPoster.hasOpenClients ());
+  }
+
+  @Test
+  public void testSendSpooled () throws Exception
+  {
+    // Unknown length and larger than the in-memory limit
+    final byte [] aPayload = new byte [(int) Http2HttpPoster.MAX_IN_MEMORY_ENTITY_SIZE + 1000];
+    Arrays.fill (aPayload, (byte) 'a');
+    try (final Http2HttpPoster aPoster = new Http2HttpPoster ())
+    {
+      final byte [] aResponse = aPoster.sendGenericMessage (m_sURL,
+                                                            null,
+                                                            new InputStreamEntity (new ByteArrayInputStream (aPayload),
+                                                                                   -1,
+                                                                                   ContentType.APPLICATION_OCTET_STREAM),
+                                                            null,
+                                                            RESPONSE_HANDLER);
+      assertArrayEquals (aPayload, aResponse);
+    }
+  }
+
+  private void _testClientsReplacedWhileInFlight (final boolean bClose) throws Exception
+  {
+    final byte [] aPayload = "<in-flight/>".getBytes (StandardCharsets.UTF_8);
+    m_aRequestArrived = new CountDownLatch (1);
+    m_aReleaseResponse = new CountDownLatch (1);
+
+    final Http2HttpPoster aPoster = new Http2HttpPoster ();
+    final ExecutorService aES = Executors.newSingleThreadExecutor ();
+    try
+    {
+      final Future <byte []> aFuture = aES.submit ( () -> aPoster.sendGenericMessage (m_sURL,
+                                                                                     null,
+                                                                                     new ByteArrayEntity (aPayload,
+                                                                                                          ContentType.APPLICATION_XML),
+                                                                                     null,
+                                                                                     RESPONSE_HANDLER));
+      assertTrue (m_aRequestArrived.await (10, TimeUnit.SECONDS));
+
+      // Close or replace the clients while the request is running
+      if (bClose)
+        aPoster.close ();
+      else
+        aPoster.setHttpClientFactory (new HttpClientFactory ());
+
+      m_aReleaseResponse.countDown ();
+      // The running request is not aborted
+      assertArrayEquals (aPayload, aFuture.get (10, TimeUnit.SECONDS));
+
+      // And the poster can still be used
+      m_aReleaseResponse = new CountDownLatch (0);
+      assertArrayEquals (aPayload,
+                         aPoster.sendGenericMessage (m_sURL,
+                                                     null,
+                                                     new ByteArrayEntity (aPayload, ContentType.APPLICATION_XML),
+                                                     null,
+                                                     RESPONSE_HANDLER));
+    }
+    finally
+    {
+      m_aReleaseResponse.countDown ();
+      aES.shutdownNow ();
+      aPoster.close ();
+    }
+  }
+
+  @Test
+  public void testCloseWhileInFlight () throws Exception
+  {
+    _testClientsReplacedWhileInFlight (true);
+  }
+
+  @Test
+  public void testFactoryChangeWhileInFlight () throws Exception
+  {
+    _testClientsReplacedWhileInFlight (false);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.apache.hc.core5.util.Timeout;
+import org.junit.Test;
+
+/**
+ * Test class for class {@link HttpEndpointCircuitBreaker}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpEndpointCircuitBreakerTest
+{
+  @Test
+  public void testHostKey ()
+  {
+    assertEquals ("example.org:443", HttpEndpointCircuitBreaker.getHostKey ("https://example.org/as4"));
+    assertEquals ("example.org:80", HttpEndpointCircuitBreaker.getHostKey ("http://example.org/as4"));
+    assertEquals ("example.org:8443", HttpEndpointCircuitBreaker.getHostKey ("https://example.org:8443/as4"));
+  }
+
+  @Test
+  public void testStateTransitions ()
+  {
+    final String sHost = "example.org:443";
+    final HttpEndpointCircuitBreaker aCB = new HttpEndpointCircuitBreaker ().setFailureThreshold (2)
+                                                                            .setOpenDuration (Duration.ZERO);
+    assertSame (ECircuitBreakerState.CLOSED, aCB.getState (sHost));
+    assertTrue (aCB.isRequestAllowed (sHost));
+
+    aCB.onFailure (sHost);
+    assertSame (ECircuitBreakerState.CLOSED, aCB.getState (sHost));
+    aCB.onFailure (sHost);
+    assertSame (ECircuitBreakerState.OPEN, aCB.getState (sHost));
+
+    // Open duration is 0 - exactly one probe is allowed
+    assertTrue (aCB.isRequestAllowed (sHost));
+    assertSame (ECircuitBreakerState.HALF_OPEN, aCB.getState (sHost));
+    assertFalse (aCB.isRequestAllowed (sHost));
+
+    // Failed probe re-opens
+    aCB.onFailure (sHost);
+    assertSame (ECircuitBreakerState.OPEN, aCB.getState (sHost));
+
+    // Successful probe closes
+    assertTrue (aCB.isRequestAllowed (sHost));
+    aCB.onSuccess (sHost, Duration.ofMillis (10));
+    assertSame (ECircuitBreakerState.CLOSED, aCB.getState (sHost));
+    assertTrue (aCB.isRequestAllowed (sHost));
+
+    // Other hosts are not affected
+    assertSame (ECircuitBreakerState.CLOSED, aCB.getState ("other.org:443"));
+  }
+
+  @Test
+  public void testOpenFailsFast ()
+  {
+    final String sHost = "example.org:443";
+    final HttpEndpointCircuitBreaker aCB = new HttpEndpointCircuitBreaker ().setFailureThreshold (1)
+                                                                            .setOpenDuration (Duration.ofHours (1));
+    aCB.onFailure (sHost);
+    assertFalse (aCB.isRequestAllowed (sHost));
+    assertFalse (aCB.isRequestAllowed (sHost));
+  }
+
+  @Test
+  public void testAdaptiveResponseTimeout ()
+  {
+    final String sHost = "example.org:443";
+    final HttpEndpointCircuitBreaker aCB = new HttpEndpointCircuitBreaker (10).setMinLatencySamples (5)
+                                                                              .setTimeoutMultiplier (2)
+                                                                              .setResponseTimeoutBounds (Duration.ofMillis (100),
+                                                                                                         Duration.ofSeconds (10));
+    for (int i = 0; i < 4; ++i)
+      aCB.onSuccess (sHost, Duration.ofMillis (1000));
+    assertNull (aCB.getAdaptiveResponseTimeout (sHost));
+
+    aCB.onSuccess (sHost, Duration.ofMillis (1000));
+    final Timeout aTimeout = aCB.getAdaptiveResponseTimeout (sHost);
+    assertNotNull (aTimeout);
+    assertEquals (2000, aTimeout.toMilliseconds ());
+
+    // Upper bound
+    for (int i = 0; i < 10; ++i)
+      aCB.onSuccess (sHost, Duration.ofSeconds (20));
+    assertEquals (10_000, aCB.getAdaptiveResponseTimeout (sHost).toMilliseconds ());
+
+    // Lower bound
+    for (int i = 0; i < 10; ++i)
+      aCB.onSuccess (sHost, Duration.ofMillis (1));
+    assertEquals (100, aCB.getAdaptiveResponseTimeout (sHost).toMilliseconds ());
+  }
+
+  @Test
+  public void testAdaptiveResponseTimeoutNotBelowConfigured ()
+  {
+    final String sHost = "example.org:443";
+    final HttpEndpointCircuitBreaker aCB = new HttpEndpointCircuitBreaker (10).setMinLatencySamples (5)
+                                                                              .setTimeoutMultiplier (3);
+    // Not enough samples
+    assertNull (aCB.getAdaptiveResponseTimeout (sHost, Timeout.ofSeconds (30)));
+
+    // Fast endpoint: p99 x 3 = 6 seconds, which is below the configured timeout
+    for (int i = 0; i < 10; ++i)
+      aCB.onSuccess (sHost, Duration.ofSeconds (2));
+    assertEquals (6_000, aCB.getAdaptiveResponseTimeout (sHost).toMilliseconds ());
+    assertNull (aCB.getAdaptiveResponseTimeout (sHost, Timeout.ofSeconds (30)));
+    // No configured timeout known
+    assertEquals (6_000, aCB.getAdaptiveResponseTimeout (sHost, null).toMilliseconds ());
+    // Configured timeout is lower - the adaptive one extends it
+    assertEquals (6_000, aCB.getAdaptiveResponseTimeout (sHost, Timeout.ofSeconds (5)).toMilliseconds ());
+    // No timeout configured - never introduce one
+    assertNull (aCB.getAdaptiveResponseTimeout (sHost, Timeout.DISABLED));
+
+    // Slow endpoint: p99 x 3 = 60 seconds
+    for (int i = 0; i < 10; ++i)
+      aCB.onSuccess (sHost, Duration.ofSeconds (20));
+    assertEquals (60_000, aCB.getAdaptiveResponseTimeout (sHost, Timeout.ofSeconds (30)).toMilliseconds ());
+  }
+
+  @Test
+  public void testDecorrelatedJitter ()
+  {
+    final Duration aBase = Duration.ofMillis (100);
+    final Duration aMax = Duration.ofMillis (1000);
+    Duration aPrev = aBase;
+    for (int i = 0; i < 100; ++i)
+    {
+      final Duration aNext = HttpRetrySettings.getDecorrelatedJitter (aBase, aPrev, aMax);
+      assertTrue (aNext.compareTo (aBase) >= 0);
+      assertTrue (aNext.compareTo (aMax) <= 0);
+      assertTrue (aNext.toMillis () <= Math.max (aBase.toMillis (), aPrev.toMillis () * 3));
+      aPrev = aNext;
+    }
+  }
+}
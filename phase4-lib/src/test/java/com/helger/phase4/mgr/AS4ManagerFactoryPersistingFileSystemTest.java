@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mgr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.state.EContinue;
+import com.helger.config.fallback.ConfigWithFallback;
+import com.helger.config.fallback.IConfigWithFallback;
+import com.helger.config.source.EConfigSourceType;
+import com.helger.config.source.MultiConfigurationValueProvider;
+import com.helger.config.source.appl.ConfigurationSourceFunction;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.duplicate.AS4DuplicateManagerBinary;
+import com.helger.phase4.duplicate.AS4DuplicateManagerXML;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.mpc.IMPCManager;
+import com.helger.phase4.model.mpc.MPC;
+import com.helger.phase4.model.mpc.MPCManagerBinary;
+import com.helger.phase4.model.mpc.MPCManagerXML;
+import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeManagerBinary;
+import com.helger.phase4.model.pmode.PModeManagerXML;
+import com.helger.phase4.model.pmode.PModeParty;
+import com.helger.photon.io.WebFileIO;
+
+/**
+ * Test class for class {@link AS4ManagerFactoryPersistingFileSystem}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ManagerFactoryPersistingFileSystemTest
+{
+  private static final String [] FILE_PREFIXES = { "as4-mpc", "as4-pmode", "as4-duplicate-incoming" };
+
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  private IConfigWithFallback m_aOldConfig;
+
+  private static void _deleteDataFiles ()
+  {
+    final File [] aFiles = WebFileIO.getDataIO ().getBasePathFile ().listFiles ();
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+        for (final String sPrefix : FILE_PREFIXES)
+          if (aFile.isFile () && aFile.getName ().startsWith (sPrefix))
+            aFile.delete ();
+  }
+
+  private static boolean _hasWALFiles ()
+  {
+    final File [] aFiles = WebFileIO.getDataIO ().getBasePathFile ().listFiles ( (d, n) -> n.endsWith (".wal"));
+    return aFiles != null && aFiles.length > 0;
+  }
+
+  @Before
+  public void before ()
+  {
+    _deleteDataFiles ();
+    final StringMap aMap = new StringMap ();
+    aMap.putIn (AS4Configuration.PROPERTY_PHASE4_MANAGER_BINARY, true);
+    final MultiConfigurationValueProvider aVP = AS4Configuration.createPhase4ValueProvider ();
+    aVP.addConfigurationSource (new ConfigurationSourceFunction (aMap::getAsString),
+                                EConfigSourceType.RESOURCE.getDefaultPriority () + 20);
+    m_aOldConfig = AS4Configuration.setConfig (new ConfigWithFallback (aVP));
+  }
+
+  @After
+  public void after ()
+  {
+    AS4Configuration.setConfig (m_aOldConfig);
+    _deleteDataFiles ();
+  }
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sID)
+  {
+    return new PMode (sID,
+                      PModeParty.createSimple ("initiator", "role"),
+                      PModeParty.createSimple ("responder", "role"),
+                      "agreement",
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      null,
+                      null,
+                      null,
+                      null);
+  }
+
+  @Test
+  public void testMigrateXMLToBinary () throws Exception
+  {
+    // Existing XML data - don't delay writing the files
+    new MPCManagerXML ("as4-mpc.xml")
+    {
+      {
+        setWaitingTime (Duration.ZERO);
+        createMPC (new MPC ("mpc1"));
+      }
+    };
+    new PModeManagerXML ("as4-pmode.xml")
+    {
+      {
+        setWaitingTime (Duration.ZERO);
+        createPMode (_createPMode ("pm1"));
+        createPMode (_createPMode ("pm2"));
+      }
+    };
+    new AS4DuplicateManagerXML ("as4-duplicate-incoming.xml")
+    {
+      {
+        setWaitingTime (Duration.ZERO);
+        registerAndCheck ("msg1", null, null);
+      }
+    };
+
+    // Wait until the write ahead logs are processed in the background
+    for (int i = 0; i < 100 && _hasWALFiles (); ++i)
+      ThreadHelper.sleep (50);
+    assertFalse (_hasWALFiles ());
+
+    final AS4ManagerFactoryPersistingFileSystem aFactory = new AS4ManagerFactoryPersistingFileSystem ();
+    for (int i = 0; i < 2; ++i)
+    {
+      final IMPCManager aMPCMgr = aFactory.createMPCManager ();
+      final IPModeManager aPModeMgr = aFactory.createPModeManager ();
+      final IAS4DuplicateManager aDupMgr = aFactory.createDuplicateManager ();
+      try
+      {
+        assertTrue (aMPCMgr instanceof MPCManagerBinary);
+        assertTrue (aPModeMgr instanceof PModeManagerBinary);
+        assertTrue (aDupMgr instanceof AS4DuplicateManagerBinary);
+
+        assertTrue (aMPCMgr.containsWithID ("mpc1"));
+        assertNotNull (aPModeMgr.getPModeOfID ("pm2"));
+        assertEquals (EContinue.BREAK, aDupMgr.registerAndCheck ("msg1", null, null));
+
+        if (i == 0)
+        {
+          assertEquals (2, aPModeMgr.getAll ().size ());
+          // Changes after the migration end up in the binary format only
+          aPModeMgr.deletePMode ("pm1");
+        }
+        else
+        {
+          // Not migrated again
+          assertEquals (1, aPModeMgr.getAll ().size ());
+          assertTrue (((PModeManagerBinary) aPModeMgr).hadPersistentData ());
+        }
+      }
+      finally
+      {
+        ((AutoCloseable) aDupMgr).close ();
+        ((AutoCloseable) aPModeMgr).close ();
+        ((AutoCloseable) aMPCMgr).close ();
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mgr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyStore;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.crypto.ECryptoMode;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+
+/**
+ * Test class for class {@link AS4WarmUp}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4WarmUpTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  /**
+   * A crypto factory without any key material. The warm-up of each profile
+   * fails, but readiness must still be reached.
+   */
+  private static final class EmptyCryptoFactory implements IAS4CryptoFactory
+  {
+    @Nonnull
+    public Crypto getCrypto (@Nonnull final ECryptoMode eCryptoMode)
+    {
+      throw new IllegalStateException ("No crypto available");
+    }
+
+    public KeyStore getKeyStore ()
+    {
+      return null;
+    }
+
+    public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+    {
+      return null;
+    }
+
+    public String getKeyAlias ()
+    {
+      return null;
+    }
+
+    public char [] getKeyPasswordPerAliasCharArray (final String sSearchKeyAlias)
+    {
+      return null;
+    }
+
+    public KeyStore getTrustStore ()
+    {
+      return null;
+    }
+  }
+
+  @Test
+  public void testWarmUpWithErrors ()
+  {
+    // Not ready before the first warm-up was run
+    assertFalse (AS4WarmUp.isReady ());
+    final CompletableFuture <Void> aFuture = AS4WarmUp.startAsync (new EmptyCryptoFactory ());
+    if (!aFuture.isDone ())
+      assertFalse (AS4WarmUp.isReady ());
+    aFuture.join ();
+    assertTrue (AS4WarmUp.isReady ());
+    assertEquals (0, AS4WarmUp.getRunningCount ());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
+
+/**
+ * Test class for class {@link MPCManagerBinary}.
+ *
+ * @author Philip Helger
+ */
+public final class MPCManagerBinaryTest
+{
+  private final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Rule
+  public final TestRule m_aTestRule = RuleChain.outerRule (m_aTempFolder).around (new AS4TestRule ());
+
+  @Test
+  public void testPersistAndReload () throws Exception
+  {
+    final File aBaseFile = new File (m_aTempFolder.getRoot (), "mpc");
+    try (final MPCManagerBinary aMgr = new MPCManagerBinary (aBaseFile))
+    {
+      assertFalse (aMgr.hadPersistentData ());
+      assertTrue (aMgr.containsWithID (CAS4.DEFAULT_MPC_ID));
+
+      aMgr.createMPC (new MPC ("mpc1"));
+      aMgr.createMPC (new MPC ("mpc2"));
+      aMgr.createMPC (new MPC ("mpc3"));
+      assertTrue (aMgr.updateMPC (aMgr.getMPCOfID ("mpc1")).isChanged ());
+      assertTrue (aMgr.markMPCDeleted ("mpc2").isChanged ());
+      assertTrue (aMgr.deleteMPC ("mpc3").isChanged ());
+    }
+
+    try (final MPCManagerBinary aMgr = new MPCManagerBinary (aBaseFile))
+    {
+      assertTrue (aMgr.hadPersistentData ());
+      assertTrue (aMgr.containsWithID (CAS4.DEFAULT_MPC_ID));
+      final IMPC aMPC1 = aMgr.getMPCOfID ("mpc1");
+      assertNotNull (aMPC1);
+      assertNotNull (aMPC1.getLastModificationDateTime ());
+      assertTrue (aMgr.getMPCOfID ("mpc2").isDeleted ());
+      assertFalse (aMgr.containsWithID ("mpc3"));
+
+      assertTrue (aMgr.deleteMPC ("mpc2").isChanged ());
+    }
+
+    try (final MPCManagerBinary aMgr = new MPCManagerBinary (aBaseFile))
+    {
+      assertTrue (aMgr.containsWithID ("mpc1"));
+      assertNull (aMgr.getMPCOfID ("mpc2"));
+    }
+  }
+
+  @Test
+  public void testImport () throws Exception
+  {
+    final MPCManagerCopyOnWrite aSource = new MPCManagerCopyOnWrite ();
+    aSource.createMPC (new MPC ("mpc1"));
+    aSource.createMPC (new MPC ("mpc2"));
+
+    final File aBaseFile = new File (m_aTempFolder.getRoot (), "mpc");
+    try (final MPCManagerBinary aMgr = new MPCManagerBinary (aBaseFile))
+    {
+      aMgr.importMPCs (aSource.internalGetAll ());
+      assertTrue (aMgr.containsWithID ("mpc1"));
+      assertTrue (aMgr.containsWithID ("mpc2"));
+    }
+
+    try (final MPCManagerBinary aMgr = new MPCManagerBinary (aBaseFile))
+    {
+      assertTrue (aMgr.hadPersistentData ());
+      assertTrue (aMgr.containsWithID ("mpc1"));
+      assertTrue (aMgr.containsWithID ("mpc2"));
+    }
+  }
+}
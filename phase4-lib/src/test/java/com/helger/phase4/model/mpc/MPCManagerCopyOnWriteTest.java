@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.mpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
+
+/**
+ * Test class for class {@link MPCManagerCopyOnWrite}.
+ *
+ * @author Philip Helger
+ */
+public final class MPCManagerCopyOnWriteTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testBasic ()
+  {
+    final MPCManagerCopyOnWrite aMPCMgr = new MPCManagerCopyOnWrite ();
+    assertTrue (aMPCMgr.containsWithID (CAS4.DEFAULT_MPC_ID));
+    assertNotNull (aMPCMgr.getMPCOrDefaultOfID (null));
+    assertFalse (aMPCMgr.containsWithID ("mpc1"));
+
+    final MPC aMPC = new MPC ("mpc1");
+    aMPCMgr.createMPC (aMPC);
+    assertTrue (aMPCMgr.containsWithID ("mpc1"));
+    assertSame (aMPC, aMPCMgr.getMPCOfID ("mpc1"));
+
+    assertTrue (aMPCMgr.updateMPC (aMPC).isChanged ());
+    // A copy was published
+    assertNotSame (aMPC, aMPCMgr.getMPCOfID ("mpc1"));
+    assertTrue (aMPCMgr.markMPCDeleted ("mpc1").isChanged ());
+    assertTrue (aMPCMgr.markMPCDeleted ("mpc1").isUnchanged ());
+    assertTrue (aMPCMgr.updateMPC (aMPC).isUnchanged ());
+
+    assertTrue (aMPCMgr.deleteMPC ("mpc1").isChanged ());
+    assertTrue (aMPCMgr.deleteMPC ("mpc1").isUnchanged ());
+    assertFalse (aMPCMgr.containsWithID ("mpc1"));
+    assertNull (aMPCMgr.getMPCOfID ("mpc1"));
+  }
+
+  @Test
+  public void testWriteDoesNotModifyPublishedObject ()
+  {
+    final MPCManagerCopyOnWrite aMPCMgr = new MPCManagerCopyOnWrite ();
+    aMPCMgr.createMPC (new MPC ("mpc1"));
+
+    // A reader holding the published object
+    final IMPC aReaderMPC = aMPCMgr.getMPCOfID ("mpc1");
+    assertNull (aReaderMPC.getLastModificationDateTime ());
+
+    assertTrue (aMPCMgr.updateMPC (aReaderMPC).isChanged ());
+    assertNull (aReaderMPC.getLastModificationDateTime ());
+    final IMPC aUpdatedMPC = aMPCMgr.getMPCOfID ("mpc1");
+    assertNotSame (aReaderMPC, aUpdatedMPC);
+    assertNotNull (aUpdatedMPC.getLastModificationDateTime ());
+    assertEquals (aReaderMPC.getCreationDateTime (), aUpdatedMPC.getCreationDateTime ());
+
+    assertTrue (aMPCMgr.markMPCDeleted ("mpc1").isChanged ());
+    assertFalse (aUpdatedMPC.isDeleted ());
+    assertTrue (aMPCMgr.getMPCOfID ("mpc1").isDeleted ());
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testDuplicateID ()
+  {
+    final MPCManagerCopyOnWrite aMPCMgr = new MPCManagerCopyOnWrite ();
+    aMPCMgr.createMPC (new MPC (CAS4.DEFAULT_MPC_ID));
+  }
+}
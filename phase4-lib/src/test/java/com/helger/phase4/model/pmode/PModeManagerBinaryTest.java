@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+
+/**
+ * Test class for class {@link PModeManagerBinary}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeManagerBinaryTest
+{
+  private final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Rule
+  public final TestRule m_aTestRule = RuleChain.outerRule (m_aTempFolder).around (new AS4TestRule ());
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sID, @Nonnull final String sAgreement)
+  {
+    return new PMode (sID,
+                      PModeParty.createSimple ("initiator", "role"),
+                      PModeParty.createSimple ("responder", "role"),
+                      sAgreement,
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      null,
+                      null,
+                      null,
+                      null);
+  }
+
+  @Test
+  public void testPersistAndReload () throws Exception
+  {
+    final File aBaseFile = new File (m_aTempFolder.getRoot (), "pmode");
+    try (final PModeManagerBinary aMgr = new PModeManagerBinary (aBaseFile))
+    {
+      assertFalse (aMgr.hadPersistentData ());
+      assertTrue (aMgr.getAllIDs ().isEmpty ());
+
+      aMgr.createPMode (_createPMode ("pm1", "agreement1"));
+      aMgr.createPMode (_createPMode ("pm2", "agreement1"));
+      aMgr.createPMode (_createPMode ("pm3", "agreement1"));
+      assertTrue (aMgr.updatePMode (_createPMode ("pm1", "agreement2")).isChanged ());
+      assertTrue (aMgr.markPModeDeleted ("pm2").isChanged ());
+      assertTrue (aMgr.deletePMode ("pm3").isChanged ());
+    }
+
+    try (final PModeManagerBinary aMgr = new PModeManagerBinary (aBaseFile))
+    {
+      assertTrue (aMgr.hadPersistentData ());
+      assertEquals (2, aMgr.getAll ().size ());
+      final IPMode aPMode1 = aMgr.getPModeOfID ("pm1");
+      assertNotNull (aPMode1);
+      assertEquals ("agreement2", aPMode1.getAgreement ());
+      assertEquals ("initiator", aPMode1.getInitiatorID ());
+      assertEquals (EMEP.ONE_WAY, aPMode1.getMEP ());
+      assertNotNull (aPMode1.getLastModificationDateTime ());
+      assertTrue (aMgr.getPModeOfID ("pm2").isDeleted ());
+      assertNull (aMgr.getPModeOfID ("pm3"));
+
+      assertTrue (aMgr.deletePMode ("pm2").isChanged ());
+    }
+
+    try (final PModeManagerBinary aMgr = new PModeManagerBinary (aBaseFile))
+    {
+      assertEquals (1, aMgr.getAll ().size ());
+      assertNull (aMgr.getPModeOfID ("pm2"));
+    }
+  }
+
+  @Test
+  public void testImport () throws Exception
+  {
+    final PModeManagerCopyOnWrite aSource = new PModeManagerCopyOnWrite ();
+    aSource.createPMode (_createPMode ("pm1", "agreement1"));
+    aSource.createPMode (_createPMode ("pm2", "agreement2"));
+
+    final File aBaseFile = new File (m_aTempFolder.getRoot (), "pmode");
+    try (final PModeManagerBinary aMgr = new PModeManagerBinary (aBaseFile))
+    {
+      aMgr.importPModes (aSource.getAll ());
+      assertEquals (2, aMgr.getAll ().size ());
+    }
+
+    // The snapshot was written
+    final File [] aSnapshots = m_aTempFolder.getRoot ().listFiles ( (d, n) -> n.endsWith (".snap"));
+    assertNotNull (aSnapshots);
+    assertEquals (1, aSnapshots.length);
+
+    try (final PModeManagerBinary aMgr = new PModeManagerBinary (aBaseFile))
+    {
+      assertTrue (aMgr.hadPersistentData ());
+      assertEquals (2, aMgr.getAll ().size ());
+      assertEquals ("agreement2", aMgr.getPModeOfID ("pm2").getAgreement ());
+    }
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testClosed () throws Exception
+  {
+    final PModeManagerBinary aMgr = new PModeManagerBinary (new File (m_aTempFolder.getRoot (), "pmode"));
+    aMgr.close ();
+    // Writing after close must fail
+    aMgr.createPMode (_createPMode ("pm1", "agreement1"));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+
+/**
+ * Test class for class {@link PModeManagerCopyOnWrite}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeManagerCopyOnWriteTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sID, @Nonnull final String sAgreement)
+  {
+    return new PMode (sID,
+                      PModeParty.createSimple ("initiator", "role"),
+                      PModeParty.createSimple ("responder", "role"),
+                      sAgreement,
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      null,
+                      null,
+                      null,
+                      null);
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final PModeManagerCopyOnWrite aMgr = new PModeManagerCopyOnWrite ();
+    assertTrue (aMgr.getAllIDs ().isEmpty ());
+
+    final PMode aPMode = _createPMode ("pm1", "agreement1");
+    aMgr.createPMode (aPMode);
+    assertSame (aPMode, aMgr.getPModeOfID ("pm1"));
+    assertEquals (1, aMgr.getAll ().size ());
+
+    assertTrue (aMgr.updatePMode (_createPMode ("pm1", "agreement2")).isChanged ());
+    assertTrue (aMgr.updatePMode (_createPMode ("pm1", "agreement2")).isUnchanged ());
+    assertEquals ("agreement2", aMgr.getPModeOfID ("pm1").getAgreement ());
+    // Unknown PMode
+    assertTrue (aMgr.updatePMode (_createPMode ("pm2", "agreement2")).isUnchanged ());
+
+    assertTrue (aMgr.markPModeDeleted ("pm1").isChanged ());
+    assertTrue (aMgr.markPModeDeleted ("pm1").isUnchanged ());
+    assertTrue (aMgr.getPModeOfID ("pm1").isDeleted ());
+    assertTrue (aMgr.updatePMode (_createPMode ("pm1", "agreement3")).isUnchanged ());
+
+    assertTrue (aMgr.deletePMode ("pm1").isChanged ());
+    assertTrue (aMgr.deletePMode ("pm1").isUnchanged ());
+    assertNull (aMgr.getPModeOfID ("pm1"));
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testDuplicateID ()
+  {
+    final PModeManagerCopyOnWrite aMgr = new PModeManagerCopyOnWrite ();
+    aMgr.createPMode (_createPMode ("pm1", "agreement1"));
+    aMgr.createPMode (_createPMode ("pm1", "agreement1"));
+  }
+
+  @Test
+  public void testUpdateDoesNotModifyPublishedObject ()
+  {
+    final PModeManagerCopyOnWrite aMgr = new PModeManagerCopyOnWrite ();
+    final PMode aPMode = _createPMode ("pm1", "agreement1");
+    aMgr.createPMode (aPMode);
+
+    // A reader holding the old object or snapshot
+    final IPMode aReaderPMode = aMgr.getPModeOfID ("pm1");
+    final ICommonsList <IPMode> aReaderSnapshot = aMgr.getAll ();
+
+    assertTrue (aMgr.updatePMode (_createPMode ("pm1", "agreement2")).isChanged ());
+
+    // The previously published object is unchanged
+    assertEquals ("agreement1", aReaderPMode.getAgreement ());
+    assertEquals ("agreement1", aReaderSnapshot.getFirstOrNull ().getAgreement ());
+    assertEquals (aPMode.getLastModificationDateTime (), aReaderPMode.getLastModificationDateTime ());
+
+    // A new object was published
+    final IPMode aNewPMode = aMgr.getPModeOfID ("pm1");
+    assertNotSame (aReaderPMode, aNewPMode);
+    assertEquals ("agreement2", aNewPMode.getAgreement ());
+    assertEquals (aPMode.getCreationDateTime (), aNewPMode.getCreationDateTime ());
+    assertNotNull (aNewPMode.getLastModificationDateTime ());
+  }
+
+  @Test
+  public void testMarkDeletedDoesNotModifyPublishedObject ()
+  {
+    final PModeManagerCopyOnWrite aMgr = new PModeManagerCopyOnWrite ();
+    aMgr.createPMode (_createPMode ("pm1", "agreement1"));
+
+    final IPMode aReaderPMode = aMgr.getPModeOfID ("pm1");
+    assertTrue (aMgr.markPModeDeleted ("pm1").isChanged ());
+
+    assertFalse (aReaderPMode.isDeleted ());
+    assertTrue (aMgr.getPModeOfID ("pm1").isDeleted ());
+  }
+
+  @Test
+  public void testGetClone ()
+  {
+    final PMode aPMode = _createPMode ("pm1", "agreement1");
+    aPMode.attrs ().putIn ("key", "value");
+    final PMode aClone = PModeManagerCopyOnWrite.getClone (aPMode);
+    assertNotSame (aPMode, aClone);
+    assertEquals (aPMode, aClone);
+    assertEquals (aPMode.getCreationDateTime (), aClone.getCreationDateTime ());
+    assertEquals (aPMode.getCreationUserID (), aClone.getCreationUserID ());
+    assertEquals ("value", aClone.attrs ().getAsString ("key"));
+    assertSame (aPMode.getInitiator (), aClone.getInitiator ());
+    assertSame (aPMode.getMEP (), aClone.getMEP ());
+
+    // Modifying the clone does not modify the source
+    aClone.setAgreement ("agreement2");
+    assertEquals ("agreement1", aPMode.getAgreement ());
+  }
+}
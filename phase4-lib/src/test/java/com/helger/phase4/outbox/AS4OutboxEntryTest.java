@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.time.OffsetDateTime;
+
+import org.junit.Test;
+
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.convert.MicroTypeConverter;
+
+/**
+ * Test class for class {@link AS4OutboxEntry}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4OutboxEntryTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final OffsetDateTime aNow = PDTFactory.getCurrentOffsetDateTimeMillisOnly ();
+    final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+    aHeaders.addHeader ("X-Test", "value");
+    final AS4OutboxEntry x = new AS4OutboxEntry ("x", "https://example.org/as4", "text/xml", aHeaders, aNow, 0, aNow, null);
+    assertEquals ("x", x.getID ());
+    assertEquals ("https://example.org:443", x.getDestination ());
+    assertEquals (0, x.getAttempts ());
+    assertNull (x.getLastError ());
+
+    x.onFailedAttempt (aNow.plusMinutes (1), "error");
+    assertEquals (1, x.getAttempts ());
+    assertEquals ("error", x.getLastError ());
+
+    final IMicroElement eElement = MicroTypeConverter.convertToMicroElement (x, "outboxentry");
+    assertNotNull (eElement);
+    final AS4OutboxEntry y = MicroTypeConverter.convertToNative (eElement, AS4OutboxEntry.class);
+    assertNotNull (y);
+    assertEquals (x.getMessageID (), y.getMessageID ());
+    assertEquals (x.getURL (), y.getURL ());
+    assertEquals (x.getContentType (), y.getContentType ());
+    assertEquals (x.getAllCustomHttpHeaders (), y.getAllCustomHttpHeaders ());
+    assertEquals (x.getCreationDateTime (), y.getCreationDateTime ());
+    assertEquals (x.getAttempts (), y.getAttempts ());
+    assertEquals (x.getNextAttemptDateTime (), y.getNextAttemptDateTime ());
+    assertEquals (x.getLastError (), y.getLastError ());
+  }
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.messaging.http.BasicHttpPoster;
+import com.helger.phase4.messaging.http.HttpRetrySettings;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Test class for class {@link AS4Outbox}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4OutboxTest
+{
+  private static final String RECEIPT = "<S12:Envelope xmlns:S12='http://www.w3.org/2003/05/soap-envelope' xmlns:eb='" +
+                                        CAS4.EBMS_NS +
+                                        "'><S12:Header><eb:Messaging><eb:SignalMessage><eb:Receipt/></eb:SignalMessage></eb:Messaging></S12:Header><S12:Body/></S12:Envelope>";
+
+  private final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Rule
+  public final TestRule m_aTestRule = RuleChain.outerRule (m_aTempFolder).around (new AS4TestRule ());
+
+  @Nonnull
+  private static String _createError (@Nonnull final String sSeverity)
+  {
+    return "<S12:Envelope xmlns:S12='http://www.w3.org/2003/05/soap-envelope' xmlns:eb='" +
+           CAS4.EBMS_NS +
+           "'><S12:Header><eb:Messaging><eb:SignalMessage><eb:Error errorCode='EBMS:0004' severity='" +
+           sSeverity +
+           "' shortDescription='Other'/></eb:SignalMessage></eb:Messaging></S12:Header><S12:Body/></S12:Envelope>";
+  }
+
+  /**
+   * A poster that does not use the network but hands the response of the
+   * provided callback to the response handler.
+   */
+  private abstract static class AbstractMockPoster extends BasicHttpPoster
+  {
+    @Nullable
+    protected abstract String getResponse (@Nonnull String sURL) throws IOException;
+
+    @Override
+    public <T> T sendGenericMessage (@Nonnull final String sURL,
+                                     @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                     @Nonnull final HttpEntity aHttpEntity,
+                                     @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+    {
+      final String sResponse = getResponse (sURL);
+      try (final ClassicHttpResponse aResponse = new BasicClassicHttpResponse (200))
+      {
+        if (sResponse != null)
+          aResponse.setEntity (new StringEntity (sResponse, ContentType.create ("application/soap+xml", StandardCharsets.UTF_8)));
+        return aResponseHandler.handleResponse (aResponse);
+      }
+      catch (final HttpException ex)
+      {
+        throw new IOException (ex);
+      }
+    }
+  }
+
+  @Nonnull
+  private AS4Outbox _createOutbox () throws IOException
+  {
+    return new AS4Outbox (m_aTempFolder.newFolder ()).setJitter (0)
+                                                     .setPollInterval (Duration.ofMillis (10))
+                                                     .setRetrySettings (new HttpRetrySettings ().setMaxRetries (2)
+                                                                                                .setDurationBeforeRetry (Duration.ofMillis (100))
+                                                                                                .setRetryIncreaseFactor (AS4Outbox.DEFAULT_RETRY_INCREASE_FACTOR));
+  }
+
+  private static void _enqueue (@Nonnull final AS4Outbox aOutbox,
+                                @Nonnull final String sURL,
+                                @Nonnull final String sMessageID) throws IOException
+  {
+    aOutbox.enqueue (sURL, sMessageID, null, new StringEntity ("<dummy/>", ContentType.APPLICATION_XML));
+  }
+
+  private static void _waitUntil (@Nonnull final java.util.function.BooleanSupplier aCondition)
+  {
+    final long nEnd = System.currentTimeMillis () + 10_000;
+    while (!aCondition.getAsBoolean ())
+    {
+      if (System.currentTimeMillis () > nEnd)
+        fail ("Condition not met in time");
+      ThreadHelper.sleep (5);
+    }
+  }
+
+  @Test
+  public void testGetEbmsErrorOfResponse () throws Exception
+  {
+    assertNull (AS4Outbox.getEbmsErrorOfResponse (null, null));
+    assertNull (AS4Outbox.getEbmsErrorOfResponse ("application/soap+xml", new byte [0]));
+    assertNull (AS4Outbox.getEbmsErrorOfResponse ("text/plain", "no xml".getBytes (StandardCharsets.UTF_8)));
+    assertNull (AS4Outbox.getEbmsErrorOfResponse ("application/soap+xml", RECEIPT.getBytes (StandardCharsets.UTF_8)));
+    assertNull (AS4Outbox.getEbmsErrorOfResponse ("application/soap+xml",
+                                                  _createError ("warning").getBytes (StandardCharsets.UTF_8)));
+    assertEquals ("EBMS:0004 (Other)",
+                  AS4Outbox.getEbmsErrorOfResponse ("application/soap+xml",
+                                                    _createError ("failure").getBytes (StandardCharsets.UTF_8)));
+
+    // Error in the first part of a MIME message
+    final String sMime = "--b1\r\n" +
+                         "Content-Type: application/soap+xml\r\n" +
+                         "Content-ID: <root@example.org>\r\n" +
+                         "\r\n" +
+                         _createError ("failure") +
+                         "\r\n--b1\r\n" +
+                         "Content-Type: application/octet-stream\r\n" +
+                         "\r\n" +
+                         "payload\r\n" +
+                         "--b1--\r\n";
+    assertEquals ("EBMS:0004 (Other)",
+                  AS4Outbox.getEbmsErrorOfResponse ("multipart/related; boundary=b1; type=\"application/soap+xml\"",
+                                                    sMime.getBytes (StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testRetryWithBackoff () throws Exception
+  {
+    final ICommonsList <Long> aAttemptTimes = new CommonsArrayList <> ();
+    final CountDownLatch aDelivered = new CountDownLatch (1);
+    try (final AS4Outbox aOutbox = _createOutbox ())
+    {
+      aOutbox.setHttpPoster (new AbstractMockPoster ()
+      {
+        @Override
+        protected String getResponse (@Nonnull final String sURL) throws IOException
+        {
+          synchronized (aAttemptTimes)
+          {
+            aAttemptTimes.add (Long.valueOf (System.nanoTime ()));
+            if (aAttemptTimes.size () < 3)
+              throw new IOException ("Simulated error " + aAttemptTimes.size ());
+          }
+          return RECEIPT;
+        }
+      });
+      aOutbox.setListener (new IAS4OutboxListener ()
+      {
+        @Override
+        public void onDelivered (@Nonnull final AS4OutboxEntry aEntry, @Nullable final byte [] aResponseBytes)
+        {
+          aDelivered.countDown ();
+        }
+      });
+      aOutbox.start ();
+      _enqueue (aOutbox, "http://localhost:1/as4", "msg1");
+
+      assertTrue (aDelivered.await (10, TimeUnit.SECONDS));
+      assertEquals (1, aOutbox.getDeliveredCount ());
+      assertEquals (0, aOutbox.getFailedCount ());
+      assertEquals (0, aOutbox.getQueueDepth ());
+    }
+
+    assertEquals (3, aAttemptTimes.size ());
+    // First retry after 100ms, second after 200ms
+    final long nFirstDelay = TimeUnit.NANOSECONDS.toMillis (aAttemptTimes.get (1).longValue () -
+                                                           aAttemptTimes.get (0).longValue ());
+    final long nSecondDelay = TimeUnit.NANOSECONDS.toMillis (aAttemptTimes.get (2).longValue () -
+                                                            aAttemptTimes.get (1).longValue ());
+    assertTrue ("First delay " + nFirstDelay, nFirstDelay >= 100);
+    assertTrue ("Second delay " + nSecondDelay, nSecondDelay >= 200);
+  }
+
+  @Test
+  public void testEbmsErrorIsAFailedAttempt () throws Exception
+  {
+    final AtomicInteger aAttempts = new AtomicInteger (0);
+    final CountDownLatch aFailed = new CountDownLatch (1);
+    final ICommonsList <Exception> aExceptions = new CommonsArrayList <> ();
+    final File aDir;
+    try (final AS4Outbox aOutbox = _createOutbox ())
+    {
+      aDir = aOutbox.getDirectory ();
+      aOutbox.setHttpPoster (new AbstractMockPoster ()
+      {
+        @Override
+        protected String getResponse (@Nonnull final String sURL)
+        {
+          aAttempts.incrementAndGet ();
+          return _createError ("failure");
+        }
+      });
+      aOutbox.setListener (new IAS4OutboxListener ()
+      {
+        @Override
+        public void onDelivered (@Nonnull final AS4OutboxEntry aEntry, @Nullable final byte [] aResponseBytes)
+        {
+          fail ("An ebMS Error must not count as delivered");
+        }
+
+        @Override
+        public void onFailed (@Nonnull final AS4OutboxEntry aEntry, @Nonnull final Exception aException)
+        {
+          aExceptions.add (aException);
+          aFailed.countDown ();
+        }
+      });
+      aOutbox.start ();
+      _enqueue (aOutbox, "http://localhost:1/as4", "msg1");
+
+      assertTrue (aFailed.await (10, TimeUnit.SECONDS));
+      assertEquals (0, aOutbox.getDeliveredCount ());
+      assertEquals (1, aOutbox.getFailedCount ());
+    }
+
+    // Initial attempt plus 2 retries
+    assertEquals (3, aAttempts.get ());
+    assertEquals (1, aExceptions.size ());
+    assertTrue (aExceptions.getFirstOrNull () instanceof Phase4Exception);
+    final String [] aFailedFiles = new File (aDir, "failed").list ( (d, n) -> n.endsWith (".body"));
+    assertNotNull (aFailedFiles);
+    assertEquals (1, aFailedFiles.length);
+  }
+
+  @Test
+  public void testParallelLimits () throws Exception
+  {
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ICommonsMap <String, Integer> aCurrent = new CommonsHashMap <> ();
+    final ICommonsMap <String, Integer> aMax = new CommonsHashMap <> ();
+    final AtomicInteger aCurrentTotal = new AtomicInteger (0);
+    final AtomicInteger aMaxTotal = new AtomicInteger (0);
+    try (final AS4Outbox aOutbox = _createOutbox ())
+    {
+      aOutbox.setMaxParallelPerDestination (2).setMaxParallelTotal (3);
+      aOutbox.setHttpPoster (new AbstractMockPoster ()
+      {
+        @Override
+        protected String getResponse (@Nonnull final String sURL)
+        {
+          synchronized (aCurrent)
+          {
+            final int nCurrent = aCurrent.merge (sURL, Integer.valueOf (1), (a, b) -> Integer.valueOf (a.intValue () + 1))
+                                         .intValue ();
+            aMax.merge (sURL, Integer.valueOf (nCurrent), (a, b) -> Integer.valueOf (Math.max (a.intValue (), b.intValue ())));
+            aMaxTotal.accumulateAndGet (aCurrentTotal.incrementAndGet (), Math::max);
+          }
+          try
+          {
+            aRelease.await (10, TimeUnit.SECONDS);
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+          synchronized (aCurrent)
+          {
+            aCurrent.merge (sURL, Integer.valueOf (-1), (a, b) -> Integer.valueOf (a.intValue () - 1));
+            aCurrentTotal.decrementAndGet ();
+          }
+          return RECEIPT;
+        }
+      });
+      for (int i = 0; i < 5; ++i)
+      {
+        _enqueue (aOutbox, "http://host-a/as4", "a" + i);
+        _enqueue (aOutbox, "http://host-b/as4", "b" + i);
+      }
+      aOutbox.start ();
+
+      // Wait until the limit is reached and give the dispatcher some more
+      // rounds to violate it
+      _waitUntil ( () -> aOutbox.getInFlightCount () == 3);
+      ThreadHelper.sleep (100);
+      assertEquals (3, aOutbox.getInFlightCount ());
+      assertEquals (10, aOutbox.getQueueDepth ());
+
+      aRelease.countDown ();
+      _waitUntil ( () -> aOutbox.getDeliveredCount () == 10);
+    }
+
+    assertEquals (3, aMaxTotal.get ());
+    assertTrue (aMax.get ("http://host-a/as4").intValue () <= 2);
+    assertTrue (aMax.get ("http://host-b/as4").intValue () <= 2);
+  }
+
+  @Test
+  public void testEnqueueAfterClose () throws Exception
+  {
+    final AS4Outbox aOutbox = _createOutbox ();
+    aOutbox.start ();
+    aOutbox.close ();
+    assertFalse (aOutbox.isStarted ());
+    try
+    {
+      _enqueue (aOutbox, "http://localhost:1/as4", "msg1");
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    // Nothing was persisted
+    final String [] aFiles = aOutbox.getDirectory ().list ();
+    assertNotNull (aFiles);
+    assertEquals (0, aFiles.length);
+    assertEquals (0, aOutbox.getInFlightCount ());
+  }
+
+  @Test
+  public void testCloseDuringDispatch () throws Exception
+  {
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AS4Outbox aOutbox = _createOutbox ();
+    aOutbox.setMaxParallelPerDestination (1).setMaxParallelTotal (1);
+    aOutbox.setHttpPoster (new AbstractMockPoster ()
+    {
+      @Override
+      protected String getResponse (@Nonnull final String sURL)
+      {
+        aStarted.countDown ();
+        try
+        {
+          aRelease.await (10, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        return RECEIPT;
+      }
+    });
+    _enqueue (aOutbox, "http://localhost:1/as4", "msg1");
+    _enqueue (aOutbox, "http://localhost:1/as4", "msg2");
+    aOutbox.start ();
+    assertTrue (aStarted.await (10, TimeUnit.SECONDS));
+
+    final Thread aCloser = new Thread (aOutbox::close);
+    aCloser.start ();
+    aRelease.countDown ();
+    aCloser.join (10_000);
+    assertFalse (aCloser.isAlive ());
+
+    // Nothing may be left in flight, the undelivered message stays
+    assertEquals (0, aOutbox.getInFlightCount ());
+    assertEquals (1, aOutbox.getDeliveredCount ());
+    assertEquals (1, aOutbox.getQueueDepth ());
+  }
+
+  @Test
+  public void testSimilarMessageIDs () throws Exception
+  {
+    final File aDir;
+    try (final AS4Outbox aOutbox = _createOutbox ())
+    {
+      aDir = aOutbox.getDirectory ();
+      // Both IDs would result in the same file name if the special characters
+      // are replaced
+      _enqueue (aOutbox, "http://localhost:1/as4", "a/b");
+      _enqueue (aOutbox, "http://localhost:1/as4", "a?b");
+      assertEquals (2, aOutbox.getQueueDepth ());
+      final String [] aFiles = aDir.list ();
+      assertNotNull (aFiles);
+      assertEquals (4, aFiles.length);
+    }
+
+    // Recover the real IDs from the metadata
+    final ICommonsList <String> aDelivered = new CommonsArrayList <> ();
+    final CountDownLatch aAllDelivered = new CountDownLatch (2);
+    try (final AS4Outbox aOutbox = new AS4Outbox (aDir))
+    {
+      aOutbox.setHttpPoster (new AbstractMockPoster ()
+      {
+        @Override
+        protected String getResponse (@Nonnull final String sURL)
+        {
+          return RECEIPT;
+        }
+      });
+      aOutbox.setListener (new IAS4OutboxListener ()
+      {
+        @Override
+        public void onDelivered (@Nonnull final AS4OutboxEntry aEntry, @Nullable final byte [] aResponseBytes)
+        {
+          synchronized (aDelivered)
+          {
+            aDelivered.add (aEntry.getMessageID ());
+          }
+          aAllDelivered.countDown ();
+        }
+      });
+      aOutbox.start ();
+      assertTrue (aAllDelivered.await (10, TimeUnit.SECONDS));
+    }
+    assertEquals (2, aDelivered.size ());
+    assertTrue (aDelivered.contains ("a/b"));
+    assertTrue (aDelivered.contains ("a?b"));
+  }
+
+  @Test
+  public void testConcurrentEnqueueOfSameID () throws Exception
+  {
+    final CountDownLatch aWriting = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AS4Outbox aOutbox = _createOutbox ();
+    final HttpEntity aSlowEntity = new HttpEntityWrapper (new StringEntity ("<dummy/>", ContentType.APPLICATION_XML))
+    {
+      @Override
+      public void writeTo (@Nonnull final OutputStream aOS) throws IOException
+      {
+        aWriting.countDown ();
+        try
+        {
+          aRelease.await (10, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        super.writeTo (aOS);
+      }
+    };
+    final Thread aWriter = new Thread ( () -> {
+      try
+      {
+        aOutbox.enqueue ("http://localhost:1/as4", "msg1", null, aSlowEntity);
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException (ex);
+      }
+    });
+    aWriter.start ();
+    assertTrue (aWriting.await (10, TimeUnit.SECONDS));
+
+    // The ID is reserved while the first call writes the files
+    try
+    {
+      _enqueue (aOutbox, "http://localhost:1/as4", "msg1");
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      // expected
+    }
+    aRelease.countDown ();
+    aWriter.join (10_000);
+    assertFalse (aWriter.isAlive ());
+    assertEquals (1, aOutbox.getQueueDepth ());
+  }
+
+  @Test
+  public void testEnqueueWriteError () throws Exception
+  {
+    final AS4Outbox aOutbox = _createOutbox ();
+    final HttpEntity aBrokenEntity = new HttpEntityWrapper (new StringEntity ("<dummy/>", ContentType.APPLICATION_XML))
+    {
+      @Override
+      public void writeTo (@Nonnull final OutputStream aOS) throws IOException
+      {
+        aOS.write (1);
+        throw new IOException ("Simulated error");
+      }
+    };
+    try
+    {
+      aOutbox.enqueue ("http://localhost:1/as4", "msg1", null, aBrokenEntity);
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+    final String [] aFiles = aOutbox.getDirectory ().list ();
+    assertNotNull (aFiles);
+    assertEquals (0, aFiles.length);
+    assertEquals (0, aOutbox.getQueueDepth ());
+
+    // The reservation was released
+    _enqueue (aOutbox, "http://localhost:1/as4", "msg1");
+    assertEquals (1, aOutbox.getQueueDepth ());
+  }
+}
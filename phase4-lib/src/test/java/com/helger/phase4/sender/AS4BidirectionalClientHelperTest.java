@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.BasicHttpEntity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.client.AS4ClientBuiltMessage;
+import com.helger.phase4.client.AS4ClientSentMessage;
+import com.helger.phase4.dump.AS4RawResponseConsumerWriteToFile;
+import com.helger.phase4.messaging.http.HttpXMLEntity;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link AS4BidirectionalClientHelper}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4BidirectionalClientHelperTest
+{
+  private final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Rule
+  public final TestRule m_aTestRule = RuleChain.outerRule (m_aTempFolder).around (new AS4TestRule ());
+
+  @Nonnull
+  private static byte [] _createLargeResponse ()
+  {
+    final byte [] ret = new byte [(int) AS4ResponsePayload.STREAMING_IN_MEMORY_THRESHOLD * 2];
+    Arrays.fill (ret, (byte) 'x');
+    return ret;
+  }
+
+  @Nonnull
+  private static AS4ClientSentMessage <AS4ResponsePayload> _createSentMessage (@Nonnull final AS4ResourceHelper aResHelper,
+                                                                              @Nonnull final byte [] aResponse) throws Exception
+  {
+    // Unknown content length, so that it is spooled
+    final AS4ResponsePayload aPayload = AS4ResponsePayload.read (new BasicHttpEntity (new ByteArrayInputStream (aResponse),
+                                                                                      ContentType.APPLICATION_OCTET_STREAM),
+                                                                 true,
+                                                                 aResHelper);
+    final AS4ClientBuiltMessage aBuiltMsg = new AS4ClientBuiltMessage ("msg-1",
+                                                                       new HttpXMLEntity (XMLFactory.newDocument (),
+                                                                                          CMimeType.APPLICATION_XML),
+                                                                       null);
+    return new AS4ClientSentMessage <> (aBuiltMsg, null, new HttpHeaderMap (), aPayload);
+  }
+
+  @Test
+  public void testSpooledResponseIsStreamed () throws Exception
+  {
+    final byte [] aResponse = _createLargeResponse ();
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientSentMessage <AS4ResponsePayload> aSentMsg = _createSentMessage (aResHelper, aResponse);
+      assertTrue (aSentMsg.getResponseContent ().isSpooled ());
+
+      final AS4ClientSentMessage <IHasInputStream> aStreamMsg = AS4BidirectionalClientHelper.getWithStreamContent (aSentMsg);
+      // No copy of the payload is created
+      assertSame (aSentMsg.getResponseContent (), aStreamMsg.getResponseContent ());
+      assertEquals ("msg-1", aStreamMsg.getMessageID ());
+
+      // Can be read multiple times
+      assertArrayEquals (aResponse, StreamHelper.getAllBytes (aStreamMsg.getResponseContent ().getInputStream ()));
+      assertArrayEquals (aResponse, StreamHelper.getAllBytes (aStreamMsg.getResponseContent ().getInputStream ()));
+    }
+  }
+
+  @Test
+  public void testEmptyResponse () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientSentMessage <AS4ResponsePayload> aSentMsg = _createSentMessage (aResHelper, new byte [0]);
+      assertNull (AS4BidirectionalClientHelper.getWithStreamContent (aSentMsg).getResponseContent ());
+    }
+  }
+
+  @Test
+  public void testByteArrayConsumerCompatibility () throws Exception
+  {
+    final byte [] aResponse = _createLargeResponse ();
+    final ICommonsList <byte []> aReceived = new CommonsArrayList <> ();
+    // Old style consumers still get the byte array
+    final IAS4RawResponseConsumer aConsumer = IAS4RawResponseConsumer.and (x -> aReceived.add (x.getResponseContent ()),
+                                                                           x -> aReceived.add (x.getResponseContent ()));
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      aConsumer.handleResponseStream (AS4BidirectionalClientHelper.getWithStreamContent (_createSentMessage (aResHelper,
+                                                                                                            aResponse)));
+    }
+    assertEquals (2, aReceived.size ());
+    assertArrayEquals (aResponse, aReceived.get (0));
+    assertArrayEquals (aResponse, aReceived.get (1));
+  }
+
+  @Test
+  public void testWriteToFileStreaming () throws Exception
+  {
+    final byte [] aResponse = "<response>large</response>".getBytes (StandardCharsets.UTF_8);
+    final File aTargetFile = new File (m_aTempFolder.getRoot (), "response.as4response");
+    final AS4RawResponseConsumerWriteToFile aConsumer = new AS4RawResponseConsumerWriteToFile (x -> aTargetFile).setHandleStatusLine (false)
+                                                                                                             .setHandleHttpHeaders (false);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      aConsumer.handleResponseStream (AS4BidirectionalClientHelper.getWithStreamContent (_createSentMessage (aResHelper,
+                                                                                                            aResponse)));
+    }
+    assertArrayEquals (aResponse, SimpleFileIO.getAllFileBytes (aTargetFile));
+
+    // The byte array variant writes the same
+    assertTrue (aTargetFile.delete ());
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientSentMessage <AS4ResponsePayload> aSentMsg = _createSentMessage (aResHelper, aResponse);
+      aConsumer.handleResponse (aSentMsg.getWithResponseContent (aResponse));
+    }
+    final byte [] aWritten = SimpleFileIO.getAllFileBytes (aTargetFile);
+    assertNotNull (aWritten);
+    assertArrayEquals (aResponse, aWritten);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.phase4.sender.AS4PullPoller.EPullOutcome;
+import com.helger.phase4.sender.AS4PullPoller.MPCState;
+
+/**
+ * Test class for class {@link AS4PullPoller}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4PullPollerTest
+{
+  @Nonnull
+  private static AS4PullPoller _createPoller ()
+  {
+    // The builder factory is not needed for the interval calculation
+    return new AS4PullPoller (sMPC -> null, (aUserMsg, aMessageMetadata, aState) -> {}).setMinInterval (Duration.ofSeconds (1))
+                                                                                         .setMaxInterval (Duration.ofSeconds (10))
+                                                                                         .setIntervalIncreaseFactor (BigDecimal.valueOf (2))
+                                                                                         .setErrorMinInterval (Duration.ofSeconds (5))
+                                                                                         .setErrorMaxInterval (Duration.ofSeconds (100))
+                                                                                         .setErrorIntervalIncreaseFactor (BigDecimal.valueOf (4));
+  }
+
+  @Test
+  public void testEmptyBackoff ()
+  {
+    final AS4PullPoller aPoller = _createPoller ();
+    final MPCState aState = new MPCState ("mpc");
+    assertEquals (Duration.ofSeconds (1), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+    assertEquals (Duration.ofSeconds (2), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+    assertEquals (Duration.ofSeconds (4), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+    assertEquals (Duration.ofSeconds (8), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+    assertEquals (Duration.ofSeconds (10), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+    assertEquals (Duration.ofSeconds (10), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+
+    // A UserMessage drains immediately and resets the back-off
+    assertEquals (Duration.ZERO, aPoller.getNextInterval (aState, EPullOutcome.USER_MESSAGE));
+    assertEquals (Duration.ofSeconds (1), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+  }
+
+  @Test
+  public void testErrorBackoff ()
+  {
+    final AS4PullPoller aPoller = _createPoller ();
+    final MPCState aState = new MPCState ("mpc");
+    assertEquals (Duration.ofSeconds (5), aPoller.getNextInterval (aState, EPullOutcome.ERROR));
+    assertEquals (Duration.ofSeconds (20), aPoller.getNextInterval (aState, EPullOutcome.ERROR));
+    assertEquals (Duration.ofSeconds (80), aPoller.getNextInterval (aState, EPullOutcome.ERROR));
+    assertEquals (Duration.ofSeconds (100), aPoller.getNextInterval (aState, EPullOutcome.ERROR));
+
+    assertEquals (Duration.ZERO, aPoller.getNextInterval (aState, EPullOutcome.USER_MESSAGE));
+    assertEquals (Duration.ofSeconds (5), aPoller.getNextInterval (aState, EPullOutcome.ERROR));
+  }
+
+  @Test
+  public void testSwitchBetweenEmptyAndError ()
+  {
+    final AS4PullPoller aPoller = _createPoller ();
+    final MPCState aState = new MPCState ("mpc");
+    assertEquals (Duration.ofSeconds (1), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+    assertEquals (Duration.ofSeconds (2), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+
+    // Errors don't continue the empty back-off
+    assertEquals (Duration.ofSeconds (5), aPoller.getNextInterval (aState, EPullOutcome.ERROR));
+    assertEquals (Duration.ofSeconds (20), aPoller.getNextInterval (aState, EPullOutcome.ERROR));
+
+    // Partner is back, but MPC is empty
+    assertEquals (Duration.ofSeconds (1), aPoller.getNextInterval (aState, EPullOutcome.EMPTY));
+    assertEquals (Duration.ofSeconds (5), aPoller.getNextInterval (aState, EPullOutcome.ERROR));
+  }
+
+  @Test
+  public void testErrorsAreNotRepeatedImmediately ()
+  {
+    // No builder - every PullRequest is an error
+    try (final AS4PullPoller aPoller = new AS4PullPoller (sMPC -> null, (aUserMsg, aMessageMetadata, aState) -> {}))
+    {
+      aPoller.setMinInterval (Duration.ofMillis (1)).setErrorMinInterval (Duration.ofSeconds (10)).addMPC ("mpc");
+      aPoller.start ();
+
+      final long nEnd = System.currentTimeMillis () + 10_000;
+      while (aPoller.getPullCount () == 0 && System.currentTimeMillis () < nEnd)
+        ThreadHelper.sleep (5);
+      ThreadHelper.sleep (200);
+
+      // The empty interval would have allowed many more PullRequests
+      assertEquals (1, aPoller.getPullCount ());
+      assertEquals (1, aPoller.getErrorCount ());
+      assertEquals (0, aPoller.getEmptyCount ());
+      assertTrue (aPoller.isStarted ());
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.messaging.http.Http2HttpPoster;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AbstractAS4MessageBuilder}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractAS4MessageBuilderTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testHttp2PosterUsesBuilderFactory () throws Exception
+  {
+    final HttpClientFactory aFactory = new HttpClientFactory (new HttpClientSettings ().setUserAgent ("test"));
+    final AS4Sender.BuilderUserMessage aBuilder = AS4Sender.builderUserMessage ()
+                                                           .httpClientFactory (aFactory)
+                                                           .useHttp2 (true);
+
+    final Http2HttpPoster aPoster = aBuilder.getHttp2Poster ();
+    assertSame (aFactory, aPoster.getHttpClientFactory ());
+    // Not the shared default instance
+    assertNotSame (Http2HttpPoster.getDefaultInstance (), aPoster);
+    // Same instance for all messages of the builder
+    assertSame (aPoster, aBuilder.getHttp2Poster ());
+
+    // Follows factory changes
+    final HttpClientFactory aFactory2 = new HttpClientFactory ();
+    aBuilder.httpClientFactory (aFactory2);
+    assertSame (aFactory2, aBuilder.getHttp2Poster ().getHttpClientFactory ());
+
+    // Applied to the message
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientUserMessage aUserMsg = new AS4ClientUserMessage (aResHelper);
+      aBuilder.applyToUserMessage (aUserMsg);
+      assertSame (aPoster, aUserMsg.getHttpPoster ());
+      assertSame (aFactory2, ((Http2HttpPoster) aUserMsg.getHttpPoster ()).getHttpClientFactory ());
+    }
+    aBuilder.closeHttp2Poster ();
+  }
+
+  @Test
+  public void testCustomHttpPosterHasPrecedence () throws Exception
+  {
+    final Http2HttpPoster aCustom = new Http2HttpPoster ();
+    final AS4Sender.BuilderUserMessage aBuilder = AS4Sender.builderUserMessage ()
+                                                           .customHttpPoster (aCustom)
+                                                           .useHttp2 (true);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientUserMessage aUserMsg = new AS4ClientUserMessage (aResHelper);
+      aBuilder.applyToUserMessage (aUserMsg);
+      assertSame (aCustom, aUserMsg.getHttpPoster ());
+      assertTrue (aBuilder.useHttp2 ());
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4AdmissionController}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AdmissionControllerTest
+{
+  @Test
+  public void testInFlightLimits ()
+  {
+    final AS4AdmissionController aAC = new AS4AdmissionController (2, 1000);
+    final AS4AdmissionController.Permit p1 = aAC.tryAdmit (null, 600);
+    assertNotNull (p1);
+    // Too many bytes
+    assertNull (aAC.tryAdmit (null, 600));
+    // Unknown length is charged with the default size
+    assertNull (aAC.tryAdmit (null, -1));
+    aAC.setUnknownLengthBytes (100);
+    assertEquals (100, aAC.getUnknownLengthBytes ());
+    final AS4AdmissionController.Permit p2 = aAC.tryAdmit (null, -1);
+    assertNotNull (p2);
+    // Too many messages
+    assertNull (aAC.tryAdmit (null, 1));
+    assertEquals (2, aAC.getInFlightCount ());
+    assertEquals (700, aAC.getInFlightBytes ());
+
+    p1.close ();
+    // Closing twice has no effect
+    p1.close ();
+    p2.close ();
+    assertEquals (0, aAC.getInFlightCount ());
+    assertEquals (0, aAC.getInFlightBytes ());
+
+    // A single large message is admitted if nothing else is in flight
+    try (final AS4AdmissionController.Permit p3 = aAC.tryAdmit (null, 5000))
+    {
+      assertNotNull (p3);
+    }
+    assertEquals (3, aAC.getAcceptedCount ());
+    assertEquals (3, aAC.getRejectedCount ());
+  }
+
+  @Test
+  public void testProfileQuota ()
+  {
+    final AS4AdmissionController aAC = new AS4AdmissionController (10, Long.MAX_VALUE).setProfileQuota ("a", 1);
+    try (final AS4AdmissionController.Permit p1 = aAC.tryAdmit ("a", 10))
+    {
+      assertNotNull (p1);
+      assertNull (aAC.tryAdmit ("a", 10));
+      try (final AS4AdmissionController.Permit p2 = aAC.tryAdmit ("b", 10))
+      {
+        assertNotNull (p2);
+        assertEquals (1, aAC.getInFlightCount ("a"));
+        assertEquals (1, aAC.getInFlightCount ("b"));
+      }
+    }
+    assertEquals (0, aAC.getInFlightCount ("a"));
+    try (final AS4AdmissionController.Permit p3 = aAC.tryAdmit ("a", 10))
+    {
+      assertNotNull (p3);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.servlet.async.IAsyncServletRunner;
+import com.helger.servlet.mock.MockHttpServletRequest;
+import com.helger.servlet.mock.MockHttpServletResponse;
+import com.helger.xservlet.handler.XServletAsyncHandler;
+
+/**
+ * Test class for class {@link AS4AsyncServletRunnerVirtualThread}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncServletRunnerVirtualThreadTest
+{
+  @Test
+  public void testOnlyMarkedRequestsUseExecutor ()
+  {
+    final AtomicInteger aExecutorCount = new AtomicInteger (0);
+    final AtomicInteger aFallbackCount = new AtomicInteger (0);
+    final IAsyncServletRunner aFallback = (aReq, aResp, aCtx, aRunnable) -> {
+      aFallbackCount.incrementAndGet ();
+      aRunnable.run ();
+    };
+    final AS4AsyncServletRunnerVirtualThread aRunner = new AS4AsyncServletRunnerVirtualThread (r -> {
+      aExecutorCount.incrementAndGet ();
+      r.run ();
+    }, aFallback);
+
+    final AtomicInteger aRunCount = new AtomicInteger (0);
+    final MockHttpServletResponse aResponse = new MockHttpServletResponse ();
+
+    // Request of another servlet
+    final MockHttpServletRequest aOtherRequest = new MockHttpServletRequest ();
+    assertFalse (AS4AsyncServletRunnerVirtualThread.isMarkedRequest (aOtherRequest));
+    aRunner.runAsync (aOtherRequest, aResponse, null, aRunCount::incrementAndGet);
+    assertEquals (0, aExecutorCount.get ());
+    assertEquals (1, aFallbackCount.get ());
+
+    // AS4 request
+    final MockHttpServletRequest aAS4Request = new MockHttpServletRequest ();
+    AS4AsyncServletRunnerVirtualThread.markRequest (aAS4Request);
+    assertTrue (AS4AsyncServletRunnerVirtualThread.isMarkedRequest (aAS4Request));
+    aRunner.runAsync (aAS4Request, aResponse, null, aRunCount::incrementAndGet);
+    assertEquals (1, aExecutorCount.get ());
+    assertEquals (1, aFallbackCount.get ());
+
+    assertEquals (2, aRunCount.get ());
+  }
+
+  @Test
+  public void testInstallGlobally ()
+  {
+    final IAsyncServletRunner aOld = XServletAsyncHandler.getAsyncServletRunner ();
+    try
+    {
+      AS4AsyncServletRunnerVirtualThread.installGlobally (Runnable::run);
+      final IAsyncServletRunner aInstalled = XServletAsyncHandler.getAsyncServletRunner ();
+      assertTrue (aInstalled instanceof AS4AsyncServletRunnerVirtualThread);
+      // The previous runner is kept for all other requests
+      assertSame (aOld, ((AS4AsyncServletRunnerVirtualThread) aInstalled).getFallbackRunner ());
+
+      // Installing again does not nest
+      AS4AsyncServletRunnerVirtualThread.installGlobally (Runnable::run);
+      assertSame (aInstalled, XServletAsyncHandler.getAsyncServletRunner ());
+    }
+    finally
+    {
+      XServletAsyncHandler.setAsyncServletRunner (aOld);
+    }
+  }
+}
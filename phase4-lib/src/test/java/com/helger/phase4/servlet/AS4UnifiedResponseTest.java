@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.EHttpMethod;
+import com.helger.commons.mime.CMimeType;
+import com.helger.http.EHttpVersion;
+import com.helger.servlet.mock.MockHttpServletRequest;
+import com.helger.servlet.mock.MockHttpServletResponse;
+
+/**
+ * Test class for class {@link AS4UnifiedResponse}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4UnifiedResponseTest
+{
+  private static final byte [] PAYLOAD = "<x>streamed</x>".getBytes (StandardCharsets.UTF_8);
+
+  @Test
+  public void testStreamingContent () throws Exception
+  {
+    final MockHttpServletRequest aRequest = new MockHttpServletRequest ();
+    final MockHttpServletResponse aResponse = new MockHttpServletResponse ();
+    final AS4UnifiedResponse aUR = new AS4UnifiedResponse (EHttpVersion.HTTP_11, EHttpMethod.POST, aRequest, aResponse);
+    aUR.setStreamingContent (aOS -> aOS.write (PAYLOAD));
+    aUR.setMimeType (CMimeType.APPLICATION_XML);
+    assertTrue (aUR.hasStreamingContent ());
+
+    // Only status and headers are applied
+    aUR.applyToResponse (aResponse);
+    assertEquals (0, aResponse.getContentAsByteArray ().length);
+    assertEquals (200, aResponse.getStatus ());
+
+    aUR.writeStreamingContent ();
+    assertFalse (aUR.hasStreamingContent ());
+    assertArrayEquals (PAYLOAD, aResponse.getContentAsByteArray ());
+    // Length is unknown upfront
+    assertNull (aResponse.getHeader (CHttpHeader.CONTENT_LENGTH));
+
+    // Written only once
+    aUR.writeStreamingContent ();
+    assertArrayEquals (PAYLOAD, aResponse.getContentAsByteArray ());
+  }
+
+  @Test
+  public void testStreamingResponseHandler () throws Exception
+  {
+    final MockHttpServletRequest aRequest = new MockHttpServletRequest ();
+    final MockHttpServletResponse aResponse = new MockHttpServletResponse ();
+    final AS4StreamingResponseHandler aHandler = new AS4StreamingResponseHandler ( (aHttpRequest,
+                                                                                     aHttpResponse,
+                                                                                     eHttpVersion,
+                                                                                     eHttpMethod,
+                                                                                     aRequestScope) -> {
+      assertTrue (AS4StreamingResponseHandler.isStreamingEnabled (aHttpRequest));
+      final AS4UnifiedResponse aUR = new AS4UnifiedResponse (eHttpVersion, eHttpMethod, aHttpRequest, aHttpResponse);
+      aUR.setStreamingContent (aOS -> aOS.write (PAYLOAD));
+      aUR.setMimeType (CMimeType.APPLICATION_XML);
+      aUR.applyToResponse (aHttpResponse);
+      // Nothing written yet
+      assertEquals (0, aResponse.getContentAsByteArray ().length);
+    });
+    assertFalse (AS4StreamingResponseHandler.isStreamingEnabled (aRequest));
+    aHandler.onRequest (aRequest, aResponse, EHttpVersion.HTTP_11, EHttpMethod.POST, null);
+
+    assertArrayEquals (PAYLOAD, aResponse.getContentAsByteArray ());
+    assertEquals (200, aResponse.getStatus ());
+    assertNull (aResponse.getHeader (CHttpHeader.CONTENT_LENGTH));
+    assertFalse (AS4StreamingResponseHandler.isStreamingEnabled (aRequest));
+  }
+
+  @Test
+  public void testStreamingContentBuffered () throws Exception
+  {
+    final MockHttpServletRequest aRequest = new MockHttpServletRequest ();
+    final MockHttpServletResponse aResponse = new MockHttpServletResponse ();
+    // No servlet response - content is buffered
+    final AS4UnifiedResponse aUR = new AS4UnifiedResponse (EHttpVersion.HTTP_11, EHttpMethod.POST, aRequest);
+    aUR.setStreamingContent (aOS -> aOS.write (PAYLOAD));
+    aUR.setMimeType (CMimeType.APPLICATION_XML);
+    aUR.applyToResponse (aResponse);
+
+    assertArrayEquals (PAYLOAD, aResponse.getContentAsByteArray ());
+    assertEquals (200, aResponse.getStatus ());
+  }
+}
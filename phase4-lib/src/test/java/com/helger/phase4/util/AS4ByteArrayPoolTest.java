@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link AS4ByteArrayPool}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ByteArrayPoolTest
+{
+  @Test
+  public void testSizeClasses ()
+  {
+    final AS4ByteArrayPool aPool = new AS4ByteArrayPool (100_000, 2);
+    assertEquals (128 * 1024, aPool.getMaxArraySize ());
+
+    final byte [] a = aPool.acquire (1);
+    assertEquals (AS4ByteArrayPool.MIN_ARRAY_SIZE, a.length);
+    final byte [] b = aPool.acquire (5000);
+    assertEquals (8192, b.length);
+    // Too large - not pooled
+    assertEquals (200_000, aPool.acquire (200_000).length);
+    assertEquals (0, aPool.getHitCount ());
+
+    aPool.release (b);
+    assertSame (b, aPool.acquire (8000));
+    assertEquals (1, aPool.getHitCount ());
+    // Foreign array sizes are ignored
+    aPool.release (new byte [5000]);
+    assertNotSame (b, aPool.acquire (5000));
+  }
+
+  @Test
+  public void testOutputStream () throws Exception
+  {
+    final AS4ByteArrayPool aPool = new AS4ByteArrayPool ();
+    final byte [] aData = new byte [10_000];
+    for (int i = 0; i < aData.length; ++i)
+      aData[i] = (byte) i;
+
+    final AS4PooledByteArrayOutputStream aOS = new AS4PooledByteArrayOutputStream (aPool, 10);
+    aOS.write (aData[0]);
+    aOS.write (aData, 1, aData.length - 1);
+    assertEquals (aData.length, aOS.size ());
+    assertArrayEquals (aData, aOS.toByteArray ());
+    // Readable more than once
+    for (int i = 0; i < 2; ++i)
+      try (final InputStream aIS = aOS.getAsInputStreamProvider ().getInputStream ())
+      {
+        assertArrayEquals (aData, StreamHelper.getAllBytes (aIS));
+      }
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      aOS.releaseOnClose (aResHelper);
+    }
+    assertEquals (0, aOS.size ());
+    // Buffer is back in the pool
+    assertEquals (16384, aPool.acquire (16000).length);
+    assertEquals (1, aPool.getHitCount ());
+  }
+
+  @Test
+  public void testReadAfterRelease () throws Exception
+  {
+    final AS4ByteArrayPool aPool = new AS4ByteArrayPool ();
+    final AS4PooledByteArrayOutputStream aOS = new AS4PooledByteArrayOutputStream (aPool, 10);
+    aOS.write (new byte [] { 1, 2, 3, 4 }, 0, 4);
+    final IHasInputStream aISP = aOS.getAsInputStreamProvider ();
+    try (final InputStream aIS = aISP.getInputStream ())
+    {
+      assertEquals (1, aIS.read ());
+
+      aOS.release ();
+      // The array may already be used by someone else
+      final byte [] aReused = aPool.acquire (10);
+      Arrays.fill (aReused, (byte) 9);
+
+      // Reading from an open stream fails
+      try
+      {
+        aIS.read ();
+        fail ();
+      }
+      catch (final IllegalStateException ex)
+      {
+        // expected
+      }
+      try
+      {
+        aIS.read (new byte [4], 0, 4);
+        fail ();
+      }
+      catch (final IllegalStateException ex)
+      {
+        // expected
+      }
+    }
+
+    // Opening a new stream fails
+    try
+    {
+      aISP.getInputStream ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testReadAfterGrowth () throws Exception
+  {
+    final AS4ByteArrayPool aPool = new AS4ByteArrayPool ();
+    final AS4PooledByteArrayOutputStream aOS = new AS4PooledByteArrayOutputStream (aPool, 10);
+    aOS.write (new byte [] { 1, 2, 3, 4 }, 0, 4);
+    final IHasInputStream aISP = aOS.getAsInputStreamProvider ();
+
+    // Buffer is replaced and the old one is back in the pool
+    aOS.write (new byte [AS4ByteArrayPool.MIN_ARRAY_SIZE], 0, AS4ByteArrayPool.MIN_ARRAY_SIZE);
+    try
+    {
+      aISP.getInputStream ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    aOS.release ();
+  }
+}
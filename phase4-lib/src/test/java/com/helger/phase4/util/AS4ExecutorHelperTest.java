@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+
+/**
+ * Test class for class {@link AS4ExecutorHelper}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ExecutorHelperTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testRunAsync () throws Exception
+  {
+    final CompletableFuture <Void> aFuture = AS4ExecutorHelper.runAsync ("test", () -> {});
+    aFuture.get (10, TimeUnit.SECONDS);
+    assertFalse (aFuture.isCompletedExceptionally ());
+  }
+
+  @Test
+  public void testRunAsyncWithException () throws Exception
+  {
+    final Phase4Exception aException = new Phase4Exception ("Simulated error");
+    final CompletableFuture <Void> aFuture = AS4ExecutorHelper.runAsync ("test", () -> {
+      throw aException;
+    });
+    try
+    {
+      aFuture.get (10, TimeUnit.SECONDS);
+      fail ();
+    }
+    catch (final ExecutionException ex)
+    {
+      assertSame (aException, ex.getCause ());
+    }
+    assertTrue (aFuture.isCompletedExceptionally ());
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+
+/**
+ * Test class for class {@link AS4TempFileArena}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4TempFileArenaTest
+{
+  private static final File DIR = new File ("target/temp-arena-test");
+
+  private static void _waitForCleanup (final AS4TempFileArena aArena)
+  {
+    for (int i = 0; i < 100 && aArena.getPendingCleanupCount () > 0; ++i)
+      ThreadHelper.sleep (20);
+    assertEquals (0, aArena.getPendingCleanupCount ());
+  }
+
+  @Test
+  public void testRecycle () throws IOException
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (DIR);
+    try (final AS4TempFileArena aArena = new AS4TempFileArena (DIR,
+                                                               1024 * 1024,
+                                                               1,
+                                                               1,
+                                                               Duration.ZERO,
+                                                               Duration.ofMinutes (1)))
+    {
+      assertEquals (1, aArena.getPooledFileCount ());
+      final File f1 = aArena.acquire ();
+      assertTrue (f1.isFile ());
+      assertEquals (0, aArena.getPooledFileCount ());
+      assertEquals (1, aArena.getInUseFileCount ());
+
+      final File f2 = aArena.acquire ();
+      try (final OutputStream aOS = FileHelper.getOutputStream (f1))
+      {
+        aOS.write (new byte [100]);
+      }
+      aArena.release (f1);
+      aArena.release (f2);
+      _waitForCleanup (aArena);
+
+      // One pooled, one deleted
+      assertEquals (0, aArena.getInUseFileCount ());
+      assertEquals (1, aArena.getPooledFileCount ());
+      assertEquals (1, aArena.getDeletedFileCount ());
+
+      final File f3 = aArena.acquire ();
+      assertNotNull (f3);
+      assertEquals (0, f3.length ());
+      // Preallocated file and released file
+      assertEquals (2, aArena.getRecycledFileCount ());
+      aArena.release (f3);
+      _waitForCleanup (aArena);
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (DIR);
+    }
+  }
+
+  @Test
+  public void testQuota () throws IOException
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (DIR);
+    try (final AS4TempFileArena aArena = new AS4TempFileArena (DIR,
+                                                               10,
+                                                               0,
+                                                               4,
+                                                               Duration.ZERO,
+                                                               Duration.ofMillis (10)))
+    {
+      final File f1 = aArena.acquire ();
+      try (final OutputStream aOS = FileHelper.getOutputStream (f1))
+      {
+        aOS.write (new byte [100]);
+      }
+      // Wait until the usage was sampled
+      for (int i = 0; i < 100 && aArena.getUsedBytes () < 100; ++i)
+        ThreadHelper.sleep (10);
+      assertEquals (100, aArena.getUsedBytes ());
+
+      try
+      {
+        aArena.acquire ();
+        fail ();
+      }
+      catch (final IOException ex)
+      {
+        // expected
+      }
+      assertEquals (1, aArena.getRejectedCount ());
+
+      aArena.release (f1);
+      _waitForCleanup (aArena);
+      assertEquals (0, aArena.getUsedBytes ());
+      final File f2 = aArena.acquire ();
+      assertSame (f1, f2);
+      aArena.release (f2);
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (DIR);
+    }
+  }
+
+  @Test
+  public void testResourceHelper () throws IOException
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (DIR);
+    try (final AS4TempFileArena aArena = new AS4TempFileArena (DIR, 1024))
+    {
+      AS4ResourceHelper.setTempFileArena (aArena);
+      final File f;
+      try (final AS4ResourceHelper aRH = new AS4ResourceHelper ())
+      {
+        f = aRH.createTempFile ();
+        assertEquals (DIR.getAbsolutePath (), f.getParentFile ().getAbsolutePath ());
+        assertEquals (1, aArena.getInUseFileCount ());
+        assertTrue (aRH.getAllTempFiles ().contains (f));
+      }
+      _waitForCleanup (aArena);
+      assertEquals (0, aArena.getInUseFileCount ());
+      assertFalse (aArena.getPooledFileCount () == 0);
+    }
+    finally
+    {
+      AS4ResourceHelper.setTempFileArena (null);
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (DIR);
+    }
+  }
+}
@@ -80,6 +80,7 @@ import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.profile.peppol.AS4PeppolProfileRegistarSPI;
 import com.helger.phase4.profile.peppol.PeppolPMode;
 import com.helger.phase4.profile.peppol.Phase4PeppolHttpClientSettings;
+import com.helger.phase4.sender.AS4BulkMessage;
 import com.helger.phase4.sender.AbstractAS4UserMessageBuilderMIMEPayload;
 import com.helger.phase4.sender.IAS4SendingDateTimeConsumer;
 import com.helger.phase4.util.Phase4Exception;
@@ -819,9 +820,8 @@ public final class Phase4PeppolSender
       return true;
     }
 
-    @Override
-    @OverridingMethodsMustInvokeSuper
-    protected ESuccess finishFields () throws Phase4Exception
+    @Nonnull
+    private ESuccess _finishEndpointFields () throws Phase4Exception
     {
       if (!isEndpointDetailProviderUsable ())
       {
@@ -870,12 +870,30 @@ public final class Phase4PeppolSender
 
     @Override
     @OverridingMethodsMustInvokeSuper
-    public boolean isEveryRequiredFieldSet ()
+    protected ESuccess finishFields () throws Phase4Exception
+    {
+      return _finishEndpointFields ();
+    }
+
+    /**
+     * For bulk sending only the endpoint lookup and the receiver certificate
+     * check are performed once. The payloads are handled per message in
+     * {@link #prepareBulkMessage(AS4BulkMessage)}, so the regular builder
+     * validates and wraps each business document, while the SBDH builder
+     * expects complete Standard Business Documents.
+     */
+    @Override
+    protected ESuccess finishBulkFields () throws Phase4Exception
+    {
+      return _finishEndpointFields ();
+    }
+
+    private boolean _isEveryRequiredFieldSet (final boolean bCheckPayload)
     {
       if (!super.isEveryRequiredFieldSet ())
         return false;
 
-      if (m_aPayload == null)
+      if (bCheckPayload && m_aPayload == null)
       {
         LOGGER.warn ("The field 'payload' is not set");
         return false;
@@ -924,6 +942,20 @@ public final class Phase4PeppolSender
       return true;
     }
 
+    @Override
+    @OverridingMethodsMustInvokeSuper
+    public boolean isEveryRequiredFieldSet ()
+    {
+      return _isEveryRequiredFieldSet (true);
+    }
+
+    @Override
+    protected boolean isEveryRequiredBulkFieldSet ()
+    {
+      // The payload is provided per message
+      return _isEveryRequiredFieldSet (false);
+    }
+
     @Override
     protected void customizeBeforeSending () throws Phase4Exception
     {
@@ -1335,63 +1367,46 @@ public final class Phase4PeppolSender
       return validationConfiguration (null, null);
     }
 
-    @Override
-    protected ESuccess finishFields () throws Phase4Exception
+    @Nonnull
+    private static Element _getPayloadRootElement (@Nullable final Document aDoc, @Nonnull final String sSource) throws Phase4PeppolException
     {
-      // Ensure a DOM element is present
-      final Element aPayloadElement;
-      final boolean bClonePayloadElement;
-      if (m_aPayloadElement != null)
-      {
-        // Already provided as a DOM element
-        aPayloadElement = m_aPayloadElement;
-        bClonePayloadElement = true;
-      }
-      else
-        if (m_aPayloadBytes != null)
-        {
-          // Parse it
-          final Document aDoc = DOMReader.readXMLDOM (m_aPayloadBytes);
-          if (aDoc == null)
-            throw new Phase4PeppolException ("Failed to parse payload bytes to a DOM node");
-          aPayloadElement = aDoc.getDocumentElement ();
-          if (aPayloadElement == null)
-            throw new Phase4PeppolException ("The parsed XML document must have a root element");
-          if (aPayloadElement.getNamespaceURI () == null)
-            throw new Phase4PeppolException ("The root element of the parsed XML document does not have a namespace URI");
-          bClonePayloadElement = false;
-        }
-        else
-          if (m_aPayloadHasIS != null)
-          {
-            // Parse it
-            final InputStream aIS = m_aPayloadHasIS.getBufferedInputStream ();
-            if (aIS == null)
-              throw new Phase4PeppolException ("Failed to create payload InputStream from provider");
-            final Document aDoc = DOMReader.readXMLDOM (aIS);
-            if (aDoc == null)
-              throw new Phase4PeppolException ("Failed to parse payload InputStream to a DOM node");
-            aPayloadElement = aDoc.getDocumentElement ();
-            if (aPayloadElement == null)
-              throw new Phase4PeppolException ("The parsed XML document must have a root element");
-            if (aPayloadElement.getNamespaceURI () == null)
-              throw new Phase4PeppolException ("The root element of the parsed XML document does not have a namespace URI");
-            bClonePayloadElement = false;
-          }
-          else
-            throw new IllegalStateException ("Unexpected - neither element nor bytes nor InputStream provider are present");
+      if (aDoc == null)
+        throw new Phase4PeppolException ("Failed to parse " + sSource + " to a DOM node");
+      final Element aPayloadElement = aDoc.getDocumentElement ();
+      if (aPayloadElement == null)
+        throw new Phase4PeppolException ("The parsed XML document must have a root element");
+      if (aPayloadElement.getNamespaceURI () == null)
+        throw new Phase4PeppolException ("The root element of the parsed XML document does not have a namespace URI");
+      return aPayloadElement;
+    }
 
+    private void _checkAndValidatePayload (@Nonnull final Element aPayloadElement) throws Phase4PeppolException
+    {
       // Consistency check
       if (CSBDH.SBDH_NS.equals (aPayloadElement.getNamespaceURI ()))
         throw new Phase4PeppolException ("You cannot set a Standard Business Document as the payload for the regular builder. The SBD is created automatically inside of this builder. Use Phase4PeppolSender.sbdhBuilder() if you have a pre-build SBD.");
 
       // Optional payload validation
       _validatePayload (aPayloadElement, m_aVESRegistry, m_aVESID, m_aValidationResultHandler);
+    }
 
-      // Perform SMP lookup
-      if (super.finishFields ().isFailure ())
-        return ESuccess.FAILURE;
-
+    /**
+     * Create the SBD around the provided payload element and serialize it.
+     *
+     * @param aPayloadElement
+     *        The payload element to wrap. May not be <code>null</code>.
+     * @param bClonePayloadElement
+     *        <code>true</code> to clone the payload element.
+     * @param sSBDHInstanceIdentifier
+     *        The SBDH instance identifier to use. May be <code>null</code> to
+     *        use a random one.
+     * @return <code>null</code> if the SBD could not be created.
+     */
+    @Nullable
+    private byte [] _createSBDBytes (@Nonnull final Element aPayloadElement,
+                                     final boolean bClonePayloadElement,
+                                     @Nullable final String sSBDHInstanceIdentifier)
+    {
       // Created SBDH
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Start creating SBDH for AS4 message");
@@ -1401,14 +1416,14 @@ public final class Phase4PeppolSender
                                                         m_aDocTypeID,
                                                         m_aProcessID,
                                                         m_sCountryC1,
-                                                        m_sSBDHInstanceIdentifier,
+                                                        sSBDHInstanceIdentifier,
                                                         m_sSBDHTypeVersion,
                                                         aPayloadElement,
                                                         bClonePayloadElement);
       if (aSBD == null)
       {
         // A log message was already provided
-        return ESuccess.FAILURE;
+        return null;
       }
 
       if (false)
@@ -1429,6 +1444,50 @@ public final class Phase4PeppolSender
       final byte [] aSBDBytes = new SBDMarshaller ().getAsBytes (aSBD);
       if (m_aSBDBytesConsumer != null)
         m_aSBDBytesConsumer.accept (aSBDBytes);
+      return aSBDBytes;
+    }
+
+    @Override
+    protected ESuccess finishFields () throws Phase4Exception
+    {
+      // Ensure a DOM element is present
+      final Element aPayloadElement;
+      final boolean bClonePayloadElement;
+      if (m_aPayloadElement != null)
+      {
+        // Already provided as a DOM element
+        aPayloadElement = m_aPayloadElement;
+        bClonePayloadElement = true;
+      }
+      else
+        if (m_aPayloadBytes != null)
+        {
+          // Parse it
+          aPayloadElement = _getPayloadRootElement (DOMReader.readXMLDOM (m_aPayloadBytes), "payload bytes");
+          bClonePayloadElement = false;
+        }
+        else
+          if (m_aPayloadHasIS != null)
+          {
+            // Parse it
+            final InputStream aIS = m_aPayloadHasIS.getBufferedInputStream ();
+            if (aIS == null)
+              throw new Phase4PeppolException ("Failed to create payload InputStream from provider");
+            aPayloadElement = _getPayloadRootElement (DOMReader.readXMLDOM (aIS), "payload InputStream");
+            bClonePayloadElement = false;
+          }
+          else
+            throw new IllegalStateException ("Unexpected - neither element nor bytes nor InputStream provider are present");
+
+      _checkAndValidatePayload (aPayloadElement);
+
+      // Perform SMP lookup
+      if (super.finishFields ().isFailure ())
+        return ESuccess.FAILURE;
+
+      final byte [] aSBDBytes = _createSBDBytes (aPayloadElement, bClonePayloadElement, m_sSBDHInstanceIdentifier);
+      if (aSBDBytes == null)
+        return ESuccess.FAILURE;
 
       // Now we have the main payload
       payload (AS4OutgoingAttachment.builder ()
@@ -1439,6 +1498,41 @@ public final class Phase4PeppolSender
 
       return ESuccess.SUCCESS;
     }
+
+    /**
+     * For bulk sending, the payload of each bulk message is the business
+     * document (e.g. the Invoice). It is validated and wrapped in its own SBD
+     * exactly like in {@link #finishFields()}. Each message gets a random SBDH
+     * instance identifier. The SBD consumers may be invoked concurrently.
+     */
+    @Override
+    @Nonnull
+    protected AS4BulkMessage prepareBulkMessage (@Nonnull final AS4BulkMessage aMessage) throws Phase4Exception
+    {
+      final AS4OutgoingAttachment aPayload = aMessage.getPayload ();
+      if (aPayload == null)
+        throw new Phase4PeppolException ("The bulk message has no payload");
+
+      final Document aDoc = aPayload.hasDataBytes () ? DOMReader.readXMLDOM (aPayload.getDataBytes ().getInputStream ())
+                                                     : DOMReader.readXMLDOM (aPayload.getDataFile ());
+      final Element aPayloadElement = _getPayloadRootElement (aDoc, "bulk message payload");
+      _checkAndValidatePayload (aPayloadElement);
+
+      final byte [] aSBDBytes = _createSBDBytes (aPayloadElement, false, null);
+      if (aSBDBytes == null)
+        throw new Phase4PeppolException ("Failed to create the Standard Business Document for the bulk message");
+
+      return new AS4BulkMessage (aMessage.getMessageID (),
+                                 aMessage.getConversationID (),
+                                 AS4OutgoingAttachment.builder ()
+                                                      .data (aSBDBytes)
+                                                      .mimeType (m_aPayloadMimeType)
+                                                      .compression (m_bCompressPayload ? EAS4CompressionMode.GZIP
+                                                                                       : null)
+                                                      .contentID (m_sPayloadContentID)
+                                                      .build (),
+                                 aMessage.getAllAttachments ());
+    }
   }
 
   /**
@@ -1446,7 +1540,8 @@ public final class Phase4PeppolSender
    * {@link #sendMessage()} or {@link #sendMessageAndCheckForReceipt()} to
    * trigger the main transmission.<br>
    * This builder class assumes, that the SBDH was created outside, therefore no
-   * validation can occur.
+   * validation can occur. For bulk sending, the payloads of the bulk messages
+   * must be complete Standard Business Documents.
    *
    * @author Philip Helger
    * @since 0.9.6
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.phase4.attachment.AS4OutgoingAttachment;
+import com.helger.phase4.sender.AS4BulkMessage;
+import com.helger.phive.peppol.PeppolValidation2024_05;
+import com.helger.sbdh.SBDMarshaller;
+
+/**
+ * Test class for class {@link Phase4PeppolSender}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolSenderTest
+{
+  private static final File INVOICE = new File ("src/test/resources/external/examples/base-example.xml");
+
+  @Nonnull
+  private static Phase4PeppolSender.PeppolUserMessageBuilder _createBuilder ()
+  {
+    final IParticipantIdentifier aReceiverID = Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:helger");
+    return Phase4PeppolSender.builder ()
+                             .documentTypeID (Phase4PeppolSender.IF.createDocumentTypeIdentifierWithDefaultScheme ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1"))
+                             .processID (Phase4PeppolSender.IF.createProcessIdentifierWithDefaultScheme ("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0"))
+                             .senderParticipantID (Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:phase4-test-sender"))
+                             .receiverParticipantID (aReceiverID)
+                             .countryC1 ("AT");
+  }
+
+  @Nonnull
+  private static StandardBusinessDocument _readSBD (@Nonnull final AS4BulkMessage aMessage)
+  {
+    final AS4OutgoingAttachment aPayload = aMessage.getPayload ();
+    assertNotNull (aPayload);
+    assertTrue (aPayload.hasDataBytes ());
+    final StandardBusinessDocument aSBD = new SBDMarshaller ().read (aPayload.getDataBytes ().getAllBytes ());
+    assertNotNull (aSBD);
+    return aSBD;
+  }
+
+  @Test
+  public void testPrepareBulkMessageCreatesSBDH () throws Exception
+  {
+    final Phase4PeppolSender.PeppolUserMessageBuilder aBuilder = _createBuilder ();
+    final AS4BulkMessage aSource = new AS4BulkMessage ("msg-1",
+                                                       "conv-1",
+                                                       AS4OutgoingAttachment.builder ()
+                                                                            .data (SimpleFileIO.getAllFileBytes (INVOICE))
+                                                                            .mimeTypeXML ()
+                                                                            .build (),
+                                                       null);
+    final AS4BulkMessage aPrepared1 = aBuilder.prepareBulkMessage (aSource);
+    assertEquals ("msg-1", aPrepared1.getMessageID ());
+    assertEquals ("conv-1", aPrepared1.getConversationID ());
+
+    final StandardBusinessDocument aSBD1 = _readSBD (aPrepared1);
+    assertEquals ("9915:helger",
+                  aSBD1.getStandardBusinessDocumentHeader ().getReceiverAtIndex (0).getIdentifier ().getValue ());
+    assertEquals ("Invoice", ((Element) aSBD1.getAny ()).getLocalName ());
+
+    // Each bulk message gets its own SBDH instance identifier
+    final StandardBusinessDocument aSBD2 = _readSBD (aBuilder.prepareBulkMessage (aSource));
+    assertNotEquals (aSBD1.getStandardBusinessDocumentHeader ().getDocumentIdentification ().getInstanceIdentifier (),
+                     aSBD2.getStandardBusinessDocumentHeader ().getDocumentIdentification ().getInstanceIdentifier ());
+  }
+
+  @Test
+  public void testPrepareBulkMessageRejectsSBD () throws Exception
+  {
+    final Phase4PeppolSender.PeppolUserMessageBuilder aBuilder = _createBuilder ();
+    final AS4BulkMessage aSBDMessage = aBuilder.prepareBulkMessage (AS4BulkMessage.of (AS4OutgoingAttachment.builder ()
+                                                                                                            .data (INVOICE)
+                                                                                                            .mimeTypeXML ()
+                                                                                                            .build ()));
+    try
+    {
+      // An SBD must not be wrapped again
+      aBuilder.prepareBulkMessage (aSBDMessage);
+      fail ();
+    }
+    catch (final Phase4PeppolException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPrepareBulkMessageValidates () throws Exception
+  {
+    // Validate an Invoice against the Order rules
+    final Phase4PeppolSender.PeppolUserMessageBuilder aBuilder = _createBuilder ().validationConfiguration (PeppolValidation2024_05.VID_OPENPEPPOL_ORDER_V3);
+    try
+    {
+      aBuilder.prepareBulkMessage (AS4BulkMessage.of (AS4OutgoingAttachment.builder ()
+                                                                           .data (INVOICE)
+                                                                           .mimeTypeXML ()
+                                                                           .build ()));
+      fail ();
+    }
+    catch (final Phase4PeppolException ex)
+    {
+      // expected
+    }
+  }
+}
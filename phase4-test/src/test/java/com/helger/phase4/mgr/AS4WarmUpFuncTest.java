@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mgr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
+import com.helger.phase4.dump.AS4DumpManager;
+import com.helger.phase4.dump.IAS4IncomingDumper;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import com.helger.phase4.profile.IAS4Profile;
+import com.helger.phase4.server.AbstractAS4TestSetUp;
+import com.helger.phase4.server.MockJettySetup;
+import com.helger.phase4.server.spi.MockAS4IncomingMessageProcessingStatusSPI;
+import com.helger.phase4.test.profile.AS4TestProfileRegistarSPI;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.KeyStoreAndKeyDescriptor;
+
+/**
+ * Test class for class {@link AS4WarmUp} with a real AS4 profile.
+ *
+ * @author Philip Helger
+ */
+public final class AS4WarmUpFuncTest extends AbstractAS4TestSetUp
+{
+  @BeforeClass
+  public static void beforeClass () throws Exception
+  {
+    MockJettySetup.startServer ();
+  }
+
+  @AfterClass
+  public static void afterClass () throws Exception
+  {
+    MockJettySetup.shutDownServer ();
+  }
+
+  @Test
+  public void testWarmUpDoesNotTriggerDumperAndStatusSPIs () throws Exception
+  {
+    final IAS4Profile aProfile = MetaAS4Manager.getProfileMgr ()
+                                               .getProfileOfID (AS4TestProfileRegistarSPI.AS4_PROFILE_ID_MAY_SIGN_MAY_CRYPT);
+    assertNotNull (aProfile);
+
+    final AtomicInteger aDumpCount = new AtomicInteger (0);
+    final IAS4IncomingDumper aOldDumper = AS4DumpManager.getIncomingDumper ();
+    AS4DumpManager.setIncomingDumper (new IAS4IncomingDumper ()
+    {
+      @Nullable
+      public OutputStream onNewRequest (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                        @Nonnull final HttpHeaderMap aHttpHeaderMap)
+      {
+        aDumpCount.incrementAndGet ();
+        return null;
+      }
+
+      public void onEndRequest (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                @Nullable final Exception aCaughtException)
+      {
+        aDumpCount.incrementAndGet ();
+      }
+    });
+    try
+    {
+      final int nStarted = MockAS4IncomingMessageProcessingStatusSPI.getStarted ();
+      final int nEnded = MockAS4IncomingMessageProcessingStatusSPI.getEnded ();
+
+      // Throws an exception if the warm-up of the profile fails
+      AS4WarmUp.warmUpProfile (aProfile,
+                               new AS4CryptoFactoryInMemoryKeyStore (KeyStoreAndKeyDescriptor.builder ()
+                                                                                             .type (EKeyStoreType.JKS)
+                                                                                             .path ("keys/dummy-pw-test.jks")
+                                                                                             .password ("test")
+                                                                                             .keyAlias ("ph-as4")
+                                                                                             .keyPassword ("test")
+                                                                                             .build (),
+                                                                     null));
+
+      assertEquals (0, aDumpCount.get ());
+      assertEquals (nStarted, MockAS4IncomingMessageProcessingStatusSPI.getStarted ());
+      assertEquals (nEnded, MockAS4IncomingMessageProcessingStatusSPI.getEnded ());
+    }
+    finally
+    {
+      AS4DumpManager.setIncomingDumper (aOldDumper);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nonnull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
+import com.helger.phase4.ebms3header.Ebms3Property;
+import com.helger.phase4.incoming.mgr.AS4ProfileSelector;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.server.AbstractAS4TestSetUp;
+import com.helger.phase4.server.MockJettySetup;
+import com.helger.phase4.server.MockPModeGenerator;
+import com.helger.phase4.test.profile.AS4TestProfileRegistarSPI;
+import com.helger.phase4.util.Phase4Exception;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.KeyStoreAndKeyDescriptor;
+
+/**
+ * Test class for the bulk sending of {@link AbstractAS4UserMessageBuilder}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4BulkSendingTest extends AbstractAS4TestSetUp
+{
+  private static final String DEFAULT_AGREEMENT = "urn:as4:agreements:so-that-we-have-a-non-empty-value";
+  private static final String SERVER_URL = MockJettySetup.getServerAddressFromSettings ();
+
+  @BeforeClass
+  public static void beforeClass () throws Exception
+  {
+    MockJettySetup.startServer ();
+    AS4ProfileSelector.setCustomDefaultAS4ProfileID (AS4TestProfileRegistarSPI.AS4_PROFILE_ID_MAY_SIGN_MAY_CRYPT);
+  }
+
+  @AfterClass
+  public static void afterClass () throws Exception
+  {
+    AS4ProfileSelector.setCustomDefaultAS4ProfileID (null);
+    MockJettySetup.shutDownServer ();
+  }
+
+  /**
+   * A builder that fails the preparation of the messages with a specific
+   * message ID.
+   */
+  private static final class FailingBuilder extends AS4Sender.BuilderUserMessage
+  {
+    @Override
+    protected AS4BulkMessage prepareBulkMessage (@Nonnull final AS4BulkMessage aMessage) throws Phase4Exception
+    {
+      if ("fail".equals (aMessage.getMessageID ()))
+        throw new Phase4Exception ("Preparation failed");
+      return aMessage;
+    }
+  }
+
+  @Nonnull
+  private static <T extends AbstractAS4UserMessageBuilderMIMEPayload <T>> T _setup (@Nonnull final T aBuilder)
+  {
+    aBuilder.cryptoFactory (new AS4CryptoFactoryInMemoryKeyStore (KeyStoreAndKeyDescriptor.builder ()
+                                                                                          .type (EKeyStoreType.JKS)
+                                                                                          .path ("keys/dummy-pw-test.jks")
+                                                                                          .password ("test")
+                                                                                          .keyAlias ("ph-as4")
+                                                                                          .keyPassword ("test")
+                                                                                          .build (),
+                                                              null))
+            .as4ProfileID (AS4TestProfileRegistarSPI.AS4_PROFILE_ID_MAY_SIGN_MAY_CRYPT)
+            .soapVersion (ESoapVersion.SOAP_12)
+            .pmode (MockPModeGenerator.getTestPModeWithSecurity (ESoapVersion.SOAP_12))
+            .action ("AnAction")
+            .service ("MyServiceType", "OrderPaper")
+            .agreementRef (DEFAULT_AGREEMENT)
+            .fromRole (CAS4.DEFAULT_ROLE)
+            .fromPartyID ("MyPartyIDforSending")
+            .toRole (CAS4.DEFAULT_ROLE)
+            .toPartyID ("MyPartyIDforReceving")
+            .endpointURL (SERVER_URL);
+    for (final Ebms3Property aProp : AS4TestConstants.getEBMSProperties ())
+      aBuilder.addMessageProperty (aProp);
+    return aBuilder;
+  }
+
+  @Nonnull
+  private static AS4BulkMessage _createMessage (@Nonnull final String sMessageID)
+  {
+    // No payload, because the mock server echoes the attachments of the
+    // request in the Receipt signature
+    return new AS4BulkMessage (sMessageID, null, null, null);
+  }
+
+  @Test
+  public void testBulkSendingWithLimitedParallelism ()
+  {
+    final int nCount = 6;
+    final ICommonsList <AS4BulkMessage> aMessages = new CommonsArrayList <> ();
+    for (int i = 0; i < nCount; ++i)
+      aMessages.add (_createMessage ("bulk-" + i));
+
+    final AtomicInteger aSubmitted = new AtomicInteger (0);
+    final ExecutorService aPool = Executors.newCachedThreadPool ();
+    try
+    {
+      final ICommonsList <AS4BulkSendResult> aResults = _setup (AS4Sender.builderUserMessage ()).sendMessagesInBulk (aMessages,
+                                                                                                                   2,
+                                                                                                                   r -> {
+                                                                                                                     aSubmitted.incrementAndGet ();
+                                                                                                                     aPool.execute (r);
+                                                                                                                   },
+                                                                                                                   null)
+                                                                                                .collect (Collectors.toCollection (CommonsArrayList::new));
+      // Parallelism is bounded by the number of submitted workers
+      assertEquals (2, aSubmitted.get ());
+      assertEquals (nCount, aResults.size ());
+
+      final ICommonsSet <Integer> aIndices = new CommonsHashSet <> ();
+      for (final AS4BulkSendResult aResult : aResults)
+      {
+        assertTrue (aIndices.add (Integer.valueOf (aResult.getIndex ())));
+        assertEquals ("bulk-" + aResult.getIndex (), aResult.getMessageID ());
+        assertSame (aResult.toString (), EAS4UserMessageSendResult.SUCCESS, aResult.getResult ());
+        assertNull (aResult.getException ());
+      }
+    }
+    finally
+    {
+      aPool.shutdown ();
+    }
+  }
+
+  @Test
+  public void testSingleMessageFailureDoesNotStopOthers ()
+  {
+    final ICommonsList <AS4BulkMessage> aMessages = new CommonsArrayList <> (_createMessage ("ok-1"),
+                                                                            _createMessage ("fail"),
+                                                                            _createMessage ("ok-2"));
+    final AtomicInteger aExceptions = new AtomicInteger (0);
+    final ICommonsList <AS4BulkSendResult> aResults = _setup (new FailingBuilder ()).sendMessagesInBulk (aMessages,
+                                                                                                         3,
+                                                                                                         ex -> aExceptions.incrementAndGet ())
+                                                                                     .collect (Collectors.toCollection (CommonsArrayList::new));
+    assertEquals (3, aResults.size ());
+    assertEquals (1, aExceptions.get ());
+    for (final AS4BulkSendResult aResult : aResults)
+      if ("fail".equals (aResult.getMessageID ()))
+      {
+        assertSame (EAS4UserMessageSendResult.TRANSPORT_ERROR, aResult.getResult ());
+        assertNotNull (aResult.getException ());
+      }
+      else
+        assertSame (EAS4UserMessageSendResult.SUCCESS, aResult.getResult ());
+  }
+
+  @Test
+  public void testMissingFields ()
+  {
+    final AtomicInteger aSubmitted = new AtomicInteger (0);
+    // No endpoint URL
+    final ICommonsList <AS4BulkSendResult> aResults = _setup (AS4Sender.builderUserMessage ()).endpointURL (null)
+                                                                                              .sendMessagesInBulk (new CommonsArrayList <> (_createMessage ("a"),
+                                                                                                                                            _createMessage ("b")),
+                                                                                                                   2,
+                                                                                                                   r -> aSubmitted.incrementAndGet (),
+                                                                                                                   null)
+                                                                                              .collect (Collectors.toCollection (CommonsArrayList::new));
+    assertEquals (2, aResults.size ());
+    assertEquals (0, aSubmitted.get ());
+    for (final AS4BulkSendResult aResult : aResults)
+      assertSame (EAS4UserMessageSendResult.INVALID_PARAMETERS, aResult.getResult ());
+  }
+
+  @Test
+  public void testRejectingExecutor ()
+  {
+    try
+    {
+      _setup (AS4Sender.builderUserMessage ()).sendMessagesInBulk (new CommonsArrayList <> (_createMessage ("a")), 1, r -> {
+        throw new RejectedExecutionException ("Closed");
+      }, null);
+      fail ();
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.client.AS4ClientSentMessage;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.crypto.ECryptoAlgorithmCrypt;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * A simple closed-loop load generator: a configurable number of sender threads
+ * each send AS4 UserMessages with {@link AS4ClientUserMessage} to a receiver
+ * as fast as possible, until the total number of messages was sent. The
+ * payload of each message is picked from a weighted payload mix.
+ *
+ * @author Philip Helger
+ */
+public class AS4LoadGenerator
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4LoadGenerator.class);
+  private static final String DEFAULT_AGREEMENT = "urn:as4:agreements:so-that-we-have-a-non-empty-value";
+
+  private final String m_sServerURL;
+  private final ICommonsList <AS4LoadPayload> m_aPayloadMix = new CommonsArrayList <> ();
+  private final ICommonsList <File> m_aPayloadFiles = new CommonsArrayList <> ();
+  private File m_aPayloadDir = new File ("target/load-payloads");
+  private int m_nSenders = 4;
+  private int m_nMessages = 1000;
+  private IAS4CryptoFactory m_aCryptoFactory;
+  private String m_sCryptAlias;
+  private boolean m_bSign = true;
+  private boolean m_bEncrypt = true;
+  private ESoapVersion m_eSoapVersion = ESoapVersion.SOAP_12;
+
+  public AS4LoadGenerator (@Nonnull @Nonempty final String sServerURL)
+  {
+    ValueEnforcer.notEmpty (sServerURL, "ServerURL");
+    m_sServerURL = sServerURL;
+  }
+
+  @Nonnull
+  public final AS4LoadGenerator setPayloadDir (@Nonnull final File aPayloadDir)
+  {
+    ValueEnforcer.notNull (aPayloadDir, "PayloadDir");
+    m_aPayloadDir = aPayloadDir;
+    return this;
+  }
+
+  @Nonnull
+  public final AS4LoadGenerator addPayload (@Nonnull final AS4LoadPayload aPayload)
+  {
+    ValueEnforcer.notNull (aPayload, "Payload");
+    m_aPayloadMix.add (aPayload);
+    return this;
+  }
+
+  @Nonnull
+  public final AS4LoadGenerator setSenders (@Nonnegative final int nSenders)
+  {
+    ValueEnforcer.isGT0 (nSenders, "Senders");
+    m_nSenders = nSenders;
+    return this;
+  }
+
+  @Nonnull
+  public final AS4LoadGenerator setMessages (@Nonnegative final int nMessages)
+  {
+    ValueEnforcer.isGT0 (nMessages, "Messages");
+    m_nMessages = nMessages;
+    return this;
+  }
+
+  @Nonnull
+  public final AS4LoadGenerator setCryptoFactory (@Nullable final IAS4CryptoFactory aCryptoFactory,
+                                                  @Nullable final String sCryptAlias)
+  {
+    m_aCryptoFactory = aCryptoFactory;
+    m_sCryptAlias = sCryptAlias;
+    return this;
+  }
+
+  @Nonnull
+  public final AS4LoadGenerator setSign (final boolean bSign)
+  {
+    m_bSign = bSign;
+    return this;
+  }
+
+  @Nonnull
+  public final AS4LoadGenerator setEncrypt (final boolean bEncrypt)
+  {
+    m_bEncrypt = bEncrypt;
+    return this;
+  }
+
+  @Nonnull
+  public final AS4LoadGenerator setSoapVersion (@Nonnull final ESoapVersion eSoapVersion)
+  {
+    ValueEnforcer.notNull (eSoapVersion, "SoapVersion");
+    m_eSoapVersion = eSoapVersion;
+    return this;
+  }
+
+  @Nonnegative
+  private int _pickPayloadIndex ()
+  {
+    int nTotalWeight = 0;
+    for (final AS4LoadPayload aPayload : m_aPayloadMix)
+      nTotalWeight += aPayload.getWeight ();
+
+    int nPick = ThreadLocalRandom.current ().nextInt (nTotalWeight);
+    for (int i = 0; i < m_aPayloadMix.size (); ++i)
+    {
+      nPick -= m_aPayloadMix.get (i).getWeight ();
+      if (nPick < 0)
+        return i;
+    }
+    throw new IllegalStateException ("Failed to pick a payload");
+  }
+
+  private void _sendOne (@Nonnull final AS4LoadStatistics aStats) throws Exception
+  {
+    final int nPayloadIndex = _pickPayloadIndex ();
+    final AS4LoadPayload aPayload = m_aPayloadMix.get (nPayloadIndex);
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientUserMessage aClient = new AS4ClientUserMessage (aResHelper);
+      aClient.setSoapVersion (m_eSoapVersion);
+      aClient.setAction ("AnAction");
+      aClient.setServiceType ("MyServiceType");
+      aClient.setServiceValue ("OrderPaper");
+      aClient.setConversationID (MessageHelperMethods.createRandomConversationID ());
+      aClient.setAgreementRefValue (DEFAULT_AGREEMENT);
+      aClient.setFromRole (CAS4.DEFAULT_ROLE);
+      aClient.setFromPartyID ("MyPartyIDforSending");
+      aClient.setToRole (CAS4.DEFAULT_ROLE);
+      aClient.setToPartyID ("MyPartyIDforReceving");
+      aClient.ebms3Properties ().setAll (AS4TestConstants.getEBMSProperties ());
+      aClient.addAttachment (m_aPayloadFiles.get (nPayloadIndex),
+                             aPayload.getMimeType (),
+                             aPayload.getCompressionMode ());
+
+      if (m_aCryptoFactory != null)
+      {
+        aClient.setCryptoFactory (m_aCryptoFactory);
+        aClient.cryptParams ().setAlias (m_sCryptAlias);
+      }
+      if (m_bSign)
+        aClient.signingParams ()
+               .setAlgorithmSign (ECryptoAlgorithmSign.RSA_SHA_256)
+               .setAlgorithmSignDigest (ECryptoAlgorithmSignDigest.DIGEST_SHA_256);
+      if (m_bEncrypt)
+        aClient.cryptParams ().setAlgorithmCrypt (ECryptoAlgorithmCrypt.AES_128_GCM);
+
+      final long nStart = System.nanoTime ();
+      final AS4ClientSentMessage <byte []> aSent = aClient.sendMessageWithRetries (m_sServerURL,
+                                                                                  new ResponseHandlerByteArray (),
+                                                                                  null,
+                                                                                  null,
+                                                                                  null);
+      final long nDuration = System.nanoTime () - nStart;
+
+      final byte [] aResponse = aSent.getResponseContent ();
+      if (aResponse != null &&
+          new String (aResponse, StandardCharsets.UTF_8).contains (AS4TestConstants.RECEIPT_ASSERTCHECK))
+        aStats.onSuccess (nDuration, aPayload.getSizeBytes ());
+      else
+      {
+        aStats.onFailure ();
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Message '" + aSent.getMessageID () + "' was not answered with a Receipt");
+      }
+    }
+  }
+
+  /**
+   * Run the load test with the current settings.
+   *
+   * @return The collected statistics. Never <code>null</code>.
+   * @throws IOException
+   *         If the payload files cannot be created
+   * @throws InterruptedException
+   *         If waiting for the senders gets interrupted
+   */
+  @Nonnull
+  public AS4LoadStatistics run () throws IOException, InterruptedException
+  {
+    if (m_aPayloadMix.isEmpty ())
+      throw new IllegalStateException ("No payload mix was defined");
+
+    // Create all payload files upfront, so that this is not part of the
+    // measurement
+    m_aPayloadFiles.clear ();
+    for (final AS4LoadPayload aPayload : m_aPayloadMix)
+      m_aPayloadFiles.add (aPayload.createFile (m_aPayloadDir));
+
+    LOGGER.info ("Starting load test with " +
+                 m_nSenders +
+                 " senders and " +
+                 m_nMessages +
+                 " messages against '" +
+                 m_sServerURL +
+                 "'");
+
+    final AS4LoadStatistics aStats = new AS4LoadStatistics ();
+    final AtomicInteger aRemaining = new AtomicInteger (m_nMessages);
+    final ScheduledExecutorService aSampler = Executors.newSingleThreadScheduledExecutor ();
+    final ExecutorService aSenders = Executors.newFixedThreadPool (m_nSenders);
+    try
+    {
+      aStats.onStart ();
+      aSampler.scheduleAtFixedRate (aStats::sampleResources, 0, 100, TimeUnit.MILLISECONDS);
+      for (int i = 0; i < m_nSenders; ++i)
+        aSenders.submit ( () -> {
+          while (aRemaining.getAndDecrement () > 0)
+          {
+            try
+            {
+              _sendOne (aStats);
+            }
+            catch (final Exception ex)
+            {
+              aStats.onFailure ();
+              LOGGER.warn ("Failed to send load test message: " + ex.getClass ().getName () + " - " + ex.getMessage ());
+            }
+          }
+        });
+      aSenders.shutdown ();
+      aSenders.awaitTermination (1, TimeUnit.DAYS);
+    }
+    finally
+    {
+      aStats.onEnd ();
+      aSenders.shutdownNow ();
+      aSampler.shutdownNow ();
+    }
+    return aStats;
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+
+/**
+ * A single entry of the payload mix used by {@link AS4LoadGenerator}. Each
+ * payload has a relative weight, a size in bytes, a MIME type and an optional
+ * compression mode. XML payloads are filled with repeating (compressible)
+ * content, all other payloads are filled with pseudo random (incompressible)
+ * bytes.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class AS4LoadPayload
+{
+  private final String m_sName;
+  private final int m_nWeight;
+  private final long m_nSizeBytes;
+  private final IMimeType m_aMimeType;
+  private final EAS4CompressionMode m_eCompressionMode;
+
+  public AS4LoadPayload (@Nonnull @Nonempty final String sName,
+                         @Nonnegative final int nWeight,
+                         @Nonnegative final long nSizeBytes,
+                         @Nonnull final IMimeType aMimeType,
+                         @Nullable final EAS4CompressionMode eCompressionMode)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.isGT0 (nWeight, "Weight");
+    ValueEnforcer.isGT0 (nSizeBytes, "SizeBytes");
+    ValueEnforcer.notNull (aMimeType, "MimeType");
+    m_sName = sName;
+    m_nWeight = nWeight;
+    m_nSizeBytes = nSizeBytes;
+    m_aMimeType = aMimeType;
+    m_eCompressionMode = eCompressionMode;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getName ()
+  {
+    return m_sName;
+  }
+
+  @Nonnegative
+  public int getWeight ()
+  {
+    return m_nWeight;
+  }
+
+  @Nonnegative
+  public long getSizeBytes ()
+  {
+    return m_nSizeBytes;
+  }
+
+  @Nonnull
+  public IMimeType getMimeType ()
+  {
+    return m_aMimeType;
+  }
+
+  @Nullable
+  public EAS4CompressionMode getCompressionMode ()
+  {
+    return m_eCompressionMode;
+  }
+
+  private boolean _isXML ()
+  {
+    return m_aMimeType.getAsString ().endsWith ("xml");
+  }
+
+  /**
+   * Create the payload file in the provided directory. If the file is already
+   * present with the correct size, it is reused.
+   *
+   * @param aDir
+   *        The target directory. May not be <code>null</code>.
+   * @return The created file. Never <code>null</code>.
+   * @throws IOException
+   *         In case writing fails
+   */
+  @Nonnull
+  public File createFile (@Nonnull final File aDir) throws IOException
+  {
+    FileHelper.ensureParentDirectoryIsPresent (new File (aDir, "x"));
+    final File aFile = new File (aDir, "load-" + m_sName + "-" + m_nSizeBytes + (_isXML () ? ".xml" : ".bin"));
+    if (aFile.isFile () && aFile.length () == m_nSizeBytes)
+      return aFile;
+
+    final Random aRandom = new Random (m_nSizeBytes);
+    try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aFile))
+    {
+      if (aOS == null)
+        throw new IOException ("Failed to open '" + aFile.getAbsolutePath () + "' for writing");
+
+      long nRemaining = m_nSizeBytes;
+      if (_isXML ())
+      {
+        final byte [] aHead = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><load>".getBytes (StandardCharsets.UTF_8);
+        final byte [] aTail = "</load>".getBytes (StandardCharsets.UTF_8);
+        final byte [] aItem = "<item id=\"42\">Load test content</item>".getBytes (StandardCharsets.UTF_8);
+        aOS.write (aHead);
+        nRemaining -= aHead.length + aTail.length;
+        while (nRemaining >= aItem.length)
+        {
+          aOS.write (aItem);
+          nRemaining -= aItem.length;
+        }
+        // Pad with whitespace to reach the exact size
+        while (nRemaining-- > 0)
+          aOS.write (' ');
+        aOS.write (aTail);
+      }
+      else
+      {
+        final byte [] aBuf = new byte [StreamHelper.DEFAULT_BUFSIZE];
+        while (nRemaining > 0)
+        {
+          aRandom.nextBytes (aBuf);
+          final int nLen = (int) Math.min (aBuf.length, nRemaining);
+          aOS.write (aBuf, 0, nLen);
+          nRemaining -= nLen;
+        }
+      }
+    }
+    return aFile;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Name", m_sName)
+                                       .append ("Weight", m_nWeight)
+                                       .append ("SizeBytes", m_nSizeBytes)
+                                       .append ("MimeType", m_aMimeType)
+                                       .append ("CompressionMode", m_eCompressionMode)
+                                       .getToString ();
+  }
+
+  /**
+   * Parse a payload mix definition. The syntax is a comma separated list of
+   * entries in the form <code>name:weight:size[:mimeType[:gzip]]</code>, e.g.
+   * <code>small:80:4096,large:20:1048576:application/octet-stream:gzip</code>.
+   * The size may use the suffixes <code>k</code> and <code>m</code>.
+   *
+   * @param sMix
+   *        The mix definition. May not be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list.
+   * @throws IllegalArgumentException
+   *         if the definition is invalid
+   */
+  @Nonnull
+  public static ICommonsList <AS4LoadPayload> parseMix (@Nonnull final String sMix)
+  {
+    final ICommonsList <AS4LoadPayload> ret = new CommonsArrayList <> ();
+    for (final String sEntry : StringHelper.getExplodedArray (',', sMix))
+    {
+      if (StringHelper.hasNoText (sEntry))
+        continue;
+      final String [] aParts = StringHelper.getExplodedArray (':', sEntry.trim ());
+      if (aParts.length < 3)
+        throw new IllegalArgumentException ("Invalid payload mix entry '" + sEntry + "'");
+
+      final String sSize = aParts[2].trim ().toLowerCase ();
+      final long nSize;
+      if (sSize.endsWith ("m"))
+        nSize = Long.parseLong (sSize.substring (0, sSize.length () - 1)) * 1024 * 1024;
+      else
+        if (sSize.endsWith ("k"))
+          nSize = Long.parseLong (sSize.substring (0, sSize.length () - 1)) * 1024;
+        else
+          nSize = Long.parseLong (sSize);
+
+      final IMimeType aMimeType = aParts.length > 3 ? MimeTypeParser.safeParseMimeType (aParts[3].trim ())
+                                                    : CMimeType.APPLICATION_XML;
+      if (aMimeType == null)
+        throw new IllegalArgumentException ("Invalid MIME type in payload mix entry '" + sEntry + "'");
+
+      final boolean bGZip = aParts.length > 4 && "gzip".equalsIgnoreCase (aParts[4].trim ());
+      final EAS4CompressionMode eCompression = bGZip ? EAS4CompressionMode.GZIP : null;
+      ret.add (new AS4LoadPayload (aParts[0].trim (),
+                                   Integer.parseInt (aParts[1].trim ()),
+                                   nSize,
+                                   aMimeType,
+                                   eCompression));
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileSystemIterator;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Thread-safe collector for the results of a single load test run. Latencies
+ * are kept in nanoseconds and converted to milliseconds for reporting. GC
+ * figures are deltas between {@link #onStart()} and {@link #onEnd()}, temp file
+ * and heap figures are the peaks seen by {@link #sampleResources()}.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class AS4LoadStatistics
+{
+  private static final String TEMP_FILE_PREFIX = "phase4-res-";
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private long [] m_aLatencies = new long [1024];
+  @GuardedBy ("m_aLock")
+  private int m_nLatencyCount = 0;
+
+  private final AtomicInteger m_aSuccess = new AtomicInteger (0);
+  private final AtomicInteger m_aFailure = new AtomicInteger (0);
+  private final AtomicLong m_aPayloadBytes = new AtomicLong (0);
+  private final AtomicInteger m_aMaxTempFiles = new AtomicInteger (0);
+  private final AtomicLong m_aMaxTempBytes = new AtomicLong (0);
+  private final AtomicLong m_aMaxHeapUsed = new AtomicLong (0);
+
+  private long m_nStartNanos;
+  private long m_nEndNanos;
+  private long m_nGCCountStart;
+  private long m_nGCTimeStart;
+  private long m_nGCCount;
+  private long m_nGCTime;
+
+  private static long _getGCCount ()
+  {
+    long ret = 0;
+    for (final GarbageCollectorMXBean aGC : ManagementFactory.getGarbageCollectorMXBeans ())
+      ret += Math.max (0, aGC.getCollectionCount ());
+    return ret;
+  }
+
+  private static long _getGCTimeMillis ()
+  {
+    long ret = 0;
+    for (final GarbageCollectorMXBean aGC : ManagementFactory.getGarbageCollectorMXBeans ())
+      ret += Math.max (0, aGC.getCollectionTime ());
+    return ret;
+  }
+
+  @Nonnull
+  private static File _getTempDir ()
+  {
+    final File aDir = AS4ResourceHelper.getTempDir ();
+    return aDir != null ? aDir : new File (System.getProperty ("java.io.tmpdir"));
+  }
+
+  public void onStart ()
+  {
+    m_nGCCountStart = _getGCCount ();
+    m_nGCTimeStart = _getGCTimeMillis ();
+    m_nStartNanos = System.nanoTime ();
+  }
+
+  public void onEnd ()
+  {
+    m_nEndNanos = System.nanoTime ();
+    m_nGCCount = _getGCCount () - m_nGCCountStart;
+    m_nGCTime = _getGCTimeMillis () - m_nGCTimeStart;
+  }
+
+  /**
+   * Take a sample of the resource usage: number and size of phase4 temporary
+   * files and the used heap memory. Only the peak values are kept.
+   */
+  public void sampleResources ()
+  {
+    int nFiles = 0;
+    long nBytes = 0;
+    for (final File aFile : new FileSystemIterator (_getTempDir ()))
+      if (aFile.getName ().startsWith (TEMP_FILE_PREFIX))
+      {
+        nFiles++;
+        nBytes += aFile.length ();
+      }
+    m_aMaxTempFiles.accumulateAndGet (nFiles, Math::max);
+    m_aMaxTempBytes.accumulateAndGet (nBytes, Math::max);
+
+    final long nHeapUsed = ManagementFactory.getMemoryMXBean ().getHeapMemoryUsage ().getUsed ();
+    m_aMaxHeapUsed.accumulateAndGet (nHeapUsed, Math::max);
+  }
+
+  public void onSuccess (@Nonnegative final long nLatencyNanos, @Nonnegative final long nPayloadBytes)
+  {
+    m_aSuccess.incrementAndGet ();
+    m_aPayloadBytes.addAndGet (nPayloadBytes);
+    m_aLock.locked ( () -> {
+      if (m_nLatencyCount == m_aLatencies.length)
+        m_aLatencies = Arrays.copyOf (m_aLatencies, m_aLatencies.length * 2);
+      m_aLatencies[m_nLatencyCount++] = nLatencyNanos;
+    });
+  }
+
+  public void onFailure ()
+  {
+    m_aFailure.incrementAndGet ();
+  }
+
+  @Nonnegative
+  public int getSuccessCount ()
+  {
+    return m_aSuccess.get ();
+  }
+
+  @Nonnegative
+  public int getFailureCount ()
+  {
+    return m_aFailure.get ();
+  }
+
+  @Nonnegative
+  public long getDurationMillis ()
+  {
+    return (m_nEndNanos - m_nStartNanos) / 1_000_000L;
+  }
+
+  /**
+   * @return Successfully sent messages per second.
+   */
+  public double getThroughput ()
+  {
+    final long nDurationNanos = m_nEndNanos - m_nStartNanos;
+    if (nDurationNanos <= 0)
+      return 0;
+    return m_aSuccess.get () * 1_000_000_000d / nDurationNanos;
+  }
+
+  /**
+   * Get the latency for the provided percentile.
+   *
+   * @param dPercentile
+   *        The percentile between 0 and 100, e.g. 99.9
+   * @return The latency in milliseconds or 0 if no message was sent.
+   */
+  public double getLatencyPercentileMillis (final double dPercentile)
+  {
+    final long [] aSorted = m_aLock.lockedGet ( () -> Arrays.copyOf (m_aLatencies, m_nLatencyCount));
+    if (aSorted.length == 0)
+      return 0;
+    Arrays.sort (aSorted);
+    // Nearest rank method
+    final int nRank = (int) Math.ceil (dPercentile / 100d * aSorted.length);
+    final int nIndex = Math.min (aSorted.length - 1, Math.max (0, nRank - 1));
+    return aSorted[nIndex] / 1_000_000d;
+  }
+
+  public long getGCCount ()
+  {
+    return m_nGCCount;
+  }
+
+  public long getGCTimeMillis ()
+  {
+    return m_nGCTime;
+  }
+
+  public int getMaxTempFiles ()
+  {
+    return m_aMaxTempFiles.get ();
+  }
+
+  public long getMaxTempBytes ()
+  {
+    return m_aMaxTempBytes.get ();
+  }
+
+  @Nonnull
+  public String getAsReport ()
+  {
+    final long nDurationMillis = getDurationMillis ();
+    final double dPayloadMB = m_aPayloadBytes.get () / 1024d / 1024d;
+    final double dPayloadMBPerSec = nDurationMillis == 0 ? 0 : dPayloadMB * 1000d / nDurationMillis;
+
+    final StringBuilder aSB = new StringBuilder ();
+    aSB.append ("Messages: ")
+       .append (m_aSuccess.get ())
+       .append (" ok, ")
+       .append (m_aFailure.get ())
+       .append (" failed in ")
+       .append (nDurationMillis)
+       .append (" ms\n");
+    aSB.append (String.format ("Throughput: %.1f msg/s, %.2f MB/s payload%n",
+                               Double.valueOf (getThroughput ()),
+                               Double.valueOf (dPayloadMBPerSec)));
+    aSB.append (String.format ("Latency: p50=%.2f ms, p99=%.2f ms, p999=%.2f ms, max=%.2f ms%n",
+                               Double.valueOf (getLatencyPercentileMillis (50)),
+                               Double.valueOf (getLatencyPercentileMillis (99)),
+                               Double.valueOf (getLatencyPercentileMillis (99.9)),
+                               Double.valueOf (getLatencyPercentileMillis (100))));
+    aSB.append ("GC: ")
+       .append (m_nGCCount)
+       .append (" collections, ")
+       .append (m_nGCTime)
+       .append (" ms; peak heap used ")
+       .append (m_aMaxHeapUsed.get () / 1024 / 1024)
+       .append (" MB\n");
+    aSB.append ("Temp files: peak ")
+       .append (m_aMaxTempFiles.get ())
+       .append (" files with ")
+       .append (m_aMaxTempBytes.get () / 1024)
+       .append (" KB");
+    return aSB.toString ();
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.phase4.ScopedAS4Configuration;
+import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
+import com.helger.phase4.incoming.mgr.AS4ProfileSelector;
+import com.helger.phase4.server.MockJettySetup;
+import com.helger.phase4.server.MockPModeGenerator;
+import com.helger.phase4.test.profile.AS4TestProfileRegistarSPI;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.IKeyStoreAndKeyDescriptor;
+import com.helger.security.keystore.KeyStoreAndKeyDescriptor;
+
+/**
+ * Start an in-JVM Jetty AS4 receiver on the loopback interface (as configured
+ * in <code>test-phase4.properties</code>) and drive it with
+ * {@link AS4LoadGenerator}. Everything runs offline. The following system
+ * properties can be used to customize the run:
+ * <ul>
+ * <li><code>phase4.load.senders</code> - number of concurrent senders (default
+ * 8)</li>
+ * <li><code>phase4.load.messages</code> - number of measured messages (default
+ * 2000)</li>
+ * <li><code>phase4.load.warmup</code> - number of warm-up messages that are
+ * not measured (default 200)</li>
+ * <li><code>phase4.load.mix</code> - the payload mix as defined by
+ * {@link AS4LoadPayload#parseMix(String)}</li>
+ * <li><code>phase4.load.sign</code> and <code>phase4.load.encrypt</code> -
+ * enable signing and encryption (default true)</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4LoadTest
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4LoadTest.class);
+  private static final String DEFAULT_MIX = "small:70:4k,medium:25:100k:application/xml:gzip,large:5:2m:application/octet-stream";
+
+  private MainAS4LoadTest ()
+  {}
+
+  public static void main (final String [] args) throws Exception
+  {
+    final int nSenders = Integer.getInteger ("phase4.load.senders", 8).intValue ();
+    final int nMessages = Integer.getInteger ("phase4.load.messages", 2000).intValue ();
+    final int nWarmup = Integer.getInteger ("phase4.load.warmup", 200).intValue ();
+    final String sMix = System.getProperty ("phase4.load.mix", DEFAULT_MIX);
+    final boolean bSign = Boolean.parseBoolean (System.getProperty ("phase4.load.sign", "true"));
+    final boolean bEncrypt = Boolean.parseBoolean (System.getProperty ("phase4.load.encrypt", "true"));
+
+    try (final ScopedAS4Configuration aSC = ScopedAS4Configuration.createTestConfig ())
+    {
+      MockJettySetup.startServer ();
+      try
+      {
+        MockPModeGenerator.ensureMockPModesArePresent ();
+        AS4ProfileSelector.setCustomDefaultAS4ProfileID (AS4TestProfileRegistarSPI.AS4_PROFILE_ID_MAY_SIGN_MAY_CRYPT);
+
+        final AS4LoadGenerator aGenerator = new AS4LoadGenerator (MockJettySetup.getServerAddressFromSettings ());
+        aGenerator.setSenders (nSenders).setSign (bSign).setEncrypt (bEncrypt);
+        if (bSign || bEncrypt)
+        {
+          // Same key store as used by the server
+          final IKeyStoreAndKeyDescriptor aKSD = KeyStoreAndKeyDescriptor.builder ()
+                                                                         .type (EKeyStoreType.JKS)
+                                                                         .path ("keys/dummy-pw-test.jks")
+                                                                         .password ("test")
+                                                                         .keyAlias ("ph-as4")
+                                                                         .keyPassword ("test")
+                                                                         .build ();
+          aGenerator.setCryptoFactory (new AS4CryptoFactoryInMemoryKeyStore (aKSD, null), aKSD.getKeyAlias ());
+        }
+        for (final AS4LoadPayload aPayload : AS4LoadPayload.parseMix (sMix))
+          aGenerator.addPayload (aPayload);
+
+        if (nWarmup > 0)
+        {
+          LOGGER.info ("Warming up with " + nWarmup + " messages");
+          aGenerator.setMessages (nWarmup).run ();
+        }
+
+        final AS4LoadStatistics aStats = aGenerator.setMessages (nMessages).run ();
+        LOGGER.info ("Load test results (" +
+                     nSenders +
+                     " senders, sign=" +
+                     bSign +
+                     ", encrypt=" +
+                     bEncrypt +
+                     ", mix=" +
+                     sMix +
+                     "):\n" +
+                     aStats.getAsReport ());
+      }
+      finally
+      {
+        AS4ProfileSelector.setCustomDefaultAS4ProfileID (null);
+        MockJettySetup.shutDownServer ();
+      }
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hc.core5.http.HttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ScopedAS4Configuration;
+import com.helger.phase4.attachment.AS4AttachmentMemoryBudget;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.client.AS4ClientBuiltMessage;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
+import com.helger.phase4.crypto.ECryptoAlgorithmCrypt;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.util.AS4ByteArrayPool;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.scope.mgr.ScopeManager;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.IKeyStoreAndKeyDescriptor;
+import com.helger.security.keystore.KeyStoreAndKeyDescriptor;
+
+/**
+ * Micro benchmark for the outgoing attachment pipeline (compression, signing,
+ * encryption and MIME serialization) without any network. Each payload size
+ * is run once with the default attachment memory budget (pooled in-memory
+ * buffers) and once with a budget of 0 (temporary files), to compare the
+ * throughput and the number of temporary files created per message. The
+ * following system properties can be used to customize the run:
+ * <ul>
+ * <li><code>phase4.bench.messages</code> - number of measured messages per
+ * payload and mode (default 500)</li>
+ * <li><code>phase4.bench.warmup</code> - number of warm-up messages per
+ * payload and mode (default 50)</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4OutgoingAttachmentBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4OutgoingAttachmentBenchmark.class);
+  private static final String PAYLOADS = "small:1:5k:application/xml:gzip,medium:1:50k:application/xml:gzip,large:1:100k:application/xml:gzip";
+
+  private MainAS4OutgoingAttachmentBenchmark ()
+  {}
+
+  /**
+   * Build, sign, encrypt and serialize a single message, the same way
+   * <code>AbstractAS4Client</code> does it when retries are enabled.
+   *
+   * @return The number of temporary files created for this message
+   */
+  private static int _buildOne (@Nonnull final File aPayloadFile,
+                                @Nonnull final AS4LoadPayload aPayload,
+                                @Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                @Nonnull final String sAlias) throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientUserMessage aClient = new AS4ClientUserMessage (aResHelper);
+      aClient.setAction ("AnAction");
+      aClient.setServiceType ("MyServiceType");
+      aClient.setServiceValue ("OrderPaper");
+      aClient.setConversationID (MessageHelperMethods.createRandomConversationID ());
+      aClient.setAgreementRefValue ("urn:as4:agreements:so-that-we-have-a-non-empty-value");
+      aClient.setFromRole (CAS4.DEFAULT_ROLE);
+      aClient.setFromPartyID ("MyPartyIDforSending");
+      aClient.setToRole (CAS4.DEFAULT_ROLE);
+      aClient.setToPartyID ("MyPartyIDforReceving");
+      aClient.ebms3Properties ().setAll (AS4TestConstants.getEBMSProperties ());
+      aClient.addAttachment (aPayloadFile, aPayload.getMimeType (), aPayload.getCompressionMode ());
+      aClient.setCryptoFactory (aCryptoFactory);
+      aClient.cryptParams ().setAlias (sAlias);
+      aClient.signingParams ()
+             .setAlgorithmSign (ECryptoAlgorithmSign.RSA_SHA_256)
+             .setAlgorithmSignDigest (ECryptoAlgorithmSignDigest.DIGEST_SHA_256);
+      aClient.cryptParams ().setAlgorithmCrypt (ECryptoAlgorithmCrypt.AES_128_GCM);
+
+      final AS4ClientBuiltMessage aBuilt = aClient.buildMessage (MessageHelperMethods.createRandomMessageID (),
+                                                                 null);
+      final HttpEntity aEntity = aResHelper.createRepeatableHttpEntity (aBuilt.getHttpEntity ());
+      aEntity.writeTo (OutputStream.nullOutputStream ());
+      return aResHelper.getAllTempFiles ().size ();
+    }
+  }
+
+  private static void _run (@Nonnull final String sMode,
+                            @Nonnull final File aPayloadFile,
+                            @Nonnull final AS4LoadPayload aPayload,
+                            @Nonnull final IAS4CryptoFactory aCryptoFactory,
+                            @Nonnull final String sAlias,
+                            final int nWarmup,
+                            final int nMessages) throws Exception
+  {
+    for (int i = 0; i < nWarmup; ++i)
+      _buildOne (aPayloadFile, aPayload, aCryptoFactory, sAlias);
+
+    long nTempFiles = 0;
+    final long nStart = System.nanoTime ();
+    for (int i = 0; i < nMessages; ++i)
+      nTempFiles += _buildOne (aPayloadFile, aPayload, aCryptoFactory, sAlias);
+    final long nDurationNanos = System.nanoTime () - nStart;
+
+    final double dOpsPerSec = nMessages * 1_000_000_000d / nDurationNanos;
+    LOGGER.info (String.format ("%-6s %-6s %8.1f msg/s  %5.2f temp files/msg",
+                                aPayload.getName (),
+                                sMode,
+                                Double.valueOf (dOpsPerSec),
+                                Double.valueOf ((double) nTempFiles / nMessages)));
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final int nMessages = Integer.getInteger ("phase4.bench.messages", 500).intValue ();
+    final int nWarmup = Integer.getInteger ("phase4.bench.warmup", 50).intValue ();
+
+    ScopeManager.onGlobalBegin ("phase4-bench");
+    try (final ScopedAS4Configuration aSC = ScopedAS4Configuration.createTestConfig ())
+    {
+      final IKeyStoreAndKeyDescriptor aKSD = KeyStoreAndKeyDescriptor.builder ()
+                                                                     .type (EKeyStoreType.JKS)
+                                                                     .path ("keys/dummy-pw-test.jks")
+                                                                     .password ("test")
+                                                                     .keyAlias ("ph-as4")
+                                                                     .keyPassword ("test")
+                                                                     .build ();
+      final IAS4CryptoFactory aCryptoFactory = new AS4CryptoFactoryInMemoryKeyStore (aKSD, null);
+      final File aPayloadDir = new File ("target/bench-payloads");
+
+      final AS4AttachmentMemoryBudget aDefaultBudget = WSS4JAttachment.getMemoryBudget ();
+      try
+      {
+        for (final AS4LoadPayload aPayload : AS4LoadPayload.parseMix (PAYLOADS))
+        {
+          final File aPayloadFile = aPayload.createFile (aPayloadDir);
+
+          WSS4JAttachment.setMemoryBudget (aDefaultBudget);
+          _run ("memory", aPayloadFile, aPayload, aCryptoFactory, aKSD.getKeyAlias (), nWarmup, nMessages);
+
+          WSS4JAttachment.setMemoryBudget (new AS4AttachmentMemoryBudget (0, 0));
+          _run ("file", aPayloadFile, aPayload, aCryptoFactory, aKSD.getKeyAlias (), nWarmup, nMessages);
+        }
+      }
+      finally
+      {
+        WSS4JAttachment.setMemoryBudget (aDefaultBudget);
+      }
+
+      final AS4ByteArrayPool aPool = AS4ByteArrayPool.getDefaultInstance ();
+      LOGGER.info ("Byte array pool: " + aPool.getHitCount () + " hits, " + aPool.getMissCount () + " misses");
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+  }
+}